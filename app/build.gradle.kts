@@ -59,17 +59,24 @@ dependencies {
     implementation("org.springframework.boot:spring-boot-starter-validation")
     implementation("org.springframework.boot:spring-boot-starter-jdbc")
     implementation("org.springframework.boot:spring-boot-starter-actuator")
+    runtimeOnly("io.micrometer:micrometer-registry-prometheus")
     implementation("org.springdoc:springdoc-openapi-starter-webmvc-api:2.3.0")
 
     implementation("com.fasterxml.jackson.datatype:jackson-datatype-hibernate6")
     implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-protobuf")
 
     implementation(project(":libs:core"))
+    implementation(project(":libs:extensions:traccar"))
     implementation(project(":libs:util"))
 
     implementation("jakarta.persistence:jakarta.persistence-api")
+    implementation("javax.cache:cache-api")
     implementation("com.google.guava:guava")
     annotationProcessor("org.springframework.boot:spring-boot-configuration-processor")
+
+    testImplementation("org.assertj:assertj-core")
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testImplementation("org.springframework:spring-test")
 }
 
 springBoot {
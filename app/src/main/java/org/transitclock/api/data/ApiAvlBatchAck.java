@@ -0,0 +1,44 @@
+/* (C)2023 */
+package org.transitclock.api.data;
+
+import org.transitclock.core.avl.ingest.AvlBatchResult;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+/**
+ * The acknowledgement for a batch of pushed AVL reports
+ */
+@Data
+public class ApiAvlBatchAck {
+    @JsonProperty
+    private boolean success;
+
+    @JsonProperty
+    private String message;
+
+    @JsonProperty
+    private int received;
+
+    @JsonProperty
+    private int accepted;
+
+    @JsonProperty
+    private int shed;
+
+    @JsonProperty
+    private int rejected;
+
+    @JsonProperty
+    private int coalesced;
+
+    public ApiAvlBatchAck(AvlBatchResult result) {
+        this.success = true;
+        this.message = "AVL batch processed";
+        this.received = result.received();
+        this.accepted = result.accepted();
+        this.shed = result.shed();
+        this.rejected = result.rejected();
+        this.coalesced = result.coalesced();
+    }
+}
@@ -7,18 +7,50 @@ import org.transitclock.service.contract.PredictionsService;
 import org.transitclock.service.contract.VehiclesService;
 
 import com.google.transit.realtime.GtfsRealtime;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Component;
 
+/**
+ * Caches the GTFS-realtime feed messages for transitclock.api.gtfsRtCacheSeconds so that they
+ * aren't rebuilt for every request. How long the rebuilds take is measured in the
+ * transitclock.api.feed.build metric, and whether requests were served from the cache in
+ * transitclock.api.feed.requests, both tagged by feed.
+ */
 @Component
 public class FeedCacheManager {
     private final DataCache vehicleFeedDataCache;
     private final DataCache tripFeedDataCache;
     private final ApiProperties apiProperties;
+    private final FeedMeters vehicleFeedMeters;
+    private final FeedMeters tripFeedMeters;
 
-    public FeedCacheManager(ApiProperties apiProperties) {
+    private record FeedMeters(Counter hits, Counter misses, Timer buildTime) {
+        static FeedMeters register(String feed, MeterRegistry meterRegistry) {
+            return new FeedMeters(
+                    Counter.builder("transitclock.api.feed.requests")
+                            .description("Requests for a GTFS-realtime feed by whether it was cached")
+                            .tags("feed", feed, "result", "hit")
+                            .register(meterRegistry),
+                    Counter.builder("transitclock.api.feed.requests")
+                            .description("Requests for a GTFS-realtime feed by whether it was cached")
+                            .tags("feed", feed, "result", "miss")
+                            .register(meterRegistry),
+                    Timer.builder("transitclock.api.feed.build")
+                            .description("Time to build a GTFS-realtime feed message")
+                            .tag("feed", feed)
+                            .publishPercentileHistogram()
+                            .register(meterRegistry));
+        }
+    }
+
+    public FeedCacheManager(ApiProperties apiProperties, MeterRegistry meterRegistry) {
         this.vehicleFeedDataCache = new DataCache(apiProperties.getGtfsRtCacheSeconds());
         this.tripFeedDataCache = new DataCache(apiProperties.getGtfsRtCacheSeconds());
         this.apiProperties = apiProperties;
+        this.vehicleFeedMeters = FeedMeters.register("vehicle_positions", meterRegistry);
+        this.tripFeedMeters = FeedMeters.register("trip_updates", meterRegistry);
     }
 
     /**
@@ -31,16 +63,23 @@ public class FeedCacheManager {
                                                                     VehiclesService vehiclesService,
                                                                     AgencyTimezoneCache agencyTimezoneCache) {
         GtfsRealtime.FeedMessage feedMessage = vehicleFeedDataCache.get(agencyId);
-        if (feedMessage != null) return feedMessage;
+        if (feedMessage != null) {
+            vehicleFeedMeters.hits().increment();
+            return feedMessage;
+        }
 
         synchronized (vehicleFeedDataCache) {
 
             // Cache may have been filled while waiting.
             feedMessage = vehicleFeedDataCache.get(agencyId);
-            if (feedMessage != null) return feedMessage;
+            if (feedMessage != null) {
+                vehicleFeedMeters.hits().increment();
+                return feedMessage;
+            }
 
+            vehicleFeedMeters.misses().increment();
             GtfsRtVehicleFeed feed = new GtfsRtVehicleFeed(agencyId, vehiclesService, agencyTimezoneCache);
-            feedMessage = feed.createMessage();
+            feedMessage = vehicleFeedMeters.buildTime().record(feed::createMessage);
             vehicleFeedDataCache.put(agencyId, feedMessage);
         }
 
@@ -55,16 +94,23 @@ public class FeedCacheManager {
                                                              VehiclesService vehiclesService,
                                                              AgencyTimezoneCache agencyTimezoneCache) {
         GtfsRealtime.FeedMessage feedMessage = tripFeedDataCache.get(coreProperties.getAgencyId());
-        if (feedMessage != null) return feedMessage;
+        if (feedMessage != null) {
+            tripFeedMeters.hits().increment();
+            return feedMessage;
+        }
 
         synchronized (tripFeedDataCache) {
 
             // Cache may have been filled while waiting.
             feedMessage = tripFeedDataCache.get(coreProperties.getAgencyId());
-            if (feedMessage != null) return feedMessage;
+            if (feedMessage != null) {
+                tripFeedMeters.hits().increment();
+                return feedMessage;
+            }
 
+            tripFeedMeters.misses().increment();
             GtfsRtTripFeed feed = new GtfsRtTripFeed(apiProperties, coreProperties, predictionsService, vehiclesService, agencyTimezoneCache);
-            feedMessage = feed.createMessage();
+            feedMessage = tripFeedMeters.buildTime().record(feed::createMessage);
             tripFeedDataCache.put(coreProperties.getAgencyId(), feedMessage);
         }
 
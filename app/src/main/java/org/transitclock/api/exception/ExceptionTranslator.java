@@ -213,6 +213,9 @@ public class ExceptionTranslator extends ResponseEntityExceptionHandler {
     }
 
     private HttpHeaders buildHeaders(Throwable err) {
+        if (err instanceof ErrorResponseException errorResponse && !errorResponse.getHeaders().isEmpty())
+            return errorResponse.getHeaders();
+
         return err instanceof BadRequestAlertException badRequestAlertException
             ? HeaderUtil.createFailureAlert(
                 applicationName,
@@ -0,0 +1,26 @@
+package org.transitclock.api.exception;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.ErrorResponseException;
+
+/**
+ * For when a request can't be handled right now because the server is too busy. Sets the
+ * Retry-After header so that the client knows when to try again.
+ */
+@SuppressWarnings("java:S110") // Inheritance tree of classes should not be too deep
+public class TooManyRequestsException extends ErrorResponseException {
+
+    public TooManyRequestsException(String message, int retryAfterSecs) {
+        super(
+            HttpStatus.TOO_MANY_REQUESTS,
+            ProblemDetailWithCause.ProblemDetailWithCauseBuilder
+                .instance()
+                .withStatus(HttpStatus.TOO_MANY_REQUESTS.value())
+                .withDetail(message)
+                .build(),
+            null
+        );
+        getHeaders().set(HttpHeaders.RETRY_AFTER, Integer.toString(retryAfterSecs));
+    }
+}
@@ -5,6 +5,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitclock.config.BooleanConfigValue;
 import org.transitclock.config.IntegerConfigValue;
+import org.transitclock.core.reports.ScheduleAdherenceSummaries;
+import org.transitclock.utils.Time;
 
 import java.util.*;
 
@@ -64,7 +66,16 @@ public class ScheduleAdherenceController {
         return groupScheduleAdherence(startDate, numDays, startTime, endTime, "routeId", routeIds, byRoute, datatype);
     }
 
+    /**
+     * Summary of schedule adherence for routes, answered from the hourly schedule adherence
+     * summaries.
+     *
+     * @param earlyLimitParam how early in seconds a vehicle can be and still be on time
+     * @param lateLimitParam how late in seconds a vehicle can be and still be on time
+     * @return count and the early, on time and late percentages
+     */
     public static List<Integer> routeScheduleAdherenceSummary(
+            String agencyId,
             Date startDate,
             int numDays,
             String startTime,
@@ -73,27 +84,22 @@ public class ScheduleAdherenceController {
             Double lateLimitParam,
             List<String> routeIds) {
 
-        int count = 0;
-        int early = 0;
-        int late = 0;
-        int ontime = 0;
         Double earlyLimit =
                 (usePredictionLimits.getValue() ? earlyLimitParam : (double) scheduleEarlySeconds.getValue());
         Double lateLimit = (usePredictionLimits.getValue() ? lateLimitParam : (double) scheduleLateSeconds.getValue());
-        List<Object> results = routeScheduleAdherence(startDate, numDays, startTime, endTime, routeIds, false, null);
-
-        for (Object o : results) {
-            count++;
-            HashMap hm = (HashMap) o;
-            Double d = (Double) hm.get("scheduleAdherence");
-            if (d > lateLimit) {
-                late++;
-            } else if (d < earlyLimit) {
-                early++;
-            } else {
-                ontime++;
-            }
-        }
+
+        // Limits can be specified as signed offsets, e.g. -120 for early, so only the
+        // magnitude matters
+        long earlyLimitMsec = (long) (Math.abs(earlyLimit) * Time.MS_PER_SEC);
+        long lateLimitMsec = (long) (Math.abs(lateLimit) * Time.MS_PER_SEC);
+
+        ScheduleAdherenceSummaries.Adherence adherence = ScheduleAdherenceSummaries.getRouteAdherence(
+                agencyId, routeIds, startDate, numDays, startTime, endTime);
+
+        long count = adherence.getTotal();
+        long early = adherence.getEarly(earlyLimitMsec);
+        long late = adherence.getLate(lateLimitMsec);
+        long ontime = count - early - late;
         logger.info(
                 "query complete -- earlyLimit={}, lateLimit={}, early={}, ontime={}, late={}," + " count={}",
                 earlyLimit,
@@ -102,16 +108,20 @@ public class ScheduleAdherenceController {
                 ontime,
                 late,
                 count);
-        double earlyPercent = (1.0 - (double) (count - early) / count) * 100;
-        double onTimePercent = (1.0 - (double) (count - ontime) / count) * 100;
-        double latePercent = (1.0 - (double) (count - late) / count) * 100;
+        if (count == 0) {
+            return Arrays.asList(0, 0, 0, 0);
+        }
+
+        double earlyPercent = (double) early / count * 100;
+        double onTimePercent = (double) ontime / count * 100;
+        double latePercent = (double) late / count * 100;
         logger.info(
                 "count={} earlyPercent={} onTimePercent={} latePercent={}",
                 count,
                 earlyPercent,
                 onTimePercent,
                 latePercent);
-        Integer[] summary = new Integer[] {count, (int) earlyPercent, (int) onTimePercent, (int) latePercent};
+        Integer[] summary = new Integer[] {(int) count, (int) earlyPercent, (int) onTimePercent, (int) latePercent};
         return Arrays.asList(summary);
     }
 
@@ -3,17 +3,20 @@ package org.transitclock.api.resources;
 import java.io.InputStream;
 import java.util.List;
 
+import org.transitclock.api.data.ApiAvlBatchAck;
 import org.transitclock.api.data.ApiCommandAck;
 import org.transitclock.api.resources.request.DateTimeParam;
 import org.transitclock.api.utils.StandardParameters;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
@@ -121,6 +124,48 @@ public interface CommandsApi {
             StandardParameters stdParameters,
             @Parameter(description = "Json of avl report.", required = true) InputStream requestBody);
 
+    /**
+     * Processes a POST http request containing a batch of AVL reports in the message body. The
+     * batch is read as it arrives and only the latest report for each vehicle is processed. The
+     * format is determined by the format parameter or, if not set, by the Content-Type:
+     *
+     * <ul>
+     *   <li>NDJSON (application/x-ndjson): one JSON object per line with the same members as
+     *       pushAvl, e.g. {"v": "vehicleId1", "t": epochTimeMsec, "lat": latitude, "lon":
+     *       longitude}
+     *   <li>GTFS_RT (application/x-protobuf): a GTFS-realtime FeedMessage of VehiclePositions
+     *   <li>COMPACT (application/vnd.transitclock.avl): the compact binary format
+     * </ul>
+     *
+     * @param stdParameters
+     * @param format            (optional) NDJSON, GTFS_RT or COMPACT
+     * @param contentType
+     * @param requestBody
+     *
+     * @return ApiAvlBatchAck with how many of the AVL reports were accepted
+     */
+    @PostMapping(
+            value = "/command/pushAvlBatch",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE}
+    )
+    @Operation(
+            summary = "Reads in a batch of AVL reports in the message body.",
+            description = "Reads in a batch of AVL reports in the message body as newline delimited"
+                    + " JSON, a GTFS-realtime FeedMessage, or the compact binary format. Only the"
+                    + " latest report for each vehicle in the batch is processed. Returns how many"
+                    + " reports were received, accepted, shed, rejected and coalesced.",
+            tags = {"operation", "vehicle", "avl"})
+    ResponseEntity<ApiAvlBatchAck> pushAvlBatch(
+            StandardParameters stdParameters,
+            @Parameter(description = "Format of the batch: NDJSON, GTFS_RT or COMPACT. If not set"
+                    + " then determined from the Content-Type.", required = false)
+            @RequestParam(value = "format", required = false)
+            String format,
+            @Parameter(hidden = true)
+            @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false)
+            String contentType,
+            @Parameter(description = "The batch of AVL reports.", required = true) InputStream requestBody);
+
     @GetMapping(
             value = "/command/resetVehicle",
             produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE}
@@ -11,10 +11,15 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
+import org.transitclock.api.data.ApiAvlBatchAck;
 import org.transitclock.api.data.ApiCommandAck;
 import org.transitclock.api.resources.request.DateTimeParam;
 import org.transitclock.api.utils.StandardParameters;
 import org.transitclock.api.utils.WebUtils;
+import org.transitclock.core.avl.AvlAdmissionController;
+import org.transitclock.core.avl.ingest.AvlBatchFormat;
+import org.transitclock.core.avl.ingest.AvlBatchIngester;
+import org.transitclock.core.avl.ingest.AvlBatchResult;
 import org.transitclock.domain.GenericQuery;
 import org.transitclock.domain.hibernate.DataDbLogger;
 import org.transitclock.domain.structs.AssignmentType;
@@ -39,6 +44,20 @@ public class CommandsResource extends BaseApiResource implements CommandsApi {
     private static final String AVL_SOURCE = "API";
     @Autowired
     private DataDbLogger dataDbLogger;
+    @Autowired
+    private AvlBatchIngester avlBatchIngester;
+    @Autowired
+    private AvlAdmissionController avlAdmissionController;
+
+    /**
+     * Tells the pusher to back off if AVL processing is so backed up that the AVL reports would
+     * just be rejected anyway.
+     */
+    private void checkAvlAdmission() {
+        if (avlAdmissionController.isOverloaded())
+            throw WebUtils.tooManyRequestsException(
+                    "AVL processing is backed up. Try again later.", avlAdmissionController.getRetryAfterSecs());
+    }
 
     @Override
     public ResponseEntity<ApiCommandAck> pushAvlData(
@@ -56,6 +75,7 @@ public class CommandsResource extends BaseApiResource implements CommandsApi {
         if (time == 0)
             throw WebUtils.badRequestException(
                     "Must specify GPS epoch time in " + "msec using for example \"t=14212312333\"");
+        checkAvlAdmission();
 
         try {
             // Get RMI interface for sending the command
@@ -119,6 +139,7 @@ public class CommandsResource extends BaseApiResource implements CommandsApi {
     public ResponseEntity<ApiCommandAck> pushAvlData(
             StandardParameters stdParameters,
             @Parameter(description = "Json of avl report.", required = true) InputStream requestBody) {
+        checkAvlAdmission();
         Collection<IpcAvl> avlData = new ArrayList<IpcAvl>();
         try {
             // Process the AVL report data from the JSON object
@@ -173,6 +194,36 @@ public class CommandsResource extends BaseApiResource implements CommandsApi {
         return stdParameters.createResponse(ack);
     }
 
+    @Override
+    public ResponseEntity<ApiAvlBatchAck> pushAvlBatch(
+            StandardParameters stdParameters, String format, String contentType, InputStream requestBody) {
+        checkAvlAdmission();
+
+        // The format parameter takes precedence over the content type
+        AvlBatchFormat batchFormat;
+        if (format != null) {
+            try {
+                batchFormat = AvlBatchFormat.valueOf(format.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw WebUtils.badRequestException("Unknown format \"" + format
+                        + "\". Must be NDJSON, GTFS_RT or COMPACT");
+            }
+        } else {
+            batchFormat = AvlBatchFormat.forContentType(contentType);
+            if (batchFormat == null)
+                throw WebUtils.badRequestException("Cannot determine format from Content-Type \"" + contentType
+                        + "\". Specify it using the format parameter");
+        }
+
+        try {
+            AvlBatchResult result = avlBatchIngester.ingest(requestBody, batchFormat, AVL_SOURCE);
+            return stdParameters.createResponse(new ApiAvlBatchAck(result));
+        } catch (IOException e) {
+            // If problem reading the batch then return a Bad Request
+            throw WebUtils.badRequestException(e);
+        }
+    }
+
     @Override
     public ResponseEntity<ApiCommandAck> getVehicles(StandardParameters stdParameters, List<String> vehicleIds) {
         for (String vehicleId : vehicleIds) {
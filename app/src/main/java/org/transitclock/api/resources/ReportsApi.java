@@ -14,7 +14,14 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+/**
+ * The reports of individual rows, such as AVL reports and trips with their travel times, are
+ * streamed from the database as JSON or CSV, selected with the format parameter. They don't
+ * produce XML since the rows are written directly as JSON text, which is also what was returned
+ * before when XML was requested.
+ */
 @RequestMapping("/api/v1/agency/{agency}")
 public interface ReportsApi {
     /**
@@ -29,28 +36,32 @@ public interface ReportsApi {
      * @
      */
     @GetMapping(value = "/reports/tripsWithTravelTimes",
-            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
+            produces = {MediaType.APPLICATION_JSON_VALUE, "text/csv"})
     @Operation(
             summary = "Gets the arrivals and departures data of a trips.",
             description = "Gets the arrivals and departures data of a trips.",
             tags = {"base data", "trips"})
-    ResponseEntity<String> getTripsWithTravelTimes(
+    ResponseEntity<StreamingResponseBody> getTripsWithTravelTimes(
             StandardParameters stdParameters,
-            @Parameter(description = "Begin date(YYYY-MM-DD).") @RequestParam(value = "date") String date);
+            @Parameter(description = "Begin date(YYYY-MM-DD).") @RequestParam(value = "date") String date,
+            @Parameter(description = "Output format, json or csv.", required = false)
+            @RequestParam(value = "format", required = false, defaultValue = "json") String format);
 
     @Operation(
             summary = "Returns avl report.",
             description = "Returns avl report.",
             tags = {"report", "vehicle"})
     @GetMapping(value = "/reports/avlReport",
-            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
-    ResponseEntity<String> getAvlReport(
+            produces = {MediaType.APPLICATION_JSON_VALUE, "text/csv"})
+    ResponseEntity<StreamingResponseBody> getAvlReport(
             StandardParameters stdParameters,
             @Parameter(description = "Vehicle id") @RequestParam(value = "v") String vehicleId,
             @Parameter(description = "Begin date(MM-DD-YYYY or YYYY-MM-DD") @RequestParam(value = "beginDate") String beginDate,
             @Parameter(description = "Num days.", required = false) @RequestParam(value = "numDays", defaultValue = "1", required = false) int numDays,
             @Parameter(description = "Begin time(HH:MM)", required = false) @RequestParam(value = "beginTime", required = false) String beginTime,
-            @Parameter(description = "End time(HH:MM)", required = false) @RequestParam(value = "endTime", required = false) String endTime);
+            @Parameter(description = "End time(HH:MM)", required = false) @RequestParam(value = "endTime", required = false) String endTime,
+            @Parameter(description = "Output format, json or csv.", required = false)
+            @RequestParam(value = "format", required = false, defaultValue = "json") String format);
 
     /**
      * Handles the "tripWithTravelTimes" command which outputs arrival and departures data for the
@@ -63,15 +74,17 @@ public interface ReportsApi {
      * @return
      */
     @GetMapping(value = "/reports/tripWithTravelTimes",
-            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
+            produces = {MediaType.APPLICATION_JSON_VALUE, "text/csv"})
     @Operation(
             summary = "Gets the arrivals and departures data of a trip.",
             description = "Gets the arrivals and departures data of a trip.",
             tags = {"base data", "trip"})
-    ResponseEntity<String> getTripWithTravelTimes(
+    ResponseEntity<StreamingResponseBody> getTripWithTravelTimes(
             StandardParameters stdParameters,
             @Parameter(description = "Trip id", required = true) @RequestParam(value = "tripId") String tripId,
-            @Parameter(description = "Begin date(YYYY-MM-DD).", required = true) @RequestParam(value = "date") String date);
+            @Parameter(description = "Begin date(YYYY-MM-DD).", required = true) @RequestParam(value = "date") String date,
+            @Parameter(description = "Output format, json or csv.", required = false)
+            @RequestParam(value = "format", required = false, defaultValue = "json") String format);
 
     /**
      * Handles the "trips" report which outputs trips by date which contains arrival and departures
@@ -85,15 +98,17 @@ public interface ReportsApi {
      * @
      */
     @GetMapping(value = "/reports/tripsByDate",
-            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
+            produces = {MediaType.APPLICATION_JSON_VALUE, "text/csv"})
     @Operation(
             summary = "Gets the trips by date.",
             description = "Gets the trips by date.",
             tags = {"base data", "trip"})
-    ResponseEntity<String> getTrips(
+    ResponseEntity<StreamingResponseBody> getTrips(
             StandardParameters stdParameters,
             @Parameter(description = "Date(YYYY-MM-DD).", required = true)
-            @RequestParam(value = "date") String date);
+            @RequestParam(value = "date") String date,
+            @Parameter(description = "Output format, json or csv.", required = false)
+            @RequestParam(value = "format", required = false, defaultValue = "json") String format);
 
     @Operation(
             summary = "Returns schedule adherence report.",
@@ -132,12 +147,15 @@ public interface ReportsApi {
             @RequestParam(value = "allowableLate", required = false, defaultValue = "4.0") String allowableLate);
 
     @GetMapping(value = "/reports/lastAvlJsonData",
-            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
+            produces = {MediaType.APPLICATION_JSON_VALUE, "text/csv"})
     @Operation(
             summary = "Returns AVL Json data for last 24 hours.",
             description = "Returns AVL Json data for last 24 hours.",
             tags = {"report", "avl", "vehicle"})
-    ResponseEntity<String> getLastAvlJsonData(StandardParameters stdParameters);
+    ResponseEntity<StreamingResponseBody> getLastAvlJsonData(
+            StandardParameters stdParameters,
+            @Parameter(description = "Output format, json or csv.", required = false)
+            @RequestParam(value = "format", required = false, defaultValue = "json") String format);
 
     @GetMapping(value = "/reports/predAccuracyIntervalsData.jsp")
     ResponseEntity<String> predAccuracyIntervalsData(HttpServletRequest request) throws SQLException, ParseException;
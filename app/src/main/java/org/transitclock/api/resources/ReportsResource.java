@@ -1,6 +1,7 @@
 package org.transitclock.api.resources;
 
 import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -18,61 +19,63 @@ import org.transitclock.api.utils.StandardParameters;
 import org.transitclock.api.utils.WebUtils;
 import org.transitclock.core.reports.Reports;
 import org.transitclock.core.reports.SqlUtils;
+import org.transitclock.domain.StreamingQuery;
 import org.transitclock.utils.Time;
 
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 public class ReportsResource extends BaseApiResource implements ReportsApi {
 
     @Override
-    public ResponseEntity<String> getTripsWithTravelTimes(
+    public ResponseEntity<StreamingResponseBody> getTripsWithTravelTimes(
             StandardParameters stdParameters,
-            String date) {
-        try {
-
-            String response = Reports.getTripsWithTravelTimes(stdParameters.getAgencyId(), date);
-            return stdParameters.createResponse(response);
-        } catch (Exception e) {
-            throw WebUtils.badRequestException(e);
-        }
+            String date,
+            String format) {
+        return stream(stdParameters.getAgencyId(), Reports.getTripsWithTravelTimesQuery(date), format);
     }
 
     @Override
-    public ResponseEntity<String> getAvlReport(
+    public ResponseEntity<StreamingResponseBody> getAvlReport(
             StandardParameters stdParameters,
             String vehicleId,
             String beginDate,
             int numDays,
             String beginTime,
-            String endTime) {
-        String response = Reports.getAvlJson(
-                stdParameters.getAgencyId(),
-                vehicleId, beginDate, String.valueOf(numDays), beginTime, endTime);
-        return ResponseEntity.ok(response);
+            String endTime,
+            String format) {
+        Reports.ReportQuery query;
+        try {
+            query = Reports.getAvlQuery(
+                    stdParameters.getAgencyId(),
+                    vehicleId, beginDate, String.valueOf(numDays), beginTime, endTime);
+        } catch (ParseException e) {
+            throw WebUtils.badRequestException(e);
+        }
+        return stream(stdParameters.getAgencyId(), query, format);
     }
 
 
     @Override
-    public ResponseEntity<String> getTripWithTravelTimes(
+    public ResponseEntity<StreamingResponseBody> getTripWithTravelTimes(
             StandardParameters stdParameters,
             String tripId,
-            String date) {
-
-        String response = Reports.getTripWithTravelTimes(stdParameters.getAgencyId(), tripId, date);
-        return ResponseEntity.ok(response);
+            String date,
+            String format) {
+        return stream(stdParameters.getAgencyId(), Reports.getTripWithTravelTimesQuery(tripId, date), format);
     }
 
     @Override
-    public ResponseEntity<String> getTrips(
+    public ResponseEntity<StreamingResponseBody> getTrips(
             StandardParameters stdParameters,
-            String date) {
-
-        String response = Reports.getTripsFromArrivalAndDeparturesByDate(stdParameters.getAgencyId(), date);
-        return ResponseEntity.ok(response);
+            String date,
+            String format) {
+        return stream(stdParameters.getAgencyId(), Reports.getTripsFromArrivalAndDeparturesByDateQuery(date), format);
     }
 
     @Override
@@ -120,9 +123,33 @@ public class ReportsResource extends BaseApiResource implements ReportsApi {
     }
 
     @Override
-    public ResponseEntity<String> getLastAvlJsonData(StandardParameters stdParameters) {
-        String response = Reports.getLastAvlJson(stdParameters.getAgencyId());
-        return ResponseEntity.ok(response);
+    public ResponseEntity<StreamingResponseBody> getLastAvlJsonData(StandardParameters stdParameters, String format) {
+        return stream(stdParameters.getAgencyId(), Reports.getLastAvlQuery(stdParameters.getAgencyId()), format);
+    }
+
+    /**
+     * Writes the rows of the report to the response as they are read from the database, so that
+     * large reports don't need to be held in memory.
+     */
+    private static ResponseEntity<StreamingResponseBody> stream(
+            String agencyId, Reports.ReportQuery query, String format) {
+        StreamingQuery.Format outputFormat;
+        try {
+            outputFormat = StreamingQuery.Format.of(format);
+        } catch (IllegalArgumentException e) {
+            throw WebUtils.badRequestException(e);
+        }
+
+        StreamingResponseBody body = out -> {
+            try {
+                query.stream(agencyId, outputFormat, out);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(outputFormat.getContentType()))
+                .body(body);
     }
 
     @Override
@@ -283,22 +310,22 @@ public class ReportsResource extends BaseApiResource implements ReportsApi {
         double earlyLimit = -60.0;
         double lateLimit = 60.0;
 
-        if (StringUtils.hasText(startTime)) {
+        if (!StringUtils.hasText(startTime)) {
             startTime = "00:00:00";
         } else {
             startTime += ":00";
         }
 
-        if (StringUtils.hasText(endTime)) {
+        if (!StringUtils.hasText(endTime)) {
             endTime = "23:59:59";
         } else {
             endTime += ":00";
         }
 
-        if (!StringUtils.hasText(earlyLimitStr)) {
+        if (StringUtils.hasText(earlyLimitStr)) {
             earlyLimit = Double.parseDouble(earlyLimitStr) * 60;
         }
-        if (!StringUtils.hasText(lateLimitStr)) {
+        if (StringUtils.hasText(lateLimitStr)) {
             lateLimit = Double.parseDouble(lateLimitStr) * 60;
         }
 
@@ -310,7 +337,8 @@ public class ReportsResource extends BaseApiResource implements ReportsApi {
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
         Date startDate = dateFormat.parse(startDateStr);
 
-        List<Integer> results = ScheduleAdherenceController.routeScheduleAdherenceSummary(startDate,
+        List<Integer> results = ScheduleAdherenceController.routeScheduleAdherenceSummary(request.getParameter("a"),
+                                                                                          startDate,
                                                                                           Integer.parseInt(numDaysStr),
                                                                                           startTime, endTime,
                                                                                           earlyLimit, lateLimit,
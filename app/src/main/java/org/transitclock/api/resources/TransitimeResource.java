@@ -31,6 +31,8 @@ import org.transitclock.api.data.ApiVehicleConfigsResponse;
 import org.transitclock.api.data.ApiVehicleToBlockResponse;
 import org.transitclock.api.data.ApiVehiclesDetailsResponse;
 import org.transitclock.api.data.ApiVehiclesResponse;
+import org.transitclock.api.utils.ConfigResponseCache;
+import org.transitclock.api.utils.ConfigResponseCache.Key;
 import org.transitclock.api.utils.PredsByLoc;
 import org.transitclock.api.utils.StandardParameters;
 import org.transitclock.api.utils.WebUtils;
@@ -76,6 +78,7 @@ import org.springframework.web.bind.annotation.RestController;
 @RequiredArgsConstructor
 public class TransitimeResource extends BaseApiResource implements TransitimeApi {
     private final DbConfig dbConfig;
+    private final ConfigResponseCache configResponseCache;
 
     @Override
     public ResponseEntity<ApiVehiclesResponse> getVehicles(
@@ -303,7 +306,13 @@ public class TransitimeResource extends BaseApiResource implements TransitimeApi
             StandardParameters stdParameters,
             List<String> routeIdsOrShortNames,
             Boolean keepDuplicates) {
+        // Routes only change with the config so memoize the response
+        return configResponseCache.respond(
+                Key.of("routes", routeIdsOrShortNames, keepDuplicates),
+                () -> createRoutesResponse(routeIdsOrShortNames, keepDuplicates));
+    }
 
+    private ApiRoutesResponse createRoutesResponse(List<String> routeIdsOrShortNames, Boolean keepDuplicates) {
         // Get agency info so can also return agency name
         List<Agency> agencies = configService.getAgencies();
 
@@ -354,8 +363,7 @@ public class TransitimeResource extends BaseApiResource implements TransitimeApi
             routesData = new ApiRoutesResponse(ipcRoutes, agencies.get(0));
         }
 
-        // Create and return response
-        return ResponseEntity.ok(routesData);
+        return routesData;
     }
 
     @Override
@@ -365,6 +373,19 @@ public class TransitimeResource extends BaseApiResource implements TransitimeApi
             String directionId,
             String stopId,
             String tripPatternId) {
+        // When a stop is specified the response includes the location of the
+        // next predicted vehicle so it can't be memoized
+        if (stopId != null) {
+            return stdParameters.createResponse(
+                    createRouteDetailsResponse(routeIdsOrShortNames, directionId, stopId, tripPatternId));
+        }
+        return configResponseCache.respond(
+                Key.of("routeDetails", routeIdsOrShortNames, directionId, tripPatternId),
+                () -> createRouteDetailsResponse(routeIdsOrShortNames, directionId, null, tripPatternId));
+    }
+
+    private ApiRoutesDetailsResponse createRouteDetailsResponse(
+            List<String> routeIdsOrShortNames, String directionId, String stopId, String tripPatternId) {
         // Get agency info so can also return agency name
         List<Agency> agencies = configService.getAgencies();
 
@@ -390,22 +411,22 @@ public class TransitimeResource extends BaseApiResource implements TransitimeApi
 
         // Take the IpcRoute data array and create and return
         // ApiRoutesDetails object
-        ApiRoutesDetailsResponse routeData = new ApiRoutesDetailsResponse(ipcRoutes, agencies.get(0));
-        return stdParameters.createResponse(routeData);
+        return new ApiRoutesDetailsResponse(ipcRoutes, agencies.get(0));
     }
 
     @Override
     public ResponseEntity<ApiRoutesDetailsResponse> getRouteDetailsByStopId(
             StandardParameters stdParameters,
             String stopId) {
-        // Get agency info so can also return agency name
-        List<Agency> agencies = configService.getAgencies();
-        // Retrieve filtered routs
-        var ipcRoutes = configService.getRoutesByStopId(stopId);
-        // Take the IpcRoute data array and create and return
-        // ApiRoutesDetails object
-        ApiRoutesDetailsResponse routeData = new ApiRoutesDetailsResponse(ipcRoutes, agencies.get(0));
-        return stdParameters.createResponse(routeData);
+        return configResponseCache.respond(Key.of("routeDetailsByStopId", stopId), () -> {
+            // Get agency info so can also return agency name
+            List<Agency> agencies = configService.getAgencies();
+            // Retrieve filtered routs
+            var ipcRoutes = configService.getRoutesByStopId(stopId);
+            // Take the IpcRoute data array and create and return
+            // ApiRoutesDetails object
+            return new ApiRoutesDetailsResponse(ipcRoutes, agencies.get(0));
+        });
     }
 
     @Override
@@ -414,18 +435,19 @@ public class TransitimeResource extends BaseApiResource implements TransitimeApi
             String routesIdOrShortNames) {
 
         try {
-            // Get stops data from server
-            IpcDirectionsForRoute stopsForRoute = configService.getStops(dbConfig, routesIdOrShortNames);
-
-            // If the route doesn't exist then throw exception such that
-            // Bad Request with an appropriate message is returned.
-            if (stopsForRoute == null) {
-                throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
-            }
+            return configResponseCache.respond(Key.of("stops", routesIdOrShortNames), () -> {
+                // Get stops data from server
+                IpcDirectionsForRoute stopsForRoute = configService.getStops(dbConfig, routesIdOrShortNames);
+
+                // If the route doesn't exist then throw exception such that
+                // Bad Request with an appropriate message is returned.
+                if (stopsForRoute == null) {
+                    throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
+                }
 
-            // Create and return ApiDirections response
-            ApiDirectionsResponse directionsData = new ApiDirectionsResponse(stopsForRoute);
-            return stdParameters.createResponse(directionsData);
+                // Create and return ApiDirections response
+                return new ApiDirectionsResponse(stopsForRoute);
+            });
         } catch (Exception e) {
             // If problem getting data then return a Bad Request
             throw WebUtils.badRequestException(e);
@@ -443,19 +465,20 @@ public class TransitimeResource extends BaseApiResource implements TransitimeApi
         }
 
         try {
-            // Get block data from server
-            IpcBlock ipcBlock = configService.getBlock(blockId, serviceId);
-
-            // If the block doesn't exist then throw exception such that
-            // Bad Request with an appropriate message is returned.
-            if (ipcBlock == null) {
-                throw WebUtils.badRequestException(
-                        "The blockId=" + blockId + " for serviceId=" + serviceId + " does not exist.");
-            }
+            return configResponseCache.respond(Key.of("block", blockId, serviceId), () -> {
+                // Get block data from server
+                IpcBlock ipcBlock = configService.getBlock(blockId, serviceId);
+
+                // If the block doesn't exist then throw exception such that
+                // Bad Request with an appropriate message is returned.
+                if (ipcBlock == null) {
+                    throw WebUtils.badRequestException(
+                            "The blockId=" + blockId + " for serviceId=" + serviceId + " does not exist.");
+                }
 
-            // Create and return ApiBlock response
-            ApiBlock apiBlock = new ApiBlock(ipcBlock);
-            return stdParameters.createResponse(apiBlock);
+                // Create and return ApiBlock response
+                return new ApiBlock(ipcBlock);
+            });
         } catch (Exception e) {
             // If problem getting data then return a Bad Request
             throw WebUtils.badRequestException(e);
@@ -468,18 +491,19 @@ public class TransitimeResource extends BaseApiResource implements TransitimeApi
             String blockId) {
 
         try {
-            // Get block data from server
-            Collection<IpcBlock> ipcBlocks = configService.getBlocks(blockId);
-
-            // If the block doesn't exist then throw exception such that
-            // Bad Request with an appropriate message is returned.
-            if (ipcBlocks.isEmpty()) {
-                throw WebUtils.badRequestException("The blockId=" + blockId + " does not exist.");
-            }
+            return configResponseCache.respond(Key.of("blocksTerse", blockId), () -> {
+                // Get block data from server
+                Collection<IpcBlock> ipcBlocks = configService.getBlocks(blockId);
+
+                // If the block doesn't exist then throw exception such that
+                // Bad Request with an appropriate message is returned.
+                if (ipcBlocks.isEmpty()) {
+                    throw WebUtils.badRequestException("The blockId=" + blockId + " does not exist.");
+                }
 
-            // Create and return ApiBlock response
-            ApiBlocksTerseResponse apiBlocks = new ApiBlocksTerseResponse(ipcBlocks);
-            return stdParameters.createResponse(apiBlocks);
+                // Create and return ApiBlock response
+                return new ApiBlocksTerseResponse(ipcBlocks);
+            });
         } catch (Exception e) {
             // If problem getting data then return a Bad Request
             throw WebUtils.badRequestException(e);
@@ -492,18 +516,19 @@ public class TransitimeResource extends BaseApiResource implements TransitimeApi
             String blockId) {
 
         try {
-            // Get block data from server
-            Collection<IpcBlock> ipcBlocks = configService.getBlocks(blockId);
-
-            // If the block doesn't exist then throw exception such that
-            // Bad Request with an appropriate message is returned.
-            if (ipcBlocks.isEmpty()) {
-                throw WebUtils.badRequestException("The blockId=" + blockId + " does not exist.");
-            }
+            return configResponseCache.respond(Key.of("blocks", blockId), () -> {
+                // Get block data from server
+                Collection<IpcBlock> ipcBlocks = configService.getBlocks(blockId);
+
+                // If the block doesn't exist then throw exception such that
+                // Bad Request with an appropriate message is returned.
+                if (ipcBlocks.isEmpty()) {
+                    throw WebUtils.badRequestException("The blockId=" + blockId + " does not exist.");
+                }
 
-            // Create and return ApiBlock response
-            ApiBlocksResponse apiBlocksResponse = new ApiBlocksResponse(ipcBlocks);
-            return stdParameters.createResponse(apiBlocksResponse);
+                // Create and return ApiBlock response
+                return new ApiBlocksResponse(ipcBlocks);
+            });
         } catch (Exception e) {
             // If problem getting data then return a Bad Request
             throw WebUtils.badRequestException(e);
@@ -745,18 +770,19 @@ public class TransitimeResource extends BaseApiResource implements TransitimeApi
     public ResponseEntity<ApiTripPatternsResponse> getTripPatterns(StandardParameters stdParameters, String routesIdOrShortNames) {
 
         try {
-            // Get block data from server
-            List<IpcTripPattern> ipcTripPatterns = configService.getTripPatterns(routesIdOrShortNames);
-
-            // If the trip doesn't exist then throw exception such that
-            // Bad Request with an appropriate message is returned.
-            if (ipcTripPatterns == null) {
-                throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
-            }
+            return configResponseCache.respond(Key.of("tripPatterns", routesIdOrShortNames), () -> {
+                // Get block data from server
+                List<IpcTripPattern> ipcTripPatterns = configService.getTripPatterns(routesIdOrShortNames);
+
+                // If the trip doesn't exist then throw exception such that
+                // Bad Request with an appropriate message is returned.
+                if (ipcTripPatterns == null) {
+                    throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
+                }
 
-            // Create and return ApiTripPatterns response
-            ApiTripPatternsResponse apiTripPatternsResponse = new ApiTripPatternsResponse(ipcTripPatterns);
-            return stdParameters.createResponse(apiTripPatternsResponse);
+                // Create and return ApiTripPatterns response
+                return new ApiTripPatternsResponse(ipcTripPatterns);
+            });
         } catch (Exception e) {
             // If problem getting data then return a Bad Request
             throw WebUtils.badRequestException(e);
@@ -769,18 +795,19 @@ public class TransitimeResource extends BaseApiResource implements TransitimeApi
             String routesIdOrShortNames) {
 
         try {
-            // Get block data from server
-            List<IpcSchedule> ipcSchedules = configService.getSchedules(routesIdOrShortNames);
-
-            // If the trip doesn't exist then throw exception such that
-            // Bad Request with an appropriate message is returned.
-            if (ipcSchedules == null) {
-                throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
-            }
+            return configResponseCache.respond(Key.of("scheduleVertStops", routesIdOrShortNames), () -> {
+                // Get block data from server
+                List<IpcSchedule> ipcSchedules = configService.getSchedules(routesIdOrShortNames);
+
+                // If the trip doesn't exist then throw exception such that
+                // Bad Request with an appropriate message is returned.
+                if (ipcSchedules == null) {
+                    throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
+                }
 
-            // Create and return ApiSchedules response
-            ApiSchedulesVertStopsResponse apiSchedules = new ApiSchedulesVertStopsResponse(ipcSchedules);
-            return stdParameters.createResponse(apiSchedules);
+                // Create and return ApiSchedules response
+                return new ApiSchedulesVertStopsResponse(ipcSchedules);
+            });
         } catch (Exception e) {
             // If problem getting data then return a Bad Request
             throw WebUtils.badRequestException(e);
@@ -793,18 +820,19 @@ public class TransitimeResource extends BaseApiResource implements TransitimeApi
             String routesIdOrShortNames) {
 
         try {
-            // Get block data from server
-            List<IpcSchedule> ipcSchedules = configService.getSchedules(routesIdOrShortNames);
-
-            // If the trip doesn't exist then throw exception such that
-            // Bad Request with an appropriate message is returned.
-            if (ipcSchedules == null) {
-                throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
-            }
+            return configResponseCache.respond(Key.of("scheduleHorizStops", routesIdOrShortNames), () -> {
+                // Get block data from server
+                List<IpcSchedule> ipcSchedules = configService.getSchedules(routesIdOrShortNames);
+
+                // If the trip doesn't exist then throw exception such that
+                // Bad Request with an appropriate message is returned.
+                if (ipcSchedules == null) {
+                    throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
+                }
 
-            // Create and return ApiSchedules response
-            ApiSchedulesHorizStops apiSchedules = new ApiSchedulesHorizStops(ipcSchedules);
-            return stdParameters.createResponse(apiSchedules);
+                // Create and return ApiSchedules response
+                return new ApiSchedulesHorizStops(ipcSchedules);
+            });
         } catch (Exception e) {
             // If problem getting data then return a Bad Request
             throw WebUtils.badRequestException(e);
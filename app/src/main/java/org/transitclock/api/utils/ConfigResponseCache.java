@@ -0,0 +1,238 @@
+/* (C)2023 */
+package org.transitclock.api.utils;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.transitclock.gtfs.DbConfig;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.accept.ContentNegotiationManager;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.ServletWebRequest;
+
+/**
+ * Memoizes the responses for the static configuration commands, such as routes, stops, blocks,
+ * trip patterns and schedules. These only change when a new config revision is read in, but
+ * building them from DbConfig, especially the schedules, is expensive, so they are built once per
+ * config revision and request parameters and then reused.
+ *
+ * <p>The responses get a strong ETag made from the config revision and a hash of the content of the
+ * response. So the ETag is the same for every server and across restarts as long as the content
+ * is, and changes if a config revision is processed again with different content. When a client
+ * sends the ETag back in If-None-Match a 304 Not Modified is returned without serializing the
+ * response again. When the config revision changes all the memoized responses are dropped at once.
+ *
+ * <p>The same memoized object is serialized as JSON or XML by the message converters, so the ETag
+ * also says which representation it is for. That representation is determined from the request
+ * using the same content negotiation as Spring MVC.
+ */
+@Slf4j
+@Component
+public class ConfigResponseCache {
+    // Limits memory if clients request many different combinations of
+    // parameters. Responses beyond this are simply not memoized.
+    private static final int MAX_RESPONSES = 10_000;
+
+    // The representations the config commands produce, in the order of
+    // preference when the client accepts either
+    private static final List<MediaType> REPRESENTATIONS =
+            List.of(MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML);
+
+    private final DbConfig dbConfig;
+    // For hashing the content of the responses for the ETags
+    private final ObjectMapper objectMapper;
+    private final ContentNegotiationManager contentNegotiationManager;
+    private final AtomicReference<Revision> revision = new AtomicReference<>();
+
+    /**
+     * Identifies a memoized response. Parameters are compared by value, including nulls and lists,
+     * so that different parameters never share a response.
+     *
+     * @param command name of the command
+     * @param parameters all the parameters of the command that affect the response
+     */
+    public record Key(String command, List<Object> parameters) {
+        public static Key of(String command, Object... parameters) {
+            return new Key(command, Collections.unmodifiableList(Arrays.asList(parameters)));
+        }
+    }
+
+    /** A memoized response and the ETag for its content, without the representation suffix */
+    private record Memo(Object response, String etag) {}
+
+    /** The memoized responses for a single config revision */
+    private record Revision(DbConfig dbConfig, int configRev, Map<Key, Memo> responses) {
+        Revision(DbConfig dbConfig) {
+            this(dbConfig, dbConfig.getConfigRev(), new ConcurrentHashMap<>());
+        }
+    }
+
+    public ConfigResponseCache(
+            DbConfig dbConfig, ObjectMapper objectMapper, ContentNegotiationManager contentNegotiationManager) {
+        this.dbConfig = dbConfig;
+        this.objectMapper = objectMapper;
+        this.contentNegotiationManager = contentNegotiationManager;
+    }
+
+    /**
+     * Returns the memoized response for the key, building it with the supplier the first time. If
+     * the client already has the current version, as indicated by If-None-Match, then returns 304
+     * Not Modified without a body.
+     *
+     * @param key identifies the command and all of its parameters that affect the response
+     * @param builder creates the response. Exceptions are passed on and nothing is memoized. Null
+     *     is not memoized either.
+     */
+    public <T> ResponseEntity<T> respond(Key key, Supplier<T> builder) {
+        Revision current = currentRevision();
+        HttpServletRequest request = currentRequest();
+
+        // The ETag depends on the content so the response has to have been
+        // built, if it isn't memoized yet, even to return Not Modified
+        Memo memo = current.responses().get(key);
+        if (memo == null) {
+            T built = builder.get();
+            memo = new Memo(built, current.configRev() + "-" + contentHash(built));
+            if (built != null && current.responses().size() < MAX_RESPONSES) {
+                current.responses().putIfAbsent(key, memo);
+            }
+        }
+
+        // Same object is used for JSON and XML so the ETag needs to say which
+        // representation it is for
+        String suffix = representation(request).equals(MediaType.APPLICATION_XML) ? "-x" : "-j";
+        String etag = "\"" + memo.etag() + suffix + "\"";
+        if (request != null && matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .build();
+        }
+
+        @SuppressWarnings("unchecked")
+        T response = (T) memo.response();
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache())
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(response);
+    }
+
+    /**
+     * Drops all the memoized responses. They are also dropped automatically when the config
+     * revision changes.
+     */
+    public void invalidate() {
+        revision.set(null);
+    }
+
+    /**
+     * @return number of memoized responses for the current config revision
+     */
+    public int size() {
+        Revision current = revision.get();
+        return current == null ? 0 : current.responses().size();
+    }
+
+    private Revision currentRevision() {
+        while (true) {
+            Revision current = revision.get();
+            if (current != null && current.dbConfig() == dbConfig && current.configRev() == dbConfig.getConfigRev()) {
+                return current;
+            }
+
+            Revision replacement = new Revision(dbConfig);
+            if (revision.compareAndSet(current, replacement)) {
+                logger.info("Memoizing config responses for configRev={}.", replacement.configRev());
+                return replacement;
+            }
+        }
+    }
+
+    /** @return hash of the JSON of the response, so that the ETag only changes with the content */
+    private String contentHash(Object response) {
+        try {
+            return DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(response));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize response to determine its ETag", e);
+        }
+    }
+
+    private static HttpServletRequest currentRequest() {
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            return attributes.getRequest();
+        }
+        return null;
+    }
+
+    /**
+     * Determines whether the response is going to be JSON or XML. Uses the content negotiation of
+     * Spring MVC, so that the Accept header including quality values is handled the same way as
+     * when the message converter is chosen, with JSON preferred when both are acceptable.
+     *
+     * @return JSON or XML media type
+     */
+    private MediaType representation(HttpServletRequest request) {
+        if (request == null) {
+            return MediaType.APPLICATION_JSON;
+        }
+        List<MediaType> acceptableTypes;
+        try {
+            acceptableTypes = contentNegotiationManager.resolveMediaTypes(new ServletWebRequest(request));
+        } catch (HttpMediaTypeNotAcceptableException e) {
+            // Spring rejects the request itself, so the ETag doesn't matter
+            return MediaType.APPLICATION_JSON;
+        }
+
+        // The acceptable types are ordered by quality and specificity
+        for (MediaType acceptableType : acceptableTypes) {
+            for (MediaType representation : REPRESENTATIONS) {
+                if (acceptableType.isCompatibleWith(representation)) {
+                    return representation;
+                }
+            }
+        }
+        return MediaType.APPLICATION_JSON;
+    }
+
+    /**
+     * @return true if the If-None-Match header contains the ETag. Weak comparison is used, as
+     *     required for If-None-Match.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*")) {
+                return true;
+            }
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
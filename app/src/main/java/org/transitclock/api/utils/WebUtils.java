@@ -4,6 +4,7 @@ package org.transitclock.api.utils;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.transitclock.api.exception.BadRequestException;
+import org.transitclock.api.exception.TooManyRequestsException;
 
 /**
  * Utilities for web based API.
@@ -42,6 +43,17 @@ public class WebUtils {
         return new BadRequestException(s);
     }
 
+    /**
+     * Convenience method for when need to throw a TOO_MANY_REQUESTS exception response.
+     *
+     * @param s Message to be provided as part of the response.
+     * @param retryAfterSecs For the Retry-After header
+     * @return Exception to be thrown
+     */
+    public static TooManyRequestsException tooManyRequestsException(String s, int retryAfterSecs) {
+        return new TooManyRequestsException(s, retryAfterSecs);
+    }
+
     /**
      * Goes through all the request parameters, such as from the query string, and puts them into a
      * String version of a JSON set of key values. This string can be used as the data parameter for
@@ -20,6 +20,7 @@ import org.transitclock.properties.TravelTimesProperties;
 import org.transitclock.properties.TripDataCacheProperties;
 import org.transitclock.properties.UpdatesProperties;
 import org.transitclock.properties.WebProperties;
+import org.transitclock.traccar.TraccarProperties;
 
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -103,6 +104,12 @@ public class ApplicationConfiguration {
         return new TimeoutProperties();
     }
 
+    @Bean
+    @ConfigurationProperties(prefix = "transitclock.traccar")
+    public TraccarProperties traccarProperties() {
+        return new TraccarProperties();
+    }
+
     @Bean
     @ConfigurationProperties(prefix = "transitclock.traveltimes")
     public TravelTimesProperties travelTimesProperties() {
@@ -62,7 +62,10 @@ public class AsyncConfiguration implements AsyncConfigurer {
 
         logger.info("Creating Avl Task Executor for handling AVL reports [queue={} and threads={}].", maxAVLQueueSize, numberThreads);
 
-        return new ThreadPoolExecutor(0,
+        // All the threads are core threads. A ThreadPoolExecutor only adds
+        // threads past the core ones when the queue is full, and the
+        // AvlAdmissionController starts rejecting reports before it is.
+        return new ThreadPoolExecutor(numberThreads,
             numberThreads,
             1,
             TimeUnit.HOURS,
@@ -5,10 +5,12 @@ import jakarta.annotation.PostConstruct;
 import java.net.URL;
 import java.util.Calendar;
 import java.util.Date;
+import javax.cache.Caching;
 
 import org.transitclock.core.dataCache.DwellTimeModelCacheInterface;
 import org.transitclock.core.dataCache.StopArrivalDepartureCacheInterface;
 import org.transitclock.core.dataCache.TripDataHistoryCacheInterface;
+import org.transitclock.core.dataCache.ehcache.EhcacheMetrics;
 import org.transitclock.core.dataCache.frequency.FrequencyBasedHistoricalAverageCache;
 import org.transitclock.core.dataCache.scheduled.ScheduleBasedHistoricalAverageCache;
 import org.transitclock.domain.hibernate.HibernateUtils;
@@ -20,8 +22,7 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.time.DateUtils;
 import org.ehcache.CacheManager;
-import org.ehcache.config.builders.CacheManagerBuilder;
-import org.ehcache.xml.XmlConfiguration;
+import org.ehcache.jsr107.EhcacheCachingProvider;
 import org.hibernate.Session;
 import org.springframework.boot.context.event.ApplicationStartedEvent;
 import org.springframework.context.ApplicationListener;
@@ -39,7 +40,7 @@ public class CachingConfiguration {
         addShutdownHook("close-cache", () -> {
             try {
                 logger.info("Closing cache.");
-                cacheManager().close();
+                jCacheManager().close();
                 logger.info("Cache closed.");
             } catch (Exception e) {
                 logger.error("Cache close failed...", e);
@@ -47,20 +48,32 @@ public class CachingConfiguration {
         });
     }
 
+    /**
+     * The caches are created through JCache so that their statistics can be exposed as metrics
+     * with the public JCache API. The ehcache CacheManager is unwrapped from it.
+     */
     @Bean
-    public CacheManager cacheManager() {
+    @SneakyThrows
+    public javax.cache.CacheManager jCacheManager() {
         URL xmlConfigUrl = CachingConfiguration.class
             .getClassLoader()
             .getResource("ehcache.xml");
         if (xmlConfigUrl == null) {
             throw new RuntimeException("Could not find ehcache.xml");
         }
-        XmlConfiguration xmlConfig = new XmlConfiguration(xmlConfigUrl);
 
-        CacheManager cm = CacheManagerBuilder.newCacheManager(xmlConfig);
-        cm.init();
+        return Caching.getCachingProvider(EhcacheCachingProvider.class.getName())
+            .getCacheManager(xmlConfigUrl.toURI(), CachingConfiguration.class.getClassLoader());
+    }
 
-        return cm;
+    @Bean
+    public CacheManager cacheManager() {
+        return jCacheManager().unwrap(CacheManager.class);
+    }
+
+    @Bean
+    public EhcacheMetrics ehcacheMetrics() {
+        return new EhcacheMetrics(jCacheManager());
     }
 
     @Bean
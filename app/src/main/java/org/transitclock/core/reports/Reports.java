@@ -1,9 +1,13 @@
 /* (C)2023 */
 package org.transitclock.core.reports;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
 import java.text.ParseException;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.transitclock.domain.StreamingQuery;
 import org.transitclock.domain.webstructs.WebAgency;
 import org.transitclock.utils.Time;
 
@@ -13,6 +17,26 @@ public class Reports {
 
     private static final int MAX_NUM_DAYS = 7;
 
+    /**
+     * The SQL and parameters of a report, so that the report can either be returned as a JSON
+     * string or be streamed to an output stream as JSON or CSV while the rows are being read.
+     */
+    public record ReportQuery(String sql, Object... parameters) {
+        public String toJson(String agencyId) {
+            return GenericJsonQuery.getJsonString(agencyId, sql, parameters);
+        }
+
+        /**
+         * Writes the rows to the output stream as they are read from the database.
+         *
+         * @return number of rows written
+         */
+        public int stream(String agencyId, StreamingQuery.Format format, OutputStream out)
+                throws SQLException, IOException {
+            return StreamingQuery.stream(agencyId, format, out, sql, parameters);
+        }
+    }
+
     /**
      * Queries agency for AVL data and returns result as a JSON string. Limited to returning
      * MAX_ROWS (50,000) data points.
@@ -28,6 +52,22 @@ public class Reports {
      */
     public static String getAvlJson(
             String agencyId, String vehicleId, String beginDate, String numdays, String beginTime, String endTime) {
+        try {
+            return getAvlQuery(agencyId, vehicleId, beginDate, numdays, beginTime, endTime).toJson(agencyId);
+        } catch (ParseException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Same as {@link #getAvlJson(String, String, String, String, String, String)} but returns the
+     * query so that the results can be streamed.
+     *
+     * @throws ParseException if beginDate is not valid
+     */
+    public static ReportQuery getAvlQuery(
+            String agencyId, String vehicleId, String beginDate, String numdays, String beginTime, String endTime)
+            throws ParseException {
         // Determine the time portion of the SQL
         String timeSql = "";
         WebAgency agency = WebAgency.getCachedWebAgency(agencyId);
@@ -76,20 +116,15 @@ public class Reports {
 
         sql += "ORDER BY vehicle_id, time LIMIT " + MAX_ROWS;
 
-        String json = null;
-        try {
-            java.util.Date startdate = Time.parseDate(beginDate);
-
-            json = GenericJsonQuery.getJsonString(agencyId, sql, startdate, startdate);
-
-        } catch (ParseException e) {
-            json = e.getMessage();
-        }
-
-        return json;
+        java.util.Date startdate = Time.parseDate(beginDate);
+        return new ReportQuery(sql, startdate, startdate);
     }
 
     public static String getTripsFromArrivalAndDeparturesByDate(String agencyId, String date) {
+        return getTripsFromArrivalAndDeparturesByDateQuery(date).toJson(agencyId);
+    }
+
+    public static ReportQuery getTripsFromArrivalAndDeparturesByDateQuery(String date) {
         // postgresql only, should throw error if it's other database type
         String sql = "SELECT "
                 + "	arrivals_departures.trip_id as tripId "
@@ -97,13 +132,14 @@ public class Reports {
                 + "WHERE Date(arrivals_departures.time) = DATE('" + date + "') "
                 + "GROUP BY arrivals_departures.trip_id";
 
-        String json = null;
-        json = GenericJsonQuery.getJsonString(agencyId, sql);
-
-        return json;
+        return new ReportQuery(sql);
     }
 
     public static String getTripWithTravelTimes(String agencyId, String tripId, String date) {
+        return getTripWithTravelTimesQuery(tripId, date).toJson(agencyId);
+    }
+
+    public static ReportQuery getTripWithTravelTimesQuery(String tripId, String date) {
         // postgresql only, should throw error if it's other database type
         String sql = "SELECT"
                 + "	arrivals_departures.trip_id as tripId"
@@ -154,13 +190,14 @@ public class Reports {
                 + "')ORDER BY arrivals_departures.time asc, arrivals_departures.direction_id"
                 + " asc, arrivals_departures.gtfs_stop_seq asc";
 
-        String json = null;
-        json = GenericJsonQuery.getJsonString(agencyId, sql, date, date, tripId, date);
-
-        return json;
+        return new ReportQuery(sql, date, date, tripId, date);
     }
 
     public static String getTripsWithTravelTimes(String agencyId, String date) {
+        return getTripsWithTravelTimesQuery(date).toJson(agencyId);
+    }
+
+    public static ReportQuery getTripsWithTravelTimesQuery(String date) {
         String sql = "SELECT"
                 + "	arrivals_departures.trip_id as tripId"
                 + "	,arrivals_departures.direction_id as directionId"
@@ -208,10 +245,7 @@ public class Reports {
                 + "')ORDER BY arrivals_departures.trip_id asc, arrivals_departures.gtfs_stop_seq"
                 + " asc, arrivals_departures.time asc";
 
-        String json = null;
-        json = GenericJsonQuery.getJsonString(agencyId, sql, date, date, date);
-
-        return json;
+        return new ReportQuery(sql, date, date, date);
     }
 
     /* Provides schedule adherence data in JSON format. Provides for
@@ -238,203 +272,20 @@ public class Reports {
             String beginTime,
             String endTime,
             int numDays) {
-        if (allowableEarly == null || allowableEarly.isEmpty()) allowableEarly = "1.0";
-        String allowableEarlyMinutesStr = "'" + SqlUtils.convertMinutesToSecs(allowableEarly) + " seconds'";
-
-        if (allowableLate == null || allowableLate.isEmpty()) allowableLate = "4.0";
-        String allowableLateMinutesStr = "'" + SqlUtils.convertMinutesToSecs(allowableLate) + " seconds'";
-
-        String sql = "WITH trips_early_query_with_time AS ( SELECT trip_id AS trips_early, 	"
-                + " regexp_replace(CAST(DATE_TRUNC('second', ad.scheduled_time::timestamp) -"
-                + " DATE_TRUNC('second', ad.time::timestamp) AS VARCHAR), '^00:', '')"
-                + " difference_in_seconds, \n"
-                // + "	 abs(((ad.time / 1000) - (ad.scheduled_time / 1000))) AS
-                // difference_in_seconds,  \n"
-                + "	 s.id AS stop_id, \n"
-                + "	 ad.stop_order AS stop_order, \n"
-                + "	 ad.vehicle_id AS v_id \n"
-                + " 	FROM arrivals_departures ad, stops s  \n"
-                + "WHERE "
-                // To get stop name
-                + " ad.config_rev = s.config_rev \n"
-                + " AND ad.stop_id = s.id \n"
-                // Only need arrivals/departures that have a schedule time
-                + " AND ad.scheduled_time IS NOT NULL \n"
-                // Specifies which routes to provide data for
-                + SqlUtils.routeClause(route, "ad")
-                + "\n"
-                + SqlUtils.timeRangeClause("ad.time", MAX_NUM_DAYS, numDays, beginTime, endTime, beginDate)
-                + "\n"
-                + " AND scheduled_time-time > "
-                + allowableEarlyMinutesStr
-                + " \n"
-                + "	 ORDER BY direction_id, ad.stop_order, s.name \n"
-                + "), \n"
-                + "trips_late_query_with_time AS ( SELECT trip_id AS trips_late,  	"
-                + " regexp_replace(CAST(DATE_TRUNC('second', ad.time::timestamp) -"
-                + " DATE_TRUNC('second', ad.scheduled_time::timestamp) AS VARCHAR), '^00:',"
-                + " '') difference_in_seconds, \n"
-                // + "	 ((ad.time / 1000) - (ad.scheduled_time / 1000)) AS
-                // difference_in_seconds,  \n"
-                + "	 s.id AS stop_id, \n"
-                + "	 ad.stop_order AS stop_order, \n"
-                + "	 ad.vehicle_id AS v_id \n"
-                + "	FROM arrivals_departures ad, Stops s  \n"
-                + "WHERE "
-                // To get stop name
-                + " ad.config_rev = s.config_rev \n"
-                + " AND ad.stop_id = s.id \n"
-                // Only need arrivals/departures that have a schedule time
-                + " AND ad.scheduled_time IS NOT NULL \n"
-                // Specifies which routes to provide data for
-                + SqlUtils.routeClause(route, "ad")
-                + "\n"
-                + SqlUtils.timeRangeClause("ad.time", MAX_NUM_DAYS, numDays, beginTime, endTime, beginDate)
-                + "\n"
-                + " AND time-scheduled_time > "
-                + allowableLateMinutesStr
-                + " \n"
-                + "	 ORDER BY direction_id, ad.stop_order, s.name \n"
-                + "), \n"
-                + "trips_late_query_v2 AS ( SELECT \n"
-                + " array_to_string(array_agg('trip: ' || trips_late::text || ' (' ||"
-                + " difference_in_seconds::text || '), vehicle: ' || v_id::text order by trips_late::text), '; ')"
-                + " AS trips_late,   \n"
-                + "		 stop_id,  \n"
-                + "		 stop_order  \n"
-                + "	 	FROM trips_late_query_with_time \n"
-                + "		 GROUP BY stop_id, stop_order \n"
-                + "	), \n"
-                + "	trips_early_query_v2 AS ( SELECT \n"
-                + "	array_to_string(array_agg('trip: ' || trips_early::text || ' (' ||"
-                + " difference_in_seconds::text || '), vehicle: ' || v_id::text order by trips_early::text), '; ')"
-                + " AS trips_early,  \n"
-                + "		 stop_id,  \n"
-                + "		 stop_order  \n"
-                + "	 	FROM trips_early_query_with_time \n"
-                + "		 GROUP BY stop_id, stop_order \n"
-                + "	) \n"
-                + "SELECT      COUNT(CASE WHEN scheduled_time-time > "
-                + allowableEarlyMinutesStr
-                + " THEN 1 ELSE null END) as early, \n"
-                + "     COUNT(CASE WHEN scheduled_time-time <= "
-                + allowableEarlyMinutesStr
-                + " AND time-scheduled_time <= "
-                + allowableLateMinutesStr
-                + " THEN 1 ELSE null END) AS ontime, \n"
-                + "     COUNT(CASE WHEN time-scheduled_time > "
-                + allowableLateMinutesStr
-                + " THEN 1 ELSE null END) AS late, \n"
-                + "     COUNT(*) AS total, \n"
-                + "     s.name AS stop_name, \n"
-                + "     ad.direction_id AS direction_id, \n"
-                + " 	trips_early_query_v2.trips_early as trips_early, \n"
-                + " 	trips_late_query_v2.trips_late as trips_late  \n"
-                + "FROM arrivals_departures ad	INNER JOIN Stops s ON ad.stop_id = s.id \n"
-                + "	LEFT JOIN trips_early_query_v2 ON s.id = trips_early_query_v2.stop_id"
-                + " AND ad.stop_order = trips_early_query_v2.stop_order \n"
-                + "	LEFT JOIN trips_late_query_v2 ON s.id = trips_late_query_v2.stop_id AND"
-                + " ad.stop_order = trips_late_query_v2.stop_order \n"
-                + "WHERE "
-                // To get stop name
-                + " ad.config_rev = s.config_rev \n"
-                + " AND ad.stop_id = s.id \n"
-                // Only need arrivals/departures that have a schedule time
-                + " AND ad.scheduled_time IS NOT NULL \n"
-                // Specifies which routes to provide data for
-                + SqlUtils.routeClause(route, "ad")
-                + "\n"
-                + SqlUtils.timeRangeClause("ad.time", MAX_NUM_DAYS, numDays, beginTime, endTime, beginDate)
-                + "\n"
-                // Grouping and ordering is a bit complicated since might also be looking
-                // at old arrival/departure data that doen't have stoporder defined. Also,
-                // when configuration changes happen then the stop order can change.
-                // Therefore want to group by directionId and stop name. Need to also
-                // group by stop order so that can output it, which can be useful for
-                // debugging, plus need to order by stop order. For the ORDER BY clause
-                // need to order by direction id and stop order, but also the stop name
-                // as a backup for if stoporder not defined for data and is therefore
-                // always the same and doesn't provide any ordering info.
-                + " GROUP BY direction_id, s.name, s.id, ad.stop_order,"
-                + " trips_early_query_v2.trips_early, trips_late_query_v2.trips_late \n"
-                + " ORDER BY direction_id, ad.stop_order, s.name";
-
-        /*+ "WITH trips_early_query AS ( SELECT "
-        + "	 array_to_string(array_agg(distinct tripid::text order by tripid::text), '; ') AS trips_early, \n"
-        + "	 s.id AS stop_id, \n"
-        + "	 ad.stopOrder AS stop_order \n"
-        + " 	FROM ArrivalsDepartures ad, Stops s  \n"
-        		+ "WHERE "
-        	    // To get stop name
-        	    + " ad.config_rev = s.config_rev \n"
-        	    + " AND ad.stop_id = s.id \n"
-        	    // Only need arrivals/departures that have a schedule time
-        	    + " AND ad.scheduled_time IS NOT NULL \n"
-        	    // Specifies which routes to provide data for
-        	    + SqlUtils.routeClause(route, "ad") + "\n"
-        	    + SqlUtils.timeRangeClause(agencyId, "ad.time", MAX_NUM_DAYS, numDays, beginTime, endTime, beginDate) + "\n"
-        	    + " AND scheduled_time-time > " + allowableEarlyMinutesStr + " \n"
-        + "	 GROUP BY directionid, s.name, s.id, ad.stopOrder \n"
-        + "	 ORDER BY directionid, ad.stopOrder, s.name \n"
-        + "), \n"
-
-        + "trips_late_query AS ( SELECT "
-        + "	 array_to_string(array_agg(distinct tripid::text order by tripid::text), '; ') AS trips_late, \n"
-        + "	 s.id AS stop_id, \n"
-        + "	 ad.stopOrder AS stop_order \n"
-        + "	FROM ArrivalsDepartures ad, Stops s  \n"
-        		+ "WHERE "
-        	    // To get stop name
-        	    + " ad.config_rev = s.config_rev \n"
-        	    + " AND ad.stop_id = s.id \n"
-        	    // Only need arrivals/departures that have a schedule time
-        	    + " AND ad.scheduled_time IS NOT NULL \n"
-        	    // Specifies which routes to provide data for
-        	    + SqlUtils.routeClause(route, "ad") + "\n"
-        	    + SqlUtils.timeRangeClause(agencyId, "ad.time", MAX_NUM_DAYS, numDays, beginTime, endTime, beginDate) + "\n"
-        	    + " AND time-scheduled_time > " + allowableLateMinutesStr + " \n"
-        + "	 GROUP BY directionid, s.name, s.id, ad.stopOrder \n"
-        + "	 ORDER BY directionid, ad.stopOrder, s.name \n"
-        + ") \n"
-        + "SELECT "
-        + "     COUNT(CASE WHEN scheduled_time-time > " + allowableEarlyMinutesStr + " THEN 1 ELSE null END) as early, \n"
-        + "     COUNT(CASE WHEN scheduled_time-time <= " + allowableEarlyMinutesStr + " AND time-scheduled_time <= "
-        			+ allowableLateMinutesStr + " THEN 1 ELSE null END) AS ontime, \n"
-          + "     COUNT(CASE WHEN time-scheduled_time > " + allowableLateMinutesStr + " THEN 1 ELSE null END) AS late, \n"
-          + "     COUNT(*) AS total, \n"
-          + "     s.name AS stop_name, \n"
-          + "     ad.directionid AS direction_id, \n"
-          + " 	trips_early_query.trips_early as trips_early, \n"
-          + " 	trips_late_query.trips_late as trips_late \n"
-          + "FROM ArrivalsDepartures ad"
-          + "	INNER JOIN Stops s ON ad.stop_id = s.id \n"
-          + "	LEFT JOIN trips_early_query ON s.id = trips_early_query.stop_id AND ad.stopOrder = trips_early_query.stop_order \n"
-          + "	LEFT JOIN trips_late_query ON s.id = trips_late_query.stop_id AND ad.stopOrder = trips_late_query.stop_order \n"
-          + "WHERE "
-          // To get stop name
-          + " ad.config_rev = s.config_rev \n"
-          + " AND ad.stop_id = s.id \n"
-          // Only need arrivals/departures that have a schedule time
-          + " AND ad.scheduled_time IS NOT NULL \n"
-          // Specifies which routes to provide data for
-          + SqlUtils.routeClause(route, "ad") + "\n"
-          + SqlUtils.timeRangeClause(agencyId, "ad.time", MAX_NUM_DAYS, numDays, beginTime, endTime, beginDate) + "\n"
-          // Grouping and ordering is a bit complicated since might also be looking
-          // at old arrival/departure data that doen't have stoporder defined. Also,
-          // when configuration changes happen then the stop order can change.
-          // Therefore want to group by directionId and stop name. Need to also
-          // group by stop order so that can output it, which can be useful for
-          // debugging, plus need to order by stop order. For the ORDER BY clause
-          // need to order by direction id and stop order, but also the stop name
-          // as a backup for if stoporder not defined for data and is therefore
-          // always the same and doesn't provide any ordering info.
-          + " GROUP BY directionid, s.name, s.id, ad.stopOrder, trips_early_query.trips_early, trips_late_query.trips_late \n"
-          + " ORDER BY directionid, ad.stopOrder, s.name";*/
-
-        // Do the query and return result in JSON format
-        String jsonString = "";
-        jsonString = GenericJsonQuery.getJsonString(agencyId, sql);
-        return jsonString;
+        // Answered from the hourly schedule adherence summaries instead of
+        // scanning arrivals_departures. Only the trips_early and trips_late
+        // columns still come from arrivals_departures since the summaries
+        // don't keep the trips.
+        return ScheduleAdherenceSummaries.getScheduleAdhByStops(
+                agencyId,
+                route,
+                beginDate,
+                allowableEarly,
+                allowableLate,
+                beginTime,
+                endTime,
+                numDays,
+                MAX_NUM_DAYS);
     }
 
     /* Provides schedule adherence data in JSON format. Provides for
@@ -760,6 +611,10 @@ public class Reports {
      * @return Last AVL reports in JSON format. Can be empty JSON array if no data meets criteria.
      */
     public static String getLastAvlJson(String agencyId) {
+        return getLastAvlQuery(agencyId).toJson(agencyId);
+    }
+
+    public static ReportQuery getLastAvlQuery(String agencyId) {
         WebAgency agency = WebAgency.getCachedWebAgency(agencyId);
         String sql = "";
         if (agency.getDbType().equals("mysql")) {
@@ -779,9 +634,7 @@ public class Reports {
                     + " JOIN vehicle_configs vC ON a.vehicle_id=vC.id";
         }
 
-        String json = null;
-        json = GenericJsonQuery.getJsonString(agencyId, sql);
-        return json;
+        return new ReportQuery(sql);
     }
 
     public static boolean hasLastAvlJsonInHours(String agencyId, String vehicleId, int hours) {
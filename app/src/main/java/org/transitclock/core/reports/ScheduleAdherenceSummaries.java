@@ -0,0 +1,380 @@
+/* (C)2023 */
+package org.transitclock.core.reports;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TimeZone;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.transitclock.core.adherence.ScheduleAdherenceHistogram;
+import org.transitclock.domain.hibernate.HibernateUtils;
+import org.transitclock.domain.structs.Agency;
+import org.transitclock.domain.structs.ScheduleAdherenceSummary;
+import org.transitclock.utils.Time;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+
+/**
+ * Answers schedule adherence reports from the schedule_adherence_summaries table, which is kept up
+ * to date by ScheduleAdherenceRollup as arrivals/departures are generated. Only the hourly rows for
+ * the requested routes and days are read and their histograms merged, instead of scanning all the
+ * arrivals/departures for the period.
+ *
+ * <p>The summaries are per hour of the agency timezone so beginTime and endTime select the hours
+ * that start within the time range. The allowable early/late limits are applied to the histogram
+ * bins, which is exact for limits that are a multiple of 30 seconds.
+ */
+@Slf4j
+public class ScheduleAdherenceSummaries {
+    private static final DateTimeFormatter US_DATE = DateTimeFormatter.ofPattern("MM-dd-yyyy");
+
+    private ScheduleAdherenceSummaries() {}
+
+    /**
+     * Schedule adherence of a group of summaries, such as of a stop or a route.
+     */
+    public static class Adherence {
+        private final int[] histogram = ScheduleAdherenceHistogram.create();
+        private long total;
+        private long latenessSumMsec;
+
+        void add(ScheduleAdherenceSummary summary) {
+            total += summary.getTotal();
+            latenessSumMsec += summary.getLatenessSumMsec();
+            ScheduleAdherenceHistogram.merge(histogram, summary.getHistogram());
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getEarly(long allowableEarlyMsec) {
+            return ScheduleAdherenceHistogram.countEarly(histogram, allowableEarlyMsec);
+        }
+
+        public long getLate(long allowableLateMsec) {
+            return ScheduleAdherenceHistogram.countLate(histogram, allowableLateMsec);
+        }
+
+        public long getOnTime(long allowableEarlyMsec, long allowableLateMsec) {
+            return total - getEarly(allowableEarlyMsec) - getLate(allowableLateMsec);
+        }
+
+        /**
+         * @return mean lateness in msec, or 0 if there is no data
+         */
+        public double getMeanLatenessMsec() {
+            return total == 0 ? 0 : (double) latenessSumMsec / total;
+        }
+
+        /**
+         * @return the percentile of the lateness in msec, or null if there is no data
+         */
+        public Long getPercentileMsec(double percentile) {
+            return ScheduleAdherenceHistogram.percentile(histogram, percentile);
+        }
+    }
+
+    /**
+     * Provides for the specified routes the number of arrivals/departures that are early, on time
+     * and late, and the total, for each direction and stop, plus the mean, median and 90th
+     * percentile lateness.
+     *
+     * <p>The summaries don't keep the trips, so the trips_early and trips_late columns, listing the
+     * individual trips that were early or late, are queried from arrivals_departures. Only the
+     * early and late arrivals/departures are read for those.
+     *
+     * @return JSON of the form {"data": [{"early": 1, "ontime": 5, ...}, ...]}
+     */
+    public static String getScheduleAdhByStops(
+            String agencyId,
+            String route,
+            String beginDate,
+            String allowableEarly,
+            String allowableLate,
+            String beginTime,
+            String endTime,
+            int numDays,
+            int maxNumDays) {
+        if (allowableEarly == null || allowableEarly.isEmpty()) allowableEarly = "1.0";
+        if (allowableLate == null || allowableLate.isEmpty()) allowableLate = "4.0";
+        long allowableEarlyMsec = SqlUtils.convertMinutesToSecs(allowableEarly) * Time.MS_PER_SEC;
+        long allowableLateMsec = SqlUtils.convertMinutesToSecs(allowableLate) * Time.MS_PER_SEC;
+
+        LocalDate date = parseDate(beginDate);
+        List<ScheduleAdherenceSummary> summaries = read(
+                agencyId,
+                timezone(agencyId),
+                routes(route),
+                date,
+                Math.min(numDays, maxNumDays),
+                parseTime(beginTime, LocalTime.MIN),
+                parseTime(endTime, LocalTime.MAX));
+        Map<List<String>, String[]> earlyAndLateTrips = earlyAndLateTrips(
+                agencyId,
+                route,
+                beginDate,
+                allowableEarlyMsec,
+                allowableLateMsec,
+                beginTime,
+                endTime,
+                numDays,
+                maxNumDays);
+
+        // Group by direction and stop, keeping the stop order and config rev
+        // of the most recent summary for ordering and for the stop name
+        Map<List<String>, Adherence> byStop = new LinkedHashMap<>();
+        Map<List<String>, ScheduleAdherenceSummary> latest = new HashMap<>();
+        for (ScheduleAdherenceSummary summary : summaries) {
+            List<String> key = List.of(summary.getDirectionId(), summary.getStopId());
+            byStop.computeIfAbsent(key, k -> new Adherence()).add(summary);
+            latest.merge(key, summary, (a, b) -> a.getHourStart().after(b.getHourStart()) ? a : b);
+        }
+
+        Map<Integer, Map<String, String>> stopNames = stopNames(agencyId, latest.values());
+
+        List<List<String>> keys = new ArrayList<>(byStop.keySet());
+        keys.sort(Comparator.<List<String>, String>comparing(k -> k.get(0))
+                .thenComparing(k -> latest.get(k).getStopOrder(), Comparator.nullsLast(Comparator.<Integer>naturalOrder()))
+                .thenComparing(k -> k.get(1)));
+
+        JSONArray data = new JSONArray();
+        for (List<String> key : keys) {
+            Adherence adherence = byStop.get(key);
+            ScheduleAdherenceSummary summary = latest.get(key);
+
+            JSONObject row = new JSONObject();
+            row.put("early", adherence.getEarly(allowableEarlyMsec));
+            row.put("ontime", adherence.getOnTime(allowableEarlyMsec, allowableLateMsec));
+            row.put("late", adherence.getLate(allowableLateMsec));
+            row.put("total", adherence.getTotal());
+            row.put("stop_id", summary.getStopId());
+            row.put("stop_name", stopNames
+                    .getOrDefault(summary.getConfigRev(), Map.of())
+                    .getOrDefault(summary.getStopId(), summary.getStopId()));
+            row.put("direction_id", summary.getDirectionId());
+            if (summary.getStopOrder() != null) {
+                row.put("stop_order", summary.getStopOrder());
+            }
+            // Every group has at least one summary so the percentiles are never null
+            row.put("mean_lateness_secs", adherence.getMeanLatenessMsec() / Time.MS_PER_SEC);
+            row.put("median_lateness_secs", adherence.getPercentileMsec(50) / (double) Time.MS_PER_SEC);
+            row.put("p90_lateness_secs", adherence.getPercentileMsec(90) / (double) Time.MS_PER_SEC);
+            String[] trips = earlyAndLateTrips.get(key);
+            if (trips != null) {
+                // Like the other columns null values are left out
+                if (trips[0] != null) row.put("trips_early", trips[0]);
+                if (trips[1] != null) row.put("trips_late", trips[1]);
+            }
+            data.put(row);
+        }
+
+        return new JSONObject().put("data", data).toString();
+    }
+
+    /**
+     * Schedule adherence for the specified routes over the whole period.
+     *
+     * @param routeIds route ids or route short names. Null or empty for all routes.
+     */
+    public static Adherence getRouteAdherence(
+            String agencyId,
+            List<String> routeIds,
+            Date startDate,
+            int numDays,
+            String beginTime,
+            String endTime) {
+        ZoneId zone = timezone(agencyId);
+        LocalDate date = startDate.toInstant().atZone(zone).toLocalDate();
+        Adherence adherence = new Adherence();
+        read(
+                        agencyId,
+                        zone,
+                        routeIds,
+                        date,
+                        numDays,
+                        parseTime(beginTime, LocalTime.MIN),
+                        parseTime(endTime, LocalTime.MAX))
+                .forEach(adherence::add);
+        return adherence;
+    }
+
+    /**
+     * Reads the summaries of the hours within the days and time of day range.
+     *
+     * @param zone the agency timezone, which the days and the time of day range are in
+     */
+    static List<ScheduleAdherenceSummary> read(
+            String agencyId,
+            ZoneId zone,
+            List<String> routes,
+            LocalDate beginDate,
+            int numDays,
+            LocalTime beginTime,
+            LocalTime endTime) {
+        Date begin = Date.from(beginDate.atStartOfDay(zone).toInstant());
+        Date end = Date.from(beginDate.plusDays(numDays).atStartOfDay(zone).toInstant());
+
+        String hql = "FROM ScheduleAdherenceSummary WHERE hourStart >= :begin AND hourStart < :end";
+        boolean filterRoutes = routes != null && !routes.isEmpty();
+        if (filterRoutes) {
+            hql += " AND (routeShortName IN (:routes) OR routeId IN (:routes))";
+        }
+
+        List<ScheduleAdherenceSummary> summaries;
+        try (Session session = HibernateUtils.getSession(agencyId)) {
+            var query = session.createQuery(hql, ScheduleAdherenceSummary.class)
+                    .setParameter("begin", begin)
+                    .setParameter("end", end);
+            if (filterRoutes) {
+                query.setParameter("routes", routes);
+            }
+            summaries = query.list();
+        }
+
+        // An hour is included if it starts within the time of day range
+        LocalTime firstHour = beginTime.withMinute(0).withSecond(0).withNano(0);
+        List<ScheduleAdherenceSummary> result = new ArrayList<>(summaries.size());
+        for (ScheduleAdherenceSummary summary : summaries) {
+            LocalTime hour = summary.getHourStart().toInstant().atZone(zone).toLocalTime();
+            if (!hour.isBefore(firstHour) && hour.isBefore(endTime)) {
+                result.add(summary);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lists the trips that were early and the trips that were late for each direction and stop, in
+     * the same format as the trips_early and trips_late columns of the query on
+     * arrivals_departures that the report used before the summaries.
+     *
+     * @return the early and the late trips by direction and stop id. Either can be null.
+     */
+    private static Map<List<String>, String[]> earlyAndLateTrips(
+            String agencyId,
+            String route,
+            String beginDate,
+            long allowableEarlyMsec,
+            long allowableLateMsec,
+            String beginTime,
+            String endTime,
+            int numDays,
+            int maxNumDays) {
+        String allowableEarlyStr = "'" + allowableEarlyMsec / Time.MS_PER_SEC + " seconds'";
+        String allowableLateStr = "'" + allowableLateMsec / Time.MS_PER_SEC + " seconds'";
+        String earlyTrip = "'trip: ' || ad.trip_id || ' (' || regexp_replace(CAST(DATE_TRUNC('second',"
+                + " ad.scheduled_time::timestamp) - DATE_TRUNC('second', ad.time::timestamp) AS VARCHAR), '^00:', '')"
+                + " || '), vehicle: ' || ad.vehicle_id";
+        String lateTrip = "'trip: ' || ad.trip_id || ' (' || regexp_replace(CAST(DATE_TRUNC('second',"
+                + " ad.time::timestamp) - DATE_TRUNC('second', ad.scheduled_time::timestamp) AS VARCHAR), '^00:', '')"
+                + " || '), vehicle: ' || ad.vehicle_id";
+        String sql = "SELECT COALESCE(ad.direction_id, '') AS direction_id, ad.stop_id,"
+                + " array_to_string(array_agg(" + earlyTrip + " ORDER BY ad.trip_id)"
+                + " FILTER (WHERE ad.scheduled_time - ad.time > " + allowableEarlyStr + "), '; ') AS trips_early,"
+                + " array_to_string(array_agg(" + lateTrip + " ORDER BY ad.trip_id)"
+                + " FILTER (WHERE ad.time - ad.scheduled_time > " + allowableLateStr + "), '; ') AS trips_late"
+                + " FROM arrivals_departures ad"
+                + " WHERE ad.scheduled_time IS NOT NULL"
+                + " AND (ad.scheduled_time - ad.time > " + allowableEarlyStr
+                + " OR ad.time - ad.scheduled_time > " + allowableLateStr + ")"
+                + SqlUtils.routeClause(route, "ad")
+                + SqlUtils.timeRangeClause("ad.time", maxNumDays, numDays, beginTime, endTime, beginDate)
+                + " GROUP BY 1, 2";
+
+        Map<List<String>, String[]> trips = new HashMap<>();
+        try (Session session = HibernateUtils.getSession(agencyId)) {
+            session.createNativeQuery(sql, Object[].class)
+                    .list()
+                    .forEach(row -> trips.put(
+                            List.of((String) row[0], (String) row[1]),
+                            new String[] {(String) row[2], (String) row[3]}));
+        }
+        return trips;
+    }
+
+    /** The agency timezone, which the summaries are rolled up per hour of */
+    private static ZoneId timezone(String agencyId) {
+        TimeZone timezone = Agency.getTimeZoneFromDb(agencyId);
+        return timezone != null ? timezone.toZoneId() : ZoneId.systemDefault();
+    }
+
+    private static Map<Integer, Map<String, String>> stopNames(
+            String agencyId, Collection<ScheduleAdherenceSummary> summaries) {
+        Map<Integer, List<String>> stopIdsByRev = new HashMap<>();
+        for (ScheduleAdherenceSummary summary : summaries) {
+            stopIdsByRev.computeIfAbsent(summary.getConfigRev(), k -> new ArrayList<>()).add(summary.getStopId());
+        }
+
+        Map<Integer, Map<String, String>> names = new HashMap<>();
+        if (stopIdsByRev.isEmpty()) {
+            return names;
+        }
+        try (Session session = HibernateUtils.getSession(agencyId)) {
+            for (Map.Entry<Integer, List<String>> entry : stopIdsByRev.entrySet()) {
+                Map<String, String> namesForRev = new HashMap<>();
+                session.createQuery(
+                                "SELECT s.id, s.name FROM Stop s WHERE s.configRev = :rev AND s.id IN (:ids)",
+                                Object[].class)
+                        .setParameter("rev", entry.getKey())
+                        .setParameter("ids", entry.getValue())
+                        .list()
+                        .forEach(row -> namesForRev.put((String) row[0], (String) row[1]));
+                names.put(entry.getKey(), namesForRev);
+            }
+        }
+        return names;
+    }
+
+    private static List<String> routes(String route) {
+        if (route == null || route.isBlank()) {
+            return null;
+        }
+        List<String> routes = new ArrayList<>();
+        for (String r : route.split(",")) {
+            if (!r.isBlank()) {
+                routes.add(r.trim());
+            }
+        }
+        return routes;
+    }
+
+    /** Accepts both MM-dd-yyyy and yyyy-MM-dd, like SqlUtils.timeRangeClause() */
+    private static LocalDate parseDate(String date) {
+        Objects.requireNonNull(date, "beginDate");
+        try {
+            return date.charAt(4) == '-' ? LocalDate.parse(date) : LocalDate.parse(date, US_DATE);
+        } catch (DateTimeParseException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Could not parse begin date \"" + date + "\".");
+        }
+    }
+
+    /** Parses HH:mm or HH:mm:ss. 24:00 means the end of the day. */
+    private static LocalTime parseTime(String time, LocalTime defaultTime) {
+        if (time == null || time.isBlank()) {
+            return defaultTime;
+        }
+        if (time.startsWith("24:")) {
+            return LocalTime.MAX;
+        }
+        try {
+            return LocalTime.parse(time);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Could not parse time \"" + time + "\".");
+        }
+    }
+}
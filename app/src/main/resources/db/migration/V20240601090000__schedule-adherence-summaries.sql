@@ -0,0 +1,101 @@
+-- schedule adherence rolled up per route/direction/stop and hour, see ScheduleAdherenceSummary
+CREATE TABLE IF NOT EXISTS schedule_adherence_summaries
+(
+    route_id          VARCHAR(60)                 NOT NULL,
+    direction_id      VARCHAR(60)                 NOT NULL,
+    stop_id           VARCHAR(60)                 NOT NULL,
+    hour_start        TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    route_short_name  VARCHAR(60),
+    config_rev        INTEGER,
+    stop_order        INTEGER,
+    total             INTEGER,
+    lateness_sum_msec BIGINT,
+    min_lateness_msec BIGINT,
+    max_lateness_msec BIGINT,
+    histogram         INTEGER[],
+    CONSTRAINT pk_schedule_adherence_summaries PRIMARY KEY (route_id, direction_id, stop_id, hour_start)
+);
+
+CREATE INDEX ScheduleAdherenceSummariesHourIndex ON schedule_adherence_summaries (hour_start);
+
+-- Backfill from the arrivals/departures already in the db so that reports for
+-- earlier periods still have data. Same rules as ScheduleAdherenceRollup: only
+-- arrivals/departures with a route and a scheduled time, lateness is time minus
+-- scheduled time, and the histogram bins are those of ScheduleAdherenceHistogram:
+-- 0 is the underflow, 1-60 the early bins, 61-180 the late bins and 181 the overflow.
+-- The times are stored as local times of the agency timezone, which is what the
+-- rollup uses for the hours too.
+INSERT INTO schedule_adherence_summaries (route_id, direction_id, stop_id, hour_start, route_short_name,
+                                          config_rev, stop_order, total, lateness_sum_msec,
+                                          min_lateness_msec, max_lateness_msec, histogram)
+WITH samples AS (SELECT route_id,
+                        COALESCE(direction_id, '')                                               AS direction_id,
+                        stop_id,
+                        DATE_TRUNC('hour', time)                                                 AS hour_start,
+                        time,
+                        route_short_name,
+                        config_rev,
+                        stop_order,
+                        ROUND(EXTRACT(EPOCH FROM (time - scheduled_time)) * 1000)::BIGINT        AS lateness
+                 FROM arrivals_departures
+                 WHERE scheduled_time IS NOT NULL
+                   AND route_id IS NOT NULL),
+     bin_counts AS (SELECT route_id,
+                           direction_id,
+                           stop_id,
+                           hour_start,
+                           CASE
+                               WHEN lateness < 0 AND (-lateness - 1) / 30000 >= 60 THEN 0
+                               WHEN lateness < 0 THEN 60 - (-lateness - 1) / 30000
+                               WHEN lateness = 0 THEN 61
+                               WHEN (lateness - 1) / 30000 >= 120 THEN 181
+                               ELSE 61 + (lateness - 1) / 30000
+                               END  AS bin,
+                           COUNT(*) AS n
+                    FROM samples
+                    GROUP BY 1, 2, 3, 4, 5),
+     histograms AS (SELECT k.route_id,
+                           k.direction_id,
+                           k.stop_id,
+                           k.hour_start,
+                           ARRAY_AGG(COALESCE(c.n, 0)::INTEGER ORDER BY g.bin) AS histogram
+                    FROM (SELECT DISTINCT route_id, direction_id, stop_id, hour_start FROM bin_counts) k
+                             CROSS JOIN generate_series(0, 181) AS g(bin)
+                             LEFT JOIN bin_counts c
+                                       ON c.route_id = k.route_id
+                                           AND c.direction_id = k.direction_id
+                                           AND c.stop_id = k.stop_id
+                                           AND c.hour_start = k.hour_start
+                                           AND c.bin = g.bin
+                    GROUP BY k.route_id, k.direction_id, k.stop_id, k.hour_start),
+     totals AS (SELECT route_id,
+                       direction_id,
+                       stop_id,
+                       hour_start,
+                       (ARRAY_AGG(route_short_name ORDER BY time DESC))[1]                                 AS route_short_name,
+                       MAX(config_rev)                                                                     AS config_rev,
+                       (ARRAY_AGG(stop_order ORDER BY time DESC) FILTER (WHERE stop_order IS NOT NULL))[1] AS stop_order,
+                       COUNT(*)                                                                            AS total,
+                       SUM(lateness)::BIGINT                                                               AS lateness_sum_msec,
+                       MIN(lateness)                                                                       AS min_lateness_msec,
+                       MAX(lateness)                                                                       AS max_lateness_msec
+                FROM samples
+                GROUP BY route_id, direction_id, stop_id, hour_start)
+SELECT t.route_id,
+       t.direction_id,
+       t.stop_id,
+       t.hour_start,
+       t.route_short_name,
+       t.config_rev,
+       t.stop_order,
+       t.total,
+       t.lateness_sum_msec,
+       t.min_lateness_msec,
+       t.max_lateness_msec,
+       h.histogram
+FROM totals t
+         JOIN histograms h
+              ON h.route_id = t.route_id
+                  AND h.direction_id = t.direction_id
+                  AND h.stop_id = t.stop_id
+                  AND h.hour_start = t.hour_start;
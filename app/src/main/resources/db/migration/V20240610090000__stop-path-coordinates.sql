@@ -0,0 +1,17 @@
+-- stop path shapes as a single array of interleaved lat/lon per stop path, see StopPathGeometry,
+-- instead of a stoppath_locations row per location
+ALTER TABLE stop_paths ADD COLUMN IF NOT EXISTS coordinates DOUBLE PRECISION[];
+
+UPDATE stop_paths sp
+SET coordinates = (SELECT array_agg(c.value ORDER BY l.list_index, c.ord)
+                   FROM stoppath_locations l
+                            CROSS JOIN LATERAL unnest(ARRAY [coalesce(l.lat, 0.0), coalesce(l.lon, 0.0)])
+                       WITH ORDINALITY AS c(value, ord)
+                   WHERE l.stoppath_trip_pattern_id = sp.trip_pattern_id
+                     AND l.stoppath_stop_path_id = sp.stop_path_id
+                     AND l.stoppath_config_rev = sp.config_rev);
+
+-- stoppath_locations is kept, so the shapes can still be restored from it, until the coordinates
+-- column has been confirmed in production. It is dropped in a later migration. Its rows are no longer
+-- written or deleted, so the foreign key would keep old config revs of stop_paths from being deleted.
+ALTER TABLE stoppath_locations DROP CONSTRAINT IF EXISTS fk_stoppath_locations_on_stop_path;
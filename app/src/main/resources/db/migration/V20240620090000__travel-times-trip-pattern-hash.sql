@@ -0,0 +1,3 @@
+-- hash of the stop paths and shapes of the trip pattern the travel times are for, so that they
+-- can be carried forward to a trip pattern whose ID changed but whose content didn't
+ALTER TABLE travel_times_for_trips ADD COLUMN IF NOT EXISTS trip_pattern_hash VARCHAR(64);
@@ -0,0 +1,152 @@
+package org.transitclock.api.utils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.transitclock.api.utils.ConfigResponseCache.Key;
+import org.transitclock.gtfs.DbConfig;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.accept.ContentNegotiationManager;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConfigResponseCacheTest {
+
+    /** In memory config whose revision can be changed */
+    private static class TestDbConfig extends DbConfig {
+        private int rev = 1;
+
+        TestDbConfig() {
+            super(null, "agency", 1, List.of(), List.of(), List.of(), List.of(), List.of(), List.of(), List.of());
+        }
+
+        @Override
+        public int getConfigRev() {
+            return rev;
+        }
+    }
+
+    private final TestDbConfig dbConfig = new TestDbConfig();
+    private final ConfigResponseCache cache =
+            new ConfigResponseCache(dbConfig, new ObjectMapper(), new ContentNegotiationManager());
+    private final AtomicInteger builds = new AtomicInteger();
+    private MockHttpServletRequest request;
+
+    @BeforeEach
+    void setUp() {
+        request = new MockHttpServletRequest();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    private ResponseEntity<String> respond(Key key, String response) {
+        return cache.respond(key, () -> {
+            builds.incrementAndGet();
+            return response;
+        });
+    }
+
+    private String etagFor(String accept) {
+        request = new MockHttpServletRequest();
+        if (accept != null) {
+            request.addHeader(HttpHeaders.ACCEPT, accept);
+        }
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        return respond(Key.of("routes"), "routes").getHeaders().getETag();
+    }
+
+    @Test
+    void memoizesPerKey() {
+        assertThat(respond(Key.of("block", "b1", "s1"), "b1").getBody()).isEqualTo("b1");
+        assertThat(respond(Key.of("block", "b1", "s1"), "other").getBody()).isEqualTo("b1");
+        assertThat(builds).hasValue(1);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void differentParametersDontShareResponse() {
+        // These would be the same if the parameters were joined into a string
+        respond(Key.of("block", "a|b", "c"), "1");
+        assertThat(respond(Key.of("block", "a", "b|c"), "2").getBody()).isEqualTo("2");
+        respond(Key.of("routes", List.of("r1", "r2"), true), "3");
+        assertThat(respond(Key.of("routes", "[r1, r2]", true), "4").getBody()).isEqualTo("4");
+        respond(Key.of("blocks", (Object) null), "5");
+        assertThat(respond(Key.of("blocks", "null"), "6").getBody()).isEqualTo("6");
+        assertThat(respond(Key.of("blocksTerse", (Object) null), "7").getBody()).isEqualTo("7");
+
+        assertThat(builds).hasValue(7);
+        assertThat(respond(Key.of("routes", List.of("r1", "r2"), true), "other").getBody())
+                .isEqualTo("3");
+    }
+
+    @Test
+    void droppedWhenConfigRevisionChanges() {
+        respond(Key.of("stops", "r1"), "rev1");
+        String etag = respond(Key.of("stops", "r1"), "rev1").getHeaders().getETag();
+
+        dbConfig.rev = 2;
+        ResponseEntity<String> response = respond(Key.of("stops", "r1"), "rev2");
+        assertThat(response.getBody()).isEqualTo("rev2");
+        assertThat(response.getHeaders().getETag()).isNotEqualTo(etag);
+        assertThat(builds).hasValue(2);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void droppedWhenInvalidated() {
+        respond(Key.of("stops", "r1"), "first");
+
+        cache.invalidate();
+        assertThat(cache.size()).isZero();
+        assertThat(respond(Key.of("stops", "r1"), "second").getBody()).isEqualTo("second");
+        assertThat(builds).hasValue(2);
+    }
+
+    @Test
+    void etagSaysWhichRepresentation() {
+        String json = etagFor(null);
+        assertThat(json).endsWith("-j\"");
+        assertThat(etagFor("*/*")).isEqualTo(json);
+        assertThat(etagFor("application/json")).isEqualTo(json);
+        assertThat(etagFor("application/json, application/xml")).isEqualTo(json);
+        assertThat(etagFor("application/xml;q=0.5, application/*")).isEqualTo(json);
+
+        String xml = etagFor("application/xml");
+        assertThat(xml).endsWith("-x\"");
+        assertThat(xml.substring(0, xml.length() - 3)).isEqualTo(json.substring(0, json.length() - 3));
+        assertThat(etagFor("application/json;q=0.1, application/xml")).isEqualTo(xml);
+        assertThat(etagFor("text/html, application/xml;q=0.9, */*;q=0.8")).isEqualTo(xml);
+
+        // Built only once for all the representations
+        assertThat(builds).hasValue(1);
+    }
+
+    @Test
+    void notModifiedWhenClientHasCurrentVersion() {
+        String etag = respond(Key.of("blocks", "b1"), "b1").getHeaders().getETag();
+
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\", W/" + etag);
+        ResponseEntity<String> response = respond(Key.of("blocks", "b1"), "b1");
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(response.getBody()).isNull();
+        assertThat(response.getHeaders().getETag()).isEqualTo(etag);
+
+        // Other representation isn't the version the client has
+        request.addHeader(HttpHeaders.ACCEPT, "application/xml");
+        assertThat(respond(Key.of("blocks", "b1"), "b1").getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+}
@@ -0,0 +1,36 @@
+plugins {
+    id("java")
+    id("me.champeau.jmh")
+}
+
+// Benchmarks of the realtime hot paths, from AVL matching through to the GTFS-realtime feeds,
+// run against a generated network and fleet. Run with ./gradlew :benchmarks:jmh and compare
+// build/results/jmh/results.json between commits.
+//
+// Also the AVL replay, which runs a recorded AVL archive through the whole pipeline against a
+// GTFS feed loaded into an in-memory database. Run with
+// ./gradlew :benchmarks:replay --args="--gtfs gtfs.zip --avl avl_reports.csv" and compare the
+// results file between commits.
+dependencies {
+    implementation(project(":libs:core"))
+    implementation("org.springframework.boot:spring-boot-starter")
+    implementation("org.apache.commons:commons-csv")
+    runtimeOnly("com.h2database:h2")
+
+    jmh(project(":libs:core"))
+    jmh(project(":app"))
+    jmh("org.apache.commons:commons-csv")
+}
+
+jmh {
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+}
+
+tasks.register<JavaExec>("replay") {
+    description = "Replays an AVL archive through the AVL processing. See AvlReplay for the arguments."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass = "org.transitclock.benchmarks.replay.AvlReplay"
+    jvmArgs("-Xmx4g")
+    workingDir = rootDir
+}
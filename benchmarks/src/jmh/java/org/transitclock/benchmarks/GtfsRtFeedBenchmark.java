@@ -0,0 +1,186 @@
+package org.transitclock.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.transitclock.api.data.gtfs.GtfsRtTripFeed;
+import org.transitclock.api.data.gtfs.GtfsRtVehicleFeed;
+import org.transitclock.api.utils.AgencyTimezoneCache;
+import org.transitclock.core.TravelTimes;
+import org.transitclock.core.VehicleStatus;
+import org.transitclock.core.avl.RealTimeSchedAdhProcessor;
+import org.transitclock.core.dataCache.HoldingTimeCache;
+import org.transitclock.core.dataCache.PredictionDataCache;
+import org.transitclock.core.dataCache.StopPathPredictionCache;
+import org.transitclock.core.dataCache.VehicleDataCache;
+import org.transitclock.core.dataCache.VehicleStatusManager;
+import org.transitclock.core.dataCache.ehcache.StopArrivalDepartureCache;
+import org.transitclock.core.dataCache.ehcache.scheduled.TripDataHistoryCache;
+import org.transitclock.core.prediction.PredictionGeneratorDefaultImpl;
+import org.transitclock.core.prediction.bias.DummyBiasAdjuster;
+import org.transitclock.core.prediction.datafilter.TravelTimeDataFilterImpl;
+import org.transitclock.domain.hibernate.DataDbLogger;
+import org.transitclock.domain.structs.Location;
+import org.transitclock.domain.structs.VehicleConfig;
+import org.transitclock.gtfs.DbConfig;
+import org.transitclock.gtfs.GtfsFilter;
+import org.transitclock.properties.ApiProperties;
+import org.transitclock.properties.PredictionProperties;
+import org.transitclock.service.VehiclesServiceImpl;
+import org.transitclock.service.contract.PredictionsService;
+import org.transitclock.service.dto.IpcPrediction;
+import org.transitclock.service.dto.IpcPredictionsForRouteStopDest;
+import org.transitclock.service.dto.IpcVehicleConfig;
+import org.transitclock.utils.SystemTime;
+import org.transitclock.utils.Time;
+
+import org.ehcache.CacheManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creating and serializing the GTFS-realtime trip updates and vehicle positions feeds for the whole
+ * fleet, from the prediction and vehicle data caches as filled in by the realtime processing.
+ *
+ * <p>The services the feeds use answer from the real caches, except that the vehicle configs come
+ * from the fleet since they are otherwise read from the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class GtfsRtFeedBenchmark {
+
+    @Param({"50"})
+    private int routes;
+
+    @Param({"40"})
+    private int stopsPerTripPattern;
+
+    @Param({"600"})
+    private int headwaySecs;
+
+    private CacheManager cacheManager;
+    private GtfsRtTripFeed tripFeed;
+    private GtfsRtVehicleFeed vehicleFeed;
+
+    @Setup
+    public void setUp() {
+        SyntheticNetwork network = new SyntheticNetwork(routes, stopsPerTripPattern, headwaySecs);
+        DbConfig dbConfig = network.getDbConfig();
+        PredictionProperties predictionProperties = new PredictionProperties();
+        TravelTimes travelTimes = new TravelTimes(dbConfig);
+        VehicleStatusManager vehicleStatusManager = new VehicleStatusManager();
+        DataDbLogger dataDbLogger = new DataDbLogger(SyntheticNetwork.AGENCY_ID, false, false, 1000);
+        cacheManager = SyntheticNetwork.createCacheManager();
+
+        PredictionGeneratorDefaultImpl predictionGenerator = new PredictionGeneratorDefaultImpl(
+                new StopArrivalDepartureCache(cacheManager),
+                new TripDataHistoryCache(cacheManager, new GtfsFilter(null, null), dbConfig),
+                dbConfig,
+                dataDbLogger,
+                new TravelTimeDataFilterImpl(predictionProperties),
+                predictionProperties,
+                new HoldingTimeCache(cacheManager),
+                new StopPathPredictionCache(cacheManager),
+                travelTimes,
+                null,
+                vehicleStatusManager,
+                new RealTimeSchedAdhProcessor(travelTimes, dbConfig),
+                new DummyBiasAdjuster());
+        PredictionDataCache predictionDataCache =
+                new PredictionDataCache(vehicleStatusManager, dbConfig, predictionProperties);
+        VehicleDataCache vehicleDataCache = new VehicleDataCache(predictionDataCache, dataDbLogger, dbConfig);
+
+        // Fill in the caches the way MatchProcessor and AvlProcessor do
+        List<VehicleStatus> fleet = network.createFleet(vehicleStatusManager, true);
+        if (fleet.isEmpty()) throw new IllegalStateException("None of the vehicles could be matched");
+        for (VehicleStatus vehicleStatus : fleet) {
+            List<IpcPrediction> predictions = predictionGenerator.generate(vehicleStatus);
+            predictionDataCache.updatePredictions(vehicleStatus.getPredictions(), predictions);
+            vehicleStatus.setPredictions(predictions);
+            vehicleDataCache.updateVehicle(vehicleStatus);
+        }
+
+        List<IpcVehicleConfig> vehicleConfigs = new ArrayList<>(fleet.size());
+        for (VehicleConfig vehicleConfig : SyntheticNetwork.vehicleConfigs(fleet)) {
+            vehicleConfigs.add(new IpcVehicleConfig(vehicleConfig));
+        }
+        VehiclesServiceImpl vehiclesService = new VehiclesServiceImpl(vehicleDataCache, null, dbConfig) {
+            @Override
+            public Collection<IpcVehicleConfig> getVehicleConfigs() {
+                return vehicleConfigs;
+            }
+        };
+        PredictionsService predictionsService = new PredictionsService() {
+            @Override
+            public List<IpcPredictionsForRouteStopDest> get(
+                    String routeShortName, String stopId, int predictionsPerStop) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public List<IpcPredictionsForRouteStopDest> get(List<RouteStop> routeStops, int predictionsPerStop) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public List<IpcPredictionsForRouteStopDest> get(Location loc, double maxDistance, int predictionsPerStop) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public List<IpcPredictionsForRouteStopDest> getAllPredictions(int predictionMaxFutureSecs) {
+                // Same as PredictionsServiceImpl
+                long maxSystemTimeForPrediction =
+                        SystemTime.getMillis() + (long) predictionMaxFutureSecs * Time.MS_PER_SEC;
+                return predictionDataCache.getAllPredictions(Integer.MAX_VALUE, maxSystemTimeForPrediction);
+            }
+        };
+        TimeZone timeZone = dbConfig.getFirstAgency().getTimeZone();
+        AgencyTimezoneCache agencyTimezoneCache = new AgencyTimezoneCache(null) {
+            @Override
+            public TimeZone get(String agencyId) {
+                return timeZone;
+            }
+        };
+
+        tripFeed = new GtfsRtTripFeed(
+                new ApiProperties(),
+                network.getCoreProperties(),
+                predictionsService,
+                vehiclesService,
+                agencyTimezoneCache);
+        vehicleFeed = new GtfsRtVehicleFeed(SyntheticNetwork.AGENCY_ID, vehiclesService, agencyTimezoneCache);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cacheManager.close();
+    }
+
+    @Benchmark
+    public byte[] tripUpdates() {
+        return tripFeed.createMessage().toByteArray();
+    }
+
+    @Benchmark
+    public byte[] vehiclePositions() {
+        return vehicleFeed.createMessage().toByteArray();
+    }
+}
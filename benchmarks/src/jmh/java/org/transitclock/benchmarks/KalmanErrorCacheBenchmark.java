@@ -0,0 +1,129 @@
+package org.transitclock.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.transitclock.core.VehicleStatus;
+import org.transitclock.core.dataCache.ErrorCache;
+import org.transitclock.core.dataCache.KalmanError;
+import org.transitclock.core.dataCache.KalmanErrorCacheKey;
+import org.transitclock.core.dataCache.StripedKalmanErrorCache;
+import org.transitclock.core.dataCache.VehicleStatusManager;
+import org.transitclock.core.dataCache.ehcache.KalmanErrorCache;
+import org.transitclock.domain.structs.Block;
+import org.transitclock.domain.structs.Trip;
+
+import org.ehcache.CacheManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Kalman error caches, with an error value for every stop path of every trip of the network.
+ * Each invocation reads, or writes, the error values for the stop paths of the current trip of
+ * the next vehicle, as the Kalman prediction generator does when generating predictions for a
+ * vehicle and when the vehicle arrives at stops.
+ *
+ * <p>The ehcache implementation is the one configured by ehcache.xml, so values also go to the
+ * disk tier.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class KalmanErrorCacheBenchmark {
+
+    @Param({"ehcache", "striped"})
+    private String implementation;
+
+    @Param({"50"})
+    private int routes;
+
+    @Param({"40"})
+    private int stopsPerTripPattern;
+
+    @Param({"600"})
+    private int headwaySecs;
+
+    private CacheManager cacheManager;
+    private ErrorCache errorCache;
+    // Keys for the stop paths of the current trip of each vehicle
+    private List<KalmanErrorCacheKey[]> keysByVehicle;
+    private double[] errors;
+    private int vehicleIndex;
+
+    @Setup
+    public void setUp() {
+        SyntheticNetwork network = new SyntheticNetwork(routes, stopsPerTripPattern, headwaySecs);
+        if (implementation.equals("ehcache")) {
+            cacheManager = SyntheticNetwork.createCacheManager();
+            errorCache = new KalmanErrorCache(cacheManager);
+        } else {
+            errorCache = new StripedKalmanErrorCache(1_000_000, 21, null, 0);
+        }
+
+        Random random = new Random(42);
+        for (Block block : network.getDbConfig().getBlocks()) {
+            for (Trip trip : block.getTrips()) {
+                for (int i = 0; i < trip.getNumberStopPaths(); ++i) {
+                    errorCache.putErrorValue(new KalmanErrorCacheKey(trip.getId(), i), random.nextDouble() * 60_000);
+                }
+            }
+        }
+
+        List<VehicleStatus> fleet = network.createFleet(new VehicleStatusManager(), false);
+        if (fleet.isEmpty()) throw new IllegalStateException("None of the vehicles could be matched");
+        keysByVehicle = new ArrayList<>(fleet.size());
+        for (VehicleStatus vehicleStatus : fleet) {
+            Trip trip = vehicleStatus.getMatch().getTrip();
+            KalmanErrorCacheKey[] keys = new KalmanErrorCacheKey[trip.getNumberStopPaths()];
+            for (int i = 0; i < keys.length; ++i) {
+                keys[i] = new KalmanErrorCacheKey(trip.getId(), i);
+            }
+            keysByVehicle.add(keys);
+        }
+        errors = new double[stopsPerTripPattern];
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (cacheManager != null) cacheManager.close();
+    }
+
+    private KalmanErrorCacheKey[] nextKeys() {
+        vehicleIndex = (vehicleIndex + 1) % keysByVehicle.size();
+        return keysByVehicle.get(vehicleIndex);
+    }
+
+    @Benchmark
+    public double[] getErrorValue() {
+        KalmanErrorCacheKey[] keys = nextKeys();
+        for (int i = 0; i < keys.length; ++i) {
+            KalmanError error = errorCache.getErrorValue(keys[i]);
+            errors[i] = error != null ? error.getError() : 0.0;
+        }
+        return errors;
+    }
+
+    @Benchmark
+    public double[] putErrorValue() {
+        KalmanErrorCacheKey[] keys = nextKeys();
+        for (int i = 0; i < keys.length; ++i) {
+            errorCache.putErrorValue(keys[i], errors[i]);
+        }
+        return errors;
+    }
+}
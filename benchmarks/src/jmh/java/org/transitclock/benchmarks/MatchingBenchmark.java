@@ -0,0 +1,95 @@
+package org.transitclock.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.transitclock.core.TravelTimes;
+import org.transitclock.core.VehicleStatus;
+import org.transitclock.core.avl.space.SpatialMatch;
+import org.transitclock.core.avl.space.SpatialMatcher;
+import org.transitclock.core.avl.time.TemporalMatch;
+import org.transitclock.core.avl.time.TemporalMatcher;
+import org.transitclock.core.dataCache.VehicleStatusManager;
+import org.transitclock.gtfs.DbConfig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching a new AVL report for a vehicle that is already predictable, as AvlProcessor does for
+ * every report: the spatial matching to the stop paths from the previous match onwards, and then
+ * choosing the spatial match that best fits temporally.
+ *
+ * <p>Each invocation matches the report of the next vehicle of the fleet so the scores are per AVL
+ * report. The vehicles are left unchanged so the same report is matched each time round.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class MatchingBenchmark {
+
+    @Param({"50"})
+    private int routes;
+
+    @Param({"40"})
+    private int stopsPerTripPattern;
+
+    @Param({"600"})
+    private int headwaySecs;
+
+    private SyntheticNetwork network;
+    private DbConfig dbConfig;
+    private TemporalMatcher temporalMatcher;
+    private List<VehicleStatus> fleet;
+    private List<List<SpatialMatch>> spatialMatchesByVehicle;
+    private int vehicleIndex;
+
+    @Setup
+    public void setUp() {
+        network = new SyntheticNetwork(routes, stopsPerTripPattern, headwaySecs);
+        dbConfig = network.getDbConfig();
+        temporalMatcher = new TemporalMatcher(new TravelTimes(dbConfig), dbConfig);
+        fleet = network.createFleet(new VehicleStatusManager(), false);
+        if (fleet.isEmpty()) throw new IllegalStateException("None of the vehicles could be matched");
+
+        spatialMatchesByVehicle = new ArrayList<>(fleet.size());
+        for (VehicleStatus vehicleStatus : fleet) {
+            spatialMatchesByVehicle.add(newSpatialMatcher().getSpatialMatches(vehicleStatus));
+        }
+    }
+
+    private SpatialMatcher newSpatialMatcher() {
+        return new SpatialMatcher(dbConfig, network.getCoreProperties(), network.getAvlProperties());
+    }
+
+    private int nextVehicleIndex() {
+        vehicleIndex = (vehicleIndex + 1) % fleet.size();
+        return vehicleIndex;
+    }
+
+    @Benchmark
+    public List<SpatialMatch> spatialMatches() {
+        // SpatialMatcher keeps state while matching so a new one is used
+        // for each report, as in AvlProcessor
+        return newSpatialMatcher().getSpatialMatches(fleet.get(nextVehicleIndex()));
+    }
+
+    @Benchmark
+    public TemporalMatch bestTemporalMatch() {
+        int index = nextVehicleIndex();
+        return temporalMatcher.getBestTemporalMatch(fleet.get(index), spatialMatchesByVehicle.get(index));
+    }
+}
@@ -0,0 +1,106 @@
+package org.transitclock.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.transitclock.core.TravelTimes;
+import org.transitclock.core.VehicleStatus;
+import org.transitclock.core.avl.RealTimeSchedAdhProcessor;
+import org.transitclock.core.dataCache.HoldingTimeCache;
+import org.transitclock.core.dataCache.StopPathPredictionCache;
+import org.transitclock.core.dataCache.VehicleStatusManager;
+import org.transitclock.core.dataCache.ehcache.StopArrivalDepartureCache;
+import org.transitclock.core.dataCache.ehcache.scheduled.TripDataHistoryCache;
+import org.transitclock.core.prediction.PredictionGeneratorDefaultImpl;
+import org.transitclock.core.prediction.bias.DummyBiasAdjuster;
+import org.transitclock.core.prediction.datafilter.TravelTimeDataFilterImpl;
+import org.transitclock.domain.hibernate.DataDbLogger;
+import org.transitclock.gtfs.DbConfig;
+import org.transitclock.gtfs.GtfsFilter;
+import org.transitclock.properties.PredictionProperties;
+import org.transitclock.service.dto.IpcPrediction;
+
+import org.ehcache.CacheManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generating the predictions for the rest of the block of a vehicle that has just been matched,
+ * using the default prediction generator with schedule based travel times. The historical caches
+ * are empty, as they are for a new agency, so this is the cost of walking the block and not of
+ * looking up history.
+ *
+ * <p>Each invocation generates the predictions for the next vehicle of the fleet so the score is per
+ * AVL report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PredictionGeneratorBenchmark {
+
+    @Param({"50"})
+    private int routes;
+
+    @Param({"40"})
+    private int stopsPerTripPattern;
+
+    @Param({"600"})
+    private int headwaySecs;
+
+    private CacheManager cacheManager;
+    private PredictionGeneratorDefaultImpl predictionGenerator;
+    private List<VehicleStatus> fleet;
+    private int vehicleIndex;
+
+    @Setup
+    public void setUp() {
+        SyntheticNetwork network = new SyntheticNetwork(routes, stopsPerTripPattern, headwaySecs);
+        DbConfig dbConfig = network.getDbConfig();
+        PredictionProperties predictionProperties = new PredictionProperties();
+        TravelTimes travelTimes = new TravelTimes(dbConfig);
+        VehicleStatusManager vehicleStatusManager = new VehicleStatusManager();
+        cacheManager = SyntheticNetwork.createCacheManager();
+
+        predictionGenerator = new PredictionGeneratorDefaultImpl(
+                new StopArrivalDepartureCache(cacheManager),
+                new TripDataHistoryCache(cacheManager, new GtfsFilter(null, null), dbConfig),
+                dbConfig,
+                new DataDbLogger(SyntheticNetwork.AGENCY_ID, false, false, 1000),
+                new TravelTimeDataFilterImpl(predictionProperties),
+                predictionProperties,
+                new HoldingTimeCache(cacheManager),
+                new StopPathPredictionCache(cacheManager),
+                travelTimes,
+                null,
+                vehicleStatusManager,
+                new RealTimeSchedAdhProcessor(travelTimes, dbConfig),
+                new DummyBiasAdjuster());
+
+        fleet = network.createFleet(vehicleStatusManager, true);
+        if (fleet.isEmpty()) throw new IllegalStateException("None of the vehicles could be matched");
+    }
+
+    @TearDown
+    public void tearDown() {
+        cacheManager.close();
+    }
+
+    @Benchmark
+    public List<IpcPrediction> generate() {
+        vehicleIndex = (vehicleIndex + 1) % fleet.size();
+        return predictionGenerator.generate(fleet.get(vehicleIndex));
+    }
+}
@@ -0,0 +1,114 @@
+package org.transitclock.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.transitclock.core.dataCache.StopArrivalDepartureCacheKey;
+import org.transitclock.core.dataCache.StopEvents;
+import org.transitclock.core.dataCache.ehcache.StopArrivalDepartureCache;
+import org.transitclock.domain.structs.ArrivalDeparture;
+import org.transitclock.service.dto.IpcArrivalDeparture;
+import org.transitclock.utils.SystemTime;
+import org.transitclock.utils.Time;
+
+import org.ehcache.CacheManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The stop arrival/departure cache as configured by ehcache.xml. Before each iteration the cache is
+ * filled with the arrivals and departures of the fleet from two hours ago up to 15 minutes ago.
+ *
+ * <p>putArrivalsDepartures adds the arrivals and departures of the last 15 minutes, as the AVL
+ * processing does as they happen, and is timed as a whole. getStopHistory reads the history of
+ * the next stop, as the prediction generators do for dwell times and headways.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class StopArrivalDepartureCacheBenchmark {
+
+    @Param({"50"})
+    private int routes;
+
+    @Param({"40"})
+    private int stopsPerTripPattern;
+
+    @Param({"600"})
+    private int headwaySecs;
+
+    private CacheManager cacheManager;
+    private StopArrivalDepartureCache cache;
+    private List<ArrivalDeparture> history;
+    private List<ArrivalDeparture> recent;
+    private List<String> stopIds;
+    private Date today;
+    private int stopIndex;
+
+    @Setup
+    public void setUp() {
+        SyntheticNetwork network = new SyntheticNetwork(routes, stopsPerTripPattern, headwaySecs);
+        long now = SystemTime.getMillis();
+        long recentBegin = now - 15 * Time.MS_PER_MIN;
+        history = network.createArrivalsDepartures(now - 2 * Time.MS_PER_HOUR, recentBegin);
+        recent = network.createArrivalsDepartures(recentBegin, now);
+
+        Set<String> stopIdSet = new LinkedHashSet<>();
+        for (ArrivalDeparture arrivalDeparture : history) {
+            stopIdSet.add(arrivalDeparture.getStopId());
+        }
+        stopIds = new ArrayList<>(stopIdSet);
+        today = new Date(now);
+
+        cacheManager = SyntheticNetwork.createCacheManager();
+        cache = new StopArrivalDepartureCache(cacheManager);
+    }
+
+    @Setup(Level.Iteration)
+    public void fillCache() {
+        cacheManager.getCache("arrivalDeparturesByStop", StopArrivalDepartureCacheKey.class, StopEvents.class)
+                .clear();
+        for (ArrivalDeparture arrivalDeparture : history) {
+            cache.putArrivalDeparture(arrivalDeparture);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cacheManager.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void putArrivalsDepartures(Blackhole blackhole) {
+        for (ArrivalDeparture arrivalDeparture : recent) {
+            blackhole.consume(cache.putArrivalDeparture(arrivalDeparture));
+        }
+    }
+
+    @Benchmark
+    public List<IpcArrivalDeparture> getStopHistory() {
+        stopIndex = (stopIndex + 1) % stopIds.size();
+        return cache.getStopHistory(new StopArrivalDepartureCacheKey(stopIds.get(stopIndex), today));
+    }
+}
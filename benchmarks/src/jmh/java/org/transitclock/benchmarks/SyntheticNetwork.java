@@ -0,0 +1,589 @@
+package org.transitclock.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.transitclock.core.TravelTimes;
+import org.transitclock.core.VehicleStatus;
+import org.transitclock.core.avl.RealTimeSchedAdhProcessor;
+import org.transitclock.core.avl.assigner.BlockAssignmentMethod;
+import org.transitclock.core.avl.space.SpatialMatch;
+import org.transitclock.core.avl.space.SpatialMatcher;
+import org.transitclock.core.avl.time.TemporalMatch;
+import org.transitclock.core.avl.time.TemporalMatcher;
+import org.transitclock.core.dataCache.VehicleStatusManager;
+import org.transitclock.domain.structs.Agency;
+import org.transitclock.domain.structs.Arrival;
+import org.transitclock.domain.structs.ArrivalDeparture;
+import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.domain.structs.Block;
+import org.transitclock.domain.structs.Calendar;
+import org.transitclock.domain.structs.Departure;
+import org.transitclock.domain.structs.HowSet;
+import org.transitclock.domain.structs.Location;
+import org.transitclock.domain.structs.Route;
+import org.transitclock.domain.structs.ScheduleTime;
+import org.transitclock.domain.structs.Stop;
+import org.transitclock.domain.structs.StopPath;
+import org.transitclock.domain.structs.TravelTimesForStopPath;
+import org.transitclock.domain.structs.TravelTimesForTrip;
+import org.transitclock.domain.structs.Trip;
+import org.transitclock.domain.structs.TripPattern;
+import org.transitclock.domain.structs.VehicleConfig;
+import org.transitclock.gtfs.DbConfig;
+import org.transitclock.gtfs.TitleFormatter;
+import org.transitclock.gtfs.model.GtfsAgency;
+import org.transitclock.gtfs.model.GtfsCalendar;
+import org.transitclock.gtfs.model.GtfsRoute;
+import org.transitclock.gtfs.model.GtfsStop;
+import org.transitclock.gtfs.model.GtfsTrip;
+import org.transitclock.properties.AvlProperties;
+import org.transitclock.properties.CoreProperties;
+import org.transitclock.properties.GtfsProperties;
+import org.transitclock.properties.ServiceProperties;
+import org.transitclock.utils.SystemTime;
+import org.transitclock.utils.Time;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.xml.XmlConfiguration;
+
+/**
+ * A generated network and fleet for the benchmarks, so that they can exercise the real matching,
+ * prediction and feed code without a database. The configuration is built the same way as when
+ * GTFS data is processed and then handed to DbConfig as if it had been read in.
+ *
+ * <p>Each route is a wiggly line of stops about 400m apart, served in both directions at the
+ * configured headway by blocks that alternate direction. The schedule is generated around the
+ * current time so that every block is active. Travel times are based on the schedule, as they
+ * are before any historic travel times have been processed.
+ *
+ * <p>The fleet has one vehicle per block, placed where the schedule says it should be. Each vehicle
+ * has had an AVL report matched 30 seconds ago and has received a new report at its current
+ * position, which is the state just before the new report is matched. With matchLatestReport the
+ * new report has also been matched, which is the state for generating predictions.
+ */
+public class SyntheticNetwork {
+    public static final String AGENCY_ID = "synthetic";
+    public static final int CONFIG_REV = 0;
+
+    private static final String TIME_ZONE = "America/New_York";
+    private static final String SERVICE_ID = "everyday";
+    private static final double STOP_SPACING_METERS = 400.0;
+    private static final double SPEED_METERS_PER_SEC = 6.0;
+    private static final int DWELL_SECS = 20;
+    private static final int LAYOVER_SECS = 300;
+    // Same as the default maximum travel time segment length
+    private static final double TRAVEL_TIME_SEGMENT_METERS = 200.0;
+    private static final int AVL_REPORT_INTERVAL_SECS = 30;
+    private static final double METERS_PER_DEGREE_LAT = 111_111.0;
+
+    private final Random random = new Random(42);
+    private final TitleFormatter titleFormatter = new TitleFormatter(new GtfsProperties(), null, false);
+    private final TimeZone timeZone = TimeZone.getTimeZone(TIME_ZONE);
+
+    private final CoreProperties coreProperties = new CoreProperties();
+    private final AvlProperties avlProperties = new AvlProperties();
+
+    // Time the fleet is positioned for
+    private final long now = SystemTime.getMillis();
+    // Seconds into the service day of now, and the epoch time of the start
+    // of that service day
+    private int nowSecs;
+    private long serviceDayStart;
+
+    private final List<Route> routes = new ArrayList<>();
+    private final List<TripPattern> tripPatterns = new ArrayList<>();
+    private final List<Stop> stops = new ArrayList<>();
+    private final List<Block> blocks = new ArrayList<>();
+
+    private final DbConfig dbConfig;
+
+    /**
+     * @param numRoutes how many routes to generate
+     * @param stopsPerTripPattern how many stops each direction of a route has
+     * @param headwaySecs how often each route is served in each direction
+     */
+    public SyntheticNetwork(int numRoutes, int stopsPerTripPattern, int headwaySecs) {
+        coreProperties.setAgencyId(AGENCY_ID);
+
+        // The schedule starts up to two cycles of a block before now, so
+        // if that would be before the start of the day use the service day
+        // of yesterday instead. Stops are at most twice the average spacing
+        // apart so this is an upper bound on the cycle.
+        int maxSecsPerStop = (int) (2 * STOP_SPACING_METERS / SPEED_METERS_PER_SEC) + DWELL_SECS;
+        int maxCycleSecs = 2 * (stopsPerTripPattern * maxSecsPerStop + LAYOVER_SECS);
+        long startOfToday = Time.getStartOfDay(new Date(now), timeZone);
+        nowSecs = (int) ((now - startOfToday) / Time.MS_PER_SEC);
+        serviceDayStart = startOfToday;
+        if (nowSecs < 2 * maxCycleSecs) {
+            nowSecs += Time.SEC_PER_DAY;
+            serviceDayStart -= Time.MS_PER_DAY;
+        }
+
+        for (int routeIndex = 0; routeIndex < numRoutes; ++routeIndex) {
+            generateRoute(routeIndex, stopsPerTripPattern, headwaySecs);
+        }
+
+        Agency agency = new Agency(CONFIG_REV, gtfsAgency(), routes);
+        this.dbConfig = new DbConfig(
+                new ServiceProperties(),
+                AGENCY_ID,
+                CONFIG_REV,
+                List.of(agency),
+                List.of(calendar()),
+                List.of(),
+                routes,
+                tripPatterns,
+                stops,
+                blocks);
+    }
+
+    private GtfsAgency gtfsAgency() {
+        String csv = "agency_id,agency_name,agency_url,agency_timezone\n"
+                + AGENCY_ID + ",Synthetic Transit,http://example.com," + TIME_ZONE + "\n";
+        try {
+            CSVRecord record = CSVFormat.Builder.create()
+                    .setHeader()
+                    .build()
+                    .parse(new StringReader(csv))
+                    .getRecords()
+                    .get(0);
+            return new GtfsAgency(record, false, "agency.txt");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Calendar calendar() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
+        dateFormat.setTimeZone(timeZone);
+        String startDate = dateFormat.format(new Date(now - 30 * Time.MS_PER_DAY));
+        String endDate = dateFormat.format(new Date(now + 365 * Time.MS_PER_DAY));
+        GtfsCalendar gtfsCalendar =
+                new GtfsCalendar(SERVICE_ID, "1", "1", "1", "1", "1", "1", "1", startDate, endDate);
+        return new Calendar(CONFIG_REV, gtfsCalendar, dateFormat);
+    }
+
+    private void generateRoute(int routeIndex, int stopsPerTripPattern, int headwaySecs) {
+        String routeId = "r" + routeIndex;
+        String routeShortName = Integer.toString(routeIndex + 1);
+
+        // The stops for direction 0 along a wiggly line. The stops for
+        // direction 1 are across the street in the opposite order.
+        List<Location> stopLocations = new ArrayList<>(stopsPerTripPattern);
+        double lat = 38.8 + random.nextDouble() * 0.2;
+        double lon = -77.1 + random.nextDouble() * 0.2;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < stopsPerTripPattern; ++i) {
+            stopLocations.add(new Location(lat, lon));
+            heading += (random.nextDouble() - 0.5) * Math.toRadians(40);
+            double spacing = STOP_SPACING_METERS * (0.75 + 0.5 * random.nextDouble());
+            lat += Math.cos(heading) * spacing / METERS_PER_DEGREE_LAT;
+            lon += Math.sin(heading) * spacing / metersPerDegreeLon(lat);
+        }
+        List<Location> oppositeLocations = new ArrayList<>(stopsPerTripPattern);
+        for (int i = stopsPerTripPattern - 1; i >= 0; --i) {
+            Location loc = stopLocations.get(i);
+            oppositeLocations.add(new Location(loc.getLat() + 0.0001, loc.getLon() + 0.0001));
+        }
+
+        List<List<Stop>> stopsByDirection = List.of(
+                generateStops(routeId + "_0_", stopLocations), generateStops(routeId + "_1_", oppositeLocations));
+        List<List<StopPath>> stopPathsByDirection = List.of(
+                generateStopPaths(routeId, stopsByDirection.get(0)),
+                generateStopPaths(routeId, stopsByDirection.get(1)));
+
+        // Blocks alternate direction and are spread out evenly around the
+        // cycle so that there is a vehicle every headway in each direction
+        int cycleSecs = 2 * LAYOVER_SECS
+                + tripSecs(stopPathsByDirection.get(0))
+                + tripSecs(stopPathsByDirection.get(1));
+        int numBlocks = (cycleSecs + headwaySecs - 1) / headwaySecs;
+        TripPattern[] tripPatternsByDirection = new TripPattern[2];
+        List<TripPattern> tripPatternsForRoute = new ArrayList<>(2);
+        for (int blockIndex = 0; blockIndex < numBlocks; ++blockIndex) {
+            String blockId = routeId + "_b" + blockIndex;
+            List<Trip> trips = new ArrayList<>();
+            int tripStartSecs = nowSecs - cycleSecs - blockIndex * headwaySecs;
+            for (int tripIndex = 0; tripStartSecs <= nowSecs + cycleSecs; ++tripIndex) {
+                int direction = tripIndex % 2;
+                List<Stop> stopsForTrip = stopsByDirection.get(direction);
+                List<StopPath> stopPaths = stopPathsByDirection.get(direction);
+                GtfsTrip gtfsTrip = new GtfsTrip(
+                        routeId,
+                        SERVICE_ID,
+                        blockId + "_t" + tripIndex,
+                        stopsForTrip.get(stopsForTrip.size() - 1).getName(),
+                        null,
+                        Integer.toString(direction),
+                        blockId,
+                        routeId + "_shape" + direction);
+                Trip trip = new Trip(CONFIG_REV, gtfsTrip, routeId, routeShortName, gtfsTrip.getTripHeadsign(), titleFormatter);
+
+                // All trips of a direction share the trip pattern and so the
+                // stop paths
+                TripPattern tripPattern = tripPatternsByDirection[direction];
+                if (tripPattern == null) {
+                    tripPattern = new TripPattern(
+                            CONFIG_REV,
+                            routeId + "_" + direction,
+                            gtfsTrip.getShapeId(),
+                            stopPaths,
+                            trip,
+                            routeShortName,
+                            this::getStop);
+                    tripPatternsByDirection[direction] = tripPattern;
+                    tripPatternsForRoute.add(tripPattern);
+                } else {
+                    tripPattern.addTrip(trip);
+                }
+                trip.setTripPattern(tripPattern);
+                trip.addScheduleTimes(generateScheduleTimes(stopPaths, tripStartSecs));
+                trip.setTravelTimes(generateTravelTimes(trip, stopPaths));
+                trips.add(trip);
+
+                tripStartSecs = trip.getEndTime() + LAYOVER_SECS;
+            }
+
+            Trip lastTrip = trips.get(trips.size() - 1);
+            blocks.add(new Block(
+                    CONFIG_REV, blockId, SERVICE_ID, trips.get(0).getStartTime(), lastTrip.getEndTime(), trips));
+        }
+
+        tripPatterns.addAll(tripPatternsForRoute);
+        GtfsRoute gtfsRoute = new GtfsRoute(
+                routeId, AGENCY_ID, routeShortName, "Route " + routeShortName, "3", "0000FF", "FFFFFF");
+        routes.add(new Route(CONFIG_REV, gtfsRoute, tripPatternsForRoute, titleFormatter));
+    }
+
+    private List<Stop> generateStops(String stopIdPrefix, List<Location> locations) {
+        List<Stop> stopsForTripPattern = new ArrayList<>(locations.size());
+        for (int i = 0; i < locations.size(); ++i) {
+            Location loc = locations.get(i);
+            GtfsStop gtfsStop = new GtfsStop(
+                    stopIdPrefix + i, stops.size() + 1, "Stop " + (stops.size() + 1), loc.getLat(), loc.getLon());
+            Stop stop = new Stop(CONFIG_REV, gtfsStop, null, titleFormatter);
+            stops.add(stop);
+            stopsForTripPattern.add(stop);
+        }
+        return stopsForTripPattern;
+    }
+
+    private Stop getStop(String stopId) {
+        // Only used while generating a trip pattern, for the stops just added
+        for (int i = stops.size() - 1; i >= 0; --i) {
+            if (stops.get(i).getId().equals(stopId)) return stops.get(i);
+        }
+        return null;
+    }
+
+    /**
+     * Same layout as the stop paths created when processing GTFS data: a stub path to the first
+     * stop and then a path from each stop to the next, here with a point in the middle so that
+     * there is more than one segment.
+     */
+    private List<StopPath> generateStopPaths(String routeId, List<Stop> stopsForTrip) {
+        List<StopPath> stopPaths = new ArrayList<>(stopsForTrip.size());
+        Stop previousStop = null;
+        for (int i = 0; i < stopsForTrip.size(); ++i) {
+            Stop stop = stopsForTrip.get(i);
+            boolean first = i == 0;
+            boolean last = i == stopsForTrip.size() - 1;
+            StopPath stopPath = new StopPath(
+                    CONFIG_REV,
+                    StopPath.determinePathId(previousStop != null ? previousStop.getId() : null, stop.getId()),
+                    stop.getId(),
+                    i + 1,
+                    last,
+                    routeId,
+                    first,
+                    first,
+                    first || last,
+                    null,
+                    null,
+                    null,
+                    null);
+
+            ArrayList<Location> locations = new ArrayList<>(3);
+            if (previousStop == null) {
+                locations.add(stop.getLoc());
+            } else {
+                Location from = previousStop.getLoc();
+                Location to = stop.getLoc();
+                locations.add(from);
+                locations.add(new Location(
+                        (from.getLat() + to.getLat()) / 2 + (random.nextDouble() - 0.5) * 0.0003,
+                        (from.getLon() + to.getLon()) / 2 + (random.nextDouble() - 0.5) * 0.0003));
+            }
+            locations.add(stop.getLoc());
+            stopPath.setLocations(locations);
+
+            stopPaths.add(stopPath);
+            previousStop = stop;
+        }
+        return stopPaths;
+    }
+
+    private static int travelSecs(StopPath stopPath) {
+        return (int) Math.round(stopPath.length() / SPEED_METERS_PER_SEC);
+    }
+
+    private static int tripSecs(List<StopPath> stopPaths) {
+        List<ScheduleTime> scheduleTimes = generateScheduleTimes(stopPaths, 0);
+        return scheduleTimes.get(scheduleTimes.size() - 1).getArrivalTime();
+    }
+
+    private static List<ScheduleTime> generateScheduleTimes(List<StopPath> stopPaths, int startSecs) {
+        List<ScheduleTime> scheduleTimes = new ArrayList<>(stopPaths.size());
+        scheduleTimes.add(new ScheduleTime(null, startSecs));
+        int departureSecs = startSecs;
+        for (int i = 1; i < stopPaths.size(); ++i) {
+            int arrivalSecs = departureSecs + travelSecs(stopPaths.get(i));
+            if (i == stopPaths.size() - 1) {
+                scheduleTimes.add(new ScheduleTime(arrivalSecs, null));
+            } else {
+                departureSecs = arrivalSecs + DWELL_SECS;
+                scheduleTimes.add(new ScheduleTime(arrivalSecs, departureSecs));
+            }
+        }
+        return scheduleTimes;
+    }
+
+    /** Like TravelTimesProcessorForGtfsUpdates when determining travel times from the schedule */
+    private static TravelTimesForTrip generateTravelTimes(Trip trip, List<StopPath> stopPaths) {
+        TravelTimesForTrip travelTimes = new TravelTimesForTrip(CONFIG_REV, 0, trip);
+        for (int i = 0; i < stopPaths.size(); ++i) {
+            StopPath stopPath = stopPaths.get(i);
+            double length = stopPath.length();
+            List<Integer> travelTimesMsec = new ArrayList<>();
+            double segmentLength = length;
+            int stopTimeMsec = 0;
+            if (i == 0) {
+                travelTimesMsec.add(0);
+            } else {
+                int numSegments = length > TRAVEL_TIME_SEGMENT_METERS
+                        ? (int) (length / TRAVEL_TIME_SEGMENT_METERS + 1.0)
+                        : 1;
+                segmentLength = length / numSegments;
+                int segmentMsec = travelSecs(stopPath) * Time.MS_PER_SEC / numSegments;
+                for (int segment = 0; segment < numSegments; ++segment) {
+                    travelTimesMsec.add(segmentMsec);
+                }
+                if (i < stopPaths.size() - 1) stopTimeMsec = DWELL_SECS * Time.MS_PER_SEC;
+            }
+            travelTimes.add(new TravelTimesForStopPath(
+                    CONFIG_REV,
+                    0,
+                    stopPath.getId(),
+                    segmentLength,
+                    travelTimesMsec,
+                    stopTimeMsec,
+                    -1,
+                    HowSet.SCHED,
+                    trip));
+        }
+        return travelTimes;
+    }
+
+    private static double metersPerDegreeLon(double lat) {
+        return METERS_PER_DEGREE_LAT * Math.cos(Math.toRadians(lat));
+    }
+
+    /**
+     * Creates the fleet, one vehicle per block, with the VehicleStatus for each vehicle held by the
+     * vehicleStatusManager as it is for the realtime processing.
+     *
+     * @param matchLatestReport whether the latest AVL report should also have been matched, as it
+     *     has been by the time predictions are generated
+     * @return the VehicleStatus of each vehicle that could be matched
+     */
+    public List<VehicleStatus> createFleet(VehicleStatusManager vehicleStatusManager, boolean matchLatestReport) {
+        TravelTimes travelTimes = new TravelTimes(dbConfig);
+        TemporalMatcher temporalMatcher = new TemporalMatcher(travelTimes, dbConfig);
+        RealTimeSchedAdhProcessor realTimeSchedAdhProcessor = new RealTimeSchedAdhProcessor(travelTimes, dbConfig);
+
+        List<VehicleStatus> fleet = new ArrayList<>(blocks.size());
+        for (Block block : blocks) {
+            String vehicleId = "v_" + block.getId();
+            int previousSecs = nowSecs - AVL_REPORT_INTERVAL_SECS;
+            AvlReport previousReport = avlReport(vehicleId, previousSecs, locationForBlock(block, previousSecs));
+            AvlReport avlReport = avlReport(vehicleId, nowSecs, locationForBlock(block, nowSecs));
+
+            // Initial match to the block assignment, as for a vehicle that
+            // has just been assigned
+            VehicleStatus vehicleStatus = vehicleStatusManager.getStatus(vehicleId);
+            vehicleStatus.setAvlReport(previousReport);
+            vehicleStatus.setBlock(block, BlockAssignmentMethod.AVL_FEED_BLOCK_ASSIGNMENT, block.getId(), true);
+            List<SpatialMatch> initialMatches = new SpatialMatcher(dbConfig, coreProperties, avlProperties)
+                    .getSpatialMatches(
+                            previousReport,
+                            block,
+                            block.getTripsCurrentlyActive(dbConfig, previousReport),
+                            SpatialMatcher.MatchingType.STANDARD_MATCHING);
+            TemporalMatch initialMatch =
+                    temporalMatcher.getBestTemporalMatchComparedToSchedule(previousReport, initialMatches);
+            if (initialMatch == null) continue;
+            vehicleStatus.setMatch(initialMatch);
+
+            vehicleStatus.setAvlReport(avlReport);
+            if (matchLatestReport) {
+                List<SpatialMatch> spatialMatches =
+                        new SpatialMatcher(dbConfig, coreProperties, avlProperties).getSpatialMatches(vehicleStatus);
+                TemporalMatch match = temporalMatcher.getBestTemporalMatch(vehicleStatus, spatialMatches);
+                if (match == null) continue;
+                vehicleStatus.setMatch(match);
+                vehicleStatus.setRealTimeSchedAdh(realTimeSchedAdhProcessor.generate(vehicleStatus));
+            }
+            fleet.add(vehicleStatus);
+        }
+        return fleet;
+    }
+
+    /**
+     * Creates the arrivals and departures the fleet would have had, at the scheduled times, for the
+     * stops with a scheduled time within the range.
+     *
+     * @return the arrivals and departures, in time order
+     */
+    public List<ArrivalDeparture> createArrivalsDepartures(long beginTime, long endTime) {
+        List<ArrivalDeparture> arrivalsDepartures = new ArrayList<>();
+        for (Block block : blocks) {
+            String vehicleId = "v_" + block.getId();
+            List<Trip> trips = block.getTrips();
+            for (int tripIndex = 0; tripIndex < trips.size(); ++tripIndex) {
+                Trip trip = trips.get(tripIndex);
+                for (int i = 0; i < trip.getNumberStopPaths(); ++i) {
+                    ScheduleTime scheduleTime = trip.getScheduleTime(i);
+                    if (scheduleTime.getArrivalTime() != null) {
+                        long time = getEpochTime(scheduleTime.getArrivalTime());
+                        if (time >= beginTime && time < endTime) {
+                            arrivalsDepartures.add(new Arrival(
+                                    CONFIG_REV, vehicleId, new Date(time), new Date(time), block, tripIndex, i, null, dbConfig));
+                        }
+                    }
+                    if (scheduleTime.getDepartureTime() != null) {
+                        long time = getEpochTime(scheduleTime.getDepartureTime());
+                        if (time >= beginTime && time < endTime) {
+                            arrivalsDepartures.add(new Departure(
+                                    CONFIG_REV, vehicleId, new Date(time), new Date(time), block, tripIndex, i, null, dbConfig));
+                        }
+                    }
+                }
+            }
+        }
+        arrivalsDepartures.sort(Comparator.comparing(ArrivalDeparture::getDate));
+        return arrivalsDepartures;
+    }
+
+    /** @return VehicleConfig for each vehicle of the fleet, which would otherwise be read from the db */
+    public static List<VehicleConfig> vehicleConfigs(List<VehicleStatus> fleet) {
+        List<VehicleConfig> vehicleConfigs = new ArrayList<>(fleet.size());
+        for (VehicleStatus vehicleStatus : fleet) {
+            vehicleConfigs.add(new VehicleConfig(vehicleStatus.getVehicleId(), vehicleStatus.getVehicleId()));
+        }
+        return vehicleConfigs;
+    }
+
+    private AvlReport avlReport(String vehicleId, int secsIntoDay, Location location) {
+        return AvlReport.builder()
+                .withVehicleId(vehicleId)
+                .withTime(new Date(getEpochTime(secsIntoDay)))
+                .withLocation(location)
+                .withSpeed(Float.NaN)
+                .withHeading(Float.NaN)
+                .withSource("synthetic")
+                .build();
+    }
+
+    /**
+     * Where the schedule says the vehicle for the block should be. While on layover that is the
+     * first stop of the next trip.
+     */
+    private static Location locationForBlock(Block block, int secsIntoDay) {
+        for (Trip trip : block.getTrips()) {
+            if (secsIntoDay > trip.getEndTime()) continue;
+
+            List<StopPath> stopPaths = trip.getTripPattern().getStopPaths();
+            if (secsIntoDay <= trip.getStartTime()) return stopPaths.get(0).getStopLocation();
+            for (int i = 1; i < stopPaths.size(); ++i) {
+                ScheduleTime scheduleTime = trip.getScheduleTime(i);
+                if (secsIntoDay > scheduleTime.getArrivalTime()) continue;
+
+                // Between the previous stop and this one
+                StopPath stopPath = stopPaths.get(i);
+                int travelSecs = travelSecs(stopPath);
+                int secsToArrival = scheduleTime.getArrivalTime() - secsIntoDay;
+                double fraction = travelSecs > 0 ? 1.0 - (double) secsToArrival / travelSecs : 1.0;
+                return locationAlongPath(stopPath, Math.max(0.0, fraction) * stopPath.length());
+            }
+        }
+        List<Trip> trips = block.getTrips();
+        List<StopPath> lastStopPaths = trips.get(trips.size() - 1).getTripPattern().getStopPaths();
+        return lastStopPaths.get(lastStopPaths.size() - 1).getStopLocation();
+    }
+
+    private static Location locationAlongPath(StopPath stopPath, double distance) {
+        List<Location> locations = stopPath.getLocations();
+        for (int i = 0; i < locations.size() - 1; ++i) {
+            Location from = locations.get(i);
+            Location to = locations.get(i + 1);
+            double segmentLength = from.distance(to);
+            if (distance <= segmentLength) {
+                double fraction = segmentLength > 0.0 ? distance / segmentLength : 0.0;
+                return new Location(
+                        from.getLat() + fraction * (to.getLat() - from.getLat()),
+                        from.getLon() + fraction * (to.getLon() - from.getLon()));
+            }
+            distance -= segmentLength;
+        }
+        return locations.get(locations.size() - 1);
+    }
+
+    /** @return the epoch time of the seconds into the service day that the network is for */
+    public long getEpochTime(int secsIntoDay) {
+        return serviceDayStart + (long) secsIntoDay * Time.MS_PER_SEC;
+    }
+
+    /** @return seconds into the service day of the time the fleet is positioned for */
+    public int getNowSecs() {
+        return nowSecs;
+    }
+
+    public DbConfig getDbConfig() {
+        return dbConfig;
+    }
+
+    public CoreProperties getCoreProperties() {
+        return coreProperties;
+    }
+
+    public AvlProperties getAvlProperties() {
+        return avlProperties;
+    }
+
+    /**
+     * Creates the CacheManager for the ehcache based caches the same way the application does, from
+     * ehcache.xml. Needs to be closed when done since the caches are persisted.
+     */
+    public static CacheManager createCacheManager() {
+        URL xmlConfigUrl = SyntheticNetwork.class.getClassLoader().getResource("ehcache.xml");
+        if (xmlConfigUrl == null) {
+            throw new IllegalStateException("Could not find ehcache.xml");
+        }
+        CacheManager cacheManager = CacheManagerBuilder.newCacheManager(new XmlConfiguration(xmlConfigUrl));
+        cacheManager.init();
+        return cacheManager;
+    }
+}
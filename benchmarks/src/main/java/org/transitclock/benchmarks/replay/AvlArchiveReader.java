@@ -0,0 +1,195 @@
+/* (C)2023 */
+package org.transitclock.benchmarks.replay;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import org.transitclock.core.avl.GtfsRealtimeModule;
+import org.transitclock.core.prediction.accuracy.gtfsrt.FeedEntityStreamer;
+import org.transitclock.domain.structs.AssignmentType;
+import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.domain.structs.Location;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * Reads a recorded day, or any other period, of AVL reports so that they can be replayed. The
+ * archive is made up of files, or directories of files, in one of two formats:
+ *
+ * <ul>
+ *   <li>*.csv: an export of the avl_reports table with a header line, such as from
+ *       <code>\copy (select * from avl_reports where ...) to 'avl.csv' csv header</code>. The
+ *       vehicle_id, time, lat and lon columns are required, speed, heading, assignment_id and
+ *       assignment_type are used if present. The time is either epoch msec or
+ *       <code>yyyy-MM-dd HH:mm:ss[.SSS]</code> in the agency timezone.
+ *   <li>anything else: GTFS-realtime vehicle positions feeds, one FeedMessage per file. Vehicles
+ *       without a timestamp get the timestamp of the feed, and are rejected if the feed doesn't
+ *       have one either.
+ * </ul>
+ *
+ * <p>The reports are returned in time order, and in the order read for reports with the same
+ * time, so that the same archive is always replayed in the same order.
+ */
+@Slf4j
+final class AvlArchiveReader {
+    private static final String SOURCE = "replay";
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd HH:mm:ss")
+            .optionalStart()
+            .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+            .optionalEnd()
+            .toFormatter();
+
+    private final ZoneId zoneId;
+    private final List<AvlReport> avlReports = new ArrayList<>();
+    private int rejected;
+
+    /** @param zoneId for the times in CSV files that are not epoch times */
+    AvlArchiveReader(ZoneId zoneId) {
+        this.zoneId = zoneId;
+    }
+
+    /** Reads the file, or the files in the directory and its subdirectories in name order. */
+    void read(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            List<Path> files;
+            try (Stream<Path> stream = Files.walk(path)) {
+                files = stream.filter(Files::isRegularFile).sorted().toList();
+            }
+            for (Path file : files) {
+                readFile(file);
+            }
+        } else {
+            readFile(path);
+        }
+    }
+
+    private void readFile(Path file) throws IOException {
+        int before = avlReports.size();
+        if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                readCsv(reader);
+            }
+        } else {
+            try (InputStream in = Files.newInputStream(file)) {
+                readGtfsRealtime(in);
+            }
+        }
+        logger.info("Read {} AVL reports from {}", avlReports.size() - before, file);
+    }
+
+    void readCsv(Reader reader) throws IOException {
+        CSVFormat format = CSVFormat.DEFAULT.builder()
+                .setHeader()
+                .setSkipHeaderRecord(true)
+                .setIgnoreSurroundingSpaces(true)
+                .build();
+        try (CSVParser parser = format.parse(reader)) {
+            for (CSVRecord record : parser) {
+                AvlReport avlReport;
+                try {
+                    avlReport = parseCsvRecord(record);
+                } catch (RuntimeException e) {
+                    logger.debug("Could not parse AVL report on line {}. {}", record.getRecordNumber(), e.getMessage());
+                    ++rejected;
+                    continue;
+                }
+                avlReports.add(avlReport);
+            }
+        }
+    }
+
+    private AvlReport parseCsvRecord(CSVRecord record) {
+        String speed = optional(record, "speed");
+        String heading = optional(record, "heading");
+        AvlReport avlReport = AvlReport.builder()
+                .withVehicleId(record.get("vehicle_id"))
+                .withTime(new Date(parseTime(record.get("time"))))
+                .withLocation(new Location(
+                        Double.parseDouble(record.get("lat")), Double.parseDouble(record.get("lon"))))
+                .withSpeed(speed == null ? Float.NaN : Float.parseFloat(speed))
+                .withHeading(heading == null ? Float.NaN : Float.parseFloat(heading))
+                .withSource(SOURCE)
+                .build();
+
+        String assignmentId = optional(record, "assignment_id");
+        String assignmentType = optional(record, "assignment_type");
+        if (assignmentId != null && assignmentType != null) {
+            avlReport.setAssignment(assignmentId, AssignmentType.valueOf(assignmentType));
+        }
+        return avlReport;
+    }
+
+    private static String optional(CSVRecord record, String name) {
+        if (!record.isSet(name)) return null;
+        String value = record.get(name);
+        return value.isEmpty() ? null : value;
+    }
+
+    private long parseTime(String time) {
+        if (!time.isEmpty() && time.chars().allMatch(Character::isDigit)) {
+            return Long.parseLong(time);
+        }
+        return LocalDateTime.parse(time, TIMESTAMP_FORMAT).atZone(zoneId).toInstant().toEpochMilli();
+    }
+
+    private void readGtfsRealtime(InputStream in) throws IOException {
+        FeedEntityStreamer.stream(in, (header, entity) -> {
+            // Entities for trip updates and alerts aren't AVL reports
+            if (!entity.hasVehicle()) return;
+
+            FeedEntity timestamped = withTimestamp(header, entity);
+            AvlReport avlReport = timestamped == null ? null : GtfsRealtimeModule.getAvlReport(timestamped, SOURCE);
+            if (avlReport == null) ++rejected;
+            else avlReports.add(avlReport);
+        });
+    }
+
+    /**
+     * GtfsRealtimeModule uses the current time for vehicles without a timestamp, which would
+     * differ from one replay to the next, so uses the time of the feed instead.
+     *
+     * @return the entity with a timestamp, or null if neither it nor the feed has one
+     */
+    private static FeedEntity withTimestamp(FeedHeader header, FeedEntity entity) {
+        if (entity.getVehicle().hasTimestamp()) return entity;
+        if (!header.hasTimestamp()) return null;
+
+        return entity.toBuilder()
+                .setVehicle(entity.getVehicle().toBuilder().setTimestamp(header.getTimestamp()))
+                .build();
+    }
+
+    /** @return the reports read so far, in time order */
+    List<AvlReport> getAvlReports() {
+        // A stable sort so reports with the same time stay in the order read
+        List<AvlReport> sorted = new ArrayList<>(avlReports);
+        sorted.sort(Comparator.comparingLong(AvlReport::getTime));
+        return sorted;
+    }
+
+    /** @return number of reports that couldn't be read */
+    int getRejected() {
+        return rejected;
+    }
+}
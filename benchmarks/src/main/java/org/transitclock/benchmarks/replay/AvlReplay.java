@@ -0,0 +1,359 @@
+/* (C)2023 */
+package org.transitclock.benchmarks.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.transitclock.CommandLineParameters;
+import org.transitclock.GtfsFileProcessor;
+import org.transitclock.core.ServiceUtils;
+import org.transitclock.core.avl.AvlProcessor;
+import org.transitclock.core.dataCache.VehicleStatusManager;
+import org.transitclock.domain.hibernate.DataDbLogger;
+import org.transitclock.domain.hibernate.HibernateUtils;
+import org.transitclock.domain.structs.ActiveRevision;
+import org.transitclock.domain.structs.Agency;
+import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.gtfs.DbConfig;
+import org.transitclock.properties.ArrivalsDeparturesProperties;
+import org.transitclock.properties.AutoBlockAssignerProperties;
+import org.transitclock.properties.AvlProperties;
+import org.transitclock.properties.CoreProperties;
+import org.transitclock.properties.GtfsProperties;
+import org.transitclock.properties.HoldingProperties;
+import org.transitclock.properties.MonitoringProperties;
+import org.transitclock.properties.PredictionAccuracyProperties;
+import org.transitclock.properties.PredictionProperties;
+import org.transitclock.properties.ServiceProperties;
+import org.transitclock.properties.TimeoutProperties;
+import org.transitclock.properties.TravelTimesProperties;
+import org.transitclock.properties.TripDataCacheProperties;
+import org.transitclock.properties.UpdatesProperties;
+import org.transitclock.utils.SystemTime;
+import org.transitclock.utils.Time;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.ehcache.CacheManager;
+import org.ehcache.PersistentCacheManager;
+import org.ehcache.Status;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.impl.config.persistence.CacheManagerPersistenceConfiguration;
+import org.ehcache.xml.XmlConfiguration;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+/**
+ * Replays an archive of AVL reports through AvlProcessor as fast as it can, for comparing the
+ * performance and the results of the AVL processing between versions without needing a live feed
+ * or a database server.
+ *
+ * <p>The GTFS data is processed into an in-memory H2 database, from which DbConfig is read in as
+ * usual, and the AVL processing beans are then wired up the same way as in the application. The
+ * reports are processed one at a time in time order, with SystemTime in playback mode set to the
+ * time of each report, and the arrivals/departures are handled on the same thread. That way the
+ * results only depend on the GTFS data, the archive and the code.
+ *
+ * <p>Writes two reports:
+ *
+ * <ul>
+ *   <li>the results file, with the counts, the prediction accuracy against the arrivals/departures
+ *       and digests of them. This is byte for byte the same for runs of the same code and data.
+ *   <li>the timing, with the reports per second and the latency of each stage of processing a
+ *       report. This is written to the console and, if configured, a file.
+ * </ul>
+ */
+@Slf4j
+public class AvlReplay {
+
+    @Parameter(names = {"--help"}, help = true, description = "Print this help message and exit.")
+    private boolean help;
+
+    @Parameter(names = {"--gtfs"}, required = true, description = "GTFS zip file.")
+    private String gtfsZip;
+
+    @Parameter(
+            names = {"--avl"},
+            required = true,
+            variableArity = true,
+            description = "AVL archive files or directories. CSV exports of the avl_reports table, or GTFS-realtime vehicle positions feeds.")
+    private List<String> avlPaths;
+
+    @Parameter(names = {"--agency-id"}, description = "Agency id to load the GTFS data as.")
+    private String agencyId = "replay";
+
+    @Parameter(names = {"--results"}, description = "File to write the results to.")
+    private String resultsFile = "replay-results.txt";
+
+    @Parameter(names = {"--timing"}, description = "File to also write the timing to.")
+    private String timingFile;
+
+    @Parameter(names = {"--prediction-sample-secs"}, description = "How often the predictions of a vehicle are sampled for scoring.")
+    private int predictionSampleSecs = 60;
+
+    @Parameter(names = {"--store-to-db"}, arity = 1, description = "Whether the generated data is written to the in-memory database, as it would be in the application.")
+    private boolean storeToDb = true;
+
+    // What happened to the reports of the archive
+    private int invalid;
+    private int notNewer;
+    private int tooFrequent;
+    private int processed;
+    private int failed;
+    private final Set<String> vehicleIds = new TreeSet<>();
+
+    public static void main(String[] args) throws Exception {
+        AvlReplay replay = new AvlReplay();
+        JCommander jc = JCommander.newBuilder().addObject(replay).build();
+        jc.setProgramName("./gradlew :benchmarks:replay --args=");
+        try {
+            jc.parse(args);
+        } catch (ParameterException pex) {
+            logger.error("Parameter error: {}", pex.getMessage());
+            jc.usage();
+            System.exit(1);
+        }
+        if (replay.help) {
+            jc.usage();
+            System.exit(0);
+        }
+
+        replay.run();
+        // The db logger threads would keep running
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        Path workDir = Files.createTempDirectory("transitclock-replay");
+        try {
+            DbConfig dbConfig = loadGtfs(workDir);
+
+            AvlArchiveReader archiveReader = new AvlArchiveReader(TimeZone.getDefault().toZoneId());
+            for (String avlPath : avlPaths) {
+                archiveReader.read(Paths.get(avlPath));
+            }
+            List<AvlReport> avlReports = archiveReader.getAvlReports();
+            logger.info("Replaying {} AVL reports", avlReports.size());
+
+            StageTimer stageTimer = new StageTimer();
+            PredictionAccuracyScorer scorer = new PredictionAccuracyScorer(predictionSampleSecs);
+            replay(dbConfig, workDir, avlReports, stageTimer, scorer);
+
+            writeResults(archiveReader, avlReports.size(), scorer);
+            writeTiming(stageTimer);
+        } finally {
+            deleteRecursively(workDir);
+        }
+    }
+
+    /**
+     * Processes the GTFS data into the in-memory database, as the application does when loading
+     * GTFS, and then reads in the DbConfig from it.
+     */
+    private DbConfig loadGtfs(Path workDir) {
+        // Read by Hibernate when the session factory is first created,
+        // since the schema is otherwise created by the Flyway migrations
+        System.setProperty(AvailableSettings.HBM2DDL_AUTO, "create");
+        // Read by GtfsFileProcessor
+        System.setProperty("transitclock.core.agencyId", agencyId);
+
+        DataSourceProperties dataSourceProperties = new DataSourceProperties();
+        dataSourceProperties.setUrl("jdbc:h2:mem:" + agencyId + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        dataSourceProperties.setUsername("sa");
+        dataSourceProperties.setPassword("");
+        HibernateUtils.registerDatasourceProperties(dataSourceProperties);
+
+        CommandLineParameters params = new CommandLineParameters();
+        params.baseDirectory = List.of(workDir.toFile());
+        params.gtfsZip = new File(gtfsZip).getAbsolutePath();
+        GtfsFileProcessor.createGtfsFileProcessor(params).process(new GtfsProperties());
+
+        // Same as DatabaseConfiguration
+        int configRev = ActiveRevision.get(agencyId).getConfigRev();
+        TimeZone.setDefault(Agency.getTimeZoneFromDb(agencyId));
+        return new DbConfig(new ServiceProperties(), agencyId, configRev);
+    }
+
+    private void replay(
+            DbConfig dbConfig,
+            Path workDir,
+            List<AvlReport> avlReports,
+            StageTimer stageTimer,
+            PredictionAccuracyScorer scorer) {
+        CoreProperties coreProperties = new CoreProperties();
+        coreProperties.setAgencyId(agencyId);
+        AvlProperties avlProperties = new AvlProperties();
+        // Arrivals/departures are handled on the replay thread so that the
+        // caches are always updated in the same order
+        ArrivalsDeparturesProperties arrivalsDeparturesProperties = new ArrivalsDeparturesProperties();
+        arrivalsDeparturesProperties.setAsyncConsumers(false);
+        arrivalsDeparturesProperties.setAdherenceRollupEnabled(false);
+
+        DataDbLogger dataDbLogger = new ReplayDataDbLogger(agencyId, storeToDb, scorer::arrivalDeparture);
+        CacheManager cacheManager = createCacheManager(workDir.resolve("cache"));
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.registerBean(DbConfig.class, () -> dbConfig);
+        context.registerBean(ServiceUtils.class, dbConfig::getServiceUtils);
+        context.registerBean(Time.class, dbConfig::getTime);
+        context.registerBean(DataDbLogger.class, () -> dataDbLogger);
+        context.registerBean(CacheManager.class, () -> cacheManager);
+        // The stages are timed by the StageTimer, the application's metrics
+        // just need somewhere to go
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.registerBean(CoreProperties.class, () -> coreProperties);
+        context.registerBean(AvlProperties.class, () -> avlProperties);
+        context.registerBean(ArrivalsDeparturesProperties.class, () -> arrivalsDeparturesProperties);
+        context.registerBean(AutoBlockAssignerProperties.class, AutoBlockAssignerProperties::new);
+        context.registerBean(GtfsProperties.class, GtfsProperties::new);
+        context.registerBean(HoldingProperties.class, HoldingProperties::new);
+        context.registerBean(MonitoringProperties.class, MonitoringProperties::new);
+        context.registerBean(PredictionAccuracyProperties.class, PredictionAccuracyProperties::new);
+        context.registerBean(PredictionProperties.class, PredictionProperties::new);
+        context.registerBean(ServiceProperties.class, ServiceProperties::new);
+        context.registerBean(TimeoutProperties.class, TimeoutProperties::new);
+        context.registerBean(TravelTimesProperties.class, TravelTimesProperties::new);
+        context.registerBean(TripDataCacheProperties.class, TripDataCacheProperties::new);
+        context.registerBean(UpdatesProperties.class, UpdatesProperties::new);
+        context.getBeanFactory().addBeanPostProcessor(new StageTimingPostProcessor(stageTimer));
+        context.register(ReplayConfiguration.class);
+        context.refresh();
+
+        try {
+            AvlProcessor avlProcessor = context.getBean(AvlProcessor.class);
+            VehicleStatusManager vehicleStatusManager = context.getBean(VehicleStatusManager.class);
+
+            // Same filtering as AvlReportProcessor
+            Map<String, AvlReport> lastReportByVehicle = new HashMap<>();
+            for (AvlReport avlReport : avlReports) {
+                SystemTime.setPlaybackMillis(avlReport.getTime());
+
+                String errorMsg = avlReport.validateData(avlProperties);
+                if (errorMsg != null) {
+                    logger.debug("Throwing away avlReport {} because {}", avlReport, errorMsg);
+                    ++invalid;
+                    continue;
+                }
+
+                AvlReport previousReport = lastReportByVehicle.get(avlReport.getVehicleId());
+                if (previousReport != null) {
+                    if (avlReport.getTime() <= previousReport.getTime()) {
+                        ++notNewer;
+                        continue;
+                    }
+                    long timeBetweenReportsSecs = (avlReport.getTime() - previousReport.getTime()) / Time.MS_PER_SEC;
+                    if (timeBetweenReportsSecs < avlProperties.getMinTimeBetweenAvlReportsSecs()) {
+                        ++tooFrequent;
+                        continue;
+                    }
+                }
+                lastReportByVehicle.put(avlReport.getVehicleId(), avlReport);
+                vehicleIds.add(avlReport.getVehicleId());
+
+                try {
+                    stageTimer.timeReport(() -> avlProcessor.processAvlReport(avlReport));
+                    ++processed;
+                } catch (RuntimeException e) {
+                    logger.error("Something happened while processing {}.", avlReport, e);
+                    ++failed;
+                    continue;
+                }
+
+                scorer.samplePredictions(
+                        avlReport.getVehicleId(),
+                        avlReport.getTime(),
+                        vehicleStatusManager.getStatus(avlReport.getVehicleId()).getPredictions());
+            }
+        } finally {
+            SystemTime.clearPlaybackMillis();
+            context.close();
+            if (cacheManager.getStatus() == Status.AVAILABLE) cacheManager.close();
+            try {
+                ((PersistentCacheManager) cacheManager).destroy();
+            } catch (Exception e) {
+                logger.warn("Could not remove the replay cache from disk", e);
+            }
+        }
+    }
+
+    /**
+     * The caches as configured by ehcache.xml, except that they persist to the work directory so
+     * that every replay starts out with empty caches.
+     */
+    private static CacheManager createCacheManager(Path directory) {
+        XmlConfiguration xmlConfiguration = new XmlConfiguration(AvlReplay.class.getClassLoader().getResource("ehcache.xml"));
+        CacheManager cacheManager = CacheManagerBuilder.newCacheManager(xmlConfiguration.derive()
+                .withoutServices(CacheManagerPersistenceConfiguration.class)
+                .withService(new CacheManagerPersistenceConfiguration(directory.toFile()))
+                .build());
+        cacheManager.init();
+        return cacheManager;
+    }
+
+    private void writeResults(AvlArchiveReader archiveReader, int read, PredictionAccuracyScorer scorer) throws IOException {
+        StringWriter results = new StringWriter();
+        try (PrintWriter out = new PrintWriter(results)) {
+            out.println("reports.read " + read);
+            out.println("reports.unreadable " + archiveReader.getRejected());
+            out.println("reports.invalid " + invalid);
+            out.println("reports.notNewer " + notNewer);
+            out.println("reports.tooFrequent " + tooFrequent);
+            out.println("reports.processed " + processed);
+            out.println("reports.failed " + failed);
+            out.println("vehicles " + vehicleIds.size());
+            scorer.write(out);
+        }
+        // Same line separators on every platform so the files can be compared
+        Files.writeString(Paths.get(resultsFile), results.toString().replace(System.lineSeparator(), "\n"), StandardCharsets.UTF_8);
+        logger.info("Wrote results to {}", resultsFile);
+    }
+
+    private void writeTiming(StageTimer stageTimer) throws IOException {
+        StringWriter timing = new StringWriter();
+        try (PrintWriter out = new PrintWriter(timing)) {
+            double secs = stageTimer.totalNanos() / 1e9;
+            out.println(String.format(Locale.ROOT, "Processed %d AVL reports in %.3f s, %.1f reports/s",
+                    processed, secs, secs == 0 ? 0.0 : processed / secs));
+            stageTimer.write(out);
+        }
+        System.out.print(timing);
+        if (timingFile != null) {
+            Files.writeString(Paths.get(timingFile), timing.toString(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Could not delete {}", directory, e);
+        }
+    }
+}
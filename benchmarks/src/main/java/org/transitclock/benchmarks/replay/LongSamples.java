@@ -0,0 +1,52 @@
+/* (C)2023 */
+package org.transitclock.benchmarks.replay;
+
+import java.util.Arrays;
+
+/**
+ * The values of a measurement, such as latencies or prediction errors, kept as a growable array of
+ * primitives so that the percentiles can be determined exactly once all of them are in.
+ */
+final class LongSamples {
+    private long[] values = new long[1024];
+    private int size;
+    private long sum;
+    private boolean sorted = true;
+
+    void add(long value) {
+        if (size == values.length) values = Arrays.copyOf(values, size * 2);
+        if (size > 0 && value < values[size - 1]) sorted = false;
+        values[size++] = value;
+        sum += value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long sum() {
+        return sum;
+    }
+
+    double mean() {
+        return size == 0 ? 0.0 : (double) sum / size;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value at the percentile using the nearest rank method. 0 if there are no values.
+     */
+    long percentile(double percentile) {
+        if (size == 0) return 0;
+        if (!sorted) {
+            Arrays.sort(values, 0, size);
+            sorted = true;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * size);
+        return values[Math.max(rank, 1) - 1];
+    }
+
+    long max() {
+        return percentile(100.0);
+    }
+}
@@ -0,0 +1,180 @@
+/* (C)2023 */
+package org.transitclock.benchmarks.replay;
+
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.transitclock.domain.structs.ArrivalDeparture;
+import org.transitclock.service.dto.IpcPrediction;
+import org.transitclock.utils.Time;
+
+/**
+ * Scores the predictions made while replaying against the arrivals/departures that are then
+ * generated for the vehicle, grouped by how far into the future the prediction was.
+ *
+ * <p>Like the PredictionAccuracyModule the predictions of a vehicle are sampled at an interval
+ * instead of every time they are generated, so that every report doesn't add a prediction for
+ * every remaining stop of the block. A prediction is scored against the arrival/departure of the
+ * same vehicle for the same trip and stop. Predictions more than MAX_HORIZON_MINS into the future
+ * are not kept.
+ *
+ * <p>Also keeps digests of the arrivals/departures and of the sampled predictions, in the order
+ * generated, so that it is easy to see whether a change affected the results at all.
+ */
+final class PredictionAccuracyScorer {
+    // Lower bounds of the horizon buckets, in minutes
+    private static final int[] HORIZON_BUCKET_MINS = {0, 3, 6, 10, 15, 20};
+    private static final int MAX_HORIZON_MINS = 30;
+    private static final long MAX_HORIZON_MSEC = MAX_HORIZON_MINS * Time.MS_PER_MIN;
+    private static final long ON_TIME_MSEC = Time.MS_PER_MIN;
+
+    private record Sample(long avlTime, long predictionTime) {}
+
+    private final long sampleIntervalMsec;
+    private final Map<String, Long> lastSampleTimeByVehicle = new HashMap<>();
+    // Keyed on vehicle, trip, stop and whether arrival
+    private final Map<String, List<Sample>> pendingSamples = new HashMap<>();
+    private final LongSamples[] errorsByBucket = new LongSamples[HORIZON_BUCKET_MINS.length];
+    private final LongSamples[] absErrorsByBucket = new LongSamples[HORIZON_BUCKET_MINS.length];
+    private final int[] onTimeByBucket = new int[HORIZON_BUCKET_MINS.length];
+    private final MessageDigest arrivalDepartureDigest = sha256();
+    private final MessageDigest predictionDigest = sha256();
+
+    private int arrivals;
+    private int departures;
+    private int sampled;
+    private int unobserved;
+
+    PredictionAccuracyScorer(int sampleIntervalSecs) {
+        this.sampleIntervalMsec = (long) sampleIntervalSecs * Time.MS_PER_SEC;
+        for (int i = 0; i < errorsByBucket.length; ++i) {
+            errorsByBucket[i] = new LongSamples();
+            absErrorsByBucket[i] = new LongSamples();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String key(String vehicleId, String tripId, int gtfsStopSeq, boolean isArrival) {
+        return vehicleId + '|' + tripId + '|' + gtfsStopSeq + '|' + (isArrival ? 'A' : 'D');
+    }
+
+    private static void update(MessageDigest digest, String line) {
+        digest.update(line.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+    }
+
+    /**
+     * Called after each AVL report has been processed with the current predictions for the
+     * vehicle. Only keeps them if the vehicle hasn't been sampled within the sample interval.
+     */
+    void samplePredictions(String vehicleId, long avlTime, List<IpcPrediction> predictions) {
+        if (predictions == null || predictions.isEmpty()) return;
+
+        Long lastSampleTime = lastSampleTimeByVehicle.get(vehicleId);
+        if (lastSampleTime != null && avlTime - lastSampleTime < sampleIntervalMsec) return;
+        lastSampleTimeByVehicle.put(vehicleId, avlTime);
+
+        for (IpcPrediction prediction : predictions) {
+            long horizon = prediction.getPredictionTime() - avlTime;
+            if (horizon < 0 || horizon >= MAX_HORIZON_MSEC) continue;
+
+            String key = key(vehicleId, prediction.getTripId(), prediction.getGtfsStopSeq(), prediction.isArrival());
+            pendingSamples
+                    .computeIfAbsent(key, k -> new ArrayList<>())
+                    .add(new Sample(avlTime, prediction.getPredictionTime()));
+            update(predictionDigest, key + '|' + avlTime + '|' + prediction.getPredictionTime());
+            ++sampled;
+        }
+    }
+
+    /** Called for each arrival/departure generated, which scores the predictions for it. */
+    void arrivalDeparture(ArrivalDeparture arrivalDeparture) {
+        if (arrivalDeparture.isArrival()) ++arrivals;
+        else ++departures;
+
+        String key = key(arrivalDeparture.getVehicleId(),
+                arrivalDeparture.getTripId(),
+                arrivalDeparture.getGtfsStopSequence(),
+                arrivalDeparture.isArrival());
+        long actualTime = arrivalDeparture.getTime();
+        update(arrivalDepartureDigest, key + '|' + actualTime);
+
+        List<Sample> samples = pendingSamples.remove(key);
+        if (samples == null) return;
+
+        for (Sample sample : samples) {
+            // A prediction made long before the arrival/departure is for a
+            // different day, the vehicle never got there that day
+            if (sample.avlTime() > actualTime || actualTime - sample.avlTime() > 2 * MAX_HORIZON_MSEC) {
+                ++unobserved;
+                continue;
+            }
+            int bucket = bucket(sample.predictionTime() - sample.avlTime());
+            long error = sample.predictionTime() - actualTime;
+            errorsByBucket[bucket].add(error);
+            absErrorsByBucket[bucket].add(Math.abs(error));
+            if (Math.abs(error) <= ON_TIME_MSEC) ++onTimeByBucket[bucket];
+        }
+    }
+
+    private static int bucket(long horizonMsec) {
+        int bucket = 0;
+        while (bucket + 1 < HORIZON_BUCKET_MINS.length && horizonMsec >= HORIZON_BUCKET_MINS[bucket + 1] * Time.MS_PER_MIN) {
+            ++bucket;
+        }
+        return bucket;
+    }
+
+    /** Writes the counts, the accuracy by horizon and the digests. */
+    void write(PrintWriter out) {
+        int pending = 0;
+        for (List<Sample> samples : pendingSamples.values()) {
+            pending += samples.size();
+        }
+
+        int scored = 0;
+        for (LongSamples errors : errorsByBucket) {
+            scored += errors.size();
+        }
+
+        out.println("arrivals " + arrivals);
+        out.println("departures " + departures);
+        out.println("predictions.sampled " + sampled);
+        out.println("predictions.scored " + scored);
+        out.println("predictions.unobserved " + (unobserved + pending));
+        out.println();
+        out.println(String.format(Locale.ROOT, "%-12s %10s %12s %12s %12s %12s %12s",
+                "horizon", "count", "meanErr(s)", "meanAbs(s)", "p50Abs(s)", "p90Abs(s)", "within1m(%)"));
+        for (int i = 0; i < errorsByBucket.length; ++i) {
+            int upperMins = i + 1 < HORIZON_BUCKET_MINS.length ? HORIZON_BUCKET_MINS[i + 1] : MAX_HORIZON_MINS;
+            LongSamples errors = errorsByBucket[i];
+            LongSamples absErrors = absErrorsByBucket[i];
+            out.println(String.format(Locale.ROOT, "%-12s %10d %12.1f %12.1f %12.1f %12.1f %12.1f",
+                    HORIZON_BUCKET_MINS[i] + "-" + upperMins + "m",
+                    errors.size(),
+                    errors.mean() / Time.MS_PER_SEC,
+                    absErrors.mean() / Time.MS_PER_SEC,
+                    absErrors.percentile(50) / (double) Time.MS_PER_SEC,
+                    absErrors.percentile(90) / (double) Time.MS_PER_SEC,
+                    errors.size() == 0 ? 0.0 : 100.0 * onTimeByBucket[i] / errors.size()));
+        }
+        out.println();
+        out.println("digest.arrivalsDepartures " + HexFormat.of().formatHex(arrivalDepartureDigest.digest()));
+        out.println("digest.predictions " + HexFormat.of().formatHex(predictionDigest.digest()));
+    }
+}
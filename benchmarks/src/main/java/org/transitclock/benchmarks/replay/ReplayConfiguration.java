@@ -0,0 +1,29 @@
+/* (C)2023 */
+package org.transitclock.benchmarks.replay;
+
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+
+/**
+ * The AVL processing beans, from AvlProcessor down to the caches and generators, as they are
+ * wired up in the application. Leaves out what receives the AVL data, since the replay calls
+ * AvlProcessor itself, and the modules that work off the clock. Scheduling isn't enabled so none
+ * of the @Scheduled methods run.
+ *
+ * <p>The DbConfig, DataDbLogger, CacheManager, MeterRegistry and properties beans are registered
+ * by AvlReplay.
+ */
+@Configuration
+@ComponentScan(
+        basePackages = "org.transitclock.core",
+        excludeFilters = @ComponentScan.Filter(
+                type = FilterType.REGEX,
+                pattern = {
+                    "org\\.transitclock\\.core\\.avl\\.AvlReportProcessor",
+                    "org\\.transitclock\\.core\\.avl\\.AvlAdmissionController",
+                    "org\\.transitclock\\.core\\.avl\\.ingest\\..*",
+                    "org\\.transitclock\\.core\\.TimeoutHandlerModule",
+                    "org\\.transitclock\\.core\\.SchedBasedPredsModule"
+                }))
+class ReplayConfiguration {}
@@ -0,0 +1,28 @@
+/* (C)2023 */
+package org.transitclock.benchmarks.replay;
+
+import java.util.function.Consumer;
+
+import org.transitclock.domain.hibernate.DataDbLogger;
+import org.transitclock.domain.structs.ArrivalDeparture;
+
+/**
+ * DataDbLogger that also hands the arrivals/departures to the replay, since those are the observed
+ * times that the predictions are scored against.
+ */
+final class ReplayDataDbLogger extends DataDbLogger {
+    private static final int BATCH_SIZE = 4_000;
+
+    private final Consumer<ArrivalDeparture> arrivalDepartureConsumer;
+
+    ReplayDataDbLogger(String agencyId, boolean shouldStoreToDb, Consumer<ArrivalDeparture> arrivalDepartureConsumer) {
+        super(agencyId, shouldStoreToDb, false, BATCH_SIZE);
+        this.arrivalDepartureConsumer = arrivalDepartureConsumer;
+    }
+
+    @Override
+    public boolean add(ArrivalDeparture ad) {
+        arrivalDepartureConsumer.accept(ad);
+        return super.add(ad);
+    }
+}
@@ -0,0 +1,95 @@
+/* (C)2023 */
+package org.transitclock.benchmarks.replay;
+
+import java.io.PrintWriter;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Times the stages of processing each AVL report. The stages other than matching are timed by
+ * wrapping the generators that MatchProcessor calls, see StageTimingPostProcessor. Matching is
+ * what is left of the time for the whole report, so it also includes the bookkeeping done by
+ * AvlProcessor.
+ *
+ * <p>Only to be used by the thread doing the replay.
+ */
+final class StageTimer {
+
+    enum Stage {
+        AVL_REPORT("avlReport"),
+        MATCHING("matching"),
+        PREDICTIONS("predictions"),
+        HEADWAYS("headways"),
+        ARRIVALS_DEPARTURES("arrivalsDepartures");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private final Map<Stage, LongSamples> nanosByStage = new EnumMap<>(Stage.class);
+    // Time spent in the timed stages while processing the current report
+    private long nestedNanos;
+
+    StageTimer() {
+        for (Stage stage : Stage.values()) {
+            nanosByStage.put(stage, new LongSamples());
+        }
+    }
+
+    /** Times the processing of a whole AVL report, which includes the other stages. */
+    void timeReport(Runnable processing) {
+        nestedNanos = 0;
+        long start = System.nanoTime();
+        try {
+            processing.run();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            nanosByStage.get(Stage.AVL_REPORT).add(elapsed);
+            nanosByStage.get(Stage.MATCHING).add(elapsed - nestedNanos);
+        }
+    }
+
+    <T> T time(Stage stage, Supplier<T> work) {
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            nanosByStage.get(stage).add(elapsed);
+            nestedNanos += elapsed;
+        }
+    }
+
+    void time(Stage stage, Runnable work) {
+        time(stage, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /** @return total time spent processing AVL reports */
+    long totalNanos() {
+        return nanosByStage.get(Stage.AVL_REPORT).sum();
+    }
+
+    void write(PrintWriter out) {
+        out.println(String.format(Locale.ROOT, "%-20s %10s %10s %10s %10s %10s %10s",
+                "stage", "count", "mean(us)", "p50(us)", "p90(us)", "p99(us)", "max(us)"));
+        for (Stage stage : Stage.values()) {
+            LongSamples samples = nanosByStage.get(stage);
+            out.println(String.format(Locale.ROOT, "%-20s %10d %10.1f %10.1f %10.1f %10.1f %10.1f",
+                    stage.label,
+                    samples.size(),
+                    samples.mean() / 1000.0,
+                    samples.percentile(50) / 1000.0,
+                    samples.percentile(90) / 1000.0,
+                    samples.percentile(99) / 1000.0,
+                    samples.max() / 1000.0));
+        }
+    }
+}
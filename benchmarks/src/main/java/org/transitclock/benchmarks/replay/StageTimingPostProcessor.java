@@ -0,0 +1,38 @@
+/* (C)2023 */
+package org.transitclock.benchmarks.replay;
+
+import org.transitclock.benchmarks.replay.StageTimer.Stage;
+import org.transitclock.core.avl.ad.ArrivalDepartureGenerator;
+import org.transitclock.core.headwaygenerator.HeadwayGenerator;
+import org.transitclock.core.prediction.PredictionGenerator;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+/**
+ * Wraps the generators that MatchProcessor calls for a matched vehicle so that the StageTimer
+ * knows how long each of them takes, whichever implementations are configured.
+ */
+final class StageTimingPostProcessor implements BeanPostProcessor {
+    private final StageTimer stageTimer;
+
+    StageTimingPostProcessor(StageTimer stageTimer) {
+        this.stageTimer = stageTimer;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof PredictionGenerator generator) {
+            return (PredictionGenerator) vehicleStatus ->
+                    stageTimer.time(Stage.PREDICTIONS, () -> generator.generate(vehicleStatus));
+        }
+        if (bean instanceof HeadwayGenerator generator) {
+            return (HeadwayGenerator) vehicleStatus ->
+                    stageTimer.time(Stage.HEADWAYS, () -> generator.generate(vehicleStatus));
+        }
+        if (bean instanceof ArrivalDepartureGenerator generator) {
+            return (ArrivalDepartureGenerator) vehicleStatus ->
+                    stageTimer.time(Stage.ARRIVALS_DEPARTURES, () -> generator.generate(vehicleStatus));
+        }
+        return bean;
+    }
+}
@@ -1,6 +1,7 @@
 plugins {
     id("java")
     id("com.google.protobuf") version "0.9.4"
+    id("me.champeau.jmh")
 }
 
 dependencies {
@@ -10,11 +11,13 @@ dependencies {
     api("com.beust:jcommander:1.82")
     implementation("org.springframework.boot:spring-boot-starter-cache")
     implementation("org.springframework.boot:spring-boot-starter-actuator")
+    api("io.micrometer:micrometer-core")
 
     api("org.hibernate.orm:hibernate-core")
     implementation("com.zaxxer:HikariCP")
     implementation("org.hibernate.orm:hibernate-hikaricp")
     implementation("org.hibernate.orm:hibernate-jcache")
+    implementation("javax.cache:cache-api")
     implementation("org.hibernate.validator:hibernate-validator")
 //    annotationProcessor("org.hibernate.orm:hibernate-jpamodelgen")
 
@@ -30,6 +33,7 @@ dependencies {
     implementation("org.apache.commons:commons-csv")
 
     implementation("com.google.guava:guava")
+    implementation("com.fasterxml.jackson.core:jackson-core")
 
     api("org.json:json:20240303")
     implementation("org.jasypt:jasypt:1.9.3")
@@ -41,7 +45,6 @@ dependencies {
     }
 
     implementation("com.esotericsoftware:kryo:4.0.0")
-    implementation("com.github.haifengl:smile-core:1.5.1")
     implementation("org.glassfish.jaxb:jaxb-core")
     implementation("org.apache.httpcomponents:httpcore")
     implementation("commons-codec:commons-codec")
@@ -57,4 +60,29 @@ protobuf {
     protoc {
         artifact = "com.google.protobuf:protoc:4.27.0"
     }
-}
\ No newline at end of file
+}
+
+jmh {
+    resultFormat = "JSON"
+}
+
+// The streaming query test streams more rows than fit in this heap, so it
+// fails if the rows are collected in memory instead of written as read
+val streamingTest by tasks.registering(Test::class) {
+    description = "Runs the streaming query tests with a small heap."
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform()
+    filter {
+        includeTestsMatching("org.transitclock.domain.StreamingQueryTest")
+    }
+    maxHeapSize = "48m"
+}
+
+tasks.test {
+    filter {
+        excludeTestsMatching("org.transitclock.domain.StreamingQueryTest")
+    }
+    dependsOn(streamingTest)
+}
@@ -0,0 +1,88 @@
+package org.transitclock.core.avl.ad;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.transitclock.core.avl.ad.ArrivalDepartureFanOut.Lane;
+
+/**
+ * Compares handing arrival/departure events to the consumers on the AVL processing threads, as
+ * was done before, against queueing them for the per lane consumer threads of the
+ * ArrivalDepartureFanOut. Each operation is one event submitted to the lanes the same way that the
+ * ArrivalDepartureGenerator does.
+ *
+ * <p>Creating the ArrivalDeparture and the work of the consumers are simulated by burning CPU
+ * since the real objects need a config database. The queues are bounded, so once they fill up the
+ * async case measures the throughput of the consumer threads rather than just the cost of
+ * queueing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ArrivalDepartureFanOutBenchmark {
+
+    @Param({"false", "true"})
+    private boolean async;
+
+    // Cost of looking up the trip, stop path and schedule time
+    @Param({"500"})
+    private int converterTokens;
+
+    // Cost of each consumer, such as updating a cache
+    @Param({"1000"})
+    private int consumerTokens;
+
+    private ArrivalDepartureFanOut fanOut;
+
+    @Setup
+    public void setup() {
+        fanOut = new ArrivalDepartureFanOut(
+                event -> {
+                    Blackhole.consumeCPU(converterTokens);
+                    return null;
+                },
+                100_000,
+                async);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        fanOut.close();
+    }
+
+    @Benchmark
+    public ArrivalDepartureEvent submit() {
+        ArrivalDepartureEvent event = new ArrivalDepartureEvent(
+                true,
+                0,
+                "vehicle",
+                System.currentTimeMillis(),
+                System.currentTimeMillis(),
+                null,
+                0,
+                1,
+                ArrivalDepartureEvent.NO_FREQ_START_TIME);
+        fanOut.submit(event, Lane.TRIP_HISTORY, ad -> Blackhole.consumeCPU(consumerTokens));
+        fanOut.submit(event, Lane.STOP_HISTORY, ad -> Blackhole.consumeCPU(consumerTokens));
+        fanOut.submit(event, Lane.DB, ad -> Blackhole.consumeCPU(consumerTokens));
+        return event;
+    }
+}
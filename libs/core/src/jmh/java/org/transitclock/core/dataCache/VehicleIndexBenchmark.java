@@ -0,0 +1,169 @@
+package org.transitclock.core.dataCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares answering the active blocks and vehicles for a route, as the vehicles and active-blocks
+ * endpoints do, by scanning every block of the day against using the route index of the active
+ * blocks plus the block to vehicles SecondaryIndex.
+ *
+ * <p>Blocks and vehicles are represented just by their IDs since the real objects need a config
+ * database. Whether a block is active is a precomputed flag, so the scan is cheaper here than in
+ * the real code where each check has to look at the service calendars.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VehicleIndexBenchmark {
+
+    @Param({"50000"})
+    private int blocks;
+
+    @Param({"5000"})
+    private int vehicles;
+
+    @Param({"500"})
+    private int routes;
+
+    private String[] blockIds;
+    private List<Set<String>> routeIdsByBlock;
+    private boolean[] active;
+
+    // Old representation, a list of vehicle IDs per block
+    private Map<String, List<String>> vehicleIdsByBlockMap;
+
+    // New representation, active blocks indexed by route
+    private Map<String, List<String>> activeBlockIdsByRoute;
+    private SecondaryIndex<String, String> vehicleIdsByBlockId;
+
+    private Map<String, Object> vehiclesMap;
+    private String[] vehicleIds;
+    private int[] blockOfVehicle;
+    private String[] queryRouteIds;
+    private int query;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        blockIds = new String[blocks];
+        routeIdsByBlock = new ArrayList<>(blocks);
+        active = new boolean[blocks];
+        for (int i = 0; i < blocks; i++) {
+            blockIds[i] = "block_" + i;
+            // Most blocks are for a single route but some interline
+            Set<String> routeIds = new HashSet<>();
+            int numRoutes = random.nextInt(10) == 0 ? 2 : 1;
+            while (routeIds.size() < numRoutes) {
+                routeIds.add("route_" + random.nextInt(routes));
+            }
+            routeIdsByBlock.add(routeIds);
+        }
+
+        // Each vehicle is assigned to a different block, and those blocks
+        // along with about as many unassigned ones are active
+        vehicleIdsByBlockMap = new HashMap<>();
+        vehicleIdsByBlockId = new SecondaryIndex<>();
+        vehiclesMap = new HashMap<>();
+        vehicleIds = new String[vehicles];
+        blockOfVehicle = new int[vehicles];
+        for (int v = 0; v < vehicles; v++) {
+            int block = random.nextInt(blocks);
+            while (active[block]) block = random.nextInt(blocks);
+            active[block] = true;
+
+            String vehicleId = "vehicle_" + v;
+            vehicleIds[v] = vehicleId;
+            blockOfVehicle[v] = block;
+            vehiclesMap.put(vehicleId, new Object());
+            vehicleIdsByBlockMap
+                    .computeIfAbsent(blockIds[block], k -> new ArrayList<>(1))
+                    .add(vehicleId);
+            vehicleIdsByBlockId.add(vehicleId, blockIds[block]);
+        }
+        for (int i = 0; i < vehicles; i++) {
+            active[random.nextInt(blocks)] = true;
+        }
+
+        activeBlockIdsByRoute = new HashMap<>();
+        for (int i = 0; i < blocks; i++) {
+            if (!active[i]) continue;
+            for (String routeId : routeIdsByBlock.get(i)) {
+                activeBlockIdsByRoute.computeIfAbsent(routeId, k -> new ArrayList<>()).add(blockIds[i]);
+            }
+        }
+
+        queryRouteIds = new String[64];
+        for (int i = 0; i < queryRouteIds.length; i++) {
+            queryRouteIds[i] = "route_" + random.nextInt(routes);
+        }
+    }
+
+    @Benchmark
+    public void activeBlocksForRouteScan(Blackhole blackhole) {
+        String routeId = nextRouteId();
+        for (int i = 0; i < blocks; i++) {
+            if (!active[i] || !routeIdsByBlock.get(i).contains(routeId)) continue;
+
+            List<String> vehicleIdsForBlock = vehicleIdsByBlockMap.get(blockIds[i]);
+            List<String> vehicleIdsCopy =
+                    vehicleIdsForBlock != null ? new ArrayList<>(vehicleIdsForBlock) : new ArrayList<>(0);
+            List<Object> vehiclesForBlock = new ArrayList<>();
+            for (String vehicleId : vehicleIdsCopy) {
+                Object vehicle = vehiclesMap.get(vehicleId);
+                if (vehicle != null) vehiclesForBlock.add(vehicle);
+            }
+            blackhole.consume(vehiclesForBlock);
+        }
+    }
+
+    @Benchmark
+    public void activeBlocksForRouteIndexed(Blackhole blackhole) {
+        String routeId = nextRouteId();
+        for (String blockId : activeBlockIdsByRoute.getOrDefault(routeId, List.of())) {
+            Set<String> vehicleIdsForBlock = vehicleIdsByBlockId.get(blockId);
+            List<Object> vehiclesForBlock = new ArrayList<>(vehicleIdsForBlock.size());
+            for (String vehicleId : vehicleIdsForBlock) {
+                Object vehicle = vehiclesMap.get(vehicleId);
+                if (vehicle != null) vehiclesForBlock.add(vehicle);
+            }
+            blackhole.consume(vehiclesForBlock);
+        }
+    }
+
+    /** Cost of keeping the block index up to date when a vehicle changes assignment */
+    @Benchmark
+    public void reassignVehicle() {
+        int v = query++ % vehicles;
+        String oldBlockId = blockIds[blockOfVehicle[v]];
+        String newBlockId = blockIds[(blockOfVehicle[v] + 1) % blocks];
+        vehicleIdsByBlockId.move(vehicleIds[v], oldBlockId, newBlockId);
+        vehicleIdsByBlockId.move(vehicleIds[v], newBlockId, oldBlockId);
+    }
+
+    private String nextRouteId() {
+        return queryRouteIds[query++ & (queryRouteIds.length - 1)];
+    }
+}
@@ -0,0 +1,95 @@
+package org.transitclock.core.prediction.kalman;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.transitclock.properties.PredictionProperties.Data.Kalman;
+
+/**
+ * Compares running the Kalman filter for a whole prediction horizon with the object based
+ * KalmanPrediction against the batched KalmanEngine. Run with {@code -prof gc} to see the
+ * difference in allocation per horizon.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KalmanEngineBenchmark {
+
+    @Param({"40"})
+    private int stopPaths;
+
+    @Param({"3"})
+    private int days;
+
+    private long[][] historicalDurations;
+    private long[] lastVehicleDurations;
+    private double[] lastPredictionErrors;
+
+    private KalmanPrediction kalmanPrediction;
+    private KalmanEngine kalmanEngine;
+    private final KalmanBatch batch = new KalmanBatch();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        historicalDurations = new long[stopPaths][days];
+        lastVehicleDurations = new long[stopPaths];
+        lastPredictionErrors = new double[stopPaths];
+        for (int i = 0; i < stopPaths; i++) {
+            lastVehicleDurations[i] = 30_000 + random.nextInt(120_000);
+            lastPredictionErrors[i] = random.nextDouble() * 1e8;
+            for (int j = 0; j < days; j++) {
+                historicalDurations[i][j] = 30_000 + random.nextInt(120_000);
+            }
+        }
+        kalmanPrediction = new KalmanPrediction(new Kalman());
+        kalmanEngine = new KalmanEngine(new Kalman());
+    }
+
+    @Benchmark
+    public void kalmanPrediction(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < stopPaths; i++) {
+            Vehicle vehicle = new Vehicle("1234");
+            VehicleStopDetail originDetail = new VehicleStopDetail(null, 0, vehicle);
+            TripSegment[] historicalSegments = new TripSegment[days];
+            for (int j = 0; j < days; j++) {
+                historicalSegments[j] = new TripSegment(originDetail, new VehicleStopDetail(null, historicalDurations[i][j], vehicle));
+            }
+            TripSegment lastVehicleSegment = new TripSegment(originDetail, new VehicleStopDetail(null, lastVehicleDurations[i], vehicle));
+            KalmanPredictionResult result = kalmanPrediction.predict(lastVehicleSegment, historicalSegments, lastPredictionErrors[i]);
+            blackhole.consume(result.getResult());
+            blackhole.consume(result.getFilterError());
+        }
+    }
+
+    @Benchmark
+    public void kalmanEngine(Blackhole blackhole) {
+        batch.clear();
+        for (int i = 0; i < stopPaths; i++) {
+            batch.addStopPath(lastVehicleDurations[i], lastPredictionErrors[i]);
+            for (int j = 0; j < days; j++) {
+                batch.addHistoricalDuration(historicalDurations[i][j]);
+            }
+        }
+        kalmanEngine.predict(batch);
+        for (int i = 0; i < stopPaths; i++) {
+            blackhole.consume(batch.getPrediction(i));
+            blackhole.consume(batch.getFilterError(i));
+        }
+    }
+}
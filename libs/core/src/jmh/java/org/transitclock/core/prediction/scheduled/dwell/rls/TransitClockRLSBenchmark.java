@@ -0,0 +1,57 @@
+package org.transitclock.core.prediction.scheduled.dwell.rls;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures adding samples to and predicting from the dwell time RLS model. Run with
+ * {@code -prof gc} to confirm that neither operation allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransitClockRLSBenchmark {
+    private static final int SAMPLES = 1024;
+
+    private final double[] headways = new double[SAMPLES];
+    private final double[] dwellTimes = new double[SAMPLES];
+    private TransitClockRLS rls;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < SAMPLES; i++) {
+            headways[i] = 60_000 + (i * 7919 % 600_000);
+            dwellTimes[i] = Math.log10(5_000 + headways[i] / 40 + (i * 31 % 3_000));
+        }
+        rls = new TransitClockRLS(0.75);
+        for (int i = 0; i < SAMPLES; i++) {
+            rls.addSample(headways[i], dwellTimes[i]);
+        }
+    }
+
+    @Benchmark
+    public double addSample() {
+        int i = index++ & (SAMPLES - 1);
+        rls.addSample(headways[i], dwellTimes[i]);
+        return rls.getSlope();
+    }
+
+    @Benchmark
+    public double predict() {
+        return rls.predict(headways[index++ & (SAMPLES - 1)]);
+    }
+}
@@ -0,0 +1,146 @@
+package org.transitclock.domain.structs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the old representation of stop path shapes, a list of Location objects per stop path
+ * plus a list of VectorWithHeading objects built when loaded, with the packed and shared
+ * StopPathGeometry. The coordinates are as they would be read from the database, with each shape
+ * occurring several times as happens for trip patterns sharing stop paths and for multiple config
+ * revisions.
+ *
+ * <p>The load benchmarks measure the time to build the representation for all the stop paths. The
+ * heap benchmarks report the memory retained afterwards as the retainedBytes counter. Run with
+ * {@code -prof gc} to also see the allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class StopPathGeometryBenchmark {
+
+    @Param({"20000"})
+    private int stopPaths;
+
+    @Param({"30"})
+    private int locationsPerStopPath;
+
+    // How many stop paths have the same shape
+    @Param({"4"})
+    private int copies;
+
+    private double[][] rows;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Heap {
+        public long retainedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int distinctShapes = Math.max(1, stopPaths / copies);
+        double[][] shapes = new double[distinctShapes][];
+        for (int s = 0; s < distinctShapes; s++) {
+            double[] coordinates = new double[locationsPerStopPath * 2];
+            double lat = 37.7 + random.nextDouble() * 0.2;
+            double lon = -122.5 + random.nextDouble() * 0.2;
+            for (int i = 0; i < locationsPerStopPath; i++) {
+                lat += (random.nextDouble() - 0.5) * 0.001;
+                lon += (random.nextDouble() - 0.5) * 0.001;
+                coordinates[2 * i] = lat;
+                coordinates[2 * i + 1] = lon;
+            }
+            shapes[s] = coordinates;
+        }
+
+        rows = new double[stopPaths][];
+        for (int i = 0; i < stopPaths; i++) {
+            rows[i] = shapes[i % distinctShapes];
+        }
+    }
+
+    @Benchmark
+    public Object loadListOfLocations() {
+        List<Object> loaded = new ArrayList<>(stopPaths * 2);
+        for (double[] row : rows) {
+            // One Location per row of the child table, and then the vectors
+            // that StopPath.onLoad() used to create
+            List<Location> locations = new ArrayList<>(row.length / 2);
+            for (int i = 0; i < row.length; i += 2) {
+                locations.add(new Location(row[i], row[i + 1]));
+            }
+            List<VectorWithHeading> vectors = new ArrayList<>(locations.size() - 1);
+            for (int i = 0; i < locations.size() - 1; i++) {
+                vectors.add(new VectorWithHeading(locations.get(i), locations.get(i + 1)));
+            }
+            loaded.add(locations);
+            loaded.add(vectors);
+        }
+        return loaded;
+    }
+
+    @Benchmark
+    public Object loadPackedGeometry() {
+        List<Object> loaded = new ArrayList<>(stopPaths);
+        for (double[] row : rows) {
+            // The JDBC driver creates a new array for each row
+            StopPathGeometry geometry = StopPathGeometry.of(row.clone());
+            // Vectors are needed for matching and are shared as well
+            geometry.getSegmentVectors();
+            loaded.add(geometry);
+        }
+        return loaded;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public Object heapListOfLocations(Heap heap) {
+        long before = usedHeapAfterGc();
+        Object loaded = loadListOfLocations();
+        heap.retainedBytes = usedHeapAfterGc() - before;
+        return loaded;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public Object heapPackedGeometry(Heap heap) {
+        long before = usedHeapAfterGc();
+        Object loaded = loadPackedGeometry();
+        heap.retainedBytes = usedHeapAfterGc() - before;
+        return loaded;
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -32,17 +32,20 @@ import org.hibernate.Transaction;
  * Uses AVL based data of arrival/departure times and matches from the database to update the
  * expected travel and stop times.
  *
- * <p>NOTE: This could probably be made less resource/memory intensive by processing a days worth of
- * data at a time. Another possibility would be to try to process the data while it is being read in
- * instead of reading it all in at the beginning. But that would likely be quite difficult to
- * implement. Processing one day of data at a time would likely be far simpler and therefore a
- * better choice.
+ * <p>The historic data is read in and processed a day at a time, with the trips being processed
+ * in parallel. Only a limited number of the resulting stop and travel times are kept per trip and
+ * stop path, see transitclock.traveltimes.maxSamplesPerStopPath, so that the memory used doesn't
+ * grow with the length of the date range. The new travel times are written using JDBC batches.
  *
  * @author SkiBu Smith
  */
 @Slf4j
 public class UpdateTravelTimes {
 
+    // Number of inserts sent to the db at once when writing the new
+    // travel times. There can be hundreds of thousands of them.
+    private static final int JDBC_BATCH_SIZE = 1000;
+
     // Read in configuration files. This should be done statically before
     // the logback LoggerFactory.getLogger() is called so that logback can
     // also be configured using a transitime config file. The files are
@@ -240,6 +243,7 @@ public class UpdateTravelTimes {
         // Write out the trips to the database. This also writes out the
         // cascading data which includes the new travel times.
         logger.info("Flushing data to database...");
+        session.setJdbcBatchSize(JDBC_BATCH_SIZE);
         session.flush();
         logger.info("Done flushing");
     }
@@ -111,8 +111,10 @@ public class MonitoringConfig {
 
     public static final IntegerConfigValue secondsBetweenMonitorinPolling = new IntegerConfigValue(
             "transitclock.monitoring.secondsBetweenMonitorinPolling",
-            120,
-            "How frequently an monitoring should be run to look for " + "problems.");
+            10,
+            "How frequently an monitoring should be run to look for "
+                    + "problems. The monitors only read counters that are kept "
+                    + "up to date incrementally so this can be short.");
 
 
 
@@ -23,6 +23,14 @@ public class PredictionAccuracyConfig {
                     + "past before it is removed from memory because no "
                     + "corresponding arrival/departure time was determined.");
 
+    public static final IntegerConfigValue maxPredictionsInMemory = new IntegerConfigValue(
+            "transitclock.predAccuracy.maxPredictionsInMemory",
+            500_000,
+            "Maximum number of predictions held in memory waiting for "
+                    + "their arrival/departure. Once reached new predictions "
+                    + "are dropped until stale ones are cleared out. Limits "
+                    + "memory when reading large external feeds.");
+
 
     public static final IntegerConfigValue stopsPerTrip = new IntegerConfigValue(
             "transitclock.predAccuracy.stopsPerTrip",
@@ -0,0 +1,224 @@
+/* (C)2023 */
+package org.transitclock.core;
+
+import java.util.List;
+import java.util.Objects;
+
+import org.transitclock.domain.structs.ScheduleTime;
+import org.transitclock.domain.structs.StopPath;
+import org.transitclock.domain.structs.TravelTimesForStopPath;
+import org.transitclock.domain.structs.Trip;
+
+/**
+ * The travel times of a trip compiled into flat int arrays of cumulative times, so that the expected
+ * travel time between two points on the trip can be determined with a couple of array lookups
+ * instead of walking the TravelTimesForStopPath objects and their boxed lists of segment times
+ * one stop path at a time. Heavily used by TravelTimes, which is called for every candidate match
+ * when doing temporal matching and for every stop when generating predictions.
+ *
+ * <p>The only thing that can't be summed up ahead of time is wait stops, since whether the vehicle
+ * has to wait depends on the time of day. Those are handled one by one, but there are typically
+ * only one or two of them per trip.
+ *
+ * <p>Immutable. Created lazily for each trip by {@link Trip#getCompiledTravelTimes()}.
+ */
+public final class CompiledTravelTimes {
+    // For wait stops that don't have a scheduled departure time, and for
+    // stops that are not wait stops
+    public static final int NO_DEPARTURE_TIME = -1;
+
+    // Travel time plus stop time from the beginning of the trip to the
+    // beginning of each stop path. Has an extra element at the end for the
+    // end of the trip.
+    private final int[] cumulativeMsec;
+
+    private final int[] stopPathTravelTimeMsec;
+    private final int[] stopTimeMsec;
+
+    // The travel time segments of stop path i are at segmentOffset[i] to
+    // segmentOffset[i + 1] - 1 of segmentPrefixMsec. Each element is the travel
+    // time from the beginning of the stop path to the beginning of the
+    // segment, with an extra element for the end of the stop path.
+    private final int[] segmentOffset;
+    private final int[] segmentPrefixMsec;
+
+    // Wait stops with a scheduled departure time, in stop path order
+    private final int[] waitStopPathIndices;
+    private final int[] waitStopDepartureSecs;
+
+    /**
+     * @param travelTimes the travel times for each stop path of the trip
+     * @param departureTimeSecs for each stop path the scheduled departure time of the stop at the
+     *     end of the path if it is a wait stop, otherwise NO_DEPARTURE_TIME
+     */
+    public CompiledTravelTimes(List<TravelTimesForStopPath> travelTimes, int[] departureTimeSecs) {
+        int numStopPaths = travelTimes.size();
+        cumulativeMsec = new int[numStopPaths + 1];
+        stopPathTravelTimeMsec = new int[numStopPaths];
+        stopTimeMsec = new int[numStopPaths];
+        segmentOffset = new int[numStopPaths + 1];
+
+        int numSegments = 0;
+        for (TravelTimesForStopPath travelTimesForStopPath : travelTimes) {
+            numSegments += travelTimesForStopPath.getNumberTravelTimeSegments() + 1;
+        }
+        segmentPrefixMsec = new int[numSegments];
+
+        int numWaitStops = 0;
+        int offset = 0;
+        for (int i = 0; i < numStopPaths; ++i) {
+            TravelTimesForStopPath travelTimesForStopPath = travelTimes.get(i);
+
+            // Prefix sums of the segment times
+            segmentOffset[i] = offset;
+            int pathTravelTimeMsec = 0;
+            segmentPrefixMsec[offset++] = 0;
+            for (int segmentMsec : travelTimesForStopPath.getTravelTimesMsec()) {
+                pathTravelTimeMsec += segmentMsec;
+                segmentPrefixMsec[offset++] = pathTravelTimeMsec;
+            }
+
+            stopPathTravelTimeMsec[i] = pathTravelTimeMsec;
+            stopTimeMsec[i] = travelTimesForStopPath.getStopTimeMsec();
+            cumulativeMsec[i + 1] = cumulativeMsec[i] + pathTravelTimeMsec + stopTimeMsec[i];
+
+            if (departureTimeSecs[i] != NO_DEPARTURE_TIME) {
+                ++numWaitStops;
+            }
+        }
+        segmentOffset[numStopPaths] = offset;
+
+        waitStopPathIndices = new int[numWaitStops];
+        waitStopDepartureSecs = new int[numWaitStops];
+        int waitStop = 0;
+        for (int i = 0; i < numStopPaths; ++i) {
+            if (departureTimeSecs[i] != NO_DEPARTURE_TIME) {
+                waitStopPathIndices[waitStop] = i;
+                waitStopDepartureSecs[waitStop] = departureTimeSecs[i];
+                ++waitStop;
+            }
+        }
+    }
+
+    /**
+     * Compiles the travel times of the trip. The scheduled departure times are only read for wait
+     * stops.
+     */
+    public static CompiledTravelTimes of(Trip trip) {
+        int numStopPaths = trip.getTravelTimes().numberOfStopPaths();
+        TravelTimesForStopPath[] travelTimes = new TravelTimesForStopPath[numStopPaths];
+        int[] departureTimeSecs = new int[numStopPaths];
+        for (int i = 0; i < numStopPaths; ++i) {
+            travelTimes[i] = trip.getTravelTimesForStopPath(i);
+            departureTimeSecs[i] = NO_DEPARTURE_TIME;
+
+            StopPath stopPath = trip.getStopPath(i);
+            if (stopPath != null && stopPath.isWaitStop()) {
+                ScheduleTime scheduleTime = trip.getScheduleTime(i);
+                if (scheduleTime != null && scheduleTime.getDepartureTime() != null) {
+                    departureTimeSecs[i] = scheduleTime.getDepartureTime();
+                }
+            }
+        }
+        return new CompiledTravelTimes(List.of(travelTimes), departureTimeSecs);
+    }
+
+    public int getNumberOfStopPaths() {
+        return stopPathTravelTimeMsec.length;
+    }
+
+    /**
+     * @return travel time for the stop path in msec, not including the stop time
+     */
+    public int getStopPathTravelTimeMsec(int stopPathIndex) {
+        return stopPathTravelTimeMsec[stopPathIndex];
+    }
+
+    /**
+     * @return how long the vehicle is expected to be at the stop at the end of the stop path
+     */
+    public int getStopTimeMsec(int stopPathIndex) {
+        return stopTimeMsec[stopPathIndex];
+    }
+
+    public int getNumberTravelTimeSegments(int stopPathIndex) {
+        return segmentOffset[stopPathIndex + 1] - segmentOffset[stopPathIndex] - 1;
+    }
+
+    public int getTravelTimeSegmentMsec(int stopPathIndex, int segmentIndex) {
+        int i = segmentIndex(stopPathIndex, segmentIndex);
+        return segmentPrefixMsec[i + 1] - segmentPrefixMsec[i];
+    }
+
+    /**
+     * Travel time from the point that is fractionCompleted into the travel time segment to the end
+     * of the stop path. Does not include the stop time.
+     */
+    public int travelTimeToEndOfStopPath(int stopPathIndex, int segmentIndex, double fractionCompleted) {
+        int i = segmentIndex(stopPathIndex, segmentIndex);
+        int segmentMsec = segmentPrefixMsec[i + 1] - segmentPrefixMsec[i];
+        int remainingInSegmentMsec = (int) (segmentMsec * (1 - fractionCompleted));
+        return remainingInSegmentMsec + stopPathTravelTimeMsec[stopPathIndex] - segmentPrefixMsec[i + 1];
+    }
+
+    /**
+     * Travel time from the beginning of the stop path to the point that is fractionCompleted into
+     * the travel time segment.
+     */
+    public int travelTimeFromBeginningOfStopPath(int stopPathIndex, int segmentIndex, double fractionCompleted) {
+        int i = segmentIndex(stopPathIndex, segmentIndex);
+        int segmentMsec = segmentPrefixMsec[i + 1] - segmentPrefixMsec[i];
+        return segmentPrefixMsec[i] + (int) (segmentMsec * fractionCompleted);
+    }
+
+    /**
+     * Adds the travel and stop times of the stop paths from fromStopPathIndex up to but not
+     * including toStopPathIndex to the travel time so far. If there is a wait stop along the way
+     * and the vehicle would get there before the scheduled departure time then the travel time
+     * becomes the time until the scheduled departure.
+     *
+     * @param travelTimeMsec travel time so far, from the time of day
+     * @param timeOfDaySecs the time of day the travel time is from, for wait stops
+     * @return the new travel time in msec
+     */
+    public int addTravelTimes(int fromStopPathIndex, int toStopPathIndex, int travelTimeMsec, int timeOfDaySecs) {
+        int stopPathIndex = fromStopPathIndex;
+        for (int i = 0; i < waitStopPathIndices.length; ++i) {
+            int waitStopPathIndex = waitStopPathIndices[i];
+            if (waitStopPathIndex < fromStopPathIndex) continue;
+            if (waitStopPathIndex >= toStopPathIndex) break;
+
+            travelTimeMsec += cumulativeMsec[waitStopPathIndex + 1] - cumulativeMsec[stopPathIndex];
+            travelTimeMsec = adjustToDepartureTime(waitStopDepartureSecs[i], timeOfDaySecs, travelTimeMsec);
+            stopPathIndex = waitStopPathIndex + 1;
+        }
+        return travelTimeMsec + cumulativeMsec[toStopPathIndex] - cumulativeMsec[stopPathIndex];
+    }
+
+    /**
+     * If the stop at the end of the stop path is a wait stop then the vehicle won't leave before
+     * the scheduled departure time, so the travel time is adjusted to that.
+     *
+     * @return the adjusted travel time in msec
+     */
+    public int adjustForWaitStop(int stopPathIndex, int timeOfDaySecs, int travelTimeMsec) {
+        for (int i = 0; i < waitStopPathIndices.length; ++i) {
+            if (waitStopPathIndices[i] == stopPathIndex) {
+                return adjustToDepartureTime(waitStopDepartureSecs[i], timeOfDaySecs, travelTimeMsec);
+            }
+        }
+        return travelTimeMsec;
+    }
+
+    private static int adjustToDepartureTime(int scheduledDepartureTime, int timeOfDaySecs, int travelTimeMsec) {
+        if (timeOfDaySecs * 1000 + travelTimeMsec < scheduledDepartureTime * 1000) {
+            return (scheduledDepartureTime - timeOfDaySecs) * 1000;
+        }
+        return travelTimeMsec;
+    }
+
+    private int segmentIndex(int stopPathIndex, int segmentIndex) {
+        Objects.checkIndex(segmentIndex, getNumberTravelTimeSegments(stopPathIndex));
+        return segmentOffset[stopPathIndex] + segmentIndex;
+    }
+}
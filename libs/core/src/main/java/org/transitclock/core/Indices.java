@@ -206,6 +206,21 @@ public class Indices implements Serializable {
         return this;
     }
 
+    /**
+     * Moves ahead to the specified stop path of the current trip. Same as calling
+     * incrementStopPath(timeOfDaySecs) until at that stop path, so if the stop path is past the end
+     * of the trip then goes on to the beginning of the next trip.
+     *
+     * @param stopPathIndex stop path to move to, greater than the current one and at most the
+     *     number of stop paths of the trip
+     * @param timeOfDaySecs The current time of day. Only needed for no schedule assignments.
+     * @return Indices for the stop path
+     */
+    public Indices incrementStopPathTo(int stopPathIndex, int timeOfDaySecs) {
+        this.stopPathIndex = stopPathIndex - 1;
+        return incrementStopPath(timeOfDaySecs);
+    }
+
     /**
      * For handling special case where have a noSchedule assignment. If noSchedule assignment then
      * will use the proper trip depending on the time of day. Assumes that there is only single trip
@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.Set;
 
 import org.transitclock.Module;
+import org.transitclock.core.avl.AvlAdmissionController;
 import org.transitclock.core.avl.AvlProcessor;
 import org.transitclock.core.avl.assigner.BlockInfoProvider;
 import org.transitclock.core.dataCache.VehicleDataCache;
@@ -54,10 +55,12 @@ public class SchedBasedPredsModule implements Module {
     private final BlockInfoProvider blockInfoProvider;
     private final DbConfig dbConfig;
     private final PredictionProperties properties;
+    private final AvlAdmissionController admissionController;
 
-    public SchedBasedPredsModule(VehicleDataCache vehicleDataCache, AvlProcessor avlProcessor, BlockInfoProvider blockInfoProvider, DbConfig dbConfig, PredictionProperties properties) {
+    public SchedBasedPredsModule(VehicleDataCache vehicleDataCache, AvlProcessor avlProcessor, BlockInfoProvider blockInfoProvider, DbConfig dbConfig, PredictionProperties properties, AvlAdmissionController admissionController) {
         this.vehicleDataCache = vehicleDataCache;
         this.avlProcessor = avlProcessor;
+        this.admissionController = admissionController;
         this.blockInfoProvider = blockInfoProvider;
         this.dbConfig = dbConfig;
         this.properties = properties;
@@ -108,6 +111,10 @@ public class SchedBasedPredsModule implements Module {
                         .withAssignmentType(AssignmentType.BLOCK_FOR_SCHED_BASED_PREDS)
                         .build();
 
+                    // Real AVL reports take priority when AVL processing
+                    // is backed up. The block will be tried again next time.
+                    if (admissionController.admit(avlReport) != AvlAdmissionController.Decision.ACCEPT) continue;
+
                     // Set the block assignment for the AVL report and indicate
                     // that it is for creating scheduled based predictions
 
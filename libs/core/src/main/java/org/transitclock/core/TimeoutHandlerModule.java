@@ -1,7 +1,6 @@
 /* (C)2023 */
 package org.transitclock.core;
 
-import java.util.Iterator;
 import java.util.concurrent.TimeUnit;
 
 import org.transitclock.Module;
@@ -78,8 +77,7 @@ public class TimeoutHandlerModule implements Module {
      * wait stop. If haven't reported in too long makes the vehicle unpredictable and logs
      * situation.
      */
-    private void handlePredictablePossibleTimeout(
-        VehicleStatus vehicleStatus, long now, Iterator<AvlReport> mapIterator) {
+    private void handlePredictablePossibleTimeout(VehicleStatus vehicleStatus, long now, AvlReport avlReport) {
         // If haven't reported in too long...
         long maxNoAvl = timeoutProperties.getAllowableNoAvlSecs() * Time.MS_PER_SEC;
         if (now > vehicleStatus.getAvlReport().getTime() + maxNoAvl) {
@@ -96,11 +94,13 @@ public class TimeoutHandlerModule implements Module {
             // Also log the situation
             logger.info("For vehicleId={} {}", vehicleStatus.getVehicleId(), eventDescription);
 
-            // Remove vehicle from map for next time looking for timeouts
-            mapIterator.remove();
+            // No longer need to look for timeouts for the vehicle
+            avlReportRegistry.remove(avlReport);
 
             // Remove vehicle from cache if configured to do so
             removeFromVehicleDataCache(vehicleStatus.getVehicleId());
+        } else {
+            scheduleCheck(avlReport, vehicleStatus.getAvlReport().getTime() + maxNoAvl);
         }
     }
 
@@ -109,14 +109,12 @@ public class TimeoutHandlerModule implements Module {
      * the map to avoid looking at it again. If configured to remove timed out vehicles from cache,
      * and haven't reported in too long, removes the vehicle from map and cache.
      *
-     * @param mapIterator So can remove AVL report from map
+     * @param avlReport So can remove AVL report from map
      */
-    private void handleNotPredictablePossibleTimeout(VehicleStatus vehicleStatus,
-                                                     long now,
-                                                     Iterator<AvlReport> mapIterator) {
+    private void handleNotPredictablePossibleTimeout(VehicleStatus vehicleStatus, long now, AvlReport avlReport) {
         if (!timeoutProperties.getRemoveTimedOutVehiclesFromVehicleDataCache()) {
             // Remove vehicle from map for next time looking for timeouts and return
-            mapIterator.remove();
+            avlReportRegistry.remove(avlReport);
             return;
         }
 
@@ -127,11 +125,13 @@ public class TimeoutHandlerModule implements Module {
             // Log the situation
             logger.info("For not predictable vehicleId={} generated timeout " + "event.", vehicleStatus.getVehicleId());
 
-            // Remove vehicle from map for next time looking for timeouts
-            mapIterator.remove();
+            // No longer need to look for timeouts for the vehicle
+            avlReportRegistry.remove(avlReport);
 
             // Remove vehicle from cache
             removeFromVehicleDataCache(vehicleStatus.getVehicleId());
+        } else {
+            scheduleCheck(avlReport, vehicleStatus.getAvlReport().getTime() + maxNoAvl);
         }
     }
 
@@ -141,9 +141,7 @@ public class TimeoutHandlerModule implements Module {
      * schedule based vehicles and auto assigner but the auto assigner can't find a vehicle for a
      * while, indicating no such vehicle in service.
      */
-    private void handleSchedBasedPredsPossibleTimeout(VehicleStatus vehicleStatus,
-                                                      long now,
-                                                      Iterator<AvlReport> mapIterator) {
+    private void handleSchedBasedPredsPossibleTimeout(VehicleStatus vehicleStatus, long now, AvlReport avlReport) {
         // If should timeout the schedule based vehicle...
         String shouldTimeoutEventDescription = shouldTimeoutVehicle(vehicleStatus, now);
         if (shouldTimeoutEventDescription != null) {
@@ -157,11 +155,15 @@ public class TimeoutHandlerModule implements Module {
                     vehicleStatus.getVehicleId(),
                     shouldTimeoutEventDescription);
 
-            // Remove vehicle from map for next time looking for timeouts
-            mapIterator.remove();
+            // No longer need to look for timeouts for the vehicle
+            avlReportRegistry.remove(avlReport);
 
             // Remove vehicle from cache if configured to do so
             removeFromVehicleDataCache(vehicleStatus.getVehicleId());
+        } else {
+            // Whether the block is still active depends on the schedule so
+            // simply check again after the polling rate
+            scheduleCheck(avlReport, now + timeoutProperties.getPollingRateSecs() * Time.MS_PER_SEC);
         }
     }
 
@@ -251,21 +253,24 @@ public class TimeoutHandlerModule implements Module {
      * that don't expect to get any AVL reports. Only timeout if past more that the allowed time for
      * wait stops
      */
-    private void handleWaitStopPossibleTimeout(VehicleStatus vehicleStatus,
-                                               long now,
-                                               Iterator<AvlReport> mapIterator) {
+    private void handleWaitStopPossibleTimeout(VehicleStatus vehicleStatus, long now, AvlReport avlReport) {
+        long pollingRate = timeoutProperties.getPollingRateSecs() * Time.MS_PER_SEC;
 
         // we can't easily determine wait stop time for frequency based trips
         // so don't timeout based on stop info
         if (vehicleStatus.getBlock().isNoSchedule()) {
             logger.debug("not timing out frequency based assignment {}", vehicleStatus);
+            scheduleCheck(avlReport, now + pollingRate);
             return;
         }
 
         // If hasn't been too long between AVL reports then everything is fine
-        // and simply return
+        // and simply check again once it has been
         long maxNoAvl = timeoutProperties.getAllowableNoAvlSecs() * Time.MS_PER_SEC;
-        if (now < vehicleStatus.getAvlReport().getTime() + maxNoAvl) return;
+        if (now < vehicleStatus.getAvlReport().getTime() + maxNoAvl) {
+            scheduleCheck(avlReport, vehicleStatus.getAvlReport().getTime() + maxNoAvl);
+            return;
+        }
 
         // It has been a long time since an AVL report so see if also past the
         // scheduled time for the wait stop
@@ -303,27 +308,41 @@ public class TimeoutHandlerModule implements Module {
                 // Also log the situation
                 logger.info("For vehicleId={} {}", vehicleStatus.getVehicleId(), eventDescription);
 
-                // Remove vehicle from map for next time looking for timeouts
-                mapIterator.remove();
+                // No longer need to look for timeouts for the vehicle
+                avlReportRegistry.remove(avlReport);
 
                 // Remove vehicle from cache if configured to do so
                 removeFromVehicleDataCache(vehicleStatus.getVehicleId());
+            } else {
+                scheduleCheck(avlReport, scheduledDepartureTime + maxNoAvlAfterSchedDepartSecs);
             }
+        } else {
+            // No scheduled departure time to go by so check again later
+            scheduleCheck(avlReport, now + pollingRate);
         }
     }
 
+    /**
+     * Sets when to look at the vehicle again. The deadline is checked with a greater than so one
+     * msec is added to make sure the timeout has occurred by then.
+     */
+    private void scheduleCheck(AvlReport avlReport, long deadline) {
+        avlReportRegistry.scheduleTimeoutCheck(avlReport, deadline + 1);
+    }
+
+    /**
+     * Handles the vehicles whose timeout deadline has been reached. Each AVL report sets the
+     * deadline for its vehicle, and when looked at here the vehicle is either timed out or gets a
+     * new deadline based on its state, such as the scheduled departure time for a wait stop. This
+     * way only the vehicles that might have timed out need to be looked at instead of the whole
+     * fleet.
+     */
     public void handlePossibleTimeouts() {
         // Determine what now is. Don't use System.currentTimeMillis() since
         // that doesn't work for playback.
         long now = SystemTime.getMillis();
 
-        // Using an Iterator instead of for(AvlReport a : map.values())
-        // because removing elements while iterating. Way to do this without
-        // getting concurrent access exception is to use an Iterator.
-        Iterator<AvlReport> mapIterator = avlReportRegistry.avlReportList().iterator();
-        while (mapIterator.hasNext()) {
-            AvlReport avlReport = mapIterator.next();
-
+        for (AvlReport avlReport : avlReportRegistry.expiredAvlReports(now)) {
             // Get state of vehicle and handle based on it
             VehicleStatus vehicleStatus = vehicleStatusManager.getStatus(avlReport.getVehicleId());
 
@@ -332,25 +351,27 @@ public class TimeoutHandlerModule implements Module {
             synchronized (vehicleStatus) {
                 if (!vehicleStatus.isPredictable()) {
                     // Vehicle is not predictable
-                    handleNotPredictablePossibleTimeout(vehicleStatus, now, mapIterator);
+                    handleNotPredictablePossibleTimeout(vehicleStatus, now, avlReport);
                 } else if (vehicleStatus.isForSchedBasedPreds()) {
                     // Handle schedule based predictions vehicle
-                    handleSchedBasedPredsPossibleTimeout(vehicleStatus, now, mapIterator);
+                    handleSchedBasedPredsPossibleTimeout(vehicleStatus, now, avlReport);
                 } else if (vehicleStatus.isWaitStop()) {
                     // Handle where vehicle is at a wait stop
-                    handleWaitStopPossibleTimeout(vehicleStatus, now, mapIterator);
+                    handleWaitStopPossibleTimeout(vehicleStatus, now, avlReport);
                 } else {
                     // Not a special case. Simply determine if vehicle
                     // timed out
-                    handlePredictablePossibleTimeout(vehicleStatus, now, mapIterator);
+                    handlePredictablePossibleTimeout(vehicleStatus, now, avlReport);
                 }
             }
         }
     }
 
-    @Scheduled(fixedRateString = "${transitclock.timeout.pollingRateSecs:30}",
-            timeUnit = TimeUnit.SECONDS,
-            initialDelayString = "${transitclock.timeout.pollingRateSecs:30}")
+    /**
+     * Advances the timeout deadlines every second so that timeouts are handled within about a
+     * second of when they occur.
+     */
+    @Scheduled(fixedRate = 1, timeUnit = TimeUnit.SECONDS)
     public void run() {
         handlePossibleTimeouts();
     }
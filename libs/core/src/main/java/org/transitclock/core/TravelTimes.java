@@ -7,7 +7,6 @@ import org.transitclock.config.data.CoreConfig;
 import org.transitclock.core.avl.space.SpatialMatch;
 import org.transitclock.domain.structs.Location;
 import org.transitclock.domain.structs.ScheduleTime;
-import org.transitclock.domain.structs.TravelTimesForStopPath;
 import org.transitclock.gtfs.DbConfig;
 import org.transitclock.utils.Time;
 
@@ -94,30 +93,6 @@ public class TravelTimes {
         return travelTimeAsTheCrowFlies(distance);
     }
 
-    /**
-     * If at a waitStop then the travel time should be adjusted to this amount.
-     *
-     * @param timeOfDaySecs
-     * @param travelTimeMsec
-     * @param indices
-     * @return
-     */
-    private static int adjustTravelTimeForWaitStop(int timeOfDaySecs, int travelTimeMsec, Indices indices) {
-        ScheduleTime scheduleTime = indices.getScheduleTime();
-        if (scheduleTime != null) {
-            Integer scheduledDepartureTime = scheduleTime.getDepartureTime();
-            if (scheduledDepartureTime != null) {
-                // If affected by waitStop...
-                if (timeOfDaySecs * 1000 + travelTimeMsec < scheduledDepartureTime * 1000) {
-                    // Take waitStop time into account
-                    return (scheduledDepartureTime - timeOfDaySecs) * 1000;
-                }
-            }
-        }
-        // Not affected by waitStop so return the original travel time
-        return travelTimeMsec;
-    }
-
     /**
      * Returns the scheduled epoch time vehicle is scheduled leave a wait stop. Does not take into
      * account whether vehicle can make it to the wait stop in time.
@@ -167,16 +142,12 @@ public class TravelTimes {
      * @param match
      * @return TimeTravelInfo containing information on the match
      */
-    private TimeTravelInfo travelTimeInfoForPartialPath(SpatialMatch match) {
-        // Get the travel times for this stop path
-        TravelTimesForStopPath travelTimesForStopPath =
-                match.getTrip().getTravelTimesForStopPath(match.getStopPathIndex());
-
+    private TimeTravelInfo travelTimeInfoForPartialPath(SpatialMatch match, CompiledTravelTimes travelTimes) {
         // Use a segment length of the StopPath length divided by number of
         // travel times. This way even if the paths change a bit can still
         // use the old travel times.
         double stopPathLength = match.getStopPath().getLength();
-        int numTravelTimeSegmentsInPath = travelTimesForStopPath.getNumberTravelTimeSegments();
+        int numTravelTimeSegmentsInPath = travelTimes.getNumberTravelTimeSegments(match.getStopPathIndex());
         double travelTimeSegmentLength = stopPathLength / numTravelTimeSegmentsInPath;
 
         double distanceAlongStopPath = match.getDistanceAlongStopPath();
@@ -207,33 +178,16 @@ public class TravelTimes {
      * @return Expected travel time in msec
      */
     public int expectedTravelTimeFromMatchToEndOfStopPath(SpatialMatch match) {
-        StringBuilder sb = new StringBuilder();
-        // Get the travel times for this stop path
-        TravelTimesForStopPath travelTimesForStopPath =
-                match.getTrip().getTravelTimesForStopPath(match.getStopPathIndex());
+        CompiledTravelTimes travelTimes = match.getTrip().getCompiledTravelTimes();
 
         // Determine how match corresponds to travel time segments
-        TimeTravelInfo timeTravelInfo = travelTimeInfoForPartialPath(match);
-
-        // Determine travel time to go from the match to the end of the
-        // current travel time segment.
-        int travelTimeForPartialSegment =
-                travelTimesForStopPath.getTravelTimeSegmentMsec(timeTravelInfo.indexOfPartialSegment);
-        int travelTimeRemainingInPartialSegment =
-                (int) (travelTimeForPartialSegment * (1 - timeTravelInfo.fractionCompleted));
-        sb.append("partial=").append(travelTimeRemainingInPartialSegment);
-        // Sum up the travel times for the remaining full travel time segments
-        // in the path.
-        int travelTimeMsec = travelTimeRemainingInPartialSegment;
-
-        for (int i = timeTravelInfo.indexOfPartialSegment + 1;
-                i < travelTimesForStopPath.getNumberTravelTimeSegments();
-                ++i) {
-            sb.append(" seg+=").append(travelTimesForStopPath.getTravelTimeSegmentMsec(i));
-            travelTimeMsec += travelTimesForStopPath.getTravelTimeSegmentMsec(i);
-        }
+        TimeTravelInfo timeTravelInfo = travelTimeInfoForPartialPath(match, travelTimes);
+
+        // Partial travel time segment plus the remaining full ones
+        int travelTimeMsec = travelTimes.travelTimeToEndOfStopPath(
+                match.getStopPathIndex(), timeTravelInfo.indexOfPartialSegment, timeTravelInfo.fractionCompleted);
 
-        logger.debug("travelTime={}:{}", Time.elapsedTimeStr(travelTimeMsec), sb);
+        logger.debug("travelTime={}", Time.elapsedTimeStr(travelTimeMsec));
         return travelTimeMsec;
     }
 
@@ -245,28 +199,15 @@ public class TravelTimes {
      * @return Expected travel time in msec
      */
     public int expectedTravelTimeFromBeginningOfStopPathToMatch(SpatialMatch match) {
-        // Get the travel times for this stop path
-        TravelTimesForStopPath travelTimesForStopPath =
-                match.getTrip().getTravelTimesForStopPath(match.getStopPathIndex());
+        CompiledTravelTimes travelTimes = match.getTrip().getCompiledTravelTimes();
 
         // Determine how match corresponds to travel time segments
-        TimeTravelInfo timeTravelInfo = travelTimeInfoForPartialPath(match);
-
-        // Sum up the travel times for the full travel time segments up to but
-        // not including the segment that the match is on.
-        int travelTimeMsec = 0;
-        for (int i = 0; i < timeTravelInfo.indexOfPartialSegment; ++i) {
-            travelTimeMsec += travelTimesForStopPath.getTravelTimeSegmentMsec(i);
-        }
-
-        // Determine travel time to go from the the beginning of the
-        // current travel time segment to the match.
-        int travelTimeForPartialSegment =
-                travelTimesForStopPath.getTravelTimeSegmentMsec(timeTravelInfo.indexOfPartialSegment);
-        int travelTimeInPartialSegmentToMatch = (int) (travelTimeForPartialSegment * timeTravelInfo.fractionCompleted);
+        TimeTravelInfo timeTravelInfo = travelTimeInfoForPartialPath(match, travelTimes);
 
-        travelTimeMsec += travelTimeInPartialSegmentToMatch;
-        return travelTimeMsec;
+        // The full travel time segments before the one the match is on plus
+        // the partial one
+        return travelTimes.travelTimeFromBeginningOfStopPath(
+                match.getStopPathIndex(), timeTravelInfo.indexOfPartialSegment, timeTravelInfo.fractionCompleted);
     }
 
     /**
@@ -277,9 +218,7 @@ public class TravelTimes {
      * @return Expected travel time in msec
      */
     public int expectedTravelTimeForStopPath(Indices indices) {
-        TravelTimesForStopPath travelTimesForPath =
-                indices.getTrip().getTravelTimesForStopPath(indices.getStopPathIndex());
-        return travelTimesForPath.getStopPathTravelTimeMsec();
+        return indices.getTrip().getCompiledTravelTimes().getStopPathTravelTimeMsec(indices.getStopPathIndex());
     }
 
     /**
@@ -290,9 +229,7 @@ public class TravelTimes {
      * @return Stop time in msec
      */
     public int expectedStopTimeForStopPath(Indices indices) {
-        TravelTimesForStopPath travelTimesForPath =
-                indices.getTrip().getTravelTimesForStopPath(indices.getStopPathIndex());
-        return travelTimesForPath.getStopTimeMsec();
+        return indices.getTrip().getCompiledTravelTimes().getStopTimeMsec(indices.getStopPathIndex());
     }
 
     /**
@@ -368,7 +305,7 @@ public class TravelTimes {
         // If will be going to next stop path then need to include the stop
         // time for the first stop path.
         if (!indices.equalStopPath(endIndices)) {
-            int stopTimeMsec = indices.getStopTimeForPath();
+            int stopTimeMsec = expectedStopTimeForStopPath(indices);
             travelTimeMsec += stopTimeMsec;
             logger.debug(
                     "For vehicleId={} adding stop time={} msec so travel time now is {} msec for stop at indices={}",
@@ -381,9 +318,11 @@ public class TravelTimes {
         // TODO make sure this is tested
         // If layover then take that into account. For such a case the travel
         // time will then be the scheduled departure time minus the start time.
-        if (!indices.equals(endIndices) && indices.isWaitStop()) {
-            travelTimeMsec = adjustTravelTimeForWaitStop(timeOfDaySecs, travelTimeMsec, indices);
-            logger.debug("For vehicleId={} adding layover times of {}", vehicleId, travelTimeMsec);
+        if (!indices.equals(endIndices)) {
+            travelTimeMsec = indices.getTrip()
+                    .getCompiledTravelTimes()
+                    .adjustForWaitStop(indices.getStopPathIndex(), timeOfDaySecs, travelTimeMsec);
+            logger.debug("For vehicleId={} travel time after layover is {}", vehicleId, travelTimeMsec);
         }
 
         // Already dealt with first partial stop path so increment indices and
@@ -404,38 +343,27 @@ public class TravelTimes {
             // get all the travel times for intermediate paths.
             indices.incrementStopPath(timeOfDaySecs);
 
-            // For all stop paths between the begin and end ones...
+            // For all stop paths between the begin and end ones add the
+            // travel and stop times, a trip at a time. Wait stops are taken
+            // into account by CompiledTravelTimes.addTravelTimes().
             while (indices.isEarlierStopPathThan(endIndices)) {
-                // Add the travel time
-                int stopPathTravelTime = expectedTravelTimeForStopPath(indices);
-                travelTimeMsec += stopPathTravelTime;
-                logger.debug(
-                        "For vehicleId={} adding stop path travel time={} " + "msec so travel time now is {} for {}",
-                        vehicleId,
-                        stopPathTravelTime,
-                        travelTimeMsec,
-                        indices);
+                CompiledTravelTimes travelTimes = indices.getTrip().getCompiledTravelTimes();
+                int fromStopPathIndex = indices.getStopPathIndex();
+                int toStopPathIndex = endOfStopPathsForTrip(indices, endIndices, travelTimes.getNumberOfStopPaths());
 
-                // Add the stop time
-                int stopTimeMsec = indices.getStopTimeForPath();
-                travelTimeMsec += stopTimeMsec;
+                travelTimeMsec =
+                        travelTimes.addTravelTimes(fromStopPathIndex, toStopPathIndex, travelTimeMsec, timeOfDaySecs);
                 logger.debug(
-                        "For vehicleId={} adding stop time={} msec so " + "travel time now is {} msec for {}",
+                        "For vehicleId={} added travel and stop times for stop paths {} to {} so travel time "
+                                + "now is {} msec for {}",
                         vehicleId,
-                        stopTimeMsec,
+                        fromStopPathIndex,
+                        toStopPathIndex - 1,
                         travelTimeMsec,
                         indices);
 
-                // TODO make sure this is tested
-                // If layover then take that into account. For such a case the
-                // travel time will then be the scheduled departure time minus
-                // the start time.
-                if (indices.isWaitStop()) {
-                    travelTimeMsec = adjustTravelTimeForWaitStop(timeOfDaySecs, travelTimeMsec, indices);
-                }
-
-                // Increment for next time through while loop
-                indices.incrementStopPath(timeOfDaySecs);
+                // Continue with the next trip, if there is one
+                indices.incrementStopPathTo(toStopPathIndex, timeOfDaySecs);
             }
         }
 
@@ -456,6 +384,19 @@ public class TravelTimes {
         return travelTimeMsec;
     }
 
+    /**
+     * Returns the stop path of the current trip that the travel times have to be added up to, not
+     * inclusive. That is the end stop path if it is on the same trip, otherwise the end of the trip.
+     * For no schedule assignments the trips loop back on themselves so like isEarlierStopPathThan()
+     * only the stop path index is used.
+     */
+    private static int endOfStopPathsForTrip(Indices indices, Indices endIndices, int numStopPaths) {
+        if (indices.getBlock().isNoSchedule() || indices.getTripIndex() == endIndices.getTripIndex()) {
+            return Math.min(endIndices.getStopPathIndex(), numStopPaths);
+        }
+        return numStopPaths;
+    }
+
     /**
      * Determines expected travel time in msec between the two matches based on the travel times
      * from the database. Same as other travelTimeBetweenMatches() method but uses Date to determine
@@ -11,13 +11,12 @@ import java.util.NoSuchElementException;
 import java.util.Objects;
 
 import org.transitclock.config.data.CoreConfig;
+import org.transitclock.core.avl.ad.ArrivalDepartureEvent;
 import org.transitclock.core.avl.assigner.BlockAssigner;
 import org.transitclock.core.avl.assigner.BlockAssignmentMethod;
 import org.transitclock.core.avl.space.SpatialMatch;
 import org.transitclock.core.avl.time.TemporalMatch;
 import org.transitclock.core.dataCache.VehicleStatusManager;
-import org.transitclock.domain.structs.Arrival;
-import org.transitclock.domain.structs.ArrivalDeparture;
 import org.transitclock.domain.structs.AssignmentType;
 import org.transitclock.domain.structs.AvlReport;
 import org.transitclock.domain.structs.Block;
@@ -30,6 +29,7 @@ import org.transitclock.domain.structs.VectorWithHeading;
 import org.transitclock.gtfs.DbConfig;
 import org.transitclock.service.dto.IpcPrediction;
 import org.transitclock.utils.StringUtils;
+import org.transitclock.utils.SystemTime;
 import org.transitclock.utils.Time;
 
 import lombok.extern.slf4j.Slf4j;
@@ -65,7 +65,7 @@ public class VehicleStatus {
     private int numberOfBadMatches = 0;
 
     // So can make sure that departure time is after the arrival time
-    private Arrival arrivalToStoreToDb;
+    private ArrivalDepartureEvent arrivalToStoreToDb;
     private long lastArrivalTime = 0;
 
     // So can keep track of whether assigning vehicle to same block that
@@ -83,7 +83,8 @@ public class VehicleStatus {
     private Integer tripCounter = 0;
     private Headway headway = null;
 
-    private HoldingTime holdingTime = null;
+    // Volatile since set by the arrival/departure consumers without locking
+    private volatile HoldingTime holdingTime = null;
     // Used for schedPred AVL. Identify if trip is canceled.
     private boolean isCanceled;
 
@@ -373,17 +374,17 @@ public class VehicleStatus {
      *
      * @param event
      */
-    public void incrementTripCounter(ArrivalDeparture event, VehicleStatusManager vehicleStatusManager) {
-        VehicleStatus vehicleStatus = vehicleStatusManager.getStatus(event.getVehicleId());
+    public void incrementTripCounter(ArrivalDepartureEvent event, VehicleStatusManager vehicleStatusManager) {
+        VehicleStatus vehicleStatus = vehicleStatusManager.getStatus(event.vehicleId());
 
-        if (event.getStopPathIndex() == 0) {
+        if (event.stopPathIndex() == 0) {
             if (event.isArrival()) {
                 vehicleStatus.incrementTripCounter();
                 logger.debug("Setting vehicle counter to : {} because of event : {}", vehicleStatus.getTripCounter(), event);
             } else {
                 logger.debug("Not arrival so not incrementing trip counter : {}", event);
             }
-        } else if (this.getPreviousMatch().getStopPathIndex() > event.getStopPathIndex()) {
+        } else if (this.getPreviousMatch().getStopPathIndex() > event.stopPathIndex()) {
             vehicleStatus.incrementTripCounter();
             logger.debug("Setting vehicle counter to : {} because of event : {}", vehicleStatus.getTripCounter(), event);
         }
@@ -743,11 +744,11 @@ public class VehicleStatus {
      *
      * @param arrival
      */
-    public void setArrivalToStoreToDb(Arrival arrival) {
+    public void setArrivalToStoreToDb(ArrivalDepartureEvent arrival) {
         this.arrivalToStoreToDb = arrival;
     }
 
-    public Arrival getArrivalToStoreToDb() {
+    public ArrivalDepartureEvent getArrivalToStoreToDb() {
         return arrivalToStoreToDb;
     }
 
@@ -868,7 +869,7 @@ public class VehicleStatus {
      * @return
      */
     private float recentValidHeading() {
-        long maxAge = System.currentTimeMillis() - 2 * Time.MS_PER_MIN;
+        long maxAge = SystemTime.getMillis() - 2 * Time.MS_PER_MIN;
 
         for (AvlReport avlReport : avlReportHistory) {
             // If report is too old then don't use it
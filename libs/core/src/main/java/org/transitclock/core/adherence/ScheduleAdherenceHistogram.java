@@ -0,0 +1,140 @@
+/* (C)2023 */
+package org.transitclock.core.adherence;
+
+/**
+ * Fixed layout histogram of schedule adherence, stored as a plain int[] so that it can be kept in
+ * memory and written to the database as is. Adherence is expressed as lateness, the actual time
+ * minus the scheduled time, so negative values are early and positive values are late.
+ *
+ * <p>Bins are 30 seconds wide and cover from 30 minutes early to 60 minutes late. Anything further
+ * out goes into an underflow or an overflow bin. Early bins are closed at the early end, e.g. [-60s,
+ * -30s), and late bins are closed at the late end, e.g. (30s, 60s], with [0s, 30s] being the first
+ * late bin. That way early and late counts are exact for any allowable early/late limit that is a
+ * multiple of 30 seconds, which is how the limits are normally specified (minutes, sometimes half
+ * minutes). Other limits are resolved to the bin boundary, and limits beyond the range of the
+ * histogram to its edge.
+ */
+public final class ScheduleAdherenceHistogram {
+    public static final int BIN_MSEC = 30_000;
+    public static final int EARLY_BINS = 60;
+    public static final int LATE_BINS = 120;
+
+    // Underflow + early bins + late bins + overflow
+    public static final int SIZE = EARLY_BINS + LATE_BINS + 2;
+
+    private static final int UNDERFLOW = 0;
+    private static final int FIRST_LATE = EARLY_BINS + 1;
+    private static final int OVERFLOW = SIZE - 1;
+
+    private ScheduleAdherenceHistogram() {}
+
+    public static int[] create() {
+        return new int[SIZE];
+    }
+
+    /**
+     * @param latenessMsec actual time minus scheduled time
+     * @return index of the bin the lateness falls into
+     */
+    public static int binIndex(long latenessMsec) {
+        if (latenessMsec < 0) {
+            long k = (-latenessMsec - 1) / BIN_MSEC;
+            return k >= EARLY_BINS ? UNDERFLOW : EARLY_BINS - (int) k;
+        }
+        long k = latenessMsec == 0 ? 0 : (latenessMsec - 1) / BIN_MSEC;
+        return k >= LATE_BINS ? OVERFLOW : FIRST_LATE + (int) k;
+    }
+
+    public static void add(int[] histogram, long latenessMsec) {
+        histogram[binIndex(latenessMsec)]++;
+    }
+
+    /** Adds the counts of source to target. */
+    public static void merge(int[] target, int[] source) {
+        for (int i = 0; i < SIZE; i++) {
+            target[i] += source[i];
+        }
+    }
+
+    /**
+     * @param allowableEarlyMsec how early a vehicle can be and still be on time, as a positive value
+     * @return number of samples that were more than allowableEarlyMsec early
+     */
+    public static long countEarly(int[] histogram, long allowableEarlyMsec) {
+        // Limits beyond the range of the histogram are treated as the edge of it
+        long count = histogram[UNDERFLOW];
+        // Bin i holds [-(k + 1) * BIN, -k * BIN) where k = EARLY_BINS - i
+        for (int i = 1; i <= EARLY_BINS; i++) {
+            long k = EARLY_BINS - i;
+            if (k * BIN_MSEC >= allowableEarlyMsec) {
+                count += histogram[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param allowableLateMsec how late a vehicle can be and still be on time
+     * @return number of samples that were more than allowableLateMsec late
+     */
+    public static long countLate(int[] histogram, long allowableLateMsec) {
+        long count = histogram[OVERFLOW];
+        // Bin i holds (k * BIN, (k + 1) * BIN] where k = i - FIRST_LATE, apart from
+        // the first one which also holds 0
+        for (int i = FIRST_LATE; i < OVERFLOW; i++) {
+            long k = i - FIRST_LATE;
+            long smallest = k == 0 ? 0 : k * BIN_MSEC + 1;
+            if (smallest > allowableLateMsec) {
+                count += histogram[i];
+            }
+        }
+        return count;
+    }
+
+    public static long total(int[] histogram) {
+        long total = 0;
+        for (int count : histogram) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Approximates a percentile of the lateness using the middle of the bin it falls into. The
+     * underflow and overflow bins are reported as the edge of the histogram.
+     *
+     * @param percentile between 0 and 100
+     * @return lateness in msec, or null if the histogram is empty
+     */
+    public static Long percentile(int[] histogram, double percentile) {
+        long total = total(histogram);
+        if (total == 0) {
+            return null;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < SIZE; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return binMiddle(i);
+            }
+        }
+        return binMiddle(OVERFLOW);
+    }
+
+    private static long binMiddle(int index) {
+        if (index == UNDERFLOW) {
+            return -(long) EARLY_BINS * BIN_MSEC;
+        }
+        if (index == OVERFLOW) {
+            return (long) LATE_BINS * BIN_MSEC;
+        }
+        if (index < FIRST_LATE) {
+            long k = EARLY_BINS - index;
+            return -(k * BIN_MSEC) - BIN_MSEC / 2;
+        }
+        long k = index - FIRST_LATE;
+        return k * BIN_MSEC + BIN_MSEC / 2;
+    }
+}
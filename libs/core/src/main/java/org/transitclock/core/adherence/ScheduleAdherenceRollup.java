@@ -0,0 +1,313 @@
+/* (C)2023 */
+package org.transitclock.core.adherence;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.transitclock.domain.hibernate.HibernateUtils;
+import org.transitclock.domain.structs.Agency;
+import org.transitclock.domain.structs.ArrivalDeparture;
+import org.transitclock.domain.structs.ScheduleAdherenceSummary;
+import org.transitclock.gtfs.DbConfig;
+import org.transitclock.properties.ArrivalsDeparturesProperties;
+import org.transitclock.utils.threading.NamedThreadFactory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.springframework.stereotype.Component;
+
+import static org.transitclock.utils.ApplicationShutdownSupport.addShutdownHook;
+
+/**
+ * Incrementally maintains schedule adherence per route/direction/stop and hour as
+ * arrivals/departures are generated. The counts are accumulated in memory and periodically added
+ * to the schedule_adherence_summaries table, so schedule adherence reports only need to read a
+ * few rows per stop and hour instead of every arrival/departure.
+ *
+ * <p>What is held in memory is only what has not been written yet. Each flush hands the pending
+ * counts over and starts again from zero, and the database rows are incremented, so restarting
+ * the core does not lose or double count anything that was already flushed. If a flush fails the
+ * counts are put back and written with the next flush.
+ *
+ * <p>The hours are those of the agency timezone, so that they line up with the hours of day that
+ * reports ask for also when the timezone is not offset from UTC by whole hours.
+ */
+@Slf4j
+@Component
+public class ScheduleAdherenceRollup {
+    // Adds the counts to an existing row instead of reading it first
+    private static final String UPSERT_SQL = "INSERT INTO schedule_adherence_summaries AS s (route_id, direction_id,"
+            + " stop_id, hour_start, route_short_name, config_rev, stop_order, total, lateness_sum_msec,"
+            + " min_lateness_msec, max_lateness_msec, histogram)"
+            + " VALUES (:routeId, :directionId, :stopId, :hourStart, :routeShortName, :configRev, :stopOrder, :total,"
+            + " :latenessSumMsec, :minLatenessMsec, :maxLatenessMsec, CAST(:histogram AS INTEGER[]))"
+            + " ON CONFLICT (route_id, direction_id, stop_id, hour_start) DO UPDATE SET"
+            + " route_short_name = EXCLUDED.route_short_name,"
+            + " config_rev = GREATEST(s.config_rev, EXCLUDED.config_rev),"
+            + " stop_order = COALESCE(EXCLUDED.stop_order, s.stop_order),"
+            + " total = s.total + EXCLUDED.total,"
+            + " lateness_sum_msec = s.lateness_sum_msec + EXCLUDED.lateness_sum_msec,"
+            + " min_lateness_msec = LEAST(s.min_lateness_msec, EXCLUDED.min_lateness_msec),"
+            + " max_lateness_msec = GREATEST(s.max_lateness_msec, EXCLUDED.max_lateness_msec),"
+            + " histogram = (SELECT ARRAY_AGG(COALESCE(a, 0) + COALESCE(b, 0) ORDER BY i)"
+            + " FROM UNNEST(s.histogram, EXCLUDED.histogram) WITH ORDINALITY AS h(a, b, i))";
+
+    private final ConcurrentHashMap<Key, Bucket> buckets = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final Supplier<ZoneId> timezone;
+    private final ScheduledExecutorService flushExecutor;
+
+    public ScheduleAdherenceRollup(ArrivalsDeparturesProperties properties, DbConfig dbConfig) {
+        this(properties, () -> {
+            // The agencies are only known once the config has been read
+            Agency agency = dbConfig.getFirstAgency();
+            return agency != null ? agency.getTimeZone().toZoneId() : ZoneId.systemDefault();
+        });
+    }
+
+    ScheduleAdherenceRollup(ArrivalsDeparturesProperties properties, Supplier<ZoneId> timezone) {
+        this.enabled = properties.getAdherenceRollupEnabled();
+        this.timezone = timezone;
+        int flushIntervalSecs = properties.getAdherenceRollupFlushIntervalSecs();
+
+        if (enabled && flushIntervalSecs > 0) {
+            flushExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("adherence-rollup"));
+            flushExecutor.scheduleWithFixedDelay(this::flushQuietly, flushIntervalSecs, flushIntervalSecs, TimeUnit.SECONDS);
+            addShutdownHook("adherence-rollup-flush", () -> {
+                flushExecutor.shutdown();
+                flushQuietly();
+            });
+        } else {
+            flushExecutor = null;
+        }
+    }
+
+    /**
+     * Adds the schedule adherence of an arrival/departure. Ones without a scheduled time, such as
+     * for frequency based assignments or for stops that are not the proper type, are ignored.
+     */
+    public void putArrivalDeparture(ArrivalDeparture arrivalDeparture) {
+        if (arrivalDeparture.getScheduledDate() == null) {
+            return;
+        }
+        add(
+                arrivalDeparture.getRouteId(),
+                arrivalDeparture.getRouteShortName(),
+                arrivalDeparture.getDirectionId(),
+                arrivalDeparture.getStopId(),
+                arrivalDeparture.getStopOrder(),
+                arrivalDeparture.getConfigRev(),
+                arrivalDeparture.getTime(),
+                arrivalDeparture.getScheduledTime());
+    }
+
+    void add(
+            String routeId,
+            String routeShortName,
+            String directionId,
+            String stopId,
+            Integer stopOrder,
+            int configRev,
+            long time,
+            long scheduledTime) {
+        if (!enabled || routeId == null) {
+            return;
+        }
+
+        Key key = new Key(
+                routeId,
+                Objects.requireNonNullElse(directionId, ""),
+                stopId,
+                Instant.ofEpochMilli(time)
+                        .atZone(timezone.get())
+                        .truncatedTo(ChronoUnit.HOURS)
+                        .toInstant()
+                        .toEpochMilli());
+
+        long latenessMsec = time - scheduledTime;
+
+        // A bucket can be retired by drain() between being looked up and being added to
+        while (!buckets.computeIfAbsent(key, k -> new Bucket())
+                .add(routeShortName, configRev, stopOrder, latenessMsec)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Hands over everything accumulated since the last call as summaries that are to be added to
+     * the database.
+     */
+    List<ScheduleAdherenceSummary> drain() {
+        List<ScheduleAdherenceSummary> summaries = new ArrayList<>();
+        for (Map.Entry<Key, Bucket> entry : buckets.entrySet()) {
+            Key key = entry.getKey();
+            Bucket bucket = entry.getValue();
+            synchronized (bucket) {
+                if (bucket.total == 0) {
+                    // Nothing since the last flush so the bucket is no longer needed.
+                    // A sample that arrives after this creates a new bucket.
+                    bucket.retired = true;
+                    buckets.remove(key, bucket);
+                    continue;
+                }
+                ScheduleAdherenceSummary summary =
+                        new ScheduleAdherenceSummary(key.routeId, key.directionId, key.stopId, new Date(key.hour));
+                summary.add(
+                        bucket.routeShortName,
+                        bucket.configRev,
+                        bucket.stopOrder,
+                        bucket.total,
+                        bucket.latenessSumMsec,
+                        bucket.minLatenessMsec,
+                        bucket.maxLatenessMsec,
+                        bucket.histogram);
+                summaries.add(summary);
+                bucket.reset();
+            }
+        }
+        return summaries;
+    }
+
+    /** Puts summaries that could not be written back so that they are part of the next flush. */
+    void restore(List<ScheduleAdherenceSummary> summaries) {
+        for (ScheduleAdherenceSummary summary : summaries) {
+            Key key = new Key(summary.getRouteId(), summary.getDirectionId(), summary.getStopId(), summary.getHourStart().getTime());
+            while (!buckets.computeIfAbsent(key, k -> new Bucket()).add(summary)) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /** Adds everything accumulated since the last flush to the database. */
+    public void flush() {
+        flush(ScheduleAdherenceRollup::write);
+    }
+
+    /**
+     * Hands everything accumulated since the last flush to the writer. If the writer fails the
+     * summaries are kept for the next flush.
+     */
+    void flush(Consumer<List<ScheduleAdherenceSummary>> writer) {
+        List<ScheduleAdherenceSummary> pending = drain();
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            writer.accept(pending);
+        } catch (RuntimeException e) {
+            restore(pending);
+            throw e;
+        }
+    }
+
+    /**
+     * Adds the summaries to the rows in the database, or inserts them if there is no row yet. Only
+     * the rows being written are touched.
+     */
+    private static void write(List<ScheduleAdherenceSummary> summaries) {
+        Transaction tx = null;
+        try (Session session = HibernateUtils.getSession()) {
+            tx = session.beginTransaction();
+            for (ScheduleAdherenceSummary summary : summaries) {
+                session.createNativeMutationQuery(UPSERT_SQL)
+                        .setParameter("routeId", summary.getRouteId())
+                        .setParameter("directionId", summary.getDirectionId())
+                        .setParameter("stopId", summary.getStopId())
+                        .setParameter("hourStart", summary.getHourStart())
+                        .setParameter("routeShortName", summary.getRouteShortName(), String.class)
+                        .setParameter("configRev", summary.getConfigRev())
+                        .setParameter("stopOrder", summary.getStopOrder(), Integer.class)
+                        .setParameter("total", summary.getTotal())
+                        .setParameter("latenessSumMsec", summary.getLatenessSumMsec())
+                        .setParameter("minLatenessMsec", summary.getMinLatenessMsec())
+                        .setParameter("maxLatenessMsec", summary.getMaxLatenessMsec())
+                        .setParameter("histogram", Arrays.stream(summary.getHistogram())
+                                .mapToObj(Integer::toString)
+                                .collect(Collectors.joining(",", "{", "}")))
+                        .executeUpdate();
+            }
+            tx.commit();
+            logger.debug("Wrote {} schedule adherence summaries", summaries.size());
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.error("Could not write schedule adherence summaries, will retry with the next flush.", e);
+        }
+    }
+
+    private record Key(String routeId, String directionId, String stopId, long hour) {}
+
+    private static class Bucket {
+        private String routeShortName;
+        private int configRev;
+        private Integer stopOrder;
+        private int total;
+        private long latenessSumMsec;
+        private long minLatenessMsec = Long.MAX_VALUE;
+        private long maxLatenessMsec = Long.MIN_VALUE;
+        private final int[] histogram = ScheduleAdherenceHistogram.create();
+        private boolean retired;
+
+        synchronized boolean add(String routeShortName, int configRev, Integer stopOrder, long latenessMsec) {
+            if (retired) return false;
+            this.routeShortName = routeShortName;
+            this.configRev = Math.max(this.configRev, configRev);
+            if (stopOrder != null) {
+                this.stopOrder = stopOrder;
+            }
+            total++;
+            latenessSumMsec += latenessMsec;
+            minLatenessMsec = Math.min(minLatenessMsec, latenessMsec);
+            maxLatenessMsec = Math.max(maxLatenessMsec, latenessMsec);
+            ScheduleAdherenceHistogram.add(histogram, latenessMsec);
+            return true;
+        }
+
+        synchronized boolean add(ScheduleAdherenceSummary summary) {
+            if (retired) return false;
+            routeShortName = summary.getRouteShortName();
+            configRev = Math.max(configRev, summary.getConfigRev());
+            if (summary.getStopOrder() != null) {
+                stopOrder = summary.getStopOrder();
+            }
+            total += summary.getTotal();
+            latenessSumMsec += summary.getLatenessSumMsec();
+            minLatenessMsec = Math.min(minLatenessMsec, summary.getMinLatenessMsec());
+            maxLatenessMsec = Math.max(maxLatenessMsec, summary.getMaxLatenessMsec());
+            ScheduleAdherenceHistogram.merge(histogram, summary.getHistogram());
+            return true;
+        }
+
+        void reset() {
+            total = 0;
+            latenessSumMsec = 0;
+            minLatenessMsec = Long.MAX_VALUE;
+            maxLatenessMsec = Long.MIN_VALUE;
+            Arrays.fill(histogram, 0);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/* (C)2023 */
+package org.transitclock.core.avl;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.properties.AvlProperties;
+import org.transitclock.utils.Time;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides whether an AVL report should be queued for processing, based on how backed up the AVL
+ * queue is and how long reports are taking to get through it. Once the AVL processing can't keep
+ * up, lower value reports are shed first so that the reports that matter still get processed
+ * promptly:
+ *
+ * <ol>
+ *   <li>the fake AVL reports for schedule based predictions
+ *   <li>reports that are soon after the previous report for the same vehicle
+ *   <li>everything. Pushers are then told to retry later and pollers poll less often.
+ * </ol>
+ *
+ * The decisions are counted in the transitclock.avl.admission metric, tagged by decision. The time
+ * reports wait in the queue is in transitclock.avl.queue.time and the time then taken to process
+ * them is in transitclock.avl.processing.time. Only the queue wait is used to determine how backed
+ * up AVL processing is since it is what grows when the processing can't keep up.
+ */
+@Slf4j
+@Component
+public class AvlAdmissionController {
+
+    /** How backed up AVL processing is. In increasing order of severity. */
+    public enum Level {
+        NORMAL,
+        SHED_SCHED_BASED,
+        SHED_FREQUENT,
+        OVERLOADED
+    }
+
+    /** What to do with an AVL report */
+    public enum Decision {
+        ACCEPT,
+        SHED_SCHED_BASED,
+        SHED_FREQUENT,
+        REJECT
+    }
+
+    // Weight of the latest latency in the moving average
+    private static final double LATENCY_SMOOTHING = 0.05;
+
+    private final AvlProperties avlProperties;
+    private final Executor avlExecutingThreadPool;
+
+    // Time of the last accepted report for each vehicle, for shedding
+    // reports that are too frequent
+    private final Map<String, Long> lastAcceptedTimeByVehicleId = new ConcurrentHashMap<>();
+
+    // Exponential moving average of msec from being queued to processing
+    // having started. Stored as the bits of a double so can be updated
+    // atomically.
+    private final AtomicLong latencyMsecBits = new AtomicLong(Double.doubleToLongBits(0.0));
+
+    private final Map<Decision, Counter> decisionCounters = new EnumMap<>(Decision.class);
+    private final Timer queueTimer;
+    private final Timer processingTimer;
+
+    private volatile Level lastLevel = Level.NORMAL;
+
+    public AvlAdmissionController(
+            AvlProperties avlProperties,
+            @Qualifier("avlExecutingThreadPool") Executor avlExecutingThreadPool,
+            MeterRegistry meterRegistry) {
+        this.avlProperties = avlProperties;
+        this.avlExecutingThreadPool = avlExecutingThreadPool;
+
+        for (Decision decision : Decision.values()) {
+            decisionCounters.put(decision, Counter.builder("transitclock.avl.admission")
+                    .description("AVL reports by admission decision")
+                    .tag("decision", decision.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry));
+        }
+        Gauge.builder("transitclock.avl.queue.depth", this, AvlAdmissionController::getQueueDepth)
+                .description("AVL reports waiting to be processed")
+                .register(meterRegistry);
+        Gauge.builder("transitclock.avl.latency", this, AvlAdmissionController::getLatencyMsec)
+                .description("Average msec an AVL report waits in the queue before being processed")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        queueTimer = Timer.builder("transitclock.avl.queue.time")
+                .description("Time an AVL report waits in the queue before being processed")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(1))
+                .register(meterRegistry);
+        processingTimer = Timer.builder("transitclock.avl.processing.time")
+                .description("Time taken to process an AVL report once taken off the queue")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(1))
+                .register(meterRegistry);
+        Gauge.builder("transitclock.avl.admission.level", this, c -> c.getLevel().ordinal())
+                .description("0=normal, 1=shedding schedule based, 2=shedding frequent, 3=overloaded")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Determines whether the AVL report should be processed and, if it should be, remembers it as
+     * the latest report for the vehicle.
+     *
+     * @return ACCEPT if the report should be processed
+     */
+    public Decision admit(AvlReport avlReport) {
+        Decision decision = decide(avlReport, getLevel());
+        decisionCounters.get(decision).increment();
+        if (decision != Decision.ACCEPT) {
+            logger.debug("Admission control {} for {}", decision, avlReport);
+        }
+        return decision;
+    }
+
+    private Decision decide(AvlReport avlReport, Level level) {
+        if (level == Level.OVERLOADED) return Decision.REJECT;
+
+        if (avlReport.isForSchedBasedPreds()) {
+            return level.compareTo(Level.SHED_SCHED_BASED) >= 0 ? Decision.SHED_SCHED_BASED : Decision.ACCEPT;
+        }
+
+        // Remember the report for the vehicle, unless under load and the
+        // report is too soon after the previous one
+        String vehicleId = avlReport.getVehicleId();
+        long time = avlReport.getTime();
+        if (level.compareTo(Level.SHED_FREQUENT) >= 0) {
+            Long lastAcceptedTime = lastAcceptedTimeByVehicleId.get(vehicleId);
+            long minTimeBetween = avlProperties.getShedFrequentWithinSecs() * Time.MS_PER_SEC;
+            if (lastAcceptedTime != null && time >= lastAcceptedTime && time - lastAcceptedTime < minTimeBetween)
+                return Decision.SHED_FREQUENT;
+        }
+        lastAcceptedTimeByVehicleId.put(vehicleId, time);
+        return Decision.ACCEPT;
+    }
+
+    /**
+     * For the AVL processing threads to record how long a report waited in the queue, when they
+     * start processing it.
+     */
+    public void recordQueueWait(long queueWaitMsec) {
+        queueTimer.record(queueWaitMsec, TimeUnit.MILLISECONDS);
+
+        long bits;
+        long newBits;
+        do {
+            bits = latencyMsecBits.get();
+            double average = Double.longBitsToDouble(bits);
+            newBits = Double.doubleToLongBits(average + LATENCY_SMOOTHING * (queueWaitMsec - average));
+        } while (!latencyMsecBits.compareAndSet(bits, newBits));
+    }
+
+    /**
+     * For the AVL processing threads to record how long processing a report took, not including
+     * the time it waited in the queue.
+     */
+    public void recordProcessingTime(long processingMsec) {
+        processingTimer.record(processingMsec, TimeUnit.MILLISECONDS);
+    }
+
+    /** @return the moving average of msec from being queued to processing having started */
+    public double getLatencyMsec() {
+        return Double.longBitsToDouble(latencyMsecBits.get());
+    }
+
+    /** @return number of AVL reports waiting to be processed */
+    public int getQueueDepth() {
+        BlockingQueue<Runnable> queue = getQueue();
+        return queue != null ? queue.size() : 0;
+    }
+
+    private BlockingQueue<Runnable> getQueue() {
+        return avlExecutingThreadPool instanceof ThreadPoolExecutor executor ? executor.getQueue() : null;
+    }
+
+    /** @return how backed up AVL processing currently is */
+    public Level getLevel() {
+        Level level = determineLevel();
+        if (level != lastLevel) {
+            logger.info(
+                    "AVL admission level changed from {} to {}. Queue depth={} latency={} msec",
+                    lastLevel,
+                    level,
+                    getQueueDepth(),
+                    Math.round(getLatencyMsec()));
+            lastLevel = level;
+        }
+        return level;
+    }
+
+    private Level determineLevel() {
+        if (!avlProperties.getAdmissionControlEnabled()) return Level.NORMAL;
+
+        BlockingQueue<Runnable> queue = getQueue();
+        if (queue == null) return Level.NORMAL;
+        int depth = queue.size();
+        if (depth == 0) {
+            // Latency is only updated when reports are taken off the queue
+            // so if nothing is queued it is out of date
+            return Level.NORMAL;
+        }
+        double queueFraction = (double) depth / (depth + queue.remainingCapacity());
+
+        // Latency is only a sign of trouble if reports are waiting
+        double latencyFraction = getLatencyMsec() / avlProperties.getMaxLatencyMsec();
+
+        if (queueFraction >= avlProperties.getRejectQueueFraction() || latencyFraction >= 2.0)
+            return Level.OVERLOADED;
+        if (queueFraction >= avlProperties.getShedFrequentQueueFraction() || latencyFraction >= 1.0)
+            return Level.SHED_FREQUENT;
+        if (queueFraction >= avlProperties.getShedSchedBasedQueueFraction() || latencyFraction >= 0.5)
+            return Level.SHED_SCHED_BASED;
+        return Level.NORMAL;
+    }
+
+    /** @return true if all AVL reports are currently being rejected, so pushers should back off */
+    public boolean isOverloaded() {
+        return getLevel() == Level.OVERLOADED;
+    }
+
+    /**
+     * @return how many seconds pushers should wait before retrying, based on how long it is taking
+     *     to get through the queue
+     */
+    public int getRetryAfterSecs() {
+        long secs = Math.round(getLatencyMsec() / Time.MS_PER_SEC);
+        return (int) Math.max(1, Math.min(60, secs));
+    }
+
+    /**
+     * For pollers to poll less often when AVL processing is backed up, since polling again would
+     * just add to the backlog.
+     *
+     * @return 1 to poll at the configured rate, otherwise only poll once every this many polling
+     *     cycles
+     */
+    public int getPollIntervalMultiplier() {
+        return switch (getLevel()) {
+            case NORMAL, SHED_SCHED_BASED -> 1;
+            case SHED_FREQUENT -> 2;
+            case OVERLOADED -> 4;
+        };
+    }
+}
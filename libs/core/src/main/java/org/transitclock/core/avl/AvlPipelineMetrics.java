@@ -0,0 +1,110 @@
+/* (C)2023 */
+package org.transitclock.core.avl;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.properties.AvlProperties;
+import org.transitclock.utils.SystemTime;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Measures where the time goes when processing an AVL report, from matching the vehicle through
+ * to updating the vehicle cache. The stages are timed in the transitclock.avl.stage metric, tagged
+ * by stage, and published as histograms so that percentiles can be aggregated across instances.
+ *
+ * <p>Timing every stage of every report would add to the processing being measured, so only one
+ * in transitclock.avl.stageTimingSampleEvery reports is timed. Whether a report is sampled
+ * depends only on the report, so either all of its stages are timed or none of them are. The lag
+ * between the GPS time and the report having been processed is cheap to measure and is recorded
+ * for every report.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ * long start = pipelineMetrics.start(avlReport);
+ * ... do the work of the stage ...
+ * pipelineMetrics.stop(Stage.SPATIAL_MATCH, start);
+ * </pre>
+ */
+@Component
+public class AvlPipelineMetrics {
+
+    /** The stages of processing an AVL report */
+    public enum Stage {
+        SPATIAL_MATCH,
+        TEMPORAL_MATCH,
+        BLOCK_ASSIGNMENT,
+        PREDICTIONS,
+        HEADWAYS,
+        ARRIVALS_DEPARTURES,
+        VEHICLE_CACHE_UPDATE,
+        TOTAL
+    }
+
+    // Returned by start() for reports that aren't sampled
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    private final int sampleEvery;
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Timer lagTimer;
+
+    public AvlPipelineMetrics(AvlProperties avlProperties, MeterRegistry meterRegistry) {
+        this.sampleEvery = Math.max(1, avlProperties.getStageTimingSampleEvery());
+
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder("transitclock.avl.stage")
+                    .description("Time taken by a stage of processing an AVL report, for the sampled reports")
+                    .tag("stage", stage.name().toLowerCase(Locale.ROOT))
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(100_000))
+                    .maximumExpectedValue(Duration.ofSeconds(10))
+                    .register(meterRegistry));
+        }
+        lagTimer = Timer.builder("transitclock.avl.lag")
+                .description("Time from the GPS time of an AVL report to it having been processed")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofSeconds(1))
+                .maximumExpectedValue(Duration.ofMinutes(10))
+                .register(meterRegistry);
+    }
+
+    /** @return true if the stages of processing the AVL report should be timed */
+    public boolean isSampled(AvlReport avlReport) {
+        return sampleEvery == 1 || Math.floorMod(System.identityHashCode(avlReport), sampleEvery) == 0;
+    }
+
+    /**
+     * Call at the start of a stage.
+     *
+     * @return the start time to pass to stop()
+     */
+    public long start(AvlReport avlReport) {
+        return isSampled(avlReport) ? System.nanoTime() : NOT_SAMPLED;
+    }
+
+    /**
+     * Call at the end of a stage. Does nothing if the report isn't sampled.
+     *
+     * @param start what start() returned for the report
+     */
+    public void stop(Stage stage, long start) {
+        if (start == NOT_SAMPLED) return;
+
+        stageTimers.get(stage).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /** Call once the AVL report has been processed to record how far behind the GPS time it is. */
+    public void recordLag(AvlReport avlReport) {
+        long lagMsec = SystemTime.getMillis() - avlReport.getTime();
+        // AVL clocks are sometimes ahead, which isn't lag
+        if (lagMsec >= 0) lagTimer.record(lagMsec, TimeUnit.MILLISECONDS);
+    }
+}
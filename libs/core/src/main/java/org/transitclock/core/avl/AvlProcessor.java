@@ -3,7 +3,6 @@ package org.transitclock.core.avl;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +13,8 @@ import org.transitclock.core.ServiceUtils;
 import org.transitclock.core.TemporalDifference;
 import org.transitclock.core.VehicleAtStopInfo;
 import org.transitclock.core.VehicleStatus;
+import org.transitclock.core.avl.AvlPipelineMetrics.Stage;
+import org.transitclock.core.avl.ad.ArrivalDepartureFanOut;
 import org.transitclock.core.avl.assigner.AutoBlockAssignerFactory;
 import org.transitclock.core.avl.assigner.BlockAssigner;
 import org.transitclock.core.avl.assigner.BlockAssignmentMethod;
@@ -107,6 +108,12 @@ public class AvlProcessor {
     @Autowired
     private AvlProperties avlProperties;
 
+    @Autowired
+    private AvlPipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private ArrivalDepartureFanOut arrivalDepartureFanOut;
+
     // For keeping track of how long since received an AVL report so
     // can determine if AVL feed is up.
     private AvlReport lastRegularReportProcessed;
@@ -357,8 +364,10 @@ public class AvlProcessor {
             vehicleStatus);
 
         // Find possible spatial matches
+        long start = pipelineMetrics.start(vehicleStatus.getAvlReport());
         SpatialMatcher spatialMatcher = new SpatialMatcher(dbConfig, coreProperties, avlProperties);
         List<SpatialMatch> spatialMatches = spatialMatcher.getSpatialMatches(vehicleStatus);
+        pipelineMetrics.stop(Stage.SPATIAL_MATCH, start);
         logger.debug(
                 "For vehicleId={} found the following {} spatial " + "matches: {}",
                 vehicleStatus.getVehicleId(),
@@ -366,8 +375,10 @@ public class AvlProcessor {
                 spatialMatches);
 
         // Find the best temporal match of the spatial matches
+        start = pipelineMetrics.start(vehicleStatus.getAvlReport());
         TemporalMatch bestTemporalMatch =
                 temporalMatcher.getBestTemporalMatch(vehicleStatus, spatialMatches);
+        pipelineMetrics.stop(Stage.TEMPORAL_MATCH, start);
 
         // Log this as info since matching is a significant milestone
         logger.info("For vehicleId={} the best match is {}", vehicleStatus.getVehicleId(), bestTemporalMatch);
@@ -534,7 +545,7 @@ public class AvlProcessor {
         double distanceAlongSegment = bestMatch.getDistanceAlongSegment();
         Location matchLocation = segment.locAlongVector(distanceAlongSegment);
 
-        long tripStartTime = bestMatch.getTrip().getStartTime() * 1000 + Time.getStartOfDay(new Date());
+        long tripStartTime = bestMatch.getTrip().getStartTime() * 1000 + Time.getStartOfDay(SystemTime.getDate());
         // ignore future trips as we are deadheading
         if (tripStartTime > SystemTime.getMillis()) return;
 
@@ -1281,112 +1292,128 @@ public class AvlProcessor {
         String vehicleId = avlReport.getVehicleId();
         VehicleStatus vehicleStatus = vehicleStatusManager.getStatus(vehicleId);
 
-        // Since modifying the VehicleState should synchronize in case another
-        // thread simultaneously processes data for the same vehicle. This
-        // would be extremely rare but need to be safe.
-        synchronized (vehicleStatus) {
-            // Keep track of last AvlReport even if vehicle not predictable.
-            vehicleStatus.setAvlReport(avlReport);
-
-            // If part of consist and shouldn't be generating predictions
-            // and such and shouldn't grab assignment the simply return
-            // not that the last AVL report has been set for the vehicle.
-            if (avlReport.ignoreBecauseInConsist()) {
-                return;
-            }
-
-            // Do the matching depending on the old and the new assignment
-            // for the vehicle.
-            boolean matchAlreadyPredictableVehicle =
-                    vehicleStatus.isPredictable() && !vehicleStatus.hasNewAssignment(avlReport, blockAssigner);
-            boolean matchToNewAssignment = avlReport.hasValidAssignment()
-                    && !matchesUnpredictableAssignment(avlReport.getAssignmentId())
-                    && (!vehicleStatus.isPredictable() || vehicleStatus.hasNewAssignment(avlReport, blockAssigner))
-                    && !vehicleStatus.previousAssignmentProblematic(avlReport, blockAssigner);
-
-            if (matchAlreadyPredictableVehicle) {
-                // Vehicle was already assigned and assignment hasn't
-                // changed so update the match of where the vehicle is
-                // within the assignment.
-                matchNewFixForPredictableVehicle(vehicleStatus);
-            } else if (matchToNewAssignment) {
-                // New assignment from AVL feed so match the vehicle to it
-                matchVehicleToAssignment(vehicleStatus);
-            } else {
-                // Handle bad assignment where don't have assignment or such.
-                // Will try auto assigning a vehicle if that feature is enabled.
-                handleProblemAssignment(vehicleStatus);
-            }
-
-            // If the last match is actually valid then generate associated
-            // data like predictions and arrival/departure times.
-            if (vehicleStatus.isPredictable() && vehicleStatus.lastMatchIsValid()) {
-                // Reset the counter
-                vehicleStatus.setBadAssignmentsInARow(0);
-
-                // If vehicle is delayed as indicated by not making forward
-                // progress then store that in the vehicle state
-                handlePossibleVehicleDelay(vehicleStatus);
-
-                // Determine and store the schedule adherence.
-                determineAndSetRealTimeSchAdh(vehicleStatus);
-
-                // Only continue processing if vehicle is still predictable
-                // since calling checkScheduleAdherence() can make it
-                // unpredictable if schedule adherence is really bad.
-                if (vehicleStatus.isPredictable()) {
-                    // Generates the corresponding data for the vehicle such as
-                    // predictions and arrival times
-                    matchProcessor.generateResultsOfMatch(vehicleStatus);
-
-                    // If finished block assignment then should remove
-                    // assignment
-                    boolean endOfBlockReached = handlePossibleEndOfBlock(vehicleStatus);
-
-                    // If just reached the end of the block and took the block
-                    // assignment away and made the vehicle unpredictable then
-                    // should see if the AVL report could be used to assign
-                    // vehicle to the next assignment. This is needed for
-                    // agencies like Zhengzhou which is frequency based and
-                    // where each block assignment is only a single trip and
-                    // when vehicle finishes one trip/block it can go into the
-                    // next block right away.
-                    if (endOfBlockReached) {
-                        if (recursiveCall) {
-                            // This method was already called recursively which
-                            // means unassigned vehicle at end of block but then
-                            // it got assigned to end of block again. This
-                            // indicates a bug since vehicles at end of block
-                            // shouldn't be reassigned to the end of the block
-                            // again. Therefore log problem and don't try to
-                            // assign vehicle again.
-                            logger.error(
-                                "lowLevelProcessAvlReport() called recursively, which is wrong. {}",
-                                vehicleStatus);
-                        } else {
-                            // Actually process AVL report again to see if you can
-                            // assign to new assignment.
-                            lowLevelProcessAvlReport(avlReport, true);
-                        }
-                    } // End of if end of block reached
+        // The arrivals/departures determined while the vehicle is locked are
+        // only queued once the lock has been released since queueing can
+        // wait for room in the queues.
+        ArrivalDepartureFanOut.Deferral deferral = null;
+        try {
+            // Since modifying the VehicleState should synchronize in case another
+            // thread simultaneously processes data for the same vehicle. This
+            // would be extremely rare but need to be safe.
+            synchronized (vehicleStatus) {
+                deferral = arrivalDepartureFanOut.defer(vehicleId);
+
+                // Keep track of last AvlReport even if vehicle not predictable.
+                vehicleStatus.setAvlReport(avlReport);
+
+                // If part of consist and shouldn't be generating predictions
+                // and such and shouldn't grab assignment the simply return
+                // not that the last AVL report has been set for the vehicle.
+                if (avlReport.ignoreBecauseInConsist()) {
+                    return;
                 }
-            }
 
-            // If called recursively (because end of block reached) but
-            // didn't match to new assignment then don't want to store the
-            // vehicle state since already did that.
-            if (recursiveCall && !vehicleStatus.isPredictable())
-                return;
+                // Do the matching depending on the old and the new assignment
+                // for the vehicle.
+                boolean matchAlreadyPredictableVehicle =
+                        vehicleStatus.isPredictable() && !vehicleStatus.hasNewAssignment(avlReport, blockAssigner);
+                boolean matchToNewAssignment = avlReport.hasValidAssignment()
+                        && !matchesUnpredictableAssignment(avlReport.getAssignmentId())
+                        && (!vehicleStatus.isPredictable() || vehicleStatus.hasNewAssignment(avlReport, blockAssigner))
+                        && !vehicleStatus.previousAssignmentProblematic(avlReport, blockAssigner);
+
+                if (matchAlreadyPredictableVehicle) {
+                    // Vehicle was already assigned and assignment hasn't
+                    // changed so update the match of where the vehicle is
+                    // within the assignment.
+                    matchNewFixForPredictableVehicle(vehicleStatus);
+                } else if (matchToNewAssignment) {
+                    // New assignment from AVL feed so match the vehicle to it
+                    long start = pipelineMetrics.start(avlReport);
+                    matchVehicleToAssignment(vehicleStatus);
+                    pipelineMetrics.stop(Stage.BLOCK_ASSIGNMENT, start);
+                } else {
+                    // Handle bad assignment where don't have assignment or such.
+                    // Will try auto assigning a vehicle if that feature is enabled.
+                    long start = pipelineMetrics.start(avlReport);
+                    handleProblemAssignment(vehicleStatus);
+                    pipelineMetrics.stop(Stage.BLOCK_ASSIGNMENT, start);
+                }
 
-            // Now that VehicleState has been updated need to update the
-            // VehicleDataCache so that when data queried for API the proper
-            // info is provided.
-            vehicleDataCache.updateVehicle(vehicleStatus);
+                // If the last match is actually valid then generate associated
+                // data like predictions and arrival/departure times.
+                if (vehicleStatus.isPredictable() && vehicleStatus.lastMatchIsValid()) {
+                    // Reset the counter
+                    vehicleStatus.setBadAssignmentsInARow(0);
+
+                    // If vehicle is delayed as indicated by not making forward
+                    // progress then store that in the vehicle state
+                    handlePossibleVehicleDelay(vehicleStatus);
+
+                    // Determine and store the schedule adherence.
+                    determineAndSetRealTimeSchAdh(vehicleStatus);
+
+                    // Only continue processing if vehicle is still predictable
+                    // since calling checkScheduleAdherence() can make it
+                    // unpredictable if schedule adherence is really bad.
+                    if (vehicleStatus.isPredictable()) {
+                        // Generates the corresponding data for the vehicle such as
+                        // predictions and arrival times
+                        matchProcessor.generateResultsOfMatch(vehicleStatus);
+
+                        // If finished block assignment then should remove
+                        // assignment
+                        boolean endOfBlockReached = handlePossibleEndOfBlock(vehicleStatus);
+
+                        // If just reached the end of the block and took the block
+                        // assignment away and made the vehicle unpredictable then
+                        // should see if the AVL report could be used to assign
+                        // vehicle to the next assignment. This is needed for
+                        // agencies like Zhengzhou which is frequency based and
+                        // where each block assignment is only a single trip and
+                        // when vehicle finishes one trip/block it can go into the
+                        // next block right away.
+                        if (endOfBlockReached) {
+                            if (recursiveCall) {
+                                // This method was already called recursively which
+                                // means unassigned vehicle at end of block but then
+                                // it got assigned to end of block again. This
+                                // indicates a bug since vehicles at end of block
+                                // shouldn't be reassigned to the end of the block
+                                // again. Therefore log problem and don't try to
+                                // assign vehicle again.
+                                logger.error(
+                                    "lowLevelProcessAvlReport() called recursively, which is wrong. {}",
+                                    vehicleStatus);
+                            } else {
+                                // Actually process AVL report again to see if you can
+                                // assign to new assignment.
+                                lowLevelProcessAvlReport(avlReport, true);
+                            }
+                        } // End of if end of block reached
+                    }
+                }
 
-            // Write out current vehicle state to db so can join it with AVL
-            // data from db and get historical context of AVL report.
-            var dbVehicleState = new VehicleState(vehicleStatus, dbConfig);
-            dataDbLogger.add(dbVehicleState);
+                // If called recursively (because end of block reached) but
+                // didn't match to new assignment then don't want to store the
+                // vehicle state since already did that.
+                if (recursiveCall && !vehicleStatus.isPredictable())
+                    return;
+
+                // Now that VehicleState has been updated need to update the
+                // VehicleDataCache so that when data queried for API the proper
+                // info is provided.
+                long start = pipelineMetrics.start(avlReport);
+                vehicleDataCache.updateVehicle(vehicleStatus);
+                pipelineMetrics.stop(Stage.VEHICLE_CACHE_UPDATE, start);
+
+                // Write out current vehicle state to db so can join it with AVL
+                // data from db and get historical context of AVL report.
+                var dbVehicleState = new VehicleState(vehicleStatus, dbConfig);
+                dataDbLogger.add(dbVehicleState);
+            }
+        } finally {
+            if (deferral != null) deferral.submit();
         }
     }
 
@@ -1467,6 +1494,7 @@ public class AvlProcessor {
      */
     public void processAvlReport(AvlReport avlReport) {
         IntervalTimer timer = new IntervalTimer();
+        long start = pipelineMetrics.start(avlReport);
 
         // Handle special case where want to not use assignment from AVL
         // report, most likely because want to test automatic assignment
@@ -1477,7 +1505,7 @@ public class AvlProcessor {
         }
 
         try (Session session = HibernateUtils.getSession()) {
-            var config = VehicleToBlockConfig.getVehicleToBlockConfigs(session, avlReport.getVehicleId(), new Date());
+            var config = VehicleToBlockConfig.getVehicleToBlockConfigs(session, avlReport.getVehicleId(), SystemTime.getDate());
             Optional.ofNullable(config).ifPresent(c -> {
                 avlReport.setAssignment(c.getBlockId(), AssignmentType.BLOCK_ID);
             });
@@ -1512,6 +1540,8 @@ public class AvlProcessor {
 
         // Do the low level work of matching vehicle and then generating results
         lowLevelProcessAvlReport(avlReport, false);
+        pipelineMetrics.stop(Stage.TOTAL, start);
+        pipelineMetrics.recordLag(avlReport);
         logger.debug("Processing AVL report took {}msec", timer);
     }
 }
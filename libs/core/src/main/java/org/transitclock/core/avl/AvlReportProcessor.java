@@ -29,14 +29,18 @@ public class AvlReportProcessor {
     // Keyed on vehicle ID.
     private final AvlProcessor avlProcessor;
     private final Executor avlExecutingThreadPool;
+    private final AvlAdmissionController admissionController;
     private final Map<String, AvlReport> avlReports;
     private final AvlProperties avlProperties;
 
     public class AvlReportProcessingTask implements Runnable {
         private final AvlReport avlReport;
+        // For determining how long the report took to get through the queue
+        private final long queuedTime;
 
         public AvlReportProcessingTask(AvlReport avlReport) {
             this.avlReport = avlReport;
+            this.queuedTime = System.currentTimeMillis();
         }
 
         public AvlReport getAvlReport() {
@@ -45,6 +49,8 @@ public class AvlReportProcessor {
 
         @Override
         public void run() {
+            long startTime = System.currentTimeMillis();
+            admissionController.recordQueueWait(startTime - queuedTime);
             try {
                 // If the data is bad throw it out
                 String errorMsg = avlReport.validateData(avlProperties);
@@ -113,22 +119,36 @@ public class AvlReportProcessor {
                 // AVL thread even if there is an unexpected problem. Only let
                 // Errors, such as OutOfMemory errors, through.
                 logger.error("Something happened while processing {}.", avlReport, e);
+            } finally {
+                admissionController.recordProcessingTime(System.currentTimeMillis() - startTime);
             }
         }
     }
 
     public AvlReportProcessor(AvlProcessor avlProcessor,
                               AvlProperties avlProperties,
-                              @Qualifier("avlExecutingThreadPool") Executor avlExecutingThreadPool) {
+                              @Qualifier("avlExecutingThreadPool") Executor avlExecutingThreadPool,
+                              AvlAdmissionController admissionController) {
         this.avlProcessor = avlProcessor;
         this.avlExecutingThreadPool = avlExecutingThreadPool;
+        this.admissionController = admissionController;
         this.avlProperties = avlProperties;
         avlReports = new ConcurrentHashMap<>();
     }
 
 
+    /**
+     * Queues the AVL report to be processed, unless the admission controller decides it should be
+     * shed because AVL processing is backed up.
+     *
+     * @return ACCEPT if the report was queued, otherwise why it was shed. So that pushers can be
+     *     told to retry later.
+     */
+    public AvlAdmissionController.Decision process(AvlReport avlReport) {
+        AvlAdmissionController.Decision decision = admissionController.admit(avlReport);
+        if (decision != AvlAdmissionController.Decision.ACCEPT) return decision;
 
-    public void process(AvlReport avlReport) {
         avlExecutingThreadPool.execute(new AvlReportProcessingTask(avlReport));
+        return decision;
     }
 }
@@ -2,8 +2,14 @@ package org.transitclock.core.avl;
 
 import org.springframework.stereotype.Component;
 import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.properties.TimeoutProperties;
+import org.transitclock.utils.SystemTime;
+import org.transitclock.utils.Time;
+import org.transitclock.utils.TimerWheel;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -15,17 +21,119 @@ public class AvlReportRegistry {
     // can be removed from the map.
     private final Map<String, AvlReport> avlReportsMap = new ConcurrentHashMap<>();
 
+    // The deadlines of newly stored AVL reports, keyed on vehicle ID. So
+    // that storing a report, which is done by the AVL processing threads,
+    // doesn't need to lock the timer wheel. Only the latest deadline of a
+    // vehicle is kept. Moved into the timer wheel before it is advanced.
+    private final Map<String, Deadline> pendingDeadlines = new ConcurrentHashMap<>();
+
+    // When each vehicle should next be looked at by the TimeoutHandlerModule.
+    // Created when the first deadline is moved into it so that it starts at
+    // the right time when in playback mode. Access synchronized on this.
+    private TimerWheel<String> timeoutDeadlines;
+
+    private record Deadline(AvlReport avlReport, long deadlineMsec) {}
+
+    private final TimeoutProperties timeoutProperties;
+
+    public AvlReportRegistry(TimeoutProperties timeoutProperties) {
+        this.timeoutProperties = timeoutProperties;
+    }
+
     /**
      * Stores the specified AVL report into map so know the last time received AVL data for the
-     * vehicle.
+     * vehicle. Also sets when the vehicle should be checked for a timeout, which is when it will
+     * have gone without an AVL report for too long. Schedule based vehicles depend on the schedule
+     * instead so are checked again after the polling rate.
+     *
+     * <p>Called by the AVL processing threads so doesn't lock anything other than the entries for
+     * the vehicle in the concurrent maps.
      *
      * @param avlReport AVL report to store
      */
     public void storeAvlReport(AvlReport avlReport) {
+        long deadline = avlReport.isForSchedBasedPreds()
+                ? SystemTime.getMillis() + timeoutProperties.getPollingRateSecs() * Time.MS_PER_SEC
+                : avlReport.getTime() + timeoutProperties.getAllowableNoAvlSecs() * Time.MS_PER_SEC;
+
+        // Only made pending once the report is in avlReportsMap, otherwise
+        // the deadline could be dropped for not being for the latest report
         avlReportsMap.put(avlReport.getVehicleId(), avlReport);
+        pendingDeadlines.put(avlReport.getVehicleId(), new Deadline(avlReport, deadline));
     }
 
     public Collection<AvlReport> avlReportList() {
         return avlReportsMap.values();
     }
+
+    /**
+     * Returns the last AVL reports of the vehicles whose timeout deadline has been reached. The
+     * vehicles no longer have a deadline until they report again or are rescheduled via
+     * {@link #scheduleTimeoutCheck(AvlReport, long)}.
+     *
+     * @param now current time
+     */
+    public synchronized List<AvlReport> expiredAvlReports(long now) {
+        schedulePendingDeadlines();
+        if (timeoutDeadlines == null) {
+            return List.of();
+        }
+
+        List<String> vehicleIds = timeoutDeadlines.advance(now);
+        List<AvlReport> expired = new ArrayList<>(vehicleIds.size());
+        for (String vehicleId : vehicleIds) {
+            AvlReport avlReport = avlReportsMap.get(vehicleId);
+            if (avlReport != null) {
+                expired.add(avlReport);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Sets when the vehicle should next be checked for a timeout. Does nothing if a newer AVL report
+     * has been stored for the vehicle since it already has a new deadline.
+     *
+     * @param avlReport the AVL report the deadline was determined from
+     * @param deadline when to check again
+     */
+    public synchronized void scheduleTimeoutCheck(AvlReport avlReport, long deadline) {
+        schedulePendingDeadlines();
+        if (avlReportsMap.get(avlReport.getVehicleId()) == avlReport) {
+            deadlines().schedule(avlReport.getVehicleId(), deadline);
+        }
+    }
+
+    /**
+     * Removes the vehicle so that it is no longer checked for timeouts. Does nothing if a newer AVL
+     * report has been stored for the vehicle.
+     *
+     * @param avlReport the last AVL report for the vehicle
+     */
+    public synchronized void remove(AvlReport avlReport) {
+        if (avlReportsMap.remove(avlReport.getVehicleId(), avlReport) && timeoutDeadlines != null) {
+            timeoutDeadlines.cancel(avlReport.getVehicleId());
+        }
+    }
+
+    /**
+     * Moves the deadlines of the AVL reports stored since last time into the timer wheel. A
+     * deadline is dropped if its report is no longer the latest one for the vehicle, since then
+     * either the newer report has its own deadline or the vehicle has been removed.
+     */
+    private void schedulePendingDeadlines() {
+        for (String vehicleId : pendingDeadlines.keySet()) {
+            Deadline deadline = pendingDeadlines.remove(vehicleId);
+            if (deadline != null && avlReportsMap.get(vehicleId) == deadline.avlReport()) {
+                deadlines().schedule(vehicleId, deadline.deadlineMsec());
+            }
+        }
+    }
+
+    private TimerWheel<String> deadlines() {
+        if (timeoutDeadlines == null) {
+            timeoutDeadlines = new TimerWheel<>(Time.MS_PER_SEC, SystemTime.getMillis());
+        }
+        return timeoutDeadlines;
+    }
 }
@@ -2,11 +2,12 @@
 package org.transitclock.core.avl;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 
+import org.transitclock.core.prediction.accuracy.gtfsrt.FeedEntityStreamer;
 import org.transitclock.domain.structs.AssignmentType;
 import org.transitclock.domain.structs.AvlReport;
 import org.transitclock.domain.structs.Location;
@@ -14,7 +15,6 @@ import org.transitclock.properties.AvlProperties;
 import org.transitclock.utils.IntervalTimer;
 import org.transitclock.utils.MathUtils;
 
-import com.google.protobuf.CodedInputStream;
 import com.google.transit.realtime.GtfsRealtime;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -24,12 +24,19 @@ import org.springframework.stereotype.Component;
  * For reading in feed of GTFS-realtime AVL data. Is used for both realtime feeds and for when
  * reading in a giant batch of data.
  *
+ * <p>The feed is read one entity at a time and each AVL report is handed to the
+ * AvlReportProcessor as soon as it is read, instead of first parsing the whole feed. If the
+ * timestamp in the feed header is not newer than when the feed was last read then the feed hasn't
+ * changed and the rest of it isn't read.
+ *
  * @author SkiBu Smith
  */
 @Slf4j
 @Component
 @ConditionalOnProperty(name = "transitclock.avl.gtfs-realtime-feed-uri")
 public class GtfsRealtimeModule extends PollUrlAvlModule {
+    private static final String AVL_SOURCE = "GTFS-rt";
+
     public GtfsRealtimeModule(AvlProperties avlProperties, AvlReportProcessor avlReportProcessor) {
         super(avlProperties, avlReportProcessor);
     }
@@ -41,12 +48,53 @@ public class GtfsRealtimeModule extends PollUrlAvlModule {
 
     @Override
     protected Collection<AvlReport> processData(InputStream inputStream) throws Exception {
-        CodedInputStream codedStream = CodedInputStream.newInstance(inputStream);
-        codedStream.setSizeLimit(200000000);
+        List<AvlReport> avlReports = new ArrayList<>();
+        FeedEntityStreamer.stream(inputStream, (header, entity) -> {
+            AvlReport avlReport = getAvlReport(entity, AVL_SOURCE);
+            if (avlReport != null) avlReports.add(avlReport);
+        });
+        return avlReports;
+    }
+
+    @Override
+    protected int processStream(InputStream inputStream, FeedSource feedSource) throws Exception {
+        IntervalTimer timer = new IntervalTimer();
 
-        var feed = GtfsRealtime.FeedMessage.parseFrom(codedStream);
+        long[] feedTimestamp = {0};
+        int[] counter = {0};
+        FeedEntityStreamer.stream(
+                inputStream,
+                header -> {
+                    // If feed hasn't changed since last read then don't
+                    // need to process it again
+                    if (header.hasTimestamp() && header.getTimestamp() <= feedSource.getFeedTimestamp()) {
+                        logger.debug(
+                                "GTFS-realtime feed url={} has timestamp {} which is not newer than "
+                                        + "last read so not processing it",
+                                feedSource.getUrl(),
+                                header.getTimestamp());
+                        return false;
+                    }
+                    feedTimestamp[0] = header.getTimestamp();
+                    return true;
+                },
+                (header, entity) -> {
+                    AvlReport avlReport = getAvlReport(entity, AVL_SOURCE);
+                    if (avlReport == null) return;
+
+                    // The callback for each AvlReport
+                    if (avlProperties.getShouldProcessAvl()) processAvlReport(avlReport);
+                    ++counter[0];
+                });
+
+        // Only remember the timestamp once the feed has been processed
+        if (feedTimestamp[0] != 0) feedSource.setFeedTimestamp(feedTimestamp[0]);
 
-        return processMessage(feed);
+        logger.info(
+                "Successfully processed {} AVL reports from GTFS-realtime feed in {} msec",
+                counter[0],
+                timer.elapsedMsec());
+        return counter[0];
     }
 
     /**
@@ -91,115 +139,99 @@ public class GtfsRealtimeModule extends PollUrlAvlModule {
 
 
     /**
-     * For each vehicle in the GTFS-realtime message put AvlReport into list.
+     * Creates the AvlReport for a GTFS-realtime entity.
      *
-     * @param message Contains all of the VehiclePosition objects
-     * @return List of AvlReports
+     * @param entity Contains the VehiclePosition
+     * @param source For the source member of the AvlReport
+     * @return the AvlReport, or null if the entity isn't for a vehicle position that can be used
      */
-    private List<AvlReport> processMessage(GtfsRealtime.FeedMessage message) {
-        List<AvlReport> avlReports = new LinkedList<>();
+    public static AvlReport getAvlReport(GtfsRealtime.FeedEntity entity, String source) {
+        // If no vehicles in the entity then nothing to process
+        if (!entity.hasVehicle()) {
+            return null;
+        }
 
-        IntervalTimer timer = new IntervalTimer();
+        // Get the object describing the vehicle
+        GtfsRealtime.VehiclePosition vehicle = entity.getVehicle();
 
-        // For each entity/vehicle process the data
-        int counter = 0;
-        for (GtfsRealtime.FeedEntity entity : message.getEntityList()) {
-            // If no vehicles in the entity then nothing to process
-            if (!entity.hasVehicle()) {
-                continue;
-            }
+        // Determine vehicle ID. If no vehicle ID then can't handle it.
+        String vehicleId = getVehicleId(vehicle);
+        String vehicleLabel = getVehicleLabel(vehicle);
 
-            // Get the object describing the vehicle
-            GtfsRealtime.VehiclePosition vehicle = entity.getVehicle();
-
-            // Determine vehicle ID. If no vehicle ID then can't handle it.
-            String vehicleId = getVehicleId(vehicle);
-            String vehicleLabel = getVehicleLabel(vehicle);
-
-            if (vehicleId == null && vehicleLabel != null)
-                vehicleId = vehicleLabel;
-
-            if (vehicleId == null)
-                continue;
-
-            // Determine the GPS time. If time is not available then use the
-            // current time. This is really a bad idea though because the
-            // latency will be quite large, resulting in inaccurate predictions
-            // and arrival times. But better than not having a time at all.
-            long gpsTime;
-
-            if (vehicle.hasTimestamp()) {
-                gpsTime = vehicle.getTimestamp();
-                if (gpsTime < 14396727760L) {
-                    // TODO if too small to be milli second epoch
-                    gpsTime = gpsTime * 1000;
-                }
-            } else {
-                gpsTime = System.currentTimeMillis();
+        if (vehicleId == null && vehicleLabel != null)
+            vehicleId = vehicleLabel;
+
+        if (vehicleId == null)
+            return null;
+
+        // Determine the GPS time. If time is not available then use the
+        // current time. This is really a bad idea though because the
+        // latency will be quite large, resulting in inaccurate predictions
+        // and arrival times. But better than not having a time at all.
+        long gpsTime;
+
+        if (vehicle.hasTimestamp()) {
+            gpsTime = vehicle.getTimestamp();
+            if (gpsTime < 14396727760L) {
+                // TODO if too small to be milli second epoch
+                gpsTime = gpsTime * 1000;
             }
+        } else {
+            gpsTime = System.currentTimeMillis();
+        }
 
-            // Determine the position data
-            GtfsRealtime.Position position = vehicle.getPosition();
+        // Determine the position data
+        GtfsRealtime.Position position = vehicle.getPosition();
 
-            // If no position then cannot handle the data
-            if (!position.hasLatitude() || !position.hasLongitude()) continue;
+        // If no position then cannot handle the data
+        if (!position.hasLatitude() || !position.hasLongitude()) return null;
 
-            double lat = position.getLatitude();
-            double lon = position.getLongitude();
+        double lat = position.getLatitude();
+        double lon = position.getLongitude();
 
-            // Handle speed and heading
-            float speed = Float.NaN;
-            if (position.hasSpeed()) {
-                speed = position.getSpeed();
-            }
+        // Handle speed and heading
+        float speed = Float.NaN;
+        if (position.hasSpeed()) {
+            speed = position.getSpeed();
+        }
 
-            float heading = Float.NaN;
-            if (position.hasBearing()) {
-                heading = position.getBearing();
-            }
+        float heading = Float.NaN;
+        if (position.hasBearing()) {
+            heading = position.getBearing();
+        }
 
-            // Create the core AVL object.
-            // The feed can provide a silly amount of precision so round to just 5 decimal places.
-            // AvlReport is expecting time in ms while the proto provides it in seconds
-            AvlReport.AvlReportBuilder builder = AvlReport.builder()
-                .withVehicleId(vehicleId)
-                .withTime(new Date(gpsTime))
-                .withLocation(new Location(MathUtils.round(lat, 5), MathUtils.round(lon, 5)))
-                .withHeading(heading)
-                .withSpeed(speed)
-                .withSource("GTFS-rt")
-                .withLicensePlate(getLicensePlate(vehicle))
-                .withPassengerFullness(Float.NaN);
-
-            // Determine vehicle assignment information
-            if (vehicle.hasTrip()) {
-                GtfsRealtime.TripDescriptor tripDescriptor = vehicle.getTrip();
-
-                if (tripDescriptor.hasRouteId()) {
-                    builder.withAssignmentId(tripDescriptor.getRouteId());
-                    builder.withAssignmentType(AssignmentType.ROUTE_ID);
-                }
-
-                if (tripDescriptor.hasTripId()) {
-                    builder.withAssignmentId(tripDescriptor.getTripId());
-                    builder.withAssignmentType(AssignmentType.TRIP_ID);
-                }
+        // Create the core AVL object.
+        // The feed can provide a silly amount of precision so round to just 5 decimal places.
+        // AvlReport is expecting time in ms while the proto provides it in seconds
+        AvlReport.AvlReportBuilder builder = AvlReport.builder()
+            .withVehicleId(vehicleId)
+            .withTime(new Date(gpsTime))
+            .withLocation(new Location(MathUtils.round(lat, 5), MathUtils.round(lon, 5)))
+            .withHeading(heading)
+            .withSpeed(speed)
+            .withSource(source)
+            .withLicensePlate(getLicensePlate(vehicle))
+            .withPassengerFullness(Float.NaN);
+
+        // Determine vehicle assignment information
+        if (vehicle.hasTrip()) {
+            GtfsRealtime.TripDescriptor tripDescriptor = vehicle.getTrip();
+
+            if (tripDescriptor.hasRouteId()) {
+                builder.withAssignmentId(tripDescriptor.getRouteId());
+                builder.withAssignmentType(AssignmentType.ROUTE_ID);
             }
 
-            // The callback for each AvlReport
-            avlReports.add(builder.build());
-            ++counter;
+            if (tripDescriptor.hasTripId()) {
+                builder.withAssignmentId(tripDescriptor.getTripId());
+                builder.withAssignmentType(AssignmentType.TRIP_ID);
+            }
         }
 
-        logger.info(
-            "Successfully processed {} AVL reports from GTFS-realtime feed in {} msec",
-            counter,
-            timer.elapsedMsec());
-
-        return avlReports;
+        return builder.build();
     }
 
-    private String getVehicleLabel(GtfsRealtime.VehiclePosition vehicle) {
+    private static String getVehicleLabel(GtfsRealtime.VehiclePosition vehicle) {
         return vehicle.getVehicle().getLabel();
     }
 }
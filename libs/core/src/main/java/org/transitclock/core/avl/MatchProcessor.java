@@ -4,11 +4,13 @@ package org.transitclock.core.avl;
 import java.util.List;
 
 import org.transitclock.core.VehicleStatus;
+import org.transitclock.core.avl.AvlPipelineMetrics.Stage;
 import org.transitclock.core.avl.ad.ArrivalDepartureGenerator;
 import org.transitclock.core.dataCache.PredictionDataCache;
 import org.transitclock.core.headwaygenerator.HeadwayGenerator;
 import org.transitclock.core.prediction.PredictionGenerator;
 import org.transitclock.domain.hibernate.DataDbLogger;
+import org.transitclock.domain.structs.AvlReport;
 import org.transitclock.domain.structs.Headway;
 import org.transitclock.domain.structs.Match;
 import org.transitclock.domain.structs.Prediction;
@@ -36,6 +38,7 @@ public class MatchProcessor {
     private final ArrivalDepartureGenerator arrivalDepartureGenerator;
     private final PredictionGenerator predictionGenerator;
     private final CoreProperties coreProperties;
+    private final AvlPipelineMetrics pipelineMetrics;
 
     public MatchProcessor(DataDbLogger dbLogger,
                           DbConfig dbConfig,
@@ -43,7 +46,8 @@ public class MatchProcessor {
                           HeadwayGenerator headwayGenerator,
                           ArrivalDepartureGenerator arrivalDepartureGenerator,
                           PredictionGenerator predictionGenerator,
-                          CoreProperties coreProperties) {
+                          CoreProperties coreProperties,
+                          AvlPipelineMetrics pipelineMetrics) {
         this.dbLogger = dbLogger;
         this.dbConfig = dbConfig;
         this.predictionDataCache = predictionDataCache;
@@ -51,6 +55,7 @@ public class MatchProcessor {
         this.arrivalDepartureGenerator = arrivalDepartureGenerator;
         this.predictionGenerator = predictionGenerator;
         this.coreProperties = coreProperties;
+        this.pipelineMetrics = pipelineMetrics;
     }
 
     /**
@@ -166,11 +171,20 @@ public class MatchProcessor {
 
         // Process predictions, headways, arrivals/departures, and and spatial
         // matches. If don't need matches then don't store them
+        AvlReport avlReport = vehicleStatus.getAvlReport();
         if (!coreProperties.getOnlyNeedArrivalDepartures()) {
+            long start = pipelineMetrics.start(avlReport);
             processPredictions(vehicleStatus);
+            pipelineMetrics.stop(Stage.PREDICTIONS, start);
+
+            start = pipelineMetrics.start(avlReport);
             processHeadways(vehicleStatus);
+            pipelineMetrics.stop(Stage.HEADWAYS, start);
+
             processSpatialMatch(vehicleStatus);
         }
+        long start = pipelineMetrics.start(avlReport);
         processArrivalDepartures(vehicleStatus);
+        pipelineMetrics.stop(Stage.ARRIVALS_DEPARTURES, start);
     }
 }
@@ -2,22 +2,33 @@
 package org.transitclock.core.avl;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 
 import org.transitclock.config.data.AvlConfig;
 import org.transitclock.domain.structs.AvlReport;
 import org.transitclock.properties.AvlProperties;
 import org.transitclock.utils.IntervalTimer;
+import org.transitclock.utils.threading.NamedThreadFactory;
 
 import lombok.extern.slf4j.Slf4j;
 import org.json.JSONException;
@@ -30,10 +41,54 @@ import org.springframework.scheduling.annotation.Scheduled;
  * outputs the data to the appropriate JMS topic so that it can be read from an AvlClient. If not in
  * JMS mode then uses a BoundedExecutor with multiple threads to directly call AvlClient.run().
  *
+ * <p>When there are multiple sources they are read concurrently so that a slow source doesn't
+ * delay the others. Each source is limited to the feed timeout. Requests are conditional, using
+ * the ETag and Last-Modified of the previous response, so that an unchanged feed is not
+ * downloaded and processed again.
+ *
  * @author Michael Smith (michael@transitclock.org)
  */
 @Slf4j
 public abstract class PollUrlAvlModule extends AvlModule {
+    // Keyed on the source URL
+    private final Map<String, FeedSource> feedSources = new ConcurrentHashMap<>();
+
+    // For reading multiple sources concurrently
+    private ThreadPoolExecutor pollExecutor;
+
+    // Polling cycles since the sources were last read. For polling less
+    // often when AVL processing is backed up.
+    private int cyclesSinceLastPoll;
+
+    /**
+     * What is known about a source from the previous time it was read. Used for conditional
+     * requests and so that subclasses can tell if the feed has changed.
+     */
+    protected static class FeedSource {
+        private final String url;
+        private volatile String etag;
+        private volatile String lastModified;
+        private volatile long feedTimestamp;
+
+        FeedSource(String url) {
+            this.url = url;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /** @return the timestamp of the feed last read, as set by setFeedTimestamp(). 0 if none. */
+        public long getFeedTimestamp() {
+            return feedTimestamp;
+        }
+
+        /** For subclasses to record the timestamp that the feed itself specifies */
+        public void setFeedTimestamp(long feedTimestamp) {
+            this.feedTimestamp = feedTimestamp;
+        }
+    }
+
     protected PollUrlAvlModule(AvlProperties avlProperties, AvlReportProcessor avlReportProcessor) {
         super(avlProperties, avlReportProcessor);
     }
@@ -68,6 +123,26 @@ public abstract class PollUrlAvlModule extends AvlModule {
      */
     protected abstract Collection<AvlReport> processData(InputStream in) throws Exception;
 
+    /**
+     * Reads the AVL reports from the InputStream and processes them. By default reads them all in
+     * using processData() and then processes them. Can be overridden to process each AVL report
+     * as soon as it is read, and to use the FeedSource to skip a feed that hasn't changed.
+     *
+     * @param in The input stream containing the AVL data
+     * @param feedSource The source being read
+     * @return Number of AVL reports read in
+     * @throws Exception if the data could not be processed
+     */
+    protected int processStream(InputStream in, FeedSource feedSource) throws Exception {
+        Collection<AvlReport> avlReportsReadIn = processData(in);
+
+        // Process all the reports read in
+        if (avlProperties.getShouldProcessAvl()) {
+            processAvlReports(avlReportsReadIn);
+        }
+        return avlReportsReadIn.size();
+    }
+
     /**
      * Converts the input stream into a JSON string. Useful for when processing a JSON feed.
      *
@@ -89,38 +164,98 @@ public abstract class PollUrlAvlModule extends AvlModule {
     }
 
     /**
-     * Actually reads data from feed and processes it by opening up a URL specified by getUrl() and
-     * then reading the contents. Calls the abstract method processData() to actually process the
-     * input stream.
-     *
-     * <p>This method needs to be overwritten if not real data from a URL
+     * Reads data from all the sources and processes it. If there are multiple sources they are
+     * read concurrently, and this waits until all of them have been read.
+     */
+    private void fetchData() {
+        List<String> sources = getSources();
+
+        // A single source is simply read by this thread
+        if (sources.size() <= 1) {
+            sources.forEach(this::fetchSource);
+            return;
+        }
+
+        ThreadPoolExecutor executor = getPollExecutor(sources.size());
+        List<Future<?>> futures = new ArrayList<>(sources.size());
+        for (String source : sources) {
+            futures.add(executor.submit(() -> fetchSource(source)));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                logger.error("Error reading AVL feed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @return executor for reading the sources, replaced if the number of sources has grown
+     */
+    private synchronized ThreadPoolExecutor getPollExecutor(int numSources) {
+        if (pollExecutor == null || pollExecutor.getCorePoolSize() < numSources) {
+            if (pollExecutor != null) pollExecutor.shutdown();
+            pollExecutor = (ThreadPoolExecutor)
+                    Executors.newFixedThreadPool(numSources, new NamedThreadFactory("AvlFeedPoller"));
+        }
+        return pollExecutor;
+    }
+
+    /**
+     * Reads data from the source and processes it by calling processStream(). Errors are logged
+     * instead of thrown so that they don't affect the other sources.
      *
-     * @throws Exception Throws a generic exception since the processing is done in the abstract
-     *     method processData() and it could throw any type of exception since we don't really know
-     *     how the AVL feed will be processed.
+     * @param source URL of the feed
      */
-    private void fetchData() throws Exception {
+    private void fetchSource(String source) {
+        FeedSource feedSource = feedSources.computeIfAbsent(source, FeedSource::new);
+        int timeoutMsec = avlProperties.getFeedTimeoutInMSecs();
+        try {
+            fetchSource(feedSource, timeoutMsec);
+        } catch (SocketTimeoutException e) {
+            logger.error("Error accessing AVL feed using URL={} with a timeout of {} msec.", source, timeoutMsec, e);
+        } catch (Exception e) {
+            logger.error("Error accessing AVL feed using URL={}.", source, e);
+        }
+    }
+
+    private void fetchSource(FeedSource feedSource, int timeoutMsec) throws Exception {
         // For logging
         IntervalTimer timer = new IntervalTimer();
-        List<String> sources = getSources();
 
-        for (var source: sources) {
-            // Log what is happening
-            logger.info("Getting data from feed using url={}", source);
+        // Log what is happening
+        logger.debug("Getting data from feed using url={}", feedSource.getUrl());
+
+        // Create the connection
+        URL url = new URL(feedSource.getUrl());
+        URLConnection con = url.openConnection();
 
-            // Create the connection
-            URL url = new URL(source);
-            URLConnection con = url.openConnection();
+        configureConnectionLifetime(con);
 
-            configureConnectionLifetime(con);
+        configureConnectionAuthentication(con);
 
-            configureConnectionAuthentication(con);
+        // Only want the feed if it has changed since last read
+        if (feedSource.etag != null) con.setRequestProperty("If-None-Match", feedSource.etag);
+        if (feedSource.lastModified != null) con.setRequestProperty("If-Modified-Since", feedSource.lastModified);
 
-            setRequestHeaders(con);
+        setRequestHeaders(con);
+
+        try {
+            if (con instanceof HttpURLConnection httpCon
+                    && httpCon.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                logger.debug("AVL feed url={} not modified", feedSource.getUrl());
+                return;
+            }
 
             // Create appropriate input stream depending on whether content is
-            // compressed or not
-            try (InputStream inputStream = con.getInputStream()) {
+            // compressed or not. Time blocked reading is limited to the
+            // timeout in total, not just per read, so that a slow source
+            // can't hold things up.
+            try (InputStream inputStream = new TimeLimitedInputStream(con.getInputStream(), timeoutMsec)) {
                 InputStream in = inputStream;
                 if ("gzip".equals(con.getContentEncoding())) {
                     in = new GZIPInputStream(in);
@@ -129,16 +264,22 @@ public abstract class PollUrlAvlModule extends AvlModule {
                 // For debugging
                 logger.debug("Time to access inputstream {} msec", timer.elapsedMsec());
 
-                // Call the abstract method to actually process the data
+                // Call the method to actually process the data
                 timer.resetTimer();
-                Collection<AvlReport> avlReportsReadIn = processData(in);
-                logger.debug("Time to parse document {} msec", timer.elapsedMsec());
-
-                // Process all the reports read in
-                if (avlProperties.getShouldProcessAvl()) {
-                    processAvlReports(avlReportsReadIn);
-                }
+                int numReports = processStream(in, feedSource);
+                logger.info(
+                        "Processed {} AVL reports from url={} in {} msec",
+                        numReports,
+                        feedSource.getUrl(),
+                        timer.elapsedMsec());
             }
+
+            // Successfully processed so can use the validators for
+            // the next conditional request
+            feedSource.etag = con.getHeaderField("ETag");
+            feedSource.lastModified = con.getHeaderField("Last-Modified");
+        } finally {
+            if (con instanceof HttpURLConnection httpCon) httpCon.disconnect();
         }
     }
 
@@ -164,17 +305,66 @@ public abstract class PollUrlAvlModule extends AvlModule {
      */
     @Scheduled(fixedRateString = "${transitclock.avl.feedTimeoutInMSecs:15000}")
     public void run() {
+        // If AVL processing is backed up then polling would just add to the
+        // backlog, so only poll every few cycles until it has caught up
+        int pollIntervalMultiplier = avlReportProcessor.getAdmissionController().getPollIntervalMultiplier();
+        if (++cyclesSinceLastPoll < pollIntervalMultiplier) {
+            logger.debug("AVL processing is backed up so skipping polling of {}", getSources());
+            return;
+        }
+        cyclesSinceLastPoll = 0;
+
         try {
             // Process data
             fetchData();
-        } catch (SocketTimeoutException e) {
-            logger.error(
-                    "Error accessing AVL feed using URL={} with a timeout of {} msec.",
-                    getSources(),
-                    AvlConfig.getAvlFeedTimeoutInMSecs(),
-                    e);
         } catch (Exception e) {
             logger.error("Error accessing AVL feed using URL={}.", getSources(), e);
         }
     }
+
+    /**
+     * Limits the total time spent blocked reading a stream. The read timeout of the connection only
+     * limits each read so a source that slowly trickles data could otherwise take forever. Only
+     * the time spent in read counts, not the time spent processing the data in between reads, so
+     * that a slow consumer, such as when AVL processing is backed up, doesn't time out the feed.
+     */
+    private static class TimeLimitedInputStream extends FilterInputStream {
+        private final long timeoutNanos;
+        private final int timeoutMsec;
+        // Total time spent blocked in read so far
+        private long readNanos;
+
+        TimeLimitedInputStream(InputStream in, int timeoutMsec) {
+            super(in);
+            this.timeoutMsec = timeoutMsec;
+            this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMsec);
+        }
+
+        private void checkTimeout() throws SocketTimeoutException {
+            if (readNanos > timeoutNanos)
+                throw new SocketTimeoutException("Reading feed took longer than " + timeoutMsec + " msec");
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkTimeout();
+            long start = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                readNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkTimeout();
+            long start = System.nanoTime();
+            try {
+                return super.read(b, off, len);
+            } finally {
+                readNanos += System.nanoTime() - start;
+            }
+        }
+    }
 }
@@ -0,0 +1,95 @@
+/* (C)2023 */
+package org.transitclock.core.avl.ad;
+
+import java.util.Date;
+
+import org.transitclock.domain.structs.Arrival;
+import org.transitclock.domain.structs.ArrivalDeparture;
+import org.transitclock.domain.structs.Block;
+import org.transitclock.domain.structs.Departure;
+import org.transitclock.gtfs.DbConfig;
+import org.transitclock.utils.Time;
+
+/**
+ * An arrival or departure as determined by the ArrivalDepartureGenerator, with just the values
+ * needed to create the corresponding Arrival or Departure. Creating the ArrivalDeparture object
+ * requires looking up the trip, stop path, route order and schedule time, so that is left to the
+ * consumers of the event instead of being done while processing the AVL report.
+ *
+ * @param isArrival true for an arrival, false for a departure
+ * @param configRev config rev at the time the event was determined
+ * @param vehicleId vehicle that arrived or departed
+ * @param time epoch time of the arrival/departure in msec
+ * @param avlTime epoch time of the AVL report that the arrival/departure was determined from
+ * @param block block that the vehicle was assigned to
+ * @param tripIndex index of the trip within the block
+ * @param stopPathIndex index of the stop path within the trip
+ * @param freqStartTime epoch start time of the trip for frequency based trips, or
+ *     NO_FREQ_START_TIME
+ */
+public record ArrivalDepartureEvent(
+        boolean isArrival,
+        int configRev,
+        String vehicleId,
+        long time,
+        long avlTime,
+        Block block,
+        int tripIndex,
+        int stopPathIndex,
+        long freqStartTime) {
+
+    /** For freqStartTime when the trip isn't frequency based */
+    public static final long NO_FREQ_START_TIME = -1;
+
+    /** @return copy of this event but with the time changed */
+    public ArrivalDepartureEvent withTime(long newTime) {
+        return new ArrivalDepartureEvent(
+                isArrival, configRev, vehicleId, newTime, avlTime, block, tripIndex, stopPathIndex, freqStartTime);
+    }
+
+    /**
+     * @return true if the stop path is the last one of the trip. For no schedule blocks the last
+     *     stop is also the first stop of the next trip.
+     */
+    public boolean isLastStopOfTrip() {
+        return stopPathIndex == block.getTrip(tripIndex).getNumberStopPaths() - 1;
+    }
+
+    /** Creates the Arrival or Departure for this event */
+    public ArrivalDeparture toArrivalDeparture(DbConfig dbConfig) {
+        Date freqStartDate = freqStartTime != NO_FREQ_START_TIME ? new Date(freqStartTime) : null;
+        return isArrival
+                ? new Arrival(
+                        configRev,
+                        vehicleId,
+                        new Date(time),
+                        new Date(avlTime),
+                        block,
+                        tripIndex,
+                        stopPathIndex,
+                        freqStartDate,
+                        dbConfig)
+                : new Departure(
+                        configRev,
+                        vehicleId,
+                        new Date(time),
+                        new Date(avlTime),
+                        block,
+                        tripIndex,
+                        stopPathIndex,
+                        freqStartDate,
+                        dbConfig);
+    }
+
+    @Override
+    public String toString() {
+        return (isArrival ? "Arrival [" : "Departure [")
+                + "vehicleId=" + vehicleId
+                + ", time=" + Time.dateTimeStrMsec(time)
+                + ", avlTime=" + Time.dateTimeStrMsec(avlTime)
+                + ", blockId=" + block.getId()
+                + ", tripIndex=" + tripIndex
+                + ", stopPathIndex=" + stopPathIndex
+                + "]";
+    }
+}
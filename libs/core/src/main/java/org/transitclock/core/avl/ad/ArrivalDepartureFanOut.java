@@ -0,0 +1,292 @@
+/* (C)2023 */
+package org.transitclock.core.avl.ad;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.transitclock.domain.structs.ArrivalDeparture;
+import org.transitclock.gtfs.DbConfig;
+import org.transitclock.utils.threading.NamedThreadFactory;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hands arrival/departure events from the ArrivalDepartureGenerator to the consumers of them, such
+ * as the db logger and the caches, so that the AVL processing thread only has to determine the
+ * events.
+ *
+ * <p>The ArrivalDeparture objects are created from the events on a single thread, in the order
+ * that the events were submitted. An event submitted to multiple lanes is only converted once.
+ * Each lane then has its own thread and queue so that a slow consumer, such as a cache that has
+ * to look up history, doesn't hold up the others, while the consumers of a lane still see the
+ * arrivals/departures in the order they were generated. Consumers that depend on each other, such
+ * as the dwell time model reading the stop history, therefore need to be in the same lane.
+ *
+ * <p>The queues are bounded. If one fills up the submitting thread waits, which slows AVL
+ * processing down instead of using up all the memory. Since the events are determined while the
+ * state of the vehicle is locked the submits can be deferred, see {@link #defer(String)}, so that
+ * the waiting isn't done while holding the lock.
+ *
+ * <p>When not asynchronous everything is done on the calling thread, as it was before the fan out
+ * existed. Useful for batch processing and for debugging.
+ */
+@Slf4j
+public class ArrivalDepartureFanOut implements AutoCloseable {
+
+    /** The groups of consumers that each get their own ordered queue */
+    public enum Lane {
+        /** Trip history cache plus the caches built from it, and the schedule adherence rollup */
+        TRIP_HISTORY,
+        /** Stop history cache plus the dwell time model and holding times built from it */
+        STOP_HISTORY,
+        /** Writing to the db, prediction accuracy, and vehicle events */
+        DB
+    }
+
+    private final Function<ArrivalDepartureEvent, ArrivalDeparture> converter;
+    private final boolean async;
+    private final ThreadPoolExecutor entityExecutor;
+    private final Map<Lane, ThreadPoolExecutor> laneExecutors = new EnumMap<>(Lane.class);
+
+    // The last event converted and the resulting ArrivalDeparture. Kept
+    // together in a single object since when not async multiple AVL
+    // threads can be converting events at once.
+    private Converted lastConverted;
+
+    private record Converted(ArrivalDepartureEvent event, ArrivalDeparture arrivalDeparture) {}
+
+    // The deferral the current thread is adding its submits to, if any
+    private final ThreadLocal<Deferral> currentDeferral = new ThreadLocal<>();
+
+    // Keyed by vehicle ID. So that the deferrals of a vehicle are submitted
+    // in the order they were created.
+    private final Map<String, DeferralOrder> deferralOrders = new ConcurrentHashMap<>();
+
+    private static final class DeferralOrder {
+        private long nextTicket;
+        private long nowServing;
+    }
+
+    /**
+     * @param dbConfig for creating the ArrivalDeparture objects
+     * @param queueSize maximum number of events queued for each lane
+     * @param async if false then the consumers are called on the submitting thread
+     */
+    public ArrivalDepartureFanOut(DbConfig dbConfig, int queueSize, boolean async) {
+        this(event -> event.toArrivalDeparture(dbConfig), queueSize, async);
+    }
+
+    /**
+     * @param converter creates the ArrivalDeparture for an event. Only called for one event at a
+     *     time when async.
+     * @param queueSize maximum number of events queued for each lane
+     * @param async if false then the consumers are called on the submitting thread
+     */
+    ArrivalDepartureFanOut(
+            Function<ArrivalDepartureEvent, ArrivalDeparture> converter, int queueSize, boolean async) {
+        this.converter = converter;
+        this.async = async;
+        if (async) {
+            entityExecutor = newOrderedExecutor("ArrivalDeparture", queueSize);
+            for (Lane lane : Lane.values()) {
+                laneExecutors.put(lane, newOrderedExecutor("ArrivalDeparture-" + lane, queueSize));
+            }
+        } else {
+            entityExecutor = null;
+        }
+    }
+
+    /**
+     * A single thread executor so that tasks are run in order. When the queue is full the
+     * submitting thread waits for room instead of the task being rejected or run on the
+     * submitting thread, either of which would mess up the order.
+     */
+    private static ThreadPoolExecutor newOrderedExecutor(String name, int queueSize) {
+        return new ThreadPoolExecutor(
+                1,
+                1,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueSize),
+                new NamedThreadFactory(name),
+                (runnable, executor) -> {
+                    if (executor.isShutdown()) throw new RejectedExecutionException(name + " has been shut down");
+                    try {
+                        executor.getQueue().put(runnable);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while queueing for " + name, e);
+                    }
+                });
+    }
+
+    /**
+     * Queues the event so that the consumer is called with the corresponding ArrivalDeparture on
+     * the thread for the lane.
+     *
+     * @param event the arrival/departure
+     * @param lane determines the thread and queue used
+     * @param consumer what to do with the ArrivalDeparture. Exceptions are logged.
+     */
+    public void submit(ArrivalDepartureEvent event, Lane lane, Consumer<ArrivalDeparture> consumer) {
+        if (!async) {
+            consume(event, lane, consumer, toArrivalDeparture(event));
+            return;
+        }
+
+        Deferral deferral = currentDeferral.get();
+        if (deferral != null) {
+            deferral.submits.add(() -> queue(event, lane, consumer));
+        } else {
+            queue(event, lane, consumer);
+        }
+    }
+
+    private void queue(ArrivalDepartureEvent event, Lane lane, Consumer<ArrivalDeparture> consumer) {
+        entityExecutor.execute(() -> {
+            ArrivalDeparture arrivalDeparture;
+            try {
+                arrivalDeparture = toArrivalDeparture(event);
+            } catch (Exception e) {
+                logger.error("Could not create arrival/departure for {}", event, e);
+                return;
+            }
+            laneExecutors.get(lane).execute(() -> consume(event, lane, consumer, arrivalDeparture));
+        });
+    }
+
+    /**
+     * Holds back the events submitted by the calling thread until {@link Deferral#submit()} is
+     * called. For when the events are determined while holding the lock on the state of the
+     * vehicle: the lanes don't take that lock, but another thread processing the same vehicle or
+     * timing it out would still have to wait for room in a full queue. Create the deferral while
+     * holding the lock and submit it after releasing the lock, in a finally block.
+     *
+     * <p>The deferrals of a vehicle are submitted in the order they were created, so the events of
+     * the vehicle stay in order even if its AVL reports are processed by multiple threads. If the
+     * thread already has a deferral then the events are added to that one and the returned
+     * deferral does nothing.
+     *
+     * @param vehicleId vehicle the events will be for
+     * @return the deferral, to be submitted once the lock has been released
+     */
+    public Deferral defer(String vehicleId) {
+        if (!async || currentDeferral.get() != null) return new Deferral(null, 0);
+
+        DeferralOrder order = deferralOrders.computeIfAbsent(vehicleId, id -> new DeferralOrder());
+        long ticket;
+        synchronized (order) {
+            ticket = order.nextTicket++;
+        }
+        Deferral deferral = new Deferral(order, ticket);
+        currentDeferral.set(deferral);
+        return deferral;
+    }
+
+    /** The events held back by {@link #defer(String)} */
+    public final class Deferral {
+        private final DeferralOrder order;
+        private final long ticket;
+        private final List<Runnable> submits = new ArrayList<>();
+
+        private Deferral(DeferralOrder order, long ticket) {
+            this.order = order;
+            this.ticket = ticket;
+        }
+
+        /**
+         * Queues the held back events, after the ones of earlier deferrals for the vehicle. Can
+         * wait for room in the queues so must not be called while holding the vehicle lock.
+         */
+        public void submit() {
+            // Nested or not async, so nothing was held back
+            if (order == null) return;
+
+            currentDeferral.remove();
+            boolean interrupted = false;
+            synchronized (order) {
+                while (order.nowServing != ticket) {
+                    try {
+                        order.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            try {
+                for (Runnable submit : submits) {
+                    submit.run();
+                }
+            } finally {
+                synchronized (order) {
+                    order.nowServing++;
+                    order.notifyAll();
+                }
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private ArrivalDeparture toArrivalDeparture(ArrivalDepartureEvent event) {
+        // Events are usually submitted to several lanes one after the
+        // other so only need to remember the last one
+        Converted converted = lastConverted;
+        if (converted == null || converted.event() != event) {
+            converted = new Converted(event, converter.apply(event));
+            lastConverted = converted;
+        }
+        return converted.arrivalDeparture();
+    }
+
+    private static void consume(
+            ArrivalDepartureEvent event,
+            Lane lane,
+            Consumer<ArrivalDeparture> consumer,
+            ArrivalDeparture arrivalDeparture) {
+        try {
+            consumer.accept(arrivalDeparture);
+        } catch (Exception e) {
+            logger.error("Exception in {} consumer for {}", lane, event, e);
+        }
+    }
+
+    /** @return number of events waiting, for all the queues combined */
+    public int getQueueSize() {
+        if (!async) return 0;
+        int size = entityExecutor.getQueue().size();
+        for (ThreadPoolExecutor executor : laneExecutors.values()) {
+            size += executor.getQueue().size();
+        }
+        return size;
+    }
+
+    /**
+     * Stops accepting events and waits for the queued ones to be consumed, so that they still
+     * make it to the db when shutting down.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        if (!async) return;
+
+        // The entity thread feeds the lanes so it has to finish first
+        entityExecutor.shutdown();
+        if (!entityExecutor.awaitTermination(30, TimeUnit.SECONDS))
+            logger.warn("Timed out waiting for arrivals/departures to be created");
+        for (ThreadPoolExecutor executor : laneExecutors.values()) {
+            executor.shutdown();
+        }
+        for (ThreadPoolExecutor executor : laneExecutors.values()) {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS))
+                logger.warn("Timed out waiting for arrivals/departures to be consumed by {}", executor);
+        }
+    }
+}
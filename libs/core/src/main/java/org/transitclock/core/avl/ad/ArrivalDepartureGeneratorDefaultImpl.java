@@ -1,7 +1,6 @@
 /* (C)2023 */
 package org.transitclock.core.avl.ad;
 
-import java.util.ArrayList;
 import java.util.Date;
 
 import org.transitclock.core.Indices;
@@ -9,7 +8,10 @@ import org.transitclock.core.TemporalDifference;
 import org.transitclock.core.TravelTimes;
 import org.transitclock.core.VehicleAtStopInfo;
 import org.transitclock.core.VehicleStatus;
+import org.transitclock.core.adherence.ScheduleAdherenceRollup;
+import org.transitclock.core.avl.ad.ArrivalDepartureFanOut.Lane;
 import org.transitclock.core.avl.space.SpatialMatch;
+import org.transitclock.core.avl.time.TemporalMatch;
 import org.transitclock.core.dataCache.DwellTimeModelCacheInterface;
 import org.transitclock.core.dataCache.HoldingTimeCache;
 import org.transitclock.core.dataCache.StopArrivalDepartureCacheInterface;
@@ -20,15 +22,12 @@ import org.transitclock.core.dataCache.scheduled.ScheduleBasedHistoricalAverageC
 import org.transitclock.core.holdingmethod.HoldingTimeGenerator;
 import org.transitclock.core.prediction.accuracy.PredictionAccuracyModule;
 import org.transitclock.domain.hibernate.DataDbLogger;
-import org.transitclock.domain.structs.Arrival;
 import org.transitclock.domain.structs.ArrivalDeparture;
 import org.transitclock.domain.structs.AvlReport;
 import org.transitclock.domain.structs.Block;
-import org.transitclock.domain.structs.Departure;
 import org.transitclock.domain.structs.HoldingTime;
 import org.transitclock.domain.structs.Route;
 import org.transitclock.domain.structs.Stop;
-import org.transitclock.domain.structs.Trip;
 import org.transitclock.domain.structs.VehicleEvent;
 import org.transitclock.gtfs.DbConfig;
 import org.transitclock.properties.ArrivalsDeparturesProperties;
@@ -70,6 +69,10 @@ import lombok.extern.slf4j.Slf4j;
  * need to use travel speed and distance to determine from the last AVL report when arrived or
  * departed a stop.
  *
+ * <p>Only the determining of the arrivals/departures is done on the thread processing the AVL
+ * report. The Arrival and Departure objects, and updating the db and caches with them, are left to
+ * the ArrivalDepartureFanOut since that work doesn't affect the matching of the next AVL report.
+ *
  * @author SkiBu Smith
  */
 @Slf4j
@@ -83,10 +86,12 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
     private final TripDataHistoryCacheInterface tripDataHistoryCacheInterface;
     private final StopArrivalDepartureCacheInterface stopArrivalDepartureCacheInterface;
     private final DwellTimeModelCacheInterface dwellTimeModelCacheInterface;
+    private final ScheduleAdherenceRollup scheduleAdherenceRollup;
     private final DataDbLogger dataDbLogger;
     private final DbConfig dbConfig;
     private final ArrivalsDeparturesProperties arrivalsDeparturesProperties;
     private final CoreProperties coreProperties;
+    private final ArrivalDepartureFanOut fanOut;
 
     public ArrivalDepartureGeneratorDefaultImpl(ScheduleBasedHistoricalAverageCache scheduleBasedHistoricalAverageCache,
                                                 FrequencyBasedHistoricalAverageCache frequencyBasedHistoricalAverageCache,
@@ -97,10 +102,12 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
                                                 TripDataHistoryCacheInterface tripDataHistoryCacheInterface,
                                                 StopArrivalDepartureCacheInterface stopArrivalDepartureCacheInterface,
                                                 DwellTimeModelCacheInterface dwellTimeModelCacheInterface,
+                                                ScheduleAdherenceRollup scheduleAdherenceRollup,
                                                 DataDbLogger dataDbLogger,
                                                 DbConfig dbConfig,
                                                 ArrivalsDeparturesProperties arrivalsDeparturesProperties,
-                                                CoreProperties coreProperties) {
+                                                CoreProperties coreProperties,
+                                                ArrivalDepartureFanOut fanOut) {
         this.scheduleBasedHistoricalAverageCache = scheduleBasedHistoricalAverageCache;
         this.frequencyBasedHistoricalAverageCache = frequencyBasedHistoricalAverageCache;
         this.holdingTimeCache = holdingTimeCache;
@@ -110,10 +117,12 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
         this.tripDataHistoryCacheInterface = tripDataHistoryCacheInterface;
         this.stopArrivalDepartureCacheInterface = stopArrivalDepartureCacheInterface;
         this.dwellTimeModelCacheInterface = dwellTimeModelCacheInterface;
+        this.scheduleAdherenceRollup = scheduleAdherenceRollup;
         this.dataDbLogger = dataDbLogger;
         this.dbConfig = dbConfig;
         this.arrivalsDeparturesProperties = arrivalsDeparturesProperties;
         this.coreProperties = coreProperties;
+        this.fanOut = fanOut;
     }
 
 
@@ -228,7 +237,8 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
     }
 
     /**
-     * Writes out departure time to database
+     * Creates the departure and queues it for the caches. It is not stored into the db until
+     * storeInDbAndLog() is called for it.
      *
      * @param vehicleStatus
      * @param departureTime
@@ -236,32 +246,18 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
      * @param tripIndex
      * @param stopPathIndex
      */
-    protected Departure createDepartureTime(
+    protected ArrivalDepartureEvent createDepartureTime(
         VehicleStatus vehicleStatus, long departureTime, Block block, int tripIndex, int stopPathIndex) {
-        // Store the departure in the database via the db logger
-
-        Date freqStartDate = null;
-        if (vehicleStatus.getTripStartTime(vehicleStatus.getTripCounter()) != null) {
-            freqStartDate = new Date(vehicleStatus.getTripStartTime(vehicleStatus.getTripCounter()));
-        }
-
-        Departure departure = new Departure(
-                dbConfig.getConfigRev(),
-                vehicleStatus.getVehicleId(),
-                new Date(departureTime),
-                vehicleStatus.getAvlReport().getDate(),
-                block,
-                tripIndex,
-                stopPathIndex,
-                freqStartDate,
-                dbConfig);
+        ArrivalDepartureEvent departure =
+                createEvent(false, vehicleStatus, departureTime, block, tripIndex, stopPathIndex);
         updateCache(vehicleStatus, departure);
         logger.debug("Creating departure: {}", departure);
         return departure;
     }
 
     /**
-     * Writes out arrival time to database. Also keeps track of the latest arrival time in
+     * Creates the arrival and queues it for the caches. It is not stored into the db until
+     * storeInDbAndLog() is called for it. Also keeps track of the latest arrival time in
      * VehicleState so that can make sure that subsequent departures are after the last arrival
      * time.
      *
@@ -271,26 +267,9 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
      * @param tripIndex
      * @param stopPathIndex
      */
-    protected Arrival createArrivalTime(
+    protected ArrivalDepartureEvent createArrivalTime(
         VehicleStatus vehicleStatus, long arrivalTime, Block block, int tripIndex, int stopPathIndex) {
-        // Store the arrival in the database via the db logger
-
-        Date freqStartDate = null;
-        if (vehicleStatus.getTripStartTime(vehicleStatus.getTripCounter()) != null) {
-            freqStartDate = new Date(vehicleStatus.getTripStartTime(vehicleStatus.getTripCounter()));
-        }
-
-        Arrival arrival = new Arrival(
-                dbConfig.getConfigRev(),
-                vehicleStatus.getVehicleId(),
-                new Date(arrivalTime),
-                vehicleStatus.getAvlReport().getDate(),
-                block,
-                tripIndex,
-                stopPathIndex,
-                freqStartDate,
-                dbConfig);
-
+        ArrivalDepartureEvent arrival = createEvent(true, vehicleStatus, arrivalTime, block, tripIndex, stopPathIndex);
         updateCache(vehicleStatus, arrival);
         logger.debug("Creating arrival: {}", arrival);
 
@@ -301,25 +280,49 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
         return arrival;
     }
 
-    private void updateCache(VehicleStatus vehicleStatus, ArrivalDeparture arrivalDeparture) {
+    private ArrivalDepartureEvent createEvent(
+            boolean isArrival, VehicleStatus vehicleStatus, long time, Block block, int tripIndex, int stopPathIndex) {
+        // The trip start time is for frequency based trips. Need to get it
+        // now since the trip counter can change before the event is consumed.
+        Long freqStartTime = vehicleStatus.getTripStartTime(vehicleStatus.getTripCounter());
+        return new ArrivalDepartureEvent(
+                isArrival,
+                dbConfig.getConfigRev(),
+                vehicleStatus.getVehicleId(),
+                time,
+                vehicleStatus.getAvlReport().getTime(),
+                block,
+                tripIndex,
+                stopPathIndex,
+                freqStartTime != null ? freqStartTime : ArrivalDepartureEvent.NO_FREQ_START_TIME);
+    }
+
+    /**
+     * Queues the arrival/departure for the caches. The trip based and the stop based caches are
+     * separate lanes since they don't depend on each other.
+     */
+    private void updateCache(VehicleStatus vehicleStatus, ArrivalDepartureEvent event) {
+        fanOut.submit(event, Lane.TRIP_HISTORY, this::updateTripCaches);
+        fanOut.submit(event, Lane.STOP_HISTORY, arrivalDeparture -> updateStopCaches(vehicleStatus, arrivalDeparture));
+    }
 
+    /**
+     * Updates the trip history cache and the caches that are determined from it. Called on the
+     * TRIP_HISTORY lane.
+     */
+    private void updateTripCaches(ArrivalDeparture arrivalDeparture) {
         if (tripDataHistoryCacheInterface != null)
             tripDataHistoryCacheInterface.putArrivalDeparture(arrivalDeparture);
 
-        if (stopArrivalDepartureCacheInterface != null) {
-            stopArrivalDepartureCacheInterface.putArrivalDeparture(arrivalDeparture);
-        }
-
-        if (dwellTimeModelCacheInterface != null) {
-            dwellTimeModelCacheInterface.addSample(arrivalDeparture);
+        if (scheduleAdherenceRollup != null) {
+            scheduleAdherenceRollup.putArrivalDeparture(arrivalDeparture);
         }
 
         if (scheduleBasedHistoricalAverageCache != null) {
             try {
                 scheduleBasedHistoricalAverageCache.putArrivalDeparture(arrivalDeparture);
             } catch (Exception e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+                logger.error("Exception updating schedule based historical average for {}", arrivalDeparture, e);
             }
         }
 
@@ -327,71 +330,41 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
             try {
                 frequencyBasedHistoricalAverageCache.putArrivalDeparture(arrivalDeparture);
             } catch (Exception e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+                logger.error("Exception updating frequency based historical average for {}", arrivalDeparture, e);
             }
+    }
+
+    /**
+     * Updates the stop history cache and the dwell time model and holding times that are
+     * determined from it. Called on the STOP_HISTORY lane.
+     */
+    private void updateStopCaches(VehicleStatus vehicleStatus, ArrivalDeparture arrivalDeparture) {
+        if (stopArrivalDepartureCacheInterface != null) {
+            stopArrivalDepartureCacheInterface.putArrivalDeparture(arrivalDeparture);
+        }
+
+        if (dwellTimeModelCacheInterface != null) {
+            dwellTimeModelCacheInterface.addSample(arrivalDeparture);
+        }
 
         if (holdingTimeGenerator != null) {
-            HoldingTime holdingTime;
+            // Doesn't lock the vehicle state since a thread holding that lock
+            // could be waiting for room in this lane's queue. Not needed
+            // since the holding time is determined from just the
+            // arrival/departure and setting it is a single volatile write.
             try {
-                holdingTime = holdingTimeGenerator
+                HoldingTime holdingTime = holdingTimeGenerator
                         .generateHoldingTime(vehicleStatus, new IpcArrivalDeparture(arrivalDeparture));
                 if (holdingTime != null) {
                     holdingTimeCache.putHoldingTime(holdingTime);
                     vehicleStatus.setHoldingTime(holdingTime);
                 }
-                ArrayList<Long> N_List = new ArrayList<Long>();
 
                 holdingTimeGenerator.handleDeparture(vehicleStatus, arrivalDeparture);
-
             } catch (Exception e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+                logger.error("Exception generating holding time for {}", arrivalDeparture, e);
             }
         }
-        /*
-        if(HoldingTimeGeneratorDefaultImpl.getOrderedListOfVehicles("66")!=null)
-        	logger.info("ORDER:"+HoldingTimeGeneratorDefaultImpl.getOrderedListOfVehicles("66").toString());
-        */
-        /*
-        if(HoldingTimeGeneratorFactory.getInstance()!=null)
-        {
-        	HoldingTimeCacheKey key=new HoldingTimeCacheKey(arrivalDeparture.getStopId(), arrivalDeparture.getVehicleId(), arrivalDeparture.getTripId());
-        	if(arrivalDeparture.getVehicleId().equals("966"))
-        	{
-        		System.out.println("hello");
-        	}
-
-
-
-        	if(holdingTimeCache.getHoldingTime(key)!=null)
-        	{
-        		long sinceHoldingTimeGenerated=Math.abs(holdingTimeCache.getHoldingTime(key).getCreationTime().getTime()-arrivalDeparture.getAvlTime().getTime());
-
-        		if((holdingTimeCache.getHoldingTime(key).isArrivalPredictionUsed()==false&&sinceHoldingTimeGenerated>1400000)||holdingTimeCache.getHoldingTime(key).isArrivalPredictionUsed()==true)
-        		{
-        			HoldingTime holdingTime = HoldingTimeGeneratorFactory.getInstance().generateHoldingTime(vehicleState, arrivalDeparture);
-        			if(holdingTime!=null)
-        			{
-        				holdingTimeCache.putHoldingTime(holdingTime);
-        				vehicleState.setHoldingTime(holdingTime);
-        			}
-        		}else
-        		{
-        			logger.debug("Don't generate holding time.");
-        		}
-        	}else
-        	{
-        		HoldingTime holdingTime = HoldingTimeGeneratorFactory.getInstance().generateHoldingTime(vehicleState, arrivalDeparture);
-        		if(holdingTime!=null)
-        		{
-        			holdingTimeCache.putHoldingTime(holdingTime);
-        			vehicleState.setHoldingTime(holdingTime);
-        		}
-        	}
-        	HoldingTimeGeneratorFactory.getInstance().handleDeparture(vehicleState, arrivalDeparture);
-        }
-        */
     }
 
     /**
@@ -401,8 +374,8 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
      * @param arrivalDeparture
      * @return true if arrival/departure time within 30 minutes of the AVL report time.
      */
-    private boolean timeReasonable(ArrivalDeparture arrivalDeparture) {
-        long delta = Math.abs(arrivalDeparture.getAvlTime().getTime() - arrivalDeparture.getDate().getTime());
+    private boolean timeReasonable(ArrivalDepartureEvent arrivalDeparture) {
+        long delta = Math.abs(arrivalDeparture.avlTime() - arrivalDeparture.time());
 
         if (delta < arrivalsDeparturesProperties.getAllowableDifferenceBetweenAvlTimeSecs() * Time.MS_PER_SEC) {
             return true;
@@ -412,23 +385,23 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
                 "Arrival or departure time of {} is more than "
                         + "{} secs away from the AVL time of {}. Therefore not "
                         + "storing this time. {}",
-                arrivalDeparture.getDate(),
+                Time.dateTimeStrMsec(arrivalDeparture.time()),
                 arrivalsDeparturesProperties.getAllowableDifferenceBetweenAvlTimeSecs(),
-                arrivalDeparture.getAvlTime(),
+                Time.dateTimeStrMsec(arrivalDeparture.avlTime()),
                 arrivalDeparture);
         return false;
     }
 
     /**
-     * Stores the specified ArrivalDeparture object into the db and log to the ArrivalsDeparatures
-     * log file that the object was created.
+     * Queues the specified arrival/departure to be stored into the db and logged to the
+     * ArrivalsDepartures log file.
      *
      * <p>Also generates corresponding prediction accuracy information if a corresponding prediction
      * was found in memory.
      *
      * @param arrivalDeparture
      */
-    protected void storeInDbAndLog(ArrivalDeparture arrivalDeparture) {
+    protected void storeInDbAndLog(ArrivalDepartureEvent arrivalDeparture) {
         // If arrival/departure time too far from the AVL time then something
         // must be wrong. For this situation don't store the arrival/departure
         // into db.
@@ -437,19 +410,20 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
         // Don't want to record arrival/departure time for last stop of a no
         // schedule block/trip since the last stop is also the first stop of
         // a non-schedule trip. We don't duplicate entries.
-        if (arrivalDeparture.getBlock().isNoSchedule()) {
-            Trip trip = arrivalDeparture.getBlock().getTrip(arrivalDeparture.getTripIndex());
-            // If last stop in trip then don't do anything here
-            if (arrivalDeparture.getStopPathIndex() == trip.getNumberStopPaths() - 1) return;
-        }
+        if (arrivalDeparture.block().isNoSchedule() && arrivalDeparture.isLastStopOfTrip()) return;
 
         // Queue to store object into db
-        dataDbLogger.add(arrivalDeparture);
+        fanOut.submit(arrivalDeparture, Lane.DB, this::storeInDb);
 
         /* add event to vehicle state. Will increment tripCounter if the last arrival in a trip */
-        VehicleStatus vehicleStatus = vehicleStatusManager.getStatus(arrivalDeparture.getVehicleId());
+        VehicleStatus vehicleStatus = vehicleStatusManager.getStatus(arrivalDeparture.vehicleId());
 
         vehicleStatus.incrementTripCounter(arrivalDeparture, vehicleStatusManager);
+    }
+
+    /** Stores the arrival/departure into the db. Called on the DB lane. */
+    private void storeInDb(ArrivalDeparture arrivalDeparture) {
+        dataDbLogger.add(arrivalDeparture);
 
         // Generate prediction accuracy info as appropriate
         PredictionAccuracyModule.handleArrivalDeparture(dbConfig, dataDbLogger, arrivalDeparture);
@@ -462,10 +436,20 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
      * @param vehicleStatus
      * @param departure
      */
-    private void logEventIfVehicleDepartedEarlyOrLate(VehicleStatus vehicleStatus, Departure departure) {
+    private void logEventIfVehicleDepartedEarlyOrLate(VehicleStatus vehicleStatus, ArrivalDepartureEvent departure) {
         // If departure not for terminal then can ignore
-        if (departure.getStopPathIndex() != 0) return;
+        if (departure.stopPathIndex() != 0) return;
+
+        // Schedule adherence needs the Departure so determine whether an
+        // event is needed on the DB lane. The AVL report and match are
+        // taken now since they will have changed by then.
+        AvlReport avlReport = vehicleStatus.getAvlReport();
+        TemporalMatch match = vehicleStatus.getMatch();
+        fanOut.submit(
+                departure, Lane.DB, arrivalDeparture -> logEventIfDepartedEarlyOrLate(arrivalDeparture, avlReport, match));
+    }
 
+    private void logEventIfDepartedEarlyOrLate(ArrivalDeparture departure, AvlReport avlReport, TemporalMatch match) {
         // Determine schedule adherence. If no schedule adherence info available
         // then can ignore.
         TemporalDifference schAdh = departure.getScheduleAdherence();
@@ -491,8 +475,8 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
 
             // Create, store in db, and log the VehicleEvent
             VehicleEvent vehicleEvent = new VehicleEvent(
-                    vehicleStatus.getAvlReport(),
-                    vehicleStatus.getMatch(),
+                    avlReport,
+                    match,
                     VehicleEvent.LEFT_TERMINAL_EARLY,
                     description,
                     true, // predictable
@@ -521,8 +505,8 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
 
             // Create, store in db, and log the VehicleEvent
             VehicleEvent vehicleEvent = new VehicleEvent(
-                    vehicleStatus.getAvlReport(),
-                    vehicleStatus.getMatch(),
+                    avlReport,
+                    match,
                     VehicleEvent.LEFT_TERMINAL_LATE,
                     description,
                     true, // predictable
@@ -639,14 +623,14 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
         // Make sure departure time is after the previous arrival time since
         // don't want arrival/departure times to ever go backwards. That of
         // course looks really bad.
-        Arrival arrivalToStoreInDb = vehicleStatus.getArrivalToStoreToDb();
+        ArrivalDepartureEvent arrivalToStoreInDb = vehicleStatus.getArrivalToStoreToDb();
         if (arrivalToStoreInDb != null) {
             // If the arrival time is a problem then adjust both the arrival
             // time and the departure time so that they are as accurate as
             // possible and that the arrival time comes before the departure
             // time.
-            if (arrivalToStoreInDb.getTime() >= departureTime) {
-                long originalTimeBetweenOldAvlAndArrival = arrivalToStoreInDb.getTime() - previousAvlReport.getTime();
+            if (arrivalToStoreInDb.time() >= departureTime) {
+                long originalTimeBetweenOldAvlAndArrival = arrivalToStoreInDb.time() - previousAvlReport.getTime();
                 // Note: don't want to subtract out departure time because
                 // it could be based on the old AVL report. Since trying to
                 // determine expected time for departure using the old
@@ -668,12 +652,12 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
                                     + "adjusted to {} and departure adjusted to {}.",
                             vehicleId,
                             Time.dateTimeStrMsec(departureTime),
-                            Time.dateTimeStrMsec(arrivalToStoreInDb.getTime()),
+                            Time.dateTimeStrMsec(arrivalToStoreInDb.time()),
                             Time.dateTimeStrMsec(newArrivalTime),
                             Time.dateTimeStrMsec(newDepartureTime));
                 }
                 departureTime = newDepartureTime;
-                arrivalToStoreInDb = arrivalToStoreInDb.withUpdatedTime(new Date(newArrivalTime), dbConfig);
+                arrivalToStoreInDb = arrivalToStoreInDb.withTime(newArrivalTime);
             }
 
             // Now that have the corrected arrival time store it in db
@@ -832,7 +816,7 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
         departureTime = adjustDepartureSoAfterArrival(departureTime, departureTimeBasedOnNewMatch, vehicleStatus);
 
         // Create and write out the departure time to db
-        Departure departure = createDepartureTime(
+        ArrivalDepartureEvent departure = createDepartureTime(
             vehicleStatus,
                 departureTime,
                 oldVehicleAtStopInfo.getBlock(),
@@ -958,7 +942,7 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
         }
 
         // Create the arrival time
-        Arrival arrival = createArrivalTime(
+        ArrivalDepartureEvent arrival = createArrivalTime(
             vehicleStatus,
                 arrivalTime,
                 newVehicleAtStopInfo.getBlock(),
@@ -973,7 +957,7 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
         // the systems that use that data. But if it is the last stop of the
         // trip then should store it now because might not get another match
         // for this trip and don't want to never store the arrival.
-        if (arrival.getTime() > avlReport.getTime()
+        if (arrival.time() > avlReport.getTime()
                 && newVehicleAtStopInfo.getStopPathIndex() != newMatch.getTrip().getNumberStopPaths() - 1) {
             // Record the arrival to store into the db next time get a
             // departure so that can make sure that arrival time is
@@ -1095,7 +1079,7 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
         Block block = indices.getBlock();
         while (indices.isEarlierStopPathThan(endIndices)) {
             // Determine arrival time for current stop
-            ArrivalDeparture arrival = createArrivalTime(
+            ArrivalDepartureEvent arrival = createArrivalTime(
                 vehicleStatus, arrivalTime, newMatch.getBlock(), indices.getTripIndex(), indices.getStopPathIndex());
             storeInDbAndLog(arrival);
 
@@ -1107,7 +1091,7 @@ public class ArrivalDepartureGeneratorDefaultImpl implements ArrivalDepartureGen
             if (stopTime * speedRatio < 1.0) stopTime = 1.0 / speedRatio;
             timeWithoutSpeedRatio += stopTime;
             long departureTime = beginTime + Math.round(timeWithoutSpeedRatio * speedRatio);
-            ArrivalDeparture departure = createDepartureTime(
+            ArrivalDepartureEvent departure = createDepartureTime(
                 vehicleStatus,
                     departureTime,
                     newMatch.getBlock(),
@@ -2,6 +2,7 @@
 package org.transitclock.core.avl.ad;
 
 import org.transitclock.core.TravelTimes;
+import org.transitclock.core.adherence.ScheduleAdherenceRollup;
 import org.transitclock.core.dataCache.DwellTimeModelCacheInterface;
 import org.transitclock.core.dataCache.HoldingTimeCache;
 import org.transitclock.core.dataCache.StopArrivalDepartureCacheInterface;
@@ -31,6 +32,21 @@ public class ArrivalDepartureGeneratorFactory {
     @Value("${transitclock.factory.arrival-departure-generator:org.transitclock.core.avl.ad.ArrivalDepartureGeneratorDefaultImpl}")
     private Class<?> neededClass;
 
+    /**
+     * Hands the generated arrivals/departures to the db logger and caches. A separate bean so that
+     * Spring closes it on shutdown, which lets the queued arrivals/departures be consumed. Depends
+     * on the DataDbLogger, even though it doesn't use it directly, so that Spring closes the fan
+     * out before the DataDbLogger and the drained arrivals/departures still get written.
+     */
+    @Bean
+    public ArrivalDepartureFanOut arrivalDepartureFanOut(ArrivalsDeparturesProperties arrivalsDeparturesProperties,
+                                                         DbConfig dbConfig,
+                                                         DataDbLogger dataDbLogger) {
+        return new ArrivalDepartureFanOut(dbConfig,
+                                          arrivalsDeparturesProperties.getConsumerQueueSize(),
+                                          arrivalsDeparturesProperties.getAsyncConsumers());
+    }
+
     @Bean
     public ArrivalDepartureGenerator arrivalDepartureGenerator(ArrivalsDeparturesProperties arrivalsDeparturesProperties,
                                                                CoreProperties coreProperties,
@@ -43,11 +59,13 @@ public class ArrivalDepartureGeneratorFactory {
                                                                TripDataHistoryCacheInterface tripDataHistoryCacheInterface,
                                                                StopArrivalDepartureCacheInterface stopArrivalDepartureCacheInterface,
                                                                DwellTimeModelCacheInterface dwellTimeModelCacheInterface,
+                                                               ScheduleAdherenceRollup scheduleAdherenceRollup,
                                                                DataDbLogger dataDbLogger,
-                                                               DbConfig dbConfig) {
+                                                               DbConfig dbConfig,
+                                                               ArrivalDepartureFanOut arrivalDepartureFanOut) {
         // If the PredictionGenerator hasn't been created yet then do so now
         if (neededClass == ArrivalDepartureGeneratorDefaultImpl.class)
-            return new ArrivalDepartureGeneratorDefaultImpl(scheduleBasedHistoricalAverageCache, frequencyBasedHistoricalAverageCache, holdingTimeCache, vehicleStatusManager, holdingTimeGenerator, travelTimes, tripDataHistoryCacheInterface, stopArrivalDepartureCacheInterface, dwellTimeModelCacheInterface, dataDbLogger, dbConfig, arrivalsDeparturesProperties, coreProperties);
+            return new ArrivalDepartureGeneratorDefaultImpl(scheduleBasedHistoricalAverageCache, frequencyBasedHistoricalAverageCache, holdingTimeCache, vehicleStatusManager, holdingTimeGenerator, travelTimes, tripDataHistoryCacheInterface, stopArrivalDepartureCacheInterface, dwellTimeModelCacheInterface, scheduleAdherenceRollup, dataDbLogger, dbConfig, arrivalsDeparturesProperties, coreProperties, arrivalDepartureFanOut);
 
         throw new IllegalArgumentException("Requested ArrivalDepartureGenerator is not implemented");
     }
@@ -3,10 +3,15 @@ package org.transitclock.core.avl.assigner;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.stereotype.Component;
 import org.transitclock.config.data.CoreConfig;
@@ -22,9 +27,54 @@ import org.transitclock.utils.Time;
  */
 @Component
 public class BlockInfoProvider {
+    // How long the set of active blocks is reused before it is determined
+    // again. Block activity only changes at the granularity of seconds so
+    // this prevents the many callers, such as AVL processing and polling
+    // dashboards, from each looking at every block of the day.
+    private static final long ACTIVE_BLOCKS_MAX_AGE_MSEC = 1000;
 
     private final DbConfig dbConfig;
 
+    // Keyed on the allowable before and after start times since they
+    // determine which blocks are active
+    private final Map<ActiveBlocksKey, ActiveBlocks> activeBlocksCache = new ConcurrentHashMap<>();
+
+    private record ActiveBlocksKey(int allowableBeforeTimeSecs, int allowableAfterStartTimeSecs) {}
+
+    /**
+     * The blocks active at a particular time, along with an index by route so that active blocks
+     * for a route can be found without looking at every active block.
+     */
+    record ActiveBlocks(long time, List<Block> blocks, Map<String, List<Block>> blocksByRouteId) {
+        ActiveBlocks(long time, List<Block> blocks) {
+            this(time, blocks, indexByRoute(blocks));
+        }
+
+        private static Map<String, List<Block>> indexByRoute(List<Block> blocks) {
+            Map<String, List<Block>> blocksByRouteId = new HashMap<>();
+            for (Block block : blocks) {
+                for (String routeId : block.getRouteIds()) {
+                    blocksByRouteId.computeIfAbsent(routeId, k -> new ArrayList<>()).add(block);
+                }
+            }
+            return blocksByRouteId;
+        }
+
+        /**
+         * @return number of active blocks per route ID. A block for multiple routes is counted for
+         *     each of them.
+         */
+        Map<String, Integer> blockCountsByRouteId() {
+            Map<String, Integer> counts = new HashMap<>(blocksByRouteId.size() * 2);
+            blocksByRouteId.forEach((routeId, blocksForRoute) -> counts.put(routeId, blocksForRoute.size()));
+            return counts;
+        }
+
+        boolean isCurrent(long now) {
+            return now >= time && now < time + ACTIVE_BLOCKS_MAX_AGE_MSEC;
+        }
+    }
+
     public BlockInfoProvider(DbConfig dbConfig) {
         this.dbConfig = dbConfig;
     }
@@ -72,13 +122,43 @@ public class BlockInfoProvider {
     }
 
     /**
-     * Returns list of blocks that are currently active for the specified routes.
+     * Returns the number of currently active blocks for each route. Uses the same periodically
+     * determined active blocks as getCurrentlyActiveBlocks() so is cheap enough for frequent
+     * monitoring. A block for multiple routes is counted for each of them.
+     *
+     * @return map of route ID to number of active blocks. Routes without active blocks are not
+     *     included.
+     */
+    public Map<String, Integer> getCurrentlyActiveBlockCountsByRoute() {
+        return getActiveBlocks(
+                        CoreConfig.blockactiveForTimeBeforeSecs.getValue(),
+                        CoreConfig.blockactiveForTimeAfterSecs.getValue())
+                .blockCountsByRouteId();
+    }
+
+    /**
+     * Returns the number of currently active blocks without copying them, as
+     * getCurrentlyActiveBlocks() does.
+     *
+     * @return number of currently active blocks
+     */
+    public int getCurrentlyActiveBlockCount() {
+        return getActiveBlocks(
+                        CoreConfig.blockactiveForTimeBeforeSecs.getValue(),
+                        CoreConfig.blockactiveForTimeAfterSecs.getValue())
+                .blocks()
+                .size();
+    }
+
+    /**
+     * Returns list of blocks that are currently active for the specified routes. The active blocks
+     * are only determined once every ACTIVE_BLOCKS_MAX_AGE_MSEC and are indexed by route, so this
+     * is cheap enough to be called for every AVL report and API request.
      *
      * @param routeIds Collection of routes IDs that want blocks for. Use null to indicate all
      *     routes.
-     * @param blockIdsToIgnore Won't do the expensive lookup of the blocks in this set. This way can
-     *     filter out blocks already assigned or such, and speed up the determination of active
-     *     blocks. Set to null if simply want all currently active blocks.
+     * @param blockIdsToIgnore Blocks in this set are not returned. This way can filter out blocks
+     *     already assigned or such. Set to null if simply want all currently active blocks.
      * @param allowableBeforeTimeSecs How much before the block time the block is considered to be
      *     active
      * @param allowableAfterStartTimeSecs If set to value greater than or equal to zero then block
@@ -91,11 +171,63 @@ public class BlockInfoProvider {
             Set<String> blockIdsToIgnore,
             int allowableBeforeTimeSecs,
             int allowableAfterStartTimeSecs) {
+        ActiveBlocks activeBlocks = getActiveBlocks(allowableBeforeTimeSecs, allowableAfterStartTimeSecs);
+
+        // Determine the active blocks for the specified routes using the
+        // route index. If routeIds is null then interested in all routes.
+        Collection<Block> candidates;
+        if (routeIds == null || routeIds.isEmpty()) {
+            candidates = activeBlocks.blocks();
+        } else if (routeIds.size() == 1) {
+            candidates = activeBlocks.blocksByRouteId()
+                    .getOrDefault(routeIds.iterator().next(), Collections.emptyList());
+        } else {
+            // A block can be for multiple routes so don't include it twice
+            candidates = new LinkedHashSet<>();
+            for (String routeId : routeIds) {
+                candidates.addAll(activeBlocks.blocksByRouteId().getOrDefault(routeId, Collections.emptyList()));
+            }
+        }
+
+        // The list to be returned
+        List<Block> results = new ArrayList<>(candidates.size());
+        for (Block block : candidates) {
+            // If this is a block to ignore then simply continue to the
+            // next one
+            if (blockIdsToIgnore != null && blockIdsToIgnore.contains(block.getId())) continue;
+            results.add(block);
+        }
+
+        // Done!
+        return results;
+    }
+
+    /**
+     * Returns the currently active blocks, reusing the ones determined within the last
+     * ACTIVE_BLOCKS_MAX_AGE_MSEC. If the time has gone backwards, as can happen in playback mode,
+     * they are determined again.
+     */
+    private ActiveBlocks getActiveBlocks(int allowableBeforeTimeSecs, int allowableAfterStartTimeSecs) {
+        long now = SystemTime.getMillis();
+        ActiveBlocksKey key = new ActiveBlocksKey(allowableBeforeTimeSecs, allowableAfterStartTimeSecs);
+        ActiveBlocks activeBlocks = activeBlocksCache.get(key);
+        if (activeBlocks == null || !activeBlocks.isCurrent(now)) {
+            activeBlocks = new ActiveBlocks(
+                    now, determineActiveBlocks(now, allowableBeforeTimeSecs, allowableAfterStartTimeSecs));
+            activeBlocksCache.put(key, activeBlocks);
+        }
+        return activeBlocks;
+    }
+
+    /**
+     * Looks at all the blocks for the service IDs for the time to determine which are active.
+     */
+    private List<Block> determineActiveBlocks(
+            long now, int allowableBeforeTimeSecs, int allowableAfterStartTimeSecs) {
         // The list to be returned
         List<Block> activeBlocks = new ArrayList<>(1000);
 
         // Determine which service IDs are currently active
-        long now = SystemTime.getMillis();
         List<String> currentServiceIds = dbConfig.getServiceUtils().getServiceIdsForDay(now);
         Set<String> serviceIds = new HashSet<>(currentServiceIds);
 
@@ -123,31 +255,11 @@ public class BlockInfoProvider {
             // If the block is about to be or currently active then
             // add it to the list to be returned
             for (Block block : blocks) {
-                // If this is a block to ignore then simply continue to the
-                // next one
-                if (blockIdsToIgnore != null && blockIdsToIgnore.contains(block.getId())) continue;
-
-                // Determine if block is for specified route. If routeIds is
-                // null then interested in all routes
-                boolean forSpecifiedRoute = true;
-                if (routeIds != null && !routeIds.isEmpty()) {
-                    forSpecifiedRoute = false;
-                    for (String routeId : routeIds) {
-                        if (block.getRouteIds().contains(routeId)) {
-                            forSpecifiedRoute = true;
-                            break;
-                        }
-                    }
-                }
-
-                // If block currently active and is for specified route then
-                // add it to the list
-                if (block.isActive(dbConfig, now, allowableBeforeTimeSecs, allowableAfterStartTimeSecs) && forSpecifiedRoute)
+                if (block.isActive(dbConfig, now, allowableBeforeTimeSecs, allowableAfterStartTimeSecs))
                     activeBlocks.add(block);
             }
         }
 
-        // Done!
         return activeBlocks;
     }
 }
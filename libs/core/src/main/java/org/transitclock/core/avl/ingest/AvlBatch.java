@@ -0,0 +1,96 @@
+/* (C)2023 */
+package org.transitclock.core.avl.ingest;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.transitclock.core.avl.AvlAdmissionController;
+import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.properties.AvlProperties;
+
+/**
+ * Collects the AVL reports of a pushed batch. Only the latest report for each vehicle is kept
+ * since processing older reports for a vehicle in the same batch would just be superseded.
+ * Reports with missing or out of range values are counted as rejected so that they can be
+ * reported back to the pusher, as is what happened to each report when it was processed.
+ *
+ * <p>Not thread safe. A batch is read by a single thread.
+ */
+public class AvlBatch {
+    private final AvlProperties avlProperties;
+
+    // Keyed on vehicle ID. In the order that vehicles first appear.
+    private final Map<String, AvlReport> latestByVehicleId = new LinkedHashMap<>();
+
+    private int received;
+    private int accepted;
+    private int shed;
+    private int rejected;
+    private int coalesced;
+
+    public AvlBatch(AvlProperties avlProperties) {
+        this.avlProperties = avlProperties;
+    }
+
+    /**
+     * Adds the AVL report to the batch unless it is invalid. If the batch already has a report
+     * for the vehicle then the later of the two is kept.
+     *
+     * @return true if the report is valid
+     */
+    public boolean add(AvlReport avlReport) {
+        ++received;
+        if (!isValid(avlReport)) {
+            ++rejected;
+            return false;
+        }
+
+        latestByVehicleId.merge(avlReport.getVehicleId(), avlReport, (existing, report) -> {
+            ++coalesced;
+            return report.getTime() >= existing.getTime() ? report : existing;
+        });
+        return true;
+    }
+
+    /** For when an AVL report in the batch could not be parsed */
+    public void reject() {
+        ++received;
+        ++rejected;
+    }
+
+    /** For counting what the AvlAdmissionController decided for a report of the batch */
+    public void processed(AvlAdmissionController.Decision decision) {
+        switch (decision) {
+            case ACCEPT -> ++accepted;
+            case SHED_SCHED_BASED, SHED_FREQUENT -> ++shed;
+            case REJECT -> ++rejected;
+        }
+    }
+
+    /**
+     * Only checks what is needed to process the report. The AvlReportProcessor does the full
+     * validation, including of speed and heading.
+     */
+    private boolean isValid(AvlReport avlReport) {
+        if (avlReport == null) return false;
+        if (avlReport.getVehicleId() == null || avlReport.getVehicleId().isEmpty()) return false;
+        if (avlReport.getDate() == null || avlReport.getTime() <= 0) return false;
+
+        double lat = avlReport.getLat();
+        double lon = avlReport.getLon();
+        return lat >= avlProperties.getMinLatitude()
+                && lat <= avlProperties.getMaxLatitude()
+                && lon >= avlProperties.getMinLongitude()
+                && lon <= avlProperties.getMaxLongitude();
+    }
+
+    /** @return the latest AVL report for each vehicle, in the order vehicles first appeared */
+    public Collection<AvlReport> getAvlReports() {
+        return latestByVehicleId.values();
+    }
+
+    public AvlBatchResult getResult() {
+        return new AvlBatchResult(received, accepted, shed, rejected, coalesced);
+    }
+}
@@ -0,0 +1,52 @@
+/* (C)2023 */
+package org.transitclock.core.avl.ingest;
+
+import java.util.Locale;
+
+/**
+ * The formats that a batch of AVL reports can be pushed in.
+ */
+public enum AvlBatchFormat {
+    /**
+     * Newline delimited JSON, one AVL report per line, using the same members as the pushAvl
+     * command: {"v": "vehicleId", "t": epochTimeMsec, "lat": latitude, "lon": longitude,
+     * "s": speed, "h": heading, "assignmentId": "4321", "assignmentType": "TRIP_ID"}
+     */
+    NDJSON("application/x-ndjson"),
+
+    /** A GTFS-realtime FeedMessage containing VehiclePositions */
+    GTFS_RT("application/x-protobuf"),
+
+    /** The compact binary format described in CompactAvlFormat */
+    COMPACT(CompactAvlFormat.CONTENT_TYPE);
+
+    private final String contentType;
+
+    AvlBatchFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Determines the format from the Content-Type of a request. Parameters such as the charset are
+     * ignored.
+     *
+     * @param contentType the Content-Type header. Can be null.
+     * @return the format, or null if the content type doesn't match any format
+     */
+    public static AvlBatchFormat forContentType(String contentType) {
+        if (contentType == null) return null;
+
+        String mediaType = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+        for (AvlBatchFormat format : values()) {
+            if (format.contentType.equals(mediaType)) return format;
+        }
+        // Other names commonly used for protobuf
+        if (mediaType.equals("application/protobuf") || mediaType.equals("application/x-google-protobuf"))
+            return GTFS_RT;
+        return null;
+    }
+}
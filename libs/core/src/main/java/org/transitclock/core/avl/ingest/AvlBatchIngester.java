@@ -0,0 +1,163 @@
+/* (C)2023 */
+package org.transitclock.core.avl.ingest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.transitclock.core.avl.AvlReportProcessor;
+import org.transitclock.core.avl.GtfsRealtimeModule;
+import org.transitclock.core.prediction.accuracy.gtfsrt.FeedEntityStreamer;
+import org.transitclock.domain.structs.AssignmentType;
+import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.domain.structs.Location;
+import org.transitclock.properties.AvlProperties;
+import org.transitclock.utils.IntervalTimer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads a pushed batch of AVL reports and hands them to the AvlReportProcessor. The batch is
+ * parsed as it is read instead of first being read into memory as a whole, and only the latest
+ * report for each vehicle in the batch is processed.
+ */
+@Slf4j
+@Component
+public class AvlBatchIngester {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final AvlProperties avlProperties;
+    private final AvlReportProcessor avlReportProcessor;
+
+    public AvlBatchIngester(AvlProperties avlProperties, AvlReportProcessor avlReportProcessor) {
+        this.avlProperties = avlProperties;
+        this.avlReportProcessor = avlReportProcessor;
+    }
+
+    /**
+     * Reads the batch and processes the AVL reports in it. Reports that can't be parsed or that
+     * have invalid values are counted as rejected but don't prevent the rest of the batch from
+     * being processed.
+     *
+     * @param in the batch
+     * @param format format of the batch
+     * @param source for the source member of the AvlReports
+     * @return the counts of what happened to the reports in the batch
+     * @throws IOException if the batch can't be read at all, such as a GTFS-realtime batch that
+     *     isn't a valid FeedMessage
+     */
+    public AvlBatchResult ingest(InputStream in, AvlBatchFormat format, String source) throws IOException {
+        IntervalTimer timer = new IntervalTimer();
+
+        AvlBatch batch = new AvlBatch(avlProperties);
+        switch (format) {
+            case NDJSON -> readNdjson(in, batch, source);
+            case GTFS_RT -> readGtfsRealtime(in, batch, source);
+            case COMPACT -> CompactAvlFormat.read(in, batch, source);
+        }
+
+        for (AvlReport avlReport : batch.getAvlReports()) {
+            batch.processed(avlReportProcessor.process(avlReport));
+        }
+
+        AvlBatchResult result = batch.getResult();
+        logger.info("Ingested {} batch from {} in {} msec: {}", format, source, timer.elapsedMsec(), result);
+        return result;
+    }
+
+    private static void readGtfsRealtime(InputStream in, AvlBatch batch, String source) throws IOException {
+        FeedEntityStreamer.stream(in, (header, entity) -> {
+            // Entities for trip updates and alerts aren't AVL reports
+            if (!entity.hasVehicle()) return;
+
+            AvlReport avlReport = GtfsRealtimeModule.getAvlReport(entity, source);
+            if (avlReport == null) batch.reject();
+            else batch.add(avlReport);
+        });
+    }
+
+    private static void readNdjson(InputStream in, AvlBatch batch, String source) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) continue;
+
+            AvlReport avlReport;
+            try {
+                avlReport = parseJsonAvlReport(line, source);
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Could not parse AVL report \"{}\". {}", line, e.getMessage());
+                batch.reject();
+                continue;
+            }
+            batch.add(avlReport);
+        }
+    }
+
+    /**
+     * Parses a single line of a NDJSON batch. Uses the same members as the pushAvl command, and
+     * unknown members are ignored.
+     *
+     * @return the AvlReport. Null if a required member is missing.
+     */
+    private static AvlReport parseJsonAvlReport(String line, String source) throws IOException {
+        String vehicleId = null;
+        long time = 0;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+        float speed = Float.NaN;
+        float heading = Float.NaN;
+        String assignmentId = null;
+        String assignmentTypeStr = null;
+
+        try (JsonParser parser = JSON_FACTORY.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw new IOException("Not a JSON object");
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken token = parser.nextToken();
+                switch (name) {
+                    case "v" -> vehicleId = parser.getValueAsString();
+                    case "t" -> time = parser.getLongValue();
+                    case "lat" -> lat = parser.getDoubleValue();
+                    case "lon" -> lon = parser.getDoubleValue();
+                    case "s" -> speed = token == JsonToken.VALUE_NULL ? Float.NaN : parser.getFloatValue();
+                    case "h" -> heading = token == JsonToken.VALUE_NULL ? Float.NaN : parser.getFloatValue();
+                    case "assignmentId" -> assignmentId = parser.getValueAsString();
+                    case "assignmentType" -> assignmentTypeStr = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_OBJECT) throw new IOException("Incomplete JSON object");
+        }
+
+        if (vehicleId == null) return null;
+
+        AvlReport avlReport = AvlReport.builder()
+                .withVehicleId(vehicleId)
+                .withTime(new Date(time))
+                .withLocation(new Location(lat, lon))
+                .withSpeed(speed)
+                .withHeading(heading)
+                .withSource(source)
+                .build();
+
+        // Same assignment types as the pushAvl command
+        if (assignmentId != null) {
+            AssignmentType assignmentType = AssignmentType.BLOCK_ID;
+            if ("ROUTE_ID".equals(assignmentTypeStr)) assignmentType = AssignmentType.ROUTE_ID;
+            else if ("TRIP_ID".equals(assignmentTypeStr)) assignmentType = AssignmentType.TRIP_ID;
+            else if ("TRIP_SHORT_NAME".equals(assignmentTypeStr)) assignmentType = AssignmentType.TRIP_SHORT_NAME;
+
+            avlReport.setAssignment(assignmentId, assignmentType);
+        }
+        return avlReport;
+    }
+}
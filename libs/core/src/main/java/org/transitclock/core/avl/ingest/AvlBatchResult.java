@@ -0,0 +1,16 @@
+/* (C)2023 */
+package org.transitclock.core.avl.ingest;
+
+/**
+ * The acknowledgement for a batch of pushed AVL reports.
+ *
+ * @param received number of AVL reports in the batch, including ones that could not be parsed
+ * @param accepted number of AVL reports accepted to be processed
+ * @param shed number of AVL reports deliberately dropped by admission control, such as too frequent
+ *     reports while AVL processing is backed up
+ * @param rejected number of AVL reports that could not be parsed, had invalid values, or were
+ *     rejected because AVL processing is too backed up
+ * @param coalesced number of AVL reports not processed because the batch had a later report for
+ *     the same vehicle
+ */
+public record AvlBatchResult(int received, int accepted, int shed, int rejected, int coalesced) {}
@@ -0,0 +1,178 @@
+/* (C)2023 */
+package org.transitclock.core.avl.ingest;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.transitclock.domain.structs.AssignmentType;
+import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.domain.structs.Location;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A compact binary format for pushing large batches of AVL reports. Much smaller than JSON and
+ * can be read without creating any intermediate objects.
+ *
+ * <p>A batch starts with the 4 bytes "TCAV" followed by a version byte, currently 1. Then each
+ * AVL report is, with all numbers big endian:
+ *
+ * <ul>
+ *   <li>vehicle ID: unsigned short length followed by that many UTF-8 bytes
+ *   <li>time: long, epoch msec
+ *   <li>latitude: int, degrees * 10^7
+ *   <li>longitude: int, degrees * 10^7
+ *   <li>speed: float, m/s. NaN if not available
+ *   <li>heading: float, degrees clockwise from north. NaN if not available
+ *   <li>assignment type: byte, 0=none, 1=BLOCK_ID, 2=ROUTE_ID, 3=TRIP_ID, 4=TRIP_SHORT_NAME
+ *   <li>assignment ID: only if assignment type is not 0. Same encoding as the vehicle ID.
+ * </ul>
+ *
+ * The batch ends at the end of the stream.
+ */
+@Slf4j
+public class CompactAvlFormat {
+    public static final String CONTENT_TYPE = "application/vnd.transitclock.avl";
+
+    private static final byte[] MAGIC = {'T', 'C', 'A', 'V'};
+    private static final int VERSION = 1;
+
+    private static final double E7 = 1e7;
+
+    // Indexed by the assignment type byte
+    private static final AssignmentType[] ASSIGNMENT_TYPES = {
+        null, AssignmentType.BLOCK_ID, AssignmentType.ROUTE_ID, AssignmentType.TRIP_ID, AssignmentType.TRIP_SHORT_NAME
+    };
+
+    private CompactAvlFormat() {}
+
+    /** Writes the header that a batch has to start with */
+    public static void writeHeader(DataOutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    /**
+     * Writes a single AVL report.
+     *
+     * @param assignmentId null if no assignment
+     * @param assignmentType ignored if assignmentId is null. Must be BLOCK_ID, ROUTE_ID, TRIP_ID or
+     *     TRIP_SHORT_NAME.
+     */
+    public static void writeRecord(
+            DataOutputStream out,
+            String vehicleId,
+            long time,
+            double lat,
+            double lon,
+            float speed,
+            float heading,
+            String assignmentId,
+            AssignmentType assignmentType)
+            throws IOException {
+        writeString(out, vehicleId);
+        out.writeLong(time);
+        out.writeInt((int) Math.round(lat * E7));
+        out.writeInt((int) Math.round(lon * E7));
+        out.writeFloat(speed);
+        out.writeFloat(heading);
+        if (assignmentId == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(assignmentTypeCode(assignmentType));
+            writeString(out, assignmentId);
+        }
+    }
+
+    private static int assignmentTypeCode(AssignmentType assignmentType) {
+        for (int i = 1; i < ASSIGNMENT_TYPES.length; ++i) {
+            if (ASSIGNMENT_TYPES[i] == assignmentType) return i;
+        }
+        throw new IllegalArgumentException("Assignment type " + assignmentType + " not supported");
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) throw new IllegalArgumentException("String too long: " + str);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the AVL reports from the stream into the batch. Records with an unknown assignment type
+     * are rejected. If the stream ends part way through a record then that record is rejected and
+     * reading stops since the rest of the stream can't be trusted.
+     *
+     * @param in the batch, positioned at the header
+     * @param batch where the AVL reports are added
+     * @param source for the AVL reports
+     * @throws IOException if the header is invalid or there is a problem reading the stream
+     */
+    public static void read(InputStream in, AvlBatch batch, String source) throws IOException {
+        DataInputStream dataIn = new DataInputStream(in);
+
+        byte[] magic = new byte[MAGIC.length];
+        int version;
+        try {
+            dataIn.readFully(magic);
+            version = dataIn.readUnsignedByte();
+        } catch (EOFException e) {
+            throw new IOException("Batch is too short to contain the header");
+        }
+        if (!Arrays.equals(magic, MAGIC)) throw new IOException("Batch does not start with \"TCAV\"");
+        if (version != VERSION) throw new IOException("Batch has unsupported version " + version);
+
+        while (true) {
+            // Only the end of the stream at a record boundary is a normal end
+            int first = dataIn.read();
+            if (first < 0) return;
+
+            try {
+                int vehicleIdLength = (first << 8) | dataIn.readUnsignedByte();
+                byte[] vehicleIdBytes = new byte[vehicleIdLength];
+                dataIn.readFully(vehicleIdBytes);
+                String vehicleId = new String(vehicleIdBytes, StandardCharsets.UTF_8);
+                long time = dataIn.readLong();
+                double lat = dataIn.readInt() / E7;
+                double lon = dataIn.readInt() / E7;
+                float speed = dataIn.readFloat();
+                float heading = dataIn.readFloat();
+                int assignmentTypeCode = dataIn.readUnsignedByte();
+                String assignmentId = assignmentTypeCode != 0 ? readString(dataIn) : null;
+
+                if (assignmentTypeCode >= ASSIGNMENT_TYPES.length) {
+                    logger.debug("Unknown assignment type {} for vehicleId={}", assignmentTypeCode, vehicleId);
+                    batch.reject();
+                    continue;
+                }
+
+                AvlReport avlReport = AvlReport.builder()
+                        .withVehicleId(vehicleId)
+                        .withTime(new Date(time))
+                        .withLocation(new Location(lat, lon))
+                        .withSpeed(speed)
+                        .withHeading(heading)
+                        .withSource(source)
+                        .build();
+                if (assignmentId != null) avlReport.setAssignment(assignmentId, ASSIGNMENT_TYPES[assignmentTypeCode]);
+                batch.add(avlReport);
+            } catch (EOFException e) {
+                logger.debug("Batch ended part way through a record");
+                batch.reject();
+                return;
+            }
+        }
+    }
+}
@@ -11,6 +11,7 @@ import org.transitclock.domain.structs.Location;
 import org.transitclock.domain.structs.Route;
 import org.transitclock.domain.structs.ScheduleTime;
 import org.transitclock.domain.structs.StopPath;
+import org.transitclock.domain.structs.StopPathGeometry;
 import org.transitclock.domain.structs.Trip;
 import org.transitclock.domain.structs.Vector;
 import org.transitclock.domain.structs.VectorWithHeading;
@@ -555,11 +556,7 @@ public class SpatialMatch {
      * @return Distance in meters
      */
     public double getDistanceAlongStopPath() {
-        double distance = 0.0;
-        for (int segIndex = 0; segIndex < segmentIndex; ++segIndex) {
-            Vector v = block.getSegmentVector(tripIndex, stopPathIndex, segIndex);
-            distance += v.length();
-        }
+        double distance = block.getStopPath(tripIndex, stopPathIndex).getGeometry().getDistanceToSegment(segmentIndex);
         distance += distanceAlongSegment;
         return distance;
     }
@@ -571,10 +568,10 @@ public class SpatialMatch {
      */
     public double getDistanceRemainingInStopPath() {
         double distance = -distanceAlongSegment;
-        StopPath stopPath = block.getStopPath(tripIndex, stopPathIndex);
-        int numSegments = stopPath.getSegmentVectors().size();
+        StopPathGeometry geometry = block.getStopPath(tripIndex, stopPathIndex).getGeometry();
+        int numSegments = geometry.getNumberSegments();
         for (int segIndex = segmentIndex; segIndex < numSegments; ++segIndex) {
-            distance += stopPath.getSegmentVector(segIndex).length();
+            distance += geometry.getSegmentLength(segIndex);
         }
         return distance;
     }
@@ -777,8 +777,7 @@ public class SpatialMatcher {
             int indexOfLastStopPath = trip.getNumberStopPaths() - 1;
             StopPath lastStopPath = trip.getStopPath(indexOfLastStopPath);
             int indexOfLastSegment = lastStopPath.getNumberSegments() - 1;
-            double segmentLength =
-                    lastStopPath.getSegmentVector(indexOfLastSegment).length();
+            double segmentLength = lastStopPath.getGeometry().getSegmentLength(indexOfLastSegment);
             SpatialMatch matchAtEndOfBlock = new SpatialMatch(
                     vehicleStatus.getAvlReport().getTime(),
                     block,
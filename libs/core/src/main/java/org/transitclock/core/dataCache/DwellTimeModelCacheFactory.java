@@ -7,6 +7,7 @@ import org.transitclock.core.prediction.scheduled.dwell.DwellModel;
 import org.transitclock.properties.PredictionProperties;
 
 import org.ehcache.CacheManager;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -24,12 +25,12 @@ public class DwellTimeModelCacheFactory {
 
     @Bean
     public DwellTimeModelCacheInterface dwellTimeModelCacheInterface(CacheManager cm,
-                                                                     DwellModel dwellModel,
+                                                                     ObjectProvider<DwellModel> dwellModelProvider,
                                                                      StopArrivalDepartureCacheInterface stopArrivalDepartureCacheInterface,
                                                                      PredictionProperties properties) {
         var value = className.getValue();
         if (value == DwellTimeModelCache.class) {
-            return new DwellTimeModelCache(cm, dwellModel, stopArrivalDepartureCacheInterface, properties.getRls());
+            return new DwellTimeModelCache(cm, dwellModelProvider::getObject, stopArrivalDepartureCacheInterface, properties.getRls());
         }
 
         return new DummyDwellTimeModelCacheImpl();
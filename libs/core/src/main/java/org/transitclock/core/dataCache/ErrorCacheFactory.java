@@ -2,6 +2,7 @@
 package org.transitclock.core.dataCache;
 
 import org.transitclock.core.dataCache.ehcache.KalmanErrorCache;
+import org.transitclock.properties.CoreProperties;
 
 import org.ehcache.CacheManager;
 import org.springframework.beans.factory.annotation.Value;
@@ -17,10 +18,13 @@ public class ErrorCacheFactory {
     private Class<?> className;
 
     @Bean
-    public ErrorCache errorCache(CacheManager cacheManager) {
+    public ErrorCache errorCache(CacheManager cacheManager, CoreProperties coreProperties) {
         if(className == KalmanErrorCache.class) {
             return new KalmanErrorCache(cacheManager);
         }
+        if(className == StripedKalmanErrorCache.class) {
+            return new StripedKalmanErrorCache(coreProperties.getCache());
+        }
 
         throw new IllegalArgumentException("Unknown class " + className);
     }
@@ -14,6 +14,11 @@ public class KalmanError implements Serializable {
         setError(error);
     }
 
+    public KalmanError(Double error, Integer updates) {
+        this.error = error;
+        this.updates = updates;
+    }
+
     public KalmanError() {
         // TODO Auto-generated constructor stub
     }
@@ -0,0 +1,81 @@
+/* (C)2023 */
+package org.transitclock.core.dataCache;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A secondary index from a key, such as a route or block ID, to the IDs of the objects currently
+ * associated with it. Intended to be kept up to date as the objects change so that queries by the
+ * key only touch the matching objects instead of scanning all of them.
+ *
+ * <p>Thread safe. The key can be null, which is useful for objects not associated with anything,
+ * such as vehicles not assigned to a route. Keys with no IDs are removed so that the index doesn't
+ * grow as keys come and go.
+ *
+ * @param <K> type of the key
+ * @param <I> type of the ID of the indexed objects
+ */
+public class SecondaryIndex<K, I> {
+    // ConcurrentHashMap doesn't allow null keys so they are stored using this
+    private static final Object NULL_KEY = new Object();
+
+    private final Map<Object, Set<I>> idsByKey = new ConcurrentHashMap<>();
+
+    /**
+     * Moves the ID from the old key to the new key. Does nothing if the keys are the same.
+     *
+     * @param id ID of the object
+     * @param oldKey key the object was previously indexed under
+     * @param newKey key the object is now associated with
+     */
+    public void move(I id, K oldKey, K newKey) {
+        if (Objects.equals(oldKey, newKey)) return;
+        remove(id, oldKey);
+        add(id, newKey);
+    }
+
+    /** Adds the ID to the set for the key */
+    public void add(I id, K key) {
+        idsByKey.compute(mapKey(key), (k, ids) -> {
+            if (ids == null) ids = ConcurrentHashMap.newKeySet();
+            ids.add(id);
+            return ids;
+        });
+    }
+
+    /** Removes the ID from the set for the key, removing the key if it is then empty */
+    public void remove(I id, K key) {
+        idsByKey.computeIfPresent(mapKey(key), (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    /**
+     * Returns unmodifiable live view of the IDs for the key.
+     *
+     * @return the IDs, or empty set if there are none. Not null.
+     */
+    public Set<I> get(K key) {
+        Set<I> ids = idsByKey.get(mapKey(key));
+        return ids != null ? Collections.unmodifiableSet(ids) : Collections.emptySet();
+    }
+
+    /** @return true if there are IDs for the key */
+    public boolean containsKey(K key) {
+        return idsByKey.containsKey(mapKey(key));
+    }
+
+    /** @return number of keys that currently have IDs */
+    public int size() {
+        return idsByKey.size();
+    }
+
+    private static Object mapKey(Object key) {
+        return key != null ? key : NULL_KEY;
+    }
+}
@@ -0,0 +1,614 @@
+/* (C)2023 */
+package org.transitclock.core.dataCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.transitclock.core.Indices;
+import org.transitclock.properties.CoreProperties;
+import org.transitclock.utils.SystemTime;
+import org.transitclock.utils.threading.NamedThreadFactory;
+
+import lombok.extern.slf4j.Slf4j;
+
+import static org.transitclock.utils.ApplicationShutdownSupport.addShutdownHook;
+
+/**
+ * Kalman error cache that keeps the error values in primitive arrays instead of in ehcache. Trip
+ * ids are interned to ordinals so that a (trip, stop path index) pair becomes a single long key.
+ * The keys are spread over a fixed number of segments, each an open addressing hash table with its
+ * own lock, so prediction threads only contend when they hit the same segment.
+ *
+ * <p>Memory is bounded by transitclock.core.cache.errorCacheMaxEntries. When a segment is full,
+ * values that have not been used for errorCacheExpiryDays are dropped and, if that is not enough,
+ * the least recently read or written values until the segment is three quarters full. Once enough
+ * trips no longer have any values the trip ids are interned again, so that the trips of old
+ * configurations don't stay around forever. The contents are written to errorCacheSnapshotFile
+ * periodically and on shutdown, and read back on start up.
+ */
+@Slf4j
+public class StripedKalmanErrorCache implements ErrorCache {
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    // Trip ids are only interned again once there are at least this many
+    private static final int MIN_TRIPS_TO_COMPACT = 1024;
+
+    private static final long NO_KEY = -1L;
+
+    private static final int SNAPSHOT_MAGIC = 0x4B454331;
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final byte SNAPSHOT_END = 0;
+    private static final byte SNAPSHOT_TRIP = 1;
+    private static final byte SNAPSHOT_ENTRY = 2;
+
+    // Only replaced while holding all the segment locks, so any ordinal
+    // read while holding a segment lock is valid until it is released
+    private volatile TripIds trips = new TripIds();
+    private volatile int tripsToCompact = MIN_TRIPS_TO_COMPACT;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final int expiryMinutes;
+    private final Path snapshotFile;
+    private final ScheduledExecutorService snapshotExecutor;
+
+    public StripedKalmanErrorCache(CoreProperties.Cache properties) {
+        this(properties.getErrorCacheMaxEntries(),
+            properties.getErrorCacheExpiryDays(),
+            properties.getErrorCacheSnapshotFile() != null ? Paths.get(properties.getErrorCacheSnapshotFile()) : null,
+            properties.getErrorCacheSnapshotIntervalSecs());
+
+        addShutdownHook("kalman-error-cache-snapshot", () -> {
+            if (snapshotExecutor != null) {
+                snapshotExecutor.shutdown();
+            }
+            snapshotQuietly();
+        });
+    }
+
+    /**
+     * @param maxEntries maximum number of error values to hold
+     * @param expiryDays error values not used for this long are dropped when room is needed
+     * @param snapshotFile where to persist the cache. Can be null to not persist.
+     * @param snapshotIntervalSecs how often to write a snapshot. 0 or less to only write one when
+     *     {@link #snapshot()} is called.
+     */
+    public StripedKalmanErrorCache(int maxEntries, int expiryDays, Path snapshotFile, int snapshotIntervalSecs) {
+        int maxEntriesPerSegment = Math.max(MIN_SEGMENT_CAPACITY / 2, maxEntries / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxEntriesPerSegment);
+        }
+        this.expiryMinutes = (int) TimeUnit.DAYS.toMinutes(expiryDays);
+        this.snapshotFile = snapshotFile;
+
+        if (snapshotFile != null && Files.exists(snapshotFile)) {
+            try {
+                load(snapshotFile);
+            } catch (IOException e) {
+                logger.error("Could not read Kalman error snapshot {}, starting with an empty cache.", snapshotFile, e);
+            }
+        }
+
+        if (snapshotFile != null && snapshotIntervalSecs > 0) {
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("kalman-error-snapshot"));
+            snapshotExecutor.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalSecs, snapshotIntervalSecs, TimeUnit.SECONDS);
+        } else {
+            snapshotExecutor = null;
+        }
+    }
+
+    @Override
+    public KalmanError getErrorValue(Indices indices) {
+        return getErrorValue(indices.getTrip().getId(), indices.getStopPathIndex());
+    }
+
+    @Override
+    public KalmanError getErrorValue(KalmanErrorCacheKey key) {
+        return getErrorValue(key.getTripId(), key.getStopPathIndex());
+    }
+
+    private KalmanError getErrorValue(String tripId, int stopPathIndex) {
+        Segment segment = segmentFor(tripId, stopPathIndex);
+        segment.lock.lock();
+        try {
+            Integer ordinal = trips.ordinalOf(tripId);
+            if (ordinal == null) return null;
+
+            int index = segment.indexOf(key(ordinal, stopPathIndex));
+            if (index < 0) return null;
+            segment.touch(index, nowMinutes());
+            return new KalmanError(segment.errors[index], segment.updates[index]);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public void putErrorValue(Indices indices, Double value) {
+        putErrorValue(indices.getTrip().getId(), indices.getStopPathIndex(), value);
+    }
+
+    @Override
+    public void putErrorValue(KalmanErrorCacheKey key, Double value) {
+        putErrorValue(key.getTripId(), key.getStopPathIndex(), value);
+    }
+
+    private void putErrorValue(String tripId, int stopPathIndex, double value) {
+        Segment segment = segmentFor(tripId, stopPathIndex);
+        segment.lock.lock();
+        try {
+            segment.put(key(trips.ordinal(tripId), stopPathIndex), value, nowMinutes(), expiryMinutes);
+        } finally {
+            segment.lock.unlock();
+        }
+        compactTripsIfNeeded();
+    }
+
+    @Override
+    public List<KalmanErrorCacheKey> getKeys() {
+        List<KalmanErrorCacheKey> keys = new ArrayList<>();
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                TripIds tripIds = trips;
+                for (long key : segment.keys) {
+                    if (key != NO_KEY) {
+                        keys.add(new KalmanErrorCacheKey(tripIds.idOf(tripOrdinalOf(key)), stopPathIndexOf(key)));
+                    }
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return keys;
+    }
+
+    /** @return number of error values currently held */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /** @return number of trip ids currently interned */
+    int tripCount() {
+        return trips.size();
+    }
+
+    /**
+     * Writes the contents of the cache to the snapshot file. The file is written to a temporary
+     * file first and then moved into place so that a crash never leaves a partial snapshot.
+     */
+    public void snapshot() throws IOException {
+        if (snapshotFile == null) return;
+
+        Path parent = snapshotFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+
+        // The ordinals can change between segments, so each trip id is
+        // written once, the first time it is used, and numbered in the file
+        Map<String, Integer> fileOrdinals = new HashMap<>();
+        int entries = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+
+            for (Segment segment : segments) {
+                // Copy under the lock so that the disk write does not hold up predictions
+                long[] keys;
+                String[] tripIds;
+                double[] errors;
+                int[] updates;
+                int[] accessed;
+                long[] lastUsed;
+                segment.lock.lock();
+                try {
+                    keys = segment.keys.clone();
+                    tripIds = new String[keys.length];
+                    TripIds current = trips;
+                    for (int i = 0; i < keys.length; i++) {
+                        if (keys[i] != NO_KEY) tripIds[i] = current.idOf(tripOrdinalOf(keys[i]));
+                    }
+                    errors = segment.errors.clone();
+                    updates = segment.updates.clone();
+                    accessed = segment.accessed.clone();
+                    lastUsed = segment.lastUsed.clone();
+                } finally {
+                    segment.lock.unlock();
+                }
+
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] == NO_KEY) continue;
+                    Integer fileOrdinal = fileOrdinals.get(tripIds[i]);
+                    if (fileOrdinal == null) {
+                        fileOrdinal = fileOrdinals.size();
+                        fileOrdinals.put(tripIds[i], fileOrdinal);
+                        out.writeByte(SNAPSHOT_TRIP);
+                        out.writeUTF(tripIds[i]);
+                    }
+                    out.writeByte(SNAPSHOT_ENTRY);
+                    out.writeInt(fileOrdinal);
+                    out.writeInt(stopPathIndexOf(keys[i]));
+                    out.writeDouble(errors[i]);
+                    out.writeInt(updates[i]);
+                    out.writeInt(accessed[i]);
+                    out.writeLong(lastUsed[i]);
+                    entries++;
+                }
+            }
+            out.writeByte(SNAPSHOT_END);
+        }
+        Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Wrote {} Kalman error values to {}.", entries, snapshotFile);
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (Exception e) {
+            logger.error("Could not write Kalman error snapshot to {}.", snapshotFile, e);
+        }
+    }
+
+    private void load(Path file) throws IOException {
+        int now = nowMinutes();
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                logger.warn("{} is not a Kalman error snapshot this version can read, ignoring it.", file);
+                return;
+            }
+
+            List<String> tripIds = new ArrayList<>();
+            byte type;
+            while ((type = in.readByte()) != SNAPSHOT_END) {
+                if (type == SNAPSHOT_TRIP) {
+                    tripIds.add(in.readUTF());
+                    continue;
+                }
+
+                String tripId = tripIds.get(in.readInt());
+                int stopPathIndex = in.readInt();
+                double error = in.readDouble();
+                int updates = in.readInt();
+                int accessed = in.readInt();
+                long lastUsed = in.readLong();
+                if (now - accessed > expiryMinutes) continue;
+
+                Segment segment = segmentFor(tripId, stopPathIndex);
+                segment.lock.lock();
+                try {
+                    segment.restore(
+                            key(trips.ordinal(tripId), stopPathIndex),
+                            error,
+                            updates,
+                            accessed,
+                            lastUsed,
+                            now,
+                            expiryMinutes);
+                } finally {
+                    segment.lock.unlock();
+                }
+                loaded++;
+            }
+        }
+        logger.info("Read {} Kalman error values from {}.", loaded, file);
+    }
+
+    /**
+     * Interns the trip ids again, with only the ones that still have values, once the number of
+     * trip ids has doubled since the last time. Takes all the segment locks, so must not be called
+     * while holding one.
+     */
+    private void compactTripsIfNeeded() {
+        if (trips.size() < tripsToCompact || !compacting.compareAndSet(false, true)) return;
+
+        for (Segment segment : segments) {
+            segment.lock.lock();
+        }
+        try {
+            TripIds oldTrips = trips;
+            if (oldTrips.size() < tripsToCompact) return;
+
+            BitSet used = new BitSet(oldTrips.size());
+            for (Segment segment : segments) {
+                for (long key : segment.keys) {
+                    if (key != NO_KEY) used.set(tripOrdinalOf(key));
+                }
+            }
+
+            TripIds newTrips = new TripIds();
+            int[] newOrdinals = new int[oldTrips.size()];
+            for (int ordinal = used.nextSetBit(0); ordinal >= 0; ordinal = used.nextSetBit(ordinal + 1)) {
+                newOrdinals[ordinal] = newTrips.ordinal(oldTrips.idOf(ordinal));
+            }
+            for (Segment segment : segments) {
+                segment.reorder(newOrdinals);
+            }
+
+            trips = newTrips;
+            tripsToCompact = Math.max(MIN_TRIPS_TO_COMPACT, newTrips.size() * 2);
+            logger.debug("Interned Kalman error trip ids again, {} of {} still in use.", newTrips.size(), oldTrips.size());
+        } finally {
+            for (int i = segments.length - 1; i >= 0; i--) {
+                segments[i].lock.unlock();
+            }
+            compacting.set(false);
+        }
+    }
+
+    // By the trip id instead of the ordinal so that the segment of a value
+    // doesn't change when the trip ids are interned again
+    private Segment segmentFor(String tripId, int stopPathIndex) {
+        long hash = mix(((long) tripId.hashCode() << 32) | (stopPathIndex & 0xFFFFFFFFL));
+        return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static long key(int tripOrdinal, int stopPathIndex) {
+        return ((long) tripOrdinal << 32) | (stopPathIndex & 0xFFFFFFFFL);
+    }
+
+    private static int tripOrdinalOf(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static int stopPathIndexOf(long key) {
+        return (int) key;
+    }
+
+    private static int nowMinutes() {
+        return (int) TimeUnit.MILLISECONDS.toMinutes(SystemTime.getMillis());
+    }
+
+    /** Murmur3 64 bit finalizer, spreads the key bits over the whole long */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /** Trip ids and their ordinals */
+    private static final class TripIds {
+        private final ConcurrentHashMap<String, Integer> ordinals = new ConcurrentHashMap<>();
+        // Guarded by itself. Index is the trip ordinal.
+        private final List<String> ids = new ArrayList<>();
+
+        /** @return ordinal of the trip, or null if it isn't interned */
+        Integer ordinalOf(String tripId) {
+            return ordinals.get(tripId);
+        }
+
+        /** @return ordinal of the trip, interning it if needed */
+        int ordinal(String tripId) {
+            Integer ordinal = ordinals.get(tripId);
+            if (ordinal != null) return ordinal;
+
+            return ordinals.computeIfAbsent(tripId, id -> {
+                synchronized (ids) {
+                    ids.add(id);
+                    return ids.size() - 1;
+                }
+            });
+        }
+
+        String idOf(int ordinal) {
+            synchronized (ids) {
+                return ids.get(ordinal);
+            }
+        }
+
+        int size() {
+            return ordinals.size();
+        }
+    }
+
+    /**
+     * Open addressing hash table with linear probing. All access must hold the lock.
+     */
+    private static final class Segment {
+        final ReentrantLock lock = new ReentrantLock();
+        final int maxEntries;
+        // What a full segment is reduced to, so that evicting isn't needed
+        // for every new value
+        final int targetEntries;
+
+        long[] keys;
+        double[] errors;
+        int[] updates;
+        // Epoch minutes of the last read or write, for expiry
+        int[] accessed;
+        // Value of clock at the last read or write, for least recently used
+        long[] lastUsed;
+        long clock;
+        int size;
+
+        Segment(int maxEntries) {
+            this.maxEntries = maxEntries;
+            this.targetEntries = maxEntries * 3 / 4;
+            allocate(MIN_SEGMENT_CAPACITY);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, NO_KEY);
+            errors = new double[capacity];
+            updates = new int[capacity];
+            accessed = new int[capacity];
+            lastUsed = new long[capacity];
+            size = 0;
+        }
+
+        /**
+         * @return the slot holding the key, or -(slot + 1) of the empty slot where it would go
+         */
+        int indexOf(long key) {
+            int mask = keys.length - 1;
+            int index = (int) mix(key) & mask;
+            while (true) {
+                long existing = keys[index];
+                if (existing == key) return index;
+                if (existing == NO_KEY) return -index - 1;
+                index = (index + 1) & mask;
+            }
+        }
+
+        void touch(int index, int now) {
+            accessed[index] = now;
+            lastUsed[index] = clock++;
+        }
+
+        void put(long key, double value, int now, int expiryMinutes) {
+            int index = indexOf(key);
+            if (index >= 0) {
+                // Same rule as KalmanError.setError(), only count real changes
+                if (Double.compare(errors[index], value) != 0) {
+                    errors[index] = value;
+                    updates[index]++;
+                }
+                touch(index, now);
+                return;
+            }
+
+            if (makeRoom(now, expiryMinutes)) {
+                index = indexOf(key);
+            }
+            insert(-index - 1, key, value, 0, now, clock++);
+        }
+
+        void restore(
+                long key,
+                double value,
+                int updateCount,
+                int lastAccessed,
+                long lastUsedClock,
+                int now,
+                int expiryMinutes) {
+            clock = Math.max(clock, lastUsedClock + 1);
+            int index = indexOf(key);
+            if (index >= 0) {
+                errors[index] = value;
+                updates[index] = updateCount;
+                accessed[index] = lastAccessed;
+                lastUsed[index] = lastUsedClock;
+                return;
+            }
+
+            if (makeRoom(now, expiryMinutes)) {
+                index = indexOf(key);
+            }
+            insert(-index - 1, key, value, updateCount, lastAccessed, lastUsedClock);
+        }
+
+        private void insert(int index, long key, double value, int updateCount, int lastAccessed, long lastUsedClock) {
+            keys[index] = key;
+            errors[index] = value;
+            updates[index] = updateCount;
+            accessed[index] = lastAccessed;
+            lastUsed[index] = lastUsedClock;
+            size++;
+        }
+
+        /**
+         * Makes room for one more entry, either by growing the table or, once the segment holds
+         * maxEntries, by dropping expired and then least recently used entries until there are
+         * targetEntries left.
+         *
+         * @return true if the table was rebuilt and slots have moved
+         */
+        private boolean makeRoom(int now, int expiryMinutes) {
+            if (size >= maxEntries) {
+                int expiryCutoff = now - expiryMinutes;
+                long[] live = new long[size];
+                int n = 0;
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] != NO_KEY && accessed[i] >= expiryCutoff) live[n++] = lastUsed[i];
+                }
+
+                long lastUsedCutoff = Long.MIN_VALUE;
+                int keepAtCutoff = Integer.MAX_VALUE;
+                if (n > targetEntries) {
+                    // Keep the targetEntries most recently used. The clock values
+                    // only repeat if a snapshot was read, so the ones equal to the
+                    // cutoff are counted to never keep more than targetEntries.
+                    Arrays.sort(live, 0, n);
+                    lastUsedCutoff = live[n - targetEntries];
+                    keepAtCutoff = targetEntries;
+                    for (int i = n - targetEntries; i < n; i++) {
+                        if (live[i] > lastUsedCutoff) keepAtCutoff--;
+                    }
+                }
+                rebuild(keys.length, expiryCutoff, lastUsedCutoff, keepAtCutoff);
+                return true;
+            }
+
+            if ((size + 1) * 2 > keys.length) {
+                rebuild(keys.length * 2, Integer.MIN_VALUE, Long.MIN_VALUE, Integer.MAX_VALUE);
+                return true;
+            }
+            return false;
+        }
+
+        private void rebuild(int capacity, int minAccessed, long minLastUsed, int keepAtMinLastUsed) {
+            long[] oldKeys = keys;
+            double[] oldErrors = errors;
+            int[] oldUpdates = updates;
+            int[] oldAccessed = accessed;
+            long[] oldLastUsed = lastUsed;
+
+            allocate(capacity);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == NO_KEY || oldAccessed[i] < minAccessed || oldLastUsed[i] < minLastUsed) continue;
+                if (oldLastUsed[i] == minLastUsed && keepAtMinLastUsed-- <= 0) continue;
+                insert(-indexOf(oldKeys[i]) - 1,
+                        oldKeys[i],
+                        oldErrors[i],
+                        oldUpdates[i],
+                        oldAccessed[i],
+                        oldLastUsed[i]);
+            }
+        }
+
+        /** Changes the trip ordinals of the keys, for when the trip ids are interned again */
+        void reorder(int[] newOrdinals) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != NO_KEY) keys[i] = key(newOrdinals[tripOrdinalOf(keys[i])], stopPathIndexOf(keys[i]));
+            }
+            // The slots depend on the keys
+            rebuild(keys.length, Integer.MIN_VALUE, Long.MIN_VALUE, Integer.MAX_VALUE);
+        }
+    }
+}
@@ -7,7 +7,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 
 import lombok.extern.slf4j.Slf4j;
@@ -17,15 +16,15 @@ import org.hibernate.Transaction;
 import org.springframework.stereotype.Component;
 import org.transitclock.config.data.AgencyConfig;
 import org.transitclock.core.VehicleStatus;
+import org.transitclock.core.avl.time.TemporalMatch;
 import org.transitclock.domain.hibernate.DataDbLogger;
 import org.transitclock.domain.hibernate.HibernateUtils;
 import org.transitclock.domain.structs.AvlReport;
-import org.transitclock.domain.structs.Route;
+import org.transitclock.domain.structs.Trip;
 import org.transitclock.domain.structs.VehicleConfig;
 import org.transitclock.gtfs.DbConfig;
 import org.transitclock.service.dto.IpcPrediction;
 import org.transitclock.service.dto.IpcVehicleComplete;
-import org.transitclock.utils.ConcurrentHashMapNullKeyOk;
 import org.transitclock.utils.SystemTime;
 import org.transitclock.utils.Time;
 
@@ -46,17 +45,54 @@ public class VehicleDataCache {
     // Keyed by vehicle ID
     private final Map<String, IpcVehicleComplete> vehiclesMap = new ConcurrentHashMap<>();
 
-    // Keyed by route_short_name. Key is null for vehicles that have not
-    // been successfully associated with a route. For each route there is a
-    // submap that is keyed by vehicle.
-    private final Map<String, Map<String, IpcVehicleComplete>> vehiclesByRouteMap =
-            new ConcurrentHashMapNullKeyOk<>();
+    // Secondary indexes into vehiclesMap, kept up to date on every vehicle
+    // update so that queries by route or block only touch the matching
+    // vehicles. Key is null for vehicles that have not been successfully
+    // associated with a route or block.
+    private final SecondaryIndex<String, String> vehicleIdsByRouteShortName = new SecondaryIndex<>();
+    private final SecondaryIndex<String, String> vehicleIdsByRouteId = new SecondaryIndex<>();
 
-    // So can determine vehicles associated with a block ID. Keyed on
-    // block ID. Each block can have a list of vehicle IDs. Though rare
+    // So can determine vehicles associated with a block ID. Though rare
     // there are situations where multiple vehicles might have the
     // same assignment, such as for unscheduled assignments.
-    private final Map<String, List<String>> vehicleIdsByBlockMap = new ConcurrentHashMapNullKeyOk<>();
+    private final SecondaryIndex<String, String> vehicleIdsByBlockId = new SecondaryIndex<>();
+
+    // Vehicles that are predictable and assigned to a block, by route ID.
+    // So that monitoring can determine predictability per route from
+    // counts instead of looking at every active block and vehicle.
+    private final SecondaryIndex<String, String> predictableVehicleIdsByRouteId = new SecondaryIndex<>();
+
+    // Vehicles that are currently at a stop, by stop ID. So that holding
+    // can determine the other vehicles waiting at a control stop.
+    private final SecondaryIndex<String, String> vehicleIdsAtStop = new SecondaryIndex<>();
+
+    // Predictable vehicles ordered along their route/direction. So that
+    // headway and holding generation can find the vehicles around a vehicle.
+    private final VehicleSequenceIndex vehicleSequenceIndex = new VehicleSequenceIndex();
+
+    // What the indexes currently reflect for each vehicle, keyed by vehicle
+    // ID. Separate from vehiclesMap since vehicles can be removed from that
+    // map while their block assignment still needs to be known.
+    private final Map<String, IndexKeys> indexedKeysMap = new ConcurrentHashMap<>();
+
+    /**
+     * The keys a vehicle is indexed under. For the predictable and at stop indexes a null key
+     * means that the vehicle isn't in the index.
+     */
+    record IndexKeys(
+            String routeShortName, String routeId, String blockId, String predictableRouteId, String atStopId) {
+        static IndexKeys of(IpcVehicleComplete vehicle) {
+            // Only vehicles that are predictable and assigned to a block count
+            // as predictable for the route
+            boolean predictable = vehicle.isPredictable() && vehicle.getBlockId() != null;
+            return new IndexKeys(
+                    vehicle.getRouteShortName(),
+                    vehicle.getRouteId(),
+                    vehicle.getBlockId(),
+                    predictable ? vehicle.getRouteId() : null,
+                    vehicle.isAtStop() ? vehicle.getAtOrNextStopId() : null);
+        }
+    }
 
     // Keeps track of vehicle static config info. If new vehicle encountered
     // in AVL feed then this map is updated and the new VehicleConfig is also
@@ -265,19 +301,16 @@ public class VehicleDataCache {
         // If want vehicles not associated with route then need to use null
         // as the route short name instead of an empty string.
         if (routeShortName != null && routeShortName.isEmpty()) routeShortName = null;
-        Map<String, IpcVehicleComplete> vehicleMapForRoute = vehiclesByRouteMap.get(routeShortName);
+        Collection<String> vehicleIdsForRoute = vehicleIdsByRouteShortName.get(routeShortName);
 
         // If couldn't get vehicles by route short name try using
         // the route ID.
-        if (vehicleMapForRoute == null) {
-            Route route = dbConfig.getRouteById(routeIdOrShortName);
-            if (route != null) {
-                vehicleMapForRoute = vehiclesByRouteMap.get(route.getShortName());
-            }
+        if (vehicleIdsForRoute.isEmpty()) {
+            vehicleIdsForRoute = vehicleIdsByRouteId.get(routeShortName);
         }
 
-        if (vehicleMapForRoute != null)
-            return filterSchedBasedVehicle(filterOldAvlReports(vehicleMapForRoute.values()));
+        if (!vehicleIdsForRoute.isEmpty())
+            return filterSchedBasedVehicle(filterOldAvlReports(getVehicles(vehicleIdsForRoute)));
         else return null;
     }
 
@@ -372,65 +405,146 @@ public class VehicleDataCache {
      *     list instead of null if no vehicles associated with the block ID.
      */
     public Collection<String> getVehiclesByBlockId(String blockId) {
-        List<String> vehicleIds = vehicleIdsByBlockMap.get(blockId);
-        if (vehicleIds != null)
-            // Return copy of collection
-            return new ArrayList<String>(vehicleIds);
-        else return new ArrayList<String>(0);
+        // Return copy of collection
+        return new ArrayList<>(vehicleIdsByBlockId.get(blockId));
     }
 
     /**
-     * Updates the vehiclesByBlockMap
+     * Returns the vehicles currently assigned to the specified block. Uses the block index so only
+     * the vehicles for the block are looked at. No filtering of old vehicles is done, same as for
+     * {@link #getVehiclesByBlockId(String)}.
      *
-     * @param originalVehicle For getting the previous block ID for the vehicle. Can be null if
-     *     there was no previous vehicle info
-     * @param vehicle For getting the current block ID for the vehicle.
+     * @param blockId
+     * @return Vehicles associated with the block. Empty list instead of null if there are none.
      */
-    private void updateVehicleIdsByBlockMap(IpcVehicleComplete originalVehicle, IpcVehicleComplete vehicle) {
-        // Handle old assignment
-        if (originalVehicle != null) {
-            // If block assignment is same as before don't need to update the
-            // block map
-            if (Objects.equals(originalVehicle.getBlockId(), vehicle.getBlockId())) return;
-
-            // Block assignment has changed for vehicle so remove the old one
-            // from the map
-            List<String> vehicleIdsForOldBlock = vehicleIdsByBlockMap.get(originalVehicle.getBlockId());
-            if (vehicleIdsForOldBlock != null) vehicleIdsForOldBlock.remove(originalVehicle.getId());
+    public List<IpcVehicleComplete> getVehiclesForBlock(String blockId) {
+        Collection<String> vehicleIds = vehicleIdsByBlockId.get(blockId);
+        if (vehicleIds.isEmpty()) return new ArrayList<>(0);
+
+        List<IpcVehicleComplete> vehicles = new ArrayList<>(vehicleIds.size());
+        for (String vehicleId : vehicleIds) {
+            IpcVehicleComplete vehicle = vehiclesMap.get(vehicleId);
+            if (vehicle != null) vehicles.add(vehicle);
         }
+        return vehicles;
+    }
 
-        // Add the new block assignment to the map
-        List<String> vehiclesForNewBlock = vehicleIdsByBlockMap
-                .computeIfAbsent(vehicle.getBlockId(), k -> new ArrayList<>(1));
-        vehiclesForNewBlock.add(vehicle.getId());
+    /**
+     * Returns the number of vehicles for the route that are currently predictable and assigned to
+     * a block. Kept up to date as vehicles are updated so is cheap enough to be called frequently,
+     * such as for monitoring.
+     *
+     * @param routeId
+     * @return number of predictable vehicles for the route
+     */
+    public int getNumPredictableVehicles(String routeId) {
+        return routeId != null ? predictableVehicleIdsByRouteId.get(routeId).size() : 0;
     }
 
     /**
-     * Updates vehiclesByRouteMap containing the vehicle info.
+     * Returns the IDs of the vehicles associated with the route. Unlike
+     * {@link #getVehiclesForRoute(String)} only the route ID is used and old vehicles are not
+     * filtered out.
      *
-     * @param originalVehicle
-     * @param vehicle
+     * @param routeId
+     * @return IDs of the vehicles for the route. Empty collection if there are none.
+     */
+    public Collection<String> getVehicleIdsForRouteId(String routeId) {
+        return routeId != null ? vehicleIdsByRouteId.get(routeId) : Collections.emptySet();
+    }
+
+    /**
+     * Returns the IDs of the vehicles that are currently at the stop.
+     *
+     * @param stopId
+     * @return IDs of the vehicles at the stop. Empty collection if there are none.
      */
-    private void updateVehiclesByRouteMap(IpcVehicleComplete originalVehicle, IpcVehicleComplete vehicle) {
-        // If the route has changed then remove the vehicle from the old map for
-        // that route. Watch out for getRouteShortName() sometimes being null
-        if (originalVehicle != null
-                && originalVehicle.getRouteShortName() != vehicle.getRouteShortName()
-                && (originalVehicle.getRouteShortName() == null
-                        || !originalVehicle.getRouteShortName().equals(vehicle.getRouteShortName()))) {
-            Map<String, IpcVehicleComplete> vehicleMapForRoute =
-                    vehiclesByRouteMap.get(originalVehicle.getRouteShortName());
-            vehicleMapForRoute.remove(vehicle.getId());
+    public Collection<String> getVehicleIdsAtStop(String stopId) {
+        return stopId != null ? vehicleIdsAtStop.get(stopId) : Collections.emptySet();
+    }
+
+    /**
+     * Returns the predictable vehicles of the route/direction, ordered by trip pattern and then by
+     * how far along the trip pattern they are. Schedule based vehicles are not included.
+     *
+     * @param routeId
+     * @param directionId can be null for trips without a direction
+     * @return IDs of the vehicles. Empty list instead of null if there are none.
+     */
+    public List<String> getVehicleIdsInSequence(String routeId, String directionId) {
+        return vehicleSequenceIndex.getVehicleIds(routeId, directionId);
+    }
+
+    /**
+     * Returns the predictable vehicle that is next further along the same trip pattern as the
+     * specified vehicle.
+     *
+     * @param vehicleId
+     * @return ID of the vehicle ahead, or null if there isn't one
+     */
+    public String getVehicleAhead(String vehicleId) {
+        return vehicleSequenceIndex.getVehicleAhead(vehicleId);
+    }
+
+    /**
+     * Updates the route, block, predictable and at stop indexes for the vehicle.
+     *
+     * @param vehicleId
+     * @param keys what the vehicle is now to be indexed under
+     */
+    void updateIndexes(String vehicleId, IndexKeys keys) {
+        IndexKeys originalKeys = indexedKeysMap.put(vehicleId, keys);
+        if (originalKeys == null) {
+            vehicleIdsByRouteShortName.add(vehicleId, keys.routeShortName());
+            vehicleIdsByRouteId.add(vehicleId, keys.routeId());
+            vehicleIdsByBlockId.add(vehicleId, keys.blockId());
+        } else {
+            vehicleIdsByRouteShortName.move(vehicleId, originalKeys.routeShortName(), keys.routeShortName());
+            vehicleIdsByRouteId.move(vehicleId, originalKeys.routeId(), keys.routeId());
+            vehicleIdsByBlockId.move(vehicleId, originalKeys.blockId(), keys.blockId());
         }
+        moveIfKeyed(predictableVehicleIdsByRouteId, vehicleId,
+                originalKeys != null ? originalKeys.predictableRouteId() : null, keys.predictableRouteId());
+        moveIfKeyed(vehicleIdsAtStop, vehicleId,
+                originalKeys != null ? originalKeys.atStopId() : null, keys.atStopId());
+    }
+
+    /**
+     * For indexes that only contain some of the vehicles. A null key means that the vehicle isn't
+     * in the index.
+     */
+    private static void moveIfKeyed(
+            SecondaryIndex<String, String> index, String vehicleId, String oldKey, String newKey) {
+        if (oldKey != null && !oldKey.equals(newKey)) {
+            index.remove(vehicleId, oldKey);
+        }
+        // Always added, even if key hasn't changed, since the vehicle
+        // might have been removed by removeVehicle()
+        if (newKey != null) index.add(vehicleId, newKey);
+    }
 
-        // Add IpcExtVehicle to the vehiclesByRouteMap
-        Map<String, IpcVehicleComplete> vehicleMapForRoute = vehiclesByRouteMap.get(vehicle.getRouteShortName());
-        if (vehicleMapForRoute == null) {
-            vehicleMapForRoute = new HashMap<String, IpcVehicleComplete>();
-            String routeMapKey = vehicle.getRouteShortName();
-            vehiclesByRouteMap.put(routeMapKey, vehicleMapForRoute);
+    /**
+     * Updates where the vehicle is in the vehicle sequence index. Only predictable vehicles that
+     * are matched to a trip are in it. Schedule based vehicles aren't since they are not real
+     * vehicles.
+     *
+     * @param vehicleStatus
+     */
+    private void updateSequence(VehicleStatus vehicleStatus) {
+        TemporalMatch match = vehicleStatus.getMatch();
+        if (match == null || !vehicleStatus.isPredictable() || vehicleStatus.isForSchedBasedPreds()) {
+            vehicleSequenceIndex.remove(vehicleStatus.getVehicleId());
+            return;
         }
-        vehicleMapForRoute.put(vehicle.getId(), vehicle);
+
+        Trip trip = match.getTrip();
+        vehicleSequenceIndex.update(
+                vehicleStatus.getVehicleId(),
+                trip.getRouteId(),
+                trip.getDirectionId(),
+                trip.getTripPattern().getId(),
+                match.getStopPathIndex(),
+                match.getDistanceAlongStopPath());
     }
 
     /**
@@ -473,12 +587,11 @@ public class VehicleDataCache {
             layoverDepartureTime = predsForVehicle != null ? predsForVehicle.getPredictionTime() : 0;
         }
         IpcVehicleComplete vehicle = new IpcVehicleComplete(dbConfig, vehicleStatus, layoverDepartureTime);
-        IpcVehicleComplete originalVehicle = vehiclesMap.get(vehicle.getId());
 
         logger.debug("Adding to VehicleDataCache vehicle={}", vehicle);
 
-        updateVehiclesByRouteMap(originalVehicle, vehicle);
-        updateVehicleIdsByBlockMap(originalVehicle, vehicle);
+        updateIndexes(vehicle.getId(), IndexKeys.of(vehicle));
+        updateSequence(vehicleStatus);
         updateVehiclesMap(vehicle);
     }
 
@@ -490,5 +603,15 @@ public class VehicleDataCache {
     public void removeVehicle(String vehicleId) {
         logger.debug("Removing from VehicleDataCache vehiclesMap vehicleId={}", vehicleId);
         vehiclesMap.remove(vehicleId);
+
+        // A removed vehicle is no longer predictable or at a stop
+        IndexKeys indexedKeys = indexedKeysMap.get(vehicleId);
+        if (indexedKeys != null) {
+            if (indexedKeys.predictableRouteId() != null) {
+                predictableVehicleIdsByRouteId.remove(vehicleId, indexedKeys.predictableRouteId());
+            }
+            if (indexedKeys.atStopId() != null) vehicleIdsAtStop.remove(vehicleId, indexedKeys.atStopId());
+        }
+        vehicleSequenceIndex.remove(vehicleId);
     }
 }
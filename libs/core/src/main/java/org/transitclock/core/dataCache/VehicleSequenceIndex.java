@@ -0,0 +1,142 @@
+/* (C)2023 */
+package org.transitclock.core.dataCache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Orders the vehicles of each route/direction by how far along their trip pattern they are so that
+ * the vehicle ahead of a vehicle can be determined without looking at every vehicle. Intended to be
+ * updated every time a vehicle is matched. Lookups are logarithmic in the number of vehicles on the
+ * route/direction.
+ *
+ * <p>Vehicles are ordered by trip pattern first, so a vehicle is only considered to be ahead of
+ * another one if they are on the same trip pattern.
+ *
+ * <p>Thread safe. Updates for a vehicle are expected to come from a single thread at a time, as is
+ * the case for AVL processing. The route/directions are not removed once empty since there is only
+ * a limited number of them.
+ */
+public class VehicleSequenceIndex {
+
+    /** Where a vehicle is along its trip pattern */
+    private record Position(
+            RouteDirection routeDirection,
+            String tripPatternId,
+            int stopPathIndex,
+            double distanceAlongStopPath,
+            String vehicleId) {}
+
+    private record RouteDirection(String routeId, String directionId) {}
+
+    // From the beginning of the trip pattern to the end. Vehicle ID is
+    // last so that vehicles at the same place are still distinct.
+    private static final Comparator<Position> ALONG_PATTERN = Comparator.comparing(
+                    Position::tripPatternId, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparingInt(Position::stopPathIndex)
+            .thenComparingDouble(Position::distanceAlongStopPath)
+            .thenComparing(Position::vehicleId);
+
+    private final Map<RouteDirection, NavigableSet<Position>> positionsByRouteDirection = new ConcurrentHashMap<>();
+
+    // Keyed by vehicle ID, so can find the vehicle in positionsByRouteDirection
+    private final Map<String, Position> positionsByVehicleId = new ConcurrentHashMap<>();
+
+    /**
+     * Sets where the vehicle currently is, replacing its previous position.
+     *
+     * @param vehicleId
+     * @param routeId route of the trip the vehicle is matched to
+     * @param directionId direction of the trip. Can be null
+     * @param tripPatternId trip pattern of the trip
+     * @param stopPathIndex stop path the vehicle is matched to
+     * @param distanceAlongStopPath how far along the stop path the vehicle is
+     */
+    public void update(
+            String vehicleId,
+            String routeId,
+            String directionId,
+            String tripPatternId,
+            int stopPathIndex,
+            double distanceAlongStopPath) {
+        Position position = new Position(
+                new RouteDirection(routeId, directionId),
+                tripPatternId,
+                stopPathIndex,
+                distanceAlongStopPath,
+                vehicleId);
+        positionsByVehicleId.compute(vehicleId, (id, previousPosition) -> {
+            if (previousPosition != null) removeFromRouteDirection(previousPosition);
+            positionsByRouteDirection
+                    .computeIfAbsent(position.routeDirection(), k -> new ConcurrentSkipListSet<>(ALONG_PATTERN))
+                    .add(position);
+            return position;
+        });
+    }
+
+    /**
+     * Removes the vehicle, such as when it is no longer predictable. Does nothing if the vehicle
+     * isn't in the index.
+     *
+     * @param vehicleId
+     */
+    public void remove(String vehicleId) {
+        positionsByVehicleId.computeIfPresent(vehicleId, (id, previousPosition) -> {
+            removeFromRouteDirection(previousPosition);
+            return null;
+        });
+    }
+
+    private void removeFromRouteDirection(Position position) {
+        NavigableSet<Position> positions = positionsByRouteDirection.get(position.routeDirection());
+        if (positions != null) positions.remove(position);
+    }
+
+    /**
+     * Returns the vehicle that is next further along the same trip pattern.
+     *
+     * @param vehicleId
+     * @return ID of the vehicle ahead, or null if there is none or the vehicle isn't in the index
+     */
+    public String getVehicleAhead(String vehicleId) {
+        Position position = positionsByVehicleId.get(vehicleId);
+        if (position == null) return null;
+        return onSamePattern(position, positionsByRouteDirection.get(position.routeDirection()).higher(position));
+    }
+
+    private static String onSamePattern(Position position, Position other) {
+        return other != null && Objects.equals(other.tripPatternId(), position.tripPatternId())
+                ? other.vehicleId()
+                : null;
+    }
+
+    /**
+     * Returns the vehicles on the route/direction, ordered by trip pattern and then by how far
+     * along the trip pattern they are.
+     *
+     * @param routeId
+     * @param directionId can be null for trips without a direction
+     * @return IDs of the vehicles. Empty list instead of null if there are none.
+     */
+    public List<String> getVehicleIds(String routeId, String directionId) {
+        NavigableSet<Position> positions = positionsByRouteDirection.get(new RouteDirection(routeId, directionId));
+        if (positions == null) return new ArrayList<>(0);
+
+        List<String> vehicleIds = new ArrayList<>(positions.size());
+        for (Position position : positions) {
+            vehicleIds.add(position.vehicleId());
+        }
+        return vehicleIds;
+    }
+
+    /** @return number of vehicles in the index */
+    public int size() {
+        return positionsByVehicleId.size();
+    }
+}
@@ -0,0 +1,31 @@
+/* (C)2023 */
+package org.transitclock.core.dataCache.ehcache;
+
+import javax.cache.CacheManager;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.JCacheMetrics;
+
+/**
+ * Exposes the hits, misses, puts, removals and evictions of each of the caches of the CacheManager,
+ * tagged by cache, with the Micrometer JCache binder. The counts are the JCache statistics of the
+ * caches, which are enabled here, and are read when the registry is scraped so nothing is added to
+ * the cache operations themselves. The ehcache CacheManager that the caches are used through has to
+ * be the one unwrapped from this JCache CacheManager for its operations to be counted.
+ */
+public class EhcacheMetrics implements MeterBinder {
+    private final CacheManager cacheManager;
+
+    public EhcacheMetrics(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        for (String cacheName : cacheManager.getCacheNames()) {
+            cacheManager.enableStatistics(cacheName, true);
+            JCacheMetrics.monitor(meterRegistry, cacheManager.getCache(cacheName));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 /* (C)2023 */
 package org.transitclock.core.dataCache.ehcache.scheduled;
 
+import com.google.common.util.concurrent.Striped;
 import com.querydsl.jpa.impl.JPAQuery;
 import lombok.extern.slf4j.Slf4j;
 import org.ehcache.Cache;
@@ -22,27 +23,33 @@ import org.transitclock.service.dto.IpcArrivalDeparture;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
 
 /**
  * @author scrudden This stores DwellModel instances in the cache. TODO We should abstract the
  *     anomaly detection as per TODO in code below.
+ *     <p>Samples for different stop paths are added concurrently. Updates to the same stop path are
+ *     serialized through a striped lock so that the model can be updated in place.
  */
 @Slf4j
 public class DwellTimeModelCache implements DwellTimeModelCacheInterface {
     private static final String cacheName = "dwellTimeModelCache";
+    private static final int LOCK_STRIPES = 64;
     private final Integer minScheduleAdherence;
     private final Integer maxScheduleAdherence;
     private final Cache<StopPathCacheKey, DwellModel> cache;
-    private final DwellModel dwellModel;
+    private final Supplier<DwellModel> dwellModelSupplier;
+    private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
     private final StopArrivalDepartureCacheInterface stopArrivalDepartureCacheInterface;
     private final PredictionProperties.Rls rlsPredictionConfig;
 
     public DwellTimeModelCache(CacheManager cm,
-                               DwellModel dwellModel,
+                               Supplier<DwellModel> dwellModelSupplier,
                                StopArrivalDepartureCacheInterface stopArrivalDepartureCacheInterface,
                                PredictionProperties.Rls rlsPredictionConfig) {
         cache = cm.getCache(cacheName, StopPathCacheKey.class, DwellModel.class);
-        this.dwellModel = dwellModel;
+        this.dwellModelSupplier = dwellModelSupplier;
         this.stopArrivalDepartureCacheInterface = stopArrivalDepartureCacheInterface;
         this.rlsPredictionConfig = rlsPredictionConfig;
         this.minScheduleAdherence = rlsPredictionConfig.getMinSceheduleAdherence();
@@ -50,19 +57,23 @@ public class DwellTimeModelCache implements DwellTimeModelCacheInterface {
     }
 
     @Override
-    public synchronized void addSample(ArrivalDeparture event, Headway headway, long dwellTime) {
+    public void addSample(ArrivalDeparture event, Headway headway, long dwellTime) {
         StopPathCacheKey key = new StopPathCacheKey(headway.getTripId(), event.getStopPathIndex(), false);
-        DwellModel model = null;
 
-        if (cache.get(key) != null) {
-            model = cache.get(key);
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            DwellModel model = cache.get(key);
+            if (model == null) {
+                model = dwellModelSupplier.get();
+            }
+
             model.putSample((int) dwellTime, (int) headway.getHeadway(), null);
-        } else {
-            model = dwellModel;
+            // Put is still needed so that the disk tier holds the latest state
+            cache.put(key, model);
+        } finally {
+            lock.unlock();
         }
-
-        model.putSample((int) dwellTime, (int) headway.getHeadway(), null);
-        cache.put(key, model);
     }
 
     @Override
@@ -175,10 +186,16 @@ public class DwellTimeModelCache implements DwellTimeModelCacheInterface {
         DwellModel model = cache.get(cacheKey);
         if (model == null || headway == null) return null;
 
-        if (model.predict((int) headway.getHeadway(), null) != null)
-            return Long.valueOf(model.predict((int) headway.getHeadway(), null));
+        Integer prediction;
+        Lock lock = locks.get(cacheKey);
+        lock.lock();
+        try {
+            prediction = model.predict((int) headway.getHeadway(), null);
+        } finally {
+            lock.unlock();
+        }
 
-        return null;
+        return prediction != null ? Long.valueOf(prediction) : null;
     }
 
     @Override
@@ -1,20 +1,29 @@
 /* (C)2023 */
 package org.transitclock.core.dataCache.frequency;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.transitclock.config.data.CoreConfig;
 import org.transitclock.core.dataCache.ArrivalDepartureComparator;
 import org.transitclock.core.dataCache.HistoricalAverage;
-import org.transitclock.core.dataCache.IpcArrivalDepartureComparator;
 import org.transitclock.core.dataCache.StopPathCacheKey;
 import org.transitclock.core.dataCache.TripDataHistoryCacheInterface;
 import org.transitclock.core.dataCache.TripKey;
@@ -23,46 +32,129 @@ import org.transitclock.domain.structs.QArrivalDeparture;
 import org.transitclock.domain.structs.Trip;
 import org.transitclock.gtfs.DbConfig;
 import org.transitclock.gtfs.GtfsFilter;
+import org.transitclock.properties.CoreProperties;
 import org.transitclock.properties.GtfsProperties;
 import org.transitclock.service.dto.IpcArrivalDeparture;
+import org.transitclock.utils.Time;
+import org.transitclock.utils.threading.NamedThreadFactory;
 
 import com.querydsl.jpa.impl.JPAQuery;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.time.DateUtils;
 import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import static org.transitclock.utils.ApplicationShutdownSupport.addShutdownHook;
+
 /**
- * @author Sean Óg Crudden This class is to hold the historical average for frequency based
- *     services. It puts them in buckets that represent increments of time. The start time of the
- *     trip is used to decide which bucket to apply the data to or which average to retrieve.
+ * This class is to hold the historical average for frequency based services. It puts them in
+ * buckets that represent increments of time. The start time of the trip is used to decide which
+ * bucket to apply the data to or which average to retrieve.
+ *
+ * <p>The buckets for a stop path are a fixed size array covering the day, indexed by start time
+ * divided by transitclock.core.frequency.cacheIncrementsForFrequencyService. Each bucket is a
+ * single long holding both the count and the running average so that it can be updated with a
+ * compare and set instead of a lock. This way the AVL processing threads adding data and the
+ * prediction threads reading averages don't hold each other up.
+ *
+ * <p>The contents are written to frequencyAverageCacheSnapshotFile periodically and on shutdown,
+ * and read back on start up.
+ *
+ * @author Sean Óg Crudden
  */
 @Slf4j
 @Component
 public class FrequencyBasedHistoricalAverageCache {
+    // Start times are seconds from 2am, see secondsFromMidnight(), so can be
+    // a couple of hours negative. Also allow for daylight savings changes.
+    private static final int MIN_START_TIME_SECS = -4 * Time.SEC_PER_HOUR;
+    private static final int MAX_START_TIME_SECS = Time.SEC_PER_DAY;
+
+    private static final int SNAPSHOT_MAGIC = 0x46484131;
+    private static final int SNAPSHOT_VERSION = 1;
 
-    private final Map<StopPathKey, TreeMap<Long, HistoricalAverage>> m = new ConcurrentHashMap<>();
+    private final Map<StopPathKey, AtomicLongArray> m = new ConcurrentHashMap<>();
     private final TripDataHistoryCacheInterface tripDataHistoryCacheInterface;
     private final GtfsFilter gtfsFilter;
     private final DbConfig dbConfig;
 
+    // Width of the buckets in seconds
+    private final int increment;
+    // Bucket number, start time divided by increment, of the first element
+    private final int firstBucket;
+    private final int numberOfBuckets;
+
+    private final Path snapshotFile;
+    private final ScheduledExecutorService snapshotExecutor;
+    private volatile boolean readFromSnapshot = false;
+
+    @Autowired
     public FrequencyBasedHistoricalAverageCache(TripDataHistoryCacheInterface tripDataHistoryCacheInterface,
                                                 GtfsProperties gtfsProperties,
-                                                DbConfig dbConfig) {
+                                                DbConfig dbConfig,
+                                                CoreProperties coreProperties) {
+        this(tripDataHistoryCacheInterface,
+            new GtfsFilter(gtfsProperties.getRouteIdFilterRegEx(), gtfsProperties.getTripIdFilterRegEx()),
+            dbConfig,
+            CoreConfig.getCacheIncrementsForFrequencyService(),
+            coreProperties.getCache().getFrequencyAverageCacheSnapshotFile() != null
+                ? Paths.get(coreProperties.getCache().getFrequencyAverageCacheSnapshotFile())
+                : null,
+            coreProperties.getCache().getFrequencyAverageCacheSnapshotIntervalSecs());
+
+        addShutdownHook("frequency-average-cache-snapshot", () -> {
+            if (snapshotExecutor != null) {
+                snapshotExecutor.shutdown();
+            }
+            snapshotQuietly();
+        });
+    }
+
+    /**
+     * @param increment width of the time buckets in seconds
+     * @param snapshotFile where to persist the cache. Can be null to not persist.
+     * @param snapshotIntervalSecs how often to write a snapshot. 0 or less to only write one when
+     *     {@link #snapshot()} is called.
+     */
+    public FrequencyBasedHistoricalAverageCache(TripDataHistoryCacheInterface tripDataHistoryCacheInterface,
+                                                GtfsFilter gtfsFilter,
+                                                DbConfig dbConfig,
+                                                int increment,
+                                                Path snapshotFile,
+                                                int snapshotIntervalSecs) {
         this.tripDataHistoryCacheInterface = tripDataHistoryCacheInterface;
-        this.gtfsFilter = new GtfsFilter(gtfsProperties.getRouteIdFilterRegEx(), gtfsProperties.getTripIdFilterRegEx());
+        this.gtfsFilter = gtfsFilter;
         this.dbConfig = dbConfig;
+        this.increment = increment;
+        this.firstBucket = Math.floorDiv(MIN_START_TIME_SECS, increment);
+        this.numberOfBuckets = Math.floorDiv(MAX_START_TIME_SECS - 1, increment) - firstBucket + 1;
+        this.snapshotFile = snapshotFile;
+
+        if (snapshotFile != null && Files.exists(snapshotFile)) {
+            try {
+                load(snapshotFile);
+            } catch (IOException e) {
+                logger.error("Could not read frequency average snapshot {}, starting with an empty cache.", snapshotFile, e);
+            }
+        }
+
+        if (snapshotFile != null && snapshotIntervalSecs > 0) {
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("frequency-average-snapshot"));
+            snapshotExecutor.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalSecs, snapshotIntervalSecs, TimeUnit.SECONDS);
+        } else {
+            snapshotExecutor = null;
+        }
     }
 
     public String toString() {
         String totalsString = "";
-        for (StopPathKey key : m.keySet()) {
-            Map<Long, HistoricalAverage> values = new TreeMap<>();
-            Map<Long, HistoricalAverage> map = m.get(key);
-
-            Set<Long> times = map.keySet();
-            for (Long time : times) {
-                values.put(time, map.get(time));
+        for (Map.Entry<StopPathKey, AtomicLongArray> entry : new TreeMap<>(m).entrySet()) {
+            StopPathKey key = entry.getKey();
+            AtomicLongArray buckets = entry.getValue();
+            for (int i = 0; i < buckets.length(); i++) {
+                long bucket = buckets.get(i);
+                if (count(bucket) == 0) continue;
 
                 totalsString = totalsString
                         + "\n"
@@ -72,40 +164,47 @@ public class FrequencyBasedHistoricalAverageCache {
                         + ","
                         + key.travelTime
                         + ","
-                        + time
+                        + startTime(i)
                         + ","
-                        + map.get(time).getCount()
+                        + count(bucket)
                         + ","
-                        + map.get(time).getAverage();
+                        + average(bucket);
             }
         }
 
-        return totalsString + "\nDetails\n" + m;
+        return totalsString;
     }
 
-    public synchronized HistoricalAverage getAverage(StopPathCacheKey key) {
-
+    /**
+     * Returns the average for the bucket that the start time of the key falls into. The returned
+     * object is a copy so is not updated as more data comes in.
+     */
+    public HistoricalAverage getAverage(StopPathCacheKey key) {
         logger.debug("Looking for average for : {} in FrequencyBasedHistoricalAverageCache cache.", key);
-        TreeMap<Long, HistoricalAverage> result = m.get(new StopPathKey(key));
-        if (result != null) {
+        AtomicLongArray buckets = m.get(new StopPathKey(key));
+        if (buckets != null) {
             logger.debug("Found average buckets for {}. ", key);
             if (key.getStartTime() != null) {
-                SortedMap<Long, HistoricalAverage> subresult =
-                        result.subMap(key.getStartTime(), key.getStartTime() + CoreConfig.getCacheIncrementsForFrequencyService());
-
-                if (subresult.size() == 1) {
+                // The bucket whose start time is in the range
+                // startTime to startTime + increment
+                int index = bucketIndex(-Math.floorDiv(-key.getStartTime(), increment));
+                long bucket = index >= 0 ? buckets.get(index) : 0;
+                if (count(bucket) > 0) {
+                    HistoricalAverage average = new HistoricalAverage();
+                    average.setCount(count(bucket));
+                    average.setAverage(average(bucket));
                     logger.debug(
                             "Found average for : {} in FrequencyBasedHistoricalAverageCache cache"
                                     + " with a value : {}",
                             key,
-                            subresult.get(subresult.lastKey()));
-                    return subresult.get(subresult.lastKey());
+                            average);
+                    return average;
                 } else {
                     logger.debug(
                             "No historical data within time range ({} to {}) for this trip {} in"
                                     + " FrequencyBasedHistoricalAverageCache cache.",
                             key.getStartTime(),
-                            key.getStartTime() + CoreConfig.getCacheIncrementsForFrequencyService(),
+                            key.getStartTime() + increment,
                             key);
                 }
             }
@@ -114,57 +213,74 @@ public class FrequencyBasedHistoricalAverageCache {
         return null;
     }
 
-    private synchronized void putAverage(StopPathCacheKey key, HistoricalAverage average) {
-        m.computeIfAbsent(new StopPathKey(key), k -> new TreeMap<>());
-        m.get(new StopPathKey(key)).put(key.getStartTime(), average);
+    /**
+     * Adds the duration to the running average of the bucket that the start time of the key falls
+     * into.
+     *
+     * @return the updated average, or null if there is no start time or it is outside the day
+     */
+    public HistoricalAverage update(StopPathCacheKey key, double duration) {
+        if (key.getStartTime() == null) {
+            return null;
+        }
+        int index = bucketIndex(Math.floorDiv(key.getStartTime(), increment));
+        if (index < 0) {
+            logger.debug("Start time {} of {} is outside the day, not adding it to the cache.", key.getStartTime(), key);
+            return null;
+        }
+
+        AtomicLongArray buckets = m.computeIfAbsent(new StopPathKey(key), k -> new AtomicLongArray(numberOfBuckets));
+        long current;
+        long updated;
+        do {
+            current = buckets.get(index);
+            // Same as HistoricalAverage.update()
+            int count = count(current);
+            double average = ((count * average(current)) + duration) / (count + 1);
+            updated = bucket(count + 1, average);
+        } while (!buckets.compareAndSet(index, current, updated));
+
+        HistoricalAverage average = new HistoricalAverage();
+        average.setCount(count(updated));
+        average.setAverage(average(updated));
+        return average;
     }
 
-    public synchronized void putArrivalDeparture(ArrivalDeparture arrivalDeparture) throws Exception {
+    public void putArrivalDeparture(ArrivalDeparture arrivalDeparture) throws Exception {
         Trip trip = dbConfig.getTrip(arrivalDeparture.getTripId());
 
         if (trip != null && trip.isNoSchedule()) {
             int time = secondsFromMidnight(arrivalDeparture.getDate(), 2);
 
             /* this is what puts the trip into the buckets (time slots) */
-            time = round(time, CoreConfig.getCacheIncrementsForFrequencyService());
+            time = round(time, increment);
 
-            TravelTimeResult pathDuration = getLastPathDuration(new IpcArrivalDeparture(arrivalDeparture), trip);
+            IpcArrivalDeparture ipcArrivalDeparture = new IpcArrivalDeparture(arrivalDeparture);
+            TravelTimeResult pathDuration = getLastPathDuration(ipcArrivalDeparture, trip);
 
             if (pathDuration != null
                     && pathDuration.getDuration() > CoreConfig.minTravelTimeFilterValue.getValue()
                     && pathDuration.getDuration() < CoreConfig.maxTravelTimeFilterValue.getValue()) {
-                if (trip.isNoSchedule()) {
-                    StopPathCacheKey historicalAverageCacheKey = new StopPathCacheKey(
-                            trip.getId(), pathDuration.getArrival().getStopPathIndex(), true, (long) time);
-
-                    HistoricalAverage average = getAverage(historicalAverageCacheKey);
-
-                    if (average == null) average = new HistoricalAverage();
-
-                    average.update(pathDuration.getDuration());
+                StopPathCacheKey historicalAverageCacheKey = new StopPathCacheKey(
+                        trip.getId(), pathDuration.getArrival().getStopPathIndex(), true, (long) time);
 
-                    logger.debug(
-                            "Putting : {} in FrequencyBasedHistoricalAverageCache cache for key :"
-                                    + " {} which results in : {}.",
-                            pathDuration,
-                            historicalAverageCacheKey,
-                            average);
+                HistoricalAverage average = update(historicalAverageCacheKey, pathDuration.getDuration());
 
-                    putAverage(historicalAverageCacheKey, average);
-                }
+                logger.debug(
+                        "Putting : {} in FrequencyBasedHistoricalAverageCache cache for key :"
+                                + " {} which results in : {}.",
+                        pathDuration,
+                        historicalAverageCacheKey,
+                        average);
             }
-            DwellTimeResult stopDuration = getLastStopDuration(new IpcArrivalDeparture(arrivalDeparture), trip);
+            DwellTimeResult stopDuration = getLastStopDuration(ipcArrivalDeparture, trip);
             if (stopDuration != null
                     && stopDuration.getDuration() > CoreConfig.minDwellTimeFilterValue.getValue()
                     && stopDuration.getDuration() < CoreConfig.maxDwellTimeFilterValue.getValue()) {
                 StopPathCacheKey historicalAverageCacheKey = new StopPathCacheKey(
                         trip.getId(), stopDuration.getDeparture().getStopPathIndex(), false, (long) time);
 
-                HistoricalAverage average = getAverage(historicalAverageCacheKey);
-
-                if (average == null) average = new HistoricalAverage();
-
-                average.update(stopDuration.getDuration());
+                HistoricalAverage average = update(historicalAverageCacheKey, stopDuration.getDuration());
 
                 logger.debug(
                         "Putting : {} in FrequencyBasedHistoricalAverageCache cache for key : {}"
@@ -172,8 +288,6 @@ public class FrequencyBasedHistoricalAverageCache {
                         stopDuration,
                         historicalAverageCacheKey,
                         average);
-
-                putAverage(historicalAverageCacheKey, average);
             }
             if (stopDuration == null && pathDuration == null) {
                 logger.debug(
@@ -205,39 +319,50 @@ public class FrequencyBasedHistoricalAverageCache {
         }
     }
 
+    /**
+     * Finds the departure from the previous stop by the same vehicle for the same frequency start
+     * time. Looks at each event once instead of sorting the list, and doesn't modify the list since
+     * it belongs to the trip data history cache.
+     *
+     * @return the latest such departure, or null if there isn't one
+     */
     public IpcArrivalDeparture findPreviousDepartureEvent(
             List<IpcArrivalDeparture> arrivalDepartures, IpcArrivalDeparture current) {
-        arrivalDepartures.sort(new IpcArrivalDepartureComparator());
-        for (IpcArrivalDeparture tocheck : emptyIfNull(arrivalDepartures)) {
-            if (current.getFreqStartTime() != null
-                    && tocheck.getFreqStartTime() != null
-                    && tocheck.getFreqStartTime().equals(current.getFreqStartTime())) {
-                if (tocheck.getStopPathIndex() == (current.getStopPathIndex() - 1)
-                        && (current.isArrival() && tocheck.isDeparture())
-                        && current.getVehicleId().equals(tocheck.getVehicleId())) {
-                    return tocheck;
-                }
-            }
+        if (arrivalDepartures == null || current.getFreqStartTime() == null || !current.isArrival()) {
+            return null;
         }
-        return null;
+        return findLatest(arrivalDepartures, current, current.getStopPathIndex() - 1, false);
     }
 
+    /**
+     * Finds the arrival at the same stop by the same vehicle for the same frequency start time.
+     *
+     * @return the latest such arrival, or null if there isn't one
+     */
     public IpcArrivalDeparture findPreviousArrivalEvent(
             List<IpcArrivalDeparture> arrivalDepartures, IpcArrivalDeparture current) {
-        arrivalDepartures.sort(new IpcArrivalDepartureComparator());
-        for (IpcArrivalDeparture tocheck : emptyIfNull(arrivalDepartures)) {
-            if (current.getFreqStartTime() != null
-                    && tocheck.getFreqStartTime() != null
-                    && tocheck.getFreqStartTime().equals(current.getFreqStartTime())) {
-                if (tocheck.getStopId().equals(current.getStopId())
-                        && (current.isDeparture() && tocheck.isArrival())
-                        && current.getVehicleId().equals(tocheck.getVehicleId())) {
-                    return tocheck;
-                }
-            }
+        if (arrivalDepartures == null || current.getFreqStartTime() == null || !current.isDeparture()) {
+            return null;
         }
+        return findLatest(arrivalDepartures, current, current.getStopPathIndex(), true);
+    }
 
-        return null;
+    private static IpcArrivalDeparture findLatest(
+            List<IpcArrivalDeparture> arrivalDepartures,
+            IpcArrivalDeparture current,
+            int stopPathIndex,
+            boolean arrival) {
+        IpcArrivalDeparture latest = null;
+        for (IpcArrivalDeparture tocheck : arrivalDepartures) {
+            if (tocheck.getStopPathIndex() == stopPathIndex
+                    && tocheck.isArrival() == arrival
+                    && current.getFreqStartTime().equals(tocheck.getFreqStartTime())
+                    && current.getVehicleId().equals(tocheck.getVehicleId())
+                    && (latest == null || tocheck.getTime().getTime() > latest.getTime().getTime())) {
+                latest = tocheck;
+            }
+        }
+        return latest;
     }
 
     private TravelTimeResult getLastPathDuration(IpcArrivalDeparture arrivalDeparture, Trip trip) {
@@ -274,6 +399,13 @@ public class FrequencyBasedHistoricalAverageCache {
     }
 
     public void populateCacheFromDb(Session session, Date startDate, Date endDate) throws Exception {
+        if (readFromSnapshot) {
+            // Would otherwise count the same arrivals and departures twice
+            logger.info("FrequencyBasedHistoricalAverageCache was read from {} so not populating it for {} to {}.",
+                snapshotFile, startDate, endDate);
+            return;
+        }
+
         JPAQuery<ArrivalDeparture> query = new JPAQuery<>(session);
         var qentity = QArrivalDeparture.arrivalDeparture;
         List<ArrivalDeparture> results = query.from(qentity)
@@ -307,67 +439,122 @@ public class FrequencyBasedHistoricalAverageCache {
         return (int) secondsPassed;
     }
 
-    private static <T> Iterable<T> emptyIfNull(Iterable<T> iterable) {
-        return iterable == null ? Collections.emptyList() : iterable;
-    }
-
-    private class StopPathKey {
+    /**
+     * Writes the contents of the cache to the snapshot file. The file is written to a temporary
+     * file first and then moved into place so that a crash never leaves a partial snapshot.
+     */
+    public void snapshot() throws IOException {
+        if (snapshotFile == null) return;
 
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + getOuterType().hashCode();
-            result = prime * result + ((stopPathIndex == null) ? 0 : stopPathIndex.hashCode());
-            result = prime * result + (travelTime ? 1231 : 1237);
-            result = prime * result + ((tripId == null) ? 0 : tripId.hashCode());
-            return result;
+        Path parent = snapshotFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
         }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) return true;
-            if (obj == null) return false;
-            if (getClass() != obj.getClass()) return false;
-            StopPathKey other = (StopPathKey) obj;
-            if (!getOuterType().equals(other.getOuterType())) return false;
-            if (stopPathIndex == null) {
-                if (other.stopPathIndex != null) return false;
-            } else if (!stopPathIndex.equals(other.stopPathIndex)) return false;
-            if (travelTime != other.travelTime) return false;
-            if (tripId == null) {
-                return other.tripId == null;
-            } else return tripId.equals(other.tripId);
+        Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+
+        int entries = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(increment);
+            for (Map.Entry<StopPathKey, AtomicLongArray> entry : m.entrySet()) {
+                AtomicLongArray buckets = entry.getValue();
+                for (int i = 0; i < buckets.length(); i++) {
+                    long bucket = buckets.get(i);
+                    if (count(bucket) == 0) continue;
+
+                    out.writeBoolean(true);
+                    out.writeUTF(entry.getKey().tripId());
+                    out.writeInt(entry.getKey().stopPathIndex());
+                    out.writeBoolean(entry.getKey().travelTime());
+                    out.writeInt(startTime(i));
+                    out.writeLong(bucket);
+                    entries++;
+                }
+            }
+            out.writeBoolean(false);
         }
+        Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Wrote {} frequency based historical averages to {}.", entries, snapshotFile);
+    }
 
-        @Override
-        public String toString() {
-            return "StopPathKey [tripId="
-                    + tripId
-                    + ", stopPathIndex="
-                    + stopPathIndex
-                    + ", travelTime="
-                    + travelTime
-                    + "]";
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (Exception e) {
+            logger.error("Could not write frequency average snapshot to {}.", snapshotFile, e);
         }
+    }
 
-        String tripId;
-        Integer stopPathIndex;
+    private void load(Path file) throws IOException {
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                logger.warn("{} is not a frequency average snapshot this version can read, ignoring it.", file);
+                return;
+            }
+            int snapshotIncrement = in.readInt();
+            if (snapshotIncrement != increment) {
+                logger.warn("{} has buckets of {} secs instead of {} secs, ignoring it.", file, snapshotIncrement, increment);
+                return;
+            }
 
-        private boolean travelTime = true;
+            while (in.readBoolean()) {
+                StopPathKey key = new StopPathKey(in.readUTF(), in.readInt(), in.readBoolean());
+                int index = bucketIndex(Math.floorDiv(in.readInt(), increment));
+                long bucket = in.readLong();
+                if (index < 0) continue;
 
-        public boolean isTravelTime() {
-            return travelTime;
+                m.computeIfAbsent(key, k -> new AtomicLongArray(numberOfBuckets)).set(index, bucket);
+                loaded++;
+            }
         }
+        readFromSnapshot = loaded > 0;
+        logger.info("Read {} frequency based historical averages from {}.", loaded, file);
+    }
+
+    /**
+     * @return index into the bucket array, or -1 if the bucket is outside the day
+     */
+    private int bucketIndex(long bucketNumber) {
+        long index = bucketNumber - firstBucket;
+        return index >= 0 && index < numberOfBuckets ? (int) index : -1;
+    }
 
-        public StopPathKey(StopPathCacheKey stopPathCacheKey) {
-            this.tripId = stopPathCacheKey.getTripId();
-            this.stopPathIndex = stopPathCacheKey.getStopPathIndex();
-            this.travelTime = stopPathCacheKey.isTravelTime();
+    /**
+     * @return start time in seconds of the bucket at the index
+     */
+    private int startTime(int index) {
+        return (firstBucket + index) * increment;
+    }
+
+    // The count is in the upper 32 bits and the average as a float in the
+    // lower 32 bits. Zero means there is no data.
+    private static long bucket(int count, double average) {
+        return ((long) count << 32) | (Float.floatToRawIntBits((float) average) & 0xFFFFFFFFL);
+    }
+
+    private static int count(long bucket) {
+        return (int) (bucket >>> 32);
+    }
+
+    private static double average(long bucket) {
+        return Float.intBitsToFloat((int) bucket);
+    }
+
+    private record StopPathKey(String tripId, int stopPathIndex, boolean travelTime) implements Comparable<StopPathKey> {
+
+        private StopPathKey(StopPathCacheKey stopPathCacheKey) {
+            this(stopPathCacheKey.getTripId(), stopPathCacheKey.getStopPathIndex(), stopPathCacheKey.isTravelTime());
         }
 
-        private FrequencyBasedHistoricalAverageCache getOuterType() {
-            return FrequencyBasedHistoricalAverageCache.this;
+        @Override
+        public int compareTo(StopPathKey other) {
+            int result = tripId.compareTo(other.tripId);
+            if (result != 0) return result;
+            result = Integer.compare(stopPathIndex, other.stopPathIndex);
+            if (result != 0) return result;
+            return Boolean.compare(travelTime, other.travelTime);
         }
     }
 
@@ -383,24 +570,25 @@ public class FrequencyBasedHistoricalAverageCache {
                     + "]";
         }
 
-        public TravelTimeResult(IpcArrivalDeparture previousEvent, IpcArrivalDeparture arrivalDeparture) {
-            // TODO Auto-generated constructor stub
+        public TravelTimeResult(IpcArrivalDeparture departure, IpcArrivalDeparture arrival) {
+            this.departure = departure;
+            this.arrival = arrival;
         }
 
-        public ArrivalDeparture getArrival() {
+        public IpcArrivalDeparture getArrival() {
             return arrival;
         }
 
-        public ArrivalDeparture getDeparture() {
+        public IpcArrivalDeparture getDeparture() {
             return departure;
         }
 
         public double getDuration() {
-            return Math.abs(arrival.getTime() - departure.getTime());
+            return Math.abs(arrival.getTime().getTime() - departure.getTime().getTime());
         }
 
-        private final ArrivalDeparture arrival = null;
-        private final ArrivalDeparture departure = null;
+        private final IpcArrivalDeparture arrival;
+        private final IpcArrivalDeparture departure;
     }
 
     private class DwellTimeResult {
@@ -7,9 +7,9 @@ import org.transitclock.core.dataCache.StopArrivalDepartureCacheKey;
 import org.transitclock.core.dataCache.VehicleDataCache;
 import org.transitclock.core.dataCache.VehicleStatusManager;
 import org.transitclock.domain.structs.Headway;
+import org.transitclock.domain.structs.Trip;
 import org.transitclock.gtfs.DbConfig;
 import org.transitclock.service.dto.IpcArrivalDeparture;
-import org.transitclock.service.dto.IpcVehicleComplete;
 
 import java.util.ArrayList;
 import java.util.Date;
@@ -53,41 +53,20 @@ class LastArrivalsHeadwayGenerator implements HeadwayGenerator {
             long date = vehicleStatus.getMatch().getAvlTime();
 
             String vehicleId = vehicleStatus.getVehicleId();
+            // Vehicle ahead on the same trip pattern according to the sequence index. It is
+            // looked for in the stop history so that a vehicle of another pattern that served
+            // the stop in between isn't taken to be the one ahead.
+            String vehicleAheadId = vehicleDataCache.getVehicleAhead(vehicleId);
 
             StopArrivalDepartureCacheKey key = new StopArrivalDepartureCacheKey(stopId, new Date(date));
 
             List<IpcArrivalDeparture> stopList = stopArrivalDepartureCacheInterface.getStopHistory(key);
-            int lastStopArrivalIndex = -1;
-            int previousVehicleArrivalIndex = -1;
-
             if (stopList != null) {
-                for (int i = 0; i < stopList.size() && previousVehicleArrivalIndex == -1; i++) {
-                    IpcArrivalDeparture arrivalDepature = stopList.get(i);
-                    if (arrivalDepature.isArrival()
-                            && arrivalDepature.getStopId().equals(stopId)
-                            && arrivalDepature.getVehicleId().equals(vehicleId)
-                            && (vehicleStatus.getTrip().getDirectionId() == null
-                                    || vehicleStatus
-                                            .getTrip()
-                                            .getDirectionId()
-                                            .equals(arrivalDepature.getDirectionId()))) {
-                        // This the arrival of this vehicle now the next arrival in the list will be
-                        // the previous vehicle (The arrival of the vehicle ahead).
-                        lastStopArrivalIndex = i;
-                    }
-                    if (lastStopArrivalIndex > -1
-                            && arrivalDepature.isArrival()
-                            && arrivalDepature.getStopId().equals(stopId)
-                            && !arrivalDepature.getVehicleId().equals(vehicleId)
-                            && (vehicleStatus.getTrip().getDirectionId() == null
-                                    || vehicleStatus
-                                            .getTrip()
-                                            .getDirectionId()
-                                            .equals(arrivalDepature.getDirectionId()))) {
-                        previousVehicleArrivalIndex = i;
-                    }
-                }
-                if (previousVehicleArrivalIndex != -1 && lastStopArrivalIndex != -1) {
+                StopVisits.Indexes indexes = StopVisits.find(
+                        stopList, true, stopId, vehicleId, vehicleStatus.getTrip().getDirectionId(), vehicleAheadId);
+                if (indexes != null) {
+                    int lastStopArrivalIndex = indexes.vehicleIndex();
+                    int previousVehicleArrivalIndex = indexes.vehicleAheadIndex();
                     long headwayTime = Math.abs(
                             stopList.get(lastStopArrivalIndex).getTime().getTime()
                                     - stopList.get(previousVehicleArrivalIndex)
@@ -109,7 +88,7 @@ class LastArrivalsHeadwayGenerator implements HeadwayGenerator {
                                     .getTime()
                                     .getTime()));
                     // TODO Core.getInstance().getDbLogger().add(headway);
-                    setSystemVariance(headway);
+                    setSystemVariance(headway, vehicleStatus.getTrip());
                     return headway;
                 }
             }
@@ -119,16 +98,22 @@ class LastArrivalsHeadwayGenerator implements HeadwayGenerator {
         return null;
     }
 
-    private void setSystemVariance(Headway headway) {
+    /**
+     * Sets the average and variance of the headways of the vehicles on the same route/direction.
+     * Uses the vehicle sequence index so that only the vehicles of the route/direction are looked
+     * at instead of the whole fleet.
+     */
+    private void setSystemVariance(Headway headway, Trip trip) {
+        List<String> vehicleIds = vehicleDataCache.getVehicleIdsInSequence(trip.getRouteId(), trip.getDirectionId());
         List<Headway> headways = new ArrayList<>();
-        for (IpcVehicleComplete currentVehicle : vehicleDataCache.getVehicles()) {
-            VehicleStatus vehicleStatus = vehicleStatusManager.getStatus(currentVehicle.getId());
+        for (String vehicleId : vehicleIds) {
+            VehicleStatus vehicleStatus = vehicleStatusManager.getStatus(vehicleId);
             if (vehicleStatus.getHeadway() != null) {
                 headways.add(vehicleStatus.getHeadway());
             }
         }
         // ONLY SET IF HAVE VALES FOR ALL VEHICLES ON ROUTE.
-        if (vehicleDataCache.getVehicles().size() == headways.size()) {
+        if (!vehicleIds.isEmpty() && vehicleIds.size() == headways.size()) {
             headway.setAverage(average(headways));
             headway.setVariance(variance(headways));
             headway.setCoefficientOfVariation(coefficientOfVariance(headways));
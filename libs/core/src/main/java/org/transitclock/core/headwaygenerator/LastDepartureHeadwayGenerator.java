@@ -7,9 +7,9 @@ import org.transitclock.core.dataCache.StopArrivalDepartureCacheKey;
 import org.transitclock.core.dataCache.VehicleDataCache;
 import org.transitclock.core.dataCache.VehicleStatusManager;
 import org.transitclock.domain.structs.Headway;
+import org.transitclock.domain.structs.Trip;
 import org.transitclock.gtfs.DbConfig;
 import org.transitclock.service.dto.IpcArrivalDeparture;
-import org.transitclock.service.dto.IpcVehicleComplete;
 
 import java.util.ArrayList;
 import java.util.Date;
@@ -48,40 +48,19 @@ class LastDepartureHeadwayGenerator implements HeadwayGenerator {
                     vehicleStatus.getMatch().getMatchAtPreviousStop().getAtStop().getStopId();
             long date = vehicleStatus.getMatch().getAvlTime();
             String vehicleId = vehicleStatus.getVehicleId();
+            // Vehicle ahead on the same trip pattern according to the sequence index. It is
+            // looked for in the stop history so that a vehicle of another pattern that served
+            // the stop in between isn't taken to be the one ahead.
+            String vehicleAheadId = vehicleDataCache.getVehicleAhead(vehicleId);
             StopArrivalDepartureCacheKey key = new StopArrivalDepartureCacheKey(stopId, new Date(date));
 
             List<IpcArrivalDeparture> stopList = stopArrivalDepartureCacheInterface.getStopHistory(key);
-            int lastStopArrivalIndex = -1;
-            int previousVehicleArrivalIndex = -1;
-
             if (stopList != null) {
-                for (int i = 0; i < stopList.size() && previousVehicleArrivalIndex == -1; i++) {
-                    IpcArrivalDeparture arrivalDepature = stopList.get(i);
-                    if (arrivalDepature.isDeparture()
-                            && arrivalDepature.getStopId().equals(stopId)
-                            && arrivalDepature.getVehicleId().equals(vehicleId)
-                            && (vehicleStatus.getTrip().getDirectionId() == null
-                                    || vehicleStatus
-                                            .getTrip()
-                                            .getDirectionId()
-                                            .equals(arrivalDepature.getDirectionId()))) {
-                        // This the arrival of this vehicle now the next arrival in the list will be
-                        // the previous vehicle (The arrival of the vehicle ahead).
-                        lastStopArrivalIndex = i;
-                    }
-                    if (lastStopArrivalIndex > -1
-                            && arrivalDepature.isDeparture()
-                            && arrivalDepature.getStopId().equals(stopId)
-                            && !arrivalDepature.getVehicleId().equals(vehicleId)
-                            && (vehicleStatus.getTrip().getDirectionId() == null
-                                    || vehicleStatus
-                                            .getTrip()
-                                            .getDirectionId()
-                                            .equals(arrivalDepature.getDirectionId()))) {
-                        previousVehicleArrivalIndex = i;
-                    }
-                }
-                if (previousVehicleArrivalIndex != -1 && lastStopArrivalIndex != -1) {
+                StopVisits.Indexes indexes = StopVisits.find(
+                        stopList, false, stopId, vehicleId, vehicleStatus.getTrip().getDirectionId(), vehicleAheadId);
+                if (indexes != null) {
+                    int lastStopArrivalIndex = indexes.vehicleIndex();
+                    int previousVehicleArrivalIndex = indexes.vehicleAheadIndex();
                     long headwayTime = Math.abs(
                             stopList.get(lastStopArrivalIndex).getTime().getTime()
                                     - stopList.get(previousVehicleArrivalIndex)
@@ -116,7 +95,7 @@ class LastDepartureHeadwayGenerator implements HeadwayGenerator {
                     if (headway != null) {
                         if (vehicleStatus.getHeadway() == null || !vehicleStatus.getHeadway().equals(headway)) {
                             vehicleStatus.setHeadway(headway);
-                            setSystemVariance(headway);
+                            setSystemVariance(headway, vehicleStatus.getTrip());
                             return headway;
                         } else {
                             return null;
@@ -130,15 +109,20 @@ class LastDepartureHeadwayGenerator implements HeadwayGenerator {
         return null;
     }
 
-    private void setSystemVariance(Headway headway) {
+    /**
+     * Sets the headway statistics for the route/direction of the trip, or -1 if not all of its
+     * vehicles have a headway yet.
+     */
+    private void setSystemVariance(Headway headway, Trip trip) {
+        List<String> vehicleIds = vehicleDataCache.getVehicleIdsInSequence(trip.getRouteId(), trip.getDirectionId());
         List<Headway> headways = new ArrayList<>();
 
         int total_with_headway = 0;
         int total_vehicles = 0;
         boolean error = false;
 
-        for (IpcVehicleComplete currentVehicle : vehicleDataCache.getVehicles()) {
-            VehicleStatus vehicleStatus = vehicleStatusManager.getStatus(currentVehicle.getId());
+        for (String vehicleId : vehicleIds) {
+            VehicleStatus vehicleStatus = vehicleStatusManager.getStatus(vehicleId);
             if (vehicleStatus.getHeadway() != null) {
                 headways.add(vehicleStatus.getHeadway());
                 total_with_headway++;
@@ -146,7 +130,8 @@ class LastDepartureHeadwayGenerator implements HeadwayGenerator {
             total_vehicles++;
         }
         // ONLY SET IF HAVE VALES FOR ALL VEHICLES ON ROUTE.
-        if (vehicleDataCache.getVehicles().size() == headways.size()
+        if (!vehicleIds.isEmpty()
+                && vehicleIds.size() == headways.size()
                 && total_vehicles == total_with_headway) {
             headway.setAverage(average(headways));
             headway.setVariance(variance(headways));
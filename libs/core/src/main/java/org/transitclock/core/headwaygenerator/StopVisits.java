@@ -0,0 +1,70 @@
+/* (C)2023 */
+package org.transitclock.core.headwaygenerator;
+
+import java.util.List;
+
+import org.transitclock.service.dto.IpcArrivalDeparture;
+
+/**
+ * Finds the two visits to a stop that a headway is determined from: the latest visit of a vehicle
+ * and the visit of the vehicle ahead of it before that. The stop history is ordered with the
+ * latest visit first.
+ */
+final class StopVisits {
+
+    /**
+     * Indexes into the stop history.
+     *
+     * @param vehicleIndex the latest visit of the vehicle
+     * @param vehicleAheadIndex the visit of the vehicle ahead
+     */
+    record Indexes(int vehicleIndex, int vehicleAheadIndex) {}
+
+    private StopVisits() {}
+
+    /**
+     * Returns the indexes of the latest visit of the vehicle and of the visit of the vehicle ahead.
+     * Only the visits since the previous visit of the same vehicle, such as on an earlier trip, are
+     * looked at for the vehicle ahead. If the vehicle ahead according to the sequence index didn't
+     * visit the stop in that time, such as when it started its trip past the stop, the latest
+     * visit of any other vehicle is used.
+     *
+     * @param stopList the stop history, latest first
+     * @param arrivals true to look at arrivals, false to look at departures
+     * @param stopId the stop
+     * @param vehicleId the vehicle to determine the headway for
+     * @param directionId the direction of the trip of the vehicle. If null visits of all directions
+     *     are used.
+     * @param vehicleAheadId the vehicle ahead according to the sequence index. Can be null.
+     * @return the indexes, or null if either of the visits wasn't found
+     */
+    static Indexes find(
+            List<IpcArrivalDeparture> stopList,
+            boolean arrivals,
+            String stopId,
+            String vehicleId,
+            String directionId,
+            String vehicleAheadId) {
+        int vehicleIndex = -1;
+        int otherVehicleIndex = -1;
+        for (int i = 0; i < stopList.size(); i++) {
+            IpcArrivalDeparture arrivalDepature = stopList.get(i);
+            if (arrivalDepature.isArrival() != arrivals
+                    || !arrivalDepature.getStopId().equals(stopId)
+                    || (directionId != null && !directionId.equals(arrivalDepature.getDirectionId()))) continue;
+
+            if (arrivalDepature.getVehicleId().equals(vehicleId)) {
+                // Previous visit of this vehicle. The vehicle ahead visited
+                // the stop after it, if at all.
+                if (vehicleIndex != -1) break;
+                vehicleIndex = i;
+            } else if (vehicleIndex != -1) {
+                if (vehicleAheadId == null || vehicleAheadId.equals(arrivalDepature.getVehicleId())) {
+                    return new Indexes(vehicleIndex, i);
+                }
+                if (otherVehicleIndex == -1) otherVehicleIndex = i;
+            }
+        }
+        return otherVehicleIndex != -1 ? new Indexes(vehicleIndex, otherVehicleIndex) : null;
+    }
+}
@@ -2,9 +2,12 @@
 package org.transitclock.core.holdingmethod;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.transitclock.core.VehicleStatus;
 import org.transitclock.core.dataCache.HoldingTimeCache;
@@ -17,12 +20,12 @@ import org.transitclock.core.dataCache.VehicleStatusManager;
 import org.transitclock.domain.hibernate.DataDbLogger;
 import org.transitclock.domain.structs.ArrivalDeparture;
 import org.transitclock.domain.structs.HoldingTime;
+import org.transitclock.domain.structs.Route;
 import org.transitclock.gtfs.DbConfig;
 import org.transitclock.properties.HoldingProperties;
 import org.transitclock.service.dto.IpcArrivalDeparture;
 import org.transitclock.service.dto.IpcPrediction;
 import org.transitclock.service.dto.IpcPredictionsForRouteStopDest;
-import org.transitclock.service.dto.IpcVehicleComplete;
 import org.transitclock.utils.SystemTime;
 
 import lombok.extern.slf4j.Slf4j;
@@ -72,17 +75,7 @@ public class HoldingTimeGeneratorDefaultImpl implements HoldingTimeGenerator {
 
         if (event.isArrival() && isControlStop(event.getStopId())) {
 
-            List<IpcPrediction> predictions = new ArrayList<>();
-
-            for (IpcVehicleComplete currentVehicle : vehicleDataCache.getVehicles()) {
-                if (predictionDataCache.getPredictionForVehicle(
-                                currentVehicle.getId(), event.getRouteId(), event.getStopId())
-                        != null) {
-                    predictions.add(predictionDataCache.getPredictionForVehicle(
-                            currentVehicle.getId(), event.getRouteId(), event.getStopId()));
-                }
-            }
-            predictions.sort(new PredictionTimeComparator());
+            List<IpcPrediction> predictions = getNextPredictions(event.getRouteId(), event.getStopId());
 
             logger.debug(
                     "Calling Holding Generator for event : {} using predictions : {}",
@@ -295,12 +288,41 @@ public class HoldingTimeGeneratorDefaultImpl implements HoldingTimeGenerator {
         return null;
     }
 
+    /**
+     * Returns the next predictions for the route/stop, one per vehicle, ordered by prediction time.
+     * The predictions are read from the prediction cache, which is organized by route/stop, so only
+     * the vehicles that are about to reach the stop are looked at instead of every vehicle.
+     *
+     * @param routeId
+     * @param stopId
+     * @return the predictions, soonest first
+     */
+    private List<IpcPrediction> getNextPredictions(String routeId, String stopId) {
+        // Get all the predictions for the stop, not just the first few per
+        // destination, so that no vehicle is left out however many will be
+        // leaving the stop. Only the first prediction for a vehicle is used.
+        Map<String, IpcPrediction> predictionsByVehicle = new LinkedHashMap<>();
+        for (IpcPredictionsForRouteStopDest predsForRouteStop :
+                predictionDataCache.getPredictions(routeId, null, stopId)) {
+            for (IpcPrediction prediction : predsForRouteStop.getPredictionsForRouteStop()) {
+                if (vehicleDataCache.getVehicle(prediction.getVehicleId()) != null) {
+                    predictionsByVehicle.putIfAbsent(prediction.getVehicleId(), prediction);
+                }
+            }
+        }
+
+        List<IpcPrediction> predictions = new ArrayList<>(predictionsByVehicle.values());
+        predictions.sort(new PredictionTimeComparator());
+        return predictions;
+    }
+
     public List<String> getOrderedListOfVehicles(String routeId) {
         int count = 0;
         boolean canorder = true;
         List<VehicleStatus> unordered = new ArrayList<VehicleStatus>();
         List<String> ordered = null;
-        for (VehicleStatus currentVehicleStatus : vehicleStatusManager.getStatuses()) {
+        for (String vehicleId : vehicleDataCache.getVehicleIdsForRouteId(routeId)) {
+            VehicleStatus currentVehicleStatus = vehicleStatusManager.getStatus(vehicleId);
             if (currentVehicleStatus.getTrip() != null
                     && currentVehicleStatus.getTrip().getRoute(dbConfig).getId().equals(routeId)
                     && currentVehicleStatus.isPredictable()) {
@@ -344,11 +366,20 @@ public class HoldingTimeGeneratorDefaultImpl implements HoldingTimeGenerator {
     protected List<HoldingTime> getCurrentHoldingTimesForStop(String stopId) {
         List<HoldingTime> currentHoldingTimes = new ArrayList<HoldingTime>();
 
-        for (IpcVehicleComplete currentVehicle : vehicleDataCache.getVehicles()) {
-            VehicleStatus vehicleStatus = vehicleStatusManager.getStatus(currentVehicle.getId());
-            if (vehicleStatus.getHoldingTime() != null) {
-                if (vehicleStatus.getHoldingTime().getStopId().equals(stopId)) {
-                    currentHoldingTimes.add(vehicleStatus.getHoldingTime());
+        // A vehicle can only be held at a stop of its route so only need
+        // to look at the vehicles of the routes that serve the stop
+        Collection<Route> routesForStop = dbConfig.getRoutesForStop(stopId);
+        if (routesForStop == null) return currentHoldingTimes;
+
+        for (Route route : routesForStop) {
+            for (String vehicleId : vehicleDataCache.getVehicleIdsForRouteId(route.getId())) {
+                if (vehicleDataCache.getVehicle(vehicleId) == null) continue;
+
+                VehicleStatus vehicleStatus = vehicleStatusManager.getStatus(vehicleId);
+                if (vehicleStatus.getHoldingTime() != null) {
+                    if (vehicleStatus.getHoldingTime().getStopId().equals(stopId)) {
+                        currentHoldingTimes.add(vehicleStatus.getHoldingTime());
+                    }
                 }
             }
         }
@@ -406,11 +437,9 @@ public class HoldingTimeGeneratorDefaultImpl implements HoldingTimeGenerator {
     private ArrayList<String> getOtherVehiclesAtStop(String stopId, String currentVehicleId) {
         ArrayList<String> alsoAtStop = new ArrayList<String>();
 
-        for (IpcVehicleComplete currentVehicle : vehicleDataCache.getVehicles()) {
-            if (currentVehicle.isAtStop()
-                    && currentVehicle.getAtOrNextStopId().equals(stopId)
-                    && !currentVehicle.getId().equals(currentVehicleId)) {
-                alsoAtStop.add(currentVehicle.getId());
+        for (String vehicleId : vehicleDataCache.getVehicleIdsAtStop(stopId)) {
+            if (!vehicleId.equals(currentVehicleId) && vehicleDataCache.getVehicle(vehicleId) != null) {
+                alsoAtStop.add(vehicleId);
             }
         }
 
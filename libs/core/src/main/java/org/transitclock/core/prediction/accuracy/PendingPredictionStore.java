@@ -0,0 +1,176 @@
+/* (C)2023 */
+package org.transitclock.core.prediction.accuracy;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+
+import org.transitclock.utils.Time;
+
+/**
+ * Holds the predictions that are waiting to be matched to an arrival/departure for prediction
+ * accuracy analysis.
+ *
+ * <p>Predictions are looked up by vehicle, direction and stop when an arrival/departure is
+ * generated. They are also indexed by the minute of their predicted time so that clearing out the
+ * stale ones only touches the predictions that have expired instead of every prediction in
+ * memory. The number of predictions is bounded so that a large external feed cannot use up all
+ * the memory. When full new predictions are dropped until stale ones are removed.
+ *
+ * <p>Thread safe. Adding and matching predictions can happen concurrently from multiple feeds and
+ * from the arrival/departure generator.
+ */
+public class PendingPredictionStore {
+    private final IntSupplier maxPredictions;
+
+    private final Map<PredictionKey, List<PredAccuracyPrediction>> predictionsByKey = new ConcurrentHashMap<>();
+
+    // Keys of the predictions, by minute of their predicted time. A key
+    // is left in place when its prediction is matched and is simply
+    // ignored when the minute is cleared out.
+    private final ConcurrentSkipListMap<Long, Set<PredictionKey>> keysByMinute = new ConcurrentSkipListMap<>();
+
+    // Adding takes the read lock so that adds can be concurrent. Clearing
+    // out stale predictions takes the write lock so that a key can't be
+    // added to a minute that is in the middle of being cleared out.
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong numDropped = new AtomicLong();
+
+    private record PredictionKey(String vehicleId, String directionId, String stopId) {}
+
+    /**
+     * @param maxPredictions supplies the maximum number of predictions to hold. A supplier so that
+     *     changes to the config value take effect.
+     */
+    public PendingPredictionStore(IntSupplier maxPredictions) {
+        this.maxPredictions = maxPredictions;
+    }
+
+    /**
+     * Adds the prediction unless the store is already full.
+     *
+     * @return true if added, false if dropped because the store is full
+     */
+    public boolean add(PredAccuracyPrediction pred) {
+        if (size.incrementAndGet() > maxPredictions.getAsInt()) {
+            size.decrementAndGet();
+            numDropped.incrementAndGet();
+            return false;
+        }
+
+        PredictionKey key = new PredictionKey(pred.getVehicleId(), pred.getDirectionId(), pred.getStopId());
+        indexLock.readLock().lock();
+        try {
+            predictionsByKey.compute(key, (k, preds) -> {
+                if (preds == null) preds = new ArrayList<>(1);
+                preds.add(pred);
+                return preds;
+            });
+            keysByMinute
+                    .computeIfAbsent(minute(pred.getPredictedTime().getTime()), m -> ConcurrentHashMap.newKeySet())
+                    .add(key);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Removes and returns the predictions for the vehicle, direction and stop that satisfy the
+     * matcher.
+     *
+     * @return the removed predictions. Empty list if there were none.
+     */
+    public List<PredAccuracyPrediction> removeMatching(
+            String vehicleId, String directionId, String stopId, Predicate<PredAccuracyPrediction> matcher) {
+        List<PredAccuracyPrediction> removed = new ArrayList<>(1);
+        predictionsByKey.computeIfPresent(new PredictionKey(vehicleId, directionId, stopId), (k, preds) -> {
+            removeIf(preds, matcher, removed);
+            return preds.isEmpty() ? null : preds;
+        });
+        size.addAndGet(-removed.size());
+        return removed;
+    }
+
+    /**
+     * Removes and returns the predictions whose predicted time is before the cutoff. Only the
+     * predictions in the minutes before the cutoff are looked at, so predictions in the same
+     * minute as the cutoff can be left until the next call.
+     *
+     * @param cutoffTime epoch time in msec
+     * @return the removed predictions. Empty list if there were none.
+     */
+    public List<PredAccuracyPrediction> removeOlderThan(long cutoffTime) {
+        List<PredAccuracyPrediction> removed = new ArrayList<>();
+        indexLock.writeLock().lock();
+        try {
+            NavigableMap<Long, Set<PredictionKey>> expiredMinutes = keysByMinute.headMap(minute(cutoffTime), false);
+            Map.Entry<Long, Set<PredictionKey>> entry;
+            while ((entry = expiredMinutes.pollFirstEntry()) != null) {
+                for (PredictionKey key : entry.getValue()) {
+                    predictionsByKey.computeIfPresent(key, (k, preds) -> {
+                        removeIf(preds, pred -> pred.getPredictedTime().getTime() < cutoffTime, removed);
+                        return preds.isEmpty() ? null : preds;
+                    });
+                }
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+        size.addAndGet(-removed.size());
+        return removed;
+    }
+
+    /** @return number of predictions currently held */
+    public int size() {
+        return size.get();
+    }
+
+    /** @return number of predictions dropped because the store was full, since the last call */
+    public long getAndResetNumDropped() {
+        return numDropped.getAndSet(0);
+    }
+
+    /** Removes all predictions */
+    public void clear() {
+        indexLock.writeLock().lock();
+        try {
+            predictionsByKey.clear();
+            keysByMinute.clear();
+            size.set(0);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    private static void removeIf(
+            List<PredAccuracyPrediction> preds,
+            Predicate<PredAccuracyPrediction> matcher,
+            List<PredAccuracyPrediction> removed) {
+        Iterator<PredAccuracyPrediction> iter = preds.iterator();
+        while (iter.hasNext()) {
+            PredAccuracyPrediction pred = iter.next();
+            if (matcher.test(pred)) {
+                removed.add(pred);
+                iter.remove();
+            }
+        }
+    }
+
+    private static long minute(long time) {
+        return Math.floorDiv(time, Time.MS_PER_MIN);
+    }
+}
@@ -6,11 +6,9 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.transitclock.Module;
 import org.transitclock.config.data.PredictionAccuracyConfig;
@@ -23,7 +21,6 @@ import org.transitclock.domain.structs.TripPattern;
 import org.transitclock.gtfs.DbConfig;
 import org.transitclock.service.dto.IpcPrediction;
 import org.transitclock.service.dto.IpcPredictionsForRouteStopDest;
-import org.transitclock.utils.MapKey;
 import org.transitclock.utils.SystemTime;
 import org.transitclock.utils.Time;
 
@@ -40,12 +37,12 @@ import org.springframework.beans.factory.annotation.Autowired;
  */
 @Slf4j
 public class PredictionAccuracyModule implements Module {
-    // The map that contains all of the predictions to be used for prediction
-    // accuracy analysis. Each value is a list of predictions because can have
-    // more than a single prediction stored in memory for a vehicle/stop.
-    // Declared static because want to be able to access it from another
-    // class by using the static method handleArrivalDeparture().
-    private static final Map<PredictionKey, List<PredAccuracyPrediction>> predictionMap = new ConcurrentHashMap<>();
+    // Contains all of the predictions to be used for prediction accuracy
+    // analysis. Can have more than a single prediction stored in memory for
+    // a vehicle/stop. Declared static because want to be able to access it
+    // from another class by using the static method handleArrivalDeparture().
+    private static final PendingPredictionStore pendingPredictions =
+            new PendingPredictionStore(PredictionAccuracyConfig.maxPredictionsInMemory::getValue);
     @Autowired
     protected PredictionDataCache predictionDataCache;
     @Autowired
@@ -60,17 +57,6 @@ public class PredictionAccuracyModule implements Module {
         private final Map<String, Collection<String>> stopIds = new HashMap<>();
     }
 
-    private static class PredictionKey extends MapKey {
-        PredictionKey(String vehicleId, String directionId, String stopId) {
-            super(vehicleId, directionId, stopId);
-        }
-
-        @Override
-        public String toString() {
-            return "PredictionKey [" + "vehicleId=" + o1 + ", directionId=" + o2 + ", stopId=" + o3 + "]";
-        }
-    }
-
 
     /* (non-Javadoc)
      * @see java.lang.Runnable#run()
@@ -155,11 +141,11 @@ public class PredictionAccuracyModule implements Module {
             return;
         }
 
-        PredictionKey key = new PredictionKey(pred.getVehicleId(), pred.getDirectionId(), pred.getStopId());
-        logger.debug("Adding prediction to memory for prediction accuracy analysis. {}", pred);
-        predictionMap
-                .computeIfAbsent(key, k -> new ArrayList<>(1))
-                .add(pred);
+        if (pendingPredictions.add(pred)) {
+            logger.debug("Adding prediction to memory for prediction accuracy analysis. {}", pred);
+        } else {
+            logger.debug("Too many predictions in memory so not storing it for prediction accuracy analysis. {}", pred);
+        }
     }
 
     /**
@@ -168,41 +154,35 @@ public class PredictionAccuracyModule implements Module {
      * never arrive at a stop and so will not be removed from memory. In order to prevent memory use
      * from building up need to clear out the old predictions.
      *
-     * <p>Synchronized as multiple subclasses exist.
+     * <p>Only the predictions that have become stale are looked at, not all of the predictions in
+     * memory. Synchronized as multiple subclasses exist.
      */
     protected synchronized void clearStalePredictions() {
+        long cutoffTime =
+                SystemTime.getMillis() - PredictionAccuracyConfig.maxPredStalenessMinutes.getValue() * Time.MS_PER_MIN;
+        List<PredAccuracyPrediction> stalePredictions = pendingPredictions.removeOlderThan(cutoffTime);
+        for (PredAccuracyPrediction pred : stalePredictions) {
+            // Prediction was too old so it was removed from memory
+            logger.debug("Removing prediction accuracy prediction from memory because it is too old. {}", pred);
+
+            // Store prediction accuracy info so can note that
+            // a bad prediction was made
+            storePredictionAccuracyInfo(dbConfig, dataDbLogger, pred, null);
+        }
 
-        int numPredictionsInMemory = 0;
-        int numPredictionsRemoved = 0;
-
-        // Go through all predictions in memory...
-        Collection<List<PredAccuracyPrediction>> allPreds = predictionMap.values();
-        for (List<PredAccuracyPrediction> predsForVehicleStop : allPreds) {
-            Iterator<PredAccuracyPrediction> iter = predsForVehicleStop.iterator();
-            while (iter.hasNext()) {
-                PredAccuracyPrediction pred = iter.next();
-                if (pred.getPredictedTime().getTime()
-                        < SystemTime.getMillis() - PredictionAccuracyConfig.maxPredStalenessMinutes.getValue() * Time.MS_PER_MIN) {
-                    // Prediction was too old so remove it from memory
-                    ++numPredictionsRemoved;
-                    logger.info(
-                            "Removing prediction accuracy prediction " + "from memory because it is too old. {}", pred);
-                    iter.remove();
-
-                    // Store prediction accuracy info so can note that
-                    // a bad prediction was made
-                    storePredictionAccuracyInfo(dbConfig, dataDbLogger, pred, null);
-                } else {
-                    ++numPredictionsInMemory;
-                    logger.debug("Prediction currently held in memory. {}", pred);
-                }
-            }
+        long numDropped = pendingPredictions.getAndResetNumDropped();
+        if (numDropped > 0) {
+            logger.warn(
+                    "Dropped {} predictions because there were already {} in memory. Consider increasing {}.",
+                    numDropped,
+                    PredictionAccuracyConfig.maxPredictionsInMemory.getValue(),
+                    PredictionAccuracyConfig.maxPredictionsInMemory.getID());
         }
 
         logger.debug(
                 "There are now {} predictions in memory after removing {}.",
-                numPredictionsInMemory,
-                numPredictionsRemoved);
+                pendingPredictions.size(),
+                stalePredictions.size());
     }
 
     /**
@@ -271,27 +251,35 @@ public class PredictionAccuracyModule implements Module {
      * @param arrivalDeparture The arrival or departure that was generated
      */
     public static void handleArrivalDeparture(DbConfig dbConfig, DataDbLogger dataDbLogger, ArrivalDeparture arrivalDeparture) {
-        // Get the List of predictions for the vehicle/direction/stop
-        PredictionKey key = new PredictionKey(
-                arrivalDeparture.getVehicleId(), arrivalDeparture.getDirectionId(), arrivalDeparture.getStopId());
-        List<PredAccuracyPrediction> predsList = predictionMap.get(key);
+        // Go through the predictions for vehicle, direction, stop and handle
+        // the ones that match fully including being appropriate arrival or
+        // departure.
+        List<PredAccuracyPrediction> matchedPreds = pendingPredictions.removeMatching(
+                arrivalDeparture.getVehicleId(),
+                arrivalDeparture.getDirectionId(),
+                arrivalDeparture.getStopId(),
+                pred -> matches(dbConfig, pred, arrivalDeparture));
 
-        if (predsList == null || predsList.isEmpty()) {
+        if (matchedPreds.isEmpty()) {
             logger.debug("No matching predictions for {}", arrivalDeparture);
             return;
         }
 
-        // Go through list of predictions for vehicle, direction, stop and handle
-        // the ones that match fully including being appropriate arrival or
-        // departure.
-        Iterator<PredAccuracyPrediction> predIterator = predsList.iterator();
-        while (predIterator.hasNext()) {
-            PredAccuracyPrediction pred = predIterator.next();
+        // There is a match so store the prediction accuracy info into the
+        // database. The matched predictions have already been removed.
+        for (PredAccuracyPrediction pred : matchedPreds) {
+            storePredictionAccuracyInfo(dbConfig, dataDbLogger, pred, arrivalDeparture);
+        }
+    }
 
-            // If not correct arrival/departure type continue to next prediction
-            if (pred.isArrival() != arrivalDeparture.isArrival()) {
-                continue;
-            }
+    /**
+     * @return true if the prediction is for the arrival/departure
+     */
+    private static boolean matches(DbConfig dbConfig, PredAccuracyPrediction pred, ArrivalDeparture arrivalDeparture) {
+        // If not correct arrival/departure type then not a match
+        if (pred.isArrival() != arrivalDeparture.isArrival()) {
+            return false;
+        }
 
             // Make sure it is for the proper trip. This is important in case a
             // vehicle is reassigned after a prediction is made. For example, a
@@ -300,30 +288,19 @@ public class PredictionAccuracyModule implements Module {
             // shouldn't be counted against vehicle accuracy since likely
             // another vehicle substituted in for the original assignment. This
             // is especially true for MBTA Commuter Rail
-            String tripIdOrShortName = pred.getTripId();
-            String tripShortName = dbConfig.getTrip(arrivalDeparture.getTripId()).getTripShortName();
-            if (!tripIdOrShortName.equals(arrivalDeparture.getTripId())
-                    && !tripIdOrShortName.equals(tripShortName)) {
-                continue;
-            }
-
-            // Make sure predicted time isn't too far away from the
-            // arrival/departure time so that don't match to something really
-            // inappropriate. First determine how late vehicle arrived
-            // at stop compared to the original prediction time.
-            long latenessComparedToPrediction = arrivalDeparture.getTime() - pred.getPredictedTime().getTime();
-            if (latenessComparedToPrediction > PredictionAccuracyConfig.maxLatenessComparedToPredictionMsec.getValue()
-                    || latenessComparedToPrediction < -PredictionAccuracyConfig.maxEarlynessComparedToPredictionMsec.getValue()) {
-                continue;
-            }
-
-            // There is a match so store the prediction accuracy info into the
-            // database
-            storePredictionAccuracyInfo(dbConfig, dataDbLogger, pred, arrivalDeparture);
-
-            // Remove the prediction that was matched
-            predIterator.remove();
+        String tripIdOrShortName = pred.getTripId();
+        if (!tripIdOrShortName.equals(arrivalDeparture.getTripId())
+                && !tripIdOrShortName.equals(dbConfig.getTrip(arrivalDeparture.getTripId()).getTripShortName())) {
+            return false;
         }
+
+        // Make sure predicted time isn't too far away from the
+        // arrival/departure time so that don't match to something really
+        // inappropriate. First determine how late vehicle arrived
+        // at stop compared to the original prediction time.
+        long latenessComparedToPrediction = arrivalDeparture.getTime() - pred.getPredictedTime().getTime();
+        return latenessComparedToPrediction <= PredictionAccuracyConfig.maxLatenessComparedToPredictionMsec.getValue()
+                && latenessComparedToPrediction >= -PredictionAccuracyConfig.maxEarlynessComparedToPredictionMsec.getValue();
     }
 
     /**
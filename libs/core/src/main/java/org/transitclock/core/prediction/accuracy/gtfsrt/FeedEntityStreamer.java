@@ -0,0 +1,90 @@
+/* (C)2023 */
+package org.transitclock.core.prediction.accuracy.gtfsrt;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.WireFormat;
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+
+/**
+ * Reads a GTFS realtime FeedMessage from a stream one entity at a time instead of parsing the
+ * whole message into memory first. For a large trip updates feed this means only a single entity
+ * is in memory at once and processing of the entities starts while the rest of the feed is still
+ * being read.
+ *
+ * <p>The header is field 1 of the FeedMessage and is written before the entities, which are
+ * field 2, so it is available when the entities are handled. If a feed doesn't have the header
+ * first then the entities before it are handled with a default, empty header. Required fields are not
+ * checked so that one incomplete entity doesn't prevent the rest of the feed from being used.
+ */
+public class FeedEntityStreamer {
+
+    /** Called for each entity in the feed */
+    @FunctionalInterface
+    public interface EntityHandler {
+        void handle(FeedHeader header, FeedEntity entity);
+    }
+
+    /** Called when the header has been read */
+    @FunctionalInterface
+    public interface HeaderHandler {
+        /** @return false to stop reading the feed, such as when it hasn't changed */
+        boolean handle(FeedHeader header);
+    }
+
+    private FeedEntityStreamer() {}
+
+    /**
+     * Reads the feed from the stream and calls the handler for each entity. The stream is read to
+     * the end but is not closed.
+     *
+     * @return number of entities read
+     * @throws IOException if the stream can't be read or isn't a valid FeedMessage
+     */
+    public static int stream(InputStream in, EntityHandler handler) throws IOException {
+        return stream(in, header -> true, handler);
+    }
+
+    /**
+     * Reads the feed from the stream and calls the handlers for the header and for each entity.
+     * The stream is read to the end, unless the header handler stops it, but is not closed.
+     *
+     * @return number of entities read
+     * @throws IOException if the stream can't be read or isn't a valid FeedMessage
+     */
+    public static int stream(InputStream in, HeaderHandler headerHandler, EntityHandler handler)
+            throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(in);
+        // The limit applies to the whole stream so can't use it to
+        // limit a feed that is read one entity at a time
+        input.setSizeLimit(Integer.MAX_VALUE);
+
+        FeedHeader header = FeedHeader.getDefaultInstance();
+        int numEntities = 0;
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case FeedMessage.HEADER_FIELD_NUMBER -> {
+                    FeedHeader.Builder builder = header.toBuilder();
+                    input.readMessage(builder, ExtensionRegistryLite.getEmptyRegistry());
+                    header = builder.buildPartial();
+                    if (!headerHandler.handle(header)) return numEntities;
+                }
+                case FeedMessage.ENTITY_FIELD_NUMBER -> {
+                    FeedEntity.Builder builder = FeedEntity.newBuilder();
+                    input.readMessage(builder, ExtensionRegistryLite.getEmptyRegistry());
+                    handler.handle(header, builder.buildPartial());
+                    ++numEntities;
+                }
+                default -> input.skipField(tag);
+            }
+            input.resetSizeCounter();
+        }
+        return numEntities;
+    }
+}
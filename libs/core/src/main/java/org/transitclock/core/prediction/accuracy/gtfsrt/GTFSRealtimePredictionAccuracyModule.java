@@ -1,468 +1,303 @@
 /* (C)2023 */
 package org.transitclock.core.prediction.accuracy.gtfsrt;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import java.net.URL;
-import java.util.Calendar;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.transitclock.core.prediction.accuracy.PredAccuracyPrediction;
 import org.transitclock.core.prediction.accuracy.PredictionAccuracyModule;
 import org.transitclock.domain.structs.ScheduleTime;
-import org.transitclock.domain.structs.StopPath;
 import org.transitclock.domain.structs.Trip;
 import org.transitclock.properties.GtfsProperties;
+import org.transitclock.utils.Time;
+import org.transitclock.utils.threading.NamedThreadFactory;
 
-import com.google.transit.realtime.GtfsRealtime.FeedEntity;
-import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeEvent;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
- * Reads in external prediction data from a GTFS realtime trip updates feed and stores the data in
+ * Reads in external prediction data from GTFS realtime trip updates feeds and stores the data in
  * memory. Then when arrivals/departures occur the prediction accuracy can be determined and stored.
  *
+ * <p>The feeds are read with FeedEntityStreamer so that each trip update is matched to the
+ * configuration and stored as it is read instead of first parsing the whole feed into memory. When
+ * there are multiple feeds they are read concurrently.
+ *
  * @author Sean Og Crudden
  */
 @Slf4j
 public class GTFSRealtimePredictionAccuracyModule extends PredictionAccuracyModule {
+    // Source for the predictions from transitclock.predAccuracy.gtfsTripUpdateUrl.
+    // The additional feeds get this plus a name for the feed.
+    private static final String SOURCE = "GTFS-rt";
+
+    // Length of the prediction_source column
+    private static final int MAX_SOURCE_LENGTH = 60;
 
     @Autowired
     GtfsProperties gtfsProperties;
+
+    // Keyed on trip ID
+    private final Map<String, StopPathIndexes> stopPathIndexesByTripId = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor feedExecutor;
+
     /**
-     * Gets GTFS realtime feed all routes from URL and return FeedMessage
+     * Reads the GTFS realtime feed from the URL and stores its predictions.
      *
-     * @return the FeedMessage to be processed
+     * @param url the feed to read
+     * @param source the source to store with the predictions
+     * @param predictionsReadTime when the predictions were read
      */
-    private FeedMessage getExternalPredictions() {
-        // Will just read all data from gtfs-rt url
-        URL url = null;
-        logger.info("Getting predictions from API using URL={}", gtfsProperties.getGtfsTripUpdateUrl());
-
-        try {
-            url = new URL(gtfsProperties.getGtfsTripUpdateUrl());
+    private void readFeed(String url, String source, Date predictionsReadTime) {
+        logger.info("Getting predictions from API using URL={}", url);
 
-            FeedMessage feed = FeedMessage.parseFrom(url.openStream());
-            logger.info("Prediction read successfully from URL={}", gtfsProperties.getGtfsTripUpdateUrl());
-
-            return feed;
+        try (InputStream in = new URL(url).openStream()) {
+            int numPredictions = processFeed(in, source, predictionsReadTime);
+            logger.info("Read {} predictions successfully from URL={}", numPredictions, url);
         } catch (Exception e) {
             logger.error("Problem when getting data from GTFS realtime trip updates URL={}", url, e);
-            return null;
         }
     }
 
     /**
-     * Takes data from XML Document object and processes it and calls storePrediction() on the
-     * predictions.
+     * Reads a GTFS realtime trip updates feed from the stream, one entity at a time, and stores
+     * the predictions in memory. The stream can be from a URL or, such as for testing, a local
+     * protobuf file.
      *
-     * @param feed
-     * @param predictionsReadTime
+     * @param in the feed. Not closed.
+     * @param source the source to store with the predictions
+     * @param predictionsReadTime when the predictions were read
+     * @return number of predictions read from the feed
+     * @throws IOException if the feed can't be read
      */
-    private void processExternalPredictions(FeedMessage feed, Date predictionsReadTime) {
+    public int processFeed(InputStream in, String source, Date predictionsReadTime) throws IOException {
+        // Times in the feed that are a delay are relative to the schedule
+        // times, which are seconds into the day
+        long startOfDay = Time.getStartOfDay(predictionsReadTime);
 
-        // If couldn't read data from feed then can't process it
-        if (feed == null) return;
+        int[] numPredictions = {0};
+        FeedEntityStreamer.stream(in, (header, entity) -> {
+            if (entity.hasTripUpdate()) {
+                numPredictions[0] += processTripUpdate(header, entity.getTripUpdate(), source, startOfDay);
+            }
+        });
+        return numPredictions[0];
+    }
 
-        // So can look up direction in database
-        logger.info("Processing GTFS-rt feed.....");
+    /**
+     * Stores the predictions of the trip update. A StopTimeUpdate applies to its stop and the
+     * following stops of the trip up to the next StopTimeUpdate.
+     *
+     * @return number of predictions stored
+     */
+    private int processTripUpdate(FeedHeader header, TripUpdate update, String source, long startOfDay) {
+        // The trip update timestamp is the best option as it is specific to
+        // the trip update. Otherwise can't do anything else but use the
+        // feed timestamp.
+        long readTime = update.hasTimestamp() ? update.getTimestamp() : header.getTimestamp();
+        Date eventReadTime = new Date(readTime * Time.MS_PER_SEC);
+
+        String tripId = update.getTrip().getTripId();
+        StopPathIndexes stopPathIndexes = getStopPathIndexes(tripId);
+        if (stopPathIndexes == null) {
+            logger.error("Got tripTag={} but no such trip in the configuration.", tripId);
+            return 0;
+        }
+        Trip trip = stopPathIndexes.getTrip();
+
+        int numPredictions = 0;
+        List<StopTimeUpdate> stopTimes = update.getStopTimeUpdateList();
+        for (int i = 0; i < stopTimes.size(); i++) {
+            StopTimeUpdate stopTime = stopTimes.get(i);
+            if (!stopTime.hasArrival() && !stopTime.hasDeparture()) {
+                logger.debug(
+                        "No predictions for vehicleId={} for stop={}", update.getVehicle().getId(), stopTime.getStopId());
+                continue;
+            }
 
-        for (FeedEntity entity : feed.getEntityList()) {
-            if (entity.hasTripUpdate()) {
-                TripUpdate update = entity.getTripUpdate();
-                List<StopTimeUpdate> stopTimes = update.getStopTimeUpdateList();
-                Date eventReadTime = null;
-                if (update.hasTimestamp()) {
-                    /*
-                     * this is the best option as it is specific to each trip
-                     * update
-                     */
-                    eventReadTime = new Date(update.getTimestamp() * 1000);
+            int stopPathIndex = stopPathIndexes.indexOf(stopTime);
+            if (stopPathIndex < 0) {
+                if (!stopTime.hasStopSequence() && !stopTime.hasStopId()) {
+                    logger.error("StopTimeUpdate must have stop id or stop sequence set:{}", stopTime);
                 } else {
-                    /*
-                     * can't do anything else? TODO Except maybe look to see if
-                     * this has changed and then take the time it has changed as
-                     * the read time
-                     */
-                    eventReadTime = new Date(feed.getHeader().getTimestamp() * 1000);
+                    logger.error(
+                            "Not valid stop sequence {} or stop {} for trip {}.",
+                            stopTime.getStopSequence(),
+                            stopTime.getStopId(),
+                            tripId);
+                }
+                continue;
+            }
+
+            // The prediction applies up to the stop of the next StopTimeUpdate,
+            // or to the end of the trip if there isn't one that matches
+            int endIndex = stopPathIndexes.size();
+            if (i + 1 < stopTimes.size()) {
+                int nextStopPathIndex = stopPathIndexes.indexOf(stopTimes.get(i + 1));
+                if (nextStopPathIndex >= 0) endIndex = Math.max(nextStopPathIndex, stopPathIndex);
+            }
+
+            for (int index = stopPathIndex; index < endIndex; index++) {
+                ScheduleTime scheduledTime = trip.getScheduleTime(index);
+                if (scheduledTime == null) {
+                    logger.debug("No schedule time found for trip {} stop path index {}", tripId, index);
+                    continue;
                 }
 
-                for (int i = 0; i < stopTimes.size(); i++) {
-                    StopTimeUpdate stopTime = stopTimes.get(i);
-                    if (stopTime.hasArrival() || stopTime.hasDeparture()) {
-                        String direction = null;
-
-                        if (update.getTrip() != null && update.getTrip().hasDirectionId())
-                            direction = "" + update.getTrip().getDirectionId();
-
-                        if (update.getTrip() != null) {
-                            Trip trip = dbConfig.getTrip(update.getTrip().getTripId());
-                            if (trip != null) {
-                                direction = trip.getDirectionId();
-                            } else {
-                                logger.error(
-                                    "Got tripTag={} but no such trip in " + "the configuration.",
-                                    update.getTrip().getTripId());
-                            }
-                        }
-                        Trip gtfsTrip = dbConfig.getTrip(update.getTrip().getTripId());
-
-                        if (gtfsTrip != null) {
-                            logger.debug("Trip loaded.");
-                            logger.debug("Processing : \n{}", stopTime);
-                            /* use stop as means for getting scheduled time */
-
-                            int stopPathIndex = -1;
-                            if (stopTime.hasStopSequence()) {
-                                try {
-                                    stopPathIndex = getStopPathIndex(gtfsTrip, stopTime.getStopSequence());
-                                } catch (Exception e) {
-                                    logger.error(
-                                        "Not valid stop sequence {} for trip {}.",
-                                        stopTime.getStopSequence(),
-                                        gtfsTrip.getId());
-                                }
-                            } else if (stopTime.hasStopId() && !stopTime.hasStopSequence()) {
-                                StopPath stopPath = gtfsTrip.getStopPath(stopTime.getStopId());
-                                // StopPath stopPath = getStopPath(gtfsTrip,
-                                // stopTime.getStopSequence());
-
-                                if (stopPath != null) {
-                                    logger.debug(stopPath.toString());
-                                }
-
-                                stopPathIndex = getStopPathIndex(gtfsTrip, stopPath);
-
-                            } else {
-                                logger.error("StopTimeUpdate must have stop id or stop sequence set:{}", stopTime);
-                            }
-
-                            if (stopPathIndex >= 0) {
-                                logger.debug("StopPathIndex : {}", stopPathIndex);
-                                int nextStopIndexIncrement = 0;
-                                StopTimeUpdate nextStopTime = null;
-
-                                if (i + 1 < stopTimes.size()) {
-                                    nextStopTime = stopTimes.get(i + 1);
-                                }
-
-                                while ((nextStopTime != null && !stopTimeMatchesStopPath(nextStopTime, gtfsTrip.getStopPath(stopPathIndex + nextStopIndexIncrement)))
-                                    || (nextStopTime == null && (stopPathIndex + nextStopIndexIncrement) < gtfsTrip.getStopPaths().size())) {
-                                    ScheduleTime scheduledTime = null;
-
-                                    scheduledTime = gtfsTrip.getScheduleTime(stopPathIndex + nextStopIndexIncrement);
-                                    String stopId = gtfsTrip.getStopPath(stopPathIndex + nextStopIndexIncrement)
-                                        .getStopId();
-
-                                    nextStopIndexIncrement++;
-
-                                    if (scheduledTime != null) {
-                                        logger.debug(scheduledTime.toString());
-                                    } else {
-                                        logger.debug("No schedule time found");
-                                    }
-
-                                    Date eventTime = null;
-                                    if (scheduledTime != null) {
-                                        eventTime = null;
-                                        if (stopTime.hasArrival()) {
-                                            if (stopTime.getArrival().hasTime()) {
-                                                eventTime = new Date(stopTime.getArrival().getTime() * 1000);
-                                            } else if (stopTime.getArrival().hasDelay()) {
-                                                int timeInSeconds = stopTime.getArrival().getDelay();
-
-                                                if (scheduledTime.getDepartureTime() != null) {
-                                                    timeInSeconds = timeInSeconds + scheduledTime.getDepartureTime();
-                                                } else if (scheduledTime.getArrivalTime() != null) {
-                                                    timeInSeconds = timeInSeconds + scheduledTime.getArrivalTime();
-                                                }
-
-                                                Calendar calendar = Calendar.getInstance();
-                                                calendar.set(Calendar.HOUR_OF_DAY, 0);
-                                                calendar.set(Calendar.MINUTE, 0);
-                                                calendar.set(Calendar.SECOND, 0);
-
-                                                calendar.add(Calendar.SECOND, timeInSeconds);
-
-                                                eventTime = calendar.getTime();
-                                                logger.debug("Event Time : {}", eventTime);
-                                                logger.debug("Time in seconds :{}", timeInSeconds);
-
-                                            } else if (update.hasDelay()) {
-
-                                                int timeInSeconds = update.getDelay();
-
-                                                if (scheduledTime.getDepartureTime() != null)
-                                                    timeInSeconds = timeInSeconds + scheduledTime.getDepartureTime();
-                                                else if (scheduledTime.getArrivalTime() != null)
-                                                    timeInSeconds = timeInSeconds + scheduledTime.getArrivalTime();
-
-                                                Calendar calendar = Calendar.getInstance();
-                                                calendar.set(Calendar.HOUR_OF_DAY, 0);
-                                                calendar.set(Calendar.MINUTE, 0);
-                                                calendar.set(Calendar.SECOND, 0);
-
-                                                calendar.add(Calendar.SECOND, timeInSeconds);
-
-                                                eventTime = calendar.getTime();
-                                                logger.debug("Event Time : {}", eventTime);
-                                                logger.debug("Time in seconds :{}", timeInSeconds);
-                                            }
-                                            if (eventTime != null) {
-                                                /*
-                                                 * TODO could be used to cache
-                                                 * read times
-                                                 */
-                                                /*
-                                                 * if (readTimesMap.get(new
-                                                 * PredictionReadTimeKey(stopId,
-                                                 * update.getVehicle().getId(),
-                                                 * eventTime.getTime())) ==
-                                                 * null) readTimesMap.put(new
-                                                 * PredictionReadTimeKey(stopId,
-                                                 * update.getVehicle().getId(),
-                                                 * eventTime.getTime()),
-                                                 * eventReadTime.getTime());
-                                                 * else eventReadTime.setTime(
-                                                 * readTimesMap.get(new
-                                                 * PredictionReadTimeKey(stopId,
-                                                 * update.getVehicle().getId(),
-                                                 * eventTime.getTime())));
-                                                 */
-                                                if (eventTime.after(eventReadTime)) {
-
-                                                    logger.info(
-                                                        "Storing external prediction"
-                                                            + " routeId={}, directionId={},"
-                                                            + " tripId={}, vehicleId={},"
-                                                            + " stopId={}, prediction={},"
-                                                            + " isArrival={}, scheduledTime={},"
-                                                            + " readTime={}",
-                                                        gtfsTrip.getRouteId(),
-                                                        direction,
-                                                        update.getTrip().getTripId(),
-                                                        update.getVehicle().getId(),
-                                                        stopId,
-                                                        eventTime,
-                                                        true,
-                                                        scheduledTime,
-                                                        eventReadTime);
-
-                                                    logger.info(
-                                                        "Prediction in milliseconds is {} and" + " converted is {}",
-                                                        eventTime.getTime(),
-                                                        eventTime);
-
-                                                    PredAccuracyPrediction pred = new PredAccuracyPrediction(
-                                                        gtfsTrip.getRouteId(),
-                                                        direction,
-                                                        stopId,
-                                                        update.getTrip().getTripId(),
-                                                        update.getVehicle().getId(),
-                                                        eventTime,
-                                                        eventReadTime,
-                                                        true,
-                                                        false,
-                                                        "GTFS-rt",
-                                                        null,
-                                                        scheduledTime.toString());
-
-                                                    storePrediction(pred);
-                                                } else {
-                                                    logger.info(
-                                                        "Discarding as prediction after event."
-                                                            + " routeId={}, directionId={},"
-                                                            + " tripId={}, vehicleId={},"
-                                                            + " stopId={}, prediction={},"
-                                                            + " isArrival={}, scheduledTime={},"
-                                                            + " readTime={}",
-                                                        gtfsTrip.getRouteId(),
-                                                        direction,
-                                                        update.getTrip().getTripId(),
-                                                        update.getVehicle().getId(),
-                                                        stopId,
-                                                        eventTime,
-                                                        true,
-                                                        scheduledTime,
-                                                        eventReadTime);
-                                                }
-                                            }
-                                        }
-                                        eventTime = null;
-                                        if (stopTime.hasDeparture()) {
-                                            if (stopTime.getDeparture().hasTime()) {
-                                                eventTime = new Date(
-                                                    stopTime.getDeparture().getTime() * 1000);
-
-                                                logger.debug("Event Time : {}", eventTime);
-                                            } else if (stopTime.getDeparture().hasDelay()) {
-
-                                                int timeInSeconds = stopTime.getDeparture().getDelay();
-
-                                                if (scheduledTime.getDepartureTime() != null) {
-                                                    timeInSeconds = timeInSeconds + scheduledTime.getDepartureTime();
-                                                } else if (scheduledTime.getArrivalTime() != null) {
-                                                    timeInSeconds = timeInSeconds + scheduledTime.getArrivalTime();
-                                                }
-
-                                                Calendar calendar = Calendar.getInstance();
-                                                calendar.set(Calendar.HOUR_OF_DAY, 0);
-                                                calendar.set(Calendar.MINUTE, 0);
-                                                calendar.set(Calendar.SECOND, 0);
-
-                                                calendar.add(Calendar.SECOND, timeInSeconds);
-
-                                                eventTime = calendar.getTime();
-                                                logger.debug("Event Time : {}", eventTime);
-                                                logger.debug("Time in seconds :{}", timeInSeconds);
-                                            } else if (update.hasDelay()) {
-                                                int timeInSeconds = update.getDelay();
-
-                                                if (scheduledTime.getDepartureTime() != null)
-                                                    timeInSeconds = timeInSeconds + scheduledTime.getDepartureTime();
-                                                else if (scheduledTime.getArrivalTime() != null)
-                                                    timeInSeconds = timeInSeconds + scheduledTime.getArrivalTime();
-
-                                                Calendar calendar = Calendar.getInstance();
-                                                calendar.set(Calendar.HOUR_OF_DAY, 0);
-                                                calendar.set(Calendar.MINUTE, 0);
-                                                calendar.set(Calendar.SECOND, 0);
-
-                                                calendar.add(Calendar.SECOND, timeInSeconds);
-
-                                                eventTime = calendar.getTime();
-                                                logger.debug("Event Time : {}", eventTime);
-                                                logger.debug("Time in seconds :{}", timeInSeconds);
-                                            }
-                                            if (eventTime != null) {
-                                                /*
-                                                 * TODO could be used to cache
-                                                 * read times
-                                                 */
-                                                /*
-                                                 * if (readTimesMap.get(new
-                                                 * PredictionReadTimeKey(stopId,
-                                                 * update.getVehicle().getId(),
-                                                 * eventTime.getTime())) ==
-                                                 * null) readTimesMap.put(new
-                                                 * PredictionReadTimeKey(stopId,
-                                                 * update.getVehicle().getId(),
-                                                 * eventTime.getTime()),
-                                                 * eventReadTime.getTime());
-                                                 * else eventReadTime.setTime(
-                                                 * readTimesMap.get(new
-                                                 * PredictionReadTimeKey(stopId,
-                                                 * update.getVehicle().getId(),
-                                                 * eventTime.getTime())));
-                                                 */
-                                                if (eventTime.after(eventReadTime)) {
-                                                    logger.info(
-                                                        "Storing external prediction"
-                                                            + " routeId={}, directionId={},"
-                                                            + " tripId={}, vehicleId={},"
-                                                            + " stopId={}, prediction={},"
-                                                            + " isArrival={}, scheduledTime={},"
-                                                            + " readTime={}",
-                                                        gtfsTrip.getRouteId(),
-                                                        direction,
-                                                        update.getTrip().getTripId(),
-                                                        update.getVehicle().getId(),
-                                                        stopId,
-                                                        eventTime,
-                                                        false,
-                                                        scheduledTime,
-                                                        eventReadTime);
-
-                                                    logger.info(
-                                                        "Prediction in milliseonds is {} and" + " converted is {}",
-                                                        eventTime.getTime(),
-                                                        eventTime);
-
-                                                    PredAccuracyPrediction pred = new PredAccuracyPrediction(
-                                                        gtfsTrip.getRouteId(),
-                                                        direction,
-                                                        stopId,
-                                                        update.getTrip().getTripId(),
-                                                        update.getVehicle().getId(),
-                                                        eventTime,
-                                                        eventReadTime,
-                                                        false,
-                                                        false,
-                                                        "GTFS-rt",
-                                                        null,
-                                                        scheduledTime.toString());
-
-                                                    storePrediction(pred);
-                                                } else {
-                                                    logger.info(
-                                                        "Discarding as prediction after event."
-                                                            + " routeId={}, directionId={},"
-                                                            + " tripId={}, vehicleId={},"
-                                                            + " stopId={}, prediction={},"
-                                                            + " isArrival={}, scheduledTime={},"
-                                                            + " readTime={}",
-                                                        gtfsTrip.getRouteId(),
-                                                        direction,
-                                                        update.getTrip().getTripId(),
-                                                        update.getVehicle().getId(),
-                                                        stopId,
-                                                        eventTime,
-                                                        false,
-                                                        scheduledTime,
-                                                        eventReadTime);
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    } else {
-                        logger.debug(
-                            "No predictions for vehicleId={} for stop={}",
-                            update.getVehicle().getId(),
-                            stopTime.getStopId());
-                    }
+                String stopId = stopPathIndexes.getStopId(index);
+                if (stopTime.hasArrival()) {
+                    Date eventTime = getEventTime(stopTime.getArrival(), update, scheduledTime, startOfDay);
+                    if (storeExternalPrediction(trip, update, stopId, eventTime, eventReadTime, true, source, scheduledTime))
+                        ++numPredictions;
+                }
+                if (stopTime.hasDeparture()) {
+                    Date eventTime = getEventTime(stopTime.getDeparture(), update, scheduledTime, startOfDay);
+                    if (storeExternalPrediction(trip, update, stopId, eventTime, eventReadTime, false, source, scheduledTime))
+                        ++numPredictions;
                 }
             }
         }
+        return numPredictions;
     }
 
-    private boolean stopTimeMatchesStopPath(StopTimeUpdate stopTimeUpdate, StopPath stopPath) {
-        if (stopTimeUpdate.hasStopSequence()) {
-            return stopTimeUpdate.getStopSequence() == stopPath.getGtfsStopSeq();
-        } else if (stopTimeUpdate.hasStopId()) {
-            return stopTimeUpdate.getStopId().equals(stopPath.getStopId());
-        } else return false;
+    /**
+     * Determines the time of the arrival or departure. Uses the time if set, otherwise the delay
+     * of the event, otherwise the delay of the trip update, added to the scheduled time.
+     *
+     * @return the event time, or null if it can't be determined
+     */
+    private static Date getEventTime(
+            StopTimeEvent event, TripUpdate update, ScheduleTime scheduledTime, long startOfDay) {
+        if (event.hasTime()) {
+            return new Date(event.getTime() * Time.MS_PER_SEC);
+        }
+
+        int timeInSeconds;
+        if (event.hasDelay()) {
+            timeInSeconds = event.getDelay();
+        } else if (update.hasDelay()) {
+            timeInSeconds = update.getDelay();
+        } else {
+            return null;
+        }
+
+        if (scheduledTime.getDepartureTime() != null) {
+            timeInSeconds += scheduledTime.getDepartureTime();
+        } else if (scheduledTime.getArrivalTime() != null) {
+            timeInSeconds += scheduledTime.getArrivalTime();
+        }
+        return new Date(startOfDay + (long) timeInSeconds * Time.MS_PER_SEC);
     }
 
-    private int getStopPathIndex(Trip gtfsTrip, int gtfsStopSequence) {
-        int index = 0;
-        for (StopPath path : gtfsTrip.getStopPaths()) {
-            if (path.getGtfsStopSeq() == gtfsStopSequence) {
-                return index;
-            }
-            index++;
+    /**
+     * Stores the prediction if it is for after the time it was read.
+     *
+     * @return true if the prediction was stored
+     */
+    private boolean storeExternalPrediction(
+            Trip trip,
+            TripUpdate update,
+            String stopId,
+            Date eventTime,
+            Date eventReadTime,
+            boolean isArrival,
+            String source,
+            ScheduleTime scheduledTime) {
+        if (eventTime == null) return false;
+
+        if (!eventTime.after(eventReadTime)) {
+            logger.debug(
+                    "Discarding as prediction after event. routeId={}, directionId={}, tripId={}, vehicleId={}, "
+                            + "stopId={}, prediction={}, isArrival={}, scheduledTime={}, readTime={}",
+                    trip.getRouteId(),
+                    trip.getDirectionId(),
+                    trip.getId(),
+                    update.getVehicle().getId(),
+                    stopId,
+                    eventTime,
+                    isArrival,
+                    scheduledTime,
+                    eventReadTime);
+            return false;
         }
-        return -1;
+
+        PredAccuracyPrediction pred = new PredAccuracyPrediction(
+                trip.getRouteId(),
+                trip.getDirectionId(),
+                stopId,
+                update.getTrip().getTripId(),
+                update.getVehicle().getId(),
+                eventTime,
+                eventReadTime,
+                isArrival,
+                false,
+                source,
+                null,
+                scheduledTime.toString());
+        logger.debug("Storing external prediction {}", pred);
+        storePrediction(pred);
+        return true;
     }
 
-    private int getStopPathIndex(Trip gtfsTrip, StopPath stopPath) {
+    /**
+     * Returns the stop path indexes for the trip, determining them the first time the trip is
+     * seen. They are determined again if the trip is no longer the same object, such as when the
+     * configuration has been reloaded.
+     *
+     * @return the stop path indexes, or null if no such trip
+     */
+    private StopPathIndexes getStopPathIndexes(String tripId) {
+        Trip trip = dbConfig.getTrip(tripId);
+        if (trip == null) return null;
+
+        StopPathIndexes stopPathIndexes = stopPathIndexesByTripId.get(tripId);
+        if (stopPathIndexes == null || stopPathIndexes.getTrip() != trip) {
+            stopPathIndexes = new StopPathIndexes(trip);
+            stopPathIndexesByTripId.put(tripId, stopPathIndexes);
+        }
+        return stopPathIndexes;
+    }
 
-        if (gtfsTrip != null && stopPath != null) {
-            for (int i = 0; i < gtfsTrip.getNumberStopPaths(); i++) {
-                if (gtfsTrip.getStopPath(i).getStopPathId().equals(stopPath.getStopPathId())) {
-                    return i;
-                }
+    /**
+     * @return the source to store for the predictions from the additional feed. Uses the host, or
+     *     for a file the file name, so that the feeds can be told apart.
+     */
+    private static String getSourceName(String url) {
+        String name;
+        try {
+            URI uri = new URI(url);
+            if (uri.getHost() != null) {
+                name = uri.getPort() >= 0 ? uri.getHost() + ":" + uri.getPort() : uri.getHost();
+            } else {
+                String path = uri.getPath() != null ? uri.getPath() : url;
+                name = path.substring(path.lastIndexOf('/') + 1);
             }
+        } catch (Exception e) {
+            name = url;
         }
-        return -1;
+        String source = SOURCE + " " + name;
+        return source.length() <= MAX_SOURCE_LENGTH ? source : source.substring(0, MAX_SOURCE_LENGTH);
     }
 
     /**
-     * Processes both the internal and external predictions
+     * Processes the external predictions
      *
      * @param routesAndStops
      * @param predictionsReadTime For keeping track of when the predictions read in. Used for
@@ -473,55 +308,50 @@ public class GTFSRealtimePredictionAccuracyModule extends PredictionAccuracyModu
      */
     @Override
     protected void getAndProcessData(List<RouteAndStops> routesAndStops, Date predictionsReadTime) {
-        // Process internal predictions
-        // super.getAndProcessData(routesAndStops, predictionsReadTime);
         logger.info("Calling GTFSRealtimePredictionAccuracyModule." + "getAndProcessData()");
-        // Get data for all items in the GTFS-RT trip updates feed
-        FeedMessage feed = getExternalPredictions();
-        processExternalPredictions(feed, predictionsReadTime);
-    }
 
-    class PredictionReadTimeKey {
-        String stopId;
-        String vehicleId;
-        long predictedTime;
-
-        public PredictionReadTimeKey(String stopId, String vehicleId, long predictedTime) {
-            this.stopId = stopId;
-            this.vehicleId = vehicleId;
-            this.predictedTime = predictedTime;
+        // Keyed on URL, with the source to store for its predictions
+        Map<String, String> sourcesByUrl = new LinkedHashMap<>();
+        if (gtfsProperties.getGtfsTripUpdateUrl() != null && !gtfsProperties.getGtfsTripUpdateUrl().isBlank()) {
+            sourcesByUrl.put(gtfsProperties.getGtfsTripUpdateUrl(), SOURCE);
         }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) return true;
-            if (obj == null) return false;
-            if (getClass() != obj.getClass()) return false;
-            PredictionReadTimeKey other = (PredictionReadTimeKey) obj;
-            if (!getOuterType().equals(other.getOuterType())) return false;
-            if (predictedTime != other.predictedTime) return false;
-            if (stopId == null) {
-                if (other.stopId != null) return false;
-            } else if (!stopId.equals(other.stopId)) return false;
-            if (vehicleId == null) {
-                return other.vehicleId == null;
-            } else return vehicleId.equals(other.vehicleId);
+        for (String url : gtfsProperties.getGtfsTripUpdateUrls()) {
+            sourcesByUrl.putIfAbsent(url, getSourceName(url));
         }
 
+        // A single feed is simply read by this thread
+        if (sourcesByUrl.size() <= 1) {
+            sourcesByUrl.forEach((url, source) -> readFeed(url, source, predictionsReadTime));
+            return;
+        }
 
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + getOuterType().hashCode();
-            result = prime * result + (int) (predictedTime ^ (predictedTime >>> 32));
-            result = prime * result + ((stopId == null) ? 0 : stopId.hashCode());
-            result = prime * result + ((vehicleId == null) ? 0 : vehicleId.hashCode());
-            return result;
+        // Read the feeds concurrently and wait for all of them so that the
+        // stale predictions are cleared after all have been stored
+        ThreadPoolExecutor executor = getFeedExecutor(sourcesByUrl.size());
+        List<Future<?>> futures = new ArrayList<>(sourcesByUrl.size());
+        sourcesByUrl.forEach((url, source) ->
+                futures.add(executor.submit(() -> readFeed(url, source, predictionsReadTime))));
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                logger.error("Problem when reading GTFS realtime trip updates feed", e.getCause());
+            }
         }
+    }
 
-        private GTFSRealtimePredictionAccuracyModule getOuterType() {
-            return GTFSRealtimePredictionAccuracyModule.this;
+    /**
+     * @return executor for reading the feeds, replaced if the number of feeds has grown
+     */
+    private synchronized ThreadPoolExecutor getFeedExecutor(int numFeeds) {
+        if (feedExecutor == null || feedExecutor.getCorePoolSize() < numFeeds) {
+            if (feedExecutor != null) feedExecutor.shutdown();
+            feedExecutor = (ThreadPoolExecutor)
+                    Executors.newFixedThreadPool(numFeeds, new NamedThreadFactory("GtfsRtPredAccuracy"));
         }
+        return feedExecutor;
     }
 }
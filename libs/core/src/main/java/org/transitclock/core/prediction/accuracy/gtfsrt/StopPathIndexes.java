@@ -0,0 +1,87 @@
+/* (C)2023 */
+package org.transitclock.core.prediction.accuracy.gtfsrt;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.transitclock.domain.structs.StopPath;
+import org.transitclock.domain.structs.Trip;
+
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
+
+/**
+ * For a trip, the stop path index for each GTFS stop sequence and stop ID. Determined once per
+ * trip so that each StopTimeUpdate of a trip updates feed can be matched to its stop path without
+ * looking through all the stop paths of the trip.
+ */
+class StopPathIndexes {
+    private final Trip trip;
+    private final int[] gtfsStopSeqs;
+    private final String[] stopIds;
+    // Stop sequences are supposed to increase along the trip, in which case
+    // can use a binary search
+    private final boolean stopSeqsIncreasing;
+    // Index of the first stop path for each stop ID since a stop can be
+    // visited more than once by a trip
+    private final Map<String, Integer> indexByStopId;
+
+    StopPathIndexes(Trip trip) {
+        this.trip = trip;
+        List<StopPath> stopPaths = trip.getStopPaths();
+        gtfsStopSeqs = new int[stopPaths.size()];
+        stopIds = new String[stopPaths.size()];
+        indexByStopId = new HashMap<>(stopPaths.size() * 2);
+        boolean increasing = true;
+        for (int i = 0; i < stopPaths.size(); i++) {
+            StopPath stopPath = stopPaths.get(i);
+            gtfsStopSeqs[i] = stopPath.getGtfsStopSeq();
+            stopIds[i] = stopPath.getStopId();
+            indexByStopId.putIfAbsent(stopPath.getStopId(), i);
+            if (i > 0 && gtfsStopSeqs[i] <= gtfsStopSeqs[i - 1]) increasing = false;
+        }
+        stopSeqsIncreasing = increasing;
+    }
+
+    /** @return the trip that the indexes are for */
+    Trip getTrip() {
+        return trip;
+    }
+
+    /** @return number of stop paths for the trip */
+    int size() {
+        return gtfsStopSeqs.length;
+    }
+
+    /** @return the stop ID of the stop path */
+    String getStopId(int stopPathIndex) {
+        return stopIds[stopPathIndex];
+    }
+
+    /**
+     * Returns the stop path index for the StopTimeUpdate. Uses the stop sequence if it is set,
+     * otherwise the stop ID.
+     *
+     * @return the stop path index, or -1 if no matching stop path or neither is set
+     */
+    int indexOf(StopTimeUpdate stopTimeUpdate) {
+        if (stopTimeUpdate.hasStopSequence()) {
+            return indexOfStopSeq(stopTimeUpdate.getStopSequence());
+        } else if (stopTimeUpdate.hasStopId()) {
+            return indexByStopId.getOrDefault(stopTimeUpdate.getStopId(), -1);
+        }
+        return -1;
+    }
+
+    private int indexOfStopSeq(int gtfsStopSeq) {
+        if (stopSeqsIncreasing) {
+            int index = Arrays.binarySearch(gtfsStopSeqs, gtfsStopSeq);
+            return index >= 0 ? index : -1;
+        }
+        for (int i = 0; i < gtfsStopSeqs.length; i++) {
+            if (gtfsStopSeqs[i] == gtfsStopSeq) return i;
+        }
+        return -1;
+    }
+}
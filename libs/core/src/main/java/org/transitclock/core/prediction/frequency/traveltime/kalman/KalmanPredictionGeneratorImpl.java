@@ -27,11 +27,8 @@ import org.transitclock.core.prediction.PredictionComponentElementsGenerator;
 import org.transitclock.core.prediction.bias.BiasAdjuster;
 import org.transitclock.core.prediction.datafilter.TravelTimeDataFilter;
 import org.transitclock.core.prediction.frequency.traveltime.average.HistoricalAveragePredictionGeneratorImpl;
-import org.transitclock.core.prediction.kalman.KalmanPrediction;
-import org.transitclock.core.prediction.kalman.KalmanPredictionResult;
-import org.transitclock.core.prediction.kalman.TripSegment;
-import org.transitclock.core.prediction.kalman.Vehicle;
-import org.transitclock.core.prediction.kalman.VehicleStopDetail;
+import org.transitclock.core.prediction.kalman.KalmanBatch;
+import org.transitclock.core.prediction.kalman.KalmanEngine;
 import org.transitclock.domain.hibernate.DataDbLogger;
 import org.transitclock.domain.structs.AvlReport;
 import org.transitclock.domain.structs.PredictionForStopPath;
@@ -51,6 +48,10 @@ import org.apache.commons.lang3.time.DateUtils;
 public class KalmanPredictionGeneratorImpl extends HistoricalAveragePredictionGeneratorImpl implements PredictionComponentElementsGenerator {
     private final String alternative = "LastVehiclePredictionGeneratorImpl";
     protected final ErrorCache kalmanErrorCache;
+    private final KalmanEngine kalmanEngine;
+
+    // Reused between stop paths so that running the filter does not allocate
+    private final ThreadLocal<KalmanBatch> kalmanBatch = ThreadLocal.withInitial(KalmanBatch::new);
 
     public KalmanPredictionGeneratorImpl(StopArrivalDepartureCacheInterface stopArrivalDepartureCacheInterface,
                                          TripDataHistoryCacheInterface tripDataHistoryCacheInterface,
@@ -70,6 +71,7 @@ public class KalmanPredictionGeneratorImpl extends HistoricalAveragePredictionGe
                                          ErrorCache kalmanErrorCache) {
         super(stopArrivalDepartureCacheInterface, tripDataHistoryCacheInterface, dbConfig, dataDbLogger, travelTimeDataFilter, properties, vehicleCache, holdingTimeCache, stopPathPredictionCache, travelTimes, holdingTimeGenerator, vehicleStatusManager, realTimeSchedAdhProcessor, biasAdjuster, frequencyBasedHistoricalAverageCache);
         this.kalmanErrorCache = kalmanErrorCache;
+        this.kalmanEngine = new KalmanEngine(properties.getData().getKalman());
     }
 
     /*
@@ -130,45 +132,34 @@ public class KalmanPredictionGeneratorImpl extends HistoricalAveragePredictionGe
 
                     try {
 
-                        KalmanPrediction kalmanPrediction = new KalmanPrediction(predictionProperties.getData().getKalman());
+                        Indices previousVehicleIndices = new Indices(travelTimeDetails.getArrival(), dbConfig);
 
-                        KalmanPredictionResult kalmanPredictionResult;
+                        KalmanError last_prediction_error =
+                                lastVehiclePredictionError(kalmanErrorCache, previousVehicleIndices);
 
-                        Vehicle vehicle = new Vehicle(avlReport.getVehicleId());
+                        logger.debug("Using error value: {} found with vehicle id {} from: {}", last_prediction_error, travelTimeDetails.getArrival().getVehicleId(), new KalmanErrorCacheKey(previousVehicleIndices));
 
-                        VehicleStopDetail originDetail = new VehicleStopDetail(null, 0, vehicle);
-                        TripSegment[] historical_segments_k = new TripSegment[lastDaysTimes.size()];
-                        for (int i = 0; i < lastDaysTimes.size() && i < predictionProperties.getData().getKalman().getMaxdays(); i++) {
+                        KalmanBatch batch = kalmanBatch.get();
+                        batch.clear();
+                        int index = batch.addStopPath(travelTimeDetails.getTravelTime(), last_prediction_error.getError());
 
+                        for (int i = 0; i < lastDaysTimes.size() && i < predictionProperties.getData().getKalman().getMaxdays(); i++) {
                             logger.debug("Kalman is using historical value : {} for : {}", lastDaysTimes.get(i), indices);
-
-                            VehicleStopDetail destinationDetail = new VehicleStopDetail(
-                                    null, lastDaysTimes.get(i).getTravelTime(), vehicle);
-                            historical_segments_k[i] = new TripSegment(originDetail, destinationDetail);
+                            batch.addHistoricalDuration(lastDaysTimes.get(i).getTravelTime());
                         }
 
-                        VehicleStopDetail destinationDetail_0_k_1 =
-                                new VehicleStopDetail(null, travelTimeDetails.getTravelTime(), vehicle);
-
-                        TripSegment ts_day_0_k_1 = new TripSegment(originDetail, destinationDetail_0_k_1);
+                        kalmanEngine.predict(batch);
 
-                        TripSegment last_vehicle_segment = ts_day_0_k_1;
-
-                        Indices previousVehicleIndices = new Indices(travelTimeDetails.getArrival(), dbConfig);
-
-                        KalmanError last_prediction_error =
-                                lastVehiclePredictionError(kalmanErrorCache, previousVehicleIndices);
-
-                        logger.debug("Using error value: {} found with vehicle id {} from: {}", last_prediction_error, travelTimeDetails.getArrival().getVehicleId(), new KalmanErrorCacheKey(previousVehicleIndices));
-
-                        kalmanPredictionResult = kalmanPrediction.predict(
-                                last_vehicle_segment, historical_segments_k, last_prediction_error.getError());
+                        if (Double.isNaN(batch.getPrediction(index))) {
+                            logger.error("Cannot average nothing for : {}", indices);
+                            return alternatePrediction;
+                        }
 
-                        long predictionTime = (long) kalmanPredictionResult.getResult();
+                        long predictionTime = (long) batch.getPrediction(index);
 
-                        logger.debug("Setting Kalman error value: {} for : {}", kalmanPredictionResult.getFilterError(), new KalmanErrorCacheKey(indices));
+                        logger.debug("Setting Kalman error value: {} for : {}", batch.getFilterError(index), new KalmanErrorCacheKey(indices));
 
-                        kalmanErrorCache.putErrorValue(indices, kalmanPredictionResult.getFilterError());
+                        kalmanErrorCache.putErrorValue(indices, batch.getFilterError(index));
 
                         logger.debug("Using Kalman prediction: {} instead of {} prediction: {} for : {}", predictionTime, alternative, alternatePrediction, indices);
 
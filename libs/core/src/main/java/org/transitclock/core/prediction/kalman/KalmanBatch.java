@@ -0,0 +1,99 @@
+/* (C)2023 */
+package org.transitclock.core.prediction.kalman;
+
+import java.util.Arrays;
+
+/**
+ * Primitive input and output buffers for running the Kalman filter over several stop paths at
+ * once, e.g. the whole prediction horizon of a vehicle. The arrays grow as needed and are reused
+ * after {@link #clear()}, so a batch kept per thread does not allocate once it has warmed up.
+ *
+ * <p>Historical durations for stop path i are stored in historicalDurations between
+ * historicalOffsets[i] and historicalOffsets[i + 1], in the same order as the historical segments
+ * passed to {@link KalmanPrediction#predict}.
+ */
+public class KalmanBatch {
+    private static final int INITIAL_CAPACITY = 16;
+
+    int count;
+    int historicalCount;
+
+    long[] historicalDurations = new long[INITIAL_CAPACITY * 4];
+    int[] historicalOffsets = new int[INITIAL_CAPACITY + 1];
+    long[] lastVehicleDurations = new long[INITIAL_CAPACITY];
+    double[] lastPredictionErrors = new double[INITIAL_CAPACITY];
+
+    double[] predictions = new double[INITIAL_CAPACITY];
+    double[] filterErrors = new double[INITIAL_CAPACITY];
+
+    /** Empties the batch so it can be reused. */
+    public void clear() {
+        count = 0;
+        historicalCount = 0;
+        historicalOffsets[0] = 0;
+    }
+
+    /**
+     * Starts a new stop path. The historical durations for it are then added with {@link
+     * #addHistoricalDuration(long)}.
+     *
+     * @param lastVehicleDuration time the last vehicle took to cover the stop path
+     * @param lastPredictionError filter error from the last vehicle's prediction
+     * @return index of the stop path within the batch
+     */
+    public int addStopPath(long lastVehicleDuration, double lastPredictionError) {
+        if (count == lastVehicleDurations.length) {
+            int capacity = count * 2;
+            lastVehicleDurations = Arrays.copyOf(lastVehicleDurations, capacity);
+            lastPredictionErrors = Arrays.copyOf(lastPredictionErrors, capacity);
+            predictions = Arrays.copyOf(predictions, capacity);
+            filterErrors = Arrays.copyOf(filterErrors, capacity);
+            historicalOffsets = Arrays.copyOf(historicalOffsets, capacity + 1);
+        }
+        lastVehicleDurations[count] = lastVehicleDuration;
+        lastPredictionErrors[count] = lastPredictionError;
+        count++;
+        historicalOffsets[count] = historicalCount;
+        return count - 1;
+    }
+
+    /** Adds a historical duration to the stop path most recently added. */
+    public void addHistoricalDuration(long duration) {
+        if (historicalCount == historicalDurations.length) {
+            historicalDurations = Arrays.copyOf(historicalDurations, historicalCount * 2);
+        }
+        historicalDurations[historicalCount++] = duration;
+        historicalOffsets[count] = historicalCount;
+    }
+
+    public void setLastPredictionError(int index, double lastPredictionError) {
+        lastPredictionErrors[index] = lastPredictionError;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int historicalSize(int index) {
+        return historicalOffsets[index + 1] - historicalOffsets[index];
+    }
+
+    public double getLastPredictionError(int index) {
+        return lastPredictionErrors[index];
+    }
+
+    /**
+     * @return the predicted duration, or NaN if the stop path had no historical durations
+     */
+    public double getPrediction(int index) {
+        return predictions[index];
+    }
+
+    /**
+     * @return the filter error to store for the stop path, or NaN if the stop path had no
+     *     historical durations
+     */
+    public double getFilterError(int index) {
+        return filterErrors[index];
+    }
+}
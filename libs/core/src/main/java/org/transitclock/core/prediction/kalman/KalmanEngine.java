@@ -0,0 +1,64 @@
+/* (C)2023 */
+package org.transitclock.core.prediction.kalman;
+
+import org.transitclock.properties.PredictionProperties;
+
+/**
+ * Primitive, batched form of {@link KalmanPrediction}. Runs the filter for every stop path in a
+ * {@link KalmanBatch} in a single pass without creating any objects. The results are identical to
+ * calling {@link KalmanPrediction#predict} for each stop path with the same durations.
+ */
+public class KalmanEngine {
+
+    private final boolean useAverage;
+
+    public KalmanEngine(PredictionProperties.Data.Kalman kalmanProperties) {
+        this.useAverage = kalmanProperties.getUseaverage();
+    }
+
+    /**
+     * Fills in the predictions and filter errors of the batch. Stop paths without historical
+     * durations get NaN for both since there is nothing to average.
+     *
+     * @param batch the stop paths to predict
+     */
+    public void predict(KalmanBatch batch) {
+        long[] historical = batch.historicalDurations;
+        int[] offsets = batch.historicalOffsets;
+
+        for (int i = 0; i < batch.count; i++) {
+            int from = offsets[i];
+            int to = offsets[i + 1];
+            int n = to - from;
+
+            if (n == 0) {
+                batch.predictions[i] = Double.NaN;
+                batch.filterErrors[i] = Double.NaN;
+                continue;
+            }
+
+            long total = 0;
+            for (int j = from; j < to; j++) {
+                total += historical[j];
+            }
+            // Integer division is intentional, it matches KalmanPrediction
+            double average = (double) (total / n);
+
+            double sumSquares = 0;
+            for (int j = from; j < to; j++) {
+                double diff = historical[j] - average;
+                sumSquares += diff * diff;
+            }
+            double variance = sumSquares / n;
+
+            double lastPredictionError = batch.lastPredictionErrors[i];
+            double gain = (lastPredictionError + variance) / (lastPredictionError + (2 * variance));
+            double loopGain = 1 - gain;
+
+            double historicalDuration = useAverage ? average : historical[to - 1];
+
+            batch.predictions[i] = (loopGain * batch.lastVehicleDurations[i]) + (gain * historicalDuration);
+            batch.filterErrors[i] = variance * gain;
+        }
+    }
+}
@@ -24,10 +24,8 @@ public class DwellRLS implements DwellModel {
 
     @Override
     public Integer predict(Integer headway, Integer demand) {
-        double[] arg0 = new double[1];
-        arg0[0] = headway;
-        if (rls.getRls() != null) return (int) Math.pow(10, rls.getRls().predict(arg0));
-        else return null;
+        if (!rls.isInitialized()) return null;
+        return (int) Math.pow(10, rls.predict(headway));
     }
 
     @Override
@@ -4,11 +4,14 @@ package org.transitclock.core.prediction.scheduled.dwell;
 import org.transitclock.config.ClassConfigValue;
 import org.transitclock.properties.PredictionProperties;
 
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Scope;
 
 /**
- * @author scrudden Returns the model that is to be used to estimate dwell time for a stop.
+ * @author scrudden Returns the model that is to be used to estimate dwell time for a stop. Each
+ *     stop path needs its own model so the bean is a prototype.
  */
 @Configuration
 public class DwellTimeModelFactory {
@@ -19,6 +22,7 @@ public class DwellTimeModelFactory {
             "Specifies the name of the class used to predict dwell.");
 
     @Bean
+    @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
     public DwellModel dwellModel(PredictionProperties properties) {
         if (className.getValue() == DwellAverage.class) {
             return new DwellAverage(properties.getDwell().getAverage());
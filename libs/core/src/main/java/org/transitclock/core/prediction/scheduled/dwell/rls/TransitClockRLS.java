@@ -1,63 +1,164 @@
 /* (C)2023 */
 package org.transitclock.core.prediction.scheduled.dwell.rls;
 
-import java.io.Serializable;
-import smile.regression.RLS;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
-public class TransitClockRLS implements Serializable {
+/**
+ * Recursive least squares with exponential forgetting for a single feature plus intercept, i.e.
+ * the model is y = slope * x + intercept. The state is held in primitive fields so that adding a
+ * sample or predicting does not allocate.
+ *
+ * <p>The first two samples with distinct x values are used to solve the model exactly and to
+ * initialise the inverse correlation matrix P = (X'X)^-1. Every further sample updates the
+ * coefficients with the usual RLS recursion:
+ *
+ * <pre>
+ *   k = P x / (lambda + x' P x)
+ *   w = w + k (y - w' x)
+ *   P = (P - k x' P) / lambda
+ * </pre>
+ */
+public class TransitClockRLS implements Externalizable {
+
+    private static final long serialVersionUID = -5863984357400905561L;
+
+    private double lambda;
+
+    // First sample, kept until a second sample with a different x arrives
+    private boolean hasFirst;
+    private double firstx;
+    private double firsty;
+
+    // Model coefficients
+    private boolean initialized;
+    private double slope;
+    private double intercept;
+
+    // Symmetric 2x2 inverse correlation matrix [[p00, p01], [p01, p11]]
+    private double p00;
+    private double p01;
+    private double p11;
+
+    private int samples;
+
+    /** Only for deserialization. */
+    public TransitClockRLS() {}
 
     /**
-     * @param lambda
+     * @param lambda forgetting factor, between 0 and 1 with 0 being the most forgetful
      */
     public TransitClockRLS(double lambda) {
-        super();
         this.lambda = lambda;
     }
 
-    public RLS getRls() {
-        return rls;
+    public void addSample(double x, double y) {
+        samples++;
+
+        if (initialized) {
+            update(x, y);
+        } else if (!hasFirst) {
+            firstx = x;
+            firsty = y;
+            hasFirst = true;
+        } else if (x == firstx) {
+            // Can't solve with two identical x values, so combine them and wait for another x
+            firsty = (firsty + y) / 2;
+        } else {
+            initialize(x, y);
+        }
     }
 
-    private final double lambda;
-    Double firstx = null;
-    Double firsty = null;
-    private Integer samples = 0;
-    RLS rls = null;
+    private void initialize(double x, double y) {
+        slope = (y - firsty) / (x - firstx);
+        intercept = firsty - slope * firstx;
 
-    private static final long serialVersionUID = -5863984357400905560L;
+        // Inverse of X'X where X = [[firstx, 1], [x, 1]]
+        double det = (x - firstx) * (x - firstx);
+        p00 = 2 / det;
+        p01 = -(firstx + x) / det;
+        p11 = (firstx * firstx + x * x) / det;
 
-    public void addSample(double d, double e) {
+        initialized = true;
+    }
 
-        samples++;
+    private void update(double x, double y) {
+        double px0 = p00 * x + p01;
+        double px1 = p01 * x + p11;
+        double denominator = lambda + x * px0 + px1;
 
-        if (firstx == null && firsty == null) {
-            this.firstx = d;
-            this.firsty = e;
-        } else {
+        // Leave the model alone rather than poisoning it with NaN/Infinity
+        if (!(denominator > 0) || Double.isInfinite(denominator)) return;
 
-            if (rls == null) {
-                double[][] samplex = new double[2][1];
-                double[] sampley = new double[2];
+        double k0 = px0 / denominator;
+        double k1 = px1 / denominator;
 
-                samplex[0][0] = firstx;
-                sampley[0] = firsty;
+        double error = y - predict(x);
+        slope += k0 * error;
+        intercept += k1 * error;
 
-                samplex[1][0] = d;
-                sampley[1] = e;
-                rls = new RLS(samplex, sampley, lambda);
-            } else {
-                double[][] samplex = new double[1][1];
-                double[] sampley = new double[1];
+        p00 = (p00 - k0 * px0) / lambda;
+        p01 = (p01 - k0 * px1) / lambda;
+        p11 = (p11 - k1 * px1) / lambda;
+    }
 
-                samplex[0][0] = d;
-                sampley[0] = e;
+    /**
+     * @return the predicted y for x, or NaN if not enough samples have been added yet
+     */
+    public double predict(double x) {
+        if (!initialized) return Double.NaN;
+        return slope * x + intercept;
+    }
 
-                rls.learn(samplex, sampley);
-            }
-        }
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    public double getSlope() {
+        return slope;
+    }
+
+    public double getIntercept() {
+        return intercept;
     }
 
-    public Integer numSamples() {
+    public int numSamples() {
         return samples;
     }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeDouble(lambda);
+        out.writeInt(samples);
+        out.writeBoolean(hasFirst);
+        out.writeDouble(firstx);
+        out.writeDouble(firsty);
+        out.writeBoolean(initialized);
+        if (initialized) {
+            out.writeDouble(slope);
+            out.writeDouble(intercept);
+            out.writeDouble(p00);
+            out.writeDouble(p01);
+            out.writeDouble(p11);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        lambda = in.readDouble();
+        samples = in.readInt();
+        hasFirst = in.readBoolean();
+        firstx = in.readDouble();
+        firsty = in.readDouble();
+        initialized = in.readBoolean();
+        if (initialized) {
+            slope = in.readDouble();
+            intercept = in.readDouble();
+            p00 = in.readDouble();
+            p01 = in.readDouble();
+            p11 = in.readDouble();
+        }
+    }
 }
@@ -38,6 +38,11 @@ public class KalmanPredictionGeneratorImpl extends PredictionGeneratorDefaultImp
 
     private final ErrorCache kalmanErrorCache;
 
+    private final KalmanEngine kalmanEngine;
+
+    // Reused between stop paths so that running the filter does not allocate
+    private final ThreadLocal<KalmanBatch> kalmanBatch = ThreadLocal.withInitial(KalmanBatch::new);
+
     public KalmanPredictionGeneratorImpl(StopArrivalDepartureCacheInterface stopArrivalDepartureCacheInterface,
                                          TripDataHistoryCacheInterface tripDataHistoryCacheInterface,
                                          DbConfig dbConfig,
@@ -47,6 +52,7 @@ public class KalmanPredictionGeneratorImpl extends PredictionGeneratorDefaultImp
                                          HoldingTimeCache holdingTimeCache, StopPathPredictionCache stopPathPredictionCache, TravelTimes travelTimes, HoldingTimeGenerator holdingTimeGenerator, VehicleStatusManager vehicleStatusManager, RealTimeSchedAdhProcessor realTimeSchedAdhProcessor, BiasAdjuster biasAdjuster, ErrorCache kalmanErrorCache) {
         super(stopArrivalDepartureCacheInterface, tripDataHistoryCacheInterface, dbConfig, dataDbLogger, travelTimeDataFilter, properties, holdingTimeCache, stopPathPredictionCache, travelTimes, holdingTimeGenerator, vehicleStatusManager, realTimeSchedAdhProcessor, biasAdjuster);
         this.kalmanErrorCache = kalmanErrorCache;
+        this.kalmanEngine = new KalmanEngine(properties.getData().getKalman());
     }
 
     /*
@@ -98,24 +104,6 @@ public class KalmanPredictionGeneratorImpl extends PredictionGeneratorDefaultImp
 
                     logger.debug("Generating Kalman prediction for : {}", indices);
                     try {
-                        KalmanPrediction kalmanPrediction = new KalmanPrediction(predictionProperties.getData().getKalman());
-                        KalmanPredictionResult kalmanPredictionResult;
-                        Vehicle vehicle = new Vehicle(avlReport.getVehicleId());
-                        VehicleStopDetail originDetail = new VehicleStopDetail(null, 0, vehicle);
-                        TripSegment[] historical_segments_k = new TripSegment[lastDaysTimes.size()];
-
-                        for (int i = 0; i < lastDaysTimes.size() && i < predictionProperties.getData().getKalman().getMaxdays(); i++) {
-                            logger.debug("Kalman is using historical value : {} for : {}", lastDaysTimes.get(i), indices);
-
-                            VehicleStopDetail destinationDetail = new VehicleStopDetail(null, lastDaysTimes.get(i).getTravelTime(), vehicle);
-                            historical_segments_k[lastDaysTimes.size() - i - 1] = new TripSegment(originDetail, destinationDetail);
-                        }
-
-                        VehicleStopDetail destinationDetail_0_k_1 =
-                                new VehicleStopDetail(null, travelTimeDetails.getTravelTime(), vehicle);
-
-                        TripSegment ts_day_0_k_1 = new TripSegment(originDetail, destinationDetail_0_k_1);
-                        TripSegment last_vehicle_segment = ts_day_0_k_1;
                         Indices previousVehicleIndices = new Indices(travelTimeDetails.getArrival(), dbConfig);
 
                         KalmanError last_prediction_error =
@@ -129,14 +117,28 @@ public class KalmanPredictionGeneratorImpl extends PredictionGeneratorDefaultImp
                         // the last one.
                         logger.debug("Using last vehicle value: {} for : {}", travelTimeDetails, indices);
 
-                        kalmanPredictionResult = kalmanPrediction.predict(
-                                last_vehicle_segment, historical_segments_k, last_prediction_error.getError());
+                        KalmanBatch batch = kalmanBatch.get();
+                        batch.clear();
+                        int index = batch.addStopPath(travelTimeDetails.getTravelTime(), last_prediction_error.getError());
+
+                        // Oldest day first so that the most recent day is last
+                        for (int i = Math.min(lastDaysTimes.size(), predictionProperties.getData().getKalman().getMaxdays()) - 1; i >= 0; i--) {
+                            logger.debug("Kalman is using historical value : {} for : {}", lastDaysTimes.get(i), indices);
+                            batch.addHistoricalDuration(lastDaysTimes.get(i).getTravelTime());
+                        }
+
+                        kalmanEngine.predict(batch);
+
+                        if (Double.isNaN(batch.getPrediction(index))) {
+                            logger.error("Cannot average nothing for : {}", indices);
+                            return alternatePrediction;
+                        }
 
-                        long predictionTime = (long) kalmanPredictionResult.getResult();
+                        long predictionTime = (long) batch.getPrediction(index);
 
-                        logger.debug("Setting Kalman error value: {} for : {}", kalmanPredictionResult.getFilterError(), new KalmanErrorCacheKey(indices));
+                        logger.debug("Setting Kalman error value: {} for : {}", batch.getFilterError(index), new KalmanErrorCacheKey(indices));
 
-                        kalmanErrorCache.putErrorValue(indices, kalmanPredictionResult.getFilterError());
+                        kalmanErrorCache.putErrorValue(indices, batch.getFilterError(index));
 
                         double percentageDifferecence =
                                 Math.abs(100 * ((predictionTime - alternatePrediction) / (double) alternatePrediction));
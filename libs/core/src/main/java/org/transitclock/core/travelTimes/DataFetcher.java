@@ -5,10 +5,17 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+
+import org.transitclock.domain.hibernate.HibernateUtils;
 import org.transitclock.domain.structs.ActiveRevision;
 import org.transitclock.domain.structs.Agency;
 import org.transitclock.domain.structs.ArrivalDeparture;
@@ -28,12 +35,9 @@ import lombok.extern.slf4j.Slf4j;
 public class DataFetcher {
 
     private final UpdatesProperties updatesProperties;
-    // The data ends up in arrivalDepartureMap and matchesMap.
-    // It is keyed by DbDataMapKey which means that data is grouped
+    // The data is keyed by DbDataMapKey which means that data is grouped
     // per vehicle trip. This way can later subsequent arrivals/departures
     // for a vehicle trip to determine travel and stop times.
-    private Map<DbDataMapKey, List<ArrivalDeparture>> arrivalDepartureMap;
-    private Map<DbDataMapKey, List<Match>> matchesMap;
 
     //	private Map<String, Calendar> gtfsCalendars = null;
     private java.util.Calendar calendar = null;
@@ -170,6 +174,14 @@ public class DataFetcher {
         return new DbDataMapKey(serviceId, dayOfYear(date), tripId, vehicleId);
     }
 
+    /**
+     * The historic data for a single vehicle trip, for a single day. The arrivals/departures are
+     * ordered by time and the matches by avlTime so that they can be processed in the same way that
+     * the vehicle traveled.
+     */
+    public record TripData(
+            DbDataMapKey key, List<ArrivalDeparture> arrivalDepartures, List<Match> matches) {}
+
     /**
      * Adds the arrival/departure to the map.
      *
@@ -183,92 +195,7 @@ public class DataFetcher {
     }
 
     /**
-     * Reads arrivals/departures from db into so can be processed.
-     *
-     * @param dbName
-     * @param beginTime
-     * @param endTime
-     * @return
-     */
-    public Map<DbDataMapKey, List<ArrivalDeparture>> readArrivalsDepartures(String dbName, Date beginTime, Date endTime) {
-        Map<DbDataMapKey, List<ArrivalDeparture>> resultsMap = new HashMap<>();
-
-        // For keeping track of which rows should be returned by the batch.
-        int firstResult = 0;
-        // Batch size of 50k found to be significantly faster than 10k,
-        // by about a factor of 2. Since sometimes using really large
-        // batches of data using 500k
-        final int batchSize = updatesProperties.getPageSize();
-        final boolean pageDbReads = updatesProperties.getPageDbReads();
-
-        long count = ArrivalDeparture.getArrivalsDeparturesCountFromDb(dbName, beginTime, endTime, null);
-        if (count == 0) {
-            logger.warn("No arrival/departures found");
-            return resultsMap;
-        }
-
-        if (!pageDbReads) {
-            Date pageBeginTime = beginTime;
-            Date pageEndTime = new Date(beginTime.getTime() + Time.MS_PER_DAY);
-            int runningCount = 0;
-
-            List<ArrivalDeparture> arrDepBatchList;
-            do {
-                logger.info("querying a/d for between {} and {}", pageBeginTime, pageEndTime);
-                arrDepBatchList = ArrivalDeparture.getArrivalsDeparturesFromDb(
-                        pageBeginTime,
-                        pageEndTime,
-                        // Order results by time so that process them in the same
-                        // way that a vehicle travels.
-                        "ORDER BY time", // SQL clause
-                        null,
-                        null,
-                        null); // arrivalOrDeparture. Null means read in both
-
-                // Add arrivals/departures to map
-                for (ArrivalDeparture arrDep : arrDepBatchList) {
-                    addArrivalDepartureToMap(resultsMap, arrDep);
-                }
-                runningCount += arrDepBatchList.size();
-                logger.info("Read in total of {} a/ds of {} {}%", runningCount, count, (0.0 + runningCount) / count * 100);
-
-                pageBeginTime = pageEndTime;
-                pageEndTime = new Date(Math.min(pageBeginTime.getTime() + Time.MS_PER_DAY, endTime.getTime()));
-
-            } while (pageEndTime.before(endTime));
-        } else {
-            List<ArrivalDeparture> arrDepBatchList;
-            do {
-                arrDepBatchList = ArrivalDeparture.getArrivalsDeparturesFromDb(
-                        beginTime,
-                        endTime,
-                        // Order results by time so that process them in the same
-                        // way that a vehicle travels.
-                        "ORDER BY time", // SQL clause
-                        firstResult,
-                        batchSize,
-                        null); // arrivalOrDeparture. Null means read in both
-
-                // Add arrivals/departures to map
-                for (ArrivalDeparture arrDep : arrDepBatchList) {
-                    addArrivalDepartureToMap(resultsMap, arrDep);
-                }
-
-                logger.info("Read in total of {} arrival/departures of {} {}%",
-                        firstResult + arrDepBatchList.size(),
-                        count,
-                        (0.0 + firstResult + arrDepBatchList.size()) / count * 100);
-
-                // Update firstResult for reading next batch of data
-                firstResult += batchSize;
-            } while (arrDepBatchList.size() == batchSize);
-        }
-
-        return resultsMap;
-    }
-
-    /**
-     * Adds the arrival/departure to the map.
+     * Adds the match to the map.
      *
      * @param map
      * @param match
@@ -280,130 +207,116 @@ public class DataFetcher {
     }
 
     /**
-     * Reads matches from db into so can be processed.
+     * Returns the start of the day after the one that the date is in, where days are as determined
+     * by dayOfYear(). Since dayOfYear() treats times before 3am as part of the previous day the
+     * days start at 3am.
      *
-     * @param projectId
-     * @param beginTime
-     * @param endTime
-     * @return
+     * @param date
+     * @return start of the next day
      */
-    private Map<DbDataMapKey, List<Match>> readMatches(String projectId, Date beginTime, Date endTime) {
-        // For returning the results
-        Map<DbDataMapKey, List<Match>> resultsMap = new HashMap<>();
-
-        // For keeping track of which rows should be returned by the batch.
-        int firstResult = 0;
-        // Batch size of 50k found to be significantly faster than 10k,
-        // by about a factor of 2.  Since sometimes using really large
-        // batches of data using 500k
-        final int batchSize = updatesProperties.getPageSize(); // Also known as maxResults
-        final boolean batchReads = updatesProperties.getPageDbReads();
-
-        logger.info("counting matches...");
-        Long count = Match.getMatchesCountFromDb(projectId, beginTime, endTime, "AND atStop = false");
-        if (count == 0) {
-            logger.info("Found 0 matches. Stopping here!");
-            return resultsMap;
-        }
-
-
-        String sqlClause = "AND atStop = false ORDER BY avlTime";
-        if (!batchReads) {
-            List<Match> matchBatchList;
-            // page by day for MySql -- its batch impl falls down on large data
-            Date pageBeginTime = beginTime;
-            Date pageEndTime = new Date(beginTime.getTime() + Time.MS_PER_DAY);
-            int runningCount = 0;
-
-            do {
-                logger.info("querying matches for between {} and {}", pageBeginTime, pageEndTime);
-                matchBatchList = Match.getMatchesFromDb(projectId, pageBeginTime, pageEndTime, sqlClause, null, null);
-                // Add arrivals/departures to map
-                for (Match match : matchBatchList) {
-                    addMatchToMap(resultsMap, match);
-                }
-
-                runningCount += matchBatchList.size();
-                logger.info("Read in total of {} matches of {} {}%", runningCount, count, (0.0 + runningCount) / count * 100);
-
-                pageBeginTime = pageEndTime;
-                pageEndTime = new Date(Math.min(pageBeginTime.getTime() + Time.MS_PER_DAY, endTime.getTime()));
-            } while (pageEndTime.before(endTime));
-        } else {
-            List<Match> matchBatchList;
-            // Read in batch of 50k rows of data and process it
-            do {
-                matchBatchList = Match.getMatchesFromDb(
-                        projectId,
-                        beginTime,
-                        endTime,
-                        // Only want matches that are not at a stop since for that
-                        // situation instead using arrivals/departures.
-                        // Order results by time so that process them in the same
-                        // way that a vehicle travels.
-                        sqlClause, // SQL clause
-                        firstResult,
-                        batchSize);
-
-                // Add arrivals/departures to map
-                for (Match match : matchBatchList) {
-                    addMatchToMap(resultsMap, match);
-                }
-
-                logger.info("Read in total of {} matches of {} {}%", firstResult + matchBatchList.size(), count, (0.0 + firstResult + matchBatchList.size()) / count * 100);
-
-                // Update firstResult for reading next batch of data
-                firstResult += batchSize;
-            } while (matchBatchList.size() == batchSize);
-        }
-
-        return resultsMap;
+    private Date startOfNextDay(Date date) {
+        calendar.setTime(new Date(date.getTime() - 3 * Time.MS_PER_HOUR));
+        calendar.set(java.util.Calendar.HOUR_OF_DAY, 0);
+        calendar.set(java.util.Calendar.MINUTE, 0);
+        calendar.set(java.util.Calendar.SECOND, 0);
+        calendar.set(java.util.Calendar.MILLISECOND, 0);
+        calendar.add(java.util.Calendar.DAY_OF_YEAR, 1);
+        return new Date(calendar.getTimeInMillis() + 3 * Time.MS_PER_HOUR);
     }
 
     /**
-     * Reads arrival/departure times and matches from the db and puts the data into the
-     * arrivalDepartureMap and matchesMap members.
+     * Reads the matches and the arrivals/departures between beginTime and endTime from the db and
+     * passes them to the consumer one vehicle trip at a time.
+     *
+     * <p>The data is read a day at a time. Since the data is keyed by DbDataMapKey, which includes
+     * the day of the year, all the data for a vehicle trip is within a single day. Therefore once a
+     * day has been read in all of its trips are complete and can be handed off, and only a single
+     * day of the matches and arrivals/departures is ever in memory no matter how long the date
+     * range is. What the consumer keeps is up to the consumer. The rows are streamed
+     * from the db using a cursor, with the page size as the fetch size, instead of being read in
+     * pages using offsets, which gets slower and slower as the offset increases.
+     *
+     * <p>Only matches that are not at a stop are read since for that situation the
+     * arrivals/departures are used instead.
      *
      * @param agencyId
      * @param beginTime
      * @param endTime
+     * @param consumer called for each vehicle trip that has arrivals/departures
+     * @return the number of matches that were read
      */
-    public void readData(String agencyId, Date beginTime, Date endTime) {
-        // Read in arrival/departure times and matches from db
-        logger.info("Reading historic data from db...");
-        matchesMap = readMatches(agencyId, beginTime, endTime);
-        if (matchesMap.isEmpty()) {
-            logger.info("No Matches present in db");
-            return;
+    public long streamData(String agencyId, Date beginTime, Date endTime, Consumer<TripData> consumer) {
+        final int fetchSize = updatesProperties.getPageSize();
+        // The queries exclude the end of each day, but endTime itself is to be included
+        final Date endOfRange = new Date(endTime.getTime() + 1);
+
+        long totalMatches = 0;
+        long totalArrDeps = 0;
+        long totalTrips = 0;
+
+        logger.info("Reading historic data from db a day at a time...");
+        try (StatelessSession session = HibernateUtils.getSessionFactory(agencyId).openStatelessSession()) {
+            // Cursors are only used by some JDBC drivers, such as the
+            // postgres one, when not in auto commit mode
+            Transaction tx = session.beginTransaction();
+            try {
+                Date dayBeginTime = beginTime;
+                while (dayBeginTime.before(endOfRange)) {
+                    Date nextDayBeginTime = startOfNextDay(dayBeginTime);
+                    Date dayEndTime = nextDayBeginTime.before(endOfRange) ? nextDayBeginTime : endOfRange;
+
+                    Map<DbDataMapKey, List<Match>> matchesMap = new HashMap<>();
+                    try (Stream<Match> matches = session.createQuery(
+                                    "FROM Match WHERE avlTime >= :beginDate AND avlTime < :endDate "
+                                            + "AND atStop = false ORDER BY avlTime",
+                                    Match.class)
+                            .setParameter("beginDate", dayBeginTime)
+                            .setParameter("endDate", dayEndTime)
+                            .setFetchSize(fetchSize)
+                            .getResultStream()) {
+                        matches.forEach(match -> addMatchToMap(matchesMap, match));
+                    }
+
+                    Map<DbDataMapKey, List<ArrivalDeparture>> arrivalDepartureMap = new LinkedHashMap<>();
+                    try (Stream<ArrivalDeparture> arrDeps = session.createQuery(
+                                    "FROM ArrivalDeparture WHERE time >= :beginDate AND time < :endDate "
+                                            + "ORDER BY time",
+                                    ArrivalDeparture.class)
+                            .setParameter("beginDate", dayBeginTime)
+                            .setParameter("endDate", dayEndTime)
+                            .setFetchSize(fetchSize)
+                            .getResultStream()) {
+                        arrDeps.forEach(arrDep -> addArrivalDepartureToMap(arrivalDepartureMap, arrDep));
+                    }
+
+                    long dayMatches = 0;
+                    for (List<Match> matchesForTrip : matchesMap.values()) {
+                        dayMatches += matchesForTrip.size();
+                    }
+                    long dayArrDeps = 0;
+                    for (Map.Entry<DbDataMapKey, List<ArrivalDeparture>> entry : arrivalDepartureMap.entrySet()) {
+                        dayArrDeps += entry.getValue().size();
+                        List<Match> matchesForTrip = matchesMap.getOrDefault(entry.getKey(), List.of());
+                        consumer.accept(new TripData(entry.getKey(), entry.getValue(), matchesForTrip));
+                    }
+
+                    totalMatches += dayMatches;
+                    totalArrDeps += dayArrDeps;
+                    totalTrips += arrivalDepartureMap.size();
+                    logger.info("Read {} matches and {} arrival/departures for {} trips between {} and {}",
+                            dayMatches, dayArrDeps, arrivalDepartureMap.size(), dayBeginTime, dayEndTime);
+
+                    dayBeginTime = dayEndTime;
+                }
+                tx.commit();
+            } catch (RuntimeException e) {
+                if (tx.isActive()) tx.rollback();
+                throw e;
+            }
         }
-        arrivalDepartureMap = readArrivalsDepartures(agencyId, beginTime, endTime);
-    }
-
-    /**
-     * Provides the arrival/departure data in a map. The values in the map are Lists of
-     * ArrivalDeparture times, one list for each trip where there was historic data.
-     *
-     * @return arrival/departure data
-     */
-    public Map<DbDataMapKey, List<ArrivalDeparture>> getArrivalDepartureMap() {
-        // Make sure data was read in
-        if (arrivalDepartureMap == null)
-            throw new RuntimeException("Called getArrivalDepartureMap() before data was read in using readData().");
-
-        return arrivalDepartureMap;
-    }
-
-    /**
-     * Provides the Match data in a map. The values in the map are Lists of Match objects, one list
-     * for each trip where there was historic data.
-     *
-     * @return match data
-     */
-    public Map<DbDataMapKey, List<Match>> getMatchesMap() {
-        // Make sure data was read in
-        if (matchesMap == null)
-            throw new RuntimeException("Called getMatchesMap() before data was read in using readData().");
 
-        return matchesMap;
+        logger.info("Read in total of {} matches and {} arrival/departures for {} trips",
+                totalMatches, totalArrDeps, totalTrips);
+        return totalMatches;
     }
 }
@@ -4,7 +4,7 @@ package org.transitclock.core.travelTimes;
 import lombok.extern.slf4j.Slf4j;
 
 import org.transitclock.core.TemporalDifference;
-import org.transitclock.core.travelTimes.DataFetcher.DbDataMapKey;
+import org.transitclock.core.travelTimes.DataFetcher.TripData;
 import org.transitclock.domain.structs.ArrivalDeparture;
 import org.transitclock.domain.structs.Match;
 import org.transitclock.domain.structs.StopPath;
@@ -13,8 +13,15 @@ import org.transitclock.properties.TravelTimesProperties;
 import org.transitclock.properties.UpdatesProperties;
 import org.transitclock.statistics.Statistics;
 import org.transitclock.utils.*;
+import org.transitclock.utils.threading.NamedThreadFactory;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * Takes arrival/departure times plus the matches (where vehicle is matched to a route between
@@ -26,6 +33,11 @@ import java.util.*;
  * by day of the week in order to get greater accuracy (assuming that buses might consistently
  * travel differently on Monday compared to Friday even though they have the same service ID.
  *
+ * <p>The historic data is streamed from the db a day at a time and the trips are processed in
+ * parallel. Only the resulting stop and travel times are kept, as ints, and at most
+ * maxSamplesPerStopPath of them per trip and stop path. So the memory used depends on the number
+ * of trips and stop paths but not on the length of the date range.
+ *
  * @author SkiBu Smith
  */
 @Slf4j
@@ -57,14 +69,14 @@ public class TravelTimesProcessor {
     // stopTimesMap contains data for each trip on how long vehicle was stopped
     // for at a particular stop. It is obtained by comparing the arrival time
     // with the departure time for each stop for each trip. There is one
-    // entry per data point, hence a List of Integers with one Integer
-    // per data point.
-    private static final Map<ProcessedDataMapKey, List<Integer>> stopTimesMap = new HashMap<>();
-    // Values are List of List of times where outer List is by single trip and
-    // inner List is by travel time segment. For every trip that has historical
-    // data we get a single entry in the outer List. For every travel time
-    // segment we have historical data for we get an entry in the inner List.
-    private static final Map<ProcessedDataMapKey, List<List<Integer>>> travelTimesMap = new HashMap<>();
+    // value per data point.
+    // The maps are concurrent since the trips are processed in parallel.
+    private final Map<ProcessedDataMapKey, IntSamples> stopTimesMap = new ConcurrentHashMap<>();
+    // Values are rows of times where there is a row per single trip and
+    // a value in the row per travel time segment. For every trip that has
+    // historical data we get a single row. For every travel time segment
+    // we have historical data for we get a value in the row.
+    private final Map<ProcessedDataMapKey, IntSamples> travelTimesMap = new ConcurrentHashMap<>();
 
     private boolean isEmpty;
     private final TravelTimesProperties travelTimesProperties;
@@ -119,27 +131,40 @@ public class TravelTimesProcessor {
      * Adds stop times for a stop path for a single trip to the stopTimesMap.
      *
      * @param mapKey
+     * @param arrDep the arrival/departure the stop time was determined for
      * @param stopTimeMsec
      */
-    private static void addStopTimeToMap(ProcessedDataMapKey mapKey, int stopTimeMsec) {
-        List<Integer> stopTimesForStop = stopTimesMap.computeIfAbsent(mapKey, k -> new ArrayList<Integer>());
-        stopTimesForStop.add(stopTimeMsec);
+    private void addStopTimeToMap(ProcessedDataMapKey mapKey, ArrivalDeparture arrDep, int stopTimeMsec) {
+        stopTimesMap.computeIfAbsent(mapKey, k -> new IntSamples(travelTimesProperties.getMaxSamplesPerStopPath()))
+                .add(sampleId(arrDep), stopTimeMsec);
     }
 
     /**
      * Adds travel times for stop path for a single trip to the travelTimesMap.
      *
      * @param mapKey
+     * @param arrDep the arrival/departure the travel times were determined for
      * @param travelTimesForStopPath
      */
-    private static void addTravelTimesToMap(ProcessedDataMapKey mapKey, List<Integer> travelTimesForStopPath) {
+    private void addTravelTimesToMap(
+            ProcessedDataMapKey mapKey, ArrivalDeparture arrDep, List<Integer> travelTimesForStopPath) {
         // If there is no data then simply return
         if (travelTimesForStopPath == null || travelTimesForStopPath.isEmpty()) {
             return;
         }
 
-        List<List<Integer>> travelTimesForStop = travelTimesMap.computeIfAbsent(mapKey, k -> new ArrayList<>());
-        travelTimesForStop.add(travelTimesForStopPath);
+        travelTimesMap.computeIfAbsent(mapKey, k -> new IntSamples(travelTimesProperties.getMaxSamplesPerStopPath()))
+                .addRow(sampleId(arrDep), travelTimesForStopPath);
+    }
+
+    /**
+     * Identifies the trip that a sample is from, by vehicle and time, for deciding which samples to
+     * keep when there are more than maxSamplesPerStopPath.
+     *
+     * @param arrDep the arrival/departure the sample was determined for
+     */
+    private static long sampleId(ArrivalDeparture arrDep) {
+        return IntSamples.sampleId(arrDep.getVehicleId(), arrDep.getTime());
     }
 
     /**
@@ -178,35 +203,20 @@ public class TravelTimesProcessor {
         ProcessedDataMapKey mapKeyForTravelTimes = getKey(arrDep.getTripId(), arrDep.getStopPathIndex(), arrDep.getStopId());
 
         // Add this stop time to map so it can be averaged
-        addStopTimeToMap(mapKeyForTravelTimes, lateTimeMsec);
+        addStopTimeToMap(mapKeyForTravelTimes, arrDep, lateTimeMsec);
     }
 
     /**
-     * Returns the matches for the particular stopPath for the service ID and trip.
-     *
-     * <p>Note: This is pretty inefficient. Seems that should be able to get list of matches for the
-     * stopPath directly from the map instead of getting all the matches for the trip and then
-     * filtering them.
+     * Returns the matches for the particular stopPath from the matches for the trip.
      *
-     * @param dataFetcher
+     * @param matchesForTrip The matches for the trip, ordered by time
      * @param arrDep
      * @return List of Match objects. Never returns null.
      */
-    private List<Match> getMatchesForStopPath(DataFetcher dataFetcher, ArrivalDeparture arrDep) {
+    private List<Match> getMatchesForStopPath(List<Match> matchesForTrip, ArrivalDeparture arrDep) {
         // For returning the results
         List<Match> matchesForStopPath = new ArrayList<>();
 
-        // Get the matches for the entire trip since that is
-        // how the data is available
-        DbDataMapKey mapKey = dataFetcher.getKey(arrDep.getServiceId(), arrDep.getDate(), arrDep.getTripId(), arrDep.getVehicleId());
-        List<Match> matchesForTrip = dataFetcher.getMatchesMap().get(mapKey);
-
-        // If no matches were found for this trip then return empty
-        // array (don't continue since would get NPE).
-        if (matchesForTrip == null) {
-            return matchesForStopPath;
-        }
-
         for (Match match : matchesForTrip) {
             if (match.getStopPathIndex() == arrDep.getStopPathIndex()) {
                 matchesForStopPath.add(match);
@@ -324,14 +334,14 @@ public class TravelTimesProcessor {
      * day of the year). The returned matches will include the departure time from the first stop
      * (arrDep1), in between matches, and the arrival time as the second stop (arrDep2).
      *
-     * @param dataFetcher
+     * @param matchesForTrip The matches for the trip, ordered by time
      * @param arrDep1 The departure stop
      * @param arrDep2 The arrival stop. Also defines which stop path working with.
      * @return List of MatchPoints, which contain the basic Match info needed for determining travel
      *     times.
      */
     private List<MatchPoint> getMatchPoints(
-            DataFetcher dataFetcher, ArrivalDeparture arrDep1, ArrivalDeparture arrDep2) {
+            List<Match> matchesForTrip, ArrivalDeparture arrDep1, ArrivalDeparture arrDep2) {
         // The array to be returned
         List<MatchPoint> matchPoints = new ArrayList<>();
 
@@ -340,7 +350,7 @@ public class TravelTimesProcessor {
 
         // Stop path is long enough such that have more than one travel
         // time segment. Get the corresponding matches
-        List<Match> matchesForStopPath = getMatchesForStopPath(dataFetcher, arrDep2);
+        List<Match> matchesForStopPath = getMatchesForStopPath(matchesForTrip, arrDep2);
 
         // Add the matches that are in between the arrival and the departure.
         for (Match match : matchesForStopPath) {
@@ -367,14 +377,14 @@ public class TravelTimesProcessor {
      * ends of the stop path, to determine the travel time for each travel time segment for this
      * particular trip.
      *
-     * @param dataFetcher
+     * @param matchesForTrip The matches for the trip, ordered by time
      * @param arrDep1 The departure stop
      * @param arrDep2 The arrival stop. Also defines which stop path working with.
      * @return List of travel times in msec. There is a separate travel time for each travel time
      *     segment. If the match points are garbled and go backwards in time then null is returned.
      */
     private List<Integer> determineTravelTimesForStopPath(
-            DataFetcher dataFetcher, ArrivalDeparture arrDep1, ArrivalDeparture arrDep2) {
+            List<Match> matchesForTrip, ArrivalDeparture arrDep1, ArrivalDeparture arrDep2) {
         // Determine departure time. If shouldn't use departures times
         // for terminal departure that are earlier then schedule time
         // then use the scheduled departure time. This prevents creating
@@ -409,7 +419,7 @@ public class TravelTimesProcessor {
         // segment.
         double travelTimeSegmentLength = getTravelTimeSegmentLength(arrDep2);
 
-        List<MatchPoint> matchPoints = getMatchPoints(dataFetcher, arrDep1, arrDep2);
+        List<MatchPoint> matchPoints = getMatchPoints(matchesForTrip, arrDep1, arrDep2);
 
         // The times when a travel time segment vertex is crossed.
         // Will include the departure time, the middle vertices, and
@@ -527,12 +537,12 @@ public class TravelTimesProcessor {
      * data is ignored. If schedule adherence is acceptable then the resulting travel and stop/dwell
      * times are put into the stopTimesMap and travelTimesMap members for further processing.
      *
-     * @param dataFetcher Contains the AVL based historic data in maps
+     * @param matchesForTrip The matches for the trip, ordered by time
      * @param arrDep1 The first arrival/departure
      * @param arrDep2 The second arrival/departure
      */
     private void processDataBetweenTwoArrivalDepartures(
-            DataFetcher dataFetcher, ArrivalDeparture arrDep1, ArrivalDeparture arrDep2) {
+            List<Match> matchesForTrip, ArrivalDeparture arrDep1, ArrivalDeparture arrDep2) {
         // If schedule adherence is really far off then ignore the data
         // point because it would skew the results.
         TemporalDifference schedAdh = arrDep1.getScheduleAdherence();
@@ -553,7 +563,7 @@ public class TravelTimesProcessor {
             int dwellTimeMsec = (int) (arrDep2.getTime() - arrDep1.getTime());
 
             // Add this stop time to map so it can be averaged
-            if (dwellTimeMsec >= 0) addStopTimeToMap(mapKeyForTravelTimes, dwellTimeMsec);
+            if (dwellTimeMsec >= 0) addStopTimeToMap(mapKeyForTravelTimes, arrDep2, dwellTimeMsec);
             else
                 logger.error(
                         "Ignoring negative dwell time={} for stop path " + "at arrival/departures {} and {} (key = {})",
@@ -571,7 +581,7 @@ public class TravelTimesProcessor {
                 && arrDep1.isDeparture()
                 && arrDep2.isArrival()) {
             // Determine the travel times and add them to the map
-            List<Integer> travelTimesForStopPath = determineTravelTimesForStopPath(dataFetcher, arrDep1, arrDep2);
+            List<Integer> travelTimesForStopPath = determineTravelTimesForStopPath(matchesForTrip, arrDep1, arrDep2);
 
             // Ignore a stop path if any segment travel time is negative. Nulls will
             // be ignored downstream anyway so can also ignore those.
@@ -589,19 +599,19 @@ public class TravelTimesProcessor {
                 }
             }
 
-            addTravelTimesToMap(mapKeyForTravelTimes, travelTimesForStopPath);
+            addTravelTimesToMap(mapKeyForTravelTimes, arrDep2, travelTimesForStopPath);
 
         }
     }
 
     /**
      * Process historic data from database for single trip. Puts resulting data into stopTimesMap
-     * and travelTimesMap.
+     * and travelTimesMap. Called in parallel for different trips.
      *
-     * @param dataFetcher Contains arrival/departures and matches fetched from database
-     * @param arrDepList List of ArrivalDepartures for vehicle for a trip
+     * @param tripData Contains arrival/departures and matches fetched from database for the trip
      */
-    private void aggregateTripDataIntoMaps(DataFetcher dataFetcher, List<ArrivalDeparture> arrDepList) {
+    private void aggregateTripDataIntoMaps(TripData tripData) {
+        List<ArrivalDeparture> arrDepList = tripData.arrivalDepartures();
         for (int i = 0; i < arrDepList.size() - 1; ++i) {
             ArrivalDeparture arrDep1 = arrDepList.get(i);
 
@@ -617,14 +627,13 @@ public class TravelTimesProcessor {
 
             // Deal with normal travel times
             ArrivalDeparture arrDep2 = arrDepList.get(i + 1);
-            processDataBetweenTwoArrivalDepartures(dataFetcher, arrDep1, arrDep2);
+            processDataBetweenTwoArrivalDepartures(tripData.matches(), arrDep1, arrDep2);
         }
     }
 
     /**
-     * Converts the list of travel times such that times are grouped by segment instead of by single
-     * trips. This allows the times to be more easily processed when determining outliers, averages,
-     * etc.
+     * Converts the travel times such that times are grouped by segment instead of by single trips.
+     * This allows the times to be more easily processed when determining outliers, averages, etc.
      *
      * <p>Only uses historic travel time data if the number of travel times segments in the data
      * match the number of travel time segments needed for the current trip configuration (which
@@ -634,54 +643,32 @@ public class TravelTimesProcessor {
      * segments). This way can use as much historic info as possible, yet not try to use data that
      * doesn't pertain.
      *
-     * @param historicTravelTimes List of List of times where outer List is by single trip and inner
-     *     List is travel time segment.
+     * @param historicTravelTimes Rows of times where there is a row per single trip and a value in
+     *     the row per travel time segment.
      * @param trip Contains config info for the trip that the data is for. Used to determine if the
      *     historic data for the trip has the proper number of travel time segments.
      * @param stopPathIndex Used to determine if the historic data for the trip has the proper
      *     number of travel time segments.
-     * @return List of List of times but the outer List is by travel time segment and there is an
+     * @return List of List of times where the outer List is by travel time segment and there is an
      *     inner List with a value per single trip, or null if there is no valid historic data for
      *     the trip.
      */
-    private List<List<Integer>> bySegment(
-            List<List<Integer>> historicTravelTimes, Trip trip, int stopPathIndex) {
+    private List<List<Integer>> bySegment(IntSamples historicTravelTimes, Trip trip, int stopPathIndex) {
         // Determine how many travel time segments there should be for the stop
         // path according to the current configuration of the trip's path
         // length.
         int expectedTravelTimeSegments = getNumTravelTimeSegments(trip, stopPathIndex);
 
-        // Create results object. Make array size only as big as the number of
-        // travel segments, instead of the default value of 10, to reduce
-        // memory use.
-        List<List<Integer>> timesBySegment = new ArrayList<List<Integer>>(expectedTravelTimeSegments);
-        for (int i = 0; i < expectedTravelTimeSegments; ++i) {
-            timesBySegment.add(new ArrayList<Integer>());
-        }
-
-        // Put the historic per trip travel time data into the per segment array
-        boolean validDataFound = false;
-        for (List<Integer> historicTravelTimeForTrip : historicTravelTimes) {
-            // Determine historic travel times for the current trip.
-            int numberHistoricTravelTimeSegs = historicTravelTimeForTrip.size();
-
-            // Only use the historic travel times if have the number of travel
-            // time segments for the historical data matches the current
-            // configuration of the trip (the path length).
-            if (numberHistoricTravelTimeSegs == expectedTravelTimeSegments) {
-                validDataFound = true;
-                for (int segIdx = 0; segIdx < expectedTravelTimeSegments; ++segIdx) {
-                    Integer value = historicTravelTimeForTrip.get(segIdx);
-                    timesBySegment.get(segIdx).add(value);
-                }
-            }
-        }
-
-        // If valid data found then return the times grouped by segment
-        if (validDataFound)
-            return timesBySegment;
+        // Only the historic travel times with the number of travel time
+        // segments of the current configuration of the trip are used
+        return historicTravelTimes.sortedColumns(expectedTravelTimeSegments);
+    }
 
-        return null;
+    /**
+     * @return the stop times that were kept for the trip and stop path, or null if there are none
+     */
+    IntSamples getStopTimes(String tripId, int stopPathIndex, String stopId) {
+        return stopTimesMap.get(getKey(tripId, stopPathIndex, stopId));
     }
 
     /**
@@ -751,7 +738,7 @@ public class TravelTimesProcessor {
                 continue;
             }
             // Determine average travel times for this trip/stop path
-            List<List<Integer>> travelTimesForStopPathForTrip = travelTimesMap.get(mapKey);
+            IntSamples travelTimesForStopPathForTrip = travelTimesMap.get(mapKey);
             List<Integer> averageTravelTimes = new ArrayList<Integer>();
             if (travelTimesForStopPathForTrip != null) {
                 // Get the travel times, grouped by segment
@@ -772,8 +759,9 @@ public class TravelTimesProcessor {
 
             // Determine average stop time for this trip/stop
             int averagedStopTime;
-            List<Integer> stopTimesForStopPathForTrip = stopTimesMap.get(mapKey);
-            if (stopTimesForStopPathForTrip != null) {
+            IntSamples stopTimeSamples = stopTimesMap.get(mapKey);
+            if (stopTimeSamples != null) {
+                List<Integer> stopTimesForStopPathForTrip = stopTimeSamples.sortedValues();
                 // For first stops of trip will be providing departure
                 // times so need to be conservative and bias the stop time
                 if (mapKey.getStopPathIndex() == 0) {
@@ -838,8 +826,13 @@ public class TravelTimesProcessor {
     }
 
     /**
-     * Reads in the Matches and the ArrivalDepartures from the database for the time specified. Puts
-     * the data into the stopTimesMap and the travelTimesMap for further processing.
+     * Reads in the Matches and the ArrivalDepartures from the database for the time specified and
+     * processes them into the stopTimesMap and the travelTimesMap for further processing.
+     *
+     * <p>The data is streamed from the database a day at a time by the DataFetcher. The trips are
+     * processed in parallel by a thread per processor while the data continues to be read. The
+     * queue of trips waiting to be processed is bounded so that reading can't get far ahead of the
+     * processing; when the queue is full the reading thread processes the trip itself.
      *
      * @param projectId
      * @param specialDaysOfWeek
@@ -847,32 +840,81 @@ public class TravelTimesProcessor {
      * @param endTime
      */
     public void readAndProcessHistoricData(String projectId, List<Integer> specialDaysOfWeek, Date beginTime, Date endTime) {
-        // Read the arrivals/departures and matches into a DataFetcher
         DataFetcher dataFetcher = new DataFetcher(projectId, updatesProperties, specialDaysOfWeek);
-        dataFetcher.readData(projectId, beginTime, endTime);
+        processHistoricData(consumer -> dataFetcher.streamData(projectId, beginTime, endTime, consumer));
+    }
+
+    /** Where the historic data comes from, normally DataFetcher.streamData() */
+    interface TripDataSource {
+        /**
+         * @param consumer to be called for each vehicle trip
+         * @return the number of matches that were read
+         */
+        long streamData(Consumer<TripData> consumer);
+    }
+
+    /**
+     * Processes the trips from the source into the stopTimesMap and the travelTimesMap, in
+     * parallel. See readAndProcessHistoricData().
+     *
+     * @param source provides the historic data one vehicle trip at a time
+     */
+    void processHistoricData(TripDataSource source) {
+        logger.info("Processing data into travel time maps...");
+        IntervalTimer intervalTimer = new IntervalTimer();
+
+        int numThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                numThreads,
+                numThreads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(numThreads * 100),
+                new NamedThreadFactory("TravelTimesProcessor"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        // The first problem processing a trip, so it can be rethrown once
+        // the workers are done
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        long numMatches;
+        try {
+            numMatches = source.streamData(tripData -> {
+                if (failure.get() != null) return;
+                executor.execute(() -> {
+                    try {
+                        aggregateTripDataIntoMaps(tripData);
+                    } catch (RuntimeException e) {
+                        logger.error("Exception processing historic data for {}", tripData.key(), e);
+                        failure.compareAndSet(null, e);
+                    }
+                });
+            });
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while processing historic data", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
 
         // exit here if no matches are present
         // no further work can be done!
-        if (dataFetcher.getMatchesMap() == null || dataFetcher.getMatchesMap().isEmpty()) {
+        if (numMatches == 0) {
             logger.error("No Matches:  Nothing to do!");
             isEmpty = true;
             return;
         }
         isEmpty = false;
 
-        // Process all the historic data read from the database. Puts
-        // resulting data into stopTimesMap and travelTimesMap.
-        logger.info("Processing data into travel time maps...");
-        IntervalTimer intervalTimer = new IntervalTimer();
-        Collection<List<ArrivalDeparture>> arrivalDepartures =
-                dataFetcher.getArrivalDepartureMap().values();
-        for (List<ArrivalDeparture> arrDepList : arrivalDepartures) {
-            aggregateTripDataIntoMaps(dataFetcher, arrDepList);
-        }
-
         // Nice to log how long things took so can see progress and bottle necks
         logger.info(
-                "Processing data from db into the travel times and stop " + "times map took {} msec.",
+                "Processing data from db into the travel times and stop times map using {} threads took {} msec.",
+                numThreads,
                 intervalTimer.elapsedMsec());
     }
 }
@@ -25,6 +25,8 @@ import java.util.List;
  */
 @Slf4j
 public class GenericQuery {
+    // Number of rows read from the database at a time
+    private static final int FETCH_SIZE = 1000;
 
     @Getter
     private final Connection connection;
@@ -48,6 +50,15 @@ public class GenericQuery {
                 .getConnection();
     }
 
+    /**
+     * For using a connection that was obtained some other way.
+     *
+     * @param connection closed when the query is done
+     */
+    protected GenericQuery(Connection connection) {
+        this.connection = connection;
+    }
+
 
     /**
      * Performs the specified generic query. A List of GenericResult objects is returned. All number
@@ -61,45 +72,62 @@ public class GenericQuery {
     protected void doQuery(String sql, Object... parameters) throws SQLException {
 
         IntervalTimer timer = new IntervalTimer();
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
 
-            // TODO Deal with dates for the moment
-            for (int i = 0; i < parameters.length; i++) {
-                if (parameters[i] instanceof java.util.Date) {
-                    statement.setTimestamp(i + 1, new Timestamp(((java.util.Date) parameters[i]).getTime()));
-                }
+        // The PostgreSQL driver only reads the results through a cursor, fetchSize
+        // rows at a time, when not in auto commit mode. Otherwise the whole result
+        // is read into memory before the first row is returned.
+        boolean autoCommit = connection.getAutoCommit();
+        try {
+            if (autoCommit) {
+                connection.setAutoCommit(false);
             }
 
-            ResultSet rs = statement.executeQuery();
-            ResultSetMetaData metaData = rs.getMetaData();
-
-            // Add all the columns by calling subclass addColumn()
-            for (int i = 1; i <= metaData.getColumnCount(); ++i) {
-                addColumn(metaData.getColumnLabel(i), metaData.getColumnType(i));
-            }
-            doneWithColumns();
+            try (PreparedStatement statement =
+                    connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(FETCH_SIZE);
 
-            // Process each row of data
-            rows = 0;
-            while (rs.next()) {
-                ++rows;
+                // TODO Deal with dates for the moment
+                for (int i = 0; i < parameters.length; i++) {
+                    if (parameters[i] instanceof java.util.Date) {
+                        statement.setTimestamp(i + 1, new Timestamp(((java.util.Date) parameters[i]).getTime()));
+                    }
+                }
 
-                List<Object> row = new ArrayList<Object>();
-                for (int i = 1; i <= metaData.getColumnCount(); ++i) {
-                    row.add(rs.getObject(i));
+                try (ResultSet rs = statement.executeQuery()) {
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    int columnCount = metaData.getColumnCount();
+
+                    // Add all the columns by calling subclass addColumn()
+                    for (int i = 1; i <= columnCount; ++i) {
+                        addColumn(metaData.getColumnLabel(i), metaData.getColumnType(i));
+                    }
+                    doneWithColumns();
+
+                    // Process each row of data. Rows are handed to the subclass one
+                    // at a time so that it can stream them instead of keeping them.
+                    rows = 0;
+                    while (rs.next()) {
+                        ++rows;
+
+                        List<Object> row = new ArrayList<>(columnCount);
+                        for (int i = 1; i <= columnCount; ++i) {
+                            row.add(rs.getObject(i));
+                        }
+                        addRow(row);
+                    }
                 }
-                addRow(row);
             }
 
-            rs.close();
-
             logger.debug("GenericQuery query took {}msec rows={}", timer.elapsedMsec(), rows);
-        } catch (SQLException e) {
-            throw e;
-        }
-
-        if (!connection.isClosed()) {
-            connection.close();
+        } finally {
+            if (autoCommit && !connection.isClosed()) {
+                // Only read, so nothing to commit. Ends the transaction the cursor needed.
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if (!connection.isClosed()) {
+                connection.close();
+            }
         }
     }
 
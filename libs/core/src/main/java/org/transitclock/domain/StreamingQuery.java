@@ -0,0 +1,241 @@
+/* (C)2023 */
+package org.transitclock.domain;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.lang3.StringEscapeUtils;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs a query and writes each row to the output as soon as it is read, instead of building the
+ * whole result in memory first. Together with the cursor used by {@link GenericQuery} memory use
+ * does not depend on the number of rows, so large reports can be sent straight to an HTTP
+ * response.
+ *
+ * <p>JSON is written in the same form as GenericJsonQuery, i.e. {"data": [{"column": value, ...},
+ * ...]} with null values left out. CSV has a header line with the column names.
+ */
+@Slf4j
+public class StreamingQuery extends GenericQuery {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public enum Format {
+        JSON("application/json"),
+        CSV("text/csv");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @param format "json" or "csv", case insensitive. Null or empty for JSON.
+         */
+        public static Format of(String format) {
+            if (format == null || format.isBlank()) {
+                return JSON;
+            }
+            try {
+                return valueOf(format.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown format \"" + format + "\", must be json or csv.");
+            }
+        }
+    }
+
+    private final RowWriter rowWriter;
+
+    private StreamingQuery(String agencyId, RowWriter rowWriter) throws SQLException {
+        super(agencyId);
+        this.rowWriter = rowWriter;
+    }
+
+    StreamingQuery(Connection connection, RowWriter rowWriter) {
+        super(connection);
+        this.rowWriter = rowWriter;
+    }
+
+    /**
+     * Does the SQL query and writes the results to the output stream as they are read. The output
+     * stream is flushed but not closed.
+     *
+     * @return number of rows written
+     */
+    public static int stream(String agencyId, Format format, OutputStream out, String sql, Object... parameters)
+            throws SQLException, IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        return stream(new StreamingQuery(agencyId, rowWriter(format, writer)), writer, sql, parameters);
+    }
+
+    /**
+     * Same as {@link #stream(String, Format, OutputStream, String, Object...)} but writes to a
+     * Writer, for when the result is wanted as a string.
+     */
+    public static int stream(String agencyId, Format format, Writer writer, String sql, Object... parameters)
+            throws SQLException, IOException {
+        return stream(new StreamingQuery(agencyId, rowWriter(format, writer)), writer, sql, parameters);
+    }
+
+    static int stream(StreamingQuery query, Writer writer, String sql, Object... parameters)
+            throws SQLException, IOException {
+        try {
+            query.doQuery(sql, parameters);
+            query.rowWriter.finish();
+            writer.flush();
+        } catch (UncheckedIOException e) {
+            // Most likely the client went away
+            throw e.getCause();
+        }
+        logger.debug("Streamed {} rows", query.getNumberOfRows());
+        return query.getNumberOfRows();
+    }
+
+    static RowWriter rowWriter(Format format, Writer writer) {
+        return format == Format.CSV ? new CsvRowWriter(writer) : new JsonRowWriter(writer);
+    }
+
+    @Override
+    protected void addColumn(String columnName, int type) {
+        rowWriter.addColumn(columnName);
+    }
+
+    @Override
+    protected void doneWithColumns() {
+        try {
+            rowWriter.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected void addRow(List<Object> values) {
+        try {
+            rowWriter.writeRow(values);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    abstract static class RowWriter {
+        protected final List<String> columnNames = new ArrayList<>();
+
+        void addColumn(String columnName) {
+            columnNames.add(columnName);
+        }
+
+        abstract void start() throws IOException;
+
+        abstract void writeRow(List<Object> values) throws IOException;
+
+        abstract void finish() throws IOException;
+    }
+
+    static class JsonRowWriter extends RowWriter {
+        private final Writer writer;
+        private boolean started;
+        private boolean firstRow = true;
+
+        JsonRowWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        void start() throws IOException {
+            writer.write("{\"data\": [\n");
+            started = true;
+        }
+
+        @Override
+        void writeRow(List<Object> values) throws IOException {
+            if (!firstRow) {
+                writer.write(",\n");
+            }
+            firstRow = false;
+
+            writer.write('{');
+            boolean firstElementInRow = true;
+            for (int i = 0; i < values.size(); ++i) {
+                Object o = values.get(i);
+                // Can't output null attributes
+                if (o == null) continue;
+
+                if (!firstElementInRow) writer.write(',');
+                firstElementInRow = false;
+
+                writer.write('"');
+                writer.write(StringEscapeUtils.escapeJson(columnNames.get(i)));
+                writer.write("\":");
+
+                if (o instanceof Double || o instanceof Float) {
+                    double d = ((Number) o).doubleValue();
+                    // NaN and Infinity are not valid JSON
+                    writer.write(Double.isFinite(d) ? Double.toString(d) : "null");
+                } else if (o instanceof Number || o instanceof Boolean) {
+                    writer.write(o.toString());
+                } else {
+                    writer.write('"');
+                    writer.write(StringEscapeUtils.escapeJson(o.toString()));
+                    writer.write('"');
+                }
+            }
+            writer.write('}');
+        }
+
+        @Override
+        void finish() throws IOException {
+            // Query might have failed before there were any columns
+            if (!started) {
+                start();
+            }
+            writer.write("]}");
+        }
+    }
+
+    static class CsvRowWriter extends RowWriter {
+        private final Writer writer;
+        private CSVPrinter printer;
+
+        CsvRowWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        void start() throws IOException {
+            printer = CSVFormat.DEFAULT.builder()
+                    .setHeader(columnNames.toArray(new String[0]))
+                    .build()
+                    .print(writer);
+        }
+
+        @Override
+        void writeRow(List<Object> values) throws IOException {
+            printer.printRecord(values);
+        }
+
+        @Override
+        void finish() throws IOException {
+            if (printer != null) {
+                printer.flush();
+            }
+        }
+    }
+}
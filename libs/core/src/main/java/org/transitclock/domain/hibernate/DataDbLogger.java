@@ -5,6 +5,8 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.*;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.extern.slf4j.Slf4j;
 import org.transitclock.domain.structs.ArrivalDeparture;
 import org.transitclock.domain.structs.AvlReport;
@@ -42,10 +44,13 @@ import org.transitclock.utils.threading.NamedThreadFactory;
  * stored when the application was run in real time. Therefore when running in playback mode set
  * shouldStoreToDb to true when calling getDataDbLogger().
  *
+ * <p>As a MeterBinder the depth of each of the queues, and the batches written from them, are
+ * measured once bound to a MeterRegistry. Spring Boot does so for the DataDbLogger bean.
+ *
  * @author SkiBu Smith
  */
 @Slf4j
-public class DataDbLogger {
+public class DataDbLogger implements MeterBinder {
     private final DbQueue<ArrivalDeparture> arrivalDepartureQueue;
     private final DbQueue<AvlReport> avlReportQueue;
     private final DbQueue<VehicleConfig> vehicleConfigQueue;
@@ -148,6 +153,20 @@ public class DataDbLogger {
         return genericQueue.add(o);
     }
 
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        arrivalDepartureQueue.bindTo(meterRegistry);
+        avlReportQueue.bindTo(meterRegistry);
+        vehicleConfigQueue.bindTo(meterRegistry);
+        predictionQueue.bindTo(meterRegistry);
+        matchQueue.bindTo(meterRegistry);
+        predictionAccuracyQueue.bindTo(meterRegistry);
+        monitoringEventQueue.bindTo(meterRegistry);
+        vehicleEventQueue.bindTo(meterRegistry);
+        vehicleStateQueue.bindTo(meterRegistry);
+        genericQueue.bindTo(meterRegistry);
+    }
+
     // the predictionQueue is the largest queue, so report on it for now
     public double queueLevel() {
         // TODO split this out into separate queues
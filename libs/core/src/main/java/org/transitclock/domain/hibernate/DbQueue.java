@@ -1,6 +1,11 @@
 /* (C)2023 */
 package org.transitclock.domain.hibernate;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
@@ -72,6 +77,10 @@ public class DbQueue<T> {
     private long throughputTimestamp = System.currentTimeMillis();
     private final Class<?> shortType;
 
+    // The meters, once bound to a registry by bindTo()
+    private record Meters(Counter written, Counter dropped, DistributionSummary batchSize, Timer commitTime) {}
+    private volatile Meters meters;
+
     public DbQueue(ScheduledExecutorService executor, String projectId, boolean shouldStoreToDb, boolean shouldPauseToReduceQueue, Class<?> shortType, int batchSize) {
         this.projectId = projectId;
         this.shouldStoreToDb = shouldStoreToDb;
@@ -85,6 +94,39 @@ public class DbQueue<T> {
         executor.scheduleAtFixedRate(this::logThroughputInfo, 1, 1, TimeUnit.MINUTES);
     }
 
+    /**
+     * Registers the depth of the queue, the number of objects written and dropped, the batch sizes
+     * and the commit times with the registry, tagged by the type of object in the queue. Until
+     * called the queue isn't measured.
+     */
+    public void bindTo(MeterRegistry meterRegistry) {
+        String type = shortType.getSimpleName();
+        Gauge.builder("transitclock.db.queue.depth", queue, BlockingQueue::size)
+                .description("Objects waiting to be written to the database")
+                .tag("type", type)
+                .register(meterRegistry);
+        meters = new Meters(
+                Counter.builder("transitclock.db.queue.written")
+                        .description("Objects taken from the queue to be written to the database")
+                        .tag("type", type)
+                        .register(meterRegistry),
+                Counter.builder("transitclock.db.queue.dropped")
+                        .description("Objects not written to the database because the queue was full")
+                        .tag("type", type)
+                        .register(meterRegistry),
+                DistributionSummary.builder("transitclock.db.batch.size")
+                        .description("Objects written to the database per batch")
+                        .tag("type", type)
+                        .publishPercentileHistogram()
+                        .maximumExpectedValue((double) batchSize)
+                        .register(meterRegistry),
+                Timer.builder("transitclock.db.batch.commit")
+                        .description("Time to commit a batch of objects to the database")
+                        .tag("type", type)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry));
+    }
+
     public boolean add(T t) {
         // If in playback mode then don't want to store the
         // derived data because it would interfere with the
@@ -116,6 +158,8 @@ public class DbQueue<T> {
 
         // If losing data then log such
         if (!success) {
+            Meters meters = this.meters;
+            if (meters != null) meters.dropped().increment();
             logger.error("DataDbLogger queue is now completely full for projectId={}and type {}. LOSING DATA!!! Failed to store object=[{}]", projectId, shortType, t);
         }
 
@@ -146,6 +190,11 @@ public class DbQueue<T> {
         }
 
         throughputCount += count;
+        Meters meters = this.meters;
+        if (meters != null) {
+            meters.written().increment(count);
+            meters.batchSize().record(count);
+        }
         logger.debug("drained {} elements", count);
         // Log if went below a capacity level
         // See if queue dropped to 10% less than the previously logged level.
@@ -215,6 +264,10 @@ public class DbQueue<T> {
 
             // Sometimes useful for debugging via the console
             logger.debug("Done committing. Took {} msec", timer.elapsedMsec());
+            Meters meters = this.meters;
+            if (meters != null && !objectsForThisBatch.isEmpty()) {
+                meters.commitTime().record(timer.elapsedMsec(), TimeUnit.MILLISECONDS);
+            }
 
             session.close();
         } catch (HibernateException e) {
@@ -29,6 +29,7 @@ import org.transitclock.domain.structs.PredictionAccuracy;
 import org.transitclock.domain.structs.PredictionEvent;
 import org.transitclock.domain.structs.PredictionForStopPath;
 import org.transitclock.domain.structs.Route;
+import org.transitclock.domain.structs.ScheduleAdherenceSummary;
 import org.transitclock.domain.structs.Stop;
 import org.transitclock.domain.structs.StopPath;
 import org.transitclock.domain.structs.Transfer;
@@ -48,6 +49,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.cfg.Configuration;
@@ -81,6 +83,7 @@ public class HibernateUtils {
         MonitoringEvent.class,
         PredictionAccuracy.class,
         Route.class,
+        ScheduleAdherenceSummary.class,
         Stop.class,
         StopPath.class,
         Transfer.class,
@@ -216,6 +219,19 @@ public class HibernateUtils {
     }
 
 
+    /**
+     * Returns a new StatelessSession for the database used by getSession(). Entities read using a
+     * StatelessSession are not kept by the session, which makes it suitable for streaming through
+     * large amounts of data.
+     *
+     * <p>NOTE: Make sure you close the session when done with it.
+     *
+     * @return The StatelessSession
+     */
+    public static StatelessSession openStatelessSession() {
+        return getSessionFactory("psql").openStatelessSession();
+    }
+
     public static <T> JPAQuery<T> getJPAQuery() {
         return new JPAQuery<>(getSession());
     }
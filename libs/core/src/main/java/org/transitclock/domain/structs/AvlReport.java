@@ -240,7 +240,7 @@ public class AvlReport implements Serializable {
         else if (vehicleId.isEmpty()) errorMsg += "VehicleId is empty string. ";
 
         // Make sure GPS time is OK
-        long currentTime = System.currentTimeMillis();
+        long currentTime = SystemTime.getMillis();
         var dateTimeStr = Time.dateTimeStr(time);
         if (time.getTime() < (currentTime - 10 * Time.MS_PER_YEAR)) {
             errorMsg += "Time of " + dateTimeStr + " is more than 10 years old. ";
@@ -938,9 +938,7 @@ public class Block implements Serializable {
      */
     public int getStopPathTravelTime(int tripIndex, int stopPathIndex) {
         Trip trip = getTrip(tripIndex);
-        TravelTimesForStopPath travelTimesForPath = trip.getTravelTimesForStopPath(stopPathIndex);
-
-        return travelTimesForPath.getStopPathTravelTimeMsec();
+        return trip.getCompiledTravelTimes().getStopPathTravelTimeMsec(stopPathIndex);
     }
 
     /**
@@ -952,8 +950,7 @@ public class Block implements Serializable {
      */
     public int getPathStopTime(int tripIndex, int stopPathIndex) {
         Trip trip = getTrip(tripIndex);
-        TravelTimesForStopPath travelTimesForPath = trip.getTravelTimesForStopPath(stopPathIndex);
-        return travelTimesForPath.getStopTimeMsec();
+        return trip.getCompiledTravelTimes().getStopTimeMsec(stopPathIndex);
     }
 
     /**
@@ -993,7 +990,7 @@ public class Block implements Serializable {
         if (path == null)
             return -1;
 
-        return path.getSegmentVectors().size();
+        return path.getNumberSegments();
     }
 
     /**
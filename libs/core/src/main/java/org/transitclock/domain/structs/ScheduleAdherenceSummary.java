@@ -0,0 +1,138 @@
+/* (C)2023 */
+package org.transitclock.domain.structs;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Objects;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.ToString;
+import org.hibernate.annotations.DynamicUpdate;
+import org.transitclock.core.adherence.ScheduleAdherenceHistogram;
+
+/**
+ * Schedule adherence for a route/direction/stop rolled up per hour. Written by
+ * ScheduleAdherenceRollup as arrivals/departures are generated so that schedule adherence reports
+ * can be answered without scanning the arrivals_departures table.
+ *
+ * <p>The adherence distribution is kept as a {@link ScheduleAdherenceHistogram} so that early,
+ * on time and late counts can be determined for whatever allowable early/late limits a report
+ * asks for, and so that percentiles can be determined across several hours.
+ */
+@Entity
+@Getter
+@ToString
+@DynamicUpdate
+@Table(
+        name = "schedule_adherence_summaries",
+        indexes = {@Index(name = "ScheduleAdherenceSummariesHourIndex", columnList = "hour_start")})
+public class ScheduleAdherenceSummary implements Serializable {
+
+    @Id
+    @Column(name = "route_id", length = 60)
+    private final String routeId;
+
+    @Id
+    @Column(name = "direction_id", length = 60)
+    private final String directionId;
+
+    @Id
+    @Column(name = "stop_id", length = 60)
+    private final String stopId;
+
+    // Start of the hour the arrivals/departures are for
+    @Id
+    @Column(name = "hour_start")
+    @Temporal(TemporalType.TIMESTAMP)
+    private final Date hourStart;
+
+    @Column(name = "route_short_name", length = 60)
+    private String routeShortName;
+
+    // Most recent config revision seen, so that the stop name can be looked up
+    @Column(name = "config_rev")
+    private int configRev;
+
+    @Column(name = "stop_order")
+    private Integer stopOrder;
+
+    @Column(name = "total")
+    private int total;
+
+    // Sum of actual time minus scheduled time, for determining the mean
+    @Column(name = "lateness_sum_msec")
+    private long latenessSumMsec;
+
+    @Column(name = "min_lateness_msec")
+    private long minLatenessMsec;
+
+    @Column(name = "max_lateness_msec")
+    private long maxLatenessMsec;
+
+    @Column(name = "histogram")
+    private int[] histogram;
+
+    public ScheduleAdherenceSummary(String routeId, String directionId, String stopId, Date hourStart) {
+        this.routeId = routeId;
+        this.directionId = directionId;
+        this.stopId = stopId;
+        this.hourStart = hourStart;
+        this.minLatenessMsec = Long.MAX_VALUE;
+        this.maxLatenessMsec = Long.MIN_VALUE;
+        this.histogram = ScheduleAdherenceHistogram.create();
+    }
+
+    /** Needed for Hibernate */
+    protected ScheduleAdherenceSummary() {
+        this.routeId = null;
+        this.directionId = null;
+        this.stopId = null;
+        this.hourStart = null;
+    }
+
+    /**
+     * Adds samples that were collected in memory to this summary.
+     */
+    public void add(
+            String routeShortName,
+            int configRev,
+            Integer stopOrder,
+            int total,
+            long latenessSumMsec,
+            long minLatenessMsec,
+            long maxLatenessMsec,
+            int[] histogram) {
+        this.routeShortName = routeShortName;
+        this.configRev = Math.max(this.configRev, configRev);
+        if (stopOrder != null) {
+            this.stopOrder = stopOrder;
+        }
+        this.total += total;
+        this.latenessSumMsec += latenessSumMsec;
+        this.minLatenessMsec = Math.min(this.minLatenessMsec, minLatenessMsec);
+        this.maxLatenessMsec = Math.max(this.maxLatenessMsec, maxLatenessMsec);
+        // New array so that Hibernate sees the change
+        int[] merged = this.histogram == null || this.histogram.length != ScheduleAdherenceHistogram.SIZE
+                ? ScheduleAdherenceHistogram.create()
+                : Arrays.copyOf(this.histogram, ScheduleAdherenceHistogram.SIZE);
+        ScheduleAdherenceHistogram.merge(merged, histogram);
+        this.histogram = merged;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ScheduleAdherenceSummary that)) return false;
+        return Objects.equals(routeId, that.routeId)
+                && Objects.equals(directionId, that.directionId)
+                && Objects.equals(stopId, that.stopId)
+                && hourStart.getTime() == that.hourStart.getTime();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(routeId, directionId, stopId, hourStart.getTime());
+    }
+}
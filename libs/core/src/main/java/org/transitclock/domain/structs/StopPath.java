@@ -12,7 +12,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.annotations.DynamicUpdate;
-import org.hibernate.classic.Lifecycle;
+import org.hibernate.annotations.Immutable;
 import org.transitclock.config.data.CoreConfig;
 
 /**
@@ -27,7 +27,7 @@ import org.transitclock.config.data.CoreConfig;
 @Getter @Setter @ToString
 @DynamicUpdate
 @Table(name = "stop_paths")
-public class StopPath implements Serializable, Lifecycle {
+public class StopPath implements Serializable {
 
     @Id
     @Column(name = "trip_pattern_id", length = TripPattern.TRIP_PATTERN_ID_LENGTH)
@@ -80,15 +80,18 @@ public class StopPath implements Serializable, Lifecycle {
     @Column(name = "break_time")
     private final Integer breakTime;
 
-    // sacrifice performance for reportability -- use a child table instead of java serialization
-    @ElementCollection
-    @CollectionTable(name="stoppath_locations",joinColumns= {
-            @JoinColumn(name = "stoppath_trip_pattern_id", referencedColumnName = "trip_pattern_id"),
-            @JoinColumn(name = "stoppath_stop_path_id", referencedColumnName = "stop_path_id"),
-            @JoinColumn(name = "stoppath_config_rev", referencedColumnName = "config_rev")
-    })
-    @OrderColumn(name = "list_index")
-    private List<Location> locations;
+    // The shape of the path as a packed array of coordinates. Stored as a
+    // single array column instead of a child table with a row per location
+    // since reading in all the locations dominated the time and memory for
+    // reading in the config. Identical shapes share the same geometry.
+    // Immutable so that Hibernate neither deep copies the geometry for every
+    // StopPath read nor compares the arrays when flushing a session.
+    @Column(name = "coordinates")
+    @Convert(converter = StopPathGeometryConverter.class)
+    @Immutable
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private StopPathGeometry geometry;
 
     // Having the path length readily accessible via the database is handy
     // since that way can easily do queries to determine travel speeds and
@@ -101,13 +104,6 @@ public class StopPath implements Serializable, Lifecycle {
 
     @Column(name = "max_speed")
     private Double maxSpeed;
-    // So can have easy access to vectors representing the segments so
-    // can easily determine heading. Declared transient because this
-    // info is generated by other members after the object has been
-    // loaded from the database.
-    @Transient
-    @EqualsAndHashCode.Exclude
-    private List<VectorWithHeading> vectors = null;
 
     /** This is used just to get better location of the bustop where bestmatch is done. */
     @Transient
@@ -134,7 +130,7 @@ public class StopPath implements Serializable, Lifecycle {
         this.gtfsStopSeq = gtfsStopSeq;
         this.lastStopInTrip = lastStopInTrip;
         this.routeId = routeId;
-        this.locations = null;
+        this.geometry = null;
         this.layoverStop = layoverStop;
         this.waitStop = waitStop;
         this.scheduleAdherenceStop = scheduleAdherenceStop;
@@ -156,7 +152,7 @@ public class StopPath implements Serializable, Lifecycle {
         this.lastStopInTrip = false;
         this.routeId = null;
         this.tripPatternId = null;
-        this.locations = null;
+        this.geometry = null;
         this.layoverStop = false;
         this.waitStop = false;
         this.scheduleAdherenceStop = false;
@@ -195,16 +191,12 @@ public class StopPath implements Serializable, Lifecycle {
      */
     public double length() {
         // Make sure locations were set before trying to access them
-        if (locations == null) {
+        if (geometry == null) {
             logger.error("For stopPathId={} trying to access locations when they have not been set.", stopPathId);
             return Double.NaN;
         }
 
-        double totalLength = 0.0;
-        for (int i = 0; i < locations.size() - 1; ++i) {
-            totalLength += (new Vector(locations.get(i), locations.get(i + 1))).length();
-        }
-        return totalLength;
+        return geometry.getLength();
     }
 
     /**
@@ -254,14 +246,17 @@ public class StopPath implements Serializable, Lifecycle {
      * @param locations
      */
     public void setLocations(ArrayList<Location> locations) {
-        this.locations = locations;
+        this.geometry = StopPathGeometry.of(locations);
+        this.pathLength = geometry.getLength();
+    }
 
-        pathLength = 0.0;
-        for (int i = 0; i < locations.size() - 1; ++i) {
-            Location l1 = locations.get(i);
-            Location l2 = locations.get(i + 1);
-            pathLength += l1.distance(l2);
-        }
+    /**
+     * @return The locations that make up the path, or null if they have not been set. Read only,
+     *     and the Location objects are created as they are read so for going through the path
+     *     repeatedly use getGeometry() instead.
+     */
+    public List<Location> getLocations() {
+        return geometry == null ? null : geometry.getLocations();
     }
 
     /**
@@ -272,14 +267,14 @@ public class StopPath implements Serializable, Lifecycle {
     public Location getStopLocation() {
         // Simply return the last location of the path, since it
         // corresponds to the stop associated with the path.
-        return locations.get(locations.size() - 1);
+        return geometry.getLocation(geometry.getNumberLocations() - 1);
     }
 
     /**
      * @return Number of segments in path.
      */
     public int getNumberSegments() {
-        return locations.size() - 1;
+        return geometry.getNumberSegments();
     }
 
     /**
@@ -289,7 +284,7 @@ public class StopPath implements Serializable, Lifecycle {
      * @return
      */
     public Location getEndOfPathLocation() {
-        return locations.get(locations.size() - 1);
+        return geometry.getLocation(geometry.getNumberLocations() - 1);
     }
 
     /**
@@ -303,7 +298,7 @@ public class StopPath implements Serializable, Lifecycle {
      * @return List of VectorWithHeadings of the segments that make up the path
      */
     public List<VectorWithHeading> getSegmentVectors() {
-        return vectors;
+        return geometry == null ? null : geometry.getSegmentVectors();
     }
 
     /**
@@ -314,11 +309,11 @@ public class StopPath implements Serializable, Lifecycle {
      */
     public VectorWithHeading getSegmentVector(int segmentIndex) {
         // If index out of range return null
-        if (segmentIndex < 0 || segmentIndex >= getSegmentVectors().size()) {
+        if (segmentIndex < 0 || segmentIndex >= geometry.getNumberSegments()) {
             return null;
         }
 
-        return getSegmentVectors().get(segmentIndex);
+        return geometry.getSegmentVectors().get(segmentIndex);
     }
 
     /**
@@ -326,7 +321,7 @@ public class StopPath implements Serializable, Lifecycle {
      * @return Location for the specified index along the StopPath
      */
     public Location getLocation(int index) {
-        return locations.get(index);
+        return geometry.getLocation(index);
     }
 
     /**
@@ -361,28 +356,6 @@ public class StopPath implements Serializable, Lifecycle {
         return CoreConfig.getAfterStopDistance();
     }
 
-    /*
-     * When the vector is read in from db this method is automatically called to
-     * set the transient vector array. This way it is simpler to go through the
-     * path segments to determine matches.
-     */
-    @Override
-    public void onLoad(Session session, Object arg1) {
-        vectors = new ArrayList<>(locations.size() - 1);
-        for (int segmentIndex = 0; segmentIndex < locations.size() - 1; ++segmentIndex) {
-            VectorWithHeading v = new VectorWithHeading(
-                    nullSafeLocation(locations.get(segmentIndex)), nullSafeLocation(locations.get(segmentIndex + 1)));
-            vectors.add(v);
-        }
-    }
-
-    private Location nullSafeLocation(Location location) {
-        if (location == null) {
-            location = new Location(0.0, 0.0);
-        }
-        return location;
-    }
-
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -399,7 +372,7 @@ public class StopPath implements Serializable, Lifecycle {
             && Objects.equals(stopId, stopPath.stopId)
             && Objects.equals(routeId, stopPath.routeId)
             && Objects.equals(breakTime, stopPath.breakTime)
-            && Objects.equals(locations, stopPath.locations)
+            && Objects.equals(geometry, stopPath.geometry)
             && Objects.equals(maxDistance, stopPath.maxDistance)
             && Objects.equals(maxSpeed, stopPath.maxSpeed)
 //            && Objects.equals(vectors, stopPath.vectors)
@@ -410,7 +383,7 @@ public class StopPath implements Serializable, Lifecycle {
     @Override
     public int hashCode() {
         return Objects.hash(
-            tripPatternId, stopPathId, configRev, stopId, gtfsStopSeq, lastStopInTrip, routeId, layoverStop, waitStop, scheduleAdherenceStop, breakTime, locations, pathLength, maxDistance,
+            tripPatternId, stopPathId, configRev, stopId, gtfsStopSeq, lastStopInTrip, routeId, layoverStop, waitStop, scheduleAdherenceStop, breakTime, geometry, pathLength, maxDistance,
             maxSpeed
 //            vectors,
 //            shapeDistanceTraveled
@@ -0,0 +1,216 @@
+/* (C)2023 */
+package org.transitclock.domain.structs;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * The shape of a StopPath kept as a packed array of coordinates instead of as a list of Location
+ * objects. The segment headings and lengths are determined once when the geometry is created so
+ * that spatial matching can read them without creating or walking per point objects.
+ *
+ * <p>Identical shapes are very common, since the same stop path is part of many trip patterns and
+ * is read in again for every config revision. Geometries are therefore interned by {@link #of}
+ * so that all StopPaths with the same shape share a single instance, including the
+ * VectorWithHeading objects that are created from it when first needed.
+ *
+ * <p>Immutable.
+ */
+public final class StopPathGeometry implements Serializable {
+    // Weak so that geometries of config revisions no longer in use can be
+    // garbage collected
+    private static final Interner<StopPathGeometry> interner = Interners.newWeakInterner();
+
+    // Latitude and longitude of each location, interleaved
+    private final double[] coordinates;
+
+    // Heading in degrees clockwise from due North of each segment, as
+    // determined by VectorWithHeading
+    private final float[] headings;
+
+    // Length in meters of each segment
+    private final double[] segmentLengths;
+
+    // Distance along the path to the beginning of each segment, plus the
+    // length of the whole path at the end
+    private final double[] distancesToSegments;
+
+    private final int hashCode;
+
+    // Created when first needed since only some of the geometries are used
+    // for matching
+    private transient volatile List<VectorWithHeading> vectors;
+
+    private StopPathGeometry(double[] coordinates) {
+        if (coordinates.length % 2 != 0) {
+            throw new IllegalArgumentException("Coordinates must be latitude/longitude pairs");
+        }
+        this.coordinates = coordinates;
+
+        int numSegments = Math.max(0, coordinates.length / 2 - 1);
+        headings = new float[numSegments];
+        segmentLengths = new double[numSegments];
+        distancesToSegments = new double[numSegments + 1];
+        for (int i = 0; i < numSegments; ++i) {
+            // Same as how Vector and VectorWithHeading determine them
+            VectorWithHeading vector = new VectorWithHeading(getLocation(i), getLocation(i + 1));
+            headings[i] = vector.getHeading();
+            segmentLengths[i] = vector.length();
+            distancesToSegments[i + 1] = distancesToSegments[i] + segmentLengths[i];
+        }
+        hashCode = Arrays.hashCode(coordinates);
+    }
+
+    /**
+     * Returns the shared geometry for the coordinates.
+     *
+     * @param coordinates latitude and longitude of each location, interleaved. Not copied, so must
+     *     not be modified afterwards.
+     */
+    public static StopPathGeometry of(double[] coordinates) {
+        return interner.intern(new StopPathGeometry(coordinates));
+    }
+
+    /**
+     * Returns the shared geometry for the locations. A null location is treated as 0.0, 0.0.
+     */
+    public static StopPathGeometry of(List<Location> locations) {
+        double[] coordinates = new double[locations.size() * 2];
+        for (int i = 0; i < locations.size(); ++i) {
+            Location location = locations.get(i);
+            if (location != null) {
+                coordinates[2 * i] = location.getLat();
+                coordinates[2 * i + 1] = location.getLon();
+            }
+        }
+        return of(coordinates);
+    }
+
+    /**
+     * @return a copy of the coordinates, latitude and longitude of each location interleaved
+     */
+    public double[] getCoordinates() {
+        return coordinates.clone();
+    }
+
+    public int getNumberLocations() {
+        return coordinates.length / 2;
+    }
+
+    public int getNumberSegments() {
+        return headings.length;
+    }
+
+    public double getLat(int index) {
+        return coordinates[2 * index];
+    }
+
+    public double getLon(int index) {
+        return coordinates[2 * index + 1];
+    }
+
+    /**
+     * @return a new Location object for the location at the index
+     */
+    public Location getLocation(int index) {
+        return new Location(getLat(index), getLon(index));
+    }
+
+    /**
+     * @return read only view of the locations. The Location objects are created as they are read.
+     */
+    public List<Location> getLocations() {
+        return new LocationList();
+    }
+
+    /**
+     * @return heading of the segment in degrees clockwise from due North
+     */
+    public float getSegmentHeading(int segmentIndex) {
+        return headings[segmentIndex];
+    }
+
+    /**
+     * @return length of the segment in meters
+     */
+    public double getSegmentLength(int segmentIndex) {
+        return segmentLengths[segmentIndex];
+    }
+
+    /**
+     * @return distance in meters along the path to the beginning of the segment. For the number of
+     *     segments returns the length of the path.
+     */
+    public double getDistanceToSegment(int segmentIndex) {
+        return distancesToSegments[segmentIndex];
+    }
+
+    /**
+     * @return combined length of all the segments in meters
+     */
+    public double getLength() {
+        return distancesToSegments[distancesToSegments.length - 1];
+    }
+
+    /**
+     * @return the segments as VectorWithHeadings, shared by all StopPaths with this geometry
+     */
+    public List<VectorWithHeading> getSegmentVectors() {
+        List<VectorWithHeading> result = vectors;
+        if (result == null) {
+            List<VectorWithHeading> list = new ArrayList<>(getNumberSegments());
+            for (int i = 0; i < getNumberSegments(); ++i) {
+                list.add(new VectorWithHeading(getLocation(i), getLocation(i + 1), headings[i], segmentLengths[i]));
+            }
+            result = Collections.unmodifiableList(list);
+            vectors = result;
+        }
+        return result;
+    }
+
+    /** So that deserialized geometries are shared as well */
+    private Object readResolve() {
+        return interner.intern(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof StopPathGeometry that)) return false;
+        return hashCode == that.hashCode && Arrays.equals(coordinates, that.coordinates);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "StopPathGeometry [" + "locations=" + getNumberLocations() + ", length=" + getLength() + "]";
+    }
+
+    /** Read only list of Locations backed by the coordinates */
+    private class LocationList extends AbstractList<Location> implements RandomAccess, Serializable {
+        @Override
+        public Location get(int index) {
+            if (index < 0 || index >= getNumberLocations()) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return getLocation(index);
+        }
+
+        @Override
+        public int size() {
+            return getNumberLocations();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/* (C)2023 */
+package org.transitclock.domain.structs;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Stores a StopPathGeometry as a single array column of interleaved latitudes and longitudes.
+ * Geometries read from the database are interned so that identical shapes are only held once.
+ */
+@Converter
+public class StopPathGeometryConverter implements AttributeConverter<StopPathGeometry, double[]> {
+
+    @Override
+    public double[] convertToDatabaseColumn(StopPathGeometry geometry) {
+        return geometry == null ? null : geometry.getCoordinates();
+    }
+
+    @Override
+    public StopPathGeometry convertToEntityAttribute(double[] coordinates) {
+        return coordinates == null ? null : StopPathGeometry.of(coordinates);
+    }
+}
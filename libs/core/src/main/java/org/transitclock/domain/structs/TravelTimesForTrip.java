@@ -70,6 +70,13 @@ public class TravelTimesForTrip implements Serializable {
     @Column(name = "trip_created_for_id", length = 60)
     private final String tripCreatedForId;
 
+    // Hash of the stop paths and shapes of the trip pattern, so that the
+    // travel times can be carried forward to a trip pattern whose ID changed
+    // but whose content didn't. Null for travel times stored before the hash
+    // was added.
+    @Column(name = "trip_pattern_hash", length = 64)
+    private String tripPatternHash;
+
     @ManyToMany(fetch = FetchType.EAGER)
     @JoinTable(name = "travel_times_for_trip_to_travel_times_for_path",
             joinColumns = {
@@ -83,10 +90,14 @@ public class TravelTimesForTrip implements Serializable {
     private final List<TravelTimesForStopPath> travelTimesForStopPaths = new ArrayList<>();
 
     public TravelTimesForTrip(int configRev, int travelTimesRev, Trip trip) {
+        this(configRev, travelTimesRev, trip.getTripPattern().getId(), trip.getId());
+    }
+
+    public TravelTimesForTrip(int configRev, int travelTimesRev, String tripPatternId, String tripCreatedForId) {
         this.configRev = configRev;
         this.travelTimesRev = travelTimesRev;
-        this.tripPatternId = trip.getTripPattern().getId();
-        this.tripCreatedForId = trip.getId();
+        this.tripPatternId = tripPatternId;
+        this.tripCreatedForId = tripCreatedForId;
     }
 
     /**
@@ -110,6 +121,22 @@ public class TravelTimesForTrip implements Serializable {
         travelTimesForStopPaths.add(travelTimesForPath);
     }
 
+    /**
+     * Returns a copy of these travel times for another trip pattern that has the same stop paths
+     * and shapes, such as when the trip pattern ID changed because the shape ID changed. Need
+     * separate travel times for every trip pattern, but the travel times for the stop paths are
+     * shared.
+     *
+     * @param tripPatternId the trip pattern the copy is for
+     * @return the copy, not yet stored
+     */
+    public TravelTimesForTrip forTripPattern(String tripPatternId) {
+        TravelTimesForTrip copy = new TravelTimesForTrip(configRev, travelTimesRev, tripPatternId, tripCreatedForId);
+        copy.tripPatternHash = tripPatternHash;
+        copy.travelTimesForStopPaths.addAll(travelTimesForStopPaths);
+        return copy;
+    }
+
     /**
      * Deletes data from the TravelTimesForTrip and the
      * TravelTimesForTrip_to_TravelTimesForPath_jointable.
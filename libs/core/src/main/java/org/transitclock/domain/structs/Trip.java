@@ -7,6 +7,7 @@ import java.io.Serializable;
 import java.math.BigInteger;
 import java.util.*;
 
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.Getter;
 import lombok.Setter;
@@ -20,6 +21,7 @@ import org.hibernate.annotations.CascadeType;
 import org.hibernate.annotations.DynamicUpdate;
 import org.hibernate.classic.Lifecycle;
 import org.hibernate.collection.spi.PersistentList;
+import org.transitclock.core.CompiledTravelTimes;
 import org.transitclock.domain.hibernate.HibernateUtils;
 import org.transitclock.gtfs.DbConfig;
 import org.transitclock.gtfs.TitleFormatter;
@@ -148,6 +150,13 @@ public class Trip implements Lifecycle, Serializable {
     @Transient
     private Route route;
 
+    // Travel times as flat arrays, created when first needed
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private transient volatile CompiledTravelTimes compiledTravelTimes;
+
 
     /**
      * Constructs Trip object from GTFS data.
@@ -399,6 +408,7 @@ public class Trip implements Lifecycle, Serializable {
      */
     public void setTravelTimes(TravelTimesForTrip travelTimes) {
         this.travelTimes = travelTimes;
+        this.compiledTravelTimes = null;
     }
 
     /**
@@ -728,6 +738,22 @@ public class Trip implements Lifecycle, Serializable {
         return travelTimes.getTravelTimesForStopPath(stopPathIndex);
     }
 
+    /**
+     * Returns the travel times of the trip compiled into arrays, for quickly determining travel
+     * times between points on the trip. Created the first time it is needed. If created by two
+     * threads at once they end up with equivalent objects, which is fine.
+     *
+     * @return the compiled travel times
+     */
+    public CompiledTravelTimes getCompiledTravelTimes() {
+        CompiledTravelTimes compiled = compiledTravelTimes;
+        if (compiled == null) {
+            compiled = CompiledTravelTimes.of(this);
+            compiledTravelTimes = compiled;
+        }
+        return compiled;
+    }
+
     /**
      * Returns length of the trip from the first terminal to the last.
      *
@@ -16,6 +16,7 @@ import org.transitclock.gtfs.model.GtfsRoute;
 import jakarta.persistence.*;
 import java.io.Serializable;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -111,6 +112,36 @@ public class TripPattern implements Serializable, Lifecycle {
      * @param gtfsData So can access stop data for determining extent of trip pattern.
      */
     public TripPattern(int configRev, String shapeId, List<StopPath> stopPaths, Trip trip, GtfsData gtfsData) {
+        this(
+                configRev,
+                generateTripPatternId(shapeId, stopPaths, trip, gtfsData),
+                shapeId,
+                stopPaths,
+                trip,
+                getRouteShortName(trip.getRouteId(), gtfsData),
+                gtfsData::getStop);
+    }
+
+    /**
+     * Create a TripPattern where the ID and route short name have already been determined, such
+     * as for configuration that is generated instead of being processed from GTFS data.
+     *
+     * @param configRev
+     * @param id ID of the trip pattern
+     * @param shapeId Part of what identifies the trip pattern
+     * @param stopPaths Part of what identifies the trip pattern
+     * @param trip For supplying additional info
+     * @param routeShortName Short name, or if not set the long name, of the route
+     * @param stops For looking up a stop by stop ID, for determining extent of trip pattern
+     */
+    public TripPattern(
+            int configRev,
+            String id,
+            String shapeId,
+            List<StopPath> stopPaths,
+            Trip trip,
+            String routeShortName,
+            Function<String, Stop> stops) {
 
         this.shapeId = shapeId;
         this.stopPaths = stopPaths;
@@ -118,8 +149,7 @@ public class TripPattern implements Serializable, Lifecycle {
         // Because will be writing data to the sandbox rev in the db
         this.configRev = configRev;
 
-        // Generate the id .
-        this.id = generateTripPatternId(shapeId, stopPaths, trip, gtfsData);
+        this.id = id;
 
         // Now that have the trip pattern ID set it for each StopPath
         for (StopPath path : stopPaths) {
@@ -135,7 +165,7 @@ public class TripPattern implements Serializable, Lifecycle {
             // as a fallback.
             StopPath lastPath = stopPaths.get(stopPaths.size() - 1);
             String lastStopIdForTrip = lastPath.getStopId();
-            Stop lastStopForTrip = gtfsData.getStop(lastStopIdForTrip);
+            Stop lastStopForTrip = stops.apply(lastStopIdForTrip);
             this.headsign = lastStopForTrip.getName();
         }
 
@@ -147,7 +177,7 @@ public class TripPattern implements Serializable, Lifecycle {
         // Store additional info from this trip
         this.directionId = trip.getDirectionId();
         this.routeId = trip.getRouteId();
-        this.routeShortName = getRouteShortName(routeId, gtfsData);
+        this.routeShortName = routeShortName;
 
         // Remember that this trip pattern refers to this particular
         // trip. Additional trips will be added as they are processed.
@@ -158,7 +188,7 @@ public class TripPattern implements Serializable, Lifecycle {
         this.extent = new Extent();
         for (StopPath stopPath : stopPaths) {
             // Determine the stop
-            Stop stop = gtfsData.getStop(stopPath.getStopId());
+            Stop stop = stops.apply(stopPath.getStopId());
             this.extent.add(stop.getLoc());
             this.stopPathsMap.put(stopPath.getStopId(), stopPath);
         }
@@ -230,9 +260,6 @@ public class TripPattern implements Serializable, Lifecycle {
         rowsUpdated += session
                 .createNativeQuery("DELETE FROM trip_pattern_to_path WHERE trip_pattern_config_rev=" + configRev)
                 .executeUpdate();
-        rowsUpdated += session
-                .createNativeQuery("DELETE FROM stoppath_locations WHERE stoppath_config_rev=" + configRev)
-                .executeUpdate();
         rowsUpdated += session
                 .createMutationQuery("DELETE FROM StopPath WHERE configRev=:configRev")
                 .setParameter("configRev", configRev)
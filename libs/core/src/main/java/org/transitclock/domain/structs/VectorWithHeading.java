@@ -16,6 +16,10 @@ public class VectorWithHeading extends Vector {
     // equator.
     private final float headingInDegrees;
 
+    // Length is needed every time a location is matched to the vector
+    // so it is only determined once
+    private final double length;
+
     /**
      * Construct a vector and determine its heading. Heading will be between -180 and 180 degrees.
      *
@@ -29,6 +33,26 @@ public class VectorWithHeading extends Vector {
             heading += 360.0F;
         }
         headingInDegrees = heading;
+        length = super.length();
+    }
+
+    /**
+     * For when the heading and length have already been determined, such as by StopPathGeometry.
+     *
+     * @param l1
+     * @param l2
+     * @param headingInDegrees as returned by getHeading()
+     * @param length as returned by length()
+     */
+    public VectorWithHeading(Location l1, Location l2, float headingInDegrees, double length) {
+        super(l1, l2);
+        this.headingInDegrees = headingInDegrees;
+        this.length = length;
+    }
+
+    @Override
+    public double length() {
+        return length;
     }
 
     /**
@@ -137,6 +137,50 @@ public class DbConfig {
         this.time = new Time(this);
     }
 
+    /**
+     * For configuration data that is already in memory instead of in the database, such as a
+     * generated network for benchmarks. There is no session so nothing can be lazy loaded. The
+     * blocks therefore need to already contain their trips, with the trip patterns, stop paths
+     * and travel times set, and all the trips are made available through getTrip() and getTrips().
+     */
+    public DbConfig(
+            ServiceProperties serviceProperties,
+            String agencyId,
+            int configRev,
+            List<Agency> agencies,
+            List<Calendar> calendars,
+            List<CalendarDate> calendarDates,
+            List<Route> routes,
+            List<TripPattern> tripPatterns,
+            List<Stop> stops,
+            List<Block> blocks) {
+        this.agencyId = agencyId;
+        this.configRev = configRev;
+
+        setBlocks(blocks);
+        setRoutes(routes);
+        tripPatternsByRouteMap = putTripPatternsIntoMap(tripPatterns);
+        setStops(stops);
+        this.agencies = agencies;
+        this.calendars = calendars;
+        setCalendarDates(calendarDates);
+        fareAttributes = new ArrayList<>();
+        fareRules = new ArrayList<>();
+        frequencies = new ArrayList<>();
+        transfers = new ArrayList<>();
+
+        tripsMap = new HashMap<>();
+        for (Block block : blocks) {
+            for (Trip trip : block.getTrips()) {
+                tripsMap.put(trip.getId(), trip);
+            }
+        }
+        individualTripsMap.putAll(tripsMap);
+
+        this.serviceUtils = new ServiceUtils(serviceProperties, this);
+        this.time = new Time(this);
+    }
+
     /**
      * Returns the global session used for lazy loading data. Useful for determining if the global
      * session has changed.
@@ -597,37 +641,23 @@ public class DbConfig {
         // logger.debug("Reading stopPaths took {} msec", timer.elapsedMsec());
 
         timer = new IntervalTimer();
-        blocks = Block.getBlocks(globalSession, configRev);
-        blocksByServiceMap = putBlocksIntoMap(blocks);
-        blocksByRouteMap = putBlocksIntoMapByRoute(blocks);
+        setBlocks(Block.getBlocks(globalSession, configRev));
         logger.debug("Reading blocks took {} msec", timer.elapsedMsec());
 
         timer = new IntervalTimer();
-        routes = Route.getRoutes(globalSession, configRev);
-        routesByRouteIdMap = putRoutesIntoMapByRouteId(routes);
-        routesByRouteShortNameMap = putRoutesIntoMapByRouteShortName(routes);
+        setRoutes(Route.getRoutes(globalSession, configRev));
         logger.debug("Reading routes took {} msec", timer.elapsedMsec());
 
         tripPatternsByRouteMap = putTripPatternsInfoRouteMap();
 
         timer = new IntervalTimer();
-        List<Stop> stopsList = Stop.getStops(globalSession, configRev);
-        stopsMap = putStopsIntoMap(stopsList);
-        stopsByStopCode = putStopsIntoMapByStopCode(stopsList);
-        routesListByStopIdMap = putRoutesIntoMapByStopId(routes);
+        setStops(Stop.getStops(globalSession, configRev));
         logger.debug("Reading stops took {} msec", timer.elapsedMsec());
 
         timer = new IntervalTimer();
         agencies = Agency.getAgencies(globalSession, configRev);
         calendars = Calendar.getCalendars(globalSession, configRev);
-        calendarDates = CalendarDate.getCalendarDates(globalSession, configRev);
-
-        calendarDatesMap = new HashMap<Long, List<CalendarDate>>();
-        for (CalendarDate calendarDate : calendarDates) {
-            Long time = calendarDate.getTime();
-            List<CalendarDate> calendarDatesForDate = calendarDatesMap.computeIfAbsent(time, k -> new ArrayList<>(1));
-            calendarDatesForDate.add(calendarDate);
-        }
+        setCalendarDates(CalendarDate.getCalendarDates(globalSession, configRev));
 
         fareAttributes = FareAttribute.getFareAttributes(globalSession, configRev);
         fareRules = FareRule.getFareRules(globalSession, configRev);
@@ -637,6 +667,41 @@ public class DbConfig {
         logger.debug("Reading everything else took {} msec", timer.elapsedMsec());
     }
 
+    /** Sets the blocks and the maps for looking them up by service and by route */
+    private void setBlocks(List<Block> blocks) {
+        this.blocks = blocks;
+        blocksByServiceMap = putBlocksIntoMap(blocks);
+        blocksByRouteMap = putBlocksIntoMapByRoute(blocks);
+    }
+
+    /** Sets the routes and the maps for looking them up by ID and by short name */
+    private void setRoutes(List<Route> routes) {
+        this.routes = routes;
+        routesByRouteIdMap = putRoutesIntoMapByRouteId(routes);
+        routesByRouteShortNameMap = putRoutesIntoMapByRouteShortName(routes);
+    }
+
+    /**
+     * Sets the maps for looking up stops and the routes for a stop. The routes and trip patterns
+     * need to have already been set.
+     */
+    private void setStops(List<Stop> stopsList) {
+        stopsMap = putStopsIntoMap(stopsList);
+        stopsByStopCode = putStopsIntoMapByStopCode(stopsList);
+        routesListByStopIdMap = putRoutesIntoMapByStopId(routes);
+    }
+
+    /** Sets the calendar dates and the map for looking them up by date */
+    private void setCalendarDates(List<CalendarDate> calendarDates) {
+        this.calendarDates = calendarDates;
+        calendarDatesMap = new HashMap<Long, List<CalendarDate>>();
+        for (CalendarDate calendarDate : calendarDates) {
+            Long time = calendarDate.getTime();
+            List<CalendarDate> calendarDatesForDate = calendarDatesMap.computeIfAbsent(time, k -> new ArrayList<>(1));
+            calendarDatesForDate.add(calendarDate);
+        }
+    }
+
     /**
      * Returns the block specified by the service and block ID parameters.
      *
@@ -1,11 +1,22 @@
 /* (C)2023 */
 package org.transitclock.gtfs;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.HibernateException;
@@ -17,6 +28,7 @@ import org.transitclock.gtfs.model.GtfsStopTime;
 import org.transitclock.utils.Geo;
 import org.transitclock.utils.IntervalTimer;
 import org.transitclock.utils.Time;
+import org.transitclock.utils.threading.NamedThreadFactory;
 
 /**
  * For setting travel times when processing GTFS configuration. Tries to use existing travel times
@@ -68,36 +80,31 @@ public class TravelTimesProcessorForGtfsUpdates {
     }
 
     /**
-     * Returns the GTFS stop time for the specified trip and stop. For processing travel times need
-     * to use GTFS stop times instead of the trip times since trip times can be filtered and only
-     * contain times for schedule adherence stops.
+     * Returns the GTFS stop times for the specified trip, keyed by GTFS stop sequence. For
+     * processing travel times need to use GTFS stop times instead of the trip times since trip
+     * times can be filtered and only contain times for schedule adherence stops.
      *
-     * <p>NOTE: this method simply does a linear search for the appropriate stop through the list of
-     * travel times associated with the trip. Therefore it could be rather slow! Might need to have
-     * GtfsData provide a ordered map of GtfsStopTimes instead of just a List of them.
+     * <p>The map is created once per trip so that don't have to do a linear search through the
+     * stop times for every stop path.
      *
      * @param tripId
-     * @param tripPattern
-     * @param stopPathIndex
      * @param gtfsData
-     * @return
+     * @return Map of stop sequence to ScheduleTime. The value is null if the stop time has neither
+     *     an arrival nor a departure time.
      */
-    private ScheduleTime getGtfsScheduleTime(String tripId, TripPattern tripPattern, int gtfsStopSequence, GtfsData gtfsData) {
-
-        // Go through list of stops for the tripId.
+    private static Map<Integer, ScheduleTime> getGtfsScheduleTimes(String tripId, GtfsData gtfsData) {
         List<GtfsStopTime> gtfsStopTimesList = gtfsData.getGtfsStopTimesForTrip(tripId);
+        Map<Integer, ScheduleTime> scheduleTimes = new HashMap<>(gtfsStopTimesList.size() * 2);
         for (GtfsStopTime gtfsStopTime : gtfsStopTimesList) {
-            if (gtfsStopTime.getStopSequence() == gtfsStopSequence) {
-                // Found the stop.
-                Integer arr = gtfsStopTime.getArrivalTimeSecs();
-                Integer dep = gtfsStopTime.getDepartureTimeSecs();
-                if (arr == null && dep == null) return null;
-                else return new ScheduleTime(arr, dep);
-            }
-        }
+            // If stop sequence is duplicated use the first one
+            if (scheduleTimes.containsKey(gtfsStopTime.getStopSequence())) continue;
 
-        // Didn't find the stop so can't return SchduleTime
-        return null;
+            Integer arr = gtfsStopTime.getArrivalTimeSecs();
+            Integer dep = gtfsStopTime.getDepartureTimeSecs();
+            scheduleTimes.put(
+                    gtfsStopTime.getStopSequence(), arr == null && dep == null ? null : new ScheduleTime(arr, dep));
+        }
+        return scheduleTimes;
     }
 
     /**
@@ -138,9 +145,9 @@ public class TravelTimesProcessorForGtfsUpdates {
 
         // Go through the schedule times for the trip pattern.
         // Start at index 1 since the first stub path is a special case
+        Map<Integer, ScheduleTime> gtfsScheduleTimes = getGtfsScheduleTimes(trip.getId(), gtfsData);
         int previousStopPathWithScheduleTimeIndex = 0;
-        ScheduleTime previousScheduleTime =
-                getGtfsScheduleTime(trip.getId(), tripPattern, firstPath.getGtfsStopSeq(), gtfsData);
+        ScheduleTime previousScheduleTime = gtfsScheduleTimes.get(firstPath.getGtfsStopSeq());
         int numberOfPaths = trip.getTripPattern().getNumberStopPaths();
         for (int stopPathWithScheduleTimeIndex = 1;
                 stopPathWithScheduleTimeIndex < numberOfPaths;
@@ -150,7 +157,7 @@ public class TravelTimesProcessorForGtfsUpdates {
             // be for schedule adherence stops, which could be a small subset of the
             // schedule times from the stop_times.txt GTFS file.
             int stopSeq = trip.getStopPath(stopPathWithScheduleTimeIndex).getGtfsStopSeq();
-            ScheduleTime scheduleTime = getGtfsScheduleTime(trip.getId(), tripPattern, stopSeq, gtfsData);
+            ScheduleTime scheduleTime = gtfsScheduleTimes.get(stopSeq);
             if (scheduleTime == null) continue;
 
             // Determine time elapsed between schedule times for
@@ -453,23 +460,18 @@ public class TravelTimesProcessorForGtfsUpdates {
     }
 
     /**
-     * Creates new schedule based travel times for the trip. Also adds the schedule based travel
-     * times to travelTimesFromDbMap so that it can possibly be used by other trips. For when
+     * Uses new schedule based travel times for the trip. Also adds the schedule based travel times
+     * to the list for the trip pattern so that it can possibly be used by other trips. For when
      * historic non-schedule based travel times are not available from the database.
      *
      * @param trip which trip trying to get travel times for
-     * @param gtfsData for getting schedule info
-     * @param ttForTripFromDbList list of travel times from the db for the trip pattern. Can be
-     *     null.
-     * @param travelTimesFromDbMap so can add newly created schedule based travel times so can also
-     *     be used by other trips
+     * @param scheduleBasedTravelTimes the schedule based travel times determined for the trip
+     * @param ttForTripPatternList list of travel times for the trip pattern, so can add newly
+     *     created schedule based travel times so can also be used by other trips
      * @return schedule based travel times
      */
     private TravelTimesForTrip scheduleBasedTravelTimes(
-            Trip trip,
-            GtfsData gtfsData,
-            List<TravelTimesForTrip> ttForTripFromDbList,
-            Map<String, List<TravelTimesForTrip>> travelTimesFromDbMap) {
+            Trip trip, TravelTimesForTrip scheduleBasedTravelTimes, List<TravelTimesForTrip> ttForTripPatternList) {
         logger.debug(
                 "There was not an adequate travel time match for "
                         + "tripId={} which is for tripPatternId={} so will "
@@ -477,16 +479,7 @@ public class TravelTimesProcessorForGtfsUpdates {
                 trip.getId(),
                 trip.getTripPattern().getId());
 
-        // Determine the schedule based travel times
-        TravelTimesForTrip scheduleBasedTravelTimes = determineTravelTimesBasedOnSchedule(trip, gtfsData);
-
-        // If list of travel times doesn't exist for this trip pattern yet
-        // then create it
-        if (ttForTripFromDbList == null) {
-            ttForTripFromDbList = new ArrayList<TravelTimesForTrip>();
-            travelTimesFromDbMap.put(trip.getTripPattern().getId(), ttForTripFromDbList);
-        }
-        ttForTripFromDbList.add(scheduleBasedTravelTimes);
+        ttForTripPatternList.add(scheduleBasedTravelTimes);
 
         // This would indicate a bug in the schedule-based travel time calculation code
         if (!scheduleBasedTravelTimes.isValid())
@@ -502,16 +495,14 @@ public class TravelTimesProcessorForGtfsUpdates {
      * @param trip which trip trying to get travel times for
      * @param ttForTripFromDb schedule based travel times from db that checking to see if close
      *     enough. If null then returns false since no schedule to be close to.
-     * @param gtfsData for getting schedule info
+     * @param scheduleBasedTravelTimes the schedule based travel times determined for the trip
      * @return true if schedule from gtfsData is close enough to the one from ttForTripFromDb
      */
-    private boolean scheduleCloseEnough(Trip trip, TravelTimesForTrip ttForTripFromDb, GtfsData gtfsData) {
+    private boolean scheduleCloseEnough(
+            Trip trip, TravelTimesForTrip ttForTripFromDb, TravelTimesForTrip scheduleBasedTravelTimes) {
         // If no travel times from database then return false
         if (ttForTripFromDb == null) return false;
 
-        // Determine schedule based travel times
-        TravelTimesForTrip scheduleBasedTravelTimes = determineTravelTimesBasedOnSchedule(trip, gtfsData);
-
         // Travel times from db are based on schedule. See if schedule time is
         // close to the same. If it is, then can use these times
         // Determine the travel times for this trip based on the GTFS
@@ -544,72 +535,286 @@ public class TravelTimesProcessorForGtfsUpdates {
         return true;
     }
 
+    /**
+     * Determines the travel times to use for a single trip and sets them for the trip.
+     *
+     * @param trip the trip to process
+     * @param gtfsData for getting schedule info
+     * @param ttForTripPatternList travel times for the trip pattern from the db plus the schedule
+     *     based ones created for earlier trips of the trip pattern. Newly created schedule based
+     *     travel times are added to it.
+     * @return the travel times used for the trip
+     */
+    private TravelTimesForTrip processTrip(
+            Trip trip, GtfsData gtfsData, List<TravelTimesForTrip> ttForTripPatternList) {
+        TripPattern tripPattern = trip.getTripPattern();
+
+        logger.debug(
+                "Processing travel times for tripId={} which " + "is for tripPatternId={} for routeId={}.",
+                trip.getId(),
+                tripPattern.getId(),
+                trip.getRouteId());
+
+        // See if have historic non-schedule based travel times from db for
+        // the trip
+        TravelTimesForTrip travelTimesToUse = travelTimesForTripFromDb(trip, ttForTripPatternList, false);
+
+        // If didn't find travel times for trip see if have non-schedule
+        // based ones for same trip pattern.
+        if (travelTimesToUse == null) {
+            travelTimesToUse = travelTimesForTripPatternFromDb(trip, ttForTripPatternList, false);
+        }
+
+        // The schedule based travel times for the trip. Only determined
+        // once, and only if needed.
+        TravelTimesForTrip scheduleBasedTravelTimes = null;
+
+        // If didn't find non-schedule based travel times from db then see
+        // if can reuse existing schedule based travel time
+        if (travelTimesToUse == null) {
+            TravelTimesForTrip ttForTripFromDb = travelTimesForTripFromDb(trip, ttForTripPatternList, true);
+            if (ttForTripFromDb != null) {
+                scheduleBasedTravelTimes = determineTravelTimesBasedOnSchedule(trip, gtfsData);
+                if (scheduleCloseEnough(trip, ttForTripFromDb, scheduleBasedTravelTimes))
+                    travelTimesToUse = ttForTripFromDb;
+            }
+        }
+
+        // If didn't find non-schedule based travel times from db then see
+        // if can reuse existing schedule based travel time from another trip
+        if (travelTimesToUse == null) {
+            TravelTimesForTrip ttForTripFromDb = travelTimesForTripPatternFromDb(trip, ttForTripPatternList, true);
+            if (ttForTripFromDb != null) {
+                if (scheduleBasedTravelTimes == null)
+                    scheduleBasedTravelTimes = determineTravelTimesBasedOnSchedule(trip, gtfsData);
+                if (scheduleCloseEnough(trip, ttForTripFromDb, scheduleBasedTravelTimes))
+                    travelTimesToUse = ttForTripFromDb;
+            }
+        }
+
+        // If didn't have any usable travel times from db then create new
+        // schedule based travel times for this trip
+        if (travelTimesToUse == null) {
+            if (scheduleBasedTravelTimes == null)
+                scheduleBasedTravelTimes = determineTravelTimesBasedOnSchedule(trip, gtfsData);
+            travelTimesToUse = scheduleBasedTravelTimes(trip, scheduleBasedTravelTimes, ttForTripPatternList);
+        }
+
+        // Set the resulting TravelTimesForTrip for the Trip so travel times
+        // will be stored as part of the trip when the trip is stored to
+        // the database.
+        trip.setTravelTimes(travelTimesToUse);
+        return travelTimesToUse;
+    }
+
+    /**
+     * Returns a hash of what travel times of the trip pattern depend on: the IDs of the stop paths
+     * and their shapes. The travel times are segmented along the shapes, so travel times can only
+     * be carried forward to another trip pattern with the same hash.
+     *
+     * @param stopPaths the stop paths of the trip pattern
+     * @return SHA-256 of the content as hex
+     */
+    static String contentHash(List<StopPath> stopPaths) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + 3 * Double.BYTES);
+        for (StopPath stopPath : stopPaths) {
+            byte[] stopPathId = stopPath.getId().getBytes(StandardCharsets.UTF_8);
+            List<Location> locations = stopPath.getLocations();
+            int numLocations = locations != null ? locations.size() : 0;
+
+            // Lengths are included so that the content is unambiguous
+            buffer.clear();
+            buffer.putInt(stopPathId.length);
+            digest.update(buffer.flip());
+            digest.update(stopPathId);
+            buffer.clear();
+            buffer.putInt(numLocations);
+            buffer.putDouble(stopPath.getLength());
+            digest.update(buffer.flip());
+            for (int i = 0; i < numLocations; ++i) {
+                Location location = locations.get(i);
+                buffer.clear();
+                buffer.putDouble(location.getLat());
+                buffer.putDouble(location.getLon());
+                digest.update(buffer.flip());
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Returns the travel times from the db to start with for each trip pattern. Each trip pattern
+     * gets its own copy of the list so that schedule based travel times can be added to it without
+     * synchronization.
+     *
+     * <p>If a trip pattern doesn't have travel times under its ID, such as when the ID changed
+     * because the shape ID changed, the travel times of a previous trip pattern with the same
+     * content hash, meaning the same stop paths and shapes, are carried forward. They are copied
+     * for the new trip pattern ID so that they are stored, and later read back in, for the trip
+     * pattern that uses them. Travel times stored without a hash are never carried forward.
+     *
+     * @param contentHashByTripPatternId the content hash, see contentHash(), of each trip pattern
+     *     to get travel times for
+     * @param travelTimesFromDbMap Map keyed by tripPatternId of Lists of TravelTimesForTrip from
+     *     the db
+     * @return Map keyed by tripPatternId of Lists of TravelTimesForTrip for the trip pattern
+     */
+    static Map<String, List<TravelTimesForTrip>> travelTimesForTripPatterns(
+            Map<String, String> contentHashByTripPatternId, Map<String, List<TravelTimesForTrip>> travelTimesFromDbMap) {
+        // So can find travel times for trip patterns whose ID changed but
+        // whose content didn't
+        Map<String, List<TravelTimesForTrip>> travelTimesFromDbByContentHash = new HashMap<>();
+        for (List<TravelTimesForTrip> travelTimesForTripPattern : travelTimesFromDbMap.values()) {
+            for (TravelTimesForTrip travelTimes : travelTimesForTripPattern) {
+                if (travelTimes.getTripPatternHash() == null) continue;
+                travelTimesFromDbByContentHash
+                        .computeIfAbsent(travelTimes.getTripPatternHash(), k -> new ArrayList<>())
+                        .add(travelTimes);
+            }
+        }
+
+        Map<String, List<TravelTimesForTrip>> ttForTripPatternLists = new HashMap<>();
+        int carriedForward = 0;
+        for (Map.Entry<String, String> entry : contentHashByTripPatternId.entrySet()) {
+            String tripPatternId = entry.getKey();
+            List<TravelTimesForTrip> ttFromDbList = travelTimesFromDbMap.get(tripPatternId);
+            if (ttFromDbList != null) {
+                ttForTripPatternLists.put(tripPatternId, new ArrayList<>(ttFromDbList));
+                continue;
+            }
+
+            List<TravelTimesForTrip> ttForTripPatternList = new ArrayList<>();
+            List<TravelTimesForTrip> ttWithSameContent = travelTimesFromDbByContentHash.get(entry.getValue());
+            if (ttWithSameContent != null) {
+                for (TravelTimesForTrip travelTimes : ttWithSameContent) {
+                    ttForTripPatternList.add(travelTimes.forTripPattern(tripPatternId));
+                }
+                ++carriedForward;
+            }
+            ttForTripPatternLists.put(tripPatternId, ttForTripPatternList);
+        }
+        if (carriedForward > 0) {
+            logger.info(
+                    "Carrying forward travel times for {} trip patterns whose ID changed but whose "
+                            + "stop paths and shapes are the same.",
+                    carriedForward);
+        }
+        return ttForTripPatternLists;
+    }
+
     /**
      * Goes through every trip and and associates schedule based travel times with trip if don't
      * have GPS data for it.
      *
+     * <p>The trips are partitioned by trip pattern since a trip can only use travel times for its
+     * own trip pattern. The partitions are independent and are therefore processed in parallel.
+     * Within a partition the trips are processed in GTFS order, the same as when processed
+     * sequentially, so the results are the same.
+     *
+     * <p>If a trip pattern doesn't have travel times under its ID, such as when the ID changed
+     * because the shape ID changed, the travel times of a previous trip pattern with the same stop
+     * paths and shapes are carried forward, copied for the new trip pattern ID.
+     *
      * @param gtfsData
-     * @param travelTimesFromDbMap Map keyed by tripPatternId of Lists of TripPatterns
+     * @param travelTimesFromDbMap Map keyed by tripPatternId of Lists of TripPatterns. Updated with
+     *     the travel times for each trip pattern, including newly created schedule based ones.
      * @return the number of distinct traveltimes referenced for the travelTimesRev
      * @throws HibernateException
      */
     private Integer processTrips(GtfsData gtfsData, Map<String, List<TravelTimesForTrip>> travelTimesFromDbMap) {
-        // keep a set of travel times for trips for metrics
-        Set<Integer> travelTimesForTripIds = new HashSet<Integer>();
-
-        // For trip read from GTFS data..
+        // Partition the trips by trip pattern ID, keeping the GTFS order
+        Map<String, List<Trip>> tripsByTripPatternId = new LinkedHashMap<>();
         for (Trip trip : gtfsData.getTrips()) {
-            TripPattern tripPattern = trip.getTripPattern();
-
-            logger.debug(
-                    "Processing travel times for tripId={} which " + "is for tripPatternId={} for routeId={}.",
-                    trip.getId(),
-                    tripPattern.getId(),
-                    trip.getRouteId());
-
-            // For determining if can use existing TravelTimesForTrip from
-            // database. Get list of all travel times for the same trip pattern
-            // so that can find which one is best.
-            List<TravelTimesForTrip> ttForTripFromDbList = travelTimesFromDbMap.get(tripPattern.getId());
-
-            // See if have historic non-schedule based travel times from db for
-            // the trip
-            TravelTimesForTrip travelTimesToUse = travelTimesForTripFromDb(trip, ttForTripFromDbList, false);
+            tripsByTripPatternId
+                    .computeIfAbsent(trip.getTripPattern().getId(), k -> new ArrayList<>())
+                    .add(trip);
+        }
 
-            // If didn't find travel times for trip see if have non-schedule
-            // based ones for same trip pattern.
-            if (travelTimesToUse == null) {
-                travelTimesToUse = travelTimesForTripPatternFromDb(trip, ttForTripFromDbList, false);
+        Map<String, String> contentHashByTripPatternId = new HashMap<>();
+        for (Map.Entry<String, List<Trip>> entry : tripsByTripPatternId.entrySet()) {
+            contentHashByTripPatternId.put(
+                    entry.getKey(), contentHash(entry.getValue().get(0).getTripPattern().getStopPaths()));
+        }
+        Map<String, List<TravelTimesForTrip>> ttForTripPatternLists =
+                travelTimesForTripPatterns(contentHashByTripPatternId, travelTimesFromDbMap);
+
+        // Process the partitions in parallel. Each one returns the travel
+        // times used by its trips.
+        int numThreads =
+                Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), tripsByTripPatternId.size()));
+        ExecutorService executor =
+                Executors.newFixedThreadPool(numThreads, new NamedThreadFactory("TravelTimesProcessor"));
+        List<Future<List<TravelTimesForTrip>>> futures = new ArrayList<>(tripsByTripPatternId.size());
+        try {
+            for (Map.Entry<String, List<Trip>> entry : tripsByTripPatternId.entrySet()) {
+                List<TravelTimesForTrip> ttForTripPatternList = ttForTripPatternLists.get(entry.getKey());
+                futures.add(executor.submit(() -> {
+                    List<TravelTimesForTrip> used = new ArrayList<>(entry.getValue().size());
+                    for (Trip trip : entry.getValue()) {
+                        used.add(processTrip(trip, gtfsData, ttForTripPatternList));
+                    }
+                    return used;
+                }));
             }
 
-            // If didn't find non-schedule based travel times from db then see
-            // if can reuse existing schedule based travel time
-            if (travelTimesToUse == null) {
-                TravelTimesForTrip ttForTripFromDb = travelTimesForTripFromDb(trip, ttForTripFromDbList, true);
-                if (scheduleCloseEnough(trip, ttForTripFromDb, gtfsData)) travelTimesToUse = ttForTripFromDb;
-            }
+            // keep a set of travel times for trips for metrics
+            Set<Integer> travelTimesForTripIds = new HashSet<>();
+            int unchangedTripPatterns = 0;
+            int i = 0;
+            for (String tripPatternId : tripsByTripPatternId.keySet()) {
+                List<TravelTimesForTrip> used = getResult(futures.get(i++), tripPatternId);
+                boolean unchanged = true;
+                for (TravelTimesForTrip travelTimes : used) {
+                    travelTimesForTripIds.add(travelTimes.getId());
+                    // Newly created travel times don't yet have an ID
+                    if (travelTimes.getId() == null) unchanged = false;
+                }
+                if (unchanged) ++unchangedTripPatterns;
 
-            // If didn't find non-schedule based travel times from db then see
-            // if can reuse existing schedule based travel time from another trip
-            if (travelTimesToUse == null) {
-                TravelTimesForTrip ttForTripFromDb = travelTimesForTripPatternFromDb(trip, ttForTripFromDbList, true);
-                if (scheduleCloseEnough(trip, ttForTripFromDb, gtfsData)) travelTimesToUse = ttForTripFromDb;
+                // Remember the content the travel times are for so that they
+                // can be carried forward if the trip pattern ID changes
+                String contentHash = contentHashByTripPatternId.get(tripPatternId);
+                for (TravelTimesForTrip travelTimes : ttForTripPatternLists.get(tripPatternId)) {
+                    if (travelTimes.getTripPatternHash() == null) travelTimes.setTripPatternHash(contentHash);
+                }
+                travelTimesFromDbMap.put(tripPatternId, ttForTripPatternLists.get(tripPatternId));
             }
 
-            // If didn't have any usable travel times from db then create new
-            // schedule based travel times for this trip
-            if (travelTimesToUse == null) {
-                travelTimesToUse = scheduleBasedTravelTimes(trip, gtfsData, ttForTripFromDbList, travelTimesFromDbMap);
-            }
+            logger.info(
+                    "Processed travel times for {} trip patterns using {} threads. {} trip patterns "
+                            + "were unchanged and reuse the existing travel times.",
+                    tripsByTripPatternId.size(),
+                    numThreads,
+                    unchangedTripPatterns);
+            return travelTimesForTripIds.size();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-            // were he keep a count of travel times for later metrics
-            travelTimesForTripIds.add(travelTimesToUse.getId());
-            // Set the resulting TravelTimesForTrip for the Trip so travel times
-            // will be stored as part of the trip when the trip is stored to
-            // the database.
-            trip.setTravelTimes(travelTimesToUse);
+    /**
+     * Returns the result of processing a trip pattern, passing on any exception from the processing
+     * as is.
+     */
+    private static List<TravelTimesForTrip> getResult(Future<List<TravelTimesForTrip>> future, String tripPatternId) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing travel times", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+            if (e.getCause() instanceof Error error) throw error;
+            throw new IllegalStateException(
+                    "Exception processing travel times for tripPatternId=" + tripPatternId, e.getCause());
         }
-        return travelTimesForTripIds.size();
     }
 
     /**
@@ -2,11 +2,9 @@
 package org.transitclock.monitoring;
 
 import java.util.Date;
-import java.util.List;
 
 import org.transitclock.core.avl.assigner.BlockInfoProvider;
 import org.transitclock.domain.hibernate.DataDbLogger;
-import org.transitclock.domain.structs.Block;
 import org.transitclock.gtfs.DbConfig;
 
 /**
@@ -34,8 +32,7 @@ public class ActiveBlocksMonitor extends MonitorBase {
     protected boolean triggered() {
         Date now = new Date();
         if (now.getTime() - lastUpdate.getTime() > reportingIntervalInMillis) {
-            List<Block> blocks = blockInfoProvider.getCurrentlyActiveBlocks();
-            double activeBlockCount = (blocks != null ? blocks.size() : 0);
+            double activeBlockCount = blockInfoProvider.getCurrentlyActiveBlockCount();
             double totalBlockCount = dbConfig.getBlockCount();
             // cloudwatch metrics for active/total moved to PredictabilityMonitor
             double activeBlockCountPercentage = 0;
@@ -77,7 +77,7 @@ public class AgencyMonitor {
      *     if there are any problems.
      */
     public String checkAll() {
-        logger.info("Monitoring agency for problems...");
+        logger.debug("Monitoring agency for problems...");
 
         String errorMessage = "";
 
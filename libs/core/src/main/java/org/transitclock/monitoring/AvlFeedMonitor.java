@@ -1,14 +1,11 @@
 /* (C)2023 */
 package org.transitclock.monitoring;
 
-import java.util.List;
-
 import lombok.extern.slf4j.Slf4j;
 import org.transitclock.config.data.MonitoringConfig;
 import org.transitclock.core.avl.AvlProcessor;
 import org.transitclock.core.avl.assigner.BlockInfoProvider;
 import org.transitclock.domain.hibernate.DataDbLogger;
-import org.transitclock.domain.structs.Block;
 import org.transitclock.utils.Time;
 
 /**
@@ -84,8 +81,7 @@ public class AvlFeedMonitor extends MonitorBase {
      */
     @Override
     protected boolean acceptableEvenIfTriggered() {
-        List<Block> activeBlocks = blockInfoProvider.getCurrentlyActiveBlocks();
-        if (activeBlocks.isEmpty()) {
+        if (blockInfoProvider.getCurrentlyActiveBlockCount() == 0) {
             setAcceptableEvenIfTriggeredMessage("No currently active blocks " + "so AVL feed considered to be OK.");
             return true;
         }
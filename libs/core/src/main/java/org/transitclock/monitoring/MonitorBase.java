@@ -4,9 +4,11 @@ package org.transitclock.monitoring;
 import java.util.Date;
 
 import lombok.extern.slf4j.Slf4j;
+import org.slf4j.event.Level;
 import org.transitclock.config.data.MonitoringConfig;
 import org.transitclock.domain.hibernate.DataDbLogger;
 import org.transitclock.domain.structs.MonitoringEvent;
+import org.transitclock.utils.SystemTime;
 import org.transitclock.utils.Time;
 
 /**
@@ -17,6 +19,11 @@ import org.transitclock.utils.Time;
  */
 @Slf4j
 public abstract class MonitorBase {
+    // The monitors only read counters that are kept up to date as AVL
+    // reports, assignments and db writes happen so they are checked
+    // frequently. While a monitor stays triggered only store an event this
+    // often so that the database isn't filled with the same event.
+    private static final long MIN_MSEC_BETWEEN_TRIGGERED_EVENTS = 2 * Time.MS_PER_MIN;
 
     protected final String agencyId;
     protected final DataDbLogger dataDbLogger;
@@ -36,6 +43,9 @@ public abstract class MonitorBase {
     // A value for the monitor that can be logged into database.
     private double value;
 
+    // When a MonitoringEvent was last stored
+    private long lastEventTime = 0;
+
     /**
      * Constructor.
      *
@@ -64,7 +74,10 @@ public abstract class MonitorBase {
             acceptableEvenIfTriggered = acceptableEvenIfTriggered();
         }
 
-        logger.info(
+        // Only log at info level when the state changes since checked
+        // frequently
+        boolean stateChanging = isTriggered != wasTriggered;
+        logger.atLevel(stateChanging ? Level.INFO : Level.DEBUG).log(
                 "For agencyId={} monitoring type={} isTriggered={} "
                         + "wasTriggered={} message=\"{}\" acceptableEvenIfTriggered={} "
                         + "acceptableEvenIfTriggeredMessage=\"{}\"",
@@ -82,9 +95,10 @@ public abstract class MonitorBase {
         // in between. This db logging will be done even if
         // acceptableEvenIfTriggered is true, which is good because it allows
         // one to see in the db what really happened.
-        if (isTriggered || wasTriggered) {
-            MonitoringEvent monitoringEvent = new MonitoringEvent(new Date(), type(), isTriggered, getMessage(), value);
-            dataDbLogger.add(monitoringEvent);
+        long now = SystemTime.getMillis();
+        if (stateChanging || (isTriggered && now - lastEventTime >= MIN_MSEC_BETWEEN_TRIGGERED_EVENTS)) {
+            storeEvent(new MonitoringEvent(new Date(now), type(), isTriggered, getMessage(), value));
+            lastEventTime = now;
         }
 
         // Handle notifications according to change of monitoring state. If
@@ -92,14 +106,15 @@ public abstract class MonitorBase {
         if (!wasTriggered && isTriggered && !acceptableEvenIfTriggered) {
             // If a timeout time is configured then retry after that
             // number of seconds
-            if (MonitoringConfig.retryTimeoutSecs.getValue() != 0) {
+            int retryTimeoutSecs = retryTimeoutSecs();
+            if (retryTimeoutSecs != 0) {
                 logger.debug(
                         "Was triggered first time so trying again after " + "{} seconds. {}",
-                        MonitoringConfig.retryTimeoutSecs.getValue(),
+                        retryTimeoutSecs,
                         getMessage());
 
                 // Try checking whether triggered again after sleeping a bit
-                Time.sleep(MonitoringConfig.retryTimeoutSecs.getValue() * Time.MS_PER_SEC);
+                Time.sleep(retryTimeoutSecs * Time.MS_PER_SEC);
                 isTriggered = triggered() && !acceptableEvenIfTriggered;
 
                 // If now OK then it was a very temporary issue so do not
@@ -133,6 +148,26 @@ public abstract class MonitorBase {
         return isTriggered;
     }
 
+    /**
+     * Stores the MonitoringEvent into the database.
+     *
+     * @param monitoringEvent
+     */
+    protected void storeEvent(MonitoringEvent monitoringEvent) {
+        dataDbLogger.add(monitoringEvent);
+    }
+
+    /**
+     * Returns how long in seconds to wait before checking a monitor again when it is first
+     * triggered. Specified by the Java property transitclock.monitoring.retryTimeoutSecs . Can be
+     * overwritten by an implementation of a monitor.
+     *
+     * @return seconds to wait, or 0 to not check again
+     */
+    protected int retryTimeoutSecs() {
+        return MonitoringConfig.retryTimeoutSecs.getValue();
+    }
+
     /**
      * When triggered() is called the subclass should set the message. This needs to be done whether
      * or not monitor is triggered since monitoring also sends an OK message when was triggered but
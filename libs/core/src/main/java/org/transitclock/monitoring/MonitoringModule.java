@@ -35,7 +35,7 @@ public class MonitoringModule implements Module {
     /* (non-Javadoc)
      * @see java.lang.Runnable#run()
      */
-    @Scheduled(fixedRateString = "${transitclock.monitoring.secondsBetweenMonitorinPolling:120}", timeUnit = TimeUnit.SECONDS)
+    @Scheduled(fixedRateString = "${transitclock.monitoring.secondsBetweenMonitorinPolling:10}", timeUnit = TimeUnit.SECONDS)
     public void run() {
         // Wait appropriate amount of time till poll again
         // Actually do the monitoring
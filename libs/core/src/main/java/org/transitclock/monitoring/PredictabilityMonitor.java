@@ -1,9 +1,8 @@
 /* (C)2023 */
 package org.transitclock.monitoring;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.transitclock.config.data.MonitoringConfig;
 import org.transitclock.core.avl.assigner.BlockInfoProvider;
@@ -14,7 +13,7 @@ import org.transitclock.utils.StringUtils;
 
 /**
  * Monitors how many vehicles are predictable compared to how many active blocks there currently
- * are.
+ * are, overall and per route.
  *
  * @author SkiBu Smith
  */
@@ -30,39 +29,42 @@ public class PredictabilityMonitor extends MonitorBase {
 
     /**
      * Returns the fraction (0.0 - 1.0) of the blocks that currently have a predictable vehicle
-     * associated.
+     * associated. Uses the number of active blocks per route and the number of predictable
+     * vehicles per route, which are both kept up to date as blocks become active and vehicles
+     * change, so this doesn't need to look at every block and vehicle. Only if below the threshold
+     * are the individual blocks looked at in order to provide a more complete message.
      *
      * @param threshold So can provide a more complete message if below the threshold
      * @return Fraction of blocks that have a predictable vehicle
      */
     private double fractionBlocksPredictable(double threshold) {
-        // For creating message
-        List<Block> activeBlocksWithoutVehicle = new ArrayList<Block>();
         // Determine number of currently active blocks.
         // If there are no currently active blocks then don't need to be
         // getting AVL data so return 0
-        List<Block> activeBlocks = blockInfoProvider.getCurrentlyActiveBlocks();
-        if (activeBlocks.isEmpty()) {
+        int activeBlockCount = blockInfoProvider.getCurrentlyActiveBlockCount();
+        if (activeBlockCount == 0) {
             setMessage("No currently active blocks so predictability " + "considered to be OK.");
             return 1.0;
         }
 
-        // Determine number of currently active vehicles
+        // Determine number of currently predictable vehicles, and the
+        // routes that are below the threshold
+        Map<String, Integer> activeBlockCountsByRoute = blockInfoProvider.getCurrentlyActiveBlockCountsByRoute();
         int predictableVehicleCount = 0;
-        for (Block block : activeBlocks) {
-            // Determine vehicles associated with the block if there are any
-            Collection<String> vehicleIdsForBlock = vehicleDataCache.getVehiclesByBlockId(block.getId());
-            predictableVehicleCount += vehicleIdsForBlock.size();
-
-            // Keep track of active blocks without vehicles
-            if (vehicleIdsForBlock.isEmpty()) {
-                activeBlocksWithoutVehicle.add(block);
+        Map<String, String> routesBelowThreshold = new TreeMap<>();
+        for (Map.Entry<String, Integer> entry : activeBlockCountsByRoute.entrySet()) {
+            int predictableVehiclesForRoute = vehicleDataCache.getNumPredictableVehicles(entry.getKey());
+            predictableVehicleCount += predictableVehiclesForRoute;
+
+            double routeFraction = (double) predictableVehiclesForRoute / entry.getValue();
+            if (routeFraction < threshold) {
+                routesBelowThreshold.put(entry.getKey(), predictableVehiclesForRoute + "/" + entry.getValue());
             }
         }
 
         // Determine fraction of active blocks that have a predictable vehicle
         double fraction = ((double) Math.max(predictableVehicleCount, MonitoringConfig.minimumPredictableVehicles.getValue()))
-                / activeBlocks.size();
+                / activeBlockCount;
 
         // Provide simple message explaining the situation
         String message = "Predictable blocks fraction="
@@ -70,19 +72,23 @@ public class PredictabilityMonitor extends MonitorBase {
                 + ", minimum allowed fraction="
                 + StringUtils.twoDigitFormat(MonitoringConfig.minPredictableBlocks.getValue())
                 + ", active blocks="
-                + activeBlocks.size()
+                + activeBlockCount
                 + ", predictable vehicles="
                 + predictableVehicleCount
                 + " (minimumPredictableVehicles="
                 + Math.max(predictableVehicleCount, MonitoringConfig.minimumPredictableVehicles.getValue())
                 + ").";
 
-        // If below the threshold then add all the active block IDs to the
-        // message so can more easily see
+        // If below the threshold then add the routes and all the active
+        // block IDs without a vehicle to the message so can more easily see
         if (fraction < threshold) {
             StringBuilder sb = new StringBuilder();
+            sb.append(" Routes below minimum with predictable vehicles/active blocks: ");
+            routesBelowThreshold.forEach((routeId, counts) ->
+                    sb.append("route=").append(routeId).append(" ").append(counts).append("; "));
             sb.append(" Currently active blocks without vehicles: ");
-            for (Block block : activeBlocksWithoutVehicle) {
+            for (Block block : blockInfoProvider.getCurrentlyActiveBlocks()) {
+                if (!vehicleDataCache.getVehiclesByBlockId(block.getId()).isEmpty()) continue;
                 sb.append("block=")
                         .append(block.getId())
                         .append(", serviceId=")
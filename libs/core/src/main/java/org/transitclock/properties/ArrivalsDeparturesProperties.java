@@ -17,4 +17,20 @@ public class ArrivalsDeparturesProperties {
     // If the time of a determine arrival/departure is really different from the AVL time then something must be wrong and the situation will be logged.
     private Integer allowableDifferenceBetweenAvlTimeSecs = 86400;
 
+    // config param: transitclock.arrivalsDepartures.adherenceRollupEnabled
+    // Whether schedule adherence of generated arrivals/departures is rolled up per route/direction/stop and hour into the schedule_adherence_summaries table, which is what the schedule adherence reports read.
+    private Boolean adherenceRollupEnabled = true;
+
+    // config param: transitclock.arrivalsDepartures.adherenceRollupFlushIntervalSecs
+    // How often the schedule adherence rollups kept in memory are written to the database.
+    private Integer adherenceRollupFlushIntervalSecs = 60;
+
+    // config param: transitclock.arrivalsDepartures.asyncConsumers
+    // Whether the generated arrivals/departures are handed to the db logger and the caches on separate threads, one per group of consumers, instead of on the thread processing the AVL report. The caches are then updated a few msec after the arrival/departure is determined.
+    private Boolean asyncConsumers = true;
+
+    // config param: transitclock.arrivalsDepartures.consumerQueueSize
+    // Maximum number of arrivals/departures waiting for each group of consumers when asyncConsumers is enabled. When a queue is full AVL processing waits for room.
+    private Integer consumerQueueSize = 100000;
+
 }
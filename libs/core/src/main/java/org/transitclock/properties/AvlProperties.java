@@ -92,6 +92,34 @@ public class AvlProperties {
     // How many threads to be used for processing the AVL data. For most applications just using a single thread is probably sufficient and it makes the logging simpler since the messages will not be interleaved. But for large systems with lots of vehicles then should use multiple threads, such as 3-15 so that more of the cores are used.
     private Integer numThreads = 1;
 
+    // config param: transitclock.avl.admissionControlEnabled
+    // Whether AVL reports are shed when the AVL queue backs up. If false then reports are queued until the queue is full and then rejected by the executor.
+    private Boolean admissionControlEnabled = true;
+
+    // config param: transitclock.avl.shedSchedBasedQueueFraction
+    // Fraction of the AVL queue that has to be in use before the fake AVL reports for schedule based predictions are shed.
+    private Double shedSchedBasedQueueFraction = 0.5;
+
+    // config param: transitclock.avl.shedFrequentQueueFraction
+    // Fraction of the AVL queue that has to be in use before AVL reports that are within shedFrequentWithinSecs of the previous report for the vehicle are shed.
+    private Double shedFrequentQueueFraction = 0.75;
+
+    // config param: transitclock.avl.rejectQueueFraction
+    // Fraction of the AVL queue that has to be in use before all AVL reports are rejected. Pushers then get a 429 response.
+    private Double rejectQueueFraction = 0.95;
+
+    // config param: transitclock.avl.shedFrequentWithinSecs
+    // When shedding frequent reports, a report within this many seconds of the previous accepted report for the vehicle is shed.
+    private Integer shedFrequentWithinSecs = 15;
+
+    // config param: transitclock.avl.maxLatencyMsec
+    // Average time an AVL report waits in the queue before being processed that is acceptable. Half of it causes schedule based reports to be shed, the full amount causes frequent reports to be shed, and double causes all reports to be rejected.
+    private Integer maxLatencyMsec = 10000;
+
+    // config param: transitclock.avl.stageTimingSampleEvery
+    // The time taken by each stage of processing an AVL report, such as matching and generating predictions, is only measured for one in this many reports so that the measuring doesn't add to the processing. 1 measures every report.
+    private Integer stageTimingSampleEvery = 10;
+
     public Integer getNumThreads() {
         if (numThreads < 1) {
             logger.error("Number of threads must be at least 1 but {} was " + "specified. Therefore using 1 thread.", numThreads);
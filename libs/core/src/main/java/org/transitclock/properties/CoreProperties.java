@@ -17,6 +17,30 @@ public class CoreProperties {
         // config param: transitclock.core.cache.daysPopulateHistoricalCache
         // How many days data to read in to populate historical cache on start up.
         private Integer daysPopulateHistoricalCache = 0;
+
+        // config param: transitclock.core.cache.errorCacheMaxEntries
+        // Maximum number of Kalman error values held by StripedKalmanErrorCache. When full the least recently used values are dropped.
+        private Integer errorCacheMaxEntries = 1_000_000;
+
+        // config param: transitclock.core.cache.errorCacheExpiryDays
+        // Kalman error values not read or written for this many days are dropped by StripedKalmanErrorCache.
+        private Integer errorCacheExpiryDays = 21;
+
+        // config param: transitclock.core.cache.errorCacheSnapshotFile
+        // File StripedKalmanErrorCache writes its snapshots to and reads them back from on start up.
+        private String errorCacheSnapshotFile = "/tmp/transitclock/cache/kalmanErrorCache.bin";
+
+        // config param: transitclock.core.cache.errorCacheSnapshotIntervalSecs
+        // How often StripedKalmanErrorCache writes a snapshot to disk. A value of 0 or less disables periodic snapshots.
+        private Integer errorCacheSnapshotIntervalSecs = 300;
+
+        // config param: transitclock.core.cache.frequencyAverageCacheSnapshotFile
+        // File FrequencyBasedHistoricalAverageCache writes its snapshots to and reads them back from on start up. When a snapshot is read the cache is not populated from the database again.
+        private String frequencyAverageCacheSnapshotFile = "/tmp/transitclock/cache/frequencyAverageCache.bin";
+
+        // config param: transitclock.core.cache.frequencyAverageCacheSnapshotIntervalSecs
+        // How often FrequencyBasedHistoricalAverageCache writes a snapshot to disk. A value of 0 or less disables periodic snapshots.
+        private Integer frequencyAverageCacheSnapshotIntervalSecs = 300;
     }
 
     private Cache cache = new Cache();
@@ -1,5 +1,8 @@
 package org.transitclock.properties;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import lombok.Data;
 
 @Data
@@ -54,6 +57,10 @@ public class GtfsProperties {
     // URL to access gtfs-rt trip updates.
     private String gtfsTripUpdateUrl = "http://127.0.0.1:8091/trip-updates";
 
+    // config param: transitclock.predAccuracy.gtfsTripUpdateUrls
+    // Additional gtfs-rt trip updates feeds to determine prediction accuracy for, such as ones from other prediction providers. Can also be file URLs. The feeds are read concurrently and the source stored for their predictions identifies the feed.
+    private List<String> gtfsTripUpdateUrls = new ArrayList<>();
+
     // config param: transitclock.gtfs.tripShortNameRegEx
     // For agencies where trip short name not specified can use this regular expression to determine the short name from the trip ID by specifying a grouping. For example, to get name before a "-" would use something like "(.*?)-"
     private String tripShortNameRegEx = null;
@@ -49,8 +49,8 @@ public class MonitoringProperties {
     private Integer retryTimeoutSecs = 5;
 
     // config param: transitclock.monitoring.secondsBetweenMonitorinPolling
-    // How frequently an monitoring should be run to look for problems.
-    private Integer secondsBetweenMonitorinPolling = 120;
+    // How frequently an monitoring should be run to look for problems. The monitors only read counters that are kept up to date incrementally so this can be short, which means problems are detected soon after they happen.
+    private Integer secondsBetweenMonitorinPolling = 10;
 
     // config param: transitclock.monitoring.usableDiskSpaceThreshold
     // If usable disk space is less than this value then file space monitoring is triggered.
@@ -5,7 +5,7 @@ import lombok.Data;
 @Data
 public class TimeoutProperties {
     // config param: transitclock.timeout.pollingRateSecs
-    // Specifies in seconds how frequently the TimeoutHandler should actually look for timeouts. Don't want to do this too frequently because because TimeoutHandler.handlePossibleTimeout() is called with every new AVL report and it has to look at every vehicle to see if has been timed out.
+    // Specifies in seconds how frequently the TimeoutHandler should look again at vehicles whose timeout depends on the schedule instead of on when they last reported, such as schedule based vehicles and vehicles at a wait stop without a scheduled departure time. Other vehicles are looked at when their timeout deadline is reached.
     private Integer pollingRateSecs = 30;
 
     // config param: transitclock.timeout.allowableNoAvlSecs
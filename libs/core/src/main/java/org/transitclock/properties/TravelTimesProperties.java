@@ -28,4 +28,8 @@ public class TravelTimesProperties {
     // If a travel time segment is determined to have a higher speed than this value in meters/second then the travel time will be decreased to meet this limit. Purpose is to make sure that don't get invalid travel times due to bad data.
     private Double maxSegmentSpeedMps = 27.0;
 
+    // config param: transitclock.traveltimes.maxSamplesPerStopPath
+    // The most historic stop times, and travel times, kept for a trip and stop path when processing historic data. Limits the memory used for long date ranges. A trip has at most one sample per day so the default covers about three months of data exactly.
+    private Integer maxSamplesPerStopPath = 100;
+
 }
@@ -5,11 +5,12 @@ import lombok.Data;
 @Data
 public class UpdatesProperties {
     // config param: transitclock.updates.pageDbReads
-    // page database reads to break up long reads. It may impact performance on MySql
+    // page database reads to break up long reads. It may impact performance on MySql.
+    // No longer used by the travel times update, which always reads a day at a time.
     private Boolean pageDbReads = true;
 
     // config param: transitclock.updates.pageSize
-    // Number of records to read in at a time
+    // Number of records to read in at a time. Used as the JDBC fetch size when streaming
     private Integer pageSize = 50000;
 
 }
@@ -12,6 +12,7 @@ import org.transitclock.core.dataCache.VehicleDataCache;
 import org.transitclock.domain.hibernate.HibernateUtils;
 import org.transitclock.domain.structs.Block;
 import org.transitclock.domain.structs.QRoute;
+import org.transitclock.domain.structs.Route;
 import org.transitclock.domain.structs.Trip;
 import org.transitclock.domain.structs.VehicleConfig;
 import org.transitclock.domain.structs.VehicleToBlockConfig;
@@ -35,13 +36,11 @@ public class VehiclesServiceImpl implements VehiclesService {
     private final VehicleDataCache vehicleDataCache;
     private final BlockInfoProvider blockInfoProvider;
     private final DbConfig dbConfig;
-    private final BlockComparator blockComparator;
 
     public VehiclesServiceImpl(VehicleDataCache vehicleDataCache, BlockInfoProvider blockInfoProvider, DbConfig dbConfig) {
         this.vehicleDataCache = vehicleDataCache;
         this.blockInfoProvider = blockInfoProvider;
         this.dbConfig = dbConfig;
-        this.blockComparator = new BlockComparator(dbConfig);
     }
 
     /* (non-Javadoc)
@@ -209,9 +208,8 @@ public class VehiclesServiceImpl implements VehiclesService {
             int activeTripIndex = block.activeTripIndex(dbConfig, new Date(), allowableBeforeTimeSecs);
 
             // Determine vehicles associated with the block if there are any
-            Collection<String> vehicleIdsForBlock =
-                    vehicleDataCache.getVehiclesByBlockId(block.getId());
-            Collection<IpcVehicle> ipcVehiclesForBlock = get(vehicleIdsForBlock);
+            Collection<IpcVehicle> ipcVehiclesForBlock =
+                    new ArrayList<>(vehicleDataCache.getVehiclesForBlock(block.getId()));
 
             // Create and add the IpcActiveBlock
             Trip tripForSorting = block.getTrip(activeTripIndex);
@@ -220,7 +218,7 @@ public class VehiclesServiceImpl implements VehiclesService {
             results.add(ipcBlockAndVehicle);
         }
         // Sort the results so that ordered by route and then block start time
-        results.sort(blockComparator);
+        sortByRouteOrderAndStartTime(results);
 
         // Return results
         return results;
@@ -263,7 +261,7 @@ public class VehiclesServiceImpl implements VehiclesService {
             }
         }
         // Sort the results so that ordered by route and then block start time
-        results.sort(new BlockComparator(dbConfig));
+        sortByRouteOrderAndStartTime(results);
 
         // Return results
         return results;
@@ -328,9 +326,8 @@ public class VehiclesServiceImpl implements VehiclesService {
             if (routeIds != null && !routeIds.isEmpty() && !routeIds.contains(tripForSorting.getRouteId())) continue;
 
             // Determine vehicles associated with the block if there are any
-            Collection<String> vehicleIdsForBlock =
-                    vehicleDataCache.getVehiclesByBlockId(block.getId());
-            Collection<IpcVehicle> ipcVehiclesForBlock = get(vehicleIdsForBlock);
+            Collection<IpcVehicle> ipcVehiclesForBlock =
+                    new ArrayList<>(vehicleDataCache.getVehiclesForBlock(block.getId()));
 
             // Create and add the IpcActiveBlock
             IpcActiveBlock ipcBlockAndVehicle =
@@ -338,7 +335,7 @@ public class VehiclesServiceImpl implements VehiclesService {
             results.add(ipcBlockAndVehicle);
         }
         // Sort the results so that ordered by route and then block start time
-        results.sort(new BlockComparator(dbConfig));
+        sortByRouteOrderAndStartTime(results);
 
         // Return results
         return results;
@@ -362,14 +359,12 @@ public class VehiclesServiceImpl implements VehiclesService {
      */
     @Override
     public Collection<IpcVehicle> getVehiclesForBlocks() {
-        List<String> vehicleIds = new ArrayList<>();
+        List<IpcVehicle> vehicles = new ArrayList<>();
         List<Block> blocks = blockInfoProvider.getCurrentlyActiveBlocks();
         for (Block block : blocks) {
-            Collection<String> vehicleIdsForBlock =
-                    vehicleDataCache.getVehiclesByBlockId(block.getId());
-            vehicleIds.addAll(vehicleIdsForBlock);
+            vehicles.addAll(vehicleDataCache.getVehiclesForBlock(block.getId()));
         }
-        return get(vehicleIds);
+        return vehicles;
     }
 
     @Override
@@ -419,41 +414,28 @@ public class VehiclesServiceImpl implements VehiclesService {
     }
 
     /**
-     * For sorting a collection of IpcActiveBlock objects such that ordered by route order and then
-     * by block start time.
+     * Sorts IpcActiveBlock objects such that ordered by route order and then by block start time.
+     * The route order and block start time are looked up once per block instead of for every
+     * comparison. Blocks without a route order are put first.
      */
-    private static class BlockComparator implements Comparator<IpcActiveBlock> {
-        private final DbConfig dbConfig;
-        public BlockComparator(DbConfig dbConfig) {
-            this.dbConfig = dbConfig;
+    private void sortByRouteOrderAndStartTime(List<IpcActiveBlock> activeBlocks) {
+        record SortKey(IpcActiveBlock activeBlock, Integer routeOrder, int blockStartTime) {}
+
+        List<SortKey> sortKeys = new ArrayList<>(activeBlocks.size());
+        for (IpcActiveBlock activeBlock : activeBlocks) {
+            Trip trip = activeBlock.getTripForSorting();
+            Route route = trip != null ? trip.getRoute(dbConfig) : null;
+            Integer routeOrder = route != null ? route.getRouteOrder() : null;
+            int blockStartTime = routeOrder != null ? trip.getBlock(dbConfig).getStartTime() : 0;
+            sortKeys.add(new SortKey(activeBlock, routeOrder, blockStartTime));
         }
-        /**
-         * Returns negative if b1<b2, zero if b1=b2, and positive if b1>b2
-         */
-        @Override
-        public int compare(IpcActiveBlock b1, IpcActiveBlock b2) {
-            if (b1 == null && b2 == null) return 0;
-            if (b1 == null
-                    || b1.getTripForSorting() == null
-                    || b1.getTripForSorting().getRoute(dbConfig) == null
-                    || b1.getTripForSorting().getRoute(dbConfig).getRouteOrder() == null) return -1;
-            if (b2 == null
-                    || b2.getTripForSorting() == null
-                    || b2.getTripForSorting().getRoute(dbConfig) == null
-                    || b2.getTripForSorting().getRoute(dbConfig).getRouteOrder() == null) return 1;
-
-            int routeOrder1 = b1.getTripForSorting().getRoute(dbConfig).getRouteOrder();
-            int routeOrder2 = b2.getTripForSorting().getRoute(dbConfig).getRouteOrder();
-
-            if (routeOrder1 < routeOrder2) return -1;
-            if (routeOrder1 > routeOrder2) return 1;
-
-            // Route order is the same so order by trip start time
-            int blockStartTime1 = b1.getTripForSorting().getBlock(dbConfig).getStartTime();
-            int blockStartTime2 = b2.getTripForSorting().getBlock(dbConfig).getStartTime();
-            if (blockStartTime1 < blockStartTime2) return -1;
-            if (blockStartTime1 > blockStartTime2) return 1;
-            return 0;
+
+        Comparator<Integer> routeOrderComparator = Comparator.nullsFirst(Comparator.naturalOrder());
+        sortKeys.sort(Comparator.comparing(SortKey::routeOrder, routeOrderComparator)
+                .thenComparingInt(SortKey::blockStartTime));
+
+        for (int i = 0; i < sortKeys.size(); ++i) {
+            activeBlocks.set(i, sortKeys.get(i).activeBlock());
         }
     }
 }
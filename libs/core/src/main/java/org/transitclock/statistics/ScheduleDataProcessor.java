@@ -1,19 +1,27 @@
 /* (C)2023 */
 package org.transitclock.statistics;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import lombok.extern.slf4j.Slf4j;
 
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.transitclock.domain.hibernate.HibernateUtils;
 import org.transitclock.domain.structs.ArrivalDeparture;
 import org.transitclock.domain.structs.ArrivalDeparture.ArrivalsOrDepartures;
 import org.transitclock.gtfs.GtfsFilter;
@@ -25,8 +33,10 @@ import org.transitclock.gtfs.readers.GtfsStopTimesReader;
 import org.transitclock.gtfs.writers.GtfsExtendedStopTimesWriter;
 import org.transitclock.gtfs.writers.GtfsStopTimesWriter;
 import org.transitclock.statistics.ScheduleStatistics.Stats;
+import org.transitclock.utils.IntSamples;
 import org.transitclock.utils.MapKey;
 import org.transitclock.utils.Time;
+import org.transitclock.utils.threading.NamedThreadFactory;
 
 /**
  * For processing arrival/departure times based on AVL data in order to determine more accurate
@@ -60,17 +70,21 @@ import org.transitclock.utils.Time;
  * can determine the first stops of trips, which is important for the GTFS data is frequency based.
  * This leads to a different ordering for the stop_times.txt_new and stop_times.txt_extended files.
  *
- * <p>To process the data this class reads in arrival and departure data from the database. It batch
- * reads the data 500,000 datapoints at a time, a value chosen to make db reading quick (want a high
- * number) without using too much heap memory at once (want a low number). The arrivals and
- * departures data is read into maps <code>Map&ltString, Map&ltTripStopKey, List&ltInteger&gt&gt&gt
- * </code> using <code>readInArrivalsOrDeparturesFromDb()</code>. The map is keyed on routeId so
- * that can handle each route separately (though this isn't truly needed). The data is simply stored
- * as Integers indicating the time of day of the arrival or departure. Once this data is determined
- * the ArrivalDeparture object is not needed anymore and can be garbage collected. When reading in
+ * <p>To process the data this class reads in arrival and departure data from the database. It
+ * streams the data a day at a time using a cursor, so that only a batch of rows is ever in memory.
+ * The arrivals and departures data is read into maps <code>Map&ltString, Map&ltTripStopKey,
+ * IntSamples&gt&gt</code> using <code>readInArrivalsOrDeparturesFromDb()</code>. The map is
+ * keyed on routeId so that each route can be handled separately. The data is simply stored as ints
+ * indicating the time of day of the arrival or departure. Once this data is determined the
+ * ArrivalDeparture object is not needed anymore and can be garbage collected. When reading in
  * departures it also puts the trip departure times into departureTimesFromTerminalMap so that can
  * determine elapsed time for when frequency based trips are used.
  *
+ * <p>The routes are independent of each other so the statistics for them are determined in
+ * parallel, with the statistics for the departures being determined while the arrivals are being
+ * read in. The times for each trip/stop are sorted first so that the results don't depend on the
+ * order the data was read from the database in.
+ *
  * <p>Once all of the arrival and departure times have been processed into a map statistics is used
  * to determine which is the best arrival/departure for the stop_times output. The goal is to use a
  * time such that only the a desired fraction of arrivals/departures will be early. For example, if
@@ -107,6 +121,11 @@ public class ScheduleDataProcessor {
     // drivers and passengers.
     private final boolean doNotUpdateFirstStopOfTrip;
 
+    // Number of rows fetched from the db at a time when streaming the
+    // arrivals/departures. Found a batch size of at least 50k is much
+    // more efficient than 10k by about a factor of 2.
+    private static final int FETCH_SIZE = 50000;
+
     // Specifies how consistent arrival/departure times from Db must be
     // in order to be used.
     private final int allowableDifferenceFromMeanSecs;
@@ -343,31 +362,25 @@ public class ScheduleDataProcessor {
     }
 
     /**
-     * For adding a new arrival/departure time to either arrivalTimesFromDbByRouteByTripStopMap or
-     * departureTimesFromDbByRouteByTripStopMap that is passed in.
+     * For adding a new arrival/departure time to the map of times that is passed in.
      *
      * @param timesByTripMap map keyed on routeId containing a sub-map
      * @param ad
      */
     private void addArrivalDepartureToMap(
-            Map<String, Map<TripStopKey, List<Integer>>> timesByTripMap, ArrivalDeparture ad) {
-        // Get the existing sub map for the routeId
-        String routeKey = ad.getRouteId();
-        Map<TripStopKey, List<Integer>> timesByTripSubMap = timesByTripMap.get(routeKey);
-
-        // If the sub map for the routeId not created yet, then create it
-        if (timesByTripSubMap == null) {
-            timesByTripSubMap = new HashMap<TripStopKey, List<Integer>>();
-            timesByTripMap.put(routeKey, timesByTripSubMap);
-        }
+            Map<String, Map<TripStopKey, IntSamples>> timesByTripMap, ArrivalDeparture ad) {
+        // Get the existing sub map for the routeId. If the sub map for the
+        // routeId not created yet, then create it
+        Map<TripStopKey, IntSamples> timesByTripSubMap =
+                timesByTripMap.computeIfAbsent(ad.getRouteId(), k -> new HashMap<>());
 
         // Add the new arrival/departure to the sub map
         addArrivalDepartureToSubMap(timesByTripSubMap, ad);
     }
 
     /**
-     * Adds the arrival/departure time to the sub-map that actually contains the list of
-     * arrival/departure times.
+     * Adds the arrival/departure time to the sub-map that actually contains the arrival/departure
+     * times.
      *
      * <p>For frequency based trips need the initial departure time for the trip. If that time is
      * not available for a frequency based trip then this ArrivalDeparture will be ignored.
@@ -375,7 +388,7 @@ public class ScheduleDataProcessor {
      * @param timesByTripMap
      * @param ad
      */
-    private void addArrivalDepartureToSubMap(Map<TripStopKey, List<Integer>> timesByTripMap, ArrivalDeparture ad) {
+    private void addArrivalDepartureToSubMap(Map<TripStopKey, IntSamples> timesByTripMap, ArrivalDeparture ad) {
         // Get the existing list of times for the trip/stop
         TripStopKey key = getTripStopKey(ad.getTripId(), ad.getStopId());
         int arrDepSecsIntoDay = timeForUsingCalendar.getSecondsIntoDay(ad.getDate());
@@ -410,21 +423,10 @@ public class ScheduleDataProcessor {
             timeWithRespectToTripStart -= terminalDepartureTimeSecs;
         }
 
-        // If list of times for the trip/stop doesn't exist, yet create it
-        List<Integer> times = timesByTripMap.get(key);
-        if (times == null) {
-            // Create the array that the times go into. Initialize size of list
-            // to 5 instead of the default of 10 so that it uses less memory.
-            // 5 is ideal because it is smaller but if process two weeks of
-            // data then it will be expanded to 10 for the 10 weekdays. If
-            // would use 4 then it would be expanded to 8 and then 16, actually
-            // taking up more space than if the default size of 10 were used.
-            times = new ArrayList<Integer>(5);
-            timesByTripMap.put(key, times);
-        }
-
-        // Add the new time to the list for the trip/stop
-        times.add(timeWithRespectToTripStart);
+        // Add the new time to the times for the trip/stop, creating
+        // them if they don't exist yet
+        timesByTripMap.computeIfAbsent(key, k -> new IntSamples())
+                .add(IntSamples.sampleId(ad.getVehicleId(), ad.getTime()), timeWithRespectToTripStart);
     }
 
     /**
@@ -475,20 +477,22 @@ public class ScheduleDataProcessor {
 
     /**
      * Reads in the arrival/departure times from the db and returns a map containing just the
-     * arrival/departure times. departureTimesFromDbByRouteByTripStopMap. Reads in data in batches
-     * because that is more memory efficient than reading in everything at once when there is a
-     * large amount of data. Also, batching is much quicker than using the iterator method since
-     * that does a separate query for each row. Found a batch size of at least 50k is much more
-     * efficient than 10k by about a factor of 2.
+     * arrival/departure times. The data is read in a day at a time, and each day is streamed from
+     * the db using a cursor that fetches FETCH_SIZE rows at a time. This way only a batch of
+     * ArrivalDeparture objects is in memory at once, no matter how much data there is, and the db
+     * doesn't have to skip over the rows already read like it does when paging with an offset.
+     *
+     * <p>The rows are processed in the order they are read in since for frequency based trips the
+     * terminal departure time has to have been read in before the other departures for the trip.
      *
      * @param arrivalOrDeparture Specifies whether should read in arrivals or, instead, departures.
      * @return Big map keyed on route of data. The sub-map is keyed on on a TripStopKey using
-     *     tripId+stopId and contains list of all of the times (arrivals or departures) for that
-     *     trip/stop for the route. The times are seconds into the day. If frequencies are being
-     *     used then the times are relative to the trip start time, because that is how frequency
-     *     based data is specified in the stop_times.txt file.
+     *     tripId+stopId and contains all of the times (arrivals or departures) for that trip/stop
+     *     for the route. The times are seconds into the day. If frequencies are being used then the
+     *     times are relative to the trip start time, because that is how frequency based data is
+     *     specified in the stop_times.txt file.
      */
-    private Map<String, Map<TripStopKey, List<Integer>>> readInArrivalsOrDeparturesFromDb(
+    private Map<String, Map<TripStopKey, IntSamples>> readInArrivalsOrDeparturesFromDb(
             ArrivalsOrDepartures arrivalOrDeparture) {
         logger.info(
                 "Reading {} for beginDate={} and endDate={}",
@@ -496,20 +500,22 @@ public class ScheduleDataProcessor {
                 beginTime,
                 endTime);
 
-        Map<String, Map<TripStopKey, List<Integer>>> arrivalDeparatureTimesFromDbByRouteByTripStopMap =
+        Map<String, Map<TripStopKey, IntSamples>> arrivalDeparatureTimesFromDbByRouteByTripStopMap =
             new HashMap<>();
 
+        String hql = "FROM ArrivalDeparture WHERE time between :beginDate AND :endDate"
+                + (arrivalOrDeparture == ArrivalsOrDepartures.ARRIVALS
+                        ? " AND isArrival = true"
+                        : " AND isArrival = false");
+
         // Go through all the arrival/departure data and put it into a map
         // that just keeps track of arrival/departure times for trip/stops.
-        try {
-            // Use two levels of batching to be efficient. At the low level
-            // only read in 50k rows at a time so that never read in too much
-            // at once. This way won't run out of memory. But this type of
-            // batching where we specify a firstResult and a batchSize can be
-            // inefficient when firstResult becomes large because the database
-            // still has to process a huge amount of data in order to return
-            // the proper batch. So also just dealing with a day at a time by
-            // dividing the beginTime and endTime into 1 day chunks.
+        try (StatelessSession session = HibernateUtils.openStatelessSession()) {
+            // Cursors are only used by some JDBC drivers, such as the
+            // postgres one, when not in auto commit mode
+            Transaction tx = session.beginTransaction();
+
+            long totalRead = 0;
             long batchBeginTime = beginTime.getTime();
             long batchEndTime = beginTime.getTime() + Time.MS_PER_DAY;
             while (batchBeginTime < endTime.getTime()) {
@@ -519,34 +525,18 @@ public class ScheduleDataProcessor {
                         new Date(batchBeginTime),
                         new Date(batchEndTime));
 
-                // For keeping track of which rows should be returned by the
-                // batch.
-                int firstResult = 0;
-                // Batch size of 50k found to be significantly faster than 10k,
-                // by about a factor of 2. So want to use as large a value as
-                // possible without running out of memory. Found that with
-                // 500,000
-                // can still read in all data with default heap size of 1G.
-                // Batch size of 650,000 seems to complete halt the process with
-                // only 1G of heap.
-                int batchSize = 500000; // Also known as maxResults
-                // The temporary list for the loop that contains a batch of
-                // results
-                List<ArrivalDeparture> arrDepBatchList;
-                // Read in batch of 50k rows of data and process it
-                do {
-                    // Note: I tried adding a "ORDER BY time" clause to see
-                    // if that would speed things up when doing multiple batches
-                    // but it only served to slow things down.
-                    arrDepBatchList = ArrivalDeparture.getArrivalsDeparturesFromDb(
-                            new Date(batchBeginTime),
-                            new Date(batchEndTime),
-                            null, // SQL clause
-                            firstResult,
-                            batchSize,
-                            arrivalOrDeparture);
-
-                    for (ArrivalDeparture arrDep : arrDepBatchList) {
+                // Note: I tried adding a "ORDER BY time" clause to see
+                // if that would speed things up but it only served to
+                // slow things down.
+                try (Stream<ArrivalDeparture> arrDeps = session.createQuery(hql, ArrivalDeparture.class)
+                        .setParameter("beginDate", new Date(batchBeginTime))
+                        .setParameter("endDate", new Date(batchEndTime))
+                        .setFetchSize(FETCH_SIZE)
+                        .getResultStream()) {
+                    Iterator<ArrivalDeparture> iterator = arrDeps.iterator();
+                    while (iterator.hasNext()) {
+                        ArrivalDeparture arrDep = iterator.next();
+
                         // If handling departures and this trip is defined as a
                         // frequency then need store the departure time of the
                         // first stop in the trip in a map so can use it for
@@ -556,19 +546,19 @@ public class ScheduleDataProcessor {
 
                         // Add arrival/departure time to appropriate map
                         addArrivalDepartureToMap(arrivalDeparatureTimesFromDbByRouteByTripStopMap, arrDep);
+                        ++totalRead;
                     }
+                }
 
-                    logger.info("Read in total of {} {}", firstResult + arrDepBatchList.size(), arrivalOrDeparture);
-
-                    // Update firstResult for reading next batch of data
-                    firstResult += batchSize;
-                } while (arrDepBatchList.size() == batchSize);
+                logger.info("Read in total of {} {}", totalRead, arrivalOrDeparture);
 
                 // Get ready to read in chunk of data for the next day
                 batchBeginTime += Time.MS_PER_DAY;
                 batchEndTime += Time.MS_PER_DAY;
                 if (batchEndTime > endTime.getTime()) batchEndTime = endTime.getTime();
             }
+
+            tx.commit();
         } catch (Exception e) {
             logger.error("Exception occurred when reading arrivals/departure " + "from db", e);
         }
@@ -577,42 +567,85 @@ public class ScheduleDataProcessor {
     }
 
     /**
-     * Reads in times from database and fills in statsResultsByTripStopMap by determining the best
-     * arrival/departure time to use. Does this on a per route basis.
+     * Reads in times from database and submits a task per route to the executor that determines
+     * the best arrival/departure time to use for each of the trip/stops of the route. The reading
+     * is done by the calling thread.
      *
+     * @param executor for determining the stats of the routes in parallel
      * @param originalGtfsStopTimes original data from stop_times.txt file so that can filter out
      *     outliers. Can be null for testing. Map is keyed on trip/stops and contains GtfsStopTimes.
      * @param arrivalsOrDepartures specifies whether should handle as arrivals or departures
-     * @return map containing stats for each trip/stop for all routes
+     * @return map keyed on routeId of the tasks that return the stats for each trip/stop of the
+     *     route
      */
-    private Map<TripStopKey, Stats> determineStatsForRoutes(
-            Map<TripStopKey, GtfsStopTime> originalGtfsStopTimes, ArrivalsOrDepartures arrivalsOrDepartures) {
-        // For returning results
-        Map<TripStopKey, Stats> statsResultsByTripStopMap = new HashMap<TripStopKey, Stats>();
-
+    private Map<String, Future<Map<TripStopKey, Stats>>> submitStatsForRoutes(
+            ExecutorService executor,
+            Map<TripStopKey, GtfsStopTime> originalGtfsStopTimes,
+            ArrivalsOrDepartures arrivalsOrDepartures) {
         // Read the arrival/departure times from the db
-        Map<String, Map<TripStopKey, List<Integer>>> timesFromDbByRoutesByTripStopMap =
+        Map<String, Map<TripStopKey, IntSamples>> timesFromDbByRoutesByTripStopMap =
                 readInArrivalsOrDeparturesFromDb(arrivalsOrDepartures);
 
         // Handle the arrival/departure times for each route
-        Set<String> routeIds = timesFromDbByRoutesByTripStopMap.keySet();
-        for (String routeId : routeIds) {
-            Map<TripStopKey, List<Integer>> timesByTripStopForRouteSubMap =
-                    timesFromDbByRoutesByTripStopMap.get(routeId);
-            ScheduleStatistics.determineStatsForRoute(
-                    originalGtfsStopTimes,
-                    timesByTripStopForRouteSubMap,
-                    statsResultsByTripStopMap,
-                    routeId,
-                    allowableDifferenceFromMeanSecs,
-                    allowableDifferenceFromOriginalTimeSecs,
-                    desiredFractionEarly,
-                    arrivalsOrDepartures);
+        Map<String, Future<Map<TripStopKey, Stats>>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<TripStopKey, IntSamples>> entry : timesFromDbByRoutesByTripStopMap.entrySet()) {
+            String routeId = entry.getKey();
+            Map<TripStopKey, IntSamples> timesByTripStopForRoute = entry.getValue();
+            futures.put(routeId, executor.submit(() -> {
+                Map<TripStopKey, int[]> timesByTripStopForRouteSubMap = new HashMap<>(timesByTripStopForRoute.size());
+                for (Map.Entry<TripStopKey, IntSamples> times : timesByTripStopForRoute.entrySet()) {
+                    timesByTripStopForRouteSubMap.put(times.getKey(), times.getValue().toSortedArray());
+                }
+
+                Map<TripStopKey, Stats> statsForRoute = new HashMap<>(timesByTripStopForRoute.size());
+                ScheduleStatistics.determineStatsForRoute(
+                        originalGtfsStopTimes,
+                        timesByTripStopForRouteSubMap,
+                        statsForRoute,
+                        routeId,
+                        allowableDifferenceFromMeanSecs,
+                        allowableDifferenceFromOriginalTimeSecs,
+                        desiredFractionEarly,
+                        arrivalsOrDepartures);
+                return statsForRoute;
+            }));
         }
 
+        return futures;
+    }
+
+    /**
+     * Waits for the stats of each route to be determined and combines them.
+     *
+     * @param futures map keyed on routeId of the tasks determining the stats for the route
+     * @return map containing stats for each trip/stop for all routes
+     */
+    private static Map<TripStopKey, Stats> getStatsForRoutes(Map<String, Future<Map<TripStopKey, Stats>>> futures) {
+        Map<TripStopKey, Stats> statsResultsByTripStopMap = new HashMap<>();
+        for (Map.Entry<String, Future<Map<TripStopKey, Stats>>> entry : futures.entrySet()) {
+            statsResultsByTripStopMap.putAll(getResult(entry.getValue(), entry.getKey()));
+        }
         return statsResultsByTripStopMap;
     }
 
+    /**
+     * Returns the stats determined for a route, passing on any exception from the processing as
+     * is.
+     */
+    private static Map<TripStopKey, Stats> getResult(Future<Map<TripStopKey, Stats>> future, String routeId) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while determining schedule statistics", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+            if (e.getCause() instanceof Error error) throw error;
+            throw new IllegalStateException(
+                    "Exception determining schedule statistics for routeId=" + routeId, e.getCause());
+        }
+    }
+
     /**
      * Takes in the processed arrival and departure information and writes out the optimized
      * schedule in new stop_times.txt_new and stop_times.txt_extended files into the same GTFS
@@ -697,16 +730,28 @@ public class ScheduleDataProcessor {
                 + "new stop_times files...");
 
         // Determine the arrival/departure times to use by
-        // doing statistical analysis. Puts results into
-        // arrivalStatsResultsByTripStopMap and
-        // departureStatsResultsByTripStopMap parameters.
-        // Need to process departures first because for when frequencies
+        // doing statistical analysis, a route at a time in parallel.
+        // Need to read departures first because for when frequencies
         // used need to determine times relative to the start time
         // of the trip, which is the departure from the terminal.
-        Map<TripStopKey, Stats> departureStatsResultsByTripStopMap =
-                determineStatsForRoutes(gtfsStopTimes, ArrivalsOrDepartures.DEPARTURES);
-        Map<TripStopKey, Stats> arrivalStatsResultsByTripStopMap =
-                determineStatsForRoutes(gtfsStopTimes, ArrivalsOrDepartures.ARRIVALS);
+        // The stats for the departures are determined while the
+        // arrivals are being read in.
+        int numThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor =
+                Executors.newFixedThreadPool(numThreads, new NamedThreadFactory("ScheduleDataProcessor"));
+        Map<TripStopKey, Stats> departureStatsResultsByTripStopMap;
+        Map<TripStopKey, Stats> arrivalStatsResultsByTripStopMap;
+        try {
+            Map<String, Future<Map<TripStopKey, Stats>>> departureFutures =
+                    submitStatsForRoutes(executor, gtfsStopTimes, ArrivalsOrDepartures.DEPARTURES);
+            Map<String, Future<Map<TripStopKey, Stats>>> arrivalFutures =
+                    submitStatsForRoutes(executor, gtfsStopTimes, ArrivalsOrDepartures.ARRIVALS);
+
+            departureStatsResultsByTripStopMap = getStatsForRoutes(departureFutures);
+            arrivalStatsResultsByTripStopMap = getStatsForRoutes(arrivalFutures);
+        } finally {
+            executor.shutdownNow();
+        }
 
         // Write the results to the new GTFS stop_times files
         writeNewGtfsStopTimesFiles(arrivalStatsResultsByTripStopMap, departureStatsResultsByTripStopMap);
@@ -1,11 +1,10 @@
 /* (C)2023 */
 package org.transitclock.statistics;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.slf4j.Logger;
@@ -77,8 +76,8 @@ public class ScheduleStatistics {
      * standard deviation, min, max, and number of data points. Sets everything in the Stats
      * structure except for the bestValue member.
      *
-     * @param timesFromDb data for particular trip/stop. This list will be modified by filtering out
-     *     data that is too far from the schedule time or too far from the mean.
+     * @param timesFromDb data for particular trip/stop. Data that is too far from the schedule time
+     *     or too far from the mean is filtered out of the results. The array is not modified.
      * @param originalGtfsStopTime The original data from stop_times.txt for this trip/stop. Used
      *     for filtering out outliers. Can be null when using test data instead of data from
      *     stop_times.txt.
@@ -86,7 +85,7 @@ public class ScheduleStatistics {
      * @return Stats object containing the statistics for the trip/stop or null if there is no data.
      */
     private static Stats getStatisticsForTripStop(
-            List<Integer> timesFromDb,
+            int[] timesFromDb,
             GtfsStopTime originalGtfsStopTime,
             int allowableDifferenceFromMeanSecs,
             int allowableDifferenceFromOriginalTimeSecs,
@@ -97,28 +96,25 @@ public class ScheduleStatistics {
         // There is data for this trip/stop so process it. Create the Stats
         // object and start filling it out.
         Stats results = new Stats();
-        results.unfilteredTimesArray = Statistics.toArray(timesFromDb);
+        results.unfilteredTimesArray = timesFromDb;
 
         // Determine mean before filtering out data
         double mean = Statistics.mean(results.unfilteredTimesArray);
 
         // Filter out outliers from timesFromDb and put into filteredTimesFromDb
-        List<Integer> filteredTimesFromDb = new ArrayList<Integer>(timesFromDb);
+        int[] filteredTimesFromDb = new int[timesFromDb.length];
+        int numFilteredTimes = 0;
         boolean timeFilteredOut = false;
-        Iterator<Integer> iterator = filteredTimesFromDb.iterator();
         Integer originalScheduleTime = 0;
         if (originalGtfsStopTime != null) {
             originalScheduleTime = arrivalsOrDepartures == ArrivalsOrDepartures.ARRIVALS
                     ? originalGtfsStopTime.getArrivalTimeSecs()
                     : originalGtfsStopTime.getDepartureTimeSecs();
         }
-        while (iterator.hasNext()) {
-            int time = iterator.next();
-
+        for (int time : timesFromDb) {
             // If time is too far away from mean then don't use it
             if (Math.abs(time - mean) > allowableDifferenceFromMeanSecs) {
                 timeFilteredOut = true;
-                iterator.remove();
                 logger.debug(
                         "For trip={} stop={} filtering out {} time={} because "
                                 + "it is {} seconds from the mean={} which is futher "
@@ -136,7 +132,6 @@ public class ScheduleStatistics {
             // then don't use it.
             else if (Math.abs(time - originalScheduleTime) > allowableDifferenceFromOriginalTimeSecs) {
                 timeFilteredOut = true;
-                iterator.remove();
                 logger.debug(
                         "For trip={} stop={} filtering out {} time={} because "
                                 + "it is {} seconds from the original time={} which is "
@@ -149,14 +144,19 @@ public class ScheduleStatistics {
                         Time.timeOfDayStr(originalScheduleTime),
                         allowableDifferenceFromOriginalTimeSecs);
             }
+
+            // The time is OK so use it
+            else {
+                filteredTimesFromDb[numFilteredTimes++] = time;
+            }
         }
 
         // If no data points left due to filtering then simply return null
-        if (filteredTimesFromDb.size() == 0) return null;
+        if (numFilteredTimes == 0) return null;
 
         // If filtered out any times then need to update timesArray and the mean
         if (timeFilteredOut) {
-            results.filteredTimesArray = Statistics.toArray(filteredTimesFromDb);
+            results.filteredTimesArray = Arrays.copyOf(filteredTimesFromDb, numFilteredTimes);
             results.mean = (float) Statistics.mean(results.filteredTimesArray);
         } else {
             results.filteredTimesArray = results.unfilteredTimesArray;
@@ -218,7 +218,8 @@ public class ScheduleStatistics {
      * @param originalGtfsStopTimes original data from stop_times.txt file so that can filter out
      *     outliers. Can be null for testing. Map is keyed on trip/stops and contains GtfsStopTimes.
      * @param timesFromDbByTripStopForRouteSubMap the arrival/departure times for the route
-     * @param statsResultsByTripStopMap for returning the results
+     * @param statsResultsByTripStopMap for returning the results. Only has to be thread safe if
+     *     routes are processed in parallel into the same map.
      * @param routeId for logging
      * @param allowableDifferenceFromMeanSecs Specifies how consistent arrival/departure times from
      *     Db must be in order to be used.
@@ -230,7 +231,7 @@ public class ScheduleStatistics {
      */
     public static void determineStatsForRoute(
             Map<TripStopKey, GtfsStopTime> originalGtfsStopTimes,
-            Map<TripStopKey, List<Integer>> timesFromDbByTripStopForRouteSubMap,
+            Map<TripStopKey, int[]> timesFromDbByTripStopForRouteSubMap,
             Map<TripStopKey, Stats> statsResultsByTripStopMap,
             String routeId,
             int allowableDifferenceFromMeanSecs,
@@ -244,7 +245,7 @@ public class ScheduleStatistics {
         Set<TripStopKey> tripStopKeysForRouteFromDb = timesFromDbByTripStopForRouteSubMap.keySet();
         Map<TripStopKey, Stats> statsForRoute = new HashMap<TripStopKey, Stats>(tripStopKeysForRouteFromDb.size());
         for (TripStopKey tripStopKey : tripStopKeysForRouteFromDb) {
-            List<Integer> timesFromDb = timesFromDbByTripStopForRouteSubMap.get(tripStopKey);
+            int[] timesFromDb = timesFromDbByTripStopForRouteSubMap.get(tripStopKey);
             GtfsStopTime originalGtfsStopTime =
                     originalGtfsStopTimes == null ? null : originalGtfsStopTimes.get(tripStopKey);
             Stats statsForTripStop = ScheduleStatistics.getStatisticsForTripStop(
@@ -213,8 +213,8 @@ public class Geo {
         double d1 = distance(loc, vector.getL1());
         // d2 is distance from the location l to the second location of the vector v
         double d2 = distance(loc, vector.getL2());
-        // v is length of the vector
-        double v = distance(vector.getL1(), vector.getL2());
+        // v is length of the vector. VectorWithHeading has it precomputed.
+        double v = vector.length();
 
         // Handle v==0 where we have a zero length vector as a special case
         // so that don't divide by zero and end up with a NaN.
@@ -274,8 +274,8 @@ public class Geo {
         double d1 = distance(loc, vector.getL1());
         // d2 is distance from the location l to the second location of the vector v
         double d2 = distance(loc, vector.getL2());
-        // v is length of the vector
-        double v = distance(vector.getL1(), vector.getL2());
+        // v is length of the vector. VectorWithHeading has it precomputed.
+        double v = vector.length();
 
         // Handle v==0 where we have a zero length vector as a special case
         // so that don't divide by zero and end up with a NaN.
@@ -334,8 +334,8 @@ public class Geo {
         double d1 = distance(loc, vector.getL1());
         // d2 is distance from the location l to the second location of the vector v
         double d2 = distance(loc, vector.getL2());
-        // v is length of the vector
-        double v = distance(vector.getL1(), vector.getL2());
+        // v is length of the vector. VectorWithHeading has it precomputed.
+        double v = vector.length();
 
         // Handle v==0 where we have a zero length vector as a special case
         // so that don't divide by zero and end up with a NaN.
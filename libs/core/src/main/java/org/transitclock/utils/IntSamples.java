@@ -0,0 +1,245 @@
+/* (C)2023 */
+package org.transitclock.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Samples of historic times, such as the stop or travel times of a stop path or the arrival times
+ * of a trip/stop, kept as ints instead of boxing every data point. Samples can be added by multiple
+ * threads.
+ *
+ * <p>Either holds single values, added with add(), or rows of values, added with addRow(). A row
+ * is the travel times of the travel time segments of the stop path for a single trip.
+ *
+ * <p>The number of samples kept can be limited so that the memory used doesn't grow with the
+ * length of the date range. Once the limit is reached a sample is only kept if the hash of its
+ * sample ID is lower than that of one of the samples already kept, which it then replaces. So
+ * which samples are kept depends only on the samples, not on the order they were added in, and
+ * the result is the same for every run.
+ */
+public final class IntSamples {
+    private final int maxSamples;
+
+    // Max heap on the hashed sample IDs when limited, so the sample that
+    // is the first to go is at the top. Null when not limited since then
+    // nothing is ever replaced.
+    private long[] hashes;
+    private int[] values;
+    private int[][] rows;
+    private int capacity = 8;
+    private int size;
+
+    /** No limit on the number of samples */
+    public IntSamples() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /** @param maxSamples maximum number of samples to keep */
+    public IntSamples(int maxSamples) {
+        if (maxSamples < 1) throw new IllegalArgumentException("maxSamples must be at least 1 but was " + maxSamples);
+        this.maxSamples = maxSamples;
+        if (maxSamples != Integer.MAX_VALUE) hashes = new long[capacity];
+    }
+
+    /**
+     * Identifies a sample by the vehicle it is from and the time, such as of the arrival/departure
+     * it was determined for.
+     *
+     * @param vehicleId
+     * @param time epoch time in msec
+     * @return the sample ID to add the sample with
+     */
+    public static long sampleId(String vehicleId, long time) {
+        return ((long) vehicleId.hashCode() << 32) ^ time;
+    }
+
+    /**
+     * Adds a single value.
+     *
+     * @param sampleId identifies the sample, such as by the vehicle and time, for deciding which
+     *     samples to keep
+     * @param value
+     */
+    public synchronized void add(long sampleId, int value) {
+        if (values == null) values = new int[capacity];
+        int index = slotFor(sampleId, value);
+        if (index >= 0) values[index] = value;
+    }
+
+    /**
+     * Adds a row of values, such as the travel times of each segment of a stop path for a trip.
+     *
+     * @param sampleId identifies the sample, such as by the vehicle and time, for deciding which
+     *     samples to keep
+     * @param row
+     */
+    public synchronized void addRow(long sampleId, List<Integer> row) {
+        if (rows == null) rows = new int[capacity][];
+        int[] rowValues = new int[row.size()];
+        for (int i = 0; i < rowValues.length; ++i) {
+            rowValues[i] = row.get(i);
+        }
+        int index = slotFor(sampleId, Arrays.hashCode(rowValues));
+        if (index >= 0) rows[index] = rowValues;
+    }
+
+    /** @return number of samples kept */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Makes room for a sample.
+     *
+     * @param sampleId
+     * @param value the value, or hash of the row, of the sample
+     * @return index to put the sample at, or -1 if it isn't to be kept
+     */
+    private int slotFor(long sampleId, int value) {
+        if (hashes == null) {
+            ensureCapacity();
+            return size++;
+        }
+
+        long hash = hash(sampleId, value);
+        if (size < maxSamples) {
+            ensureCapacity();
+            hashes[size] = hash;
+            return siftUp(size++);
+        }
+
+        // Full, so replace the sample with the highest hash if the new one is lower
+        if (hash >= hashes[0]) return -1;
+        hashes[0] = hash;
+        return siftDown(0);
+    }
+
+    private void ensureCapacity() {
+        if (size < capacity) return;
+
+        capacity = (int) Math.min(maxSamples, capacity * 2L);
+        if (hashes != null) hashes = Arrays.copyOf(hashes, capacity);
+        if (values != null) values = Arrays.copyOf(values, capacity);
+        if (rows != null) rows = Arrays.copyOf(rows, capacity);
+    }
+
+    /** @return where the sample at index ended up */
+    private int siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (hashes[parent] >= hashes[index]) break;
+            swap(index, parent);
+            index = parent;
+        }
+        return index;
+    }
+
+    /** @return where the sample at index ended up */
+    private int siftDown(int index) {
+        while (true) {
+            int largest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && hashes[left] > hashes[largest]) largest = left;
+            if (right < size && hashes[right] > hashes[largest]) largest = right;
+            if (largest == index) return index;
+            swap(index, largest);
+            index = largest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long hash = hashes[i];
+        hashes[i] = hashes[j];
+        hashes[j] = hash;
+        if (values != null) {
+            int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+        if (rows != null) {
+            int[] row = rows[i];
+            rows[i] = rows[j];
+            rows[j] = row;
+        }
+    }
+
+    /**
+     * Murmur3 64 bit finalizer of the sample ID, with the value mixed in so that samples with the
+     * same ID are still ordered the same way every time.
+     */
+    private static long hash(long sampleId, int value) {
+        long h = sampleId * 31 + value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * The values added with add(), sorted so that the result, including sums of the values done in
+     * floating point, doesn't depend on the order the values were added in.
+     *
+     * @return sorted values. Empty array if there are none.
+     */
+    public synchronized int[] toSortedArray() {
+        if (values == null) return new int[0];
+
+        int[] sorted = Arrays.copyOf(values, size);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * The values added with add(), sorted so that the result doesn't depend on the order the trips
+     * were processed in.
+     *
+     * @return sorted values
+     */
+    public List<Integer> sortedValues() {
+        int[] sorted = toSortedArray();
+        return boxed(sorted, sorted.length);
+    }
+
+    /**
+     * The rows added with addRow() that have the specified length, transposed so that there is a
+     * List per column (travel time segment) with a value per row (trip). Each column is sorted so
+     * that the result doesn't depend on the order the trips were processed in.
+     *
+     * @param rowLength the number of values a row needs to have to be used
+     * @return List per column, or null if there are no rows of the specified length
+     */
+    public synchronized List<List<Integer>> sortedColumns(int rowLength) {
+        if (rows == null) return null;
+
+        int numRows = 0;
+        for (int i = 0; i < size; ++i) {
+            if (rows[i].length == rowLength) ++numRows;
+        }
+        if (numRows == 0) return null;
+
+        List<List<Integer>> columns = new ArrayList<>(rowLength);
+        for (int column = 0; column < rowLength; ++column) {
+            int[] columnValues = new int[numRows];
+            int n = 0;
+            for (int i = 0; i < size; ++i) {
+                if (rows[i].length == rowLength) columnValues[n++] = rows[i][column];
+            }
+            Arrays.sort(columnValues);
+            columns.add(boxed(columnValues, numRows));
+        }
+        return columns;
+    }
+
+    private static List<Integer> boxed(int[] values, int length) {
+        List<Integer> list = new ArrayList<>(length);
+        for (int i = 0; i < length; ++i) {
+            list.add(values[i]);
+        }
+        return list;
+    }
+}
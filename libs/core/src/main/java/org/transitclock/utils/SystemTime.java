@@ -14,15 +14,41 @@ import java.util.Date;
 @UtilityClass
 public class SystemTime {
 
+    // The time to use instead of the system clock when in playback mode.
+    // 0 means not in playback mode.
+    private volatile long playbackMillis = 0;
+
     /**
      * @return Returns current system epoch time in milliseconds. If in playback mode or such this
      *     might not actually be the clock time for the computer.
      */
     public long getMillis() {
-        return System.currentTimeMillis();
+        long millis = playbackMillis;
+        return millis != 0 ? millis : System.currentTimeMillis();
     }
 
     public Date getDate() {
         return new Date(getMillis());
     }
+
+    /**
+     * Puts the system time into playback mode, where the time only changes when it is set. Used
+     * when replaying AVL data so that the time is that of the AVL report being processed.
+     *
+     * @param millis epoch time in milliseconds
+     */
+    public void setPlaybackMillis(long millis) {
+        if (millis == 0) throw new IllegalArgumentException("Playback time can't be 0");
+        playbackMillis = millis;
+    }
+
+    /** Goes back to using the system clock. */
+    public void clearPlaybackMillis() {
+        playbackMillis = 0;
+    }
+
+    /** @return true if the time is being set by playback instead of coming from the clock */
+    public boolean isPlayback() {
+        return playbackMillis != 0;
+    }
 }
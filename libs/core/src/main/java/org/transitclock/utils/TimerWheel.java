@@ -0,0 +1,225 @@
+/* (C)2023 */
+package org.transitclock.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchical timer wheel for keeping track of a deadline per key, such as when a vehicle should
+ * be timed out if it doesn't report again. Scheduling, rescheduling and cancelling a deadline are
+ * constant time, and advancing the wheel only looks at the keys whose deadline has been reached
+ * instead of at all of them. Deadlines fire within one tick of when they are due.
+ *
+ * <p>There are four levels of 64 slots. The first level has a slot per tick, and each level above
+ * covers 64 times as long with a slot spanning a whole revolution of the level below. When the
+ * wheel gets to a slot of a higher level its keys are moved down to the level below, so each key
+ * is only moved at most a few times. Deadlines too far out for the top level are kept there and
+ * moved down again once they are within range.
+ *
+ * <p>Time is whatever is passed in, so works with SystemTime when in playback mode. Not thread
+ * safe, callers need to synchronize.
+ *
+ * @param <K> type of the keys, such as vehicle ID
+ */
+public class TimerWheel<K> {
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_TICKS = 1L << (WHEEL_BITS * LEVELS);
+
+    private final long tickMsec;
+
+    // Head of the doubly linked list of entries for each slot of each level
+    private final Entry<K>[][] slots;
+
+    private final Map<K, Entry<K>> entries = new HashMap<>();
+
+    // The next tick to be processed
+    private long currentTick;
+
+    private static final class Entry<K> {
+        private final K key;
+        // Tick at which the deadline is due
+        private long expires;
+        private int level;
+        private int slot;
+        private Entry<K> prev;
+        private Entry<K> next;
+
+        private Entry(K key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * @param tickMsec resolution of the wheel
+     * @param startMsec the current time
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMsec, long startMsec) {
+        if (tickMsec <= 0) {
+            throw new IllegalArgumentException("tickMsec must be positive but was " + tickMsec);
+        }
+        this.tickMsec = tickMsec;
+        this.slots = new Entry[LEVELS][WHEEL_SIZE];
+        this.currentTick = Math.floorDiv(startMsec, tickMsec);
+    }
+
+    /**
+     * Sets the deadline for the key, replacing any deadline it already had. A deadline that has
+     * already passed is due at the next tick.
+     */
+    public void schedule(K key, long deadlineMsec) {
+        Entry<K> entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry<>(key);
+            entries.put(key, entry);
+        } else {
+            unlink(entry);
+        }
+        // Round up so that never fires before the deadline
+        entry.expires = Math.floorDiv(deadlineMsec + tickMsec - 1, tickMsec);
+        place(entry);
+    }
+
+    /**
+     * Removes the deadline for the key.
+     *
+     * @return true if the key had a deadline
+     */
+    public boolean cancel(K key) {
+        Entry<K> entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    public boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * @return number of keys that have a deadline
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Advances the wheel to the specified time and returns the keys whose deadline has been
+     * reached. The keys no longer have a deadline so need to be scheduled again if they are to be
+     * looked at again.
+     *
+     * @param nowMsec the current time
+     * @return the keys that expired, in order of their deadline ticks
+     */
+    public List<K> advance(long nowMsec) {
+        long targetTick = Math.floorDiv(nowMsec, tickMsec);
+        List<K> expired = new ArrayList<>();
+        while (currentTick <= targetTick) {
+            if (entries.isEmpty()) {
+                // Nothing to do so can simply jump ahead
+                currentTick = targetTick + 1;
+                break;
+            }
+            tick(expired);
+        }
+        return expired;
+    }
+
+    /** Processes the current tick, moving down entries of higher levels as needed */
+    private void tick(List<K> expired) {
+        int index = (int) (currentTick & WHEEL_MASK);
+
+        // When the first level wraps around move down the entries of the
+        // next slot of the level above, and so on up the levels
+        if (index == 0) {
+            for (int level = 1; level < LEVELS; ++level) {
+                int levelIndex = (int) ((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+                cascade(level, levelIndex);
+                if (levelIndex != 0) {
+                    break;
+                }
+            }
+        }
+
+        Entry<K> entry = slots[0][index];
+        slots[0][index] = null;
+        while (entry != null) {
+            Entry<K> next = entry.next;
+            entry.prev = null;
+            entry.next = null;
+            if (entry.expires <= currentTick) {
+                entries.remove(entry.key);
+                expired.add(entry.key);
+            } else {
+                // Only happens for deadlines beyond the range of the wheel
+                place(entry);
+            }
+            entry = next;
+        }
+
+        ++currentTick;
+    }
+
+    private void cascade(int level, int index) {
+        Entry<K> entry = slots[level][index];
+        slots[level][index] = null;
+        while (entry != null) {
+            Entry<K> next = entry.next;
+            entry.prev = null;
+            entry.next = null;
+            place(entry);
+            entry = next;
+        }
+    }
+
+    /** Puts the entry into the slot of the lowest level whose range covers its deadline */
+    private void place(Entry<K> entry) {
+        long ticks = entry.expires - currentTick;
+        long placeAt = entry.expires;
+        if (ticks < 0) {
+            // Already due so process it with the current tick
+            placeAt = currentTick;
+            ticks = 0;
+        } else if (ticks >= MAX_TICKS) {
+            // Beyond the top level so put it as far out as possible. Will be
+            // placed again when it gets there.
+            placeAt = currentTick + MAX_TICKS - 1;
+            ticks = MAX_TICKS - 1;
+        }
+
+        int level = 0;
+        while (ticks >= 1L << (WHEEL_BITS * (level + 1))) {
+            ++level;
+        }
+        int index = (int) ((placeAt >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+
+        entry.level = level;
+        entry.slot = index;
+        entry.prev = null;
+        entry.next = slots[level][index];
+        if (entry.next != null) {
+            entry.next.prev = entry;
+        }
+        slots[level][index] = entry;
+    }
+
+    private void unlink(Entry<K> entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else if (slots[entry.level][entry.slot] == entry) {
+            slots[entry.level][entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+    }
+}
@@ -0,0 +1,153 @@
+/* (C)2023 */
+package org.transitclock.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.transitclock.domain.structs.HowSet;
+import org.transitclock.domain.structs.TravelTimesForStopPath;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Compares CompiledTravelTimes with adding up the TravelTimesForStopPath one stop path and segment
+ * at a time, the way TravelTimes used to.
+ */
+class CompiledTravelTimesTest {
+    private final Random random = new Random(42);
+
+    @Test
+    void sameResultsAsWalkingStopPaths() {
+        for (int trip = 0; trip < 200; trip++) {
+            int numStopPaths = 1 + random.nextInt(40);
+            List<TravelTimesForStopPath> travelTimes = randomTravelTimes(numStopPaths);
+            int[] departureTimeSecs = randomWaitStops(numStopPaths);
+            CompiledTravelTimes compiled = new CompiledTravelTimes(travelTimes, departureTimeSecs);
+
+            assertThat(compiled.getNumberOfStopPaths()).isEqualTo(numStopPaths);
+            for (int i = 0; i < numStopPaths; i++) {
+                TravelTimesForStopPath forPath = travelTimes.get(i);
+                assertThat(compiled.getStopPathTravelTimeMsec(i)).isEqualTo(forPath.getStopPathTravelTimeMsec());
+                assertThat(compiled.getStopTimeMsec(i)).isEqualTo(forPath.getStopTimeMsec());
+                assertThat(compiled.getNumberTravelTimeSegments(i)).isEqualTo(forPath.getNumberTravelTimeSegments());
+
+                for (int segment = 0; segment < forPath.getNumberTravelTimeSegments(); segment++) {
+                    assertThat(compiled.getTravelTimeSegmentMsec(i, segment))
+                            .isEqualTo(forPath.getTravelTimeSegmentMsec(segment));
+                    double fraction = random.nextDouble();
+                    assertThat(compiled.travelTimeToEndOfStopPath(i, segment, fraction))
+                            .isEqualTo(toEndOfStopPath(forPath, segment, fraction));
+                    assertThat(compiled.travelTimeFromBeginningOfStopPath(i, segment, fraction))
+                            .isEqualTo(fromBeginningOfStopPath(forPath, segment, fraction));
+                }
+            }
+
+            for (int query = 0; query < 50; query++) {
+                int from = random.nextInt(numStopPaths + 1);
+                int to = from + random.nextInt(numStopPaths - from + 1);
+                int travelTimeSoFar = random.nextInt(600_000);
+                int timeOfDaySecs = random.nextInt(30 * 3600);
+
+                assertThat(compiled.addTravelTimes(from, to, travelTimeSoFar, timeOfDaySecs))
+                        .as("from %d to %d", from, to)
+                        .isEqualTo(addTravelTimes(
+                                travelTimes, departureTimeSecs, from, to, travelTimeSoFar, timeOfDaySecs));
+            }
+        }
+    }
+
+    @Test
+    void waitStopOnlyAffectsTravelTimeIfVehicleWouldBeEarly() {
+        List<TravelTimesForStopPath> travelTimes = List.of(
+                travelTimes(List.of(60_000), 0), travelTimes(List.of(60_000, 60_000), 10_000));
+        int[] departureTimeSecs = {3600, CompiledTravelTimes.NO_DEPARTURE_TIME};
+        CompiledTravelTimes compiled = new CompiledTravelTimes(travelTimes, departureTimeSecs);
+
+        // Would get to the wait stop 10 minutes early so has to wait
+        assertThat(compiled.addTravelTimes(0, 2, 0, 3600 - 11 * 60)).isEqualTo((11 + 2) * 60_000 + 10_000);
+        // Would be late for the wait stop so no waiting
+        assertThat(compiled.addTravelTimes(0, 2, 0, 3600)).isEqualTo(3 * 60_000 + 10_000);
+        assertThat(compiled.adjustForWaitStop(0, 3000, 0)).isEqualTo(600_000);
+        assertThat(compiled.adjustForWaitStop(1, 3000, 0)).isZero();
+    }
+
+    @Test
+    void stopPathWithoutSegments() {
+        CompiledTravelTimes compiled = new CompiledTravelTimes(
+                List.of(travelTimes(List.of(), 5_000), travelTimes(List.of(1_000), 0)),
+                new int[] {CompiledTravelTimes.NO_DEPARTURE_TIME, CompiledTravelTimes.NO_DEPARTURE_TIME});
+
+        assertThat(compiled.getNumberTravelTimeSegments(0)).isZero();
+        assertThat(compiled.addTravelTimes(0, 2, 0, 0)).isEqualTo(6_000);
+        // Like the list of segment times, doesn't silently read the next stop path
+        assertThatThrownBy(() -> compiled.getTravelTimeSegmentMsec(0, 0)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    private List<TravelTimesForStopPath> randomTravelTimes(int numStopPaths) {
+        List<TravelTimesForStopPath> travelTimes = new ArrayList<>();
+        for (int i = 0; i < numStopPaths; i++) {
+            int numSegments = 1 + random.nextInt(8);
+            List<Integer> segmentTimes = new ArrayList<>();
+            for (int segment = 0; segment < numSegments; segment++) {
+                segmentTimes.add(random.nextInt(120_000));
+            }
+            travelTimes.add(travelTimes(segmentTimes, random.nextInt(30_000)));
+        }
+        return travelTimes;
+    }
+
+    private int[] randomWaitStops(int numStopPaths) {
+        int[] departureTimeSecs = new int[numStopPaths];
+        Arrays.fill(departureTimeSecs, CompiledTravelTimes.NO_DEPARTURE_TIME);
+        for (int i = 0; i < numStopPaths; i++) {
+            if (i == 0 || random.nextInt(10) == 0) {
+                departureTimeSecs[i] = random.nextInt(30 * 3600);
+            }
+        }
+        return departureTimeSecs;
+    }
+
+    private static TravelTimesForStopPath travelTimes(List<Integer> segmentTimes, int stopTimeMsec) {
+        return new TravelTimesForStopPath(0, 0, "path", 100.0, segmentTimes, stopTimeMsec, -1, HowSet.SCHED, null);
+    }
+
+    private static int toEndOfStopPath(TravelTimesForStopPath forPath, int segment, double fraction) {
+        int travelTimeMsec = (int) (forPath.getTravelTimeSegmentMsec(segment) * (1 - fraction));
+        for (int i = segment + 1; i < forPath.getNumberTravelTimeSegments(); ++i) {
+            travelTimeMsec += forPath.getTravelTimeSegmentMsec(i);
+        }
+        return travelTimeMsec;
+    }
+
+    private static int fromBeginningOfStopPath(TravelTimesForStopPath forPath, int segment, double fraction) {
+        int travelTimeMsec = 0;
+        for (int i = 0; i < segment; ++i) {
+            travelTimeMsec += forPath.getTravelTimeSegmentMsec(i);
+        }
+        return travelTimeMsec + (int) (forPath.getTravelTimeSegmentMsec(segment) * fraction);
+    }
+
+    private static int addTravelTimes(
+            List<TravelTimesForStopPath> travelTimes,
+            int[] departureTimeSecs,
+            int from,
+            int to,
+            int travelTimeMsec,
+            int timeOfDaySecs) {
+        for (int i = from; i < to; i++) {
+            travelTimeMsec += travelTimes.get(i).getStopPathTravelTimeMsec();
+            travelTimeMsec += travelTimes.get(i).getStopTimeMsec();
+            Integer scheduledDepartureTime =
+                    departureTimeSecs[i] == CompiledTravelTimes.NO_DEPARTURE_TIME ? null : departureTimeSecs[i];
+            if (scheduledDepartureTime != null
+                    && timeOfDaySecs * 1000 + travelTimeMsec < scheduledDepartureTime * 1000) {
+                travelTimeMsec = (scheduledDepartureTime - timeOfDaySecs) * 1000;
+            }
+        }
+        return travelTimeMsec;
+    }
+}
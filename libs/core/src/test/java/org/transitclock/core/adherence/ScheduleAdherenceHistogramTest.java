@@ -0,0 +1,58 @@
+package org.transitclock.core.adherence;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ScheduleAdherenceHistogramTest {
+    private static final long MINUTE = 60_000;
+
+    @Test
+    void countsMatchLimitsOnBinBoundaries() {
+        long[] latenesses = {
+            -31 * MINUTE, -2 * MINUTE - 1, -2 * MINUTE, -MINUTE, -1, 0, 1, 4 * MINUTE, 4 * MINUTE + 1, 61 * MINUTE
+        };
+        int[] histogram = ScheduleAdherenceHistogram.create();
+        for (long lateness : latenesses) {
+            ScheduleAdherenceHistogram.add(histogram, lateness);
+        }
+
+        // Compare with the direct definition for a few limits, as used by the reports
+        for (long early : new long[] {0, MINUTE, 2 * MINUTE, 30 * MINUTE}) {
+            for (long late : new long[] {0, MINUTE, 4 * MINUTE, 60 * MINUTE}) {
+                long expectedEarly = 0;
+                long expectedLate = 0;
+                for (long lateness : latenesses) {
+                    if (lateness < -early) expectedEarly++;
+                    if (lateness > late) expectedLate++;
+                }
+                assertThat(ScheduleAdherenceHistogram.countEarly(histogram, early))
+                        .as("early limit %d", early)
+                        .isEqualTo(expectedEarly);
+                if (late > 0) {
+                    assertThat(ScheduleAdherenceHistogram.countLate(histogram, late))
+                            .as("late limit %d", late)
+                            .isEqualTo(expectedLate);
+                }
+            }
+        }
+        assertThat(ScheduleAdherenceHistogram.total(histogram)).isEqualTo(latenesses.length);
+    }
+
+    @Test
+    void percentiles() {
+        int[] histogram = ScheduleAdherenceHistogram.create();
+        assertThat(ScheduleAdherenceHistogram.percentile(histogram, 50)).isNull();
+
+        for (int i = 0; i < 90; i++) {
+            ScheduleAdherenceHistogram.add(histogram, 10_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            ScheduleAdherenceHistogram.add(histogram, 5 * MINUTE + 10_000);
+        }
+
+        assertThat(ScheduleAdherenceHistogram.percentile(histogram, 50)).isEqualTo(15_000);
+        assertThat(ScheduleAdherenceHistogram.percentile(histogram, 90)).isEqualTo(15_000);
+        assertThat(ScheduleAdherenceHistogram.percentile(histogram, 95)).isEqualTo(5 * MINUTE + 15_000);
+    }
+}
@@ -0,0 +1,150 @@
+package org.transitclock.core.adherence;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.transitclock.domain.structs.ScheduleAdherenceSummary;
+import org.transitclock.properties.ArrivalsDeparturesProperties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ScheduleAdherenceRollupTest {
+    private static final long MINUTE = 60_000;
+
+    // Offset from UTC by a half hour so that agency hours differ from UTC hours
+    private static final ZoneId KOLKATA = ZoneId.of("Asia/Kolkata");
+
+    private static ScheduleAdherenceRollup rollup() {
+        ArrivalsDeparturesProperties properties = new ArrivalsDeparturesProperties();
+        properties.setAdherenceRollupFlushIntervalSecs(0);
+        return new ScheduleAdherenceRollup(properties, () -> KOLKATA);
+    }
+
+    private static long time(int hour, int minute) {
+        return ZonedDateTime.of(2024, 6, 3, hour, minute, 0, 0, KOLKATA).toInstant().toEpochMilli();
+    }
+
+    private static void add(ScheduleAdherenceRollup rollup, String stopId, long time, long latenessMsec) {
+        rollup.add("r1", "1", "0", stopId, 5, 3, time, time - latenessMsec);
+    }
+
+    @Test
+    void rollsUpPerStopAndHourOfAgencyTimezone() {
+        ScheduleAdherenceRollup rollup = rollup();
+        add(rollup, "s1", time(10, 5), MINUTE);
+        add(rollup, "s1", time(10, 55), -2 * MINUTE);
+        add(rollup, "s1", time(11, 0), 0);
+        add(rollup, "s2", time(10, 30), 3 * MINUTE);
+
+        List<ScheduleAdherenceSummary> summaries = new ArrayList<>(rollup.drain());
+        summaries.sort(Comparator.comparing(ScheduleAdherenceSummary::getStopId)
+                .thenComparing(ScheduleAdherenceSummary::getHourStart));
+
+        assertThat(summaries).hasSize(3);
+        ScheduleAdherenceSummary s1TenOClock = summaries.get(0);
+        assertThat(s1TenOClock.getStopId()).isEqualTo("s1");
+        assertThat(s1TenOClock.getHourStart()).isEqualTo(new Date(time(10, 0)));
+        assertThat(s1TenOClock.getTotal()).isEqualTo(2);
+        assertThat(s1TenOClock.getLatenessSumMsec()).isEqualTo(-MINUTE);
+        assertThat(s1TenOClock.getMinLatenessMsec()).isEqualTo(-2 * MINUTE);
+        assertThat(s1TenOClock.getMaxLatenessMsec()).isEqualTo(MINUTE);
+        assertThat(s1TenOClock.getStopOrder()).isEqualTo(5);
+        assertThat(s1TenOClock.getConfigRev()).isEqualTo(3);
+        assertThat(ScheduleAdherenceHistogram.countEarly(s1TenOClock.getHistogram(), MINUTE)).isEqualTo(1);
+        assertThat(ScheduleAdherenceHistogram.countLate(s1TenOClock.getHistogram(), 0)).isEqualTo(1);
+
+        assertThat(summaries.get(1).getHourStart()).isEqualTo(new Date(time(11, 0)));
+        assertThat(summaries.get(1).getTotal()).isEqualTo(1);
+        assertThat(summaries.get(2).getStopId()).isEqualTo("s2");
+        assertThat(summaries.get(2).getHourStart()).isEqualTo(new Date(time(10, 0)));
+    }
+
+    @Test
+    void flushHandsOverPendingCountsOnce() {
+        ScheduleAdherenceRollup rollup = rollup();
+        add(rollup, "s1", time(10, 5), MINUTE);
+        add(rollup, "s1", time(10, 10), MINUTE);
+
+        List<List<ScheduleAdherenceSummary>> written = new ArrayList<>();
+        rollup.flush(written::add);
+        assertThat(written).hasSize(1);
+        assertThat(written.get(0)).hasSize(1);
+        assertThat(written.get(0).get(0).getTotal()).isEqualTo(2);
+
+        // Only what was added since the last flush is written
+        add(rollup, "s1", time(10, 15), MINUTE);
+        rollup.flush(written::add);
+        assertThat(written).hasSize(2);
+        assertThat(written.get(1)).hasSize(1);
+        assertThat(written.get(1).get(0).getTotal()).isEqualTo(1);
+        assertThat(written.get(1).get(0).getLatenessSumMsec()).isEqualTo(MINUTE);
+
+        // Nothing to write so the writer isn't called
+        rollup.flush(written::add);
+        assertThat(written).hasSize(2);
+    }
+
+    @Test
+    void failedFlushIsWrittenWithNextFlush() {
+        ScheduleAdherenceRollup rollup = rollup();
+        add(rollup, "s1", time(10, 5), MINUTE);
+        add(rollup, "s1", time(10, 10), -MINUTE);
+
+        assertThatThrownBy(() -> rollup.flush(summaries -> {
+                    throw new IllegalStateException("db down");
+                }))
+                .isInstanceOf(IllegalStateException.class);
+
+        add(rollup, "s1", time(10, 20), 2 * MINUTE);
+
+        List<List<ScheduleAdherenceSummary>> written = new ArrayList<>();
+        rollup.flush(written::add);
+        assertThat(written).hasSize(1);
+        ScheduleAdherenceSummary summary = written.get(0).get(0);
+        assertThat(summary.getTotal()).isEqualTo(3);
+        assertThat(summary.getLatenessSumMsec()).isEqualTo(2 * MINUTE);
+        assertThat(summary.getMinLatenessMsec()).isEqualTo(-MINUTE);
+        assertThat(summary.getMaxLatenessMsec()).isEqualTo(2 * MINUTE);
+        assertThat(ScheduleAdherenceHistogram.total(summary.getHistogram())).isEqualTo(3);
+    }
+
+    @Test
+    void restoredCountsAreHandedOverOnce() {
+        ScheduleAdherenceRollup rollup = rollup();
+
+        int[] histogram = ScheduleAdherenceHistogram.create();
+        ScheduleAdherenceHistogram.add(histogram, MINUTE);
+        ScheduleAdherenceSummary failed = new ScheduleAdherenceSummary("r1", "0", "s1", new Date(0));
+        failed.add("1", 3, 5, 1, MINUTE, MINUTE, MINUTE, histogram);
+
+        // As if a flush failed, the counts are put back twice
+        rollup.restore(List.of(failed, failed));
+
+        List<ScheduleAdherenceSummary> pending = rollup.drain();
+        assertThat(pending).hasSize(1);
+        assertThat(pending.get(0).getTotal()).isEqualTo(2);
+        assertThat(pending.get(0).getLatenessSumMsec()).isEqualTo(2 * MINUTE);
+        assertThat(pending.get(0).getStopOrder()).isEqualTo(5);
+        assertThat(ScheduleAdherenceHistogram.total(pending.get(0).getHistogram())).isEqualTo(2);
+
+        // Already handed over, and the now empty bucket is dropped
+        assertThat(rollup.drain()).isEmpty();
+        assertThat(rollup.drain()).isEmpty();
+    }
+
+    @Test
+    void ignoredWhenDisabled() {
+        ArrivalsDeparturesProperties properties = new ArrivalsDeparturesProperties();
+        properties.setAdherenceRollupEnabled(false);
+        ScheduleAdherenceRollup rollup = new ScheduleAdherenceRollup(properties, () -> KOLKATA);
+        add(rollup, "s1", time(10, 5), MINUTE);
+
+        assertThat(rollup.drain()).isEmpty();
+    }
+}
@@ -0,0 +1,173 @@
+package org.transitclock.core.avl;
+
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.transitclock.domain.structs.AssignmentType;
+import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.domain.structs.Location;
+import org.transitclock.properties.AvlProperties;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AvlAdmissionControllerTest {
+    private static final int QUEUE_CAPACITY = 100;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private AvlProperties avlProperties;
+    private ThreadPoolExecutor executor;
+    private AvlAdmissionController controller;
+
+    @BeforeEach
+    void setUp() throws InterruptedException {
+        avlProperties = new AvlProperties();
+        executor = new ThreadPoolExecutor(
+                1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+        controller = new AvlAdmissionController(avlProperties, executor, meterRegistry);
+
+        // Block the only worker so that queued tasks stay queued
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            awaitRelease();
+        });
+        started.await();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fillQueue(double fraction) {
+        for (int i = executor.getQueue().size(); i < fraction * QUEUE_CAPACITY; ++i) {
+            executor.execute(this::awaitRelease);
+        }
+    }
+
+    private static AvlReport avlReport(String vehicleId, long time) {
+        return AvlReport.builder()
+                .withVehicleId(vehicleId)
+                .withTime(new Date(time))
+                .withLocation(new Location(38.9, -77.0))
+                .withSpeed(Float.NaN)
+                .withHeading(Float.NaN)
+                .withSource("test")
+                .build();
+    }
+
+    private static AvlReport schedBasedAvlReport(String vehicleId, long time) {
+        AvlReport avlReport = avlReport(vehicleId, time);
+        avlReport.setAssignment("block1", AssignmentType.BLOCK_FOR_SCHED_BASED_PREDS);
+        return avlReport;
+    }
+
+    private double count(AvlAdmissionController.Decision decision) {
+        return meterRegistry
+                .get("transitclock.avl.admission")
+                .tag("decision", decision.name().toLowerCase())
+                .counter()
+                .count();
+    }
+
+    @Test
+    void acceptsEverythingWhenNotBackedUp() {
+        assertThat(controller.getLevel()).isEqualTo(AvlAdmissionController.Level.NORMAL);
+        assertThat(controller.admit(avlReport("v1", 1000))).isEqualTo(AvlAdmissionController.Decision.ACCEPT);
+        assertThat(controller.admit(avlReport("v1", 2000))).isEqualTo(AvlAdmissionController.Decision.ACCEPT);
+        assertThat(controller.admit(schedBasedAvlReport("v2", 2000)))
+                .isEqualTo(AvlAdmissionController.Decision.ACCEPT);
+        assertThat(controller.getPollIntervalMultiplier()).isEqualTo(1);
+        assertThat(count(AvlAdmissionController.Decision.ACCEPT)).isEqualTo(3);
+    }
+
+    @Test
+    void shedsSchedBasedFirst() {
+        fillQueue(0.6);
+
+        assertThat(controller.getLevel()).isEqualTo(AvlAdmissionController.Level.SHED_SCHED_BASED);
+        assertThat(controller.admit(schedBasedAvlReport("v2", 2000)))
+                .isEqualTo(AvlAdmissionController.Decision.SHED_SCHED_BASED);
+        assertThat(controller.admit(avlReport("v1", 1000))).isEqualTo(AvlAdmissionController.Decision.ACCEPT);
+        assertThat(controller.admit(avlReport("v1", 2000))).isEqualTo(AvlAdmissionController.Decision.ACCEPT);
+        assertThat(count(AvlAdmissionController.Decision.SHED_SCHED_BASED)).isEqualTo(1);
+    }
+
+    @Test
+    void shedsReportsTooSoonAfterPreviousOne() {
+        controller.admit(avlReport("v1", 0));
+        fillQueue(0.8);
+
+        assertThat(controller.getLevel()).isEqualTo(AvlAdmissionController.Level.SHED_FREQUENT);
+        assertThat(controller.admit(avlReport("v1", 5000))).isEqualTo(AvlAdmissionController.Decision.SHED_FREQUENT);
+        assertThat(controller.admit(avlReport("v1", 15000))).isEqualTo(AvlAdmissionController.Decision.ACCEPT);
+        // Measured from the last accepted report
+        assertThat(controller.admit(avlReport("v1", 20000))).isEqualTo(AvlAdmissionController.Decision.SHED_FREQUENT);
+        // First report for a vehicle is always accepted
+        assertThat(controller.admit(avlReport("v2", 20000))).isEqualTo(AvlAdmissionController.Decision.ACCEPT);
+        assertThat(controller.getPollIntervalMultiplier()).isEqualTo(2);
+    }
+
+    @Test
+    void rejectsEverythingWhenOverloaded() {
+        fillQueue(0.95);
+        controller.recordQueueWait(5000);
+
+        assertThat(controller.isOverloaded()).isTrue();
+        assertThat(controller.admit(avlReport("v1", 1000))).isEqualTo(AvlAdmissionController.Decision.REJECT);
+        assertThat(controller.getPollIntervalMultiplier()).isEqualTo(4);
+        assertThat(controller.getRetryAfterSecs()).isBetween(1, 60);
+        assertThat(count(AvlAdmissionController.Decision.REJECT)).isEqualTo(1);
+        assertThat(meterRegistry.get("transitclock.avl.queue.depth").gauge().value()).isEqualTo(95);
+    }
+
+    @Test
+    void highLatencyShedsEvenWithShortQueue() {
+        fillQueue(0.1);
+        for (int i = 0; i < 200; ++i) controller.recordQueueWait(15_000);
+
+        assertThat(controller.getLevel()).isEqualTo(AvlAdmissionController.Level.SHED_FREQUENT);
+        assertThat(controller.getRetryAfterSecs()).isEqualTo(15);
+    }
+
+    @Test
+    void disabledAcceptsEverything() {
+        avlProperties.setAdmissionControlEnabled(false);
+        fillQueue(1.0);
+
+        assertThat(controller.getLevel()).isEqualTo(AvlAdmissionController.Level.NORMAL);
+        assertThat(controller.admit(schedBasedAvlReport("v2", 2000)))
+                .isEqualTo(AvlAdmissionController.Decision.ACCEPT);
+    }
+
+    @Test
+    void recordsQueueWaitAndProcessingTimeSeparately() {
+        controller.recordQueueWait(100);
+        controller.recordProcessingTime(3000);
+
+        assertThat(meterRegistry.get("transitclock.avl.queue.time").timer().totalTime(TimeUnit.MILLISECONDS))
+                .isEqualTo(100);
+        assertThat(meterRegistry.get("transitclock.avl.processing.time").timer().totalTime(TimeUnit.MILLISECONDS))
+                .isEqualTo(3000);
+        // Processing time doesn't count towards how backed up the queue is
+        assertThat(controller.getLatencyMsec()).isEqualTo(5.0);
+    }
+}
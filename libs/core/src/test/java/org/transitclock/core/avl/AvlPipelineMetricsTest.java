@@ -0,0 +1,95 @@
+package org.transitclock.core.avl;
+
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.transitclock.core.avl.AvlPipelineMetrics.Stage;
+import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.domain.structs.Location;
+import org.transitclock.properties.AvlProperties;
+import org.transitclock.utils.SystemTime;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AvlPipelineMetricsTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void tearDown() {
+        SystemTime.clearPlaybackMillis();
+    }
+
+    private AvlPipelineMetrics metrics(int sampleEvery) {
+        AvlProperties avlProperties = new AvlProperties();
+        avlProperties.setStageTimingSampleEvery(sampleEvery);
+        return new AvlPipelineMetrics(avlProperties, meterRegistry);
+    }
+
+    private static AvlReport avlReport(long time) {
+        return AvlReport.builder()
+                .withVehicleId("v1")
+                .withTime(new Date(time))
+                .withLocation(new Location(38.9, -77.0))
+                .withSpeed(Float.NaN)
+                .withHeading(Float.NaN)
+                .withSource("test")
+                .build();
+    }
+
+    private Timer stageTimer(Stage stage) {
+        return meterRegistry.get("transitclock.avl.stage").tag("stage", stage.name().toLowerCase(Locale.ROOT)).timer();
+    }
+
+    @Test
+    void timesEveryStageWhenSamplingEveryReport() {
+        AvlPipelineMetrics metrics = metrics(1);
+        AvlReport avlReport = avlReport(1_000_000L);
+
+        metrics.stop(Stage.SPATIAL_MATCH, metrics.start(avlReport));
+        metrics.stop(Stage.SPATIAL_MATCH, metrics.start(avlReport));
+        metrics.stop(Stage.PREDICTIONS, metrics.start(avlReport));
+
+        assertThat(stageTimer(Stage.SPATIAL_MATCH).count()).isEqualTo(2);
+        assertThat(stageTimer(Stage.PREDICTIONS).count()).isEqualTo(1);
+        assertThat(stageTimer(Stage.TOTAL).count()).isZero();
+    }
+
+    @Test
+    void timesAllOrNoneOfTheStagesOfAReport() {
+        AvlPipelineMetrics metrics = metrics(7);
+
+        int sampled = 0;
+        for (int i = 0; i < 700; ++i) {
+            AvlReport avlReport = avlReport(1_000_000L + i);
+            for (Stage stage : Stage.values()) {
+                metrics.stop(stage, metrics.start(avlReport));
+            }
+            if (metrics.isSampled(avlReport)) ++sampled;
+        }
+
+        for (Stage stage : Stage.values()) {
+            assertThat(stageTimer(stage).count()).isEqualTo(sampled);
+        }
+        assertThat(sampled).isBetween(1, 699);
+    }
+
+    @Test
+    void recordsLagFromGpsTime() {
+        AvlPipelineMetrics metrics = metrics(10);
+        SystemTime.setPlaybackMillis(1_030_000L);
+
+        metrics.recordLag(avlReport(1_000_000L));
+        // A report from the future isn't lag
+        metrics.recordLag(avlReport(1_060_000L));
+
+        Timer lag = meterRegistry.get("transitclock.avl.lag").timer();
+        assertThat(lag.count()).isEqualTo(1);
+        assertThat(lag.totalTime(TimeUnit.SECONDS)).isEqualTo(30.0);
+    }
+}
@@ -0,0 +1,108 @@
+package org.transitclock.core.avl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.domain.structs.Location;
+import org.transitclock.properties.TimeoutProperties;
+import org.transitclock.utils.SystemTime;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AvlReportRegistryTest {
+    private static final long START = 1_700_000_000_000L;
+    private static final long ALLOWABLE_NO_AVL_MSEC = 360_000L;
+
+    private AvlReportRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        SystemTime.setPlaybackMillis(START);
+        registry = new AvlReportRegistry(new TimeoutProperties());
+    }
+
+    @AfterEach
+    void tearDown() {
+        SystemTime.clearPlaybackMillis();
+    }
+
+    private static AvlReport avlReport(String vehicleId, long time) {
+        return AvlReport.builder()
+                .withVehicleId(vehicleId)
+                .withTime(new Date(time))
+                .withLocation(new Location(38.9, -77.0))
+                .withSpeed(Float.NaN)
+                .withHeading(Float.NaN)
+                .withSource("test")
+                .build();
+    }
+
+    @Test
+    void expiresVehicleOnlyOnceItHasGoneWithoutReportingTooLong() {
+        registry.storeAvlReport(avlReport("v1", START));
+        AvlReport latest = avlReport("v1", START + 60_000);
+        registry.storeAvlReport(latest);
+
+        assertThat(registry.expiredAvlReports(START + ALLOWABLE_NO_AVL_MSEC + 1000)).isEmpty();
+        assertThat(registry.expiredAvlReports(START + 60_000 + ALLOWABLE_NO_AVL_MSEC + 1000))
+                .containsExactly(latest);
+        // No longer has a deadline
+        assertThat(registry.expiredAvlReports(START + 2 * ALLOWABLE_NO_AVL_MSEC)).isEmpty();
+    }
+
+    @Test
+    void removedVehicleDoesNotExpire() {
+        AvlReport avlReport = avlReport("v1", START);
+        registry.storeAvlReport(avlReport);
+        registry.remove(avlReport);
+
+        assertThat(registry.expiredAvlReports(START + 2 * ALLOWABLE_NO_AVL_MSEC)).isEmpty();
+        assertThat(registry.avlReportList()).isEmpty();
+    }
+
+    @Test
+    void latestReportOfEachVehicleExpiresWhenStoredConcurrently() throws Exception {
+        int numThreads = 8;
+        int numVehicles = 200;
+        int reportsPerVehicle = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            // Each thread stores the reports of its own vehicles, in order,
+            // while the timeout check runs
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < numThreads; ++thread) {
+                int firstVehicle = thread;
+                futures.add(executor.submit(() -> {
+                    for (int report = 0; report < reportsPerVehicle; ++report) {
+                        for (int vehicle = firstVehicle; vehicle < numVehicles; vehicle += numThreads) {
+                            registry.storeAvlReport(avlReport("v" + vehicle, START + report * 1000L));
+                        }
+                    }
+                }));
+            }
+            while (!futures.stream().allMatch(Future::isDone)) {
+                assertThat(registry.expiredAvlReports(START)).isEmpty();
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        List<AvlReport> expired = registry.expiredAvlReports(START + reportsPerVehicle * 1000L + ALLOWABLE_NO_AVL_MSEC);
+        assertThat(expired).hasSize(numVehicles);
+        for (AvlReport avlReport : expired) {
+            assertThat(avlReport.getTime()).isEqualTo(START + (reportsPerVehicle - 1) * 1000L);
+        }
+    }
+}
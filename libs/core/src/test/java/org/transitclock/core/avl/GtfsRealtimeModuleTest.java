@@ -0,0 +1,190 @@
+package org.transitclock.core.avl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.properties.AvlProperties;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.Position;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.VehicleDescriptor;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GtfsRealtimeModuleTest {
+
+    private HttpServer server;
+    private final List<AvlReport> processed = Collections.synchronizedList(new ArrayList<>());
+    private AvlProperties avlProperties;
+    private GtfsRealtimeModule module;
+
+    /** Serves a recorded feed, optionally slowly and optionally with an ETag */
+    private static class FeedHandler {
+        volatile byte[] feed;
+        volatile String etag;
+        volatile long delayMsec;
+        final AtomicInteger numRequests = new AtomicInteger();
+        final AtomicInteger numNotModified = new AtomicInteger();
+
+        FeedHandler(byte[] feed) {
+            this.feed = feed;
+        }
+
+        void handle(HttpExchange exchange) throws IOException {
+            numRequests.incrementAndGet();
+            try {
+                Thread.sleep(delayMsec);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (etag != null && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                numNotModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            if (etag != null) exchange.getResponseHeaders().set("ETag", etag);
+            exchange.sendResponseHeaders(200, feed.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(feed);
+            }
+        }
+    }
+
+    private static byte[] feed(long timestamp, String... vehicleIds) {
+        FeedMessage.Builder feed = FeedMessage.newBuilder()
+                .setHeader(FeedHeader.newBuilder()
+                        .setGtfsRealtimeVersion("2.0")
+                        .setTimestamp(timestamp));
+        for (String vehicleId : vehicleIds) {
+            feed.addEntity(FeedEntity.newBuilder()
+                    .setId(vehicleId)
+                    .setVehicle(VehiclePosition.newBuilder()
+                            .setVehicle(VehicleDescriptor.newBuilder().setId(vehicleId))
+                            .setTrip(TripDescriptor.newBuilder().setTripId("trip_" + vehicleId))
+                            .setPosition(Position.newBuilder().setLatitude(38.9f).setLongitude(-77.0f))
+                            .setTimestamp(timestamp)));
+        }
+        return feed.build().toByteArray();
+    }
+
+    private String serve(String path, FeedHandler handler) {
+        server.createContext(path, handler::handle);
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        avlProperties = new AvlProperties();
+        avlProperties.setFeedTimeoutInMSecs(2000);
+        AvlReportProcessor avlReportProcessor = new AvlReportProcessor(
+                null,
+                avlProperties,
+                Runnable::run,
+                new AvlAdmissionController(avlProperties, Runnable::run, new SimpleMeterRegistry())) {
+            @Override
+            public AvlAdmissionController.Decision process(AvlReport avlReport) {
+                processed.add(avlReport);
+                return AvlAdmissionController.Decision.ACCEPT;
+            }
+        };
+        module = new GtfsRealtimeModule(avlProperties, avlReportProcessor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    private List<String> processedVehicleIds() {
+        synchronized (processed) {
+            return processed.stream().map(AvlReport::getVehicleId).toList();
+        }
+    }
+
+    @Test
+    void readsSlowSourcesConcurrently() {
+        FeedHandler feed1 = new FeedHandler(feed(1000, "v1", "v2"));
+        FeedHandler feed2 = new FeedHandler(feed(1000, "v3"));
+        feed1.delayMsec = 700;
+        feed2.delayMsec = 700;
+        avlProperties.setGtfsRealtimeFeedURI(List.of(serve("/feed1", feed1), serve("/feed2", feed2)));
+
+        long start = System.currentTimeMillis();
+        module.run();
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertThat(processedVehicleIds()).containsExactlyInAnyOrder("v1", "v2", "v3");
+        assertThat(elapsed).isLessThan(1400);
+    }
+
+    @Test
+    void sourceThatTimesOutDoesNotPreventOthers() {
+        FeedHandler slow = new FeedHandler(feed(1000, "slow"));
+        slow.delayMsec = 3000;
+        FeedHandler fast = new FeedHandler(feed(1000, "fast"));
+        avlProperties.setFeedTimeoutInMSecs(500);
+        avlProperties.setGtfsRealtimeFeedURI(List.of(serve("/slow", slow), serve("/fast", fast)));
+
+        module.run();
+
+        assertThat(processedVehicleIds()).containsExactly("fast");
+    }
+
+    @Test
+    void usesEtagForConditionalRequests() {
+        FeedHandler handler = new FeedHandler(feed(1000, "v1"));
+        handler.etag = "\"abc\"";
+        avlProperties.setGtfsRealtimeFeedURI(List.of(serve("/feed", handler)));
+
+        module.run();
+        module.run();
+
+        assertThat(handler.numRequests).hasValue(2);
+        assertThat(handler.numNotModified).hasValue(1);
+        assertThat(processedVehicleIds()).containsExactly("v1");
+
+        // A changed feed has a new ETag and is processed
+        handler.feed = feed(1010, "v1");
+        handler.etag = "\"def\"";
+        module.run();
+        assertThat(processedVehicleIds()).containsExactly("v1", "v1");
+    }
+
+    @Test
+    void skipsFeedWhoseHeaderTimestampHasNotChanged() {
+        FeedHandler handler = new FeedHandler(feed(1000, "v1", "v2"));
+        avlProperties.setGtfsRealtimeFeedURI(List.of(serve("/feed", handler)));
+
+        module.run();
+        module.run();
+        assertThat(processedVehicleIds()).containsExactly("v1", "v2");
+
+        handler.feed = feed(1010, "v1", "v2");
+        module.run();
+        assertThat(processedVehicleIds()).containsExactly("v1", "v2", "v1", "v2");
+    }
+}
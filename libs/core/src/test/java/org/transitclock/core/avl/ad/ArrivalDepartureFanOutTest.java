@@ -0,0 +1,122 @@
+package org.transitclock.core.avl.ad;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.transitclock.domain.structs.Arrival;
+import org.transitclock.domain.structs.ArrivalDeparture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArrivalDepartureFanOutTest {
+
+    /** So that the consumers can tell which event an ArrivalDeparture was created from */
+    private static final class TestArrival extends Arrival {
+        private final ArrivalDepartureEvent event;
+
+        private TestArrival(ArrivalDepartureEvent event) {
+            this.event = event;
+        }
+    }
+
+    private static ArrivalDepartureEvent event(String vehicleId, long time) {
+        return new ArrivalDepartureEvent(
+                true, 0, vehicleId, time, time, null, 0, 0, ArrivalDepartureEvent.NO_FREQ_START_TIME);
+    }
+
+    private static ArrivalDepartureFanOut newFanOut(int queueSize) {
+        return new ArrivalDepartureFanOut(TestArrival::new, queueSize, true);
+    }
+
+    private static List<Long> timesOf(List<ArrivalDeparture> arrivalDepartures) {
+        List<Long> times = new ArrayList<>();
+        for (ArrivalDeparture arrivalDeparture : arrivalDepartures) {
+            times.add(((TestArrival) arrivalDeparture).event.time());
+        }
+        return times;
+    }
+
+    @Test
+    void keepsOrderOfVehicleWithinLane() throws InterruptedException {
+        List<ArrivalDeparture> stopHistory = Collections.synchronizedList(new ArrayList<>());
+        List<ArrivalDeparture> db = Collections.synchronizedList(new ArrayList<>());
+        List<Long> expected = new ArrayList<>();
+
+        // Small queue so that the submitting thread has to wait for room
+        ArrivalDepartureFanOut fanOut = newFanOut(2);
+        for (long time = 0; time < 500; time++) {
+            ArrivalDepartureEvent event = event("v1", time);
+            fanOut.submit(event, ArrivalDepartureFanOut.Lane.STOP_HISTORY, stopHistory::add);
+            fanOut.submit(event, ArrivalDepartureFanOut.Lane.DB, db::add);
+            expected.add(time);
+        }
+        fanOut.close();
+
+        assertThat(timesOf(stopHistory)).containsExactlyElementsOf(expected);
+        assertThat(timesOf(db)).containsExactlyElementsOf(expected);
+        assertThat(fanOut.getQueueSize()).isZero();
+    }
+
+    @Test
+    void submitsDeferralsOfVehicleInOrderCreated() throws InterruptedException {
+        List<ArrivalDeparture> consumed = Collections.synchronizedList(new ArrayList<>());
+        ArrivalDepartureFanOut fanOut = newFanOut(10);
+
+        ArrivalDepartureFanOut.Deferral first = fanOut.defer("v1");
+        fanOut.submit(event("v1", 1), ArrivalDepartureFanOut.Lane.TRIP_HISTORY, consumed::add);
+        // Nested deferral adds to the outer one
+        ArrivalDepartureFanOut.Deferral nested = fanOut.defer("v1");
+        fanOut.submit(event("v1", 2), ArrivalDepartureFanOut.Lane.TRIP_HISTORY, consumed::add);
+        nested.submit();
+
+        // Second deferral of the vehicle created on another thread and
+        // submitted before the first one
+        CountDownLatch created = new CountDownLatch(1);
+        Thread other = new Thread(() -> {
+            ArrivalDepartureFanOut.Deferral second = fanOut.defer("v1");
+            fanOut.submit(event("v1", 3), ArrivalDepartureFanOut.Lane.TRIP_HISTORY, consumed::add);
+            created.countDown();
+            second.submit();
+        });
+        other.start();
+        assertThat(created.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // Nothing is queued until the first deferral is submitted
+        Thread.sleep(100);
+        assertThat(consumed).isEmpty();
+
+        first.submit();
+        other.join(5000);
+        assertThat(other.isAlive()).isFalse();
+        fanOut.close();
+
+        assertThat(timesOf(consumed)).containsExactly(1L, 2L, 3L);
+    }
+
+    @Test
+    void deferralsOfOtherVehiclesDontWait() throws InterruptedException {
+        List<ArrivalDeparture> consumed = Collections.synchronizedList(new ArrayList<>());
+        ArrivalDepartureFanOut fanOut = newFanOut(10);
+
+        ArrivalDepartureFanOut.Deferral v1 = fanOut.defer("v1");
+        fanOut.submit(event("v1", 1), ArrivalDepartureFanOut.Lane.DB, consumed::add);
+
+        Thread other = new Thread(() -> {
+            ArrivalDepartureFanOut.Deferral v2 = fanOut.defer("v2");
+            fanOut.submit(event("v2", 2), ArrivalDepartureFanOut.Lane.DB, consumed::add);
+            v2.submit();
+        });
+        other.start();
+        other.join(5000);
+        assertThat(other.isAlive()).isFalse();
+
+        v1.submit();
+        fanOut.close();
+
+        assertThat(timesOf(consumed)).containsExactly(2L, 1L);
+    }
+}
@@ -0,0 +1,43 @@
+package org.transitclock.core.avl.assigner;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.transitclock.core.avl.assigner.BlockInfoProvider.ActiveBlocks;
+import org.transitclock.domain.structs.Block;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BlockInfoProviderTest {
+
+    private static Block block(String blockId, String... routeIds) {
+        return new Block(0, blockId, "weekday", 0, 0, List.of()) {
+            @Override
+            public Set<String> getRouteIds() {
+                return Set.of(routeIds);
+            }
+        };
+    }
+
+    @Test
+    void countsActiveBlocksPerRoute() {
+        ActiveBlocks activeBlocks =
+                new ActiveBlocks(0, List.of(block("b1", "r1"), block("b2", "r1", "r2"), block("b3", "r3")));
+
+        Map<String, Integer> counts = activeBlocks.blockCountsByRouteId();
+
+        // A block for two routes counts for both of them
+        assertThat(counts).hasSize(3);
+        assertThat(counts).containsEntry("r1", 2);
+        assertThat(counts).containsEntry("r2", 1);
+        assertThat(counts).containsEntry("r3", 1);
+        assertThat(activeBlocks.blocks()).hasSize(3);
+    }
+
+    @Test
+    void noCountsWithoutActiveBlocks() {
+        assertThat(new ActiveBlocks(0, List.of()).blockCountsByRouteId()).isEmpty();
+    }
+}
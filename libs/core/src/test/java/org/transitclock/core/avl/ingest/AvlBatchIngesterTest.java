@@ -0,0 +1,195 @@
+package org.transitclock.core.avl.ingest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.transitclock.core.avl.AvlAdmissionController;
+import org.transitclock.core.avl.AvlReportProcessor;
+import org.transitclock.domain.structs.AssignmentType;
+import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.properties.AvlProperties;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.Position;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.VehicleDescriptor;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.offset;
+
+class AvlBatchIngesterTest {
+
+    private final List<AvlReport> processed = new ArrayList<>();
+    // What the admission control decides for each vehicle. ACCEPT if not set.
+    private final Map<String, AvlAdmissionController.Decision> decisions = new HashMap<>();
+    private AvlBatchIngester ingester;
+
+    @BeforeEach
+    void setUp() {
+        AvlProperties avlProperties = new AvlProperties();
+        AvlReportProcessor avlReportProcessor = new AvlReportProcessor(
+                null,
+                avlProperties,
+                Runnable::run,
+                new AvlAdmissionController(avlProperties, Runnable::run, new SimpleMeterRegistry())) {
+            @Override
+            public AvlAdmissionController.Decision process(AvlReport avlReport) {
+                processed.add(avlReport);
+                return decisions.getOrDefault(avlReport.getVehicleId(), AvlAdmissionController.Decision.ACCEPT);
+            }
+        };
+        ingester = new AvlBatchIngester(avlProperties, avlReportProcessor);
+    }
+
+    private static InputStream stream(String str) {
+        return new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void ndjsonKeepsLatestReportPerVehicle() throws IOException {
+        String batch = """
+                {"v": "v1", "t": 1700000000000, "lat": 38.9, "lon": -77.0, "s": 5.5, "h": 90}
+                {"v": "v2", "t": 1700000001000, "lat": 38.8, "lon": -77.1, "assignmentId": "t2", "assignmentType": "TRIP_ID"}
+
+                {"v": "v1", "t": 1700000010000, "lat": 38.91, "lon": -77.01, "extra": {"ignored": [1, 2]}}
+                {"v": "v1", "t": 1700000005000, "lat": 38.92, "lon": -77.02}
+                """;
+
+        AvlBatchResult result = ingester.ingest(stream(batch), AvlBatchFormat.NDJSON, "test");
+
+        assertThat(result).isEqualTo(new AvlBatchResult(4, 2, 0, 0, 2));
+        assertThat(processed).extracting(AvlReport::getVehicleId).containsExactly("v1", "v2");
+        assertThat(processed.get(0).getTime()).isEqualTo(1700000010000L);
+        assertThat(processed.get(0).getSource()).isEqualTo("test");
+        assertThat(processed.get(1).getAssignmentId()).isEqualTo("t2");
+        assertThat(processed.get(1).getAssignmentType()).isEqualTo(AssignmentType.TRIP_ID);
+    }
+
+    @Test
+    void ndjsonRejectsMalformedAndInvalidLines() throws IOException {
+        String batch = """
+                {"v": "v1", "t": 1700000000000, "lat": 38.9, "lon": -77.0}
+                {"v": "v2", "t": 17000
+                not json
+                {"t": 1700000000000, "lat": 38.9, "lon": -77.0}
+                {"v": "v3", "t": 1700000000000, "lat": 91.0, "lon": -77.0}
+                {"v": "v4", "t": 1700000000000, "lat": 38.9, "lon": -77.0}
+                """;
+
+        AvlBatchResult result = ingester.ingest(stream(batch), AvlBatchFormat.NDJSON, "test");
+
+        assertThat(result).isEqualTo(new AvlBatchResult(6, 2, 0, 4, 0));
+        assertThat(processed).extracting(AvlReport::getVehicleId).containsExactly("v1", "v4");
+    }
+
+    @Test
+    void countsWhatAdmissionControlDecided() throws IOException {
+        decisions.put("v2", AvlAdmissionController.Decision.SHED_FREQUENT);
+        decisions.put("v3", AvlAdmissionController.Decision.SHED_SCHED_BASED);
+        decisions.put("v4", AvlAdmissionController.Decision.REJECT);
+        String batch = """
+                {"v": "v1", "t": 1700000000000, "lat": 38.9, "lon": -77.0}
+                {"v": "v2", "t": 1700000000000, "lat": 38.9, "lon": -77.0}
+                {"v": "v3", "t": 1700000000000, "lat": 38.9, "lon": -77.0}
+                {"v": "v4", "t": 1700000000000, "lat": 38.9, "lon": -77.0}
+                not json
+                """;
+
+        AvlBatchResult result = ingester.ingest(stream(batch), AvlBatchFormat.NDJSON, "test");
+
+        assertThat(result.accepted()).isEqualTo(1);
+        assertThat(result.shed()).isEqualTo(2);
+        // The one rejected by admission control plus the one that couldn't be parsed
+        assertThat(result.rejected()).isEqualTo(2);
+        assertThat(result).isEqualTo(new AvlBatchResult(5, 1, 2, 2, 0));
+        assertThat(processed).extracting(AvlReport::getVehicleId).containsExactly("v1", "v2", "v3", "v4");
+    }
+
+    @Test
+    void gtfsRealtimeBatch() throws IOException {
+        FeedMessage.Builder feed = FeedMessage.newBuilder()
+                .setHeader(FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0").setTimestamp(1700000000));
+        for (String vehicleId : Arrays.asList("v1", "v2", "v1")) {
+            feed.addEntity(FeedEntity.newBuilder()
+                    .setId(vehicleId)
+                    .setVehicle(VehiclePosition.newBuilder()
+                            .setVehicle(VehicleDescriptor.newBuilder().setId(vehicleId))
+                            .setTrip(TripDescriptor.newBuilder().setTripId("trip_" + vehicleId))
+                            .setPosition(Position.newBuilder().setLatitude(38.9f).setLongitude(-77.0f))
+                            .setTimestamp(1700000000)));
+        }
+        // Not an AVL report so neither accepted nor rejected
+        feed.addEntity(FeedEntity.newBuilder()
+                .setId("tu")
+                .setTripUpdate(TripUpdate.newBuilder().setTrip(TripDescriptor.newBuilder().setTripId("trip_v1"))));
+
+        AvlBatchResult result = ingester.ingest(
+                new ByteArrayInputStream(feed.build().toByteArray()), AvlBatchFormat.GTFS_RT, "test");
+
+        assertThat(result).isEqualTo(new AvlBatchResult(3, 2, 0, 0, 1));
+        assertThat(processed).extracting(AvlReport::getVehicleId).containsExactly("v1", "v2");
+    }
+
+    @Test
+    void compactBatch() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        CompactAvlFormat.writeHeader(out);
+        CompactAvlFormat.writeRecord(out, "v1", 1700000000000L, 38.9, -77.0, 5.5f, 90f, null, null);
+        CompactAvlFormat.writeRecord(
+                out, "v2", 1700000001000L, 38.8, -77.1, Float.NaN, Float.NaN, "b2", AssignmentType.BLOCK_ID);
+        CompactAvlFormat.writeRecord(out, "v1", 1700000010000L, 38.91, -77.01, 6f, 180f, null, null);
+        // A truncated record at the end
+        out.writeShort(2);
+        out.writeBytes("v3");
+        out.writeLong(1700000000000L);
+        out.flush();
+
+        AvlBatchResult result =
+                ingester.ingest(new ByteArrayInputStream(bytes.toByteArray()), AvlBatchFormat.COMPACT, "test");
+
+        assertThat(result).isEqualTo(new AvlBatchResult(4, 2, 0, 1, 1));
+        assertThat(processed).extracting(AvlReport::getVehicleId).containsExactly("v1", "v2");
+        AvlReport v1 = processed.get(0);
+        assertThat(v1.getTime()).isEqualTo(1700000010000L);
+        assertThat(v1.getLat()).isCloseTo(38.91, offset(1e-6));
+        assertThat(v1.getLon()).isCloseTo(-77.01, offset(1e-6));
+        assertThat(v1.getHeading()).isEqualTo(180f);
+        assertThat(processed.get(1).getAssignmentId()).isEqualTo("b2");
+        assertThat(processed.get(1).getAssignmentType()).isEqualTo(AssignmentType.BLOCK_ID);
+    }
+
+    @Test
+    void compactBatchWithBadHeaderFails() {
+        assertThatThrownBy(() -> ingester.ingest(stream("JUNKJUNK"), AvlBatchFormat.COMPACT, "test"))
+                .isInstanceOf(IOException.class);
+        assertThat(processed).isEmpty();
+    }
+
+    @Test
+    void formatFromContentType() {
+        assertThat(AvlBatchFormat.forContentType("application/x-ndjson; charset=utf-8"))
+                .isEqualTo(AvlBatchFormat.NDJSON);
+        assertThat(AvlBatchFormat.forContentType("application/protobuf")).isEqualTo(AvlBatchFormat.GTFS_RT);
+        assertThat(AvlBatchFormat.forContentType(CompactAvlFormat.CONTENT_TYPE)).isEqualTo(AvlBatchFormat.COMPACT);
+        assertThat(AvlBatchFormat.forContentType("text/plain")).isNull();
+        assertThat(AvlBatchFormat.forContentType(null)).isNull();
+    }
+}
@@ -0,0 +1,43 @@
+package org.transitclock.core.dataCache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SecondaryIndexTest {
+
+    @Test
+    void movesIdsBetweenKeys() {
+        SecondaryIndex<String, String> index = new SecondaryIndex<>();
+        index.add("v1", "block1");
+        index.add("v2", "block1");
+        index.add("v3", null);
+
+        assertThat(index.get("block1")).containsExactlyInAnyOrder("v1", "v2");
+        assertThat(index.get(null)).containsExactly("v3");
+
+        // Assigned to a block, so no longer unassigned
+        index.move("v3", null, "block2");
+        assertThat(index.get(null)).isEmpty();
+        assertThat(index.containsKey(null)).isFalse();
+        assertThat(index.get("block2")).containsExactly("v3");
+
+        // Same key is a no-op
+        index.move("v1", "block1", "block1");
+        assertThat(index.get("block1")).containsExactlyInAnyOrder("v1", "v2");
+    }
+
+    @Test
+    void emptyKeysAreRemoved() {
+        SecondaryIndex<String, String> index = new SecondaryIndex<>();
+        index.add("v1", "route1");
+        index.move("v1", "route1", "route2");
+        index.remove("v1", "route2");
+
+        assertThat(index.size()).isZero();
+        assertThat(index.get("route1")).isEmpty();
+        // Removing something not there is fine
+        index.remove("v1", "route3");
+        assertThat(index.size()).isZero();
+    }
+}
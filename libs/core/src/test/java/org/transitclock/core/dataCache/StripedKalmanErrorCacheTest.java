@@ -0,0 +1,112 @@
+package org.transitclock.core.dataCache;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StripedKalmanErrorCacheTest {
+
+    @Test
+    void putAndGet() {
+        StripedKalmanErrorCache cache = new StripedKalmanErrorCache(1000, 21, null, 0);
+        KalmanErrorCacheKey key = new KalmanErrorCacheKey("trip1", 3);
+
+        assertThat(cache.getErrorValue(key)).isNull();
+
+        cache.putErrorValue(key, 12.5);
+        assertThat(cache.getErrorValue(key).getError()).isEqualTo(12.5);
+        assertThat(cache.getErrorValue(key).getUpdates()).isZero();
+
+        // Same value is not counted as an update, as with KalmanError.setError()
+        cache.putErrorValue(key, 12.5);
+        cache.putErrorValue(key, 13.0);
+        assertThat(cache.getErrorValue(key).getError()).isEqualTo(13.0);
+        assertThat(cache.getErrorValue(key).getUpdates()).isEqualTo(1);
+
+        assertThat(cache.getErrorValue(new KalmanErrorCacheKey("trip1", 4))).isNull();
+        assertThat(cache.getErrorValue(new KalmanErrorCacheKey("trip2", 3))).isNull();
+        assertThat(cache.getKeys()).containsExactly(key);
+    }
+
+    @Test
+    void sizeIsBounded() {
+        int maxEntries = 64 * 100;
+        StripedKalmanErrorCache cache = new StripedKalmanErrorCache(maxEntries, 21, null, 0);
+
+        for (int trip = 0; trip < 1000; trip++) {
+            for (int stopPath = 0; stopPath < 50; stopPath++) {
+                cache.putErrorValue(new KalmanErrorCacheKey("trip" + trip, stopPath), (double) stopPath);
+            }
+        }
+
+        assertThat(cache.size()).isPositive().isLessThanOrEqualTo(maxEntries);
+        // Most recently written value is always kept
+        assertThat(cache.getErrorValue(new KalmanErrorCacheKey("trip999", 49)).getError()).isEqualTo(49.0);
+    }
+
+    @Test
+    void recentlyUsedValuesSurviveEviction() {
+        int maxEntries = 64 * 8;
+        StripedKalmanErrorCache cache = new StripedKalmanErrorCache(maxEntries, 21, null, 0);
+        KalmanErrorCacheKey read = new KalmanErrorCacheKey("read", 0);
+        KalmanErrorCacheKey written = new KalmanErrorCacheKey("written", 0);
+        KalmanErrorCacheKey unused = new KalmanErrorCacheKey("unused", 0);
+        cache.putErrorValue(read, 1.0);
+        cache.putErrorValue(written, 2.0);
+        cache.putErrorValue(unused, 3.0);
+
+        // Everything happens within the same minute, so only the order of
+        // use can tell the values apart
+        for (int i = 0; i < maxEntries * 10; i++) {
+            cache.putErrorValue(new KalmanErrorCacheKey("trip" + i, i % 20), (double) i);
+            assertThat(cache.getErrorValue(read)).isNotNull();
+            cache.putErrorValue(written, 2.0 + i);
+        }
+
+        assertThat(cache.size()).isLessThanOrEqualTo(maxEntries);
+        assertThat(cache.getErrorValue(read).getError()).isEqualTo(1.0);
+        assertThat(cache.getErrorValue(written).getError()).isEqualTo(2.0 + maxEntries * 10 - 1);
+        assertThat(cache.getErrorValue(unused)).isNull();
+    }
+
+    @Test
+    void tripIdsOfEvictedValuesAreDropped() {
+        int maxEntries = 64 * 8;
+        StripedKalmanErrorCache cache = new StripedKalmanErrorCache(maxEntries, 21, null, 0);
+        KalmanErrorCacheKey kept = new KalmanErrorCacheKey("kept", 5);
+        cache.putErrorValue(kept, 5.0);
+
+        for (int trip = 0; trip < 20_000; trip++) {
+            cache.putErrorValue(new KalmanErrorCacheKey("trip" + trip, 0), (double) trip);
+            cache.getErrorValue(kept);
+        }
+
+        // At most the trips that still have values, doubled, or the minimum
+        assertThat(cache.tripCount()).isLessThanOrEqualTo(Math.max(1024, 2 * maxEntries));
+        assertThat(cache.getErrorValue(kept).getError()).isEqualTo(5.0);
+        assertThat(cache.getErrorValue(new KalmanErrorCacheKey("trip19999", 0)).getError()).isEqualTo(19999.0);
+        assertThat(cache.getKeys()).hasSize(cache.size()).contains(kept);
+    }
+
+    @Test
+    void snapshotIsReadBackOnStartUp(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("kalman.bin");
+        StripedKalmanErrorCache cache = new StripedKalmanErrorCache(1000, 21, file, 0);
+        for (int stopPath = 0; stopPath < 20; stopPath++) {
+            cache.putErrorValue(new KalmanErrorCacheKey("tripA", stopPath), stopPath * 1.5);
+            cache.putErrorValue(new KalmanErrorCacheKey("tripB", stopPath), stopPath * 2.5);
+        }
+        cache.putErrorValue(new KalmanErrorCacheKey("tripA", 0), 7.0);
+        cache.snapshot();
+
+        StripedKalmanErrorCache restored = new StripedKalmanErrorCache(1000, 21, file, 0);
+
+        assertThat(restored.size()).isEqualTo(40);
+        assertThat(restored.getErrorValue(new KalmanErrorCacheKey("tripA", 0)).getError()).isEqualTo(7.0);
+        assertThat(restored.getErrorValue(new KalmanErrorCacheKey("tripA", 0)).getUpdates()).isEqualTo(1);
+        assertThat(restored.getErrorValue(new KalmanErrorCacheKey("tripB", 19)).getError()).isEqualTo(19 * 2.5);
+    }
+}
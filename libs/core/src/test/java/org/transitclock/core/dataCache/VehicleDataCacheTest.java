@@ -0,0 +1,102 @@
+package org.transitclock.core.dataCache;
+
+import org.junit.jupiter.api.Test;
+import org.transitclock.core.dataCache.VehicleDataCache.IndexKeys;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VehicleDataCacheTest {
+
+    private final VehicleDataCache cache = new VehicleDataCache(null, null, null);
+
+    private static IndexKeys predictable(String routeId, String blockId) {
+        return new IndexKeys(routeId + "-short", routeId, blockId, routeId, null);
+    }
+
+    private static IndexKeys unpredictable(String routeId, String blockId) {
+        return new IndexKeys(routeId + "-short", routeId, blockId, null, null);
+    }
+
+    @Test
+    void predictableCountsFollowVehicles() {
+        cache.updateIndexes("v1", unpredictable("r1", "b1"));
+        cache.updateIndexes("v2", predictable("r1", "b2"));
+        assertThat(cache.getNumPredictableVehicles("r1")).isEqualTo(1);
+
+        // Becomes predictable
+        cache.updateIndexes("v1", predictable("r1", "b1"));
+        assertThat(cache.getNumPredictableVehicles("r1")).isEqualTo(2);
+
+        // Updated again without a change isn't counted twice
+        cache.updateIndexes("v1", predictable("r1", "b1"));
+        assertThat(cache.getNumPredictableVehicles("r1")).isEqualTo(2);
+
+        // Moves to another route while staying predictable
+        cache.updateIndexes("v1", predictable("r2", "b3"));
+        assertThat(cache.getNumPredictableVehicles("r1")).isEqualTo(1);
+        assertThat(cache.getNumPredictableVehicles("r2")).isEqualTo(1);
+
+        // Becomes unpredictable
+        cache.updateIndexes("v2", unpredictable("r1", "b2"));
+        assertThat(cache.getNumPredictableVehicles("r1")).isZero();
+        assertThat(cache.getNumPredictableVehicles("r2")).isEqualTo(1);
+        assertThat(cache.getNumPredictableVehicles(null)).isZero();
+    }
+
+    @Test
+    void predictableOnlyWhenAssignedToBlock() {
+        IndexKeys withoutBlock = new IndexKeys("1", "r1", null, null, null);
+        assertThat(withoutBlock.predictableRouteId()).isNull();
+
+        cache.updateIndexes("v1", withoutBlock);
+        assertThat(cache.getNumPredictableVehicles("r1")).isZero();
+    }
+
+    @Test
+    void removedVehicleIsNoLongerPredictableUntilUpdated() {
+        cache.updateIndexes("v1", predictable("r1", "b1"));
+        cache.removeVehicle("v1");
+        assertThat(cache.getNumPredictableVehicles("r1")).isZero();
+
+        // Updated with the same keys as before being removed
+        cache.updateIndexes("v1", predictable("r1", "b1"));
+        assertThat(cache.getNumPredictableVehicles("r1")).isEqualTo(1);
+    }
+
+    @Test
+    void blockAndRouteIndexesFollowVehicles() {
+        cache.updateIndexes("v1", unpredictable("r1", "b1"));
+        cache.updateIndexes("v2", unpredictable("r1", "b2"));
+        assertThat(cache.getVehiclesByBlockId("b1")).containsExactly("v1");
+        assertThat(cache.getVehicleIdsForRouteId("r1")).containsExactlyInAnyOrder("v1", "v2");
+
+        // Changes block on the same route
+        cache.updateIndexes("v1", unpredictable("r1", "b3"));
+        assertThat(cache.getVehiclesByBlockId("b1")).isEmpty();
+        assertThat(cache.getVehiclesByBlockId("b3")).containsExactly("v1");
+        assertThat(cache.getVehicleIdsForRouteId("r1")).containsExactlyInAnyOrder("v1", "v2");
+
+        // Changes route and block
+        cache.updateIndexes("v2", unpredictable("r2", "b4"));
+        assertThat(cache.getVehiclesByBlockId("b2")).isEmpty();
+        assertThat(cache.getVehiclesByBlockId("b4")).containsExactly("v2");
+        assertThat(cache.getVehicleIdsForRouteId("r1")).containsExactly("v1");
+        assertThat(cache.getVehicleIdsForRouteId("r2")).containsExactly("v2");
+    }
+
+    @Test
+    void unassignedVehicleIsRemovedFromBlockAndRoute() {
+        cache.updateIndexes("v1", predictable("r1", "b1"));
+
+        cache.updateIndexes("v1", new IndexKeys(null, null, null, null, null));
+        assertThat(cache.getVehiclesByBlockId("b1")).isEmpty();
+        assertThat(cache.getVehicleIdsForRouteId("r1")).isEmpty();
+        assertThat(cache.getNumPredictableVehicles("r1")).isZero();
+
+        // Assigned again
+        cache.updateIndexes("v1", predictable("r1", "b2"));
+        assertThat(cache.getVehiclesByBlockId("b2")).containsExactly("v1");
+        assertThat(cache.getVehicleIdsForRouteId("r1")).containsExactly("v1");
+        assertThat(cache.getNumPredictableVehicles("r1")).isEqualTo(1);
+    }
+}
@@ -0,0 +1,55 @@
+package org.transitclock.core.dataCache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VehicleSequenceIndexTest {
+
+    @Test
+    void findsVehicleAheadOnSamePattern() {
+        VehicleSequenceIndex index = new VehicleSequenceIndex();
+        index.update("v1", "route1", "0", "pattern1", 5, 10.0);
+        index.update("v2", "route1", "0", "pattern1", 2, 300.0);
+        index.update("v3", "route1", "0", "pattern1", 5, 80.0);
+        // Different pattern of the same route/direction
+        index.update("v4", "route1", "0", "pattern2", 1, 0.0);
+        // Other direction
+        index.update("v5", "route1", "1", "pattern1", 3, 0.0);
+
+        assertThat(index.getVehicleAhead("v2")).isEqualTo("v1");
+        assertThat(index.getVehicleAhead("v1")).isEqualTo("v3");
+        assertThat(index.getVehicleAhead("v3")).isNull();
+        assertThat(index.getVehicleAhead("v4")).isNull();
+        assertThat(index.getVehicleAhead("v5")).isNull();
+        assertThat(index.getVehicleAhead("unknown")).isNull();
+
+        assertThat(index.getVehicleIds("route1", "0")).containsExactly("v2", "v1", "v3", "v4");
+        assertThat(index.getVehicleIds("route1", "1")).containsExactly("v5");
+        assertThat(index.getVehicleIds("route2", "0")).isEmpty();
+    }
+
+    @Test
+    void updatesReplacePreviousPosition() {
+        VehicleSequenceIndex index = new VehicleSequenceIndex();
+        index.update("v1", "route1", null, "pattern1", 1, 0.0);
+        index.update("v2", "route1", null, "pattern1", 2, 0.0);
+
+        // v1 passes v2
+        index.update("v1", "route1", null, "pattern1", 3, 0.0);
+        assertThat(index.getVehicleIds("route1", null)).containsExactly("v2", "v1");
+        assertThat(index.getVehicleAhead("v2")).isEqualTo("v1");
+
+        // v2 moves to another route
+        index.update("v2", "route2", null, "pattern3", 0, 0.0);
+        assertThat(index.getVehicleIds("route1", null)).containsExactly("v1");
+        assertThat(index.getVehicleIds("route2", null)).containsExactly("v2");
+        assertThat(index.size()).isEqualTo(2);
+
+        index.remove("v1");
+        index.remove("v1");
+        assertThat(index.getVehicleIds("route1", null)).isEmpty();
+        assertThat(index.getVehicleAhead("v1")).isNull();
+        assertThat(index.size()).isEqualTo(1);
+    }
+}
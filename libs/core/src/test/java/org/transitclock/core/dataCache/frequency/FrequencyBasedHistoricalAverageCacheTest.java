@@ -0,0 +1,131 @@
+package org.transitclock.core.dataCache.frequency;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.transitclock.core.dataCache.StopPathCacheKey;
+import org.transitclock.service.dto.IpcArrivalDeparture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class FrequencyBasedHistoricalAverageCacheTest {
+    private static final int INCREMENT = 900;
+
+    @Test
+    void averagesPerBucket() {
+        FrequencyBasedHistoricalAverageCache cache = cache(null);
+        cache.update(key(3, true, 3600), 100);
+        cache.update(key(3, true, 3600), 200);
+        cache.update(key(3, true, 3600 + INCREMENT), 1000);
+
+        assertThat(cache.getAverage(key(3, true, 3600)).getAverage()).isEqualTo(150);
+        assertThat(cache.getAverage(key(3, true, 3600)).getCount()).isEqualTo(2);
+        // Start time just before the bucket, so the bucket is within startTime to
+        // startTime + increment, as with the sub map of the original implementation
+        assertThat(cache.getAverage(key(3, true, 3600 - 60)).getAverage()).isEqualTo(150);
+        assertThat(cache.getAverage(key(3, true, 3600 + INCREMENT)).getAverage()).isEqualTo(1000);
+
+        assertThat(cache.getAverage(key(3, false, 3600))).isNull();
+        assertThat(cache.getAverage(key(4, true, 3600))).isNull();
+        assertThat(cache.getAverage(key(3, true, 3600 + 2 * INCREMENT))).isNull();
+        // Before 2am is negative and still within the day
+        assertThat(cache.update(key(3, true, -3600), 50)).isNotNull();
+        assertThat(cache.update(key(3, true, 2 * 86400), 50)).isNull();
+    }
+
+    @Test
+    void concurrentUpdatesAreNotLost() throws Exception {
+        FrequencyBasedHistoricalAverageCache cache = cache(null);
+        int threads = 8;
+        int updatesPerThread = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < updatesPerThread; i++) {
+                        cache.update(key(0, true, 0), i % 2 == 0 ? 100 : 300);
+                        cache.getAverage(key(0, true, 0));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(cache.getAverage(key(0, true, 0)).getCount()).isEqualTo(threads * updatesPerThread);
+        assertThat(cache.getAverage(key(0, true, 0)).getAverage()).isCloseTo(200, within(1.0));
+    }
+
+    @Test
+    void snapshotAndRestore(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("frequencyAverageCache.bin");
+        FrequencyBasedHistoricalAverageCache cache = cache(file);
+        cache.update(key(2, true, 7200), 120);
+        cache.update(key(2, false, 7200), 30);
+        cache.update(key(2, false, 7200), 40);
+        cache.snapshot();
+
+        FrequencyBasedHistoricalAverageCache restored = cache(file);
+        assertThat(restored.getAverage(key(2, true, 7200)).getAverage()).isEqualTo(120);
+        assertThat(restored.getAverage(key(2, false, 7200)).getAverage()).isEqualTo(35);
+        assertThat(restored.getAverage(key(2, false, 7200)).getCount()).isEqualTo(2);
+        // Already populated so reading from the database is skipped
+        restored.populateCacheFromDb(null, new Date(), new Date());
+
+        // Different bucket width means the snapshot doesn't apply
+        FrequencyBasedHistoricalAverageCache other =
+                new FrequencyBasedHistoricalAverageCache(null, null, null, 2 * INCREMENT, file, 0);
+        assertThat(other.getAverage(key(2, true, 7200))).isNull();
+    }
+
+    @Test
+    void previousEvents() {
+        FrequencyBasedHistoricalAverageCache cache = cache(null);
+        Date start = new Date(1_000_000);
+        List<IpcArrivalDeparture> history = List.of(
+                event("v1", start, 1, false, 100),
+                event("v1", start, 1, false, 200),
+                event("v2", start, 1, false, 300),
+                event("v1", new Date(2_000_000), 1, false, 400),
+                event("v1", start, 2, true, 500));
+
+        IpcArrivalDeparture arrival = event("v1", start, 2, true, 600);
+        assertThat(cache.findPreviousDepartureEvent(history, arrival).getTime().getTime()).isEqualTo(200);
+        assertThat(cache.findPreviousArrivalEvent(history, arrival)).isNull();
+
+        IpcArrivalDeparture departure = event("v1", start, 2, false, 700);
+        assertThat(cache.findPreviousArrivalEvent(history, departure).getTime().getTime()).isEqualTo(500);
+        assertThat(cache.findPreviousDepartureEvent(history, departure)).isNull();
+    }
+
+    private static FrequencyBasedHistoricalAverageCache cache(Path snapshotFile) {
+        return new FrequencyBasedHistoricalAverageCache(null, null, null, INCREMENT, snapshotFile, 0);
+    }
+
+    private static StopPathCacheKey key(int stopPathIndex, boolean travelTime, long startTime) {
+        return new StopPathCacheKey("trip", stopPathIndex, travelTime, startTime);
+    }
+
+    private static IpcArrivalDeparture event(
+            String vehicleId, Date freqStartTime, int stopPathIndex, boolean arrival, long time) {
+        IpcArrivalDeparture event = new IpcArrivalDeparture();
+        event.setVehicleId(vehicleId);
+        event.setFreqStartTime(freqStartTime);
+        event.setStopPathIndex(stopPathIndex);
+        event.setArrival(arrival);
+        event.setTime(new Date(time));
+        return event;
+    }
+}
@@ -0,0 +1,59 @@
+package org.transitclock.core.headwaygenerator;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.transitclock.service.dto.IpcArrivalDeparture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StopVisitsTest {
+
+    private static IpcArrivalDeparture arrival(String vehicleId, long time) {
+        IpcArrivalDeparture event = new IpcArrivalDeparture();
+        event.setVehicleId(vehicleId);
+        event.setStopId("s1");
+        event.setDirectionId("0");
+        event.setArrival(true);
+        event.setTime(new Date(time));
+        return event;
+    }
+
+    @Test
+    void findsVisitOfVehicleAhead() {
+        List<IpcArrivalDeparture> stopList =
+                List.of(arrival("v3", 5000), arrival("v1", 4000), arrival("v4", 3000), arrival("v2", 2000));
+
+        assertThat(StopVisits.find(stopList, true, "s1", "v1", "0", "v2"))
+                .isEqualTo(new StopVisits.Indexes(1, 3));
+        // No vehicle ahead known so the latest other vehicle is used
+        assertThat(StopVisits.find(stopList, true, "s1", "v1", "0", null))
+                .isEqualTo(new StopVisits.Indexes(1, 2));
+        // Departures aren't arrivals
+        assertThat(StopVisits.find(stopList, false, "s1", "v1", "0", "v2")).isNull();
+    }
+
+    @Test
+    void doesNotLookPastPreviousVisitOfSameVehicle() {
+        // v1 visited the stop on two trips. v2 is ahead of it but only
+        // visited the stop before the earlier trip of v1.
+        List<IpcArrivalDeparture> stopList = List.of(
+                arrival("v1", 10_000), arrival("v3", 8000), arrival("v1", 6000), arrival("v2", 4000));
+
+        StopVisits.Indexes indexes = StopVisits.find(stopList, true, "s1", "v1", "0", "v2");
+        assertThat(indexes).isEqualTo(new StopVisits.Indexes(0, 1));
+        long headway = stopList.get(indexes.vehicleIndex()).getTime().getTime()
+                - stopList.get(indexes.vehicleAheadIndex()).getTime().getTime();
+        assertThat(headway).isEqualTo(2000);
+    }
+
+    @Test
+    void noHeadwayIfOnlyThisVehicleVisited() {
+        List<IpcArrivalDeparture> stopList = List.of(arrival("v1", 10_000), arrival("v1", 6000));
+
+        assertThat(StopVisits.find(stopList, true, "s1", "v1", "0", null)).isNull();
+        assertThat(StopVisits.find(List.of(arrival("v2", 6000)), true, "s1", "v1", "0", null))
+                .isNull();
+    }
+}
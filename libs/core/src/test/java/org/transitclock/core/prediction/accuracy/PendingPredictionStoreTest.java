@@ -0,0 +1,92 @@
+package org.transitclock.core.prediction.accuracy;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.transitclock.utils.Time;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PendingPredictionStoreTest {
+    private static final long NOW = 1_700_000_000_000L;
+
+    private static PredAccuracyPrediction prediction(String vehicleId, String stopId, long predictedTime, boolean isArrival) {
+        return new PredAccuracyPrediction(
+                "route1",
+                "0",
+                stopId,
+                "trip1",
+                vehicleId,
+                new Date(predictedTime),
+                new Date(NOW),
+                isArrival,
+                false,
+                "GTFS-rt",
+                null,
+                null);
+    }
+
+    @Test
+    void removesMatchingPredictionsForVehicleAndStop() {
+        PendingPredictionStore store = new PendingPredictionStore(() -> 100);
+        PredAccuracyPrediction arrival = prediction("v1", "s1", NOW, true);
+        PredAccuracyPrediction departure = prediction("v1", "s1", NOW, false);
+        store.add(arrival);
+        store.add(departure);
+        store.add(prediction("v2", "s1", NOW, true));
+
+        List<PredAccuracyPrediction> matched = store.removeMatching("v1", "0", "s1", PredAccuracyPrediction::isArrival);
+
+        assertThat(matched).containsExactly(arrival);
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.removeMatching("v1", "0", "s1", pred -> true)).containsExactly(departure);
+        assertThat(store.removeMatching("v3", "0", "s1", pred -> true)).isEmpty();
+        assertThat(store.size()).isEqualTo(1);
+    }
+
+    @Test
+    void removesOnlyStalePredictions() {
+        PendingPredictionStore store = new PendingPredictionStore(() -> 100);
+        PredAccuracyPrediction stale = prediction("v1", "s1", NOW - 20 * Time.MS_PER_MIN, true);
+        PredAccuracyPrediction current = prediction("v1", "s1", NOW + 5 * Time.MS_PER_MIN, true);
+        PredAccuracyPrediction otherStale = prediction("v2", "s2", NOW - 16 * Time.MS_PER_MIN, false);
+        store.add(stale);
+        store.add(current);
+        store.add(otherStale);
+
+        List<PredAccuracyPrediction> removed = store.removeOlderThan(NOW - 15 * Time.MS_PER_MIN);
+
+        assertThat(removed).containsExactlyInAnyOrder(stale, otherStale);
+        assertThat(store.size()).isEqualTo(1);
+        // Nothing left to remove for the same cutoff
+        assertThat(store.removeOlderThan(NOW - 15 * Time.MS_PER_MIN)).isEmpty();
+        assertThat(store.removeMatching("v1", "0", "s1", pred -> true)).containsExactly(current);
+    }
+
+    @Test
+    void matchedPredictionsAreNotRemovedAgainAsStale() {
+        PendingPredictionStore store = new PendingPredictionStore(() -> 100);
+        store.add(prediction("v1", "s1", NOW - 20 * Time.MS_PER_MIN, true));
+        store.removeMatching("v1", "0", "s1", pred -> true);
+
+        assertThat(store.removeOlderThan(NOW)).isEmpty();
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    void dropsPredictionsWhenFull() {
+        PendingPredictionStore store = new PendingPredictionStore(() -> 2);
+
+        assertThat(store.add(prediction("v1", "s1", NOW, true))).isTrue();
+        assertThat(store.add(prediction("v1", "s2", NOW, true))).isTrue();
+        assertThat(store.add(prediction("v1", "s3", NOW, true))).isFalse();
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.getAndResetNumDropped()).isEqualTo(1);
+        assertThat(store.getAndResetNumDropped()).isZero();
+
+        // Room again once stale ones are removed
+        store.removeOlderThan(NOW + Time.MS_PER_MIN);
+        assertThat(store.add(prediction("v1", "s3", NOW, true))).isTrue();
+    }
+}
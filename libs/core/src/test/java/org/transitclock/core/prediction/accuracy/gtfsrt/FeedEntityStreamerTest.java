@@ -0,0 +1,101 @@
+package org.transitclock.core.prediction.accuracy.gtfsrt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeEvent;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FeedEntityStreamerTest {
+
+    private static FeedHeader header(long timestamp) {
+        return FeedHeader.newBuilder()
+                .setGtfsRealtimeVersion("2.0")
+                .setTimestamp(timestamp)
+                .build();
+    }
+
+    private static FeedEntity tripUpdate(String id) {
+        return FeedEntity.newBuilder()
+                .setId(id)
+                .setTripUpdate(TripUpdate.newBuilder()
+                        .setTrip(TripDescriptor.newBuilder().setTripId("trip_" + id))
+                        .addStopTimeUpdate(StopTimeUpdate.newBuilder()
+                                .setStopSequence(1)
+                                .setArrival(StopTimeEvent.newBuilder().setTime(1_700_000_000L))))
+                .build();
+    }
+
+    @Test
+    void streamsEntitiesFromLocalFile(@TempDir Path dir) throws IOException {
+        FeedMessage.Builder feed = FeedMessage.newBuilder().setHeader(header(1234));
+        for (int i = 0; i < 1000; i++) {
+            feed.addEntity(tripUpdate(Integer.toString(i)));
+        }
+        Path file = dir.resolve("trip-updates.pb");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            feed.build().writeTo(out);
+        }
+
+        List<FeedEntity> entities = new ArrayList<>();
+        List<Long> timestamps = new ArrayList<>();
+        int numEntities;
+        try (InputStream in = Files.newInputStream(file)) {
+            numEntities = FeedEntityStreamer.stream(in, (header, entity) -> {
+                timestamps.add(header.getTimestamp());
+                entities.add(entity);
+            });
+        }
+
+        assertThat(numEntities).isEqualTo(1000);
+        assertThat(entities).isEqualTo(feed.getEntityList());
+        assertThat(timestamps).containsOnly(1234L);
+    }
+
+    @Test
+    void entitiesBeforeHeaderGetEmptyHeader() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        out.writeMessage(FeedMessage.ENTITY_FIELD_NUMBER, tripUpdate("early"));
+        out.writeMessage(FeedMessage.HEADER_FIELD_NUMBER, header(99));
+        out.writeMessage(FeedMessage.ENTITY_FIELD_NUMBER, tripUpdate("late"));
+        // Field that isn't part of FeedMessage is skipped
+        out.writeString(15, "unknown");
+        out.flush();
+
+        List<String> received = new ArrayList<>();
+        int numEntities = FeedEntityStreamer.stream(
+                new ByteArrayInputStream(bytes.toByteArray()),
+                (header, entity) -> received.add(entity.getId() + "@" + header.getTimestamp()));
+
+        assertThat(numEntities).isEqualTo(2);
+        assertThat(received).containsExactly("early@0", "late@99");
+    }
+
+    @Test
+    void emptyStreamHasNoEntities() throws IOException {
+        int numEntities = FeedEntityStreamer.stream(
+                new ByteArrayInputStream(new byte[0]), (header, entity) -> {
+                    throw new AssertionError("No entities expected");
+                });
+
+        assertThat(numEntities).isZero();
+    }
+}
@@ -0,0 +1,108 @@
+package org.transitclock.core.prediction.kalman;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.transitclock.properties.PredictionProperties.Data.Kalman;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Golden tests checking that the batched engine gives exactly the same results as
+ * KalmanPrediction does one stop path at a time.
+ */
+class KalmanEngineTest {
+
+    @Test
+    void matchesKalmanPredictionUsingAverage() throws Exception {
+        Kalman properties = new Kalman();
+        properties.setUseaverage(true);
+        compareWithKalmanPrediction(properties, 1);
+    }
+
+    @Test
+    void matchesKalmanPredictionUsingLastDay() throws Exception {
+        Kalman properties = new Kalman();
+        properties.setUseaverage(false);
+        compareWithKalmanPrediction(properties, 2);
+    }
+
+    @Test
+    void knownValues() throws Exception {
+        KalmanEngine engine = new KalmanEngine(new Kalman());
+        KalmanBatch batch = new KalmanBatch();
+        int index = batch.addStopPath(400, 0);
+        batch.addHistoricalDuration(380);
+        batch.addHistoricalDuration(420);
+        batch.addHistoricalDuration(400);
+
+        engine.predict(batch);
+
+        KalmanPredictionResult expected = legacyPredict(new KalmanPrediction(new Kalman()), 400, new long[] {380, 420, 400}, 0);
+        assertThat(batch.getPrediction(index)).isEqualTo(expected.getResult());
+        assertThat(batch.getFilterError(index)).isEqualTo(expected.getFilterError());
+    }
+
+    @Test
+    void emptyHistoryGivesNaN() {
+        KalmanEngine engine = new KalmanEngine(new Kalman());
+        KalmanBatch batch = new KalmanBatch();
+        int index = batch.addStopPath(400, 100);
+
+        engine.predict(batch);
+
+        assertThat(batch.getPrediction(index)).isNaN();
+        assertThat(batch.getFilterError(index)).isNaN();
+    }
+
+    private void compareWithKalmanPrediction(Kalman properties, long seed) throws Exception {
+        Random random = new Random(seed);
+        KalmanPrediction kalmanPrediction = new KalmanPrediction(properties);
+        KalmanEngine engine = new KalmanEngine(properties);
+        KalmanBatch batch = new KalmanBatch();
+
+        // Reuse the batch a few times to make sure clearing works
+        for (int round = 0; round < 5; round++) {
+            batch.clear();
+            int stopPaths = 1 + random.nextInt(100);
+            long[][] historical = new long[stopPaths][];
+            long[] lastVehicle = new long[stopPaths];
+            double[] lastError = new double[stopPaths];
+
+            for (int i = 0; i < stopPaths; i++) {
+                lastVehicle[i] = 10_000 + random.nextInt(300_000);
+                lastError[i] = random.nextBoolean() ? 100.0 : random.nextDouble() * 1e9;
+                historical[i] = new long[1 + random.nextInt(5)];
+                batch.addStopPath(lastVehicle[i], lastError[i]);
+                for (int j = 0; j < historical[i].length; j++) {
+                    historical[i][j] = 10_000 + random.nextInt(300_000);
+                    batch.addHistoricalDuration(historical[i][j]);
+                }
+            }
+
+            engine.predict(batch);
+
+            assertThat(batch.size()).isEqualTo(stopPaths);
+            for (int i = 0; i < stopPaths; i++) {
+                KalmanPredictionResult expected = legacyPredict(kalmanPrediction, lastVehicle[i], historical[i], lastError[i]);
+                assertThat(batch.historicalSize(i)).isEqualTo(historical[i].length);
+                assertThat(batch.getPrediction(i)).isEqualTo(expected.getResult());
+                assertThat(batch.getFilterError(i)).isEqualTo(expected.getFilterError());
+            }
+        }
+    }
+
+    private static KalmanPredictionResult legacyPredict(KalmanPrediction kalmanPrediction,
+                                                        long lastVehicleDuration,
+                                                        long[] historicalDurations,
+                                                        double lastError) throws Exception {
+        Vehicle vehicle = new Vehicle("test");
+        VehicleStopDetail origin = new VehicleStopDetail(null, 0, vehicle);
+        TripSegment[] historicalSegments = new TripSegment[historicalDurations.length];
+        for (int i = 0; i < historicalDurations.length; i++) {
+            historicalSegments[i] = new TripSegment(origin, new VehicleStopDetail(null, historicalDurations[i], vehicle));
+        }
+        TripSegment lastVehicleSegment = new TripSegment(origin, new VehicleStopDetail(null, lastVehicleDuration, vehicle));
+        return kalmanPrediction.predict(lastVehicleSegment, historicalSegments, lastError);
+    }
+}
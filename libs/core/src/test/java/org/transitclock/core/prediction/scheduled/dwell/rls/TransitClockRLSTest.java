@@ -0,0 +1,92 @@
+package org.transitclock.core.prediction.scheduled.dwell.rls;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class TransitClockRLSTest {
+
+    @Test
+    void notInitializedUntilTwoDistinctSamples() {
+        TransitClockRLS rls = new TransitClockRLS(0.75);
+        assertThat(rls.isInitialized()).isFalse();
+        assertThat(rls.predict(10)).isNaN();
+
+        rls.addSample(10, 1);
+        rls.addSample(10, 3);
+        assertThat(rls.isInitialized()).isFalse();
+
+        rls.addSample(20, 4);
+        assertThat(rls.isInitialized()).isTrue();
+        assertThat(rls.numSamples()).isEqualTo(3);
+        // Line through (10, 2) and (20, 4)
+        assertThat(rls.predict(30)).isCloseTo(6, within(1e-9));
+    }
+
+    @Test
+    void fitsExactLine() {
+        TransitClockRLS rls = new TransitClockRLS(0.75);
+        for (int x = 1; x <= 20; x++) {
+            rls.addSample(x, 2.0 * x + 3.0);
+        }
+        assertThat(rls.getSlope()).isCloseTo(2.0, within(1e-9));
+        assertThat(rls.getIntercept()).isCloseTo(3.0, within(1e-9));
+    }
+
+    @Test
+    void withoutForgettingMatchesOrdinaryLeastSquares() {
+        double[] x = {60, 120, 180, 240, 300, 360, 420, 480};
+        double[] y = {1.1, 1.35, 1.2, 1.6, 1.55, 1.8, 1.7, 2.05};
+
+        TransitClockRLS rls = new TransitClockRLS(1.0);
+        for (int i = 0; i < x.length; i++) {
+            rls.addSample(x[i], y[i]);
+        }
+
+        double meanX = 0, meanY = 0;
+        for (int i = 0; i < x.length; i++) {
+            meanX += x[i] / x.length;
+            meanY += y[i] / x.length;
+        }
+        double sxy = 0, sxx = 0;
+        for (int i = 0; i < x.length; i++) {
+            sxy += (x[i] - meanX) * (y[i] - meanY);
+            sxx += (x[i] - meanX) * (x[i] - meanX);
+        }
+        double slope = sxy / sxx;
+        double intercept = meanY - slope * meanX;
+
+        assertThat(rls.getSlope()).isCloseTo(slope, within(1e-9));
+        assertThat(rls.getIntercept()).isCloseTo(intercept, within(1e-9));
+    }
+
+    @Test
+    void serializationRoundTrip() throws Exception {
+        TransitClockRLS rls = new TransitClockRLS(0.75);
+        rls.addSample(60, 1.2);
+        rls.addSample(120, 1.4);
+        rls.addSample(180, 1.5);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(rls);
+        }
+        TransitClockRLS copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (TransitClockRLS) in.readObject();
+        }
+
+        assertThat(copy.numSamples()).isEqualTo(3);
+        assertThat(copy.predict(240)).isEqualTo(rls.predict(240));
+
+        rls.addSample(240, 1.9);
+        copy.addSample(240, 1.9);
+        assertThat(copy.predict(300)).isEqualTo(rls.predict(300));
+    }
+}
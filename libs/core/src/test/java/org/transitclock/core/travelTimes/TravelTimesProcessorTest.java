@@ -0,0 +1,93 @@
+package org.transitclock.core.travelTimes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import org.transitclock.core.travelTimes.DataFetcher.TripData;
+import org.transitclock.domain.structs.Arrival;
+import org.transitclock.domain.structs.Departure;
+import org.transitclock.properties.TravelTimesProperties;
+import org.transitclock.properties.UpdatesProperties;
+import org.transitclock.utils.IntSamples;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TravelTimesProcessorTest {
+    private static final int STOP_PATH_INDEX = 3;
+
+    /**
+     * Vehicle trips that only have an arrival and a departure at a stop, so each one has a stop
+     * time of between 0 and 99 seconds. Without a block the trip and stop IDs are empty.
+     */
+    private static List<TripData> trips(int numTrips) {
+        List<TripData> trips = new ArrayList<>();
+        for (int i = 0; i < numTrips; i++) {
+            String vehicleId = "v" + (i % 7);
+            Date arrivalTime = new Date(1_700_000_000_000L + i * 60_000L);
+            Date departureTime = new Date(arrivalTime.getTime() + (i % 100) * 1000L);
+            trips.add(new TripData(
+                    null,
+                    List.of(
+                            new Arrival(0, vehicleId, arrivalTime, arrivalTime, null, 0, STOP_PATH_INDEX, null, null),
+                            new Departure(0, vehicleId, departureTime, departureTime, null, 0, STOP_PATH_INDEX, null, null)),
+                    List.of()));
+        }
+        return trips;
+    }
+
+    private static TravelTimesProcessor processor(int maxSamples) {
+        TravelTimesProperties properties = new TravelTimesProperties();
+        properties.setMaxSamplesPerStopPath(maxSamples);
+        return new TravelTimesProcessor(properties, new UpdatesProperties());
+    }
+
+    private static long streamAll(List<TripData> trips, Consumer<TripData> consumer) {
+        trips.forEach(consumer);
+        return trips.size();
+    }
+
+    @Test
+    void processesEveryTripInParallel() {
+        List<TripData> trips = trips(5000);
+        TravelTimesProcessor processor = processor(Integer.MAX_VALUE);
+
+        processor.processHistoricData(consumer -> streamAll(trips, consumer));
+
+        assertThat(processor.isEmpty()).isFalse();
+        List<Integer> stopTimes = processor.getStopTimes("", STOP_PATH_INDEX, "").sortedValues();
+        assertThat(stopTimes).hasSize(5000);
+        assertThat(stopTimes.get(0)).isEqualTo(0);
+        assertThat(stopTimes.get(4999)).isEqualTo(99_000);
+    }
+
+    @Test
+    void limitsSamplesTheSameWayWhateverTheOrder() {
+        List<TripData> trips = trips(5000);
+        TravelTimesProcessor processor = processor(100);
+        processor.processHistoricData(consumer -> streamAll(trips, consumer));
+
+        List<TripData> reversed = new ArrayList<>(trips);
+        Collections.reverse(reversed);
+        TravelTimesProcessor reversedProcessor = processor(100);
+        reversedProcessor.processHistoricData(consumer -> streamAll(reversed, consumer));
+
+        IntSamples stopTimes = processor.getStopTimes("", STOP_PATH_INDEX, "");
+        assertThat(stopTimes.size()).isEqualTo(100);
+        assertThat(stopTimes.sortedValues())
+                .isEqualTo(reversedProcessor.getStopTimes("", STOP_PATH_INDEX, "").sortedValues());
+    }
+
+    @Test
+    void noMatchesMeansNothingToDo() {
+        TravelTimesProcessor processor = processor(100);
+
+        processor.processHistoricData(consumer -> 0);
+
+        assertThat(processor.isEmpty()).isTrue();
+        assertThat(processor.getStopTimes("", STOP_PATH_INDEX, "")).isNull();
+    }
+}
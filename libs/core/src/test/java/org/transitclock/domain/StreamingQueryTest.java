@@ -0,0 +1,186 @@
+package org.transitclock.domain;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamingQueryTest {
+
+    /** Records what the query did with the JDBC objects */
+    private static class Jdbc {
+        int fetchSize;
+        int resultSetType;
+        boolean autoCommit = true;
+        boolean closed;
+        int rowsRead;
+    }
+
+    @Test
+    void writesRowsWhileReadingCursor() throws Exception {
+        int numRows = 2_000_000;
+        AtomicLong bytesWritten = new AtomicLong();
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                bytesWritten.incrementAndGet();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                bytesWritten.addAndGet(len);
+            }
+        };
+
+        Jdbc jdbc = new Jdbc();
+        AtomicLong bytesAtHalfway = new AtomicLong();
+        Connection connection = connection(
+                jdbc, List.of("vehicle_id", "lat"), numRows, row -> {
+                    if (row == numRows / 2) {
+                        bytesAtHalfway.set(bytesWritten.get());
+                    }
+                    return new Object[] {"v" + row, 45.0};
+                });
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        StreamingQuery query = new StreamingQuery(connection, StreamingQuery.rowWriter(StreamingQuery.Format.CSV, writer));
+        int rows = StreamingQuery.stream(query, writer, "SELECT vehicle_id, lat FROM avl_reports");
+
+        assertThat(rows).isEqualTo(numRows);
+        assertThat(jdbc.rowsRead).isEqualTo(numRows);
+        assertThat(jdbc.fetchSize).isPositive();
+        assertThat(jdbc.resultSetType).isEqualTo(ResultSet.TYPE_FORWARD_ONLY);
+        // Cursor was used, and the connection put back the way it was and closed
+        assertThat(jdbc.autoCommit).isTrue();
+        assertThat(jdbc.closed).isTrue();
+        // Half the rows had already been written before the rest were read
+        assertThat(bytesAtHalfway.get()).isGreaterThan(bytesWritten.get() / 3);
+    }
+
+    @Test
+    void json() throws Exception {
+        String json = stream(StreamingQuery.Format.JSON, List.of("id", "name", "lat", "delay"), 2, row -> new Object[] {
+            row, row == 0 ? "Main \"St\"" : null, 45.5, row == 0 ? (Object) Double.NaN : 30L
+        });
+
+        assertThat(json)
+                .isEqualTo("{\"data\": [\n"
+                        + "{\"id\":0,\"name\":\"Main \\\"St\\\"\",\"lat\":45.5,\"delay\":null},\n"
+                        + "{\"id\":1,\"lat\":45.5,\"delay\":30}]}");
+    }
+
+    @Test
+    void jsonWithoutRows() throws Exception {
+        assertThat(stream(StreamingQuery.Format.JSON, List.of("id"), 0, row -> null))
+                .isEqualTo("{\"data\": [\n]}");
+    }
+
+    @Test
+    void csv() throws Exception {
+        String csv = stream(StreamingQuery.Format.CSV, List.of("id", "name"), 2, row -> new Object[] {
+            row, row == 0 ? "Main St, North" : null
+        });
+
+        assertThat(csv).isEqualTo("id,name\r\n0,\"Main St, North\"\r\n1,\r\n");
+    }
+
+    @Test
+    void format() {
+        assertThat(StreamingQuery.Format.of(null)).isEqualTo(StreamingQuery.Format.JSON);
+        assertThat(StreamingQuery.Format.of("csv")).isEqualTo(StreamingQuery.Format.CSV);
+        assertThat(StreamingQuery.Format.of(" JSON ")).isEqualTo(StreamingQuery.Format.JSON);
+    }
+
+    private static String stream(
+            StreamingQuery.Format format, List<String> columns, int numRows, IntFunction<Object[]> rows)
+            throws Exception {
+        StringWriter writer = new StringWriter();
+        Connection connection = connection(new Jdbc(), columns, numRows, rows);
+        StreamingQuery query = new StreamingQuery(connection, StreamingQuery.rowWriter(format, writer));
+        StreamingQuery.stream(query, writer, "SELECT");
+        return writer.toString();
+    }
+
+    /**
+     * A connection whose query returns numRows rows, each one created when the cursor gets to it.
+     */
+    private static Connection connection(Jdbc jdbc, List<String> columns, int numRows, IntFunction<Object[]> rows) {
+        ResultSetMetaData metaData = proxy(ResultSetMetaData.class, (method, args) -> switch (method) {
+            case "getColumnCount" -> columns.size();
+            case "getColumnLabel" -> columns.get((Integer) args[0] - 1);
+            case "getColumnType" -> Types.OTHER;
+            default -> throw new UnsupportedOperationException(method);
+        });
+
+        AtomicInteger current = new AtomicInteger(-1);
+        Object[][] row = new Object[1][];
+        ResultSet resultSet = proxy(ResultSet.class, (method, args) -> switch (method) {
+            case "getMetaData" -> metaData;
+            case "next" -> {
+                if (current.get() + 1 >= numRows) {
+                    yield false;
+                }
+                row[0] = rows.apply(current.incrementAndGet());
+                jdbc.rowsRead++;
+                yield true;
+            }
+            case "getObject" -> row[0][(Integer) args[0] - 1];
+            case "close" -> null;
+            default -> throw new UnsupportedOperationException(method);
+        });
+
+        PreparedStatement statement = proxy(PreparedStatement.class, (method, args) -> switch (method) {
+            case "setFetchSize" -> {
+                jdbc.fetchSize = (Integer) args[0];
+                yield null;
+            }
+            case "setTimestamp", "close" -> null;
+            case "executeQuery" -> resultSet;
+            default -> throw new UnsupportedOperationException(method);
+        });
+
+        return proxy(Connection.class, (method, args) -> switch (method) {
+            case "getAutoCommit" -> jdbc.autoCommit;
+            case "setAutoCommit" -> {
+                jdbc.autoCommit = (Boolean) args[0];
+                yield null;
+            }
+            case "prepareStatement" -> {
+                jdbc.resultSetType = (Integer) args[1];
+                yield statement;
+            }
+            case "isClosed" -> jdbc.closed;
+            case "close" -> {
+                jdbc.closed = true;
+                yield null;
+            }
+            case "rollback" -> null;
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(
+                type.getClassLoader(), new Class<?>[] {type}, (p, method, args) -> handler.invoke(method.getName(), args)));
+    }
+}
@@ -0,0 +1,60 @@
+package org.transitclock.domain.structs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StopPathGeometryTest {
+    private static final List<Location> LOCATIONS = List.of(
+            new Location(37.79971, -122.43595),
+            new Location(37.79972, -122.43596),
+            new Location(37.80071, -122.43495),
+            new Location(37.80071, -122.43395));
+
+    @Test
+    void sameHeadingsAndLengthsAsVectors() {
+        StopPathGeometry geometry = StopPathGeometry.of(LOCATIONS);
+
+        assertThat(geometry.getNumberLocations()).isEqualTo(4);
+        assertThat(geometry.getNumberSegments()).isEqualTo(3);
+        double length = 0.0;
+        for (int i = 0; i < 3; i++) {
+            VectorWithHeading vector = new VectorWithHeading(LOCATIONS.get(i), LOCATIONS.get(i + 1));
+            assertThat(geometry.getDistanceToSegment(i)).isEqualTo(length);
+            assertThat(geometry.getSegmentHeading(i)).isEqualTo(vector.getHeading());
+            assertThat(geometry.getSegmentLength(i)).isEqualTo(vector.length());
+            assertThat(geometry.getSegmentVectors().get(i).getHeading()).isEqualTo(vector.getHeading());
+            assertThat(geometry.getSegmentVectors().get(i).length()).isEqualTo(vector.length());
+            assertThat(geometry.getSegmentVectors().get(i).getL2()).isEqualTo(LOCATIONS.get(i + 1));
+            length += LOCATIONS.get(i).distance(LOCATIONS.get(i + 1));
+        }
+        assertThat(geometry.getLength()).isEqualTo(length);
+        assertThat(geometry.getLocations()).isEqualTo(LOCATIONS);
+    }
+
+    @Test
+    void identicalShapesAreShared() {
+        StopPathGeometry geometry = StopPathGeometry.of(LOCATIONS);
+        StopPathGeometry same = StopPathGeometry.of(new ArrayList<>(LOCATIONS));
+        StopPathGeometry other = StopPathGeometry.of(LOCATIONS.subList(0, 3));
+
+        assertThat(same).isSameAs(geometry);
+        assertThat(same.getSegmentVectors()).isSameAs(geometry.getSegmentVectors());
+        assertThat(other).isNotEqualTo(geometry);
+    }
+
+    @Test
+    void stopPathUsesGeometry() {
+        StopPath stopPath = new StopPath(0, "a_to_b", "b", 2, false, "r", false, false, false, null, null, null, null);
+        stopPath.setLocations(new ArrayList<>(LOCATIONS));
+
+        assertThat(stopPath.getLength()).isEqualTo(StopPathGeometry.of(LOCATIONS).getLength());
+        assertThat(stopPath.getNumberSegments()).isEqualTo(3);
+        assertThat(stopPath.getEndOfPathLocation()).isEqualTo(LOCATIONS.get(3));
+        assertThat(stopPath.getSegmentVector(3)).isNull();
+        assertThat(stopPath.getSegmentVector(2).getL1()).isEqualTo(LOCATIONS.get(2));
+    }
+}
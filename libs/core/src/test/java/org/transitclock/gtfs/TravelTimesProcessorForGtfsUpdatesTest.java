@@ -0,0 +1,111 @@
+package org.transitclock.gtfs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.transitclock.domain.structs.HowSet;
+import org.transitclock.domain.structs.Location;
+import org.transitclock.domain.structs.StopPath;
+import org.transitclock.domain.structs.TravelTimesForStopPath;
+import org.transitclock.domain.structs.TravelTimesForTrip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TravelTimesProcessorForGtfsUpdatesTest {
+
+    private static StopPath stopPath(String stopPathId, double... latLons) {
+        StopPath stopPath =
+                new StopPath(0, stopPathId, "s", 1, false, "r", false, false, false, null, null, null, null);
+        ArrayList<Location> locations = new ArrayList<>();
+        for (int i = 0; i < latLons.length; i += 2) {
+            locations.add(new Location(latLons[i], latLons[i + 1]));
+        }
+        stopPath.setLocations(locations);
+        return stopPath;
+    }
+
+    private static final List<StopPath> STOP_PATHS =
+            List.of(stopPath("a", 38.9, -77.0, 38.901, -77.0), stopPath("b", 38.901, -77.0, 38.902, -77.001));
+
+    private static final String HASH = TravelTimesProcessorForGtfsUpdates.contentHash(STOP_PATHS);
+
+    private static TravelTimesForTrip travelTimes(String tripPatternId, String tripId, String tripPatternHash) {
+        TravelTimesForTrip travelTimes = new TravelTimesForTrip(0, 0, tripPatternId, tripId);
+        travelTimes.setTripPatternHash(tripPatternHash);
+        for (StopPath stopPath : STOP_PATHS) {
+            travelTimes.add(new TravelTimesForStopPath(
+                    0, 0, stopPath.getId(), 100.0, List.of(10_000), 0, -1, HowSet.SCHED, null));
+        }
+        return travelTimes;
+    }
+
+    @Test
+    void contentHashDependsOnStopPathIdsAndShapes() {
+        List<StopPath> same =
+                List.of(stopPath("a", 38.9, -77.0, 38.901, -77.0), stopPath("b", 38.901, -77.0, 38.902, -77.001));
+        List<StopPath> otherShape =
+                List.of(stopPath("a", 38.9, -77.0, 38.901, -77.0), stopPath("b", 38.901, -77.0, 38.903, -77.001));
+        List<StopPath> otherIds =
+                List.of(stopPath("a", 38.9, -77.0, 38.901, -77.0), stopPath("c", 38.901, -77.0, 38.902, -77.001));
+
+        assertThat(TravelTimesProcessorForGtfsUpdates.contentHash(same)).isEqualTo(HASH);
+        assertThat(TravelTimesProcessorForGtfsUpdates.contentHash(otherShape)).isNotEqualTo(HASH);
+        assertThat(TravelTimesProcessorForGtfsUpdates.contentHash(otherIds)).isNotEqualTo(HASH);
+    }
+
+    @Test
+    void usesTravelTimesOfTripPatternFromDb() {
+        TravelTimesForTrip fromDb = travelTimes("p1", "t1", null);
+        List<TravelTimesForTrip> fromDbList = List.of(fromDb);
+
+        Map<String, List<TravelTimesForTrip>> result = TravelTimesProcessorForGtfsUpdates.travelTimesForTripPatterns(
+                Map.of("p1", HASH), Map.of("p1", fromDbList));
+
+        assertThat(result.get("p1")).hasSize(1);
+        assertThat(result.get("p1").get(0)).isSameAs(fromDb);
+        // Own copy of the list so that schedule based travel times can be added
+        result.get("p1").add(travelTimes("p1", "t2", HASH));
+        assertThat(fromDbList).hasSize(1);
+    }
+
+    @Test
+    void carriesForwardTravelTimesWithSameContentToNewTripPatternId() {
+        TravelTimesForTrip fromDb = travelTimes("p1", "t1", HASH);
+
+        Map<String, List<TravelTimesForTrip>> result = TravelTimesProcessorForGtfsUpdates.travelTimesForTripPatterns(
+                Map.of("p2", HASH), Map.of("p1", List.of(fromDb)));
+
+        assertThat(result.get("p2")).hasSize(1);
+        TravelTimesForTrip carriedForward = result.get("p2").get(0);
+        assertThat(carriedForward.getTripPatternId()).isEqualTo("p2");
+        assertThat(carriedForward.getTripPatternHash()).isEqualTo(HASH);
+        assertThat(carriedForward.getTripCreatedForId()).isEqualTo("t1");
+        assertThat(carriedForward.getId()).isNull();
+        assertThat(carriedForward.getTravelTimesForStopPaths())
+                .containsExactlyElementsOf(fromDb.getTravelTimesForStopPaths());
+        // The travel times of the previous trip pattern are unchanged
+        assertThat(fromDb.getTripPatternId()).isEqualTo("p1");
+    }
+
+    @Test
+    void doesNotCarryForwardTravelTimesWhenShapeChanged() {
+        // Same stop path IDs but the shape of one of them changed
+        String changedShapeHash = TravelTimesProcessorForGtfsUpdates.contentHash(
+                List.of(stopPath("a", 38.9, -77.0, 38.901, -77.0), stopPath("b", 38.901, -77.0, 38.905, -77.002)));
+
+        Map<String, List<TravelTimesForTrip>> result = TravelTimesProcessorForGtfsUpdates.travelTimesForTripPatterns(
+                Map.of("p2", changedShapeHash), Map.of("p1", List.of(travelTimes("p1", "t1", HASH))));
+
+        assertThat(result.get("p2")).isEmpty();
+    }
+
+    @Test
+    void doesNotCarryForwardTravelTimesWithoutHash() {
+        Map<String, List<TravelTimesForTrip>> result = TravelTimesProcessorForGtfsUpdates.travelTimesForTripPatterns(
+                Map.of("p2", HASH), Map.of("p1", List.of(travelTimes("p1", "t1", null))));
+
+        assertThat(result.get("p2")).isEmpty();
+    }
+}
@@ -0,0 +1,107 @@
+package org.transitclock.monitoring;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.transitclock.domain.structs.MonitoringEvent;
+import org.transitclock.utils.SystemTime;
+import org.transitclock.utils.Time;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MonitorBaseTest {
+    private static final long START = 1_700_000_000_000L;
+
+    private static class TestMonitor extends MonitorBase {
+        private final List<MonitoringEvent> events = new ArrayList<>();
+        private boolean triggered;
+
+        TestMonitor() {
+            super("agency", null);
+        }
+
+        @Override
+        protected boolean triggered() {
+            setMessage("triggered=" + triggered);
+            return triggered;
+        }
+
+        @Override
+        protected String type() {
+            return "Test";
+        }
+
+        @Override
+        protected String recipients() {
+            return "";
+        }
+
+        @Override
+        protected int retryTimeoutSecs() {
+            return 0;
+        }
+
+        @Override
+        protected void storeEvent(MonitoringEvent monitoringEvent) {
+            events.add(monitoringEvent);
+        }
+    }
+
+    private final TestMonitor monitor = new TestMonitor();
+
+    @BeforeEach
+    void setUp() {
+        SystemTime.setPlaybackMillis(START);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SystemTime.clearPlaybackMillis();
+    }
+
+    private boolean checkAt(long msecAfterStart, boolean triggered) {
+        SystemTime.setPlaybackMillis(START + msecAfterStart);
+        monitor.triggered = triggered;
+        return monitor.checkAndNotify();
+    }
+
+    @Test
+    void storesEventsWhenStateChanges() {
+        assertThat(checkAt(0, false)).isFalse();
+        assertThat(checkAt(10 * Time.MS_PER_SEC, false)).isFalse();
+        assertThat(monitor.events).isEmpty();
+
+        assertThat(checkAt(20 * Time.MS_PER_SEC, true)).isTrue();
+        assertThat(monitor.events).hasSize(1);
+        assertThat(monitor.events.get(0).isTriggered()).isTrue();
+
+        assertThat(checkAt(30 * Time.MS_PER_SEC, false)).isFalse();
+        assertThat(monitor.events).hasSize(2);
+        assertThat(monitor.events.get(1).isTriggered()).isFalse();
+    }
+
+    @Test
+    void limitsEventsWhileStayingTriggered() {
+        checkAt(0, true);
+        assertThat(monitor.events).hasSize(1);
+
+        // Checked frequently but only stored every two minutes
+        for (int secs = 10; secs < 120; secs += 10) {
+            checkAt(secs * Time.MS_PER_SEC, true);
+        }
+        assertThat(monitor.events).hasSize(1);
+
+        checkAt(2 * Time.MS_PER_MIN, true);
+        assertThat(monitor.events).hasSize(2);
+        checkAt(2 * Time.MS_PER_MIN + 10 * Time.MS_PER_SEC, true);
+        assertThat(monitor.events).hasSize(2);
+
+        // Becoming untriggered is always stored
+        checkAt(2 * Time.MS_PER_MIN + 20 * Time.MS_PER_SEC, false);
+        assertThat(monitor.events).hasSize(3);
+        assertThat(monitor.events.get(2).isTriggered()).isFalse();
+    }
+}
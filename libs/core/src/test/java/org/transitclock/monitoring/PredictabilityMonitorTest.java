@@ -0,0 +1,96 @@
+package org.transitclock.monitoring;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.transitclock.core.avl.assigner.BlockInfoProvider;
+import org.transitclock.core.dataCache.VehicleDataCache;
+import org.transitclock.domain.structs.Block;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PredictabilityMonitorTest {
+
+    private static class FakeBlockInfoProvider extends BlockInfoProvider {
+        private final Map<String, Integer> activeBlockCounts = new HashMap<>();
+        private final List<Block> activeBlocks;
+
+        FakeBlockInfoProvider(List<Block> activeBlocks) {
+            super(null);
+            this.activeBlocks = activeBlocks;
+        }
+
+        @Override
+        public int getCurrentlyActiveBlockCount() {
+            return activeBlockCounts.values().stream().mapToInt(Integer::intValue).sum();
+        }
+
+        @Override
+        public Map<String, Integer> getCurrentlyActiveBlockCountsByRoute() {
+            return activeBlockCounts;
+        }
+
+        @Override
+        public List<Block> getCurrentlyActiveBlocks() {
+            return activeBlocks;
+        }
+    }
+
+    private static class FakeVehicleDataCache extends VehicleDataCache {
+        private final Map<String, Integer> predictableCounts = new HashMap<>();
+
+        FakeVehicleDataCache() {
+            super(null, null, null);
+        }
+
+        @Override
+        public int getNumPredictableVehicles(String routeId) {
+            return predictableCounts.getOrDefault(routeId, 0);
+        }
+
+        @Override
+        public Collection<String> getVehiclesByBlockId(String blockId) {
+            return List.of();
+        }
+    }
+
+    private final FakeBlockInfoProvider blockInfoProvider =
+            new FakeBlockInfoProvider(List.of(new Block(0, "b7", "weekday", 0, 0, List.of())));
+    private final FakeVehicleDataCache vehicleDataCache = new FakeVehicleDataCache();
+    private final PredictabilityMonitor monitor =
+            new PredictabilityMonitor("agency", null, vehicleDataCache, blockInfoProvider);
+
+    @Test
+    void okWithoutActiveBlocks() {
+        assertThat(monitor.triggered()).isFalse();
+        assertThat(monitor.getMessage()).contains("No currently active blocks");
+    }
+
+    @Test
+    void okWhenEnoughVehiclesArePredictable() {
+        blockInfoProvider.activeBlockCounts.put("r1", 4);
+        blockInfoProvider.activeBlockCounts.put("r2", 6);
+        vehicleDataCache.predictableCounts.put("r1", 4);
+        vehicleDataCache.predictableCounts.put("r2", 2);
+
+        // 6 of 10 active blocks have a predictable vehicle
+        assertThat(monitor.triggered()).isFalse();
+        assertThat(monitor.getMessage()).contains("predictable vehicles=6");
+    }
+
+    @Test
+    void triggeredWithRoutesBelowMinimum() {
+        blockInfoProvider.activeBlockCounts.put("r1", 4);
+        blockInfoProvider.activeBlockCounts.put("r2", 6);
+        vehicleDataCache.predictableCounts.put("r1", 4);
+
+        // Only 4 of 10 active blocks have a predictable vehicle, all on r1
+        assertThat(monitor.triggered()).isTrue();
+        assertThat(monitor.getMessage()).contains("route=r2 0/6");
+        assertThat(monitor.getMessage()).doesNotContain("route=r1");
+        assertThat(monitor.getMessage()).contains("block=b7");
+    }
+}
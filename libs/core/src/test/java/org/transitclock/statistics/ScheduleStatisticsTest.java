@@ -0,0 +1,137 @@
+package org.transitclock.statistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.transitclock.domain.structs.ArrivalDeparture.ArrivalsOrDepartures;
+import org.transitclock.statistics.ScheduleDataProcessor.TripStopKey;
+import org.transitclock.statistics.ScheduleStatistics.Stats;
+import org.transitclock.utils.IntSamples;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ScheduleStatisticsTest {
+    private static final TripStopKey TRIP_STOP = ScheduleDataProcessor.getTripStopKey("trip1", "stop1");
+
+    private static Map<TripStopKey, Stats> determineStats(int[] times) {
+        return determineStats(Map.of(TRIP_STOP, times));
+    }
+
+    private static Map<TripStopKey, Stats> determineStats(Map<TripStopKey, int[]> timesByTripStop) {
+        Map<TripStopKey, Stats> results = new HashMap<>();
+        ScheduleStatistics.determineStatsForRoute(
+                null,
+                timesByTripStop,
+                results,
+                "route1",
+                1000,
+                Integer.MAX_VALUE,
+                0.2,
+                ArrivalsOrDepartures.ARRIVALS);
+        return results;
+    }
+
+    @Test
+    void filtersOutTimesFarFromTheMean() {
+        int[] times = {36000, 36060, 36120, 36180, 40000};
+
+        Stats stats = determineStats(times).get(TRIP_STOP);
+
+        assertThat(stats.unfilteredTimesArray).containsExactly(36000, 36060, 36120, 36180, 40000);
+        assertThat(stats.filteredTimesArray).containsExactly(36000, 36060, 36120, 36180);
+        assertThat(stats.mean).isEqualTo(36090.0f);
+        assertThat(stats.min).isEqualTo(36000);
+        assertThat(stats.max).isEqualTo(36180);
+        assertThat(stats.bestValue).isLessThan(36090);
+    }
+
+    @Test
+    void noStatsWhenAllTimesFilteredOut() {
+        int[] times = {30000, 40000};
+
+        assertThat(determineStats(times)).isEmpty();
+    }
+
+    @Test
+    void sameStatsWhateverTheOrderTimesWereAddedIn() throws Exception {
+        // The squared differences from the mean are summed in floating
+        // point, so summing them in another order can give another result
+        Random random = new Random(42);
+        List<TripStopKey> tripStops = new ArrayList<>();
+        List<int[]> times = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            tripStops.add(ScheduleDataProcessor.getTripStopKey("trip" + i, "stop1"));
+            int[] timesForTripStop = new int[200];
+            for (int j = 0; j < timesForTripStop.length; j++) {
+                timesForTripStop[j] = 36000 + random.nextInt(900);
+            }
+            times.add(timesForTripStop);
+        }
+
+        // Added in order by a single thread
+        Map<TripStopKey, int[]> sequential = new HashMap<>();
+        for (int i = 0; i < tripStops.size(); i++) {
+            IntSamples samples = new IntSamples();
+            for (int j = 0; j < times.get(i).length; j++) {
+                samples.add(IntSamples.sampleId("v" + j, j), times.get(i)[j]);
+            }
+            sequential.put(tripStops.get(i), samples.toSortedArray());
+        }
+
+        // Added in a shuffled order by several threads at once
+        Map<TripStopKey, IntSamples> samplesByTripStop = new HashMap<>();
+        List<int[]> additions = new ArrayList<>();
+        for (int i = 0; i < tripStops.size(); i++) {
+            samplesByTripStop.put(tripStops.get(i), new IntSamples());
+            for (int j = 0; j < times.get(i).length; j++) {
+                additions.add(new int[] {i, j});
+            }
+        }
+        Collections.shuffle(additions, random);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                List<int[]> additionsForThread = additions.subList(
+                        thread * additions.size() / 4, (thread + 1) * additions.size() / 4);
+                futures.add(executor.submit(() -> {
+                    for (int[] addition : additionsForThread) {
+                        int i = addition[0];
+                        int j = addition[1];
+                        samplesByTripStop.get(tripStops.get(i)).add(IntSamples.sampleId("v" + j, j), times.get(i)[j]);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Map<TripStopKey, int[]> parallel = new HashMap<>();
+        for (Map.Entry<TripStopKey, IntSamples> entry : samplesByTripStop.entrySet()) {
+            parallel.put(entry.getKey(), entry.getValue().toSortedArray());
+        }
+
+        Map<TripStopKey, Stats> sequentialStats = determineStats(sequential);
+        Map<TripStopKey, Stats> parallelStats = determineStats(parallel);
+        assertThat(parallelStats).hasSize(tripStops.size());
+        for (TripStopKey tripStop : tripStops) {
+            Stats expected = sequentialStats.get(tripStop);
+            Stats actual = parallelStats.get(tripStop);
+            assertThat(actual.filteredTimesArray).containsExactly(expected.filteredTimesArray);
+            assertThat(actual.mean).isEqualTo(expected.mean);
+            assertThat(actual.standardDeviation).isEqualTo(expected.standardDeviation);
+            assertThat(actual.bestValue).isEqualTo(expected.bestValue);
+        }
+    }
+}
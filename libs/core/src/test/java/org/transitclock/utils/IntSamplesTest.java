@@ -0,0 +1,64 @@
+package org.transitclock.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IntSamplesTest {
+
+    @Test
+    void sortsValues() {
+        IntSamples samples = new IntSamples();
+        long sampleId = 0;
+        for (int value : new int[] {30, 10, 20, 10, 50, 40, 60, 70, 80, 90}) {
+            samples.add(sampleId++, value);
+        }
+
+        assertThat(samples.sortedValues()).containsExactly(10, 10, 20, 30, 40, 50, 60, 70, 80, 90);
+    }
+
+    @Test
+    void groupsRowsOfTheRequestedLengthByColumn() {
+        IntSamples samples = new IntSamples();
+        samples.addRow(1, List.of(5, 50, 500));
+        samples.addRow(2, List.of(7, 70));
+        samples.addRow(3, List.of(3, 30, 300));
+        samples.addRow(4, List.of(4, 40, 400));
+
+        assertThat(samples.sortedColumns(3))
+                .containsExactly(List.of(3, 4, 5), List.of(30, 40, 50), List.of(300, 400, 500));
+        assertThat(samples.sortedColumns(2)).containsExactly(List.of(7), List.of(70));
+        assertThat(samples.sortedColumns(1)).isNull();
+    }
+
+    @Test
+    void keepsSameSamplesWhateverTheOrder() {
+        List<Integer> sampleIds = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            sampleIds.add(i);
+        }
+
+        IntSamples inOrder = new IntSamples(50);
+        IntSamples shuffled = new IntSamples(50);
+        IntSamples rowsInOrder = new IntSamples(50);
+        IntSamples rowsShuffled = new IntSamples(50);
+        for (int sampleId : sampleIds) {
+            inOrder.add(sampleId, sampleId * 10);
+            rowsInOrder.addRow(sampleId, List.of(sampleId, -sampleId));
+        }
+        Collections.shuffle(sampleIds);
+        for (int sampleId : sampleIds) {
+            shuffled.add(sampleId, sampleId * 10);
+            rowsShuffled.addRow(sampleId, List.of(sampleId, -sampleId));
+        }
+
+        assertThat(inOrder.size()).isEqualTo(50);
+        assertThat(shuffled.sortedValues()).isEqualTo(inOrder.sortedValues());
+        assertThat(rowsInOrder.sortedColumns(2).get(0)).hasSize(50);
+        assertThat(rowsShuffled.sortedColumns(2)).isEqualTo(rowsInOrder.sortedColumns(2));
+    }
+}
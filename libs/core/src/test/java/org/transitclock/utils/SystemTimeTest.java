@@ -0,0 +1,43 @@
+package org.transitclock.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SystemTimeTest {
+
+    @AfterEach
+    void clearPlayback() {
+        SystemTime.clearPlaybackMillis();
+    }
+
+    @Test
+    void usesClockWhenNotInPlayback() {
+        long before = System.currentTimeMillis();
+        long now = SystemTime.getMillis();
+
+        assertThat(SystemTime.isPlayback()).isFalse();
+        assertThat(now).isBetween(before, System.currentTimeMillis());
+    }
+
+    @Test
+    void playbackTimeOnlyChangesWhenSet() {
+        SystemTime.setPlaybackMillis(1_700_000_000_000L);
+        assertThat(SystemTime.isPlayback()).isTrue();
+        assertThat(SystemTime.getMillis()).isEqualTo(1_700_000_000_000L);
+        assertThat(SystemTime.getDate().getTime()).isEqualTo(1_700_000_000_000L);
+
+        SystemTime.setPlaybackMillis(1_700_000_030_000L);
+        assertThat(SystemTime.getMillis()).isEqualTo(1_700_000_030_000L);
+
+        SystemTime.clearPlaybackMillis();
+        assertThat(SystemTime.getMillis()).isGreaterThan(1_700_000_030_000L);
+    }
+
+    @Test
+    void playbackTimeCantBeZero() {
+        assertThatThrownBy(() -> SystemTime.setPlaybackMillis(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,81 @@
+package org.transitclock.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimerWheelTest {
+    private static final long START = 1_700_000_000_000L;
+
+    @Test
+    void firesWithinATickOfDeadline() {
+        Random random = new Random(42);
+        TimerWheel<Integer> wheel = new TimerWheel<>(1000, START);
+        Map<Integer, Long> deadlines = new HashMap<>();
+        for (int key = 0; key < 10_000; key++) {
+            // Up to about 3 days, so all the levels are used
+            long deadline = START + (long) (random.nextDouble() * 3 * Time.MS_PER_DAY);
+            wheel.schedule(key, deadline);
+            deadlines.put(key, deadline);
+        }
+
+        long end = START + 3 * Time.MS_PER_DAY + 2000;
+        for (long now = START; now <= end; now += 1000) {
+            for (int key : wheel.advance(now)) {
+                long deadline = deadlines.remove(key);
+                assertThat(now).isGreaterThanOrEqualTo(deadline).isLessThan(deadline + 1000);
+            }
+        }
+        assertThat(deadlines).isEmpty();
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void rescheduleAndCancel() {
+        TimerWheel<String> wheel = new TimerWheel<>(1000, START);
+        wheel.schedule("a", START + 5_000);
+        wheel.schedule("b", START + 5_000);
+        wheel.schedule("c", START + 5_000);
+
+        // Vehicle reported again so deadline moves out
+        wheel.schedule("a", START + 500_000);
+        assertThat(wheel.cancel("b")).isTrue();
+        assertThat(wheel.cancel("b")).isFalse();
+
+        assertThat(wheel.advance(START + 5_000)).containsExactly("c");
+        assertThat(wheel.advance(START + 499_000)).isEmpty();
+        assertThat(wheel.contains("a")).isTrue();
+        assertThat(wheel.advance(START + 500_000)).containsExactly("a");
+    }
+
+    @Test
+    void pastDeadlineFiresAtNextTick() {
+        TimerWheel<String> wheel = new TimerWheel<>(1000, START);
+        wheel.advance(START + 10_000);
+        wheel.schedule("late", START);
+
+        assertThat(wheel.advance(START + 10_000)).isEmpty();
+        assertThat(wheel.advance(START + 11_000)).containsExactly("late");
+    }
+
+    @Test
+    void largeJumpsAndFarDeadlines() {
+        TimerWheel<String> wheel = new TimerWheel<>(1000, START);
+        // Beyond the range of the top level
+        long far = START + 365L * Time.MS_PER_DAY;
+        wheel.schedule("far", far);
+        wheel.schedule("near", START + 90_000);
+
+        // Time jumps ahead, as can happen when in playback mode
+        List<String> expired = new ArrayList<>(wheel.advance(START + 2 * Time.MS_PER_DAY));
+        assertThat(expired).containsExactly("near");
+        assertThat(wheel.advance(far - 1000)).isEmpty();
+        assertThat(wheel.advance(far)).containsExactly("far");
+    }
+}
@@ -3,5 +3,13 @@ plugins {
 }
 
 dependencies {
+    implementation(project(":libs:extensions:api"))
+    implementation(project(":libs:core"))
+    implementation(project(":libs:util"))
+    implementation("org.springframework.boot:spring-boot-autoconfigure")
+    implementation("org.springframework:spring-context")
+    implementation("com.fasterxml.jackson.core:jackson-core")
 
+    testImplementation("org.assertj:assertj-core")
+    testImplementation("org.junit.jupiter:junit-jupiter")
 }
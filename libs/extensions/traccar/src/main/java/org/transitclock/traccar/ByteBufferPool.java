@@ -0,0 +1,41 @@
+/* (C)2023 */
+package org.transitclock.traccar;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Reuses the heap buffers of closed connections so that trackers that reconnect frequently, as
+ * mobile ones do, don't cause a buffer to be allocated for every connection. Heap buffers are used
+ * since the requests are parsed directly from the backing array.
+ *
+ * <p>Not thread safe. Only used by the selector thread of the TraccarServer.
+ */
+class ByteBufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+
+    ByteBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /** @return a cleared buffer, from the pool if there is one available */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(bufferSize);
+    }
+
+    /** Returns the buffer to the pool, unless the pool is already full */
+    void release(ByteBuffer buffer) {
+        if (buffers.size() < maxPooled) {
+            buffer.clear();
+            buffers.push(buffer);
+        }
+    }
+
+    int getNumPooled() {
+        return buffers.size();
+    }
+}
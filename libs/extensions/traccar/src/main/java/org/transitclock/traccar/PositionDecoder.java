@@ -0,0 +1,270 @@
+/* (C)2023 */
+package org.transitclock.traccar;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Decodes positions from the bytes of a request, without first converting the request to a String
+ * and splitting it. Only the device ID, and timestamps that aren't simply numbers, become Strings.
+ *
+ * <p>Two formats are supported:
+ *
+ * <ul>
+ *   <li>OsmAnd, as sent by the Traccar Client and OsmAnd apps: a query string such as
+ *       id=123456&amp;timestamp=1700000000&amp;lat=38.9&amp;lon=-77.0&amp;speed=10&amp;bearing=90
+ *       where speed is in knots. Also accepts deviceid for id, heading for bearing, and
+ *       location=lat,lon.
+ *   <li>Traccar JSON forwarding (forward.type=json): {"position": {"fixTime": "...", "latitude":
+ *       38.9, "longitude": -77.0, "speed": 10, "course": 90}, "device": {"uniqueId": "123456"}}
+ *       where speed is also in knots.
+ * </ul>
+ */
+class PositionDecoder {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final double KNOTS_TO_METERS_PER_SEC = 1852.0 / 3600.0;
+
+    // Powers of ten that are exact as doubles, for parsing decimals
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    private static final byte[] ID = ascii("id");
+    private static final byte[] DEVICE_ID = ascii("deviceid");
+    private static final byte[] TIMESTAMP = ascii("timestamp");
+    private static final byte[] LAT = ascii("lat");
+    private static final byte[] LON = ascii("lon");
+    private static final byte[] LOCATION = ascii("location");
+    private static final byte[] SPEED = ascii("speed");
+    private static final byte[] BEARING = ascii("bearing");
+    private static final byte[] HEADING = ascii("heading");
+    private static final byte[] VALID = ascii("valid");
+
+    private PositionDecoder() {}
+
+    private static byte[] ascii(String str) {
+        return str.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Decodes an OsmAnd query string into the position. Unknown parameters are ignored. Can be
+     * called multiple times for the same position, such as for the query string and then the form
+     * body of a POST.
+     *
+     * @param buf contains the query string, without the leading '?'
+     * @param start index of the first byte of the query string
+     * @param end index after the last byte of the query string
+     * @throws IllegalArgumentException if a value is not valid
+     */
+    static void decodeQuery(byte[] buf, int start, int end, TraccarPosition position) {
+        int i = start;
+        while (i < end) {
+            int keyStart = i;
+            while (i < end && buf[i] != '=' && buf[i] != '&') ++i;
+            int keyEnd = i;
+            int valueStart = i;
+            if (i < end && buf[i] == '=') {
+                valueStart = ++i;
+                while (i < end && buf[i] != '&') ++i;
+            }
+            int valueEnd = i;
+            // Skip the '&'
+            ++i;
+
+            decodeParameter(buf, keyStart, keyEnd, valueStart, valueEnd, position);
+        }
+    }
+
+    private static void decodeParameter(
+            byte[] buf, int keyStart, int keyEnd, int valueStart, int valueEnd, TraccarPosition position) {
+        if (valueStart == valueEnd) return;
+
+        if (matches(buf, keyStart, keyEnd, ID) || matches(buf, keyStart, keyEnd, DEVICE_ID)) {
+            position.setDeviceId(decodeString(buf, valueStart, valueEnd));
+        } else if (matches(buf, keyStart, keyEnd, TIMESTAMP)) {
+            position.setTime(isDigits(buf, valueStart, valueEnd)
+                    ? toMsec(parseLong(buf, valueStart, valueEnd))
+                    : parseDateTime(decodeString(buf, valueStart, valueEnd)));
+        } else if (matches(buf, keyStart, keyEnd, LAT)) {
+            position.setLat(parseDouble(buf, valueStart, valueEnd));
+        } else if (matches(buf, keyStart, keyEnd, LON)) {
+            position.setLon(parseDouble(buf, valueStart, valueEnd));
+        } else if (matches(buf, keyStart, keyEnd, LOCATION)) {
+            int comma = indexOf(buf, valueStart, valueEnd, (byte) ',');
+            if (comma < 0) {
+                // The comma might have been URL encoded
+                String location = decodeString(buf, valueStart, valueEnd);
+                int index = location.indexOf(',');
+                if (index < 0) throw new IllegalArgumentException("Invalid location " + location);
+                position.setLat(Double.parseDouble(location.substring(0, index)));
+                position.setLon(Double.parseDouble(location.substring(index + 1)));
+            } else {
+                position.setLat(parseDouble(buf, valueStart, comma));
+                position.setLon(parseDouble(buf, comma + 1, valueEnd));
+            }
+        } else if (matches(buf, keyStart, keyEnd, SPEED)) {
+            position.setSpeed((float) (parseDouble(buf, valueStart, valueEnd) * KNOTS_TO_METERS_PER_SEC));
+        } else if (matches(buf, keyStart, keyEnd, BEARING) || matches(buf, keyStart, keyEnd, HEADING)) {
+            position.setHeading((float) parseDouble(buf, valueStart, valueEnd));
+        } else if (matches(buf, keyStart, keyEnd, VALID)) {
+            position.setValid(buf[valueStart] != '0' && buf[valueStart] != 'f' && buf[valueStart] != 'F');
+        }
+    }
+
+    /**
+     * Decodes a Traccar forwarded position. Members other than the ones needed are skipped.
+     *
+     * @throws IOException if the JSON is not valid
+     * @throws IllegalArgumentException if a value is not valid
+     */
+    static void decodeForwardJson(byte[] buf, int start, int end, TraccarPosition position) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(buf, start, end - start)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw new IOException("Not a JSON object");
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.START_OBJECT && name.equals("position")) {
+                    decodeJsonPosition(parser, position);
+                } else if (token == JsonToken.START_OBJECT && name.equals("device")) {
+                    decodeJsonDevice(parser, position);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static void decodeJsonPosition(JsonParser parser, TraccarPosition position) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) continue;
+            switch (name) {
+                case "latitude" -> position.setLat(parser.getDoubleValue());
+                case "longitude" -> position.setLon(parser.getDoubleValue());
+                case "speed" -> position.setSpeed((float) (parser.getDoubleValue() * KNOTS_TO_METERS_PER_SEC));
+                case "course" -> position.setHeading(parser.getFloatValue());
+                case "valid" -> position.setValid(parser.getBooleanValue());
+                case "fixTime" -> position.setTime(token == JsonToken.VALUE_NUMBER_INT
+                        ? toMsec(parser.getLongValue())
+                        : parseDateTime(parser.getText()));
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    private static void decodeJsonDevice(JsonParser parser, TraccarPosition position) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            if (name.equals("uniqueId")) position.setDeviceId(parser.getValueAsString());
+            else parser.skipChildren();
+        }
+    }
+
+    /** Timestamps can be in seconds or msec. Same rule as Traccar uses to tell them apart. */
+    private static long toMsec(long timestamp) {
+        return timestamp < Integer.MAX_VALUE ? timestamp * 1000 : timestamp;
+    }
+
+    private static long parseDateTime(String str) {
+        try {
+            return OffsetDateTime.parse(str).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            try {
+                return Instant.parse(str).toEpochMilli();
+            } catch (DateTimeParseException e2) {
+                throw new IllegalArgumentException("Invalid timestamp " + str);
+            }
+        }
+    }
+
+    private static boolean matches(byte[] buf, int start, int end, byte[] key) {
+        if (end - start != key.length) return false;
+        for (int i = 0; i < key.length; ++i) {
+            if (buf[start + i] != key[i]) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] buf, int start, int end, byte b) {
+        for (int i = start; i < end; ++i) {
+            if (buf[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isDigits(byte[] buf, int start, int end) {
+        for (int i = start; i < end; ++i) {
+            if (buf[i] < '0' || buf[i] > '9') return false;
+        }
+        return true;
+    }
+
+    /** URL decodes the value, but only creates a String once if there is nothing to decode */
+    private static String decodeString(byte[] buf, int start, int end) {
+        String str = new String(buf, start, end - start, StandardCharsets.UTF_8);
+        if (indexOf(buf, start, end, (byte) '%') < 0 && indexOf(buf, start, end, (byte) '+') < 0) return str;
+        return URLDecoder.decode(str, StandardCharsets.UTF_8);
+    }
+
+    private static long parseLong(byte[] buf, int start, int end) {
+        if (end - start > 18) throw new IllegalArgumentException("Number too long");
+        long value = 0;
+        for (int i = start; i < end; ++i) {
+            value = value * 10 + (buf[i] - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Parses a plain decimal such as -77.0123 directly from the bytes. Anything else, such as an
+     * exponent or too many digits to be exact, is handed to Double.parseDouble().
+     */
+    static double parseDouble(byte[] buf, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+            negative = buf[i] == '-';
+            ++i;
+        }
+
+        long mantissa = 0;
+        int numDigits = 0;
+        int fractionDigits = -1;
+        for (; i < end; ++i) {
+            byte b = buf[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                ++numDigits;
+                if (fractionDigits >= 0) ++fractionDigits;
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+
+        if (i != end || numDigits == 0 || numDigits > 15) {
+            String str = new String(buf, start, end - start, StandardCharsets.US_ASCII);
+            try {
+                return Double.parseDouble(str);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number " + str);
+            }
+        }
+
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+}
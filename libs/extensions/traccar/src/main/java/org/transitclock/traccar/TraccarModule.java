@@ -0,0 +1,134 @@
+/* (C)2023 */
+package org.transitclock.traccar;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Date;
+
+import org.transitclock.Module;
+import org.transitclock.core.avl.AvlAdmissionController;
+import org.transitclock.core.avl.AvlReportProcessor;
+import org.transitclock.core.dataCache.VehicleDataCache;
+import org.transitclock.domain.structs.AvlReport;
+import org.transitclock.domain.structs.Location;
+import org.transitclock.domain.structs.VehicleConfig;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Receives positions pushed directly by trackers using the OsmAnd protocol, such as the Traccar
+ * Client app, or forwarded by a Traccar server as JSON. This way a separate Traccar server doesn't
+ * need to be run and polled.
+ *
+ * <p>The device ID of the tracker is mapped to a vehicle ID using the tracker IDs of the
+ * VehicleConfigs. Each position is then handed to the AvlReportProcessor.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "transitclock.traccar.enabled", havingValue = "true")
+public class TraccarModule implements Module {
+    private static final String AVL_SOURCE = "Traccar";
+
+    private final TraccarProperties traccarProperties;
+    private final VehicleDataCache vehicleDataCache;
+    private final AvlReportProcessor avlReportProcessor;
+    private final AvlAdmissionController admissionController;
+
+    private TraccarServer server;
+
+    public TraccarModule(
+            TraccarProperties traccarProperties,
+            VehicleDataCache vehicleDataCache,
+            AvlReportProcessor avlReportProcessor) {
+        this.traccarProperties = traccarProperties;
+        this.vehicleDataCache = vehicleDataCache;
+        this.avlReportProcessor = avlReportProcessor;
+        this.admissionController = avlReportProcessor.getAdmissionController();
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        InetSocketAddress udpAddress = traccarProperties.getUdpPort() >= 0
+                ? new InetSocketAddress(traccarProperties.getHost(), traccarProperties.getUdpPort())
+                : null;
+        server = new TraccarServer(
+                new InetSocketAddress(traccarProperties.getHost(), traccarProperties.getHttpPort()),
+                udpAddress,
+                traccarProperties.getBufferSize(),
+                traccarProperties.getMaxPooledBuffers(),
+                new TraccarServer.PositionHandler() {
+                    @Override
+                    public TraccarServer.Result handle(TraccarPosition position) {
+                        return TraccarModule.this.handle(position);
+                    }
+
+                    @Override
+                    public int getRetryAfterSecs() {
+                        return admissionController.getRetryAfterSecs();
+                    }
+                });
+        server.start();
+    }
+
+    @PreDestroy
+    public void stop() throws IOException, InterruptedException {
+        if (server != null) {
+            server.close();
+            logger.info(
+                    "Stopped Traccar listener. Accepted {} positions and rejected {}.",
+                    server.getNumAccepted(),
+                    server.getNumRejected());
+        }
+    }
+
+    /**
+     * Converts the position to an AvlReport and queues it to be processed. Called on the selector
+     * thread of the TraccarServer.
+     *
+     * @return REJECTED if the device isn't for a known vehicle. Otherwise see {@link
+     *     #result(AvlAdmissionController.Decision)}.
+     */
+    private TraccarServer.Result handle(TraccarPosition position) {
+        String vehicleId = getVehicleId(position.getDeviceId());
+        if (vehicleId == null) {
+            logger.debug("No VehicleConfig with trackerId={} so ignoring {}", position.getDeviceId(), position);
+            return TraccarServer.Result.REJECTED;
+        }
+
+        AvlReport avlReport = AvlReport.builder()
+                .withVehicleId(vehicleId)
+                .withTime(new Date(position.getTime()))
+                .withLocation(new Location(position.getLat(), position.getLon()))
+                .withSpeed(position.getSpeed())
+                .withHeading(position.getHeading())
+                .withSource(AVL_SOURCE)
+                .build();
+        return result(avlReportProcessor.process(avlReport));
+    }
+
+    /**
+     * Returns what to tell the tracker for the admission decision. A shed position was
+     * deliberately dropped, so it is acknowledged like an accepted one. Otherwise the tracker would
+     * send exactly the positions being shed again and add to the load. Only when rejected because
+     * AVL processing is backed up is the tracker told to hold on to the position and send it later.
+     */
+    static TraccarServer.Result result(AvlAdmissionController.Decision decision) {
+        return decision == AvlAdmissionController.Decision.REJECT
+                ? TraccarServer.Result.BUSY
+                : TraccarServer.Result.ACCEPTED;
+    }
+
+    /**
+     * @return the vehicle ID for the tracker. If there is no VehicleConfig for it then the device
+     *     ID, unless configured to require one, in which case null.
+     */
+    private String getVehicleId(String deviceId) {
+        VehicleConfig vehicleConfig = vehicleDataCache.getVehicleConfigByTrackerId(deviceId);
+        if (vehicleConfig != null) return vehicleConfig.getId();
+        return traccarProperties.getRequireTrackerId() ? null : deviceId;
+    }
+}
@@ -0,0 +1,65 @@
+/* (C)2023 */
+package org.transitclock.traccar;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A position decoded from a tracker request. Reused for each request on the selector thread so
+ * that decoding doesn't create an object per message. Handlers therefore must not keep a
+ * reference to it.
+ */
+@Getter
+@Setter
+public class TraccarPosition {
+    // Unique ID of the tracker, which is matched against VehicleConfig tracker IDs
+    private String deviceId;
+
+    // Epoch time of the fix in msec. 0 if not specified.
+    private long time;
+
+    private double lat;
+    private double lon;
+
+    // In m/s. NaN if not available.
+    private float speed;
+
+    // Degrees clockwise from north. NaN if not available.
+    private float heading;
+
+    // False if the tracker indicated that it doesn't have a fix
+    private boolean valid;
+
+    public TraccarPosition() {
+        reset();
+    }
+
+    /** Clears the values so that the object can be used for the next request */
+    void reset() {
+        deviceId = null;
+        time = 0;
+        lat = Double.NaN;
+        lon = Double.NaN;
+        speed = Float.NaN;
+        heading = Float.NaN;
+        valid = true;
+    }
+
+    /** @return true if the position has what is needed to create an AVL report */
+    boolean isComplete() {
+        return deviceId != null && !deviceId.isEmpty() && valid && !Double.isNaN(lat) && !Double.isNaN(lon);
+    }
+
+    @Override
+    public String toString() {
+        return "TraccarPosition ["
+                + "deviceId=" + deviceId
+                + ", time=" + time
+                + ", lat=" + lat
+                + ", lon=" + lon
+                + ", speed=" + speed
+                + ", heading=" + heading
+                + ", valid=" + valid
+                + "]";
+    }
+}
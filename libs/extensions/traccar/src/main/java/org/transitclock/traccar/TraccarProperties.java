@@ -0,0 +1,36 @@
+/* (C)2023 */
+package org.transitclock.traccar;
+
+import lombok.Data;
+
+@Data
+public class TraccarProperties {
+    // config param: transitclock.traccar.enabled
+    // Whether to listen for positions pushed by trackers using the OsmAnd protocol or forwarded by a Traccar server.
+    private Boolean enabled = false;
+
+    // config param: transitclock.traccar.host
+    // Address to listen on.
+    private String host = "0.0.0.0";
+
+    // config param: transitclock.traccar.httpPort
+    // TCP port for OsmAnd requests and Traccar JSON forwarding over HTTP. 5055 is the port Traccar uses for OsmAnd.
+    private Integer httpPort = 5055;
+
+    // config param: transitclock.traccar.udpPort
+    // UDP port for OsmAnd query strings sent as datagrams. Set to -1 to not listen for UDP.
+    private Integer udpPort = -1;
+
+    // config param: transitclock.traccar.bufferSize
+    // Size in bytes of the buffer for each connection. Requests larger than this are rejected.
+    private Integer bufferSize = 4096;
+
+    // config param: transitclock.traccar.maxPooledBuffers
+    // Maximum number of buffers kept for reuse by new connections.
+    private Integer maxPooledBuffers = 1024;
+
+    // config param: transitclock.traccar.requireTrackerId
+    // If true then positions are only used if there is a VehicleConfig with the device ID as its tracker ID.
+    // Otherwise the device ID is used as the vehicle ID when there is no such VehicleConfig.
+    private Boolean requireTrackerId = false;
+}
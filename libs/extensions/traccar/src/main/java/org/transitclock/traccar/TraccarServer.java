@@ -0,0 +1,534 @@
+/* (C)2023 */
+package org.transitclock.traccar;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.transitclock.utils.threading.NamedThreadFactory;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Listens for positions from trackers, or forwarded by a Traccar server, using non-blocking I/O.
+ * A single selector thread handles all of the connections. Requests are parsed directly from the
+ * connection's buffer, which comes from a pool, and the decoded position is handed to the
+ * PositionHandler on the selector thread. The handler therefore needs to be quick, such as by
+ * queueing the position to be processed.
+ *
+ * <p>HTTP over TCP is used for OsmAnd requests, either GET with a query string or POST with a
+ * form body, and for Traccar JSON forwarding. Connections are kept alive and pipelined requests
+ * are handled. Optionally OsmAnd query strings can also be sent as UDP datagrams, for which there
+ * is no response.
+ */
+@Slf4j
+public class TraccarServer implements AutoCloseable {
+
+    /** What the PositionHandler did with a position */
+    public enum Result {
+        /** Position is being used. Tracker is sent a 200 response. */
+        ACCEPTED,
+        /** Position can't be used, such as for an unknown device. Tracker is sent a 400 response. */
+        REJECTED,
+        /** Too busy to handle the position. Tracker is sent a 429 response so that it retries later. */
+        BUSY
+    }
+
+    /** Called for each position received */
+    public interface PositionHandler {
+        /**
+         * @param position only valid during the call since it is reused
+         * @return what was done with the position
+         */
+        Result handle(TraccarPosition position);
+
+        /** @return for the Retry-After header when BUSY is returned */
+        default int getRetryAfterSecs() {
+            return 1;
+        }
+    }
+
+    private static final ByteBuffer OK_RESPONSE = response("200 OK", false);
+    private static final ByteBuffer BAD_REQUEST_RESPONSE = response("400 Bad Request", false);
+    private static final ByteBuffer TOO_LARGE_RESPONSE = response("413 Payload Too Large", true);
+
+    // Indexed by the Retry-After secs
+    private static final int MAX_RETRY_AFTER_SECS = 60;
+    private static final ByteBuffer[] BUSY_RESPONSES = new ByteBuffer[MAX_RETRY_AFTER_SECS + 1];
+
+    static {
+        for (int secs = 0; secs <= MAX_RETRY_AFTER_SECS; ++secs) {
+            BUSY_RESPONSES[secs] = ByteBuffer.wrap(("HTTP/1.1 429 Too Many Requests\r\nRetry-After: " + secs
+                                    + "\r\nContent-Length: 0\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII))
+                    .asReadOnlyBuffer();
+        }
+    }
+
+    private static final byte[] CONTENT_LENGTH = "content-length:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_TYPE = "content-type:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECTION = "connection:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "close".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON = "json".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_1_0 = "http/1.0".getBytes(StandardCharsets.US_ASCII);
+
+    private final InetSocketAddress httpAddress;
+    private final InetSocketAddress udpAddress;
+    private final PositionHandler handler;
+    private final ByteBufferPool bufferPool;
+
+    // Reused for every request since only the selector thread decodes
+    private final TraccarPosition position = new TraccarPosition();
+
+    private final AtomicLong numAccepted = new AtomicLong();
+    private final AtomicLong numRejected = new AtomicLong();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private DatagramChannel udpChannel;
+    private ByteBuffer udpBuffer;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    /** State of a TCP connection */
+    private static class Connection {
+        final SocketChannel channel;
+        final ByteBuffer in;
+        // Response that couldn't be completely written yet
+        ByteBuffer pendingResponse;
+        boolean closeAfterResponse;
+
+        Connection(SocketChannel channel, ByteBuffer in) {
+            this.channel = channel;
+            this.in = in;
+        }
+    }
+
+    /**
+     * @param httpAddress where to listen for HTTP requests. Port 0 picks a free port.
+     * @param udpAddress where to listen for UDP datagrams. Null to not listen for UDP.
+     * @param bufferSize size of the buffer for each connection, which limits the request size
+     * @param maxPooledBuffers number of buffers of closed connections kept for reuse
+     * @param handler called for each position
+     */
+    public TraccarServer(
+            InetSocketAddress httpAddress,
+            InetSocketAddress udpAddress,
+            int bufferSize,
+            int maxPooledBuffers,
+            PositionHandler handler) {
+        this.httpAddress = httpAddress;
+        this.udpAddress = udpAddress;
+        this.handler = handler;
+        this.bufferPool = new ByteBufferPool(bufferSize, maxPooledBuffers);
+    }
+
+    private static ByteBuffer response(String status, boolean close) {
+        String response = "HTTP/1.1 " + status + "\r\nContent-Length: 0\r\n"
+                + (close ? "Connection: close\r\n" : "") + "\r\n";
+        return ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Binds the ports and starts the selector thread.
+     *
+     * @throws IOException if a port can't be bound
+     */
+    public void start() throws IOException {
+        selector = Selector.open();
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(httpAddress, 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        if (udpAddress != null) {
+            udpChannel = DatagramChannel.open();
+            udpChannel.bind(udpAddress);
+            udpChannel.configureBlocking(false);
+            udpChannel.register(selector, SelectionKey.OP_READ);
+            udpBuffer = bufferPool.acquire();
+        }
+
+        running = true;
+        selectorThread = new NamedThreadFactory("TraccarServer").newThread(this::run);
+        selectorThread.start();
+        logger.info("Listening for Traccar/OsmAnd positions on {} (HTTP) and {} (UDP)",
+                serverChannel.getLocalAddress(),
+                udpChannel != null ? udpChannel.getLocalAddress() : "none");
+    }
+
+    /** @return the port HTTP requests are accepted on. Useful when started with port 0. */
+    public int getHttpPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /** @return the port UDP datagrams are accepted on, or -1 if not listening for UDP */
+    public int getUdpPort() throws IOException {
+        return udpChannel != null ? ((InetSocketAddress) udpChannel.getLocalAddress()).getPort() : -1;
+    }
+
+    /** @return number of positions accepted by the handler */
+    public long getNumAccepted() {
+        return numAccepted.get();
+    }
+
+    /**
+     * @return number of requests that couldn't be decoded or were rejected by the handler or it
+     *     was too busy for
+     */
+    public long getNumRejected() {
+        return numRejected.get();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.channel() == udpChannel) {
+                        receiveDatagrams();
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) read(key, connection);
+                            if (key.isValid() && key.isWritable()) write(key, connection);
+                        } catch (IOException e) {
+                            // Trackers on mobile networks drop connections all the time
+                            logger.debug("Closing connection {}. {}", connection.channel, e.getMessage());
+                            close(key, connection);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (running) logger.error("Exception in Traccar selector loop", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(channel, bufferPool.acquire()));
+        }
+    }
+
+    private void close(SelectionKey key, Connection connection) {
+        key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            logger.debug("Exception closing {}", connection.channel, e);
+        }
+        bufferPool.release(connection.in);
+    }
+
+    private void read(SelectionKey key, Connection connection) throws IOException {
+        if (connection.channel.read(connection.in) < 0) {
+            close(key, connection);
+            return;
+        }
+        processRequests(key, connection);
+    }
+
+    private void write(SelectionKey key, Connection connection) throws IOException {
+        connection.channel.write(connection.pendingResponse);
+        if (connection.pendingResponse.hasRemaining()) return;
+
+        connection.pendingResponse = null;
+        if (connection.closeAfterResponse) {
+            close(key, connection);
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+
+        // Requests pipelined behind the one just responded to
+        processRequests(key, connection);
+    }
+
+    /**
+     * Handles the complete requests in the connection's buffer and then moves what is left of the
+     * buffer, the start of the next request, to the beginning of it.
+     */
+    private void processRequests(SelectionKey key, Connection connection) throws IOException {
+        ByteBuffer in = connection.in;
+        byte[] buf = in.array();
+        int limit = in.position();
+        int start = 0;
+
+        while (connection.pendingResponse == null && !connection.closeAfterResponse) {
+            int headersEnd = indexOfHeadersEnd(buf, start, limit);
+            if (headersEnd < 0) break;
+            int requestEnd = handleRequest(key, connection, buf, start, headersEnd, limit);
+            if (requestEnd < 0) break;
+            start = requestEnd;
+        }
+
+        if (!key.isValid()) return;
+
+        // Keep the partial request for when the rest of it arrives
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, limit - start);
+            in.position(limit - start);
+        }
+
+        // If the buffer is full without a complete request then the
+        // request is too large to ever be handled
+        if (!in.hasRemaining() && connection.pendingResponse == null) {
+            numRejected.incrementAndGet();
+            in.clear();
+            connection.closeAfterResponse = true;
+            respond(key, connection, TOO_LARGE_RESPONSE);
+        }
+    }
+
+    /**
+     * Handles a single HTTP request.
+     *
+     * @param start index of the request line
+     * @param headersEnd index of the blank line at the end of the headers
+     * @param limit index after the last byte read
+     * @return index after the end of the request, or -1 if the whole body hasn't been read yet
+     */
+    private int handleRequest(
+            SelectionKey key, Connection connection, byte[] buf, int start, int headersEnd, int limit)
+            throws IOException {
+        // Request line, such as "GET /?id=123&lat=... HTTP/1.1"
+        int requestLineEnd = indexOf(buf, start, headersEnd, (byte) '\r');
+        if (requestLineEnd < 0) requestLineEnd = headersEnd;
+        int targetStart = indexOf(buf, start, requestLineEnd, (byte) ' ') + 1;
+        int targetEnd = targetStart > 0 ? indexOf(buf, targetStart, requestLineEnd, (byte) ' ') : -1;
+        if (targetStart == 0 || targetEnd < 0) {
+            // Not HTTP so the rest of the connection can't be understood
+            numRejected.incrementAndGet();
+            connection.closeAfterResponse = true;
+            respond(key, connection, BAD_REQUEST_RESPONSE);
+            return limit;
+        }
+        if (regionMatchesIgnoreCase(buf, targetEnd + 1, requestLineEnd, HTTP_1_0))
+            connection.closeAfterResponse = true;
+
+        // Headers. Only need the body length and type.
+        int contentLength = 0;
+        boolean json = false;
+        int lineStart = requestLineEnd + 2;
+        while (lineStart < headersEnd) {
+            int lineEnd = indexOf(buf, lineStart, headersEnd, (byte) '\r');
+            if (lineEnd < 0) lineEnd = headersEnd;
+            if (regionMatchesIgnoreCase(buf, lineStart, lineEnd, CONTENT_LENGTH)) {
+                contentLength = parseContentLength(buf, lineStart + CONTENT_LENGTH.length, lineEnd);
+            } else if (regionMatchesIgnoreCase(buf, lineStart, lineEnd, CONTENT_TYPE)) {
+                json = containsIgnoreCase(buf, lineStart + CONTENT_TYPE.length, lineEnd, JSON);
+            } else if (regionMatchesIgnoreCase(buf, lineStart, lineEnd, CONNECTION)) {
+                if (containsToken(buf, lineStart + CONNECTION.length, lineEnd, CLOSE))
+                    connection.closeAfterResponse = true;
+            }
+            lineStart = lineEnd + 2;
+        }
+
+        if (contentLength < 0) {
+            numRejected.incrementAndGet();
+            connection.closeAfterResponse = true;
+            respond(key, connection, BAD_REQUEST_RESPONSE);
+            return limit;
+        }
+
+        int bodyStart = headersEnd + 4;
+        int bodyEnd = bodyStart + contentLength;
+        if (bodyEnd > limit) {
+            // Haven't got the whole body yet. Reset since the headers
+            // will be looked at again once it has arrived.
+            connection.closeAfterResponse = false;
+            return -1;
+        }
+
+        position.reset();
+        Result result;
+        try {
+            int queryStart = indexOf(buf, targetStart, targetEnd, (byte) '?');
+            if (queryStart >= 0) PositionDecoder.decodeQuery(buf, queryStart + 1, targetEnd, position);
+            if (contentLength > 0) {
+                if (json) PositionDecoder.decodeForwardJson(buf, bodyStart, bodyEnd, position);
+                else PositionDecoder.decodeQuery(buf, bodyStart, bodyEnd, position);
+            }
+            result = handlePosition();
+        } catch (IOException | IllegalArgumentException e) {
+            logger.debug("Could not decode request. {}", e.getMessage());
+            numRejected.incrementAndGet();
+            result = Result.REJECTED;
+        }
+
+        respond(key, connection, switch (result) {
+            case ACCEPTED -> OK_RESPONSE;
+            case REJECTED -> BAD_REQUEST_RESPONSE;
+            case BUSY -> BUSY_RESPONSES[Math.max(0, Math.min(MAX_RETRY_AFTER_SECS, handler.getRetryAfterSecs()))];
+        });
+        return bodyEnd;
+    }
+
+    /** Handles the OsmAnd query strings sent as datagrams */
+    private void receiveDatagrams() throws IOException {
+        while (true) {
+            udpBuffer.clear();
+            if (udpChannel.receive(udpBuffer) == null) return;
+
+            byte[] buf = udpBuffer.array();
+            int start = 0;
+            int end = udpBuffer.position();
+            while (start < end && (buf[start] == '/' || buf[start] == '?')) ++start;
+            while (end > start && (buf[end - 1] == '\n' || buf[end - 1] == '\r')) --end;
+
+            position.reset();
+            try {
+                PositionDecoder.decodeQuery(buf, start, end, position);
+                handlePosition();
+            } catch (IllegalArgumentException e) {
+                logger.debug("Could not decode datagram. {}", e.getMessage());
+                numRejected.incrementAndGet();
+            }
+        }
+    }
+
+    /** @return what the handler did with the position. REJECTED if it wasn't complete. */
+    private Result handlePosition() {
+        if (!position.isComplete()) {
+            logger.debug("Incomplete position {}", position);
+            numRejected.incrementAndGet();
+            return Result.REJECTED;
+        }
+
+        if (position.getTime() == 0) position.setTime(System.currentTimeMillis());
+
+        Result result;
+        try {
+            result = handler.handle(position);
+        } catch (Exception e) {
+            logger.error("Exception handling {}", position, e);
+            result = Result.REJECTED;
+        }
+        if (result == Result.ACCEPTED) numAccepted.incrementAndGet();
+        else numRejected.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Writes the response. The responses are tiny so normally written completely, but if not then
+     * the rest is written when the socket is writable and no further requests are handled until
+     * then.
+     */
+    private void respond(SelectionKey key, Connection connection, ByteBuffer response) throws IOException {
+        ByteBuffer buffer = response.duplicate();
+        connection.channel.write(buffer);
+        if (buffer.hasRemaining()) {
+            connection.pendingResponse = buffer;
+            key.interestOps(SelectionKey.OP_WRITE);
+        } else if (connection.closeAfterResponse) {
+            close(key, connection);
+        }
+    }
+
+    /** @return index of the "\r\n\r\n" that ends the headers, or -1 if not read yet */
+    private static int indexOfHeadersEnd(byte[] buf, int start, int limit) {
+        for (int i = start; i + 3 < limit; ++i) {
+            if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n') return i;
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] buf, int start, int end, byte b) {
+        for (int i = start; i < end; ++i) {
+            if (buf[i] == b) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the length, capped since such a long body wouldn't fit in the buffer anyway. -1 if
+     *     not a valid length.
+     */
+    private static int parseContentLength(byte[] buf, int start, int end) {
+        long length = 0;
+        for (int i = start; i < end; ++i) {
+            byte b = buf[i];
+            if (b == ' ') continue;
+            if (b < '0' || b > '9') return -1;
+            length = length * 10 + (b - '0');
+            if (length > Integer.MAX_VALUE / 2) return Integer.MAX_VALUE / 2;
+        }
+        return (int) length;
+    }
+
+    /** @param lowerCase what to match, in lower case */
+    private static boolean regionMatchesIgnoreCase(byte[] buf, int start, int end, byte[] lowerCase) {
+        if (end - start < lowerCase.length) return false;
+        for (int i = 0; i < lowerCase.length; ++i) {
+            byte b = buf[start + i];
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if (b != lowerCase[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(byte[] buf, int start, int end, byte[] lowerCase) {
+        for (int i = start; i + lowerCase.length <= end; ++i) {
+            if (regionMatchesIgnoreCase(buf, i, end, lowerCase)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param lowerCase the token to look for, in lower case
+     * @return true if the comma separated header value has the token as one of its elements,
+     *     ignoring case and the whitespace around the elements
+     */
+    private static boolean containsToken(byte[] buf, int start, int end, byte[] lowerCase) {
+        int elementStart = start;
+        while (elementStart <= end) {
+            int elementEnd = indexOf(buf, elementStart, end, (byte) ',');
+            if (elementEnd < 0) elementEnd = end;
+
+            int tokenStart = elementStart;
+            int tokenEnd = elementEnd;
+            while (tokenStart < tokenEnd && (buf[tokenStart] == ' ' || buf[tokenStart] == '\t')) ++tokenStart;
+            while (tokenEnd > tokenStart && (buf[tokenEnd - 1] == ' ' || buf[tokenEnd - 1] == '\t')) --tokenEnd;
+            if (tokenEnd - tokenStart == lowerCase.length && regionMatchesIgnoreCase(buf, tokenStart, tokenEnd, lowerCase))
+                return true;
+
+            elementStart = elementEnd + 1;
+        }
+        return false;
+    }
+
+    /** Stops the selector thread and closes all the connections */
+    @Override
+    public void close() throws IOException, InterruptedException {
+        running = false;
+        if (selector == null) return;
+
+        selector.wakeup();
+        selectorThread.join(5000);
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+}
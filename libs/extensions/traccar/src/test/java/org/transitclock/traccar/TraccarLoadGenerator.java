@@ -0,0 +1,135 @@
+package org.transitclock.traccar;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates many trackers sending OsmAnd positions to a TraccarServer so that the number of
+ * messages per second it can handle can be measured. Each simulated connection keeps its socket
+ * open and pipelines a number of requests before reading the responses, like a busy tracker
+ * gateway would.
+ *
+ * <p>Can be run against a running listener with: TraccarLoadGenerator host port connections
+ * seconds
+ */
+public class TraccarLoadGenerator {
+
+    /** What was sent and how long it took */
+    public record Result(long numSent, long numOk, long elapsedMsec) {
+        public double messagesPerSec() {
+            return numOk * 1000.0 / elapsedMsec;
+        }
+    }
+
+    private static final int PIPELINE_DEPTH = 16;
+
+    private static byte[] request(String host, int vehicle, long sequence) {
+        String request = "GET /?id=load" + vehicle
+                + "&timestamp=" + (1700000000L + sequence)
+                + "&lat=" + (38.9 + (sequence % 1000) * 1e-5)
+                + "&lon=-77.0123&speed=12.5&bearing=270 HTTP/1.1\r\n"
+                + "Host: " + host + "\r\n\r\n";
+        return request.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Sends OsmAnd requests over HTTP for the specified time.
+     *
+     * @param connections number of concurrent connections, each with its own thread
+     * @param durationMsec how long to send for
+     * @return the number of requests sent and successfully responded to
+     */
+    public static Result runHttp(String host, int port, int connections, long durationMsec) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(connections);
+        long start = System.currentTimeMillis();
+        long end = start + durationMsec;
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int i = 0; i < connections; ++i) {
+            int vehicle = i;
+            futures.add(executor.submit(() -> runConnection(host, port, vehicle, end)));
+        }
+
+        long numSent = 0;
+        long numOk = 0;
+        for (Future<long[]> future : futures) {
+            long[] counts = future.get();
+            numSent += counts[0];
+            numOk += counts[1];
+        }
+        executor.shutdown();
+        return new Result(numSent, numOk, System.currentTimeMillis() - start);
+    }
+
+    private static long[] runConnection(String host, int port, int vehicle, long end) throws IOException {
+        long numSent = 0;
+        long numOk = 0;
+        ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+            while (System.currentTimeMillis() < end) {
+                // Send a batch of requests before reading the responses
+                for (int i = 0; i < PIPELINE_DEPTH; ++i) {
+                    ByteBuffer out = ByteBuffer.wrap(request(host, vehicle, numSent++));
+                    while (out.hasRemaining()) channel.write(out);
+                }
+
+                int numResponses = 0;
+                while (numResponses < PIPELINE_DEPTH) {
+                    if (channel.read(in) < 0) throw new IOException("Connection closed by server");
+                    in.flip();
+                    // Each response is the status line and headers ending with a blank line
+                    int lineStart = 0;
+                    for (int i = 0; i + 3 < in.limit(); ++i) {
+                        if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                            if (in.get(lineStart + 9) == '2') ++numOk;
+                            ++numResponses;
+                            lineStart = i + 4;
+                            i += 3;
+                        }
+                    }
+                    in.position(lineStart);
+                    in.compact();
+                }
+            }
+        }
+        return new long[] {numSent, numOk};
+    }
+
+    /**
+     * Sends OsmAnd query strings as UDP datagrams. There are no responses so the number received
+     * has to be determined by the server.
+     *
+     * @return the number of datagrams sent
+     */
+    public static long runUdp(String host, int port, int numDatagrams) throws IOException {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            InetSocketAddress address = new InetSocketAddress(host, port);
+            for (int i = 0; i < numDatagrams; ++i) {
+                String query = "id=udp" + (i % 100) + "&timestamp=" + (1700000000L + i) + "&lat=38.9&lon=-77.0";
+                channel.send(ByteBuffer.wrap(query.getBytes(StandardCharsets.US_ASCII)), address);
+            }
+            return numDatagrams;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 5055;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        long seconds = args.length > 3 ? Long.parseLong(args[3]) : 10;
+
+        Result result = runHttp(host, port, connections, TimeUnit.SECONDS.toMillis(seconds));
+        System.out.printf(
+                "Sent %d requests over %d connections in %d msec, %d OK: %.0f messages/sec%n",
+                result.numSent(), connections, result.elapsedMsec(), result.numOk(), result.messagesPerSec());
+    }
+}
@@ -0,0 +1,18 @@
+package org.transitclock.traccar;
+
+import org.junit.jupiter.api.Test;
+import org.transitclock.core.avl.AvlAdmissionController.Decision;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TraccarModuleTest {
+
+    @Test
+    void onlyRejectedPositionsAreToBeSentAgain() {
+        assertThat(TraccarModule.result(Decision.ACCEPT)).isEqualTo(TraccarServer.Result.ACCEPTED);
+        // Shed positions were dropped on purpose so the tracker shouldn't resend them
+        assertThat(TraccarModule.result(Decision.SHED_SCHED_BASED)).isEqualTo(TraccarServer.Result.ACCEPTED);
+        assertThat(TraccarModule.result(Decision.SHED_FREQUENT)).isEqualTo(TraccarServer.Result.ACCEPTED);
+        assertThat(TraccarModule.result(Decision.REJECT)).isEqualTo(TraccarServer.Result.BUSY);
+    }
+}
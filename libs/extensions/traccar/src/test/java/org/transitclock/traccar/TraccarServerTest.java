@@ -0,0 +1,203 @@
+package org.transitclock.traccar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class TraccarServerTest {
+
+    /** Copy of a position, since the one passed to the handler is reused */
+    private record Received(String deviceId, long time, double lat, double lon, float speed, float heading) {}
+
+    private final List<Received> received = Collections.synchronizedList(new ArrayList<>());
+    private TraccarServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new TraccarServer(
+                new InetSocketAddress("localhost", 0), new InetSocketAddress("localhost", 0), 1024, 8, position -> {
+                    received.add(new Received(
+                            position.getDeviceId(),
+                            position.getTime(),
+                            position.getLat(),
+                            position.getLon(),
+                            position.getSpeed(),
+                            position.getHeading()));
+                    return switch (position.getDeviceId()) {
+                        case "unknown" -> TraccarServer.Result.REJECTED;
+                        case "busy" -> TraccarServer.Result.BUSY;
+                        default -> TraccarServer.Result.ACCEPTED;
+                    };
+                });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.close();
+    }
+
+    /** Sends the requests on a single connection and returns what was read back */
+    private String send(String requests, int numResponses) throws IOException {
+        try (Socket socket = new Socket("localhost", server.getHttpPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(requests.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            StringBuilder response = new StringBuilder();
+            byte[] buf = new byte[1024];
+            while (response.toString().split("\r\n\r\n", -1).length <= numResponses) {
+                int n = in.read(buf);
+                if (n < 0) break;
+                response.append(new String(buf, 0, n, StandardCharsets.US_ASCII));
+            }
+            return response.toString();
+        }
+    }
+
+    @Test
+    void osmAndGet() throws IOException {
+        String response = send(
+                "GET /?id=123456&timestamp=1700000000&lat=38.9012&lon=-77.0123&speed=10&bearing=90.5&altitude=20"
+                        + " HTTP/1.1\r\nHost: localhost\r\n\r\n",
+                1);
+
+        assertThat(response).startsWith("HTTP/1.1 200 OK");
+        assertThat(received).hasSize(1);
+        Received position = received.get(0);
+        assertThat(position.deviceId()).isEqualTo("123456");
+        assertThat(position.time()).isEqualTo(1700000000000L);
+        assertThat(position.lat()).isEqualTo(38.9012);
+        assertThat(position.lon()).isEqualTo(-77.0123);
+        assertThat(position.speed()).isCloseTo(5.144f, within(0.001f));
+        assertThat(position.heading()).isEqualTo(90.5f);
+    }
+
+    @Test
+    void osmAndPostFormWithLocationAndIsoTime() throws IOException {
+        String body = "deviceid=abc%20def&location=38.9%2C-77.0&timestamp=2023-11-14T22%3A13%3A20Z";
+        String response = send(
+                "POST / HTTP/1.1\r\nContent-Type: application/x-www-form-urlencoded\r\nContent-Length: "
+                        + body.length() + "\r\n\r\n" + body,
+                1);
+
+        assertThat(response).startsWith("HTTP/1.1 200 OK");
+        assertThat(received).containsExactly(
+                new Received("abc def", 1700000000000L, 38.9, -77.0, Float.NaN, Float.NaN));
+    }
+
+    @Test
+    void traccarForwardJson() throws IOException {
+        String body = """
+                {"position": {"id": 1, "deviceId": 7, "fixTime": "2023-11-14T22:13:20.000+00:00",
+                  "latitude": 38.9, "longitude": -77.0, "speed": 0.0, "course": 180.0,
+                  "attributes": {"battery": 3.9, "motion": false}},
+                 "device": {"id": 7, "name": "Bus 12", "uniqueId": "868123"}}""";
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        String response = send(
+                "POST /forward HTTP/1.1\r\nContent-Type: application/json\r\nContent-Length: " + bodyBytes.length
+                        + "\r\n\r\n" + body,
+                1);
+
+        assertThat(response).startsWith("HTTP/1.1 200 OK");
+        assertThat(received).containsExactly(new Received("868123", 1700000000000L, 38.9, -77.0, 0f, 180f));
+    }
+
+    @Test
+    void pipelinedRequests() throws IOException {
+        StringBuilder requests = new StringBuilder();
+        for (int i = 0; i < 20; ++i) {
+            requests.append("GET /?id=v").append(i).append("&lat=38.9&lon=-77.0 HTTP/1.1\r\n\r\n");
+        }
+
+        String response = send(requests.toString(), 20);
+
+        assertThat(response.split("HTTP/1.1 200 OK", -1)).hasSize(21);
+        assertThat(received).extracting(Received::deviceId).hasSize(20).startsWith("v0").endsWith("v19");
+        assertThat(server.getNumAccepted()).isEqualTo(20);
+    }
+
+    @Test
+    void rejectsIncompleteAndUnknownPositions() throws IOException {
+        String response = send(
+                "GET /?id=v1&lat=38.9 HTTP/1.1\r\n\r\n"
+                        + "GET /?id=v1&lat=abc&lon=-77 HTTP/1.1\r\n\r\n"
+                        + "GET /?id=unknown&lat=38.9&lon=-77.0 HTTP/1.1\r\n\r\n"
+                        + "GET /?id=v1&lat=38.9&lon=-77.0&valid=false HTTP/1.1\r\n\r\n",
+                4);
+
+        assertThat(response.split("HTTP/1.1 400 Bad Request", -1)).hasSize(5);
+        assertThat(server.getNumRejected()).isEqualTo(4);
+        assertThat(server.getNumAccepted()).isZero();
+    }
+
+    @Test
+    void busyHandlerGets429() throws IOException {
+        String response = send("GET /?id=busy&lat=38.9&lon=-77.0 HTTP/1.1\r\n\r\n", 1);
+
+        assertThat(response).startsWith("HTTP/1.1 429 Too Many Requests").contains("Retry-After: 1\r\n");
+        assertThat(server.getNumAccepted()).isZero();
+    }
+
+    @Test
+    void closesConnectionWhenAsked() throws IOException {
+        for (String header : List.of(
+                "Connection: close", "connection:close", "CONNECTION:  Close \t", "Connection: keep-alive, close")) {
+            received.clear();
+            // The second request is never handled since the connection is closed after the first
+            String response = send(
+                    "GET /?id=v1&lat=38.9&lon=-77.0 HTTP/1.1\r\n" + header + "\r\n\r\n"
+                            + "GET /?id=v2&lat=38.9&lon=-77.0 HTTP/1.1\r\n\r\n",
+                    2);
+
+            assertThat(response.split("HTTP/1.1 200 OK", -1)).as(header).hasSize(2);
+            assertThat(received).as(header).extracting(Received::deviceId).containsExactly("v1");
+        }
+    }
+
+    @Test
+    void keepsConnectionOpenWithoutClose() throws IOException {
+        String response = send(
+                "GET /?id=v1&lat=38.9&lon=-77.0 HTTP/1.1\r\nConnection: keep-alive, closed\r\n\r\n"
+                        + "GET /?id=v2&lat=38.9&lon=-77.0 HTTP/1.1\r\n\r\n",
+                2);
+
+        assertThat(response.split("HTTP/1.1 200 OK", -1)).hasSize(3);
+        assertThat(received).extracting(Received::deviceId).containsExactly("v1", "v2");
+    }
+
+    @Test
+    void rejectsRequestTooLargeForBuffer() throws IOException {
+        String response = send("GET /?id=" + "x".repeat(2000) + "&lat=1&lon=2 HTTP/1.1\r\n\r\n", 1);
+
+        assertThat(response).startsWith("HTTP/1.1 413");
+        assertThat(received).isEmpty();
+    }
+
+    @Test
+    void udpDatagrams() throws Exception {
+        TraccarLoadGenerator.runUdp("localhost", server.getUdpPort(), 100);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getNumAccepted() < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // UDP on localhost shouldn't lose any
+        assertThat(server.getNumAccepted()).isEqualTo(100);
+    }
+}
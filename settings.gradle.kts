@@ -20,6 +20,7 @@ pluginManagement {
         id("com.google.protobuf") version "0.9.4"
         id("com.diffplug.spotless") version "6.25.0"
         id("com.github.andygoossens.gradle-modernizer-plugin") version "1.9.2"
+        id("me.champeau.jmh") version "0.7.2"
     }
     repositories {
         mavenCentral()
@@ -33,3 +34,4 @@ rootProject.name = "transitclock"
 include(":libs:util", ":libs:core")
 include(":libs:extensions:api", ":libs:extensions:traccar")
 include(":app")
+include(":benchmarks")